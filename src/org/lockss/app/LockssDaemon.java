@@ -28,6 +28,7 @@ in this Software without prior written authorization from Stanford University.
 package org.lockss.app;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.lang3.*;
 import org.lockss.util.*;
@@ -265,9 +266,10 @@ public class LockssDaemon extends LockssApp {
     new ManagerDesc(NODE_MANAGER, "org.lockss.state.NodeManagerImpl$Factory"),
   };
 
-  // Maps au to sequenced map of managerKey -> manager instance
-  protected HashMap<ArchivalUnit,Map<String,LockssAuManager>> auManagerMaps = 
-      new HashMap<ArchivalUnit,Map<String,LockssAuManager>>();
+  // Maps au to sequenced map of managerKey -> manager instance.
+  // Concurrent because AUs are started in parallel at startup.
+  protected Map<ArchivalUnit,Map<String,LockssAuManager>> auManagerMaps =
+      new ConcurrentHashMap<ArchivalUnit,Map<String,LockssAuManager>>();
 
   // Maps managerKey -> LockssAuManager.Factory instance
   protected HashMap<String,LockssAuManager.Factory> auManagerFactoryMap = 
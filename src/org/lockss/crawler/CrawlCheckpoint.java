@@ -0,0 +1,244 @@
+/*
+
+Copyright (c) 2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+
+package org.lockss.crawler;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.*;
+import java.util.*;
+
+import org.lockss.daemon.ShouldNotHappenException;
+import org.lockss.util.*;
+
+/**
+ * The saved state of an unfinished crawl: its {@link CrawlUrlStore}, the
+ * URLs waiting to be fetched, in order, and the URLs that failed.  A
+ * checkpoint is valid only for crawls with the same key, which should
+ * identify everything (plugin version, crawl rules, depths) that would
+ * make the saved state wrong for a new crawl.  Checkpoints with a
+ * different key, or older than the max age, are deleted when loaded.
+ */
+public class CrawlCheckpoint {
+  static Logger log = Logger.getLogger("CrawlCheckpoint");
+
+  static final int MAGIC = 0x4c434b50;	// "LCKP"
+  static final int VERSION = 1;
+
+  private final File file;
+  private final String key;
+
+  /**
+   * @param file the checkpoint file
+   * @param key identifies the crawl parameters the checkpoint is valid for
+   */
+  public CrawlCheckpoint(File file, String key) {
+    this.file = file;
+    this.key = hashKey(key);
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  public boolean exists() {
+    return file.exists();
+  }
+
+  /** Delete the checkpoint */
+  public void delete() {
+    if (file.exists() && !file.delete()) {
+      log.warning("Couldn't delete crawl checkpoint: " + file);
+    }
+  }
+
+  /** Save the crawl state, replacing any existing checkpoint.
+   * @param store the crawl's URL store
+   * @param pending the URLs waiting to be fetched, in the order they
+   * should be fetched.  Those that aren't views belonging to the store
+   * are interned.
+   * @param failedUrls URLs that failed and shouldn't be retried
+   * @param hiDepth the maximum depth reached so far
+   */
+  public void save(CrawlUrlStore store, Collection<CrawlUrlData> pending,
+		   Collection<String> failedUrls, int hiDepth)
+      throws IOException {
+    int[] ids = new int[pending.size()];
+    int ix = 0;
+    for (CrawlUrlData curl : pending) {
+      ids[ix++] = store.idOf(store.intern(curl));
+    }
+    File tmp = new File(file.getPath() + ".tmp");
+    DataOutputStream out = null;
+    try {
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeUTF(key);
+      out.writeLong(TimeBase.nowMs());
+      out.writeInt(hiDepth);
+      out.writeInt(ids.length);
+      for (int id : ids) {
+	out.writeInt(id);
+      }
+      out.writeInt(failedUrls.size());
+      for (String url : failedUrls) {
+	byte[] b = url.getBytes(StandardCharsets.UTF_8);
+	out.writeInt(b.length);
+	out.write(b);
+      }
+      store.writeTo(out);
+      out.close();
+      out = null;
+      if (!PlatformUtil.updateAtomically(tmp, file)) {
+	throw new IOException("Couldn't rename " + tmp + " to " + file);
+      }
+    } finally {
+      IOUtil.safeClose(out);
+      if (tmp.exists()) {
+	tmp.delete();
+      }
+    }
+  }
+
+  /**
+   * Load the checkpoint into the store, which must be empty.  The pending
+   * URLs are left in state {@link CrawlUrlStore#NONE}, ready to be
+   * queued.  A checkpoint with a different key, or older than maxAge, is
+   * deleted.
+   * @param store the store to load
+   * @param maxAge checkpoints older than this many milliseconds are
+   * ignored; negative means no limit
+   * @return the rest of the crawl state, or null if there's no valid
+   * checkpoint
+   * @throws IOException if the checkpoint can't be read or is malformed,
+   * in which case the store is left empty
+   */
+  public Resumed load(CrawlUrlStore store, long maxAge) throws IOException {
+    if (!file.exists()) {
+      return null;
+    }
+    DataInputStream in =
+      new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    try {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+	log.warning("Unknown crawl checkpoint format, deleting: " + file);
+	delete();
+	return null;
+      }
+      if (!key.equals(in.readUTF())) {
+	log.info("Plugin or crawl parameters changed, discarding crawl checkpoint: "
+		 + file);
+	delete();
+	return null;
+      }
+      long saved = in.readLong();
+      if (maxAge >= 0 && TimeBase.msSince(saved) > maxAge) {
+	log.info("Discarding crawl checkpoint from " +
+		 StringUtil.timeIntervalToString(TimeBase.msSince(saved)) +
+		 " ago: " + file);
+	delete();
+	return null;
+      }
+      Resumed res = new Resumed(saved, in.readInt());
+      int n = checkCount(in.readInt());
+      res.pending = new int[n];
+      for (int ix = 0; ix < n; ix++) {
+	res.pending[ix] = in.readInt();
+      }
+      n = checkCount(in.readInt());
+      res.failedUrls = new ArrayList<String>(Math.min(n, 1000));
+      for (int ix = 0; ix < n; ix++) {
+	byte[] b = new byte[checkCount(in.readInt())];
+	in.readFully(b);
+	res.failedUrls.add(new String(b, StandardCharsets.UTF_8));
+      }
+      store.readFrom(in);
+      for (int id : res.pending) {
+	if (id < 0 || id >= store.size()) {
+	  store.clear();
+	  throw new IOException("Invalid pending URL in crawl checkpoint");
+	}
+      }
+      // Pending URLs will be requeued
+      store.clearState(CrawlUrlStore.QUEUED);
+      return res;
+    } finally {
+      IOUtil.safeClose(in);
+    }
+  }
+
+  private static int checkCount(int n) throws IOException {
+    if (n < 0) {
+      throw new IOException("Invalid count in crawl checkpoint: " + n);
+    }
+    return n;
+  }
+
+  static String hashKey(String key) {
+    try {
+      MessageDigest md = MessageDigest.getInstance("SHA-1");
+      return ByteArray.toHexString(md.digest(key.getBytes(StandardCharsets.UTF_8)));
+    } catch (NoSuchAlgorithmException e) {
+      throw new ShouldNotHappenException("No SHA-1");
+    }
+  }
+
+  /** The crawl state restored from a checkpoint, other than the URL
+   * store */
+  public static class Resumed {
+    private final long saved;
+    private final int hiDepth;
+    private int[] pending;
+    private List<String> failedUrls;
+
+    Resumed(long saved, int hiDepth) {
+      this.saved = saved;
+      this.hiDepth = hiDepth;
+    }
+
+    /** Return the time the checkpoint was saved */
+    public long getSaveTime() {
+      return saved;
+    }
+
+    public int getHiDepth() {
+      return hiDepth;
+    }
+
+    /** Return the store ids of the URLs waiting to be fetched, in order */
+    public int[] getPending() {
+      return pending;
+    }
+
+    public List<String> getFailedUrls() {
+      return failedUrls;
+    }
+  }
+}
@@ -0,0 +1,153 @@
+/*
+
+Copyright (c) 2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+
+package org.lockss.crawler;
+
+import java.util.*;
+
+import org.lockss.util.*;
+
+/**
+ * Tracks which items (AUs) are due for a new content crawl, so the crawl
+ * queue can be built without examining every AU.  Items are either
+ * <i>due</i> (must be considered at each queue rebuild), <i>waiting</i>
+ * until a known due time, or <i>pending</i> (state changed, must be
+ * re-examined by the caller, who then calls {@link #setDue(Object)} or
+ * {@link #setDueAt(Object, long)}).  Items whose due time passes become
+ * due; waiting items are held in a priority queue so that finding them
+ * costs O(log n) each.
+ */
+class CrawlDueIndex<K> {
+  static Logger log = Logger.getLogger("CrawlDueIndex");
+
+  private Set<K> due = new HashSet<K>();
+  private Set<K> pending = new LinkedHashSet<K>();
+  // Current due time of each waiting item.  Queue entries whose time
+  // doesn't match are stale and are discarded when they reach the head.
+  private Map<K,Long> waiting = new HashMap<K,Long>();
+  private java.util.PriorityQueue<Wait<K>> waitQueue =
+    new java.util.PriorityQueue<Wait<K>>();
+
+  /** Record that the item is due now. */
+  synchronized void setDue(K key) {
+    pending.remove(key);
+    waiting.remove(key);
+    due.add(key);
+  }
+
+  /** Record that the item won't be due until dueTime. */
+  synchronized void setDueAt(K key, long dueTime) {
+    pending.remove(key);
+    due.remove(key);
+    waiting.put(key, dueTime);
+    waitQueue.add(new Wait<K>(key, dueTime));
+  }
+
+  /** Mark the item as needing to be re-examined.  It keeps its current
+   * state until then. */
+  synchronized void recheck(K key) {
+    pending.add(key);
+  }
+
+  /** Forget the item. */
+  synchronized void remove(K key) {
+    pending.remove(key);
+    due.remove(key);
+    waiting.remove(key);
+  }
+
+  /** Forget all items. */
+  synchronized void clear() {
+    pending.clear();
+    due.clear();
+    waiting.clear();
+    waitQueue.clear();
+  }
+
+  /** Move items whose due time has passed to the due set, then return and
+   * forget the pending items. */
+  synchronized List<K> takePending(long now) {
+    Wait<K> w;
+    while ((w = waitQueue.peek()) != null && w.time <= now) {
+      waitQueue.poll();
+      Long cur = waiting.get(w.key);
+      if (cur != null && cur.longValue() == w.time) {
+	waiting.remove(w.key);
+	due.add(w.key);
+      }
+    }
+    List<K> res = new ArrayList<K>(pending);
+    pending.clear();
+    return res;
+  }
+
+  /** Return a snapshot of the due items. */
+  synchronized List<K> getDue() {
+    return new ArrayList<K>(due);
+  }
+
+  synchronized boolean isDue(K key) {
+    return due.contains(key);
+  }
+
+  synchronized boolean isPending(K key) {
+    return pending.contains(key);
+  }
+
+  /** Return the time at which the waiting item will be due, or -1 if it
+   * isn't waiting. */
+  synchronized long getDueTime(K key) {
+    Long res = waiting.get(key);
+    return res != null ? res.longValue() : -1;
+  }
+
+  /** Return the number of due items. */
+  synchronized int dueCount() {
+    return due.size();
+  }
+
+  /** Return the number of items with a known state. */
+  synchronized int size() {
+    return due.size() + waiting.size();
+  }
+
+  static class Wait<K> implements Comparable<Wait<K>> {
+    final K key;
+    final long time;
+
+    Wait(K key, long time) {
+      this.key = key;
+      this.time = time;
+    }
+
+    public int compareTo(Wait<K> other) {
+      return Long.compare(time, other.time);
+    }
+  }
+}
@@ -47,6 +47,7 @@ import org.lockss.app.*;
 import org.lockss.alert.*;
 import org.lockss.state.*;
 import org.lockss.plugin.*;
+import org.lockss.plugin.base.BaseArchivalUnit;
 import org.lockss.plugin.exploded.*;
 import org.lockss.plugin.AuEvent;
 
@@ -159,6 +160,26 @@ public class CrawlManagerImpl extends BaseLockssDaemonManager
     ODC_PREFIX + "queueEmptySleep";
   static final long DEFAULT_QUEUE_EMPTY_SLEEP = 15 * Constants.MINUTE;
 
+  /** If true, the crawl queue is built from an index of AUs that are due
+   * for a new content crawl, maintained as crawls finish and AUs are
+   * added, removed or reconfigured.  If false, every AU is examined each
+   * time the queue is rebuilt. */
+  public static final String PARAM_USE_CRAWL_DUE_INDEX =
+    ODC_PREFIX + "useDueIndex";
+  static final boolean DEFAULT_USE_CRAWL_DUE_INDEX = true;
+
+  /** Interval at which every AU's entry in the crawl due index is
+   * recomputed, to pick up changes not signalled by an event. */
+  public static final String PARAM_DUE_INDEX_REFRESH_INTERVAL =
+    ODC_PREFIX + "dueIndexRefreshInterval";
+  static final long DEFAULT_DUE_INDEX_REFRESH_INTERVAL = Constants.DAY;
+
+  /** Interval after which AUs that can't currently be crawled (<i>eg</i>,
+   * because the publisher is down) are checked again. */
+  public static final String PARAM_DUE_INDEX_RECHECK_INTERVAL =
+    ODC_PREFIX + "dueIndexRecheckInterval";
+  static final long DEFAULT_DUE_INDEX_RECHECK_INTERVAL = Constants.HOUR;
+
   /** Size of queue of unshared rate AUs. */
   public static final String PARAM_UNSHARED_QUEUE_MAX =
     ODC_PREFIX + "unsharedQueueMax";
@@ -407,6 +428,10 @@ public class CrawlManagerImpl extends BaseLockssDaemonManager
 	@Override public void auCreated(AuEvent event, ArchivalUnit au) {
 	  auEventCreated(event, au);
 	}
+	@Override public void auReconfigured(AuEvent event, ArchivalUnit au,
+					     Configuration oldAuConf) {
+	  dueIndex.recheck(au);
+	}
       };
     pluginMgr.registerAuEventHandler(auCreateDestroyHandler);
 
@@ -527,6 +552,15 @@ public class CrawlManagerImpl extends BaseLockssDaemonManager
       paramRebuildCrawlQueueInterval =
 	config.getTimeInterval(PARAM_REBUILD_CRAWL_QUEUE_INTERVAL,
 			       DEFAULT_REBUILD_CRAWL_QUEUE_INTERVAL);
+      paramUseCrawlDueIndex =
+	config.getBoolean(PARAM_USE_CRAWL_DUE_INDEX,
+			  DEFAULT_USE_CRAWL_DUE_INDEX);
+      paramDueIndexRefreshInterval =
+	config.getTimeInterval(PARAM_DUE_INDEX_REFRESH_INTERVAL,
+			       DEFAULT_DUE_INDEX_REFRESH_INTERVAL);
+      paramDueIndexRecheckInterval =
+	config.getTimeInterval(PARAM_DUE_INDEX_RECHECK_INTERVAL,
+			       DEFAULT_DUE_INDEX_RECHECK_INTERVAL);
       paramMinWindowOpenFor =
 	config.getTimeInterval(PARAM_MIN_WINDOW_OPEN_FOR,
 			       DEFAULT_MIN_WINDOW_OPEN_FOR);
@@ -902,6 +936,8 @@ public class CrawlManagerImpl extends BaseLockssDaemonManager
 	}
 	if (crawler.isWholeAU()) {
 	  setRunningNCCrawl(au, false);
+	  // Crawl updated AuState; recompute when AU is next due
+	  dueIndex.recheck(au);
 	  startOneWait.expire();
 	}      
       }
@@ -951,6 +987,7 @@ public class CrawlManagerImpl extends BaseLockssDaemonManager
     default:
       removeAuFromQueues(au);
     }
+    dueIndex.remove(au);
     abortAuCrawls0(au);
     // Notify CrawlerStatus objects to discard any pointer to this AU
     for (CrawlerStatus status : cmStatus.getCrawlerStatusList()) {
@@ -987,6 +1024,7 @@ public class CrawlManagerImpl extends BaseLockssDaemonManager
       logger.debug2("Refresh: " + au + ", " + AuUtil.getAuState(au));
       req.refresh(au, AuUtil.getAuState(au));
     }
+    dueIndex.recheck(au);
 
     rebuildQueueSoon();
   }
@@ -1701,7 +1739,16 @@ public class CrawlManagerImpl extends BaseLockssDaemonManager
   double paramCrawlRateMultiplier = DEFAULT_CRAWL_RATE_MULTIPLIER;
   CrawlOrder paramCrawlOrder = DEFAULT_CRAWL_ORDER;
 
+  boolean paramUseCrawlDueIndex = DEFAULT_USE_CRAWL_DUE_INDEX;
+  long paramDueIndexRefreshInterval = DEFAULT_DUE_INDEX_REFRESH_INTERVAL;
+  long paramDueIndexRecheckInterval = DEFAULT_DUE_INDEX_RECHECK_INTERVAL;
+
   Deadline timeToRebuildCrawlQueue = Deadline.in(0);
+  Deadline timeToRefreshDueIndex = Deadline.at(0);
+  CrawlDueIndex<ArchivalUnit> dueIndex = new CrawlDueIndex<ArchivalUnit>();
+  // AU classes known to use BaseArchivalUnit's crawl schedule
+  Map<Class,Boolean> defaultScheduleClasses =
+    Collections.synchronizedMap(new HashMap<Class,Boolean>());
   Deadline startOneWait = Deadline.in(0);
   Map<String,CrawlReq> highPriorityCrawlRequests = new ListOrderedMap();
   Comparator CPC = new CrawlPriorityComparator();
@@ -1939,9 +1986,15 @@ public class CrawlManagerImpl extends BaseLockssDaemonManager
       unsharedRateReqs.clear();
       unsharedRateReqs.setMaxSize(paramUnsharedQueueMax);
       sharedRateReqs.clear();
-      for (ArchivalUnit au : (areAusStarted()
-			      ? pluginMgr.getAllAus()
-			      : getHighPriorityAus())) {
+      Collection<ArchivalUnit> candidates;
+      if (!areAusStarted()) {
+	candidates = getHighPriorityAus();
+      } else if (paramUseCrawlDueIndex) {
+	candidates = getDueAus();
+      } else {
+	candidates = pluginMgr.getAllAus();
+      }
+      for (ArchivalUnit au : candidates) {
 	try {
 	  CrawlReq req;
 	  synchronized (highPriorityCrawlRequests) {
@@ -1951,7 +2004,12 @@ public class CrawlManagerImpl extends BaseLockssDaemonManager
 	      continue;
 	    }
 	  }
-	  if ((req != null || shouldCrawlForNewContent(au))) {
+	  boolean want = req != null || shouldCrawlForNewContent(au);
+	  if (!want && paramUseCrawlDueIndex) {
+	    // Index thought it was due; recompute its due time
+	    dueIndex.recheck(au);
+	  }
+	  if (want) {
 	    ausWantCrawl++;
 	    if (isEligibleForNewContentCrawl(au)) {
 	      if (req == null) {
@@ -1989,6 +2047,95 @@ public class CrawlManagerImpl extends BaseLockssDaemonManager
     cmStatus.setEligibleCount(ausEligibleCrawl);
   }
 
+  /**
+   * Bring the due index up to date and return the AUs that may want a new
+   * content crawl: those due according to the index, plus those with
+   * high priority requests.  All AUs are re-examined when a full refresh
+   * is due.
+   */
+  Collection<ArchivalUnit> getDueAus() {
+    long now = TimeBase.nowMs();
+    if (timeToRefreshDueIndex.expired()) {
+      timeToRefreshDueIndex.expireIn(paramDueIndexRefreshInterval);
+      dueIndex.clear();
+      for (ArchivalUnit au : pluginMgr.getAllAus()) {
+	indexAu(au, now);
+      }
+      logger.debug("Rebuilt crawl due index: " + dueIndex.dueCount() +
+		   " of " + dueIndex.size() + " AUs due");
+    } else {
+      for (ArchivalUnit au : dueIndex.takePending(now)) {
+	indexAu(au, now);
+      }
+    }
+    Set<ArchivalUnit> res = new LinkedHashSet<ArchivalUnit>(dueIndex.getDue());
+    res.addAll(getHighPriorityAus());
+    return res;
+  }
+
+  /** Recompute the AU's state in the due index */
+  void indexAu(ArchivalUnit au, long now) {
+    if (!pluginMgr.isActiveAu(au)) {
+      dueIndex.remove(au);
+      return;
+    }
+    try {
+      long due = nextNewContentCrawlTime(au, now);
+      if (due <= now) {
+	dueIndex.setDue(au);
+      } else {
+	dueIndex.setDueAt(au, due);
+      }
+    } catch (RuntimeException e) {
+      logger.warning("Checking for crawlworthiness: " + au.getName(), e);
+      // Fall back to examining it each time
+      dueIndex.setDue(au);
+    }
+  }
+
+  /**
+   * Return the time at which the AU will next want a new content crawl,
+   * or a time <= now if it might want one now.  Predictable only for AUs
+   * that use {@link BaseArchivalUnit#shouldCrawlForNewContent(AuState)};
+   * others are treated as always due, so are examined at each rebuild.
+   */
+  long nextNewContentCrawlTime(ArchivalUnit au, long now) {
+    if (!hasDefaultCrawlSchedule(au)) {
+      return now;
+    }
+    if (AuUtil.isPubDown(au)) {
+      return now + paramDueIndexRecheckInterval;
+    }
+    AuState aus = AuUtil.getAuState(au);
+    long intv = au.getProperties()
+      .getLong(ArchivalUnit.KEY_AU_NEW_CONTENT_CRAWL_INTERVAL, -1);
+    if (!aus.hasCrawled() || intv < 0) {
+      return now;
+    }
+    // shouldCrawlForNewContent() is true once strictly more than the
+    // interval has elapsed
+    return aus.getLastCrawlTime() + intv + 1;
+  }
+
+  boolean hasDefaultCrawlSchedule(ArchivalUnit au) {
+    return hasDefaultCrawlSchedule(au.getClass());
+  }
+
+  boolean hasDefaultCrawlSchedule(Class cls) {
+    Boolean res = defaultScheduleClasses.get(cls);
+    if (res == null) {
+      try {
+	res = BaseArchivalUnit.class ==
+	  cls.getMethod("shouldCrawlForNewContent", AuState.class)
+	  .getDeclaringClass();
+      } catch (NoSuchMethodException e) {
+	res = false;
+      }
+      defaultScheduleClasses.put(cls, res);
+    }
+    return res;
+  }
+
   void incrPoolEligible(String pool) {
     MutableInt n = poolEligible.get(pool);
     if (n == null) {
@@ -37,6 +37,7 @@ import java.io.*;
 import java.text.*;
 
 import org.apache.commons.collections.Buffer;
+import org.apache.commons.collections.BufferUnderflowException;
 import org.apache.commons.collections.buffer.*;
 import org.lockss.util.*;
 
@@ -47,12 +48,18 @@ import org.lockss.util.*;
  * the urls are sorted first by depth then alphabetically, resulting in a
  * breadth-first crawl.  The comparator should never return 0; if it does
  * the results are undefined.
+ *
+ * <p>If created with a {@link CrawlUrlStore}, queue membership is recorded
+ * in the store rather than in a map, elements are returned as views of
+ * their store entries, and a breadth-first queue holds only entry ids.
  */
 public class CrawlQueue {
   static Logger log = Logger.getLogger("CrawlQueue");
 
   Buffer sorted;
   Map<String,CrawlUrlData> map;
+  CrawlUrlStore store;
+  IdFifo ids;
 
   /** Create a CrawlQueue that sorts {@link CrawlUrlData} objects (viewed
    * as {@link CrawlUrl}) by the specified comparator.
@@ -70,11 +77,32 @@ public class CrawlQueue {
     map = new HashMap<String,CrawlUrlData>();
   }
 
+  /** Create a CrawlQueue that records its elements in a {@link
+   * CrawlUrlStore}.
+   * @param comparator as above
+   * @param store the store in which the crawl's URLs are kept
+   */
+  public CrawlQueue(Comparator<CrawlUrl> comparator, CrawlUrlStore store) {
+    if (store == null) {
+      throw new NullPointerException("store");
+    }
+    this.store = store;
+    if (comparator == null) {
+      ids = new IdFifo();
+    } else {
+      sorted = new PriorityBuffer(comparator);
+    }
+  }
+
   /** Add CrawlUrlData to the queue.
    * @throws IllegalArgumentException if the CrawlUrlData is already in the
    * queue
    */
   public void add(CrawlUrlData curl) {
+    if (store != null) {
+      addToStore(curl);
+      return;
+    }
     String url = curl.getUrl();
     if (map.containsKey(url)) {
       throw new IllegalArgumentException("Illegal to replace entry: " + url);
@@ -89,39 +117,148 @@ public class CrawlQueue {
     }
   }
 
+  private void addToStore(CrawlUrlData curl) {
+    if (store.getState(curl) == CrawlUrlStore.QUEUED) {
+      throw new IllegalArgumentException("Illegal to replace entry: " +
+					 curl.getUrl());
+    }
+    curl = store.setState(curl, CrawlUrlStore.QUEUED);
+    if (ids != null) {
+      ids.add(store.idOf(curl));
+    } else {
+      int size = sorted.size();
+      sorted.add(curl);
+      if (sorted.size() != size + 1) {
+	log.error("Adding " + curl +
+		  " didn't increase size of crawl queue; "
+		  + "CrawlUrlComparator must have returned zero");
+      }
+    }
+  }
+
   /** Return the first CrawlUrlData in the queue */
   public CrawlUrlData first() {
+    if (ids != null) {
+      if (ids.isEmpty()) {
+	throw new BufferUnderflowException();
+      }
+      return store.get(ids.peek());
+    }
     return (CrawlUrlData)sorted.get();
   }
 
   /** For unit tests */
   Collection<CrawlUrlData> asList() {
+    if (ids != null) {
+      List<CrawlUrlData> res = new ArrayList<CrawlUrlData>();
+      for (int ix = 0; ix < ids.size(); ix++) {
+	res.add(store.get(ids.get(ix)));
+      }
+      return res;
+    }
     return new ArrayList(sorted);
   }
 
   /** Remove the first CrawlUrlData from the queue and return it */
   public CrawlUrlData remove() {
-    CrawlUrlData res = (CrawlUrlData)sorted.remove();
-    map.remove(res.getUrl());
+    CrawlUrlData res;
+    if (ids != null) {
+      if (ids.isEmpty()) {
+	throw new BufferUnderflowException();
+      }
+      res = store.get(ids.remove());
+    } else {
+      res = (CrawlUrlData)sorted.remove();
+    }
+    if (store != null) {
+      store.setState(res, CrawlUrlStore.NONE);
+    } else {
+      map.remove(res.getUrl());
+    }
     return res;
   }
 
   /** Retun the CrawlUrlData corresponding to the URL */
   public CrawlUrlData get(String url) {
+    if (store != null) {
+      int id = store.find(url);
+      if (id < 0 || store.getState(id) != CrawlUrlStore.QUEUED) {
+	return null;
+      }
+      return store.get(id);
+    }
     return map.get(url);
   }
 
   /** Return the number of elements in the queue */
   public int size() {
-    return sorted.size();
+    return ids != null ? ids.size() : sorted.size();
   }
 
   public boolean isEmpty() {
-    return map.isEmpty();
+    return size() == 0;
+  }
+
+  /** Return the approximate amount of heap used by the queue, excluding
+   * the store (if any). */
+  public long getMemoryUsage() {
+    if (ids != null) {
+      return ids.getMemoryUsage();
+    }
+    // Map entry, buffer slot and element with its URL
+    long perEntry = (map != null ? 48 : 0) + 8 + 64;
+    return perEntry * sorted.size();
   }
 
   public String toString() {
-    return "[" + StringUtil.separatedString(sorted, ", ") + "]";
+    return "[" + StringUtil.separatedString(asList(), ", ") + "]";
+  }
+
+  /** FIFO of store entry ids in a circular array */
+  static class IdFifo {
+    private int[] elements = new int[16];
+    private int head = 0;
+    private int size = 0;
+
+    void add(int id) {
+      if (size == elements.length) {
+	int[] newElements = new int[size * 2];
+	int n = elements.length - head;
+	System.arraycopy(elements, head, newElements, 0, n);
+	System.arraycopy(elements, 0, newElements, n, head);
+	elements = newElements;
+	head = 0;
+      }
+      elements[(head + size) % elements.length] = id;
+      size++;
+    }
+
+    int peek() {
+      return elements[head];
+    }
+
+    int remove() {
+      int res = elements[head];
+      head = (head + 1) % elements.length;
+      size--;
+      return res;
+    }
+
+    int get(int ix) {
+      return elements[(head + ix) % elements.length];
+    }
+
+    int size() {
+      return size;
+    }
+
+    boolean isEmpty() {
+      return size == 0;
+    }
+
+    long getMemoryUsage() {
+      return 4L * elements.length;
+    }
   }
 
   /** A comparator that implements a breadth-first crawl where, at each
@@ -58,6 +58,12 @@ public class CrawlUrlData implements CrawlUrl {
     this.depth = depth;
   }
 
+  /** For subclasses that keep the URL and its state elsewhere; they must
+   * override all the accessors. */
+  protected CrawlUrlData() {
+    this.url = null;
+  }
+
   /** Return the URL */
   public String getUrl() {
     return url;
@@ -78,52 +84,50 @@ public class CrawlUrlData implements CrawlUrl {
     return referrerUrl;
   }
 
-  public boolean isFetched() {
-    return (flags & IS_FETCHED) != 0;
+  /** Return the IS_XXX flags */
+  protected int getFlags() {
+    return flags;
   }
 
-  public void setFetched(boolean val) {
+  /** Set or clear an IS_XXX flag */
+  protected void setFlag(int flag, boolean val) {
     if (val) {
-      flags |= IS_FETCHED;
+      flags |= flag;
     } else {
-      flags &= ~IS_FETCHED;
+      flags &= ~flag;
     }
   }
 
+  public boolean isFetched() {
+    return (getFlags() & IS_FETCHED) != 0;
+  }
+
+  public void setFetched(boolean val) {
+    setFlag(IS_FETCHED, val);
+  }
+
   public boolean isFailedFetch() {
-    return (flags & IS_FAILED_FETCH) != 0;
+    return (getFlags() & IS_FAILED_FETCH) != 0;
   }
 
   public void setFailedFetch(boolean val) {
-    if (val) {
-      flags |= IS_FAILED_FETCH;
-    } else {
-      flags &= ~IS_FAILED_FETCH;
-    }
+    setFlag(IS_FAILED_FETCH, val);
   }
 
   public boolean isFailedParse() {
-    return (flags & IS_FAILED_PARSE) != 0;
+    return (getFlags() & IS_FAILED_PARSE) != 0;
   }
 
   public void setFailedParse(boolean val) {
-    if (val) {
-      flags |= IS_FAILED_PARSE;
-    } else {
-      flags &= ~IS_FAILED_PARSE;
-    }
+    setFlag(IS_FAILED_PARSE, val);
   }
 
   public boolean isStartUrl() {
-    return (flags & IS_START_URL) != 0;
+    return (getFlags() & IS_START_URL) != 0;
   }
 
   public void setStartUrl(boolean val) {
-    if (val) {
-      flags |= IS_START_URL;
-    } else {
-      flags &= ~IS_START_URL;
-    }
+    setFlag(IS_START_URL, val);
   }
 
   /** If this is a new minimum depth, record it and return true, else
@@ -135,7 +139,7 @@ public class CrawlUrlData implements CrawlUrl {
   /** If this is a new minimum depth, record it and return true, else
    * return false. Call the ReducedDepthHandler on this or any descendant
    * whose depth is reduced. */
-  private boolean encounteredAtDepth(int n, ReducedDepthHandler rdh) {
+  protected boolean encounteredAtDepth(int n, ReducedDepthHandler rdh) {
     if (n < 0) throw new IllegalArgumentException();
     if (n < depth) {
       int olddepth = depth;
@@ -198,13 +202,13 @@ public class CrawlUrlData implements CrawlUrl {
     sb.append(getDepth());
     sb.append(", ");
     sb.append(getUrl());
-    if (flags != 0) {
+    if (getFlags() != 0) {
       sb.append(", f=");
-      sb.append(flags);
+      sb.append(getFlags());
     }
-    if (referrerUrl != null) {
+    if (getReferrer() != null) {
       sb.append(", r=");
-      sb.append(referrerUrl);
+      sb.append(getReferrer());
     }
     sb.append("]");
     return sb.toString();
@@ -0,0 +1,816 @@
+/*
+
+Copyright (c) 2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+
+package org.lockss.crawler;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import org.lockss.util.*;
+
+/**
+ * Compact record of the URLs known to a crawl, their minimum depth,
+ * {@link CrawlUrlData} flags, referrer and children, and whether they're
+ * queued, processed or beyond the max crawl depth.  Each URL is assigned
+ * an int id that indexes a set of parallel primitive arrays.  URLs are
+ * split after the last slash in the path; the directory prefixes are
+ * shared and the remainders are stored as UTF-8 in a chunked byte arena.
+ * If a spill threshold is set, arena chunks beyond it are written to a
+ * temp file and read back on demand.  Not synchronized.
+ *
+ * <p>{@link CrawlUrlData}s handed out by the store are transient views of
+ * an entry; any number of them may exist for a URL, and all see the same
+ * state.
+ */
+public class CrawlUrlStore {
+  static Logger log = Logger.getLogger("CrawlUrlStore");
+
+  /** Not in any of the states below (new, or being fetched/parsed) */
+  public static final int NONE = 0;
+  /** In the fetch queue */
+  public static final int QUEUED = 0x10;
+  /** Fetched (or skipped) and parsed */
+  public static final int PROCESSED = 0x20;
+  /** Found beyond the max crawl depth */
+  public static final int TOO_DEEP = 0x30;
+
+  static final int STATE_MASK = 0x30;
+  static final int STATE_SHIFT = 4;
+  static final int FLAG_MASK = 0x0f;
+
+  static final int CHUNK_SHIFT = 16;
+  static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+  static final int CHUNK_MASK = CHUNK_SIZE - 1;
+  /** Number of spilled chunks kept in memory once read back */
+  static final int SPILL_CACHE_CHUNKS = 8;
+
+  static final int INITIAL_CAPACITY = 64;
+  // Approximate size of a prefix String and its map entry, excluding chars
+  static final int PREFIX_OVERHEAD = 96;
+  // Depth of entries created only as referrers or children
+  static final int UNKNOWN_DEPTH = Integer.MAX_VALUE;
+
+  private Map<String,Integer> prefixIds;
+  private List<String> prefixes;
+  private long prefixChars;
+
+  private int size;
+  private int[] prefixOf;
+  // The remainder of URL id is in the arena at [offsets[id], offsets[id+1])
+  private int[] offsets;
+  private int[] hashes;
+  private int[] depths;
+  private int[] referrers;
+  private int[] childStart;
+  private int[] childCount;
+  private byte[] flags;
+  // Open addressing hash table of id + 1; 0 is empty
+  private int[] table;
+  private int[] stateCounts;
+
+  // Each URL's children are a contiguous run in this array
+  private int[] children;
+  private int childLen;
+
+  private byte[][] chunks;
+  private int numChunks;
+  private int arenaLen;
+
+  private long spillThreshold = -1;
+  private int spilledChunks = 0;
+  private File spillFile;
+  private RandomAccessFile spillRaf;
+  private Map<Integer,byte[]> spillCache;
+
+  public CrawlUrlStore() {
+    init();
+  }
+
+  private void init() {
+    prefixIds = new HashMap<String,Integer>();
+    prefixes = new ArrayList<String>();
+    prefixChars = 0;
+    size = 0;
+    stateCounts = new int[4];
+    children = new int[INITIAL_CAPACITY];
+    childLen = 0;
+    chunks = new byte[4][];
+    numChunks = 0;
+    arenaLen = 0;
+    prefixOf = new int[INITIAL_CAPACITY];
+    offsets = new int[INITIAL_CAPACITY + 1];
+    hashes = new int[INITIAL_CAPACITY];
+    depths = new int[INITIAL_CAPACITY];
+    referrers = new int[INITIAL_CAPACITY];
+    childStart = new int[INITIAL_CAPACITY];
+    childCount = new int[INITIAL_CAPACITY];
+    flags = new byte[INITIAL_CAPACITY];
+    table = new int[INITIAL_CAPACITY * 2];
+  }
+
+  /** Set the amount of URL text kept in memory, beyond which the oldest
+   * is written to a temp file.
+   * @param bytes the threshold, or -1 to keep everything in memory
+   */
+  public void setSpillThreshold(long bytes) {
+    spillThreshold = bytes;
+    maybeSpill();
+  }
+
+  /** Return the number of URLs in the store */
+  public int size() {
+    return size;
+  }
+
+  /** Return the number of URLs in the state */
+  public int count(int state) {
+    return stateCounts[state >> STATE_SHIFT];
+  }
+
+  /** Return the id of the URL, or -1 if it isn't in the store */
+  public int find(String url) {
+    int h = url.hashCode();
+    int mask = table.length - 1;
+    for (int ix = mix(h) & mask; ; ix = (ix + 1) & mask) {
+      int e = table[ix];
+      if (e == 0) {
+	return -1;
+      }
+      if (hashes[e - 1] == h && urlEquals(e - 1, url)) {
+	return e - 1;
+      }
+    }
+  }
+
+  /** Return a view of the entry */
+  public CrawlUrlData get(int id) {
+    checkId(id);
+    return new StoredCrawlUrl(id, null);
+  }
+
+  /** Return a view of the URL's entry, or null if it isn't in the
+   * store */
+  public CrawlUrlData get(String url) {
+    int id = find(url);
+    return id < 0 ? null : new StoredCrawlUrl(id, url);
+  }
+
+  /** Return a view of the entry for the CrawlUrlData's URL, copying its
+   * depth, flags and referrer into the entry and discarding any children
+   * the entry had.  Views belonging to this store are returned unchanged.
+   */
+  public CrawlUrlData intern(CrawlUrlData curl) {
+    if (idOf(curl) >= 0) {
+      return curl;
+    }
+    String url = curl.getUrl();
+    int id = findOrAdd(url);
+    copyFrom(id, curl);
+    clearChildren(id);
+    return new StoredCrawlUrl(id, url);
+  }
+
+  /** Return the state of the entry */
+  public int getState(int id) {
+    return flags[id] & STATE_MASK;
+  }
+
+  /** Return the state of the URL, NONE if it isn't in the store */
+  public int getState(String url) {
+    int id = find(url);
+    return id < 0 ? NONE : getState(id);
+  }
+
+  /** Return the state of the CrawlUrlData's URL */
+  public int getState(CrawlUrlData curl) {
+    int id = idOf(curl);
+    return id >= 0 ? getState(id) : getState(curl.getUrl());
+  }
+
+  /** Set the state of the CrawlUrlData's URL, interning it if it isn't
+   * a view belonging to this store.
+   * @return the view
+   */
+  public CrawlUrlData setState(CrawlUrlData curl, int state) {
+    CrawlUrlData res = intern(curl);
+    setState(idOf(res), state);
+    return res;
+  }
+
+  void setState(int id, int state) {
+    int old = flags[id] & STATE_MASK;
+    stateCounts[old >> STATE_SHIFT]--;
+    stateCounts[state >> STATE_SHIFT]++;
+    flags[id] = (byte)((flags[id] & ~STATE_MASK) | state);
+  }
+
+  /** Reset all entries in the state to NONE */
+  public void clearState(int state) {
+    if (count(state) == 0) {
+      return;
+    }
+    for (int id = 0; id < size; id++) {
+      if (getState(id) == state) {
+	setState(id, NONE);
+      }
+    }
+  }
+
+  /** Return the URLs in the state */
+  public List<String> getUrls(int state) {
+    List<String> res = new ArrayList<String>();
+    for (int id = 0; id < size; id++) {
+      if (getState(id) == state) {
+	res.add(getUrl(id));
+      }
+    }
+    return res;
+  }
+
+  /** Return the URL of the entry */
+  public String getUrl(int id) {
+    checkId(id);
+    String prefix = prefixes.get(prefixOf[id]);
+    int off = offsets[id];
+    int len = offsets[id + 1] - off;
+    if (len == 0) {
+      return prefix;
+    }
+    byte[] buf = new byte[len];
+    readBytes(off, buf);
+    return prefix + new String(buf, StandardCharsets.UTF_8);
+  }
+
+  /** Return the approximate amount of heap used by the store */
+  public long getMemoryUsage() {
+    long res = 4L * (prefixOf.length + offsets.length + hashes.length
+		     + depths.length + referrers.length + childStart.length
+		     + childCount.length + table.length + children.length);
+    res += flags.length;
+    res += (long)(numChunks - spilledChunks) * CHUNK_SIZE;
+    if (spillCache != null) {
+      res += (long)spillCache.size() * CHUNK_SIZE;
+    }
+    res += 2 * prefixChars + (long)PREFIX_OVERHEAD * prefixes.size();
+    return res;
+  }
+
+  /** Return the number of bytes written to the spill file */
+  public long getSpilledBytes() {
+    return (long)spilledChunks * CHUNK_SIZE;
+  }
+
+  /** Write the contents of the store, excluding the spill threshold, to
+   * the stream */
+  public void writeTo(DataOutputStream out) throws IOException {
+    out.writeInt(size);
+    for (int id = 0; id < size; id++) {
+      byte[] url = getUrl(id).getBytes(StandardCharsets.UTF_8);
+      out.writeInt(url.length);
+      out.write(url);
+      out.writeInt(depths[id]);
+      out.writeByte(flags[id]);
+      out.writeInt(referrers[id]);
+      int cnt = childCount[id];
+      out.writeInt(cnt);
+      for (int ix = 0; ix < cnt; ix++) {
+	out.writeInt(children[childStart[id] + ix]);
+      }
+    }
+  }
+
+  /** Load the contents written by {@link #writeTo(DataOutputStream)} into
+   * this store, which must be empty.  Entries have the same ids they had
+   * in the store that wrote them.  If an error occurs the store is left
+   * empty. */
+  public void readFrom(DataInputStream in) throws IOException {
+    if (size != 0) {
+      throw new IllegalStateException("Store isn't empty");
+    }
+    boolean ok = false;
+    try {
+      int n = in.readInt();
+      for (int id = 0; id < n; id++) {
+	byte[] url = new byte[checkLength(in.readInt())];
+	in.readFully(url);
+	if (add(new String(url, StandardCharsets.UTF_8)) != id) {
+	  throw new IOException("Duplicate URL in crawl URL store data");
+	}
+	depths[id] = checkLength(in.readInt());
+	int f = in.readByte();
+	flags[id] = (byte)f;
+	stateCounts[NONE]--;
+	stateCounts[(f & STATE_MASK) >> STATE_SHIFT]++;
+	referrers[id] = in.readInt();
+	int cnt = checkLength(in.readInt());
+	for (int ix = 0; ix < cnt; ix++) {
+	  addChild(id, in.readInt());
+	}
+      }
+      // Ids must refer to entries that were read
+      for (int id = 0; id < n; id++) {
+	if (referrers[id] < -1 || referrers[id] >= n) {
+	  throw new IOException("Invalid referrer in crawl URL store data");
+	}
+      }
+      for (int ix = 0; ix < childLen; ix++) {
+	if (children[ix] < 0 || children[ix] >= n) {
+	  throw new IOException("Invalid child in crawl URL store data");
+	}
+      }
+      ok = true;
+    } finally {
+      if (!ok) {
+	clear();
+      }
+    }
+  }
+
+  private static int checkLength(int n) throws IOException {
+    if (n < 0) {
+      throw new IOException("Invalid value in crawl URL store data: " + n);
+    }
+    return n;
+  }
+
+  /** Remove all entries from the store */
+  public void clear() {
+    close();
+    init();
+  }
+
+  /** Delete the spill file, if any.  The store must not be used
+   * afterwards, except to {@link #clear()} it. */
+  public void close() {
+    if (spillRaf != null) {
+      IOUtil.safeClose(spillRaf);
+      spillRaf = null;
+    }
+    if (spillFile != null) {
+      if (!spillFile.delete()) {
+	log.warning("Couldn't delete spill file: " + spillFile);
+      }
+      spillFile = null;
+    }
+    spilledChunks = 0;
+    spillCache = null;
+  }
+
+  /** Return the id of the view, or -1 if it isn't a view belonging to
+   * this store */
+  int idOf(CrawlUrlData curl) {
+    if (curl instanceof StoredCrawlUrl) {
+      StoredCrawlUrl scu = (StoredCrawlUrl)curl;
+      if (scu.getStore() == this) {
+	return scu.id;
+      }
+    }
+    return -1;
+  }
+
+  int findOrAdd(String url) {
+    int id = find(url);
+    return id >= 0 ? id : add(url);
+  }
+
+  private void checkId(int id) {
+    if (id < 0 || id >= size) {
+      throw new IndexOutOfBoundsException("No entry " + id);
+    }
+  }
+
+  private void copyFrom(int id, CrawlUrlData curl) {
+    depths[id] = curl.getDepth();
+    flags[id] = (byte)((flags[id] & STATE_MASK) | (curl.getFlags() & FLAG_MASK));
+    String ref = curl.getReferrer();
+    referrers[id] = ref == null ? -1 : findOrAdd(ref);
+  }
+
+  private int add(String url) {
+    if (size == depths.length) {
+      grow();
+    }
+    int id = size++;
+    int split = splitPoint(url);
+    prefixOf[id] = internPrefix(url.substring(0, split));
+    appendSuffix(url, split);
+    offsets[id + 1] = arenaLen;
+    hashes[id] = url.hashCode();
+    depths[id] = UNKNOWN_DEPTH;
+    referrers[id] = -1;
+    childStart[id] = 0;
+    childCount[id] = 0;
+    flags[id] = 0;
+    stateCounts[NONE]++;
+    if (size * 2 > table.length) {
+      rehash(table.length * 2);
+    } else {
+      insert(id);
+    }
+    return id;
+  }
+
+  private void grow() {
+    int cap = depths.length * 2;
+    prefixOf = Arrays.copyOf(prefixOf, cap);
+    offsets = Arrays.copyOf(offsets, cap + 1);
+    hashes = Arrays.copyOf(hashes, cap);
+    depths = Arrays.copyOf(depths, cap);
+    referrers = Arrays.copyOf(referrers, cap);
+    childStart = Arrays.copyOf(childStart, cap);
+    childCount = Arrays.copyOf(childCount, cap);
+    flags = Arrays.copyOf(flags, cap);
+  }
+
+  private void rehash(int cap) {
+    table = new int[cap];
+    for (int id = 0; id < size; id++) {
+      insert(id);
+    }
+  }
+
+  private void insert(int id) {
+    int mask = table.length - 1;
+    int ix = mix(hashes[id]) & mask;
+    while (table[ix] != 0) {
+      ix = (ix + 1) & mask;
+    }
+    table[ix] = id + 1;
+  }
+
+  private static int mix(int h) {
+    h *= 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  /** URLs are split after the last slash before the query */
+  static int splitPoint(String url) {
+    int end = url.indexOf('?');
+    if (end < 0) {
+      end = url.length();
+    }
+    return end == 0 ? 0 : url.lastIndexOf('/', end - 1) + 1;
+  }
+
+  private int internPrefix(String prefix) {
+    Integer res = prefixIds.get(prefix);
+    if (res == null) {
+      res = prefixes.size();
+      prefixes.add(prefix);
+      prefixIds.put(prefix, res);
+      prefixChars += prefix.length();
+    }
+    return res;
+  }
+
+  private boolean urlEquals(int id, String url) {
+    String prefix = prefixes.get(prefixOf[id]);
+    if (!url.startsWith(prefix)) {
+      return false;
+    }
+    int pos = offsets[id];
+    int end = offsets[id + 1];
+    int len = url.length();
+    for (int ix = prefix.length(); ix < len; ix++) {
+      char c = url.charAt(ix);
+      if (c >= 0x80) {
+	byte[] rest = url.substring(ix).getBytes(StandardCharsets.UTF_8);
+	if (end - pos != rest.length) {
+	  return false;
+	}
+	for (byte b : rest) {
+	  if (byteAt(pos++) != b) {
+	    return false;
+	  }
+	}
+	return true;
+      }
+      if (pos >= end || byteAt(pos++) != (byte)c) {
+	return false;
+      }
+    }
+    return pos == end;
+  }
+
+  // Byte arena
+
+  private void appendSuffix(String url, int from) {
+    int len = url.length();
+    for (int ix = from; ix < len; ix++) {
+      char c = url.charAt(ix);
+      if (c >= 0x80) {
+	for (byte b : url.substring(ix).getBytes(StandardCharsets.UTF_8)) {
+	  putByte(b);
+	}
+	return;
+      }
+      putByte((byte)c);
+    }
+  }
+
+  private void putByte(byte b) {
+    if (arenaLen == Integer.MAX_VALUE) {
+      throw new IllegalStateException("Crawl URL store is full");
+    }
+    int ci = arenaLen >>> CHUNK_SHIFT;
+    if (ci == numChunks) {
+      newChunk();
+    }
+    chunks[ci][arenaLen & CHUNK_MASK] = b;
+    arenaLen++;
+  }
+
+  private void newChunk() {
+    if (numChunks == chunks.length) {
+      chunks = Arrays.copyOf(chunks, numChunks * 2);
+    }
+    chunks[numChunks++] = new byte[CHUNK_SIZE];
+    maybeSpill();
+  }
+
+  private byte byteAt(int pos) {
+    return chunk(pos >>> CHUNK_SHIFT)[pos & CHUNK_MASK];
+  }
+
+  private void readBytes(int pos, byte[] buf) {
+    int ix = 0;
+    while (ix < buf.length) {
+      int off = pos & CHUNK_MASK;
+      int n = Math.min(buf.length - ix, CHUNK_SIZE - off);
+      System.arraycopy(chunk(pos >>> CHUNK_SHIFT), off, buf, ix, n);
+      ix += n;
+      pos += n;
+    }
+  }
+
+  private byte[] chunk(int ci) {
+    if (ci >= spilledChunks) {
+      return chunks[ci];
+    }
+    byte[] res = spillCache.get(ci);
+    if (res == null) {
+      res = new byte[CHUNK_SIZE];
+      try {
+	spillRaf.seek((long)ci * CHUNK_SIZE);
+	spillRaf.readFully(res);
+      } catch (IOException e) {
+	throw new UncheckedIOException("Couldn't read crawl URL spill file "
+				       + spillFile, e);
+      }
+      spillCache.put(ci, res);
+    }
+    return res;
+  }
+
+  // Write the oldest chunks to disk while the in-memory ones exceed the
+  // threshold.  The chunk being filled always stays in memory.
+  private void maybeSpill() {
+    while (spillThreshold >= 0
+	   && numChunks - 1 > spilledChunks
+	   && (long)(numChunks - spilledChunks) * CHUNK_SIZE > spillThreshold) {
+      try {
+	if (spillRaf == null) {
+	  spillFile = FileUtil.createTempFile("crawlurls", ".tmp");
+	  spillRaf = new RandomAccessFile(spillFile, "rw");
+	  spillCache = new ChunkCache(SPILL_CACHE_CHUNKS);
+	}
+	spillRaf.seek((long)spilledChunks * CHUNK_SIZE);
+	spillRaf.write(chunks[spilledChunks]);
+      } catch (IOException e) {
+	log.warning("Couldn't spill crawl URLs to disk, keeping them in memory",
+		    e);
+	spillThreshold = -1;
+	return;
+      }
+      chunks[spilledChunks++] = null;
+    }
+  }
+
+  // LRU cache of chunks read back from the spill file
+  static class ChunkCache extends LinkedHashMap<Integer,byte[]> {
+    private static final long serialVersionUID = 1L;
+
+    private final int maxChunks;
+
+    ChunkCache(int maxChunks) {
+      super(16, 0.75f, true);
+      this.maxChunks = maxChunks;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Integer,byte[]> eldest) {
+      return size() > maxChunks;
+    }
+  }
+
+  // Link graph
+
+  void addChild(int parent, int child) {
+    int cnt = childCount[parent];
+    if (cnt == 0) {
+      childStart[parent] = childLen;
+    } else if (childStart[parent] + cnt != childLen) {
+      // Not at the end of the array, move it there.
+      ensureChildCapacity(cnt + 1);
+      System.arraycopy(children, childStart[parent], children, childLen, cnt);
+      childStart[parent] = childLen;
+      childLen += cnt;
+    }
+    ensureChildCapacity(1);
+    children[childLen++] = child;
+    childCount[parent]++;
+  }
+
+  void clearChildren(int id) {
+    int cnt = childCount[id];
+    if (cnt != 0 && childStart[id] + cnt == childLen) {
+      childLen -= cnt;
+    }
+    childCount[id] = 0;
+  }
+
+  private void ensureChildCapacity(int n) {
+    if (childLen + n > children.length) {
+      children = Arrays.copyOf(children,
+			       Math.max(children.length * 2, childLen + n));
+    }
+  }
+
+  boolean isChild(int parent, int child) {
+    int start = childStart[parent];
+    for (int ix = 0; ix < childCount[parent]; ix++) {
+      if (children[start + ix] == child) {
+	return true;
+      }
+    }
+    return false;
+  }
+
+  /** If n is a new minimum depth for the entry, record it, propagate it
+   * to the entry's descendants and call the ReducedDepthHandler on each
+   * entry whose depth is reduced, as {@link CrawlUrlData} does. */
+  boolean reduceDepth(int id, int n,
+		      CrawlUrlData.ReducedDepthHandler rdh) {
+    if (n < 0) throw new IllegalArgumentException();
+    int old = depths[id];
+    if (n >= old) {
+      return false;
+    }
+    depths[id] = n;
+    for (int ix = 0; ix < childCount[id]; ix++) {
+      reduceDepth(children[childStart[id] + ix], n + 1, rdh);
+    }
+    if (rdh != null) {
+      rdh.depthReduced(new StoredCrawlUrl(id, null), old, n);
+    }
+    return true;
+  }
+
+  /** A view of a store entry */
+  class StoredCrawlUrl extends CrawlUrlData {
+    final int id;
+    private String url;
+
+    StoredCrawlUrl(int id, String url) {
+      this.id = id;
+      this.url = url;
+    }
+
+    CrawlUrlStore getStore() {
+      return CrawlUrlStore.this;
+    }
+
+    @Override
+    public String getUrl() {
+      if (url == null) {
+	url = CrawlUrlStore.this.getUrl(id);
+      }
+      return url;
+    }
+
+    @Override
+    public int getDepth() {
+      return depths[id];
+    }
+
+    @Override
+    public void setReferrer(String referrerUrl) {
+      referrers[id] = referrerUrl == null ? -1 : findOrAdd(referrerUrl);
+    }
+
+    @Override
+    public String getReferrer() {
+      int ref = referrers[id];
+      return ref < 0 ? null : CrawlUrlStore.this.getUrl(ref);
+    }
+
+    @Override
+    protected int getFlags() {
+      return flags[id] & FLAG_MASK;
+    }
+
+    @Override
+    protected void setFlag(int flag, boolean val) {
+      if (val) {
+	flags[id] |= flag;
+      } else {
+	flags[id] &= ~flag;
+      }
+    }
+
+    @Override
+    public boolean encounteredAtDepth(int n) {
+      return reduceDepth(id, n, null);
+    }
+
+    @Override
+    protected boolean encounteredAtDepth(int n, ReducedDepthHandler rdh) {
+      return reduceDepth(id, n, rdh);
+    }
+
+    @Override
+    public void addChild(CrawlUrlData child) {
+      addChild(child, null);
+    }
+
+    /** A child that isn't a view of this store is added to it if not
+     * already present, and is otherwise left as it was, except for its
+     * depth. */
+    @Override
+    public void addChild(CrawlUrlData child, ReducedDepthHandler rdh) {
+      int cid = idOf(child);
+      if (cid < 0) {
+	cid = find(child.getUrl());
+	if (cid < 0) {
+	  cid = add(child.getUrl());
+	  copyFrom(cid, child);
+	}
+	child.encounteredAtDepth(getDepth() + 1);
+      }
+      CrawlUrlStore.this.addChild(id, cid);
+      reduceDepth(cid, getDepth() + 1, rdh);
+    }
+
+    @Override
+    public void trimChildren() {
+    }
+
+    @Override
+    boolean isChild(CrawlUrlData curl) {
+      int cid = idOf(curl);
+      if (cid < 0) {
+	cid = find(curl.getUrl());
+      }
+      return cid >= 0 && CrawlUrlStore.this.isChild(id, cid);
+    }
+
+    @Override
+    public void clearChildren() {
+      CrawlUrlStore.this.clearChildren(id);
+    }
+
+    @Override
+    public int numChildren() {
+      return childCount[id];
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof StoredCrawlUrl
+	&& ((StoredCrawlUrl)o).getStore() == getStore()
+	&& ((StoredCrawlUrl)o).id == id;
+    }
+
+    @Override
+    public int hashCode() {
+      return id;
+    }
+  }
+}
@@ -195,6 +195,10 @@ public class CrawlerStatus {
 
   protected String type;
   private long contentBytesFetched = 0;
+  private int crawlStateUrls = -1;
+  private long crawlStateMemory = 0;
+  private long crawlStateMaxMemory = 0;
+  private long crawlStateDisk = 0;
   private String paramRecordUrls;
   private int paramKeepOffHostExcludes = DEFAULT_KEEP_OFF_HOST_EXCLUDES;
   private String forceRecord;
@@ -523,6 +527,38 @@ public class CrawlerStatus {
     return priority;
   }
 
+  /** Record the number of URLs the crawl is keeping track of and the
+   * memory and disk space used to do so */
+  public void setCrawlStateSize(int numUrls, long memBytes, long diskBytes) {
+    crawlStateUrls = numUrls;
+    crawlStateMemory = memBytes;
+    crawlStateMaxMemory = Math.max(crawlStateMaxMemory, memBytes);
+    crawlStateDisk = diskBytes;
+  }
+
+  /** Return the number of URLs the crawl is keeping track of, or -1 if
+   * not known */
+  public int getCrawlStateUrls() {
+    return crawlStateUrls;
+  }
+
+  /** Return the approximate memory used to keep track of the crawl's
+   * URLs */
+  public long getCrawlStateMemory() {
+    return crawlStateMemory;
+  }
+
+  /** Return the maximum of {@link #getCrawlStateMemory()} during the
+   * crawl */
+  public long getCrawlStateMaxMemory() {
+    return crawlStateMaxMemory;
+  }
+
+  /** Return the disk space used to keep track of the crawl's URLs */
+  public long getCrawlStateDisk() {
+    return crawlStateDisk;
+  }
+
   public void setProxy(String proxy) {
     this.proxy = proxy;
   }
@@ -48,6 +48,7 @@ import org.lockss.filter.FilterUtil;
 import org.lockss.plugin.*;
 import org.lockss.plugin.ArchivalUnit.ConfigurationException;
 import org.lockss.plugin.UrlFetcher.FetchResult;
+import org.lockss.plugin.base.BaseArchivalUnit;
 import org.lockss.plugin.base.PassiveUrlConsumerFactory;
 import org.lockss.state.*;
 import org.lockss.util.*;
@@ -116,6 +117,30 @@ public class FollowLinkCrawler extends BaseCrawler {
   public static final String PARAM_PARSE_ON_PERM_FAIL = PREFIX + "parseOnPermFail";
   public static final boolean DEFAULT_PARSE_ON_PERM_FAIL = true;
 
+  /** Amount of URL text the crawl's URL store keeps in memory; beyond
+   * this the oldest is written to a temp file.  -1 disables spilling. */
+  public static final String PARAM_URL_STORE_SPILL_THRESHOLD =
+    PREFIX + "urlStoreSpillThreshold";
+  public static final long DEFAULT_URL_STORE_SPILL_THRESHOLD = -1;
+
+  /** If true, new content crawls that are stopped by the crawl window or
+   * aborted save their state in the AU's state dir, and the next crawl
+   * of the AU resumes from there. */
+  public static final String PARAM_CHECKPOINT = PREFIX + "checkpoint";
+  public static final boolean DEFAULT_CHECKPOINT = true;
+
+  /** Interval at which a running crawl saves its state, so that it can be
+   * resumed after a daemon restart.  Zero disables periodic checkpoints. */
+  public static final String PARAM_CHECKPOINT_INTERVAL =
+    PREFIX + "checkpointInterval";
+  public static final long DEFAULT_CHECKPOINT_INTERVAL = 30 * Constants.MINUTE;
+
+  /** Crawl checkpoints older than this are discarded rather than
+   * resumed. */
+  public static final String PARAM_CHECKPOINT_MAX_AGE =
+    PREFIX + "checkpointMaxAge";
+  public static final long DEFAULT_CHECKPOINT_MAX_AGE = 7 * Constants.DAY;
+
   protected int maxDepth = DEFAULT_MAX_CRAWL_DEPTH;
 
   protected int hiDepth = 0;		// maximum depth seen
@@ -124,8 +149,16 @@ public class FollowLinkCrawler extends BaseCrawler {
   protected int fqSamples = 0;		// number of fetch queue len samples
   protected int refetchDepth = -1;
   
-  protected Map<String,CrawlUrlData> processedUrls;
-  protected Map<String,CrawlUrlData> maxDepthUrls;
+  // Depth, flags, links and queued/processed/too deep state of all the
+  // URLs the crawl knows about
+  protected CrawlUrlStore urlStore;
+  protected CrawlCheckpoint checkpoint;
+  protected boolean isCheckpoint = DEFAULT_CHECKPOINT;
+  protected long checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+  protected long checkpointMaxAge = DEFAULT_CHECKPOINT_MAX_AGE;
+  private Deadline nextCheckpoint;
+  // URL removed from the fetch queue and not yet fully processed
+  private CrawlUrlData inProgress;
   protected boolean cachingStartUrls = false; //added to report an error when
                                               //not able to cache a starting Url
   
@@ -162,7 +195,8 @@ public class FollowLinkCrawler extends BaseCrawler {
     } catch (PluginException e) {
       log.error("Plugin CrawlUrlComparatorFactory error, using breadth-first", e);
     }
-    fetchQueue = new CrawlQueue(urlOrderComparator);
+    urlStore = new CrawlUrlStore();
+    fetchQueue = new CrawlQueue(urlOrderComparator, urlStore);
     parseQueue = new FifoQueue();
     permissionProbeUrls = new LinkedList<CrawlUrlData>();
   }
@@ -237,6 +271,32 @@ public class FollowLinkCrawler extends BaseCrawler {
       config.getBoolean(PARAM_REFIND_CDN_STEMS, DEFAULT_REFIND_CDN_STEMS);
     parseOnPermFail =
         config.getBoolean(PARAM_PARSE_ON_PERM_FAIL, DEFAULT_PARSE_ON_PERM_FAIL);
+    urlStore.setSpillThreshold(config.getSize(PARAM_URL_STORE_SPILL_THRESHOLD,
+					      DEFAULT_URL_STORE_SPILL_THRESHOLD));
+    isCheckpoint = config.getBoolean(PARAM_CHECKPOINT, DEFAULT_CHECKPOINT);
+    checkpointInterval = config.getTimeInterval(PARAM_CHECKPOINT_INTERVAL,
+						DEFAULT_CHECKPOINT_INTERVAL);
+    checkpointMaxAge = config.getTimeInterval(PARAM_CHECKPOINT_MAX_AGE,
+					      DEFAULT_CHECKPOINT_MAX_AGE);
+  }
+
+  @Override
+  public boolean doCrawl() {
+    try {
+      return super.doCrawl();
+    } finally {
+      finishCheckpoint();
+      updateCrawlStateStatus();
+      urlStore.close();
+    }
+  }
+
+  /** Record the size of the crawl's URL state in the status */
+  protected void updateCrawlStateStatus() {
+    crawlStatus.setCrawlStateSize(urlStore.size(),
+				  urlStore.getMemoryUsage()
+				  + fetchQueue.getMemoryUsage(),
+				  urlStore.getSpilledBytes());
   }
  
 
@@ -250,8 +310,8 @@ public class FollowLinkCrawler extends BaseCrawler {
         "of " + au);
     crawlStatus.addSource("Publisher");
     crawlStatus.setRefetchDepth(getRefetchDepth());
-    processedUrls = new HashMap<String,CrawlUrlData>();
-    maxDepthUrls = new HashMap<String,CrawlUrlData>();
+    urlStore.clearState(CrawlUrlStore.PROCESSED);
+    urlStore.clearState(CrawlUrlStore.TOO_DEEP);
 
     // Enable no-substance-collected detection if so configured and
     // supported by plugin.
@@ -309,7 +369,13 @@ public class FollowLinkCrawler extends BaseCrawler {
 
     // get the Urls to follow 
     try {
-      enqueueStartUrls();
+      checkpoint = makeCheckpoint();
+      if (!resumeFromCheckpoint()) {
+	enqueueStartUrls();
+      }
+      if (checkpoint != null && checkpointInterval > 0) {
+	nextCheckpoint = Deadline.in(checkpointInterval);
+      }
     }
     catch (RuntimeException re) {
       log.warning("Unexpected exception, should have been caught lower", re);
@@ -355,6 +421,7 @@ public class FollowLinkCrawler extends BaseCrawler {
       fqSamples += 1;
 
       CrawlUrlData curl = fetchQueue.remove();
+      inProgress = curl;
       if (log.isDebug3()) log.debug3("Removed from queue: " + curl);
       hiDepth = Math.max(hiDepth, curl.getDepth());
       String url = curl.getUrl();
@@ -391,8 +458,10 @@ public class FollowLinkCrawler extends BaseCrawler {
             return aborted();
           }
           parseQueue.remove(parseCurl);
+          // Children found by parse() are recorded in the store entry
+          parseCurl = urlStore.intern(parseCurl);
           parse(parseCurl);
-          processedUrls.put(parseCurl.getUrl(), parseCurl);
+          urlStore.setState(parseCurl, CrawlUrlStore.PROCESSED);
         } catch (RuntimeException e) {
           log.warning("Unexpected exception parsing: " + url, e);
           crawlStatus.signalErrorForUrl(url, e.toString(),
@@ -402,16 +471,22 @@ public class FollowLinkCrawler extends BaseCrawler {
           }
         }
       }
+      inProgress = null;
+      updateCrawlStateStatus();
+      maybeCheckpoint();
       if (isAborted()) {
         return aborted();
       }
     }
     
     crawlStatus.setDepth(hiDepth);
-    if (!maxDepthUrls.isEmpty()) {
+    if (urlStore.count(CrawlUrlStore.TOO_DEEP) > 0) {
       String msg = "Site depth exceeds max crawl depth (" + maxDepth + ")";
       log.error(msg + ". Stopped crawl of " + au.getName());
-      log.debug("Too deep URLs: " + maxDepthUrls);
+      if (log.isDebug()) {
+	log.debug("Too deep URLs: " +
+		  urlStore.getUrls(CrawlUrlStore.TOO_DEEP));
+      }
       crawlStatus.setCrawlStatus(Crawler.STATUS_ERROR, msg);
     } else {
       log.info("Crawled depth = " + (hiDepth) +
@@ -487,6 +562,152 @@ public class FollowLinkCrawler extends BaseCrawler {
     return (!crawlStatus.isCrawlError());
   }
 
+  /** Return the checkpoint for this crawl, or null if it shouldn't save
+   * or resume its state.  Only whole-AU crawls are checkpointed. */
+  protected CrawlCheckpoint makeCheckpoint() {
+    if (!isCheckpoint || !isWholeAU()) {
+      return null;
+    }
+    File file;
+    try {
+      file = getDaemon().getHistoryRepository(au).getCrawlCheckpointFile();
+    } catch (RuntimeException e) {
+      log.warning("Can't get crawl checkpoint file", e);
+      return null;
+    }
+    return file == null ? null : new CrawlCheckpoint(file, getCheckpointKey());
+  }
+
+  /** Return a string that identifies everything that would invalidate a
+   * saved crawl state: the plugin version and the crawl rules and
+   * depths. */
+  protected String getCheckpointKey() {
+    StringBuilder sb = new StringBuilder();
+    sb.append(getTypeString());
+    sb.append("|");
+    sb.append(au.getAuId());
+    sb.append("|");
+    Plugin plugin = au.getPlugin();
+    if (plugin != null) {
+      sb.append(plugin.getPluginId());
+      sb.append("|");
+      sb.append(plugin.getVersion());
+    }
+    sb.append("|");
+    sb.append(getRefetchDepth());
+    sb.append("|");
+    sb.append(maxDepth);
+    if (au instanceof BaseArchivalUnit) {
+      CrawlRule rule = ((BaseArchivalUnit)au).getRule();
+      if (rule != null) {
+	sb.append("|");
+	sb.append(hasOwnToString(rule) ? rule.toString()
+		  : rule.getClass().getName());
+      }
+    }
+    return sb.toString();
+  }
+
+  // Object.toString() varies from one run to the next
+  private static boolean hasOwnToString(Object obj) {
+    try {
+      return obj.getClass().getMethod("toString").getDeclaringClass()
+	!= Object.class;
+    } catch (NoSuchMethodException e) {
+      return false;
+    }
+  }
+
+  /** If there's a checkpoint from an unfinished crawl, restore its state
+   * and queue its pending URLs.
+   * @return true if the crawl was resumed
+   */
+  protected boolean resumeFromCheckpoint() {
+    if (checkpoint == null || urlStore.size() != 0) {
+      return false;
+    }
+    CrawlCheckpoint.Resumed res;
+    try {
+      res = checkpoint.load(urlStore, checkpointMaxAge);
+    } catch (IOException e) {
+      log.warning("Can't read crawl checkpoint, starting over: "
+		  + checkpoint.getFile(), e);
+      checkpoint.delete();
+      return false;
+    }
+    if (res == null) {
+      return false;
+    }
+    failedUrls.addAll(res.getFailedUrls());
+    hiDepth = Math.max(hiDepth, res.getHiDepth());
+    for (int id : res.getPending()) {
+      addToQueue(urlStore.get(id), fetchQueue, crawlStatus);
+    }
+    log.info("Resuming crawl saved " +
+	     StringUtil.timeIntervalToString(TimeBase.msSince(res.getSaveTime()))
+	     + " ago, " + urlStore.count(CrawlUrlStore.PROCESSED) +
+	     " URLs processed, " + fetchQueue.size() + " pending");
+    return true;
+  }
+
+  /** Save the crawl state if the checkpoint interval has elapsed */
+  protected void maybeCheckpoint() {
+    if (nextCheckpoint != null && nextCheckpoint.expired()) {
+      saveCheckpoint();
+      nextCheckpoint = Deadline.in(checkpointInterval);
+    }
+  }
+
+  /** Save the crawl state.  URLs that were being processed when the
+   * crawl stopped are put back at the head of the queue. */
+  protected void saveCheckpoint() {
+    List<CrawlUrlData> pending = new ArrayList<CrawlUrlData>();
+    if (inProgress != null
+	&& urlStore.getState(inProgress) != CrawlUrlStore.PROCESSED) {
+      pending.add(inProgress);
+    }
+    while (!parseQueue.isEmpty()) {
+      CrawlUrlData curl = (CrawlUrlData)parseQueue.peek();
+      parseQueue.remove(curl);
+      if (curl != inProgress
+	  && urlStore.getState(curl) != CrawlUrlStore.PROCESSED) {
+	pending.add(curl);
+      }
+    }
+    pending.addAll(fetchQueue.asList());
+    try {
+      checkpoint.save(urlStore, pending, failedUrls, hiDepth);
+      log.debug("Saved crawl checkpoint, " + pending.size() + " pending");
+    } catch (IOException e) {
+      log.warning("Can't save crawl checkpoint: " + checkpoint.getFile(), e);
+      checkpoint.delete();
+    }
+  }
+
+  /** At the end of a crawl, save the crawl state if it was stopped before
+   * it finished, else delete the checkpoint. */
+  protected void finishCheckpoint() {
+    if (checkpoint == null) {
+      return;
+    }
+    try {
+      switch (crawlStatus.getCrawlStatus()) {
+      case Crawler.STATUS_WINDOW_CLOSED:
+      case Crawler.STATUS_ABORTED:
+	if (!fetchQueue.isEmpty() || inProgress != null) {
+	  saveCheckpoint();
+	  return;
+	}
+      }
+      checkpoint.delete();
+    } catch (RuntimeException e) {
+      log.warning("Error finishing crawl checkpoint", e);
+    } finally {
+      checkpoint = null;
+      nextCheckpoint = null;
+    }
+  }
+
   // Overridable for testing
   protected void enqueueStartUrls() 
       throws ConfigurationException, PluginException, IOException {
@@ -649,8 +870,9 @@ public class FollowLinkCrawler extends BaseCrawler {
   protected void parse(CrawlUrlData curl){
     // don't parse if not following links
     if (shouldFollowLink()) {
+      curl = urlStore.intern(curl);
       try {
-        if (!processedUrls.containsKey(curl.getUrl())) {
+        if (urlStore.getState(curl) != CrawlUrlStore.PROCESSED) {
           CachedUrl cu = au.makeCachedUrl(curl.getUrl());
           log.debug3("Parsing "+ cu);
           
@@ -676,8 +898,7 @@ public class FollowLinkCrawler extends BaseCrawler {
                       PluginUtil.getBaseUrl(cu),
                       new MyLinkExtractorCallback(au, curl,
                           fetchQueue,
-                          processedUrls,
-                          maxDepthUrls));
+                          urlStore));
                   // done adding children, trim to size
                   curl.trimChildren();
                   crawlStatus.signalUrlParsed(curl.getUrl());
@@ -715,7 +936,7 @@ public class FollowLinkCrawler extends BaseCrawler {
           log.siteWarning("Couldn't parse "+curl+". ignoring error", ex);
         }
         curl.setFailedParse(true);
-        processedUrls.put(curl.getUrl(), curl);
+        urlStore.setState(curl, CrawlUrlStore.PROCESSED);
       } catch (IOException ioe) {
         log.error("Problem parsing "+curl+". Ignoring", ioe);
         crawlStatus.signalErrorForUrl(curl.getUrl(), ioe.getMessage(),
@@ -762,8 +983,7 @@ public class FollowLinkCrawler extends BaseCrawler {
   // page parsed
   class MyLinkExtractorCallback implements LinkExtractor.Callback {
     CrawlUrlData curl;
-    Map<String,CrawlUrlData> processedUrls;
-    Map<String,CrawlUrlData> maxDepthUrls;
+    CrawlUrlStore urlStore;
     CrawlQueue fetchQueue;
     ArchivalUnit au;
     Set foundUrls = new HashSet();	// children of this node
@@ -772,13 +992,11 @@ public class FollowLinkCrawler extends BaseCrawler {
     public MyLinkExtractorCallback(ArchivalUnit au,
 				   CrawlUrlData curl,
 				   CrawlQueue fetchQueue,
-				   Map<String,CrawlUrlData> processedUrls,
-				   Map<String,CrawlUrlData> maxDepthUrls) {
+				   CrawlUrlStore urlStore) {
       this.au = au;
       this.curl = curl;
       this.fetchQueue = fetchQueue;
-      this.processedUrls = processedUrls;
-      this.maxDepthUrls = maxDepthUrls;
+      this.urlStore = urlStore;
     }
 
     /**
@@ -809,15 +1027,20 @@ public class FollowLinkCrawler extends BaseCrawler {
 	foundUrls.add(normUrl);
 
 	CrawlUrlData child = null;
-	if ((child = processedUrls.get(normUrl)) != null) {
+	int id = urlStore.find(normUrl);
+	int state = id < 0 ? CrawlUrlStore.NONE : urlStore.getState(id);
+	if (state == CrawlUrlStore.PROCESSED) {
+	  child = urlStore.get(id);
 	  if (log.isDebug2())
 	    log.debug2("Already processed url: " + child);
 	  signalReferrer(normUrl, ReferrerType.Included);
-	} else if ((child = fetchQueue.get(normUrl)) != null) {
+	} else if (state == CrawlUrlStore.QUEUED) {
+	  child = urlStore.get(id);
 	  if (log.isDebug3())
 	    log.debug3("Already queued url: " + child);
 	  signalReferrer(normUrl, ReferrerType.Included);
-	} else if ((child = maxDepthUrls.get(normUrl)) != null) {
+	} else if (state == CrawlUrlStore.TOO_DEEP) {
+	  child = urlStore.get(id);
 	  if (log.isDebug3())
 	    log.debug3("Already too-deep url: " + child);
 	  signalReferrer(normUrl, ReferrerType.Included);
@@ -850,8 +1073,9 @@ public class FollowLinkCrawler extends BaseCrawler {
 	      child = newCrawlUrlData(normUrl, curl.getDepth() + 1);
 	      child.setReferrer(curl.getUrl());
 	      if (child.getDepth() > maxDepth) {
-		maxDepthUrls.put(normUrl, child);
+		child = urlStore.setState(child, CrawlUrlStore.TOO_DEEP);
 	      } else {
+		child = urlStore.intern(child);
 		addToFetchQueue(child);
 	      }
 	    }
@@ -892,10 +1116,9 @@ public class FollowLinkCrawler extends BaseCrawler {
 	  log.debug3("depthReduced("+from+","+to+"): "+curl);
 	if (from > maxDepth && to <= maxDepth) {
 	  // If previously beyond max craw depth, is now eligible to be fetched
-	  CrawlUrlData tooDeepUrl = maxDepthUrls.remove(curl.getUrl());
-	  if (tooDeepUrl != curl) {
-	    log.warning("Previously too deep " + tooDeepUrl
-			   + " != no longer too deep " + curl);
+	  if (urlStore.getState(curl) != CrawlUrlStore.TOO_DEEP) {
+	    log.warning("Previously too deep url wasn't recorded as such: "
+			+ curl);
 	  }
 	  if (log.isDebug2()) log.debug2("Rescued from too deep: " +curl);
 	  addToFetchQueue(curl);
@@ -904,13 +1127,9 @@ public class FollowLinkCrawler extends BaseCrawler {
 		   to <= getRefetchDepth()) {
 	  // If previously beyond refetch depth and has already been processed
 	  // and not fetched, requeue to now be fetched
-	  CrawlUrlData processedCurl = processedUrls.get(curl.getUrl());
-	  if (processedCurl != null && !processedCurl.isFetched()) {
-	    if (processedCurl != curl) {
-	      log.warning("Previously processed " + processedCurl
-			     + " != now within refetch depth " + curl);
-	    }
-	    processedUrls.remove(curl.getUrl());
+	  if (urlStore.getState(curl) == CrawlUrlStore.PROCESSED
+	      && !curl.isFetched()) {
+	    // Adding to the queue replaces the processed state
 	    addToFetchQueue(curl);
 	    if (log.isDebug2()) log.debug2("Requeued for fetch: " + curl);
 	  }
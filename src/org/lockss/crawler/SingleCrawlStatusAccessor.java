@@ -186,6 +186,23 @@ public class SingleCrawlStatusAccessor implements StatusAccessor {
 					  ColumnDescriptor.TYPE_INT,
 					  status.getDepth()));
     }
+    if (status.getCrawlStateUrls() >= 0) {
+      StringBuilder sb = new StringBuilder();
+      sb.append(StringUtil.numberOfUnits(status.getCrawlStateUrls(), "URL"));
+      sb.append(", ");
+      sb.append(StringUtil.sizeToString(status.getCrawlStateMemory()));
+      sb.append(" memory (max ");
+      sb.append(StringUtil.sizeToString(status.getCrawlStateMaxMemory()));
+      sb.append(")");
+      if (status.getCrawlStateDisk() > 0) {
+	sb.append(", ");
+	sb.append(StringUtil.sizeToString(status.getCrawlStateDisk()));
+	sb.append(" disk");
+      }
+      res.add(new StatusTable.SummaryInfo("Crawl State",
+					  ColumnDescriptor.TYPE_STRING,
+					  sb.toString()));
+    }
     return res;
   }
 
@@ -0,0 +1,862 @@
+/*
+
+Copyright (c) 2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+
+package org.lockss.daemon;
+
+import java.util.*;
+
+import org.apache.oro.text.regex.*;
+import org.lockss.util.*;
+
+/**
+ * Combines the regexps of several crawl rules into a single automaton
+ * that determines, in one pass over a URL, which of the regexps match it
+ * (anywhere in the URL, as with <code>Perl5Matcher.contains()</code>).
+ * The DFA is built lazily, one state at a time as URLs are matched, from
+ * a Thompson NFA of all the regexps.
+ *
+ * Only the subset of Perl5 syntax used by plugin crawl rules is handled:
+ * literals and escapes, character classes, <code>.</code>,
+ * <code>\d \w \s</code> and their complements, capturing and
+ * non-capturing groups, alternation, greedy and lazy quantifiers and
+ * <code>^</code> and <code>$</code>.  Regexps with other constructs
+ * (lookaround, backreferences, inline flags, non-ASCII chars) aren't
+ * compiled; {@link #isCompiled(int)} returns false for them.  URLs
+ * containing non-ASCII chars, newlines or the control chars 0x1C-0x1F
+ * (which ORO's <code>\s</code> matches), or that would cause the DFA to
+ * exceed its maximum number of states, aren't matched;
+ * {@link #matchBits(String)} returns {@link #UNKNOWN} for them.
+ * @ThreadSafe
+ */
+class CrawlRuleAutomaton {
+  private static final Logger log = Logger.getLogger(CrawlRuleAutomaton.class);
+
+  /** Max number of regexps that can be compiled into one automaton */
+  static final int MAX_REGEXPS = 63;
+  /** Returned by matchBits() if the URL can't be matched by the
+   * automaton */
+  static final long UNKNOWN = -1;
+
+  // Largest bound allowed in an {n,m} quantifier
+  static final int MAX_REPEAT = 100;
+  // Max number of NFA nodes
+  static final int MAX_NFA_NODES = 20000;
+
+  private static final int ALPHABET = 128;
+  // Control chars ORO's \s matches but [ \t\n\x0B\f\r] doesn't.  URLs
+  // containing them are left to ORO.
+  private static final char FIRST_ORO_SPACE = '\u001C';
+  private static final char LAST_ORO_SPACE = '\u001F';
+
+  // NFA node types
+  private static final int CHARS = 0;
+  private static final int SPLIT = 1;
+  private static final int BOL = 2;
+  private static final int EOL = 3;
+  private static final int MATCH = 4;
+
+  // NFA
+  private int numNodes = 0;
+  private int[] type = new int[64];
+  private int[] out1 = new int[64];
+  private int[] out2 = new int[64];
+  private int[] regexpOf = new int[64];
+  private long[] setLo = new long[64];
+  private long[] setHi = new long[64];
+
+  private final int[] starts;		// start node of each regexp, or -1
+  private final int numCompiled;
+  private final long allCompiled;
+  private final int maxStates;
+
+  // Char -> equivalence class of chars that no node distinguishes
+  private final byte[] charClass = new byte[ALPHABET];
+  // Representative char of each class
+  private char[] classRep;
+
+  private final Map<StateKey,DState> states = new HashMap<StateKey,DState>();
+  private final DState initial;
+
+  // Closure scratch space, used only while holding the lock
+  private int[] mark;
+  private int markGen = 0;
+  private int[] stack;
+
+  /**
+   * Create an automaton for the regexps
+   * @param regexps the compiled ORO patterns
+   * @param maxStates the maximum number of DFA states to create
+   */
+  CrawlRuleAutomaton(List<Pattern> regexps, int maxStates) {
+    this.maxStates = maxStates;
+    starts = new int[regexps.size()];
+    int n = 0;
+    long all = 0;
+    for (int ix = 0; ix < starts.length; ix++) {
+      starts[ix] = -1;
+      if (ix >= MAX_REGEXPS) {
+	continue;
+      }
+      Pattern pat = regexps.get(ix);
+      int saveNodes = numNodes;
+      try {
+	Node ast = new Parser(pat).parse();
+	int match = newNode(MATCH, -1, -1, ix);
+	starts[ix] = ast.compile(this, match, ix);
+	all |= 1L << ix;
+	n++;
+      } catch (Unsupported e) {
+	if (log.isDebug2()) {
+	  log.debug2("Not compiling " + pat.getPattern() + ": " +
+		     e.getMessage());
+	}
+	numNodes = saveNodes;
+	starts[ix] = -1;
+      }
+    }
+    numCompiled = n;
+    allCompiled = all;
+    mark = new int[numNodes];
+    stack = new int[numNodes];
+    makeCharClasses();
+    synchronized (this) {
+      initial = makeState(liveStarts(), true, 0);
+    }
+  }
+
+  /** Return true if the regexp at the index was compiled into the
+   * automaton */
+  boolean isCompiled(int ix) {
+    return starts[ix] >= 0;
+  }
+
+  /** Return the number of regexps compiled into the automaton */
+  int numCompiled() {
+    return numCompiled;
+  }
+
+  /** Return the number of DFA states created so far */
+  synchronized int numStates() {
+    return states.size();
+  }
+
+  /**
+   * Match the URL against all the compiled regexps.
+   * @param url the URL
+   * @return a bit mask with bit <i>n</i> set iff the <i>n</i>th regexp
+   * was compiled and matches the URL, or {@link #UNKNOWN} if the URL
+   * can't be handled by the automaton
+   */
+  long matchBits(String url) {
+    if (numCompiled == 0) {
+      return UNKNOWN;
+    }
+    DState state = initial;
+    int len = url.length();
+    for (int ix = 0; ix < len; ix++) {
+      if (state.matched == allCompiled) {
+	return allCompiled;
+      }
+      char ch = url.charAt(ix);
+      if (ch >= ALPHABET || ch == '\n'
+	  || (ch >= FIRST_ORO_SPACE && ch <= LAST_ORO_SPACE)) {
+	return UNKNOWN;
+      }
+      int cls = charClass[ch];
+      DState next = state.next[cls];
+      if (next == null) {
+	next = makeTransition(state, cls);
+	if (next == null) {
+	  return UNKNOWN;
+	}
+      }
+      state = next;
+    }
+    return state.endMatched;
+  }
+
+  private synchronized DState makeTransition(DState state, int cls) {
+    DState next = state.next[cls];
+    if (next != null) {
+      return next;
+    }
+    char ch = classRep[cls];
+    int[] seeds = new int[state.nodes.length + starts.length];
+    int n = 0;
+    for (int node : state.nodes) {
+      if (setContains(node, ch)) {
+	seeds[n++] = out1[node];
+      }
+    }
+    for (int start : liveStarts()) {
+      seeds[n++] = start;
+    }
+    next = makeState(Arrays.copyOf(seeds, n), false, state.matched);
+    if (next != null) {
+      state.next[cls] = next;
+    }
+    return next;
+  }
+
+  private int[] liveStarts() {
+    int[] res = new int[numCompiled];
+    int n = 0;
+    for (int start : starts) {
+      if (start >= 0) {
+	res[n++] = start;
+      }
+    }
+    return res;
+  }
+
+  // Compute the closure of the seed nodes and return the corresponding
+  // DFA state, creating it if necessary.  Returns null if the max number
+  // of states would be exceeded.
+  private DState makeState(int[] seeds, boolean atStart, long matched) {
+    Closure c = closure(seeds, atStart, false, matched);
+    long newMatched = matched | c.matched;
+    long endMatched = newMatched | closure(seeds, atStart, true, matched).matched;
+    // Drop nodes belonging to regexps that have already matched
+    int[] nodes = new int[c.nodes.length];
+    int n = 0;
+    for (int node : c.nodes) {
+      if ((newMatched & (1L << regexpOf[node])) == 0) {
+	nodes[n++] = node;
+      }
+    }
+    nodes = Arrays.copyOf(nodes, n);
+    Arrays.sort(nodes);
+    StateKey key = new StateKey(nodes, newMatched, endMatched);
+    DState res = states.get(key);
+    if (res == null) {
+      if (states.size() >= maxStates) {
+	if (log.isDebug2()) log.debug2("Max DFA states reached: " + maxStates);
+	return null;
+      }
+      res = new DState(nodes, newMatched, endMatched, classRep.length);
+      states.put(key, res);
+    }
+    return res;
+  }
+
+  static class Closure {
+    int[] nodes;
+    long matched;
+  }
+
+  // Follow epsilon transitions from the seeds, collecting the CHARS nodes
+  // reached and the regexps whose MATCH node is reached.  BOL nodes are
+  // passable only at the start of the URL, EOL nodes only at its end.
+  private Closure closure(int[] seeds, boolean atStart, boolean atEnd,
+			  long skip) {
+    int gen = ++markGen;
+    int sp = 0;
+    int[] found = new int[numNodes];
+    int nFound = 0;
+    long matched = 0;
+    for (int seed : seeds) {
+      stack[sp++] = seed;
+      while (sp > 0) {
+	int node = stack[--sp];
+	if (mark[node] == gen || (skip & (1L << regexpOf[node])) != 0) {
+	  continue;
+	}
+	mark[node] = gen;
+	switch (type[node]) {
+	case CHARS:
+	  found[nFound++] = node;
+	  break;
+	case SPLIT:
+	  stack[sp++] = out2[node];
+	  stack[sp++] = out1[node];
+	  break;
+	case BOL:
+	  if (atStart) {
+	    stack[sp++] = out1[node];
+	  }
+	  break;
+	case EOL:
+	  if (atEnd) {
+	    stack[sp++] = out1[node];
+	  }
+	  break;
+	case MATCH:
+	  matched |= 1L << regexpOf[node];
+	  break;
+	}
+      }
+    }
+    Closure res = new Closure();
+    res.nodes = Arrays.copyOf(found, nFound);
+    res.matched = matched;
+    return res;
+  }
+
+  private boolean setContains(int node, char ch) {
+    return ch < 64
+      ? (setLo[node] & (1L << ch)) != 0
+      : (setHi[node] & (1L << (ch - 64))) != 0;
+  }
+
+  // Partition the alphabet into classes of chars that are members of
+  // exactly the same CHARS nodes
+  private void makeCharClasses() {
+    Map<BitSet,Integer> sigs = new HashMap<BitSet,Integer>();
+    List<Character> reps = new ArrayList<Character>();
+    for (char ch = 0; ch < ALPHABET; ch++) {
+      BitSet sig = new BitSet();
+      for (int node = 0; node < numNodes; node++) {
+	if (type[node] == CHARS && setContains(node, ch)) {
+	  sig.set(node);
+	}
+      }
+      Integer cls = sigs.get(sig);
+      if (cls == null) {
+	cls = reps.size();
+	sigs.put(sig, cls);
+	reps.add(ch);
+      }
+      charClass[ch] = (byte)(int)cls;
+    }
+    classRep = new char[reps.size()];
+    for (int ix = 0; ix < classRep.length; ix++) {
+      classRep[ix] = reps.get(ix);
+    }
+  }
+
+  int newNode(int t, int o1, int o2, int regexp) {
+    if (numNodes >= MAX_NFA_NODES) {
+      throw new Unsupported("too many NFA nodes");
+    }
+    if (numNodes == type.length) {
+      int newLen = numNodes * 2;
+      type = Arrays.copyOf(type, newLen);
+      out1 = Arrays.copyOf(out1, newLen);
+      out2 = Arrays.copyOf(out2, newLen);
+      regexpOf = Arrays.copyOf(regexpOf, newLen);
+      setLo = Arrays.copyOf(setLo, newLen);
+      setHi = Arrays.copyOf(setHi, newLen);
+    }
+    int node = numNodes++;
+    type[node] = t;
+    out1[node] = o1;
+    out2[node] = o2;
+    regexpOf[node] = regexp;
+    return node;
+  }
+
+  int newCharsNode(long lo, long hi, int next, int regexp) {
+    int node = newNode(CHARS, next, -1, regexp);
+    setLo[node] = lo;
+    setHi[node] = hi;
+    return node;
+  }
+
+  /** A DFA state.  Immutable except for the lazily filled transition
+   * table. */
+  static class DState {
+    // The live CHARS nodes
+    final int[] nodes;
+    // Regexps that have matched so far
+    final long matched;
+    // Regexps that match if the URL ends here
+    final long endMatched;
+    // Next state for each char class
+    final DState[] next;
+
+    DState(int[] nodes, long matched, long endMatched, int numClasses) {
+      this.nodes = nodes;
+      this.matched = matched;
+      this.endMatched = endMatched;
+      this.next = new DState[numClasses];
+    }
+  }
+
+  static class StateKey {
+    final int[] nodes;
+    final long matched;
+    final long endMatched;
+    final int hash;
+
+    StateKey(int[] nodes, long matched, long endMatched) {
+      this.nodes = nodes;
+      this.matched = matched;
+      this.endMatched = endMatched;
+      hash = (Arrays.hashCode(nodes) * 31 + Long.hashCode(matched)) * 31
+	+ Long.hashCode(endMatched);
+    }
+
+    public int hashCode() {
+      return hash;
+    }
+
+    public boolean equals(Object o) {
+      if (!(o instanceof StateKey)) {
+	return false;
+      }
+      StateKey other = (StateKey)o;
+      return matched == other.matched && endMatched == other.endMatched
+	&& Arrays.equals(nodes, other.nodes);
+    }
+  }
+
+  /** Thrown when a regexp uses a construct that isn't handled */
+  static class Unsupported extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    Unsupported(String msg) {
+      super(msg);
+    }
+  }
+
+  // Regexp syntax tree
+
+  abstract static class Node {
+    /** Add NFA nodes for this subtree, leading to next, and return the
+     * entry node */
+    abstract int compile(CrawlRuleAutomaton a, int next, int regexp);
+  }
+
+  static class CharSet extends Node {
+    long lo;
+    long hi;
+
+    CharSet() {
+    }
+
+    CharSet(char ch) {
+      add(ch);
+    }
+
+    void add(char ch) {
+      if (ch < 64) {
+	lo |= 1L << ch;
+      } else {
+	hi |= 1L << (ch - 64);
+      }
+    }
+
+    void addRange(char from, char to) {
+      for (char ch = from; ch <= to; ch++) {
+	add(ch);
+      }
+    }
+
+    void addAll(CharSet other) {
+      lo |= other.lo;
+      hi |= other.hi;
+    }
+
+    boolean contains(char ch) {
+      return ch < 64
+	? (lo & (1L << ch)) != 0 : (hi & (1L << (ch - 64))) != 0;
+    }
+
+    CharSet complement() {
+      CharSet res = new CharSet();
+      res.lo = ~lo;
+      res.hi = ~hi;
+      return res;
+    }
+
+    /** Add the other case of each letter in the set */
+    CharSet foldCase() {
+      CharSet res = new CharSet();
+      res.addAll(this);
+      for (char ch = 'a'; ch <= 'z'; ch++) {
+	char uc = Character.toUpperCase(ch);
+	if (contains(ch) || contains(uc)) {
+	  res.add(ch);
+	  res.add(uc);
+	}
+      }
+      return res;
+    }
+
+    int compile(CrawlRuleAutomaton a, int next, int regexp) {
+      return a.newCharsNode(lo, hi, next, regexp);
+    }
+  }
+
+  static class Seq extends Node {
+    List<Node> elements = new ArrayList<Node>();
+
+    int compile(CrawlRuleAutomaton a, int next, int regexp) {
+      for (int ix = elements.size() - 1; ix >= 0; ix--) {
+	next = elements.get(ix).compile(a, next, regexp);
+      }
+      return next;
+    }
+  }
+
+  static class Alt extends Node {
+    List<Node> alternatives = new ArrayList<Node>();
+
+    int compile(CrawlRuleAutomaton a, int next, int regexp) {
+      int res = alternatives.get(alternatives.size() - 1)
+	.compile(a, next, regexp);
+      for (int ix = alternatives.size() - 2; ix >= 0; ix--) {
+	int alt = alternatives.get(ix).compile(a, next, regexp);
+	res = a.newNode(SPLIT, alt, res, regexp);
+      }
+      return res;
+    }
+  }
+
+  static class Repeat extends Node {
+    Node body;
+    int min;
+    int max;			// -1 for unbounded
+
+    Repeat(Node body, int min, int max) {
+      this.body = body;
+      this.min = min;
+      this.max = max;
+    }
+
+    int compile(CrawlRuleAutomaton a, int next, int regexp) {
+      int res = next;
+      if (max < 0) {
+	int loop = a.newNode(SPLIT, -1, next, regexp);
+	// compile() may reallocate out1, so don't reference it until after
+	int entry = body.compile(a, loop, regexp);
+	a.out1[loop] = entry;
+	res = loop;
+      } else {
+	for (int ix = min; ix < max; ix++) {
+	  res = a.newNode(SPLIT, body.compile(a, res, regexp), next, regexp);
+	}
+      }
+      for (int ix = 0; ix < min; ix++) {
+	res = body.compile(a, res, regexp);
+      }
+      return res;
+    }
+  }
+
+  static class Assertion extends Node {
+    int kind;
+
+    Assertion(int kind) {
+      this.kind = kind;
+    }
+
+    int compile(CrawlRuleAutomaton a, int next, int regexp) {
+      return a.newNode(kind, next, -1, regexp);
+    }
+  }
+
+  /** Parses the supported subset of Perl5 regexp syntax */
+  static class Parser {
+    static final CharSet DIGIT = new CharSet();
+    static final CharSet WORD = new CharSet();
+    static final CharSet SPACE = new CharSet();
+    static final CharSet NOT_NEWLINE = new CharSet('\n').complement();
+    static {
+      for (char ch = 0; ch < ALPHABET; ch++) {
+	if (Character.isDigit(ch)) DIGIT.add(ch);
+	if (Character.isLetterOrDigit(ch) || ch == '_') WORD.add(ch);
+      }
+      // \s is exactly [ \t\n\x0B\f\r]
+      for (char ch : " \t\n\013\f\r".toCharArray()) {
+	SPACE.add(ch);
+      }
+    }
+
+    String pat;
+    int pos = 0;
+    boolean ignoreCase;
+
+    Parser(Pattern pattern) {
+      int unsupportedOpts = Perl5Compiler.MULTILINE_MASK
+	| Perl5Compiler.SINGLELINE_MASK | Perl5Compiler.EXTENDED_MASK;
+      if ((pattern.getOptions() & unsupportedOpts) != 0) {
+	throw new Unsupported("options");
+      }
+      pat = pattern.getPattern();
+      ignoreCase =
+	(pattern.getOptions() & Perl5Compiler.CASE_INSENSITIVE_MASK) != 0;
+    }
+
+    Node parse() {
+      Node res = parseAlt();
+      if (pos < pat.length()) {
+	throw new Unsupported("unbalanced ) at " + pos);
+      }
+      return res;
+    }
+
+    Node parseAlt() {
+      Alt alt = new Alt();
+      alt.alternatives.add(parseSeq());
+      while (pos < pat.length() && pat.charAt(pos) == '|') {
+	pos++;
+	alt.alternatives.add(parseSeq());
+      }
+      return alt.alternatives.size() == 1 ? alt.alternatives.get(0) : alt;
+    }
+
+    Node parseSeq() {
+      Seq seq = new Seq();
+      while (pos < pat.length()) {
+	char ch = pat.charAt(pos);
+	if (ch == '|' || ch == ')') {
+	  break;
+	}
+	seq.elements.add(parseQuantifier(parseAtom()));
+      }
+      return seq;
+    }
+
+    Node parseAtom() {
+      char ch = pat.charAt(pos++);
+      switch (ch) {
+      case '(':
+	if (pat.startsWith("?:", pos)) {
+	  pos += 2;
+	} else if (pat.startsWith("?", pos)) {
+	  throw new Unsupported("extended group at " + pos);
+	}
+	Node group = parseAlt();
+	if (pos >= pat.length() || pat.charAt(pos) != ')') {
+	  throw new Unsupported("unbalanced (");
+	}
+	pos++;
+	return group;
+      case '[':
+	return parseClass();
+      case '.':
+	return NOT_NEWLINE;
+      case '^':
+	return new Assertion(BOL);
+      case '$':
+	return new Assertion(EOL);
+      case '\\':
+	return fold(parseEscape());
+      case '*':
+      case '+':
+      case '?':
+	throw new Unsupported("quantifier without operand at " + pos);
+      case '{':
+	if (quantifierLength(pos - 1) > 0) {
+	  throw new Unsupported("quantifier without operand at " + pos);
+	}
+	return fold(new CharSet(ch));
+      default:
+	return fold(literal(ch));
+      }
+    }
+
+    Node parseQuantifier(Node atom) {
+      if (pos >= pat.length()) {
+	return atom;
+      }
+      int min;
+      int max;
+      char ch = pat.charAt(pos);
+      switch (ch) {
+      case '*':
+	min = 0; max = -1; pos++;
+	break;
+      case '+':
+	min = 1; max = -1; pos++;
+	break;
+      case '?':
+	min = 0; max = 1; pos++;
+	break;
+      case '{':
+	int qlen = quantifierLength(pos);
+	if (qlen == 0) {
+	  return atom;
+	}
+	String body = pat.substring(pos + 1, pos + qlen - 1);
+	pos += qlen;
+	int comma = body.indexOf(',');
+	if (comma < 0) {
+	  min = max = parseBound(body);
+	} else {
+	  min = parseBound(body.substring(0, comma));
+	  String maxStr = body.substring(comma + 1);
+	  max = maxStr.isEmpty() ? -1 : parseBound(maxStr);
+	  if (max >= 0 && max < min) {
+	    throw new Unsupported("bad quantifier bounds");
+	  }
+	}
+	break;
+      default:
+	return atom;
+      }
+      if (atom instanceof Assertion) {
+	throw new Unsupported("quantified assertion");
+      }
+      // Lazy quantifiers match the same set of strings
+      if (pos < pat.length() && pat.charAt(pos) == '?') {
+	pos++;
+      }
+      if (pos < pat.length() && "*+?".indexOf(pat.charAt(pos)) >= 0
+	  || quantifierLength(pos) > 0) {
+	throw new Unsupported("nested quantifier at " + pos);
+      }
+      return new Repeat(atom, min, max);
+    }
+
+    int parseBound(String s) {
+      if (s.length() > 3 || Integer.parseInt(s) > MAX_REPEAT) {
+	throw new Unsupported("quantifier bound too large");
+      }
+      return Integer.parseInt(s);
+    }
+
+    // Return the length of the {n}, {n,} or {n,m} quantifier at ix, or 0
+    // if there isn't one (in which case the brace is a literal)
+    int quantifierLength(int ix) {
+      int len = pat.length();
+      if (ix >= len || pat.charAt(ix) != '{') {
+	return 0;
+      }
+      int jx = ix + 1;
+      int digits = 0;
+      while (jx < len && Character.isDigit(pat.charAt(jx))) {
+	jx++;
+	digits++;
+      }
+      if (digits == 0) {
+	return 0;
+      }
+      if (jx < len && pat.charAt(jx) == ',') {
+	jx++;
+	while (jx < len && Character.isDigit(pat.charAt(jx))) {
+	  jx++;
+	}
+      }
+      if (jx < len && pat.charAt(jx) == '}') {
+	return jx + 1 - ix;
+      }
+      return 0;
+    }
+
+    CharSet parseClass() {
+      CharSet set = new CharSet();
+      boolean negate = false;
+      if (pos < pat.length() && pat.charAt(pos) == '^') {
+	negate = true;
+	pos++;
+      }
+      boolean first = true;
+      while (true) {
+	if (pos >= pat.length()) {
+	  throw new Unsupported("unterminated class");
+	}
+	char ch = pat.charAt(pos++);
+	if (ch == ']' && !first) {
+	  break;
+	}
+	first = false;
+	CharSet item;
+	if (ch == '\\') {
+	  item = parseEscape();
+	} else if (ch == '[' && pos < pat.length()
+		   && ":.=".indexOf(pat.charAt(pos)) >= 0) {
+	  throw new Unsupported("POSIX class");
+	} else {
+	  item = literal(ch);
+	}
+	// Range?
+	if (pos + 1 < pat.length() && pat.charAt(pos) == '-'
+	    && pat.charAt(pos + 1) != ']') {
+	  char from = singleChar(item);
+	  pos++;
+	  char toCh = pat.charAt(pos++);
+	  char to = singleChar(toCh == '\\' ? parseEscape() : literal(toCh));
+	  if (from > to) {
+	    throw new Unsupported("bad range");
+	  }
+	  set.addRange(from, to);
+	} else {
+	  set.addAll(item);
+	}
+      }
+      if (ignoreCase) {
+	set = set.foldCase();
+      }
+      return negate ? set.complement() : set;
+    }
+
+    // Return the only member of a set built from a single char
+    char singleChar(CharSet set) {
+      char res = 0;
+      int n = 0;
+      for (char ch = 0; ch < ALPHABET; ch++) {
+	if (set.contains(ch)) {
+	  res = ch;
+	  n++;
+	}
+      }
+      if (n != 1) {
+	throw new Unsupported("class escape in range");
+      }
+      return res;
+    }
+
+    CharSet parseEscape() {
+      if (pos >= pat.length()) {
+	throw new Unsupported("trailing backslash");
+      }
+      char ch = pat.charAt(pos++);
+      switch (ch) {
+      case 'd': return DIGIT;
+      case 'D': return DIGIT.complement();
+      case 'w': return WORD;
+      case 'W': return WORD.complement();
+      case 's': return SPACE;
+      case 'S': return SPACE.complement();
+      case 'n': return new CharSet('\n');
+      case 'r': return new CharSet('\r');
+      case 't': return new CharSet('\t');
+      case 'f': return new CharSet('\f');
+      default:
+	if (Character.isLetterOrDigit(ch)) {
+	  throw new Unsupported("escape \\" + ch);
+	}
+	return literal(ch);
+      }
+    }
+
+    CharSet literal(char ch) {
+      if (ch >= ALPHABET) {
+	throw new Unsupported("non-ASCII char");
+      }
+      return new CharSet(ch);
+    }
+
+    CharSet fold(CharSet set) {
+      return ignoreCase ? set.foldCase() : set;
+    }
+  }
+}
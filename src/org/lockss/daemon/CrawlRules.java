@@ -40,6 +40,10 @@ public class CrawlRules {
 
   private static Logger logger = Logger.getLogger(CrawlRules.class);
 
+  /** Default max number of DFA states an automaton created by {@link
+   * #compileFirstMatch(List, int)} may create */
+  public static final int DEFAULT_MAX_STATES = 500;
+
   public static CrawlRule createRE(Pattern regexp, int action) {
     return intern(new CrawlRules.RE(regexp, action));
   }
@@ -577,7 +581,8 @@ public class CrawlRules {
     public boolean equals(Object obj) {
       if (obj == null) { return false; }
       if (obj == this) { return true; }
-      if (obj.getClass() != getClass()) {
+      // A CompiledFirstMatch differs only in how the rules are evaluated
+      if (!(obj instanceof FirstMatch)) {
         return false;
       }
       FirstMatch other = (FirstMatch)obj;
@@ -589,6 +594,73 @@ public class CrawlRules {
     }
   }
 
+  /**
+   * Return a {@link FirstMatch} for the rules, whose plain {@link RE}
+   * rules are compiled into a single {@link CrawlRuleAutomaton} if
+   * possible.
+   * @param rules list of {@link CrawlRule}s
+   * @param maxStates max number of DFA states the automaton may create
+   */
+  public static FirstMatch compileFirstMatch(List rules, int maxStates) {
+    CompiledFirstMatch res = new CompiledFirstMatch(rules, maxStates);
+    return res.automaton.numCompiled() > 0 ? res : new FirstMatch(rules);
+  }
+
+  /**
+   * A FirstMatch whose {@link RE} rules are matched in a single pass over
+   * the URL by a {@link CrawlRuleAutomaton}.  Rules the automaton can't
+   * handle are evaluated individually, as are all the rules for URLs the
+   * automaton can't handle.
+   */
+  public static class CompiledFirstMatch extends FirstMatch {
+    private final CrawlRule[] ruleArray;
+    // Index of each rule's regexp in the automaton, or -1
+    private final int[] autoIndex;
+    private final CrawlRuleAutomaton automaton;
+
+    CompiledFirstMatch(List rules, int maxStates) {
+      super(rules);
+      ruleArray = (CrawlRule[])rules.toArray(new CrawlRule[rules.size()]);
+      autoIndex = new int[ruleArray.length];
+      List<Pattern> regexps = new ArrayList<Pattern>();
+      for (int ix = 0; ix < ruleArray.length; ix++) {
+	autoIndex[ix] = -1;
+	if (ruleArray[ix].getClass() == RE.class) {
+	  autoIndex[ix] = regexps.size();
+	  regexps.add(((RE)ruleArray[ix]).regexp);
+	}
+      }
+      automaton = new CrawlRuleAutomaton(regexps, maxStates);
+      for (int ix = 0; ix < ruleArray.length; ix++) {
+	if (autoIndex[ix] >= 0 && !automaton.isCompiled(autoIndex[ix])) {
+	  autoIndex[ix] = -1;
+	}
+      }
+    }
+
+    public int match(String url) {
+      long bits = automaton.matchBits(url);
+      if (bits == CrawlRuleAutomaton.UNKNOWN) {
+	return super.match(url);
+      }
+      for (int ix = 0; ix < ruleArray.length; ix++) {
+	int ai = autoIndex[ix];
+	int match = ai < 0
+	  ? ruleArray[ix].match(url)
+	  : ((RE)ruleArray[ix]).matchAction((bits & (1L << ai)) != 0);
+	if (match != CrawlRule.IGNORE) {
+	  return match;
+	}
+      }
+      return IGNORE;
+    }
+
+    /** Return the number of rules compiled into the automaton */
+    public int getNumCompiled() {
+      return automaton.numCompiled();
+    }
+  }
+
   /**
    * CrawlRules.Contains matches against a collection of URLs, returning
    * <code>CrawlRule.INCLUDE</code> if the URLs is found, else
@@ -623,4 +695,240 @@ public class CrawlRules {
       return "[CrawlRules.Contains: " + urls + "]";
     }
   }
+
+  /** Maximum number of prefixes a single regexp may be expanded into.
+   * Beyond that the prefix found so far is used. */
+  static final int MAX_PREFIXES_PER_RE = 16;
+
+  // Chars that are special when not escaped
+  private static final String RE_META = ".[]()*+?{}|^$";
+
+  /**
+   * Return a set of lowercase URL prefixes such that the rule can return
+   * INCLUDE only for URLs that begin with one of the prefixes (ignoring
+   * case), or null if no such set can be determined.  The set is
+   * conservative: URLs that begin with a prefix may or may not be
+   * included.
+   * @param rule the rule
+   * @return set of lowercase prefixes, or null if the rule isn't bounded
+   */
+  public static Set<String> getIncludedUrlPrefixes(CrawlRule rule) {
+    Set<String> res = new HashSet<String>();
+    return addIncludedUrlPrefixes(rule, res) ? res : null;
+  }
+
+  private static boolean addIncludedUrlPrefixes(CrawlRule rule,
+						Set<String> res) {
+    if (rule instanceof FirstMatch) {
+      for (Object r : ((FirstMatch)rule).rules) {
+	if (!addIncludedUrlPrefixes((CrawlRule)r, res)) {
+	  return false;
+	}
+      }
+      return true;
+    }
+    if (rule instanceof Contains) {
+      for (String url : ((Contains)rule).urls) {
+	res.add(url.toLowerCase());
+      }
+      return true;
+    }
+    // Subclasses outside this file may override match(), so handle only
+    // the known RE rules
+    Class cls = rule.getClass();
+    if (cls == RE.class || cls == REMatchRange.class
+	|| cls == REMatchSet.class) {
+      RE re = (RE)rule;
+      switch (re.action) {
+      case RE.MATCH_EXCLUDE:
+      case RE.NO_MATCH_EXCLUDE:
+	// never includes anything
+	return true;
+      case RE.MATCH_INCLUDE:
+      case RE.MATCH_INCLUDE_ELSE_EXCLUDE:
+	Collection<String> prefixes = regexpPrefixes(re.regexp.getPattern());
+	if (prefixes == null) {
+	  return false;
+	}
+	res.addAll(prefixes);
+	return true;
+      default:
+	return false;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Return the literal prefixes with which any string matched by the
+   * regexp must begin, or null if the regexp isn't anchored at the start
+   * or has no literal prefix.  Handles escaped punctuation, optional
+   * chars and groups of literal alternatives, so that, e.g.,
+   * <code>^https?://www\.foo\.com/(?:a|b)/</code> yields four
+   * prefixes.  Prefixes are lowercased.
+   */
+  static Collection<String> regexpPrefixes(String pat) {
+    List<String> alts = splitAlternatives(pat);
+    if (alts == null) {
+      return null;
+    }
+    Set<String> res = new HashSet<String>();
+    for (String alt : alts) {
+      List<String> prefixes = anchoredPrefixes(alt);
+      if (prefixes == null) {
+	return null;
+      }
+      for (String prefix : prefixes) {
+	if (prefix.isEmpty()) {
+	  return null;
+	}
+	res.add(prefix.toLowerCase());
+      }
+    }
+    return res;
+  }
+
+  private static List<String> anchoredPrefixes(String pat) {
+    if (!pat.startsWith("^")) {
+      return null;
+    }
+    List<String> prefixes = Collections.singletonList("");
+    int len = pat.length();
+    int pos = 1;
+    while (pos < len) {
+      // Find the strings matched by the next atom
+      List<String> atom;
+      int end;
+      char c = pat.charAt(pos);
+      if (c == '\\') {
+	if (pos + 1 >= len || Character.isLetterOrDigit(pat.charAt(pos + 1))) {
+	  break;
+	}
+	atom = Collections.singletonList(pat.substring(pos + 1, pos + 2));
+	end = pos + 2;
+      } else if (c == '(') {
+	int close = pat.indexOf(')', pos);
+	int start = pat.startsWith("(?:", pos) ? pos + 3 : pos + 1;
+	if (close < start || pat.charAt(start) == '?') {
+	  break;
+	}
+	atom = literalAlternatives(pat.substring(start, close));
+	if (atom == null) {
+	  break;
+	}
+	end = close + 1;
+      } else if (RE_META.indexOf(c) >= 0) {
+	break;
+      } else {
+	atom = Collections.singletonList(pat.substring(pos, pos + 1));
+	end = pos + 1;
+      }
+      // Apply a following quantifier
+      char quant = end < len ? pat.charAt(end) : 0;
+      if (quant == '*' || quant == '{') {
+	break;
+      }
+      if (quant == '?') {
+	atom = new ArrayList<String>(atom);
+	atom.add("");
+	// lazy and possessive forms match the same strings
+	end++;
+	if (end < len && (pat.charAt(end) == '?' || pat.charAt(end) == '+')) {
+	  end++;
+	}
+      }
+      if (prefixes.size() * atom.size() > MAX_PREFIXES_PER_RE) {
+	break;
+      }
+      List<String> next = new ArrayList<String>();
+      for (String prefix : prefixes) {
+	for (String s : atom) {
+	  next.add(prefix + s);
+	}
+      }
+      prefixes = next;
+      if (quant == '+') {
+	// atom may repeat
+	break;
+      }
+      pos = end;
+    }
+    return prefixes;
+  }
+
+  /** Parse the body of a group consisting only of literal alternatives,
+   * return null if it contains anything else */
+  private static List<String> literalAlternatives(String body) {
+    List<String> res = new ArrayList<String>();
+    StringBuilder sb = new StringBuilder();
+    int len = body.length();
+    for (int ix = 0; ix < len; ix++) {
+      char c = body.charAt(ix);
+      if (c == '\\') {
+	if (++ix >= len || Character.isLetterOrDigit(body.charAt(ix))) {
+	  return null;
+	}
+	sb.append(body.charAt(ix));
+      } else if (c == '|') {
+	res.add(sb.toString());
+	sb.setLength(0);
+      } else if (RE_META.indexOf(c) >= 0) {
+	return null;
+      } else {
+	sb.append(c);
+      }
+    }
+    res.add(sb.toString());
+    return res;
+  }
+
+  /** Split the regexp at top level alternation operators.  Returns null
+   * if the parenthesis or bracket structure can't be followed. */
+  private static List<String> splitAlternatives(String pat) {
+    List<String> res = new ArrayList<String>();
+    int depth = 0;
+    int start = 0;
+    int len = pat.length();
+    for (int ix = 0; ix < len; ix++) {
+      char c = pat.charAt(ix);
+      switch (c) {
+      case '\\':
+	ix++;
+	break;
+      case '[':
+	// skip char class.  A ']' immediately following '[' or '[^' is
+	// literal
+	ix++;
+	if (ix < len && pat.charAt(ix) == '^') ix++;
+	if (ix < len && pat.charAt(ix) == ']') ix++;
+	while (ix < len && pat.charAt(ix) != ']') {
+	  if (pat.charAt(ix) == '\\') ix++;
+	  ix++;
+	}
+	if (ix >= len) {
+	  return null;
+	}
+	break;
+      case '(':
+	depth++;
+	break;
+      case ')':
+	if (--depth < 0) {
+	  return null;
+	}
+	break;
+      case '|':
+	if (depth == 0) {
+	  res.add(pat.substring(start, ix));
+	  start = ix + 1;
+	}
+	break;
+      }
+    }
+    if (depth != 0) {
+      return null;
+    }
+    res.add(pat.substring(start));
+    return res;
+  }
 }
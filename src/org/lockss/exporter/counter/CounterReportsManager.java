@@ -50,6 +50,7 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -65,6 +66,8 @@ import org.lockss.db.DbException;
 import org.lockss.db.DbManager;
 import org.lockss.laaws.MigrationManager;
 import org.lockss.metadata.MetadataManager;
+import org.lockss.daemon.status.StatusService;
+import org.lockss.util.Constants;
 import org.lockss.util.FileUtil;
 import org.lockss.util.Logger;
 import org.lockss.util.StringUtil;
@@ -131,6 +134,60 @@ public class CounterReportsManager extends BaseLockssDaemonManager {
   public static final String DEFAULT_REPORT_ORGNAME =
       "YOUR_ORGANIZATION_NAME_HERE";
 
+  /**
+   * Indication of whether requests are queued and persisted in batches by a
+   * background thread, instead of on the thread serving the request.
+   * <p>
+   * Defaults to <code>true</code>. Changes require daemon restart.
+   */
+  public static final String PARAM_ASYNC_REQUEST_RECORDING = PREFIX
+      + "asyncRequestRecording";
+
+  public static final boolean DEFAULT_ASYNC_REQUEST_RECORDING = true;
+
+  /**
+   * Maximum number of requests waiting to be persisted. Requests arriving
+   * when the queue is full are dropped.
+   * <p>
+   * Defaults to <code>10000</code>. Changes require daemon restart.
+   */
+  public static final String PARAM_REQUEST_QUEUE_SIZE = PREFIX
+      + "requestQueueSize";
+
+  public static final int DEFAULT_REQUEST_QUEUE_SIZE = 10000;
+
+  /**
+   * Maximum number of requests persisted in one database batch.
+   * <p>
+   * Defaults to <code>500</code>. Changes require daemon restart.
+   */
+  public static final String PARAM_REQUEST_BATCH_SIZE = PREFIX
+      + "requestBatchSize";
+
+  public static final int DEFAULT_REQUEST_BATCH_SIZE = 500;
+
+  /**
+   * Maximum time the request writer waits for more requests before
+   * persisting those already queued.
+   * <p>
+   * Defaults to 5 seconds. Changes require daemon restart.
+   */
+  public static final String PARAM_REQUEST_FLUSH_INTERVAL = PREFIX
+      + "requestFlushInterval";
+
+  public static final long DEFAULT_REQUEST_FLUSH_INTERVAL =
+      5 * Constants.SECOND;
+
+  /**
+   * Number of entries in the cache of lookups that decide whether a requested
+   * URL is a full-text URL.
+   * <p>
+   * Defaults to <code>10000</code>. Changes require daemon restart.
+   */
+  public static final String PARAM_URL_CACHE_SIZE = PREFIX + "urlCacheSize";
+
+  public static final int DEFAULT_URL_CACHE_SIZE = 10000;
+
   // Aggregations names.
   public static final String ALL_BOOKS_NAME = "COUNTER REPORTS ALL BOOKS";
   public static final String ALL_JOURNALS_NAME = "COUNTER REPORTS ALL JOURNALS";
@@ -476,6 +533,15 @@ public class CounterReportsManager extends BaseLockssDaemonManager {
   // The default organization name.
   private String defaultOrgName = DEFAULT_REPORT_ORGNAME;
 
+  // The queue of requests waiting to be persisted.
+  private CounterReportsRequestQueue requestQueue = null;
+
+  private boolean asyncRequestRecording = DEFAULT_ASYNC_REQUEST_RECORDING;
+  private int requestQueueSize = DEFAULT_REQUEST_QUEUE_SIZE;
+  private int requestBatchSize = DEFAULT_REQUEST_BATCH_SIZE;
+  private long requestFlushInterval = DEFAULT_REQUEST_FLUSH_INTERVAL;
+  private int urlCacheSize = DEFAULT_URL_CACHE_SIZE;
+
   /**
    * Starts the CounterReportsManager service.
    */
@@ -571,6 +637,17 @@ public class CounterReportsManager extends BaseLockssDaemonManager {
       return;
     }
 
+    // Start persisting the recorded requests.
+    requestQueue = new CounterReportsRequestQueue(this, dbManager,
+	requestQueueSize, requestBatchSize, requestFlushInterval, urlCacheSize,
+	asyncRequestRecording);
+    requestQueue.start();
+
+    StatusService statusServ = getDaemon().getStatusService();
+    statusServ.registerStatusAccessor(
+	CounterReportsRequestQueue.STATUS_TABLE_NAME,
+	new CounterReportsRequestQueue.Status(this));
+
     // Do not schedule COUNTER aggregation in migration mode.
     if (getDaemon().getMigrationManager().isRealMigrationMode()) {
       log.debug2(DEBUG_HEADER
@@ -589,6 +666,21 @@ public class CounterReportsManager extends BaseLockssDaemonManager {
     ready = true;
   }
 
+  /**
+   * Stops the CounterReportsManager service, persisting any queued requests.
+   */
+  @Override
+  public void stopService() {
+    if (requestQueue != null) {
+      getDaemon().getStatusService()
+	  .unregisterStatusAccessor(CounterReportsRequestQueue.STATUS_TABLE_NAME);
+      requestQueue.stop();
+      requestQueue = null;
+    }
+    ready = false;
+    super.stopService();
+  }
+
   /**
    * Handles configuration parameters.
    * 
@@ -639,6 +731,16 @@ public class CounterReportsManager extends BaseLockssDaemonManager {
     defaultOrgName = config.get(PARAM_REPORT_ORGNAME, DEFAULT_REPORT_ORGNAME);
     if (log.isDebug3()) log.debug3("defaultOrgName = " + defaultOrgName);
 
+    asyncRequestRecording = config.getBoolean(PARAM_ASYNC_REQUEST_RECORDING,
+	DEFAULT_ASYNC_REQUEST_RECORDING);
+    requestQueueSize =
+	config.getInt(PARAM_REQUEST_QUEUE_SIZE, DEFAULT_REQUEST_QUEUE_SIZE);
+    requestBatchSize =
+	config.getInt(PARAM_REQUEST_BATCH_SIZE, DEFAULT_REQUEST_BATCH_SIZE);
+    requestFlushInterval = config.getTimeInterval(PARAM_REQUEST_FLUSH_INTERVAL,
+	DEFAULT_REQUEST_FLUSH_INTERVAL);
+    urlCacheSize = config.getInt(PARAM_URL_CACHE_SIZE, DEFAULT_URL_CACHE_SIZE);
+
     log.debug2(DEBUG_HEADER + "Done.");
     return true;
   }
@@ -732,6 +834,16 @@ public class CounterReportsManager extends BaseLockssDaemonManager {
     return ready;
   }
 
+  /**
+   * Provides the queue of requests waiting to be persisted.
+   * 
+   * @return a CounterReportsRequestQueue, or <code>null</code> if this object
+   *         is not ready to be used.
+   */
+  public CounterReportsRequestQueue getRequestQueue() {
+    return requestQueue;
+  }
+
   /**
    * Persists the data involved in a request.
    * 
@@ -767,64 +879,89 @@ public class CounterReportsManager extends BaseLockssDaemonManager {
       // Get a connection to the database.
       conn = dbManager.getConnection();
 
-      // Get the date of the request.
-      Calendar calendar = Calendar.getInstance();
-      calendar.setTime(TimeBase.nowDate());
+      persistRequests(conn, Collections.singletonList(
+	  new CounterReportsRequestQueue.Request(url, isPublisherInvolved,
+						 organization,
+						 TimeBase.nowMs())));
+      success = true;
+    } finally {
+      if (success) {
+	DbManager.commitOrRollback(conn, log);
+	log.debug2(DEBUG_HEADER + "Successful commit.");
+	DbManager.safeCloseConnection(conn);
+      } else {
+	DbManager.safeRollbackAndClose(conn);
+      }
+    }
+  }
 
-      int requestYear = calendar.get(Calendar.YEAR);
-      log.debug2(DEBUG_HEADER + "requestYear = " + requestYear);
-      int requestMonth = (calendar.get(Calendar.MONTH) + 1);
-      log.debug2(DEBUG_HEADER + "requestMonth = " + requestMonth);
-      int requestDay = calendar.get(Calendar.DAY_OF_MONTH);
-      log.debug2(DEBUG_HEADER + "requestDay = " + requestDay);
+  /**
+   * Persists the data involved in a batch of requests, without committing.
+   * 
+   * @param conn
+   *          A Connection with the database connection to be used.
+   * @param requests
+   *          A List<CounterReportsRequestQueue.Request> with the requests.
+   * @throws DbException
+   *           if there are problems accessing the database.
+   */
+  void persistRequests(Connection conn,
+      List<CounterReportsRequestQueue.Request> requests) throws DbException {
+    final String DEBUG_HEADER = "persistRequests(): ";
+    String sql = SQL_QUERY_URL_REQUEST_INSERT;
+    log.debug2(DEBUG_HEADER + "SQL = '" + sql + "'.");
+    PreparedStatement insertRequest = null;
+    String url = null;
+    Calendar calendar = Calendar.getInstance();
 
-      String sql = SQL_QUERY_URL_REQUEST_INSERT;
-      log.debug2(DEBUG_HEADER + "SQL = '" + sql + "'.");
-      PreparedStatement insertRequest = null;
+    try {
+      // Prepare the statement used to persist the requests.
+      insertRequest = dbManager.prepareStatement(conn, sql);
 
-      try {
-        // Prepare the statement used to persist the request.
-        insertRequest = dbManager.prepareStatement(conn, sql);
+      for (CounterReportsRequestQueue.Request request : requests) {
+	url = request.url;
+
+	// Get the date of the request.
+	calendar.setTimeInMillis(request.time);
 
-        short index = 1;
+	int requestYear = calendar.get(Calendar.YEAR);
+	int requestMonth = (calendar.get(Calendar.MONTH) + 1);
+	int requestDay = calendar.get(Calendar.DAY_OF_MONTH);
+	if (log.isDebug3()) log.debug3(DEBUG_HEADER + "url = '" + url
+	    + "', date = " + requestYear + "-" + requestMonth + "-"
+	    + requestDay);
 
-        // Populate the URL.
-        insertRequest.setString(index++, url);
+	short index = 1;
 
-        // Populate the indication of whether this record corresponds to the
-        // serving of the request by the publisher.
-        insertRequest.setBoolean(index++, isPublisherInvolved);
+	// Populate the URL.
+	insertRequest.setString(index++, url);
 
-        // Populate the year of the request.
-        insertRequest.setShort(index++, (short) requestYear);
+	// Populate the indication of whether this record corresponds to the
+	// serving of the request by the publisher.
+	insertRequest.setBoolean(index++, request.isPublisherInvolved);
 
-        // Populate the month of the request.
-        insertRequest.setShort(index++, (short) requestMonth);
+	// Populate the year of the request.
+	insertRequest.setShort(index++, (short) requestYear);
 
-        // Populate the day of the request.
-        insertRequest.setShort(index++, (short) requestDay);
+	// Populate the month of the request.
+	insertRequest.setShort(index++, (short) requestMonth);
 
-        // Insert the record.
-        int count = dbManager.executeUpdate(insertRequest);
-        log.debug2(DEBUG_HEADER + "count = " + count);
-      } catch (SQLException sqle) {
-        log.error("Cannot persist URL request", sqle);
-        log.error("URL = '" + url + "'.");
-        log.error("SQL = '" + sql + "'.");
-        throw new DbException("Cannot persist URL request", sqle);
-      } finally {
-        DbManager.safeCloseStatement(insertRequest);
+	// Populate the day of the request.
+	insertRequest.setShort(index++, (short) requestDay);
+
+	insertRequest.addBatch();
       }
 
-      success = true;
+      // Insert the records.
+      int[] counts = insertRequest.executeBatch();
+      log.debug2(DEBUG_HEADER + "count = " + counts.length);
+    } catch (SQLException sqle) {
+      log.error("Cannot persist URL request", sqle);
+      log.error("URL = '" + url + "'.");
+      log.error("SQL = '" + sql + "'.");
+      throw new DbException("Cannot persist URL request", sqle);
     } finally {
-      if (success) {
-	DbManager.commitOrRollback(conn, log);
-	log.debug2(DEBUG_HEADER + "Successful commit.");
-	DbManager.safeCloseConnection(conn);
-      } else {
-	DbManager.safeRollbackAndClose(conn);
-      }
+      DbManager.safeCloseStatement(insertRequest);
     }
   }
 
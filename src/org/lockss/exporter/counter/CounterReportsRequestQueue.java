@@ -0,0 +1,569 @@
+/*
+
+Copyright (c) 2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+
+package org.lockss.exporter.counter;
+
+import static org.lockss.db.SqlConstants.*;
+import static org.lockss.plugin.ArticleFiles.*;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.collections.map.LRUMap;
+import org.lockss.daemon.LockssRunnable;
+import org.lockss.daemon.status.ColumnDescriptor;
+import org.lockss.daemon.status.StatusAccessor;
+import org.lockss.daemon.status.StatusTable;
+import org.lockss.db.DbException;
+import org.lockss.db.DbManager;
+import org.lockss.plugin.ArchivalUnit;
+import org.lockss.util.Deadline;
+import org.lockss.util.Logger;
+import org.lockss.util.TimeBase;
+
+/**
+ * Holds the requests waiting to be persisted for COUNTER reports, so that
+ * the threads serving content do not wait on the database.  A background
+ * writer drains the queue and persists the requests in batches.  When the
+ * queue is full new requests are dropped and counted.
+ * <p>
+ * The lookups that decide whether a URL is a full-text URL are cached; the
+ * entries for an AU are invalidated when its metadata is reindexed.
+ */
+public class CounterReportsRequestQueue {
+  private static final Logger log =
+      Logger.getLogger(CounterReportsRequestQueue.class);
+
+  /** Name of the status table. */
+  public static final String STATUS_TABLE_NAME = "CounterRequestQueue";
+
+  private static final String SQL_QUERY_MD_ITEM_ID_FROM_URL = "select "
+      + MD_ITEM_SEQ_COLUMN
+      + " from " + URL_TABLE
+      + " where " + URL_COLUMN + " = ?"
+      + " and (" + FEATURE_COLUMN + " = '" + ROLE_FULL_TEXT_HTML
+      + "' or " + FEATURE_COLUMN + " = '" + ROLE_FULL_TEXT_PDF
+      + "')";
+
+  private final CounterReportsManager counterReportsManager;
+  private final DbManager dbManager;
+  private final LinkedBlockingQueue<Request> queue;
+  private final int batchSize;
+  private final long flushInterval;
+  private final boolean async;
+
+  // Full-text URL lookup cache: URL -> Boolean.
+  private final LRUMap urlCache;
+
+  // Incremented, holding urlCache, whenever cached lookups are invalidated.
+  // A lookup result is cached only if no invalidation happened while the
+  // database was being queried, as the query may have seen the old metadata.
+  private long urlCacheGeneration = 0;
+
+  // Held while a batch is being written, so that flush() does not interleave
+  // with the writer.
+  private final Object writeLock = new Object();
+
+  private Writer writer = null;
+
+  // Requests accepted but not yet written.
+  private int pending = 0;
+
+  // Statistics.
+  private long accepted = 0;
+  private long dropped = 0;
+  private long written = 0;
+  private long ignored = 0;
+  private long failed = 0;
+  private long batches = 0;
+  private long cacheHits = 0;
+  private long cacheMisses = 0;
+  private long lastFlushLatency = 0;
+  private long maxFlushLatency = 0;
+  private long totalFlushLatency = 0;
+  private long lastQueueDelay = 0;
+  private long maxQueueDelay = 0;
+
+  /**
+   * Constructor.
+   * 
+   * @param counterReportsManager
+   *          A CounterReportsManager that persists the requests.
+   * @param dbManager
+   *          A DbManager with the database manager.
+   * @param queueSize
+   *          An int with the maximum number of requests waiting to be written.
+   * @param batchSize
+   *          An int with the maximum number of requests written in one batch.
+   * @param flushInterval
+   *          A long with the maximum time the writer waits for a batch to
+   *          fill before writing it.
+   * @param cacheSize
+   *          An int with the size of the full-text URL lookup cache.
+   * @param async
+   *          A boolean with <code>false</code> to write each request on the
+   *          calling thread instead of queueing it.
+   */
+  public CounterReportsRequestQueue(CounterReportsManager counterReportsManager,
+      DbManager dbManager, int queueSize, int batchSize, long flushInterval,
+      int cacheSize, boolean async) {
+    this.counterReportsManager = counterReportsManager;
+    this.dbManager = dbManager;
+    this.queue = new LinkedBlockingQueue<Request>(Math.max(queueSize, 1));
+    this.batchSize = Math.max(batchSize, 1);
+    this.flushInterval = flushInterval;
+    this.async = async;
+    this.urlCache = new LRUMap(Math.max(cacheSize, 1));
+  }
+
+  /**
+   * Starts the background writer, if requests are recorded asynchronously.
+   */
+  public synchronized void start() {
+    if (async && writer == null) {
+      writer = new Writer();
+      new Thread(writer).start();
+    }
+  }
+
+  /**
+   * Stops the background writer and writes any requests still queued.
+   */
+  public void stop() {
+    Writer w;
+    synchronized (this) {
+      w = writer;
+      writer = null;
+    }
+    if (w != null) {
+      w.stopWriter();
+      w.waitExited(Deadline.in(flushInterval + 1000));
+    }
+    flush();
+  }
+
+  /**
+   * Provides an indication of whether requests are recorded asynchronously.
+   * 
+   * @return <code>true</code> if requests are queued, <code>false</code> if
+   *         they are written on the calling thread.
+   */
+  public boolean isAsync() {
+    return async;
+  }
+
+  /**
+   * Adds a request to be persisted.
+   * 
+   * @param url
+   *          A String with the requested URL.
+   * @param isPublisherInvolved
+   *          A boolean indicating the involvement of the publisher.
+   * @param organization
+   *          A String with the name of the organization to which to assign this
+   *          request for COUNTER purposes.
+   * @return <code>true</code> if the request was accepted,
+   *         <code>false</code> if it was dropped because the queue is full.
+   */
+  public boolean add(String url, boolean isPublisherInvolved,
+      String organization) {
+    Request request = new Request(url, isPublisherInvolved, organization,
+				  TimeBase.nowMs());
+    if (!async) {
+      synchronized (this) {
+	accepted++;
+	pending++;
+      }
+      synchronized (writeLock) {
+	writeBatch(Collections.singletonList(request));
+      }
+      return true;
+    }
+
+    synchronized (this) {
+      if (!queue.offer(request)) {
+	dropped++;
+	if (dropped == 1 || dropped % 1000 == 0) {
+	  log.warning("COUNTER request queue full, " + dropped
+	      + " requests dropped");
+	}
+	return false;
+      }
+      accepted++;
+      pending++;
+    }
+    return true;
+  }
+
+  /**
+   * Writes all the queued requests and waits until those already taken by
+   * the background writer have been written.
+   */
+  public void flush() {
+    synchronized (writeLock) {
+      List<Request> batch = new ArrayList<Request>();
+      while (queue.drainTo(batch, batchSize) > 0) {
+	writeBatch(batch);
+	batch.clear();
+      }
+    }
+
+    Deadline limit = Deadline.in(flushInterval + 60000);
+    synchronized (this) {
+      while (pending > 0 && !limit.expired()) {
+	try {
+	  wait(1000);
+	} catch (InterruptedException e) {
+	  break;
+	}
+      }
+    }
+  }
+
+  /**
+   * Forgets the cached full-text URL lookups for the URLs of an Archival
+   * Unit.
+   * 
+   * @param au
+   *          An ArchivalUnit whose metadata has changed.
+   */
+  public void invalidateUrls(ArchivalUnit au) {
+    Collection<String> stems = au.getUrlStems();
+    synchronized (urlCache) {
+      urlCacheGeneration++;
+      if (stems == null || stems.isEmpty()) {
+	urlCache.clear();
+	return;
+      }
+      for (Iterator iter = urlCache.keySet().iterator(); iter.hasNext(); ) {
+	String url = (String)iter.next();
+	for (String stem : stems) {
+	  if (url.startsWith(stem)) {
+	    iter.remove();
+	    break;
+	  }
+	}
+      }
+    }
+  }
+
+  /**
+   * Forgets all the cached full-text URL lookups.
+   */
+  public void clearUrlCache() {
+    synchronized (urlCache) {
+      urlCacheGeneration++;
+      urlCache.clear();
+    }
+  }
+
+  /**
+   * Provides the number of requests waiting in the queue.
+   * 
+   * @return an int with the queue depth.
+   */
+  public int getQueueDepth() {
+    return queue.size();
+  }
+
+  public synchronized long getDroppedCount() {
+    return dropped;
+  }
+
+  public synchronized long getWrittenCount() {
+    return written;
+  }
+
+  public synchronized long getIgnoredCount() {
+    return ignored;
+  }
+
+  public synchronized long getFailedCount() {
+    return failed;
+  }
+
+  public synchronized long getCacheHits() {
+    return cacheHits;
+  }
+
+  public synchronized long getCacheMisses() {
+    return cacheMisses;
+  }
+
+  /**
+   * Persists a batch of requests, skipping those that do not correspond to a
+   * full-text URL.  Must be called holding writeLock.
+   * 
+   * @param batch
+   *          A List<Request> with the requests to be written.
+   */
+  private void writeBatch(List<Request> batch) {
+    final String DEBUG_HEADER = "writeBatch(): ";
+    if (batch.isEmpty()) {
+      return;
+    }
+    long start = TimeBase.nowMs();
+    List<Request> recordable = new ArrayList<Request>(batch.size());
+    Connection conn = null;
+    PreparedStatement getUrlMdItemId = null;
+    boolean success = false;
+
+    try {
+      conn = dbManager.getConnection();
+
+      for (Request request : batch) {
+	Boolean isFullText;
+	long generation;
+	synchronized (urlCache) {
+	  isFullText = (Boolean)urlCache.get(request.url);
+	  generation = urlCacheGeneration;
+	}
+	if (isFullText == null) {
+	  if (getUrlMdItemId == null) {
+	    getUrlMdItemId =
+		dbManager.prepareStatement(conn, SQL_QUERY_MD_ITEM_ID_FROM_URL);
+	  }
+	  isFullText =
+	      Boolean.valueOf(isFullTextUrl(getUrlMdItemId, request.url));
+	  synchronized (urlCache) {
+	    if (generation == urlCacheGeneration) {
+	      urlCache.put(request.url, isFullText);
+	    }
+	  }
+	  synchronized (this) {
+	    cacheMisses++;
+	  }
+	} else {
+	  synchronized (this) {
+	    cacheHits++;
+	  }
+	}
+	if (isFullText.booleanValue()) {
+	  recordable.add(request);
+	}
+      }
+
+      if (!recordable.isEmpty()) {
+	counterReportsManager.persistRequests(conn, recordable);
+	DbManager.commitOrRollback(conn, log);
+      }
+      success = true;
+    } catch (DbException dbe) {
+      log.error("Cannot persist " + batch.size()
+	  + " requests - Statistics not collected", dbe);
+    } finally {
+      DbManager.safeCloseStatement(getUrlMdItemId);
+      DbManager.safeRollbackAndClose(conn);
+    }
+
+    long now = TimeBase.nowMs();
+    synchronized (this) {
+      if (success) {
+	written += recordable.size();
+	ignored += batch.size() - recordable.size();
+      } else {
+	failed += batch.size();
+      }
+      batches++;
+      lastFlushLatency = now - start;
+      maxFlushLatency = Math.max(maxFlushLatency, lastFlushLatency);
+      totalFlushLatency += lastFlushLatency;
+      lastQueueDelay = start - batch.get(0).time;
+      maxQueueDelay = Math.max(maxQueueDelay, lastQueueDelay);
+      pending -= batch.size();
+      notifyAll();
+    }
+    if (log.isDebug2()) log.debug2(DEBUG_HEADER + "Wrote "
+	+ recordable.size() + " of " + batch.size() + " requests in "
+	+ (now - start) + " ms.");
+  }
+
+  /**
+   * Provides an indication of whether a URL is a full-text URL for which
+   * requests are counted.
+   * 
+   * @param getUrlMdItemId
+   *          A PreparedStatement with the full-text URL lookup query.
+   * @param url
+   *          A String with the URL.
+   * @return <code>true</code> if the URL has a full-text metadata item.
+   * @throws DbException
+   *           if there are problems accessing the database.
+   */
+  private boolean isFullTextUrl(PreparedStatement getUrlMdItemId, String url)
+      throws DbException {
+    ResultSet results = null;
+
+    try {
+      getUrlMdItemId.setString(1, url);
+      results = dbManager.executeQuery(getUrlMdItemId);
+      return results.next();
+    } catch (SQLException sqle) {
+      throw new DbException(
+	  "Cannot find full-text URL metadata item identifier", sqle);
+    } finally {
+      DbManager.safeCloseResultSet(results);
+    }
+  }
+
+  /**
+   * A request waiting to be persisted.
+   */
+  static class Request {
+    final String url;
+    final boolean isPublisherInvolved;
+    final String organization;
+    final long time;
+
+    Request(String url, boolean isPublisherInvolved, String organization,
+	long time) {
+      this.url = url;
+      this.isPublisherInvolved = isPublisherInvolved;
+      this.organization = organization;
+      this.time = time;
+    }
+  }
+
+  /**
+   * Drains the queue, writing the requests in batches.
+   */
+  private class Writer extends LockssRunnable {
+    private volatile boolean goOn = true;
+
+    Writer() {
+      super("CounterRequestWriter");
+    }
+
+    public void lockssRun() {
+      List<Request> batch = new ArrayList<Request>(batchSize);
+      while (goOn) {
+	try {
+	  Request first = queue.poll(flushInterval, TimeUnit.MILLISECONDS);
+	  if (first == null) {
+	    continue;
+	  }
+	  synchronized (writeLock) {
+	    batch.add(first);
+	    queue.drainTo(batch, batchSize - 1);
+	    writeBatch(batch);
+	    batch.clear();
+	  }
+	} catch (InterruptedException e) {
+	  // check goOn
+	} catch (RuntimeException e) {
+	  log.error("Unexpected error writing COUNTER requests", e);
+	  synchronized (CounterReportsRequestQueue.this) {
+	    pending -= batch.size();
+	    failed += batch.size();
+	    CounterReportsRequestQueue.this.notifyAll();
+	  }
+	  batch.clear();
+	}
+      }
+    }
+
+    void stopWriter() {
+      goOn = false;
+      interruptThread();
+    }
+  }
+
+  /**
+   * Status table showing the depth of the queue and the writer's progress.
+   */
+  static class Status implements StatusAccessor {
+    private final CounterReportsManager counterReportsManager;
+
+    Status(CounterReportsManager counterReportsManager) {
+      this.counterReportsManager = counterReportsManager;
+    }
+
+    public String getDisplayName() {
+      return "COUNTER Request Queue";
+    }
+
+    public boolean requiresKey() {
+      return false;
+    }
+
+    public void populateTable(StatusTable table) {
+      CounterReportsRequestQueue rq = counterReportsManager.getRequestQueue();
+      if (rq != null) {
+	table.setSummaryInfo(rq.getSummaryInfo());
+      }
+    }
+  }
+
+  synchronized List<StatusTable.SummaryInfo> getSummaryInfo() {
+    List<StatusTable.SummaryInfo> res =
+	new ArrayList<StatusTable.SummaryInfo>();
+    addSum(res, "Mode", ColumnDescriptor.TYPE_STRING,
+	   async ? "Asynchronous" : "Synchronous");
+    addSum(res, "Queue Depth", ColumnDescriptor.TYPE_INT, queue.size());
+    addSum(res, "Queue Capacity", ColumnDescriptor.TYPE_INT,
+	   queue.size() + queue.remainingCapacity());
+    addSum(res, "Accepted", ColumnDescriptor.TYPE_INT, accepted);
+    addSum(res, "Dropped", ColumnDescriptor.TYPE_INT, dropped);
+    addSum(res, "Written", ColumnDescriptor.TYPE_INT, written);
+    addSum(res, "Not Full-Text", ColumnDescriptor.TYPE_INT, ignored);
+    addSum(res, "Failed", ColumnDescriptor.TYPE_INT, failed);
+    addSum(res, "Batches", ColumnDescriptor.TYPE_INT, batches);
+    addSum(res, "Last Flush Latency", ColumnDescriptor.TYPE_TIME_INTERVAL,
+	   lastFlushLatency);
+    addSum(res, "Max Flush Latency", ColumnDescriptor.TYPE_TIME_INTERVAL,
+	   maxFlushLatency);
+    if (batches > 0) {
+      addSum(res, "Mean Flush Latency", ColumnDescriptor.TYPE_TIME_INTERVAL,
+	     totalFlushLatency / batches);
+    }
+    addSum(res, "Last Queue Delay", ColumnDescriptor.TYPE_TIME_INTERVAL,
+	   lastQueueDelay);
+    addSum(res, "Max Queue Delay", ColumnDescriptor.TYPE_TIME_INTERVAL,
+	   maxQueueDelay);
+    synchronized (urlCache) {
+      addSum(res, "URL Cache Size", ColumnDescriptor.TYPE_INT,
+	     urlCache.size());
+    }
+    addSum(res, "URL Cache Hits", ColumnDescriptor.TYPE_INT, cacheHits);
+    addSum(res, "URL Cache Misses", ColumnDescriptor.TYPE_INT, cacheMisses);
+    return res;
+  }
+
+  private static void addSum(List<StatusTable.SummaryInfo> res, String title,
+      int type, Object value) {
+    res.add(new StatusTable.SummaryInfo(title, type, value));
+  }
+}
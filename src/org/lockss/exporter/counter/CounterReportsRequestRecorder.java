@@ -31,20 +31,14 @@
  */
 package org.lockss.exporter.counter;
 
-import static org.lockss.db.SqlConstants.*;
-import static org.lockss.plugin.ArticleFiles.*;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.SQLException;
 import org.lockss.app.LockssDaemon;
-import org.lockss.db.DbException;
-import org.lockss.db.DbManager;
 import org.lockss.util.Logger;
 import org.mortbay.http.HttpResponse;
 
 /**
- * Persists the request data necessary to create COUNTER reports.
+ * Records the request data necessary to create COUNTER reports. The requests
+ * are handed to the {@link CounterReportsRequestQueue}, which persists them
+ * off the thread serving the request.
  * 
  * @version 1.0
  */
@@ -52,14 +46,6 @@ public class CounterReportsRequestRecorder {
   private static final Logger log = Logger
       .getLogger(CounterReportsRequestRecorder.class);
 
-  private static final String SQL_QUERY_MD_ITEM_ID_FROM_URL = "select "
-      + MD_ITEM_SEQ_COLUMN
-      + " from " + URL_TABLE
-      + " where " + URL_COLUMN + " = ?"
-      + " and (" + FEATURE_COLUMN + " = '" + ROLE_FULL_TEXT_HTML
-      + "' or " + FEATURE_COLUMN + " = '" + ROLE_FULL_TEXT_PDF
-      + "')";
-
   // The singleton instance of this class.
   private static final CounterReportsRequestRecorder instance =
       new CounterReportsRequestRecorder();
@@ -104,88 +90,31 @@ public class CounterReportsRequestRecorder {
    */
   public void recordRequest(String url, PublisherContacted contacted,
       int publisherCode, String organization) {
-    try {
-      final String DEBUG_HEADER = "recordRequest(): ";
-      CounterReportsManager counterReportsManager =
-	  LockssDaemon.getLockssDaemon().getCounterReportsManager();
-      
-      // Check whether the COUNTER reports manager is disabled.
-      if (!counterReportsManager.isReady()) {
-	// Yes: Do nothing.
-	log.debug2(DEBUG_HEADER + "Done: COUNTER reports manager is disabled.");
-	return;
-      }
-
-      // No: Get the metadata identifier of the URL.
-      log.debug2(DEBUG_HEADER + "url = '" + url + "'.");
-      Long mdItemId = findMatchingFullTextMdItemId(url);
-
-      // Do nothing more if it is not a request needed for any report.
-      if (mdItemId == null) {
-	return;
-      }
-
-      // Get an indication of whether the publisher is involved in serving the
-      // content.
-      log.debug2("publisherCode = " + publisherCode);
-      boolean isPublisherInvolved = contacted == PublisherContacted.TRUE
-	  && (publisherCode == HttpResponse.__200_OK
-	      || publisherCode == HttpResponse.__304_Not_Modified);
-      log.debug2("isPublisherInvolved = " + isPublisherInvolved);
-
-      // Persist the request data.
-      counterReportsManager.persistRequest(url, isPublisherInvolved,
-	  organization);
-      log.debug2(DEBUG_HEADER + "Done.");
-    } catch (DbException sqle) {
-      log.error("Cannot persist request - Statistics not collected", sqle);
-    }
-  }
-
-  /**
-   * Provides the metadata item identifier that corresponds to a full-text URL.
-   * 
-   * @param url
-   *          A String with the URL.
-   * @return a Long with the metadata item identifier, if any.
-   * @throws DbException
-   *           if there are problems accessing the database.
-   */
-  private Long findMatchingFullTextMdItemId(String url) throws DbException {
-    final String DEBUG_HEADER = "findMatchingFullTextMdItemId(): ";
-
-    Connection conn = null;
-    PreparedStatement getUrlMdItemId = null;
-    ResultSet results = null;
-    Long mdItemId = null;
-    DbManager dbManager = LockssDaemon.getLockssDaemon().getDbManager();
-
-    try {
-      // Get the database connection.
-      conn = dbManager.getConnection();
-
-      // Prepare the query.
-      getUrlMdItemId =
-	  dbManager.prepareStatement(conn, SQL_QUERY_MD_ITEM_ID_FROM_URL);
-      getUrlMdItemId.setString(1, url);
-
-      // Get any results.
-      results = dbManager.executeQuery(getUrlMdItemId);
-
-      // Get the metadata item identifier.
-      if (results.next()) {
-	mdItemId = results.getLong(MD_ITEM_SEQ_COLUMN);
-      }
-    } catch (SQLException sqle) {
-      throw new DbException(
-	  "Cannot find full-text URL metadata item identifier", sqle);
-    } finally {
-      DbManager.safeCloseResultSet(results);
-      DbManager.safeCloseStatement(getUrlMdItemId);
-      DbManager.safeRollbackAndClose(conn);
+    final String DEBUG_HEADER = "recordRequest(): ";
+    CounterReportsManager counterReportsManager =
+	LockssDaemon.getLockssDaemon().getCounterReportsManager();
+    CounterReportsRequestQueue requestQueue =
+	counterReportsManager.getRequestQueue();
+
+    // Check whether the COUNTER reports manager is disabled.
+    if (!counterReportsManager.isReady() || requestQueue == null) {
+      // Yes: Do nothing.
+      log.debug2(DEBUG_HEADER + "Done: COUNTER reports manager is disabled.");
+      return;
     }
 
-    log.debug2(DEBUG_HEADER + "mdItemId = '" + mdItemId + "'.");
-    return mdItemId;
+    // Get an indication of whether the publisher is involved in serving the
+    // content.
+    log.debug2(DEBUG_HEADER + "url = '" + url + "'.");
+    log.debug2("publisherCode = " + publisherCode);
+    boolean isPublisherInvolved = contacted == PublisherContacted.TRUE
+	&& (publisherCode == HttpResponse.__200_OK
+	    || publisherCode == HttpResponse.__304_Not_Modified);
+    log.debug2("isPublisherInvolved = " + isPublisherInvolved);
+
+    // Queue the request data to be persisted. Requests for URLs that are not
+    // needed for any report are discarded by the queue writer.
+    requestQueue.add(url, isPublisherInvolved, organization);
+    log.debug2(DEBUG_HEADER + "Done.");
   }
 }
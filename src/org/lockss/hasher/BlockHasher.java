@@ -31,6 +31,7 @@ package org.lockss.hasher;
 import java.io.InputStream;
 import java.security.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 
@@ -38,6 +39,8 @@ import org.apache.commons.lang3.ArrayUtils;
 import org.apache.oro.text.regex.*;
 import org.lockss.config.*;
 import org.lockss.plugin.*;
+import org.lockss.plugin.definable.*;
+import org.lockss.plugin.wrapper.WrapperUtil;
 import org.lockss.poller.*;
 import org.lockss.repository.AuSuspectUrlVersions;
 import org.lockss.state.*;
@@ -75,6 +78,43 @@ public class BlockHasher extends GenericHasher {
   public static String PARAM_V2_COMPAT = PollManager.PARAM_V2_COMPAT;
   public static boolean DEFAULT_V2_COMPAT = PollManager.DEFAULT_V2_COMPAT;
 
+  /** Number of threads used to update the per-peer digests in parallel.
+   * The content is still read and filtered once, on the hash thread;
+   * only the digest updates for each buffer are spread across the pool.
+   * Zero or one means all digests are updated sequentially on the hash
+   * thread. */
+  public static final String PARAM_PARALLEL_DIGEST_THREADS =
+    Configuration.PREFIX + "blockHasher.parallelDigestThreads";
+  public static final int DEFAULT_PARALLEL_DIGEST_THREADS = 0;
+
+  /** Digests are updated in parallel only if there are at least this
+   * many of them (i.e., the poll has at least this many invitees) */
+  public static final String PARAM_PARALLEL_DIGEST_MIN_DIGESTS =
+    Configuration.PREFIX + "blockHasher.parallelDigestMinDigests";
+  public static final int DEFAULT_PARALLEL_DIGEST_MIN_DIGESTS = 4;
+
+  /** Buffers smaller than this are hashed sequentially, as the handoff
+   * to the pool would cost more than it saves */
+  public static final String PARAM_PARALLEL_DIGEST_MIN_BYTES =
+    Configuration.PREFIX + "blockHasher.parallelDigestMinBytes";
+  public static final int DEFAULT_PARALLEL_DIGEST_MIN_BYTES = 4096;
+
+  /** Duration after which idle parallel digest threads will be
+   * terminated */
+  public static final String PARAM_PARALLEL_DIGEST_KEEPALIVE =
+    Configuration.PREFIX + "blockHasher.parallelDigestKeepAlive";
+  public static final long DEFAULT_PARALLEL_DIGEST_KEEPALIVE =
+    Constants.MINUTE;
+
+  /** If true, the filtered length and plain (un-nonced) hash of each
+   * version are recorded in the repository's per-version hash cache,
+   * keyed by the plugin and hash filter in effect.  Hashes that need only
+   * plain digests then use the cached values instead of reading and
+   * filtering the content again. */
+  public static final String PARAM_USE_HASH_CACHE =
+    Configuration.PREFIX + "blockHasher.useHashCache";
+  public static final boolean DEFAULT_USE_HASH_CACHE = false;
+
   private static final Logger log = Logger.getLogger(BlockHasher.class);
 
   private int maxVersions = DEFAULT_HASH_MAX_VERSIONS;
@@ -82,6 +122,13 @@ public class BlockHasher extends GenericHasher {
   private boolean ignoreFilesOutsideCrawlSpec =
     DEFAULT_IGNORE_FILES_OUTSIDE_CRAWL_SPEC;
   private boolean isExcludeSuspectVersions = false;
+  private int parallelDigestThreads = DEFAULT_PARALLEL_DIGEST_THREADS;
+  private int parallelDigestMinDigests = DEFAULT_PARALLEL_DIGEST_MIN_DIGESTS;
+  private int parallelDigestMinBytes = DEFAULT_PARALLEL_DIGEST_MIN_BYTES;
+  private boolean useHashCache = DEFAULT_USE_HASH_CACHE;
+
+  // Shared by all BlockHashers
+  private static ThreadPoolExecutor DIGEST_EXECUTOR = null;
 
   protected int excludedByPlugin = 0;
   protected int excludedByCrawlRule = 0;
@@ -105,6 +152,12 @@ public class BlockHasher extends GenericHasher {
   int vix = -1;
   private long verBytesRead;
   private long verBytesHashed;
+  // true if the current version's hashes should be stored in the hash
+  // cache when it has been hashed
+  private boolean storeInHashCache = false;
+  // content type -> hashFilterFingerprint()
+  private Map<String,String> filterFingerprints =
+    new HashMap<String,String>();
   InputStream is = null;
   CIProperties verProps;
   MessageDigest[] peerDigests;
@@ -188,6 +241,16 @@ public class BlockHasher extends GenericHasher {
 			DEFAULT_IGNORE_FILES_OUTSIDE_CRAWL_SPEC);
     enableLocalHash = config.getBoolean(PARAM_ENABLE_LOCAL_HASH,
 					DEFAULT_ENABLE_LOCAL_HASH);
+    parallelDigestThreads = config.getInt(PARAM_PARALLEL_DIGEST_THREADS,
+					  DEFAULT_PARALLEL_DIGEST_THREADS);
+    parallelDigestMinDigests =
+      config.getInt(PARAM_PARALLEL_DIGEST_MIN_DIGESTS,
+		    DEFAULT_PARALLEL_DIGEST_MIN_DIGESTS);
+    parallelDigestMinBytes =
+      config.getInt(PARAM_PARALLEL_DIGEST_MIN_BYTES,
+		    DEFAULT_PARALLEL_DIGEST_MIN_BYTES);
+    useHashCache = config.getBoolean(PARAM_USE_HASH_CACHE,
+				     DEFAULT_USE_HASH_CACHE);
     if (enableLocalHash) {
 //       localHashHandler = new DefaultLocalHashHandler();
       lhr = new LocalHashResult();
@@ -203,6 +266,12 @@ public class BlockHasher extends GenericHasher {
     includeUrl = val;
   }
 
+  /** Tell the hasher whether it may use and update the hash cache.
+   * Overrides {@link #PARAM_USE_HASH_CACHE}. */
+  public void setUseHashCache(boolean val) {
+    useHashCache = val;
+  }
+
   /** Tell the hasher whether to exclude versions of CUs that are marked as
    * suspect due to checksum mismatch. */
   public void setExcludeSuspectVersions(boolean val) {
@@ -324,6 +393,7 @@ public class BlockHasher extends GenericHasher {
       }
       verProps = curVer.getProperties();
       verBytesRead = 0;
+      storeInHashCache = false;
       cloneDigests();
 
       String useHashAlgorithm = startVersionLocalHash();
@@ -363,6 +433,12 @@ public class BlockHasher extends GenericHasher {
               enqueueSlashCU(curVer, redirTo);
             }
           }
+          if (isHashCacheUsable()) {
+            if (endVersionFromHashCache()) {
+              return true;
+            }
+            storeInHashCache = true;
+          }
           is = getInputStream(curVer);
         } else {
           if (isTrace) log.debug3("Local hash for " + curVer.getUrl());
@@ -548,7 +624,8 @@ public class BlockHasher extends GenericHasher {
 	endOfNode();
 	return 0;
       }
-      if (includeUrl) {
+      // Nothing to hash if the version was satisfied from the hash cache
+      if (includeUrl && is != null) {
 	byte [] nameBytes = curVer.getUrl().getBytes(StandardCharsets.UTF_8);
 	int hashed = updateDigests(nameBytes, nameBytes.length);
 	bytesHashed += hashed;
@@ -613,13 +690,110 @@ public class BlockHasher extends GenericHasher {
   }
 
   private int updateDigests(byte[] content, int len) {
-    for (int ix = 0; ix < peerDigests.length; ix++) {
-      if (isTrace) log.debug3("Updating digest " + ix + ", len = " + len);
-      peerDigests[ix].update(content, 0, len);
+    if (isParallelDigests(len)) {
+      updateDigestsParallel(content, len);
+    } else {
+      for (int ix = 0; ix < peerDigests.length; ix++) {
+	if (isTrace) log.debug3("Updating digest " + ix + ", len = " + len);
+	peerDigests[ix].update(content, 0, len);
+      }
     }
     return len * peerDigests.length;
   }
 
+  boolean isParallelDigests(int len) {
+    return parallelDigestThreads > 1
+      && peerDigests.length >= parallelDigestMinDigests
+      && len >= parallelDigestMinBytes;
+  }
+
+  /** Update the digests in interleaved slices, all but the first of
+   * which are run in the digest pool.  The first slice is run on this
+   * thread, then we wait for the others, so all digests have seen the
+   * buffer before it's refilled, and the order in which blocks and
+   * versions are reported is unaffected. */
+  private void updateDigestsParallel(final byte[] content, final int len) {
+    int nSlices = Math.min(parallelDigestThreads, peerDigests.length);
+    if (isTrace) log.debug3("Updating " + peerDigests.length +
+			    " digests in " + nSlices + " slices, len = " + len);
+    ThreadPoolExecutor executor = getDigestExecutor(parallelDigestThreads);
+    List<Future<?>> futures = new ArrayList<Future<?>>(nSlices - 1);
+    try {
+      for (int slice = 1; slice < nSlices; slice++) {
+	final int first = slice;
+	final int stride = nSlices;
+	futures.add(executor.submit(new Runnable() {
+	    public void run() {
+	      updateDigestSlice(content, len, first, stride);
+	    }}));
+      }
+      updateDigestSlice(content, len, 0, nSlices);
+      for (Future<?> fut : futures) {
+	fut.get();
+      }
+    } catch (InterruptedException e) {
+      throw new RuntimeInterruptedException(e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+	throw (RuntimeException)cause;
+      }
+      if (cause instanceof Error) {
+	throw (Error)cause;
+      }
+      throw new RuntimeException(cause);
+    } finally {
+      // Don't leave workers updating digests after an error
+      for (Future<?> fut : futures) {
+	fut.cancel(true);
+      }
+    }
+  }
+
+  private void updateDigestSlice(byte[] content, int len,
+				 int first, int stride) {
+    for (int ix = first; ix < peerDigests.length; ix += stride) {
+      peerDigests[ix].update(content, 0, len);
+    }
+  }
+
+  /**
+   * Provides the executor used for parallel digest updates, creating it
+   * or adjusting its size as necessary.
+   *
+   * @return a ThreadPoolExecutor with the executor.
+   */
+  static synchronized ThreadPoolExecutor getDigestExecutor(int poolsize) {
+    if (DIGEST_EXECUTOR == null) {
+      Configuration config = ConfigManager.getCurrentConfig();
+      long keepalive =
+	config.getTimeInterval(PARAM_PARALLEL_DIGEST_KEEPALIVE,
+			       DEFAULT_PARALLEL_DIGEST_KEEPALIVE);
+      DIGEST_EXECUTOR =
+	new ThreadPoolExecutor(poolsize, poolsize,
+			       keepalive, TimeUnit.MILLISECONDS,
+			       new LinkedBlockingQueue<Runnable>(),
+			       new ThreadFactory() {
+				 private int cnt = 0;
+				 public synchronized Thread newThread(Runnable r) {
+				   Thread th = new Thread(r, "DigestUpdater-" +
+							  ++cnt);
+				   th.setDaemon(true);
+				   return th;
+				 }});
+      DIGEST_EXECUTOR.allowCoreThreadTimeOut(true);
+    } else if (DIGEST_EXECUTOR.getMaximumPoolSize() != poolsize) {
+      if (poolsize > DIGEST_EXECUTOR.getMaximumPoolSize()) {
+	DIGEST_EXECUTOR.setMaximumPoolSize(poolsize);
+	DIGEST_EXECUTOR.setCorePoolSize(poolsize);
+      } else {
+	DIGEST_EXECUTOR.setCorePoolSize(poolsize);
+	DIGEST_EXECUTOR.setMaximumPoolSize(poolsize);
+      }
+    }
+    return DIGEST_EXECUTOR;
+  }
+
   private int nonceLength = -1;
 
   int nonceLength() {
@@ -667,11 +841,149 @@ public class BlockHasher extends GenericHasher {
       hblock.addVersion(0, curVer.getContentSize(),
 			0, verBytesRead, verBytesHashed,
                         peerDigests, curVer.getVersion(), hashError);
-      return hblock.lastVersion();
+      HashBlock.Version hbVersion = hblock.lastVersion();
+      if (storeInHashCache && hashError == null) {
+	storeInHashCache(hbVersion);
+      }
+      return hbVersion;
     }
     return null;
   }
 
+  /** The hash cache records the un-nonced hashes of a version's filtered
+   * content (preceded by its URL if includeUrl), so can be used only if
+   * no digest is initialized with a nonce.  Nonced (V3 voter) digests and
+   * local hash verification must read the content. */
+  boolean isHashCacheUsable() {
+    return useHashCache && isFiltered && nonceLength() == 0;
+  }
+
+  /** Return the hash cache key for the current version's hash with the
+   * algorithm.  Includes everything that determines the hashed bytes:
+   * the plugin version, a fingerprint of the filter configuration (see
+   * {@link #hashFilterFingerprint(String)}), whether the URL is hashed,
+   * and the raw content size. */
+  String hashCacheKey(String alg) {
+    String contentType = curVer.getContentType();
+    StringBuilder sb = new StringBuilder();
+    sb.append(alg);
+    sb.append(";");
+    Plugin plugin = au.getPlugin();
+    if (plugin != null) {
+      sb.append(plugin.getVersion());
+    }
+    sb.append(";");
+    sb.append(hashFilterFingerprint(contentType));
+    sb.append(";");
+    sb.append(includeUrl ? "url" : "nourl");
+    sb.append(";");
+    sb.append(curVer.getContentSize());
+    return sb.toString();
+  }
+
+  /** Return a hex SHA-1 of everything that determines how content of the
+   * type is filtered: the content type itself (its charset is passed to
+   * the filter), the resolved hash filter factory or filter rule, the
+   * plugin definition entries naming them, and the AU configuration,
+   * which filters may consult.  Computed once per content type per
+   * hash. */
+  String hashFilterFingerprint(String contentType) {
+    String res = filterFingerprints.get(contentType);
+    if (res == null) {
+      StringBuilder sb = new StringBuilder();
+      sb.append(contentType);
+      FilterFactory fact = au.getHashFilterFactory(contentType);
+      if (fact != null) {
+	sb.append("|factory=");
+	sb.append(WrapperUtil.unwrap(fact).getClass().getName());
+      } else {
+	Object fr = au.getFilterRule(contentType);
+	if (fr != null) {
+	  sb.append("|rule=");
+	  sb.append(WrapperUtil.unwrap(fr).getClass().getName());
+	}
+      }
+      Plugin plugin = au.getPlugin();
+      if (plugin instanceof DefinablePlugin && contentType != null) {
+	TypedEntryMap defMap = ((DefinablePlugin)plugin).getDefinitionMap();
+	String mime = HeaderUtil.getMimeTypeFromContentType(contentType);
+	for (String suffix :
+	       new String[] {DefinableArchivalUnit.SUFFIX_HASH_FILTER_FACTORY,
+			     DefinableArchivalUnit.SUFFIX_FILTER_RULE}) {
+	  Object val = defMap.getMapElement(mime + suffix);
+	  if (val != null) {
+	    sb.append("|" + suffix + "=" + val);
+	  }
+	}
+      }
+      Configuration auConfig = au.getConfiguration();
+      if (auConfig != null) {
+	for (String key : new TreeSet<String>(auConfig.keySet())) {
+	  sb.append("|" + key + "=" + auConfig.get(key));
+	}
+      }
+      try {
+	MessageDigest md = MessageDigest.getInstance("SHA-1");
+	res = ByteArray.toHexString(md.digest(sb.toString()
+					      .getBytes(StandardCharsets.UTF_8)));
+      } catch (NoSuchAlgorithmException e) {
+	throw new RuntimeException(e);
+      }
+      filterFingerprints.put(contentType, res);
+    }
+    return res;
+  }
+
+  /** If the hash cache has the filtered length and hash of the current
+   * version for every digest, add the version to the HashBlock without
+   * reading its content.
+   * @return true iff the version was satisfied from the hash cache */
+  boolean endVersionFromHashCache() {
+    byte[][] hashes = new byte[peerDigests.length][];
+    long filteredLength = -1;
+    try {
+      for (int ix = 0; ix < peerDigests.length; ix++) {
+	String val =
+	  curVer.getHashCacheEntry(hashCacheKey(peerDigests[ix].getAlgorithm()));
+	if (val == null) {
+	  return false;
+	}
+	int pos = val.indexOf(',');
+	long len = Long.parseLong(val.substring(0, pos));
+	if (filteredLength >= 0 && len != filteredLength) {
+	  return false;
+	}
+	filteredLength = len;
+	hashes[ix] = ByteArray.fromHexString(val.substring(pos + 1));
+      }
+    } catch (RuntimeException e) {
+      log.warning("Ignoring malformed hash cache entry: " + curVer, e);
+      return false;
+    }
+    if (isTrace) log.debug3("Hash cache hit: " + curVer);
+    verBytesRead = filteredLength;
+    if (hblock != null) {
+      // no bytes were actually hashed
+      hblock.addVersion(0, curVer.getContentSize(),
+			0, filteredLength, 0,
+			hashes, curVer.getVersion(), null);
+    }
+    return true;
+  }
+
+  private void storeInHashCache(HashBlock.Version hbVersion) {
+    byte[][] hashes = hbVersion.getHashes();
+    try {
+      for (int ix = 0; ix < peerDigests.length; ix++) {
+	curVer.putHashCacheEntry(hashCacheKey(peerDigests[ix].getAlgorithm()),
+				 verBytesRead + "," +
+				 ByteArray.toHexString(hashes[ix]));
+      }
+    } catch (RuntimeException e) {
+      log.warning("Couldn't store in hash cache: " + curVer, e);
+    }
+  }
+
   private void endVersionLocalHash() {
     if (currentVersionLocalHasher != null &&
 	currentVersionLocalHasher.isValid()) {
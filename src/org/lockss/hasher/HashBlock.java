@@ -82,6 +82,24 @@ public class HashBlock {
     totalUnfilteredBytes += unfilteredLength; 
     totalHashedBytes += bytesHashed;
   }
+
+  /** Add a version whose hashes were computed earlier */
+  public void addVersion(long unfilteredOffset,
+                         long unfilteredLength,
+                         long filteredOffset,
+                         long filteredLength,
+                         long bytesHashed,
+                         byte[][] hashes,
+                         int repositoryVersion,
+                         Throwable hashError) {
+    versions.add(new HashBlock.Version(unfilteredOffset, unfilteredLength,
+                                       filteredOffset, filteredLength,
+                                       hashes, repositoryVersion,
+                                       hashError));
+    totalFilteredBytes += filteredLength; 
+    totalUnfilteredBytes += unfilteredLength; 
+    totalHashedBytes += bytesHashed;
+  }
   
   public int size() {
     return versions.size();
@@ -184,6 +202,19 @@ public class HashBlock {
       setDigests(digests);
     }
 
+    public Version(long unfilteredOffset, long unfilteredLength,
+                   long filteredOffset, long filteredLength,
+                   byte[][] hashes, int repositoryVersion,
+                   Throwable hashError) {
+      this.unfilteredOffset = unfilteredOffset;
+      this.unfilteredLength = unfilteredLength;
+      this.filteredOffset = filteredOffset;
+      this.filteredLength = filteredLength;
+      this.repositoryVersion = repositoryVersion;
+      this.hashError = hashError;
+      this.hashes = hashes;
+    }
+
     public void setFilteredOffset(long offset) {
       filteredOffset = offset;
     }
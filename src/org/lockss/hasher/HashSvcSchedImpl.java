@@ -262,6 +262,10 @@ public class HashSvcSchedImpl
 	    },
 	    cookie);
       this.urlset = urlsetHasher.getCachedUrlSet();
+      // never hash an AU on two stepper threads at once
+      if (urlset != null) {
+	setExclusiveResource(urlset.getArchivalUnit());
+      }
       this.hashCallback = hashCallback;
       this.urlsetHasher = urlsetHasher;
       typeString = urlsetHasher.typeString();
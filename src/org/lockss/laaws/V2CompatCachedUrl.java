@@ -125,6 +125,12 @@ public class V2CompatCachedUrl implements CachedUrl {
   public boolean isArchiveMember() {
     return cu.isArchiveMember();
   }
+  // Content is hashed under a different URL, don't share the hash cache
+  public String getHashCacheEntry(String key) {
+    return null;
+  }
+  public void putHashCacheEntry(String key, String value) {
+  }
   public boolean isLeaf() {
     return cu.isLeaf();
   }
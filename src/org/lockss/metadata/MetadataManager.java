@@ -50,6 +50,8 @@ import org.lockss.daemon.status.StatusService;
 import org.lockss.db.DbException;
 import org.lockss.db.DbManager;
 import org.lockss.db.PkNamePair;
+import org.lockss.exporter.counter.CounterReportsManager;
+import org.lockss.exporter.counter.CounterReportsRequestQueue;
 import org.lockss.extractor.ArticleMetadataExtractor;
 import org.lockss.extractor.BaseArticleMetadataExtractor;
 import org.lockss.extractor.MetadataField;
@@ -120,6 +122,19 @@ public class MetadataManager extends BaseLockssDaemonManager implements
   /** Default maximum concurrent reindexing tasks */
   public static final int DEFAULT_MAX_REINDEXING_TASKS = 1;
 
+  /**
+   * The number of threads used to extract metadata from the articles of a
+   * single AU.  With more than one, the article iterator feeds a pool of
+   * extractor threads, each with its own ArticleMetadataExtractor, and the
+   * results are buffered in article order.  This property can be changed at
+   * runtime; it affects tasks started afterwards.
+   */
+  public static final String PARAM_EXTRACTION_THREADS = PREFIX
+      + "extractionThreads";
+
+  /** Default number of metadata extraction threads per reindexing task */
+  public static final int DEFAULT_EXTRACTION_THREADS = 1;
+
   /** Disable allowing crawl to interrupt reindexing tasks */
   public static final String PARAM_DISABLE_CRAWL_RESCHEDULE_TASK = PREFIX
       + "disableCrawlRescheduleTask";
@@ -249,6 +264,9 @@ public class MetadataManager extends BaseLockssDaemonManager implements
   /** Maximum number of reindexing tasks */
   int maxReindexingTasks = DEFAULT_MAX_REINDEXING_TASKS;
 
+  /** Metadata extraction threads per reindexing task */
+  int extractionThreads = DEFAULT_EXTRACTION_THREADS;
+
   /** Disable crawl completion rescheduling a running task for same AU */
   boolean disableCrawlRescheduleTask = DEFAULT_DISABLE_CRAWL_RESCHEDULE_TASK;
 
@@ -379,6 +397,9 @@ public class MetadataManager extends BaseLockssDaemonManager implements
       maxReindexingTasks =
 	  Math.max(0, config.getInt(PARAM_MAX_REINDEXING_TASKS,
 				    DEFAULT_MAX_REINDEXING_TASKS));
+      extractionThreads =
+	  Math.max(1, config.getInt(PARAM_EXTRACTION_THREADS,
+				    DEFAULT_EXTRACTION_THREADS));
       disableCrawlRescheduleTask =
 	  config.getBoolean(PARAM_DISABLE_CRAWL_RESCHEDULE_TASK,
 			    DEFAULT_DISABLE_CRAWL_RESCHEDULE_TASK);
@@ -870,7 +891,7 @@ public class MetadataManager extends BaseLockssDaemonManager implements
    *          An ArchivalUnit with the AU.
    * @return an ArticleMetadataExtractor with the article metadata extractor.
    */
-  private ArticleMetadataExtractor getMetadataExtractor(ArchivalUnit au) {
+  ArticleMetadataExtractor getMetadataExtractor(ArchivalUnit au) {
     ArticleMetadataExtractor ae = null;
 
     if (useMetadataExtractor) {
@@ -3018,6 +3039,9 @@ public class MetadataManager extends BaseLockssDaemonManager implements
         startReindexing(conn);
         DbManager.commitOrRollback(conn, log);
 
+        // Only now that the deletion is visible to other connections.
+        invalidateCounterUrls(au);
+
         return true;
       } catch (DbException dbe) {
         log.error("Cannot remove au: " + au.getName(), dbe);
@@ -4098,6 +4122,16 @@ public class MetadataManager extends BaseLockssDaemonManager implements
     return prioritizeIndexingNewAus;
   }
 
+  /**
+   * Provides the number of threads each reindexing task uses to extract
+   * metadata.
+   *
+   * @return an int with the number of metadata extraction threads.
+   */
+  int getExtractionThreads() {
+    return extractionThreads;
+  }
+
   /**
    * Provides the names of the publishers in the database.
    * 
@@ -4732,7 +4766,36 @@ public class MetadataManager extends BaseLockssDaemonManager implements
       throw new DbException(
           "Metadata control operations are disabled in migration mode");
     }
-    return getMetadataManagerSql().removeAu(auSeq, auKey);
+    boolean deleted = getMetadataManagerSql().removeAu(auSeq, auKey);
+
+    // The AU may not be configured, so its URL stems may not be known.
+    if (deleted) {
+      invalidateCounterUrls(null);
+    }
+
+    return deleted;
+  }
+
+  /**
+   * Forgets the COUNTER full-text URL lookups cached for the URLs of an AU.
+   * Must be called after the change to the AU metadata has been committed.
+   * 
+   * @param au
+   *          An ArchivalUnit whose metadata has changed, or
+   *          <code>null</code> to forget the lookups for all URLs.
+   */
+  void invalidateCounterUrls(ArchivalUnit au) {
+    CounterReportsManager crManager = getDaemon().getCounterReportsManager();
+    CounterReportsRequestQueue requestQueue =
+        crManager == null ? null : crManager.getRequestQueue();
+
+    if (requestQueue != null) {
+      if (au == null) {
+	requestQueue.clearUrlCache();
+      } else {
+	requestQueue.invalidateUrls(au);
+      }
+    }
   }
 
   /**
@@ -31,6 +31,8 @@ import java.io.*;
 import java.lang.management.*;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 import org.lockss.app.LockssDaemon;
 import org.lockss.config.TdbAu;
 import org.lockss.daemon.*;
@@ -55,7 +57,8 @@ import org.lockss.util.*;
  * <ol>
  * <li>{@link #setUp} - build the article iterator and metadata buffer.</li>
  * <li>{@link #extract} - extract metadata from each article into the buffer
- *     ("Indexing" phase).</li>
+ *     ("Indexing" phase), on this thread or on a pool of extractor threads
+ *     (see {@link MetadataManager#PARAM_EXTRACTION_THREADS}).</li>
  * <li>{@link #updateDb} - write the accumulated metadata to the database
  *     ("Updating" phase).</li>
  * </ol>
@@ -142,6 +145,10 @@ public class ReindexingTask {
   private volatile long endUserTime = 0;
   private volatile long endClockTime = 0;
 
+  // CPU and user time used by extraction worker threads, if any.
+  private final AtomicLong workerCpuTime = new AtomicLong();
+  private final AtomicLong workerUserTime = new AtomicLong();
+
   // Archival unit properties.
   private final String auName;
   private final String auId;
@@ -321,11 +328,18 @@ public class ReindexingTask {
   }
 
   /**
-   * Extracts the metadata from all the AU's articles into the buffer.
+   * Extracts the metadata from all the AU's articles into the buffer, on
+   * this thread or, if so configured, on a pool of extractor threads.
    */
   private void extract() {
     final String DEBUG_HEADER = "extract(): ";
 
+    int nThreads = mdManager.getExtractionThreads();
+    if (nThreads > 1) {
+      extractParallel(nThreads);
+      return;
+    }
+
     while (articleIterator.hasNext()) {
       // Stop promptly if the task is no longer Running, i.e. another thread has
       // cancelled (status -> Cancelled) or rescheduled (status -> Rescheduled)
@@ -341,40 +355,151 @@ public class ReindexingTask {
       ArticleFiles af = articleIterator.next();
       try {
         ae.extract(MetadataTarget.OpenURL(), af, emitter);
-      } catch (org.lockss.repository.LockssRepository.RepositoryStateException ex) {
-        log.error("Error extracting metadata for full text URL, continuing: "
-            + af.getFullTextUrl(), ex);
-        errorArticleCount++;
-      } catch (IOException ex) {
-        log.error("Failed to index metadata for full text URL: "
-            + af.getFullTextUrl(), ex);
-        indexedArticleCount = 0;
-        setStatusIfRunning(ReindexingStatus.Rescheduled, ex);
-        return;
-      } catch (PluginException ex) {
-        log.error("Failed to index metadata for full text URL: "
-            + af.getFullTextUrl(), ex);
-        indexedArticleCount = 0;
-        setStatusIfRunning(ReindexingStatus.Failed, ex);
-        return;
-      } catch (RuntimeException ex) {
-        log.error("Caught unexpected RuntimeException for full text URL: "
-            + af.getFullTextUrl(), ex);
-        indexedArticleCount = 0;
-        setStatusIfRunning(ReindexingStatus.Failed, ex);
-        return;
       } catch (Throwable ex) {
-        log.error("Caught unexpected Throwable for full text URL: "
-            + af.getFullTextUrl(), ex);
-        setStatusIfRunning(ReindexingStatus.Failed,
-            (ex instanceof Exception) ? (Exception) ex : new RuntimeException(ex));
-        return;
+        if (!handleExtractError(af, ex)) {
+          return;
+        }
       }
 
       pokeWDog();
     }
   }
 
+  /**
+   * Extracts the metadata from all the AU's articles on a pool of worker
+   * threads. The article iterator is advanced only on this thread, and at
+   * most twice as many articles as there are workers are in flight at once.
+   * Each article's metadata is collected by its worker and emitted into the
+   * buffer by this thread in article iterator order, so the buffer contents
+   * don't depend on thread scheduling.
+   *
+   * @param nThreads
+   *          An int with the number of extractor threads.
+   */
+  private void extractParallel(int nThreads) {
+    final String DEBUG_HEADER = "extractParallel(): ";
+    ExecutorService executor = newExtractorPool(nThreads);
+    Deque<ArticleExtraction> inFlight = new ArrayDeque<ArticleExtraction>();
+    int maxInFlight = 2 * nThreads;
+
+    try {
+      while (true) {
+        // Stop promptly if the task is no longer Running; see extract().
+        if (status != ReindexingStatus.Running) {
+          log.debug2(DEBUG_HEADER + "Stopping extraction of AU '" + auName
+              + "': status = " + status);
+          return;
+        }
+
+        if (inFlight.size() < maxInFlight && articleIterator.hasNext()) {
+          ArticleExtraction extraction =
+              new ArticleExtraction(articleIterator.next());
+          extraction.future = executor.submit(extraction);
+          inFlight.add(extraction);
+          continue;
+        }
+
+        if (inFlight.isEmpty()) {
+          return;
+        }
+
+        ArticleExtraction extraction = inFlight.remove();
+        try {
+          for (ArticleMetadata md : extraction.future.get()) {
+            ((ReindexingEmitter)emitter).recordMetadata(md);
+          }
+        } catch (InterruptedException ex) {
+          log.warning("Interrupted extracting metadata for AU '" + auName
+              + "'");
+          setStatusIfRunning(ReindexingStatus.Rescheduled, ex);
+          return;
+        } catch (ExecutionException ex) {
+          if (!handleExtractError(extraction.af, ex.getCause())) {
+            return;
+          }
+        } catch (Throwable ex) {
+          if (!handleExtractError(extraction.af, ex)) {
+            return;
+          }
+        }
+
+        pokeWDog();
+      }
+    } finally {
+      // Abandon queued articles, interrupt those in progress and wait a
+      // while for the workers so their CPU time is accounted for.
+      executor.shutdownNow();
+      try {
+        executor.awaitTermination(Constants.MINUTE, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Creates the pool of extractor threads for this task.
+   *
+   * @param nThreads
+   *          An int with the number of threads.
+   * @return an ExecutorService with the pool.
+   */
+  private ExecutorService newExtractorPool(int nThreads) {
+    final String name = "MetadataExtractor-" + auName;
+    return Executors.newFixedThreadPool(nThreads, new ThreadFactory() {
+      private int cnt = 0;
+
+      @Override
+      public synchronized Thread newThread(Runnable r) {
+        Thread th = new Thread(r, name + "-" + ++cnt);
+        th.setDaemon(true);
+        return th;
+      }
+    });
+  }
+
+  /**
+   * Handles an error extracting the metadata of an article, setting the task
+   * status if the error ends the extraction.
+   *
+   * @param af
+   *          An ArticleFiles with the article being extracted.
+   * @param ex
+   *          A Throwable with the error.
+   * @return <code>true</code> if extraction should continue with the next
+   *         article, <code>false</code> if it should stop.
+   */
+  private boolean handleExtractError(ArticleFiles af, Throwable ex) {
+    if (ex instanceof
+        org.lockss.repository.LockssRepository.RepositoryStateException) {
+      log.error("Error extracting metadata for full text URL, continuing: "
+          + af.getFullTextUrl(), ex);
+      errorArticleCount++;
+      return true;
+    } else if (ex instanceof IOException) {
+      log.error("Failed to index metadata for full text URL: "
+          + af.getFullTextUrl(), ex);
+      indexedArticleCount = 0;
+      setStatusIfRunning(ReindexingStatus.Rescheduled, (IOException)ex);
+    } else if (ex instanceof PluginException) {
+      log.error("Failed to index metadata for full text URL: "
+          + af.getFullTextUrl(), ex);
+      indexedArticleCount = 0;
+      setStatusIfRunning(ReindexingStatus.Failed, (PluginException)ex);
+    } else if (ex instanceof RuntimeException) {
+      log.error("Caught unexpected RuntimeException for full text URL: "
+          + af.getFullTextUrl(), ex);
+      indexedArticleCount = 0;
+      setStatusIfRunning(ReindexingStatus.Failed, (RuntimeException)ex);
+    } else {
+      log.error("Caught unexpected Throwable for full text URL: "
+          + af.getFullTextUrl(), ex);
+      setStatusIfRunning(ReindexingStatus.Failed,
+          (ex instanceof Exception) ? (Exception) ex : new RuntimeException(ex));
+    }
+    return false;
+  }
+
   /**
    * Writes the accumulated metadata to the database ("Updating" phase), or, for
    * an unsuccessful or cancelled task, performs the appropriate pending-queue
@@ -472,6 +597,10 @@ public class ReindexingTask {
         status = ReindexingStatus.Success;
       }
 
+      // The AU's full-text URLs may have changed, so forget the COUNTER
+      // lookups cached for them.
+      mdManager.invalidateCounterUrls(au);
+
       // Update the successful re-indexing count.
       mdManager.addToSuccessfulReindexingTasks(this);
 
@@ -580,9 +709,9 @@ public class ReindexingTask {
     endCpuTime = threadCpuTime();
     endUserTime = threadUserTime();
 
-    // Display timings.
-    long elapsedCpuTime = endCpuTime - startCpuTime;
-    long elapsedUserTime = endUserTime - startUserTime;
+    // Display timings, including those of any extractor threads.
+    long elapsedCpuTime = getCpuTime();
+    long elapsedUserTime = getUserTime();
     long elapsedClockTime = endClockTime - startClockTime;
 
     log.info("Finished reindexing task for AU '" + auName + "': status = "
@@ -851,6 +980,26 @@ public class ReindexingTask {
     return updatedArticleCount;
   }
 
+  /**
+   * Returns the CPU time used by this task, on its own thread and on any
+   * extractor threads. Valid once the task has finished.
+   *
+   * @return a long with the CPU time in nanoseconds.
+   */
+  long getCpuTime() {
+    return endCpuTime - startCpuTime + workerCpuTime.get();
+  }
+
+  /**
+   * Returns the user time used by this task, on its own thread and on any
+   * extractor threads. Valid once the task has finished.
+   *
+   * @return a long with the user time in nanoseconds.
+   */
+  long getUserTime() {
+    return endUserTime - startUserTime + workerUserTime.get();
+  }
+
   /**
    * Increments by one the number of articles updated by this task.
    */
@@ -871,6 +1020,53 @@ public class ReindexingTask {
     }
   }
 
+  /**
+   * The extraction of one article's metadata on an extractor thread. The
+   * metadata emitted for the article is prepared and collected, to be
+   * recorded by the task thread. Each extractor thread uses its own
+   * ArticleMetadataExtractor, as extractors need not be thread-safe.
+   */
+  private class ArticleExtraction
+      implements Callable<List<ArticleMetadata>> {
+    private final ArticleFiles af;
+    private Future<List<ArticleMetadata>> future;
+
+    ArticleExtraction(ArticleFiles af) {
+      this.af = af;
+    }
+
+    @Override
+    public List<ArticleMetadata> call() throws Exception {
+      final List<ArticleMetadata> res = new ArrayList<ArticleMetadata>();
+      long cpuTime = threadCpuTime();
+      long userTime = threadUserTime();
+
+      try {
+        workerAe.get().extract(MetadataTarget.OpenURL(), af, new Emitter() {
+          @Override
+          public void emitMetadata(ArticleFiles eaf, ArticleMetadata md) {
+            ((ReindexingEmitter)emitter).prepareMetadata(eaf, md);
+            res.add(md);
+          }
+        });
+      } finally {
+        workerCpuTime.addAndGet(threadCpuTime() - cpuTime);
+        workerUserTime.addAndGet(threadUserTime() - userTime);
+      }
+
+      return res;
+    }
+  }
+
+  // The article metadata extractor of each extractor thread.
+  private final ThreadLocal<ArticleMetadataExtractor> workerAe =
+      new ThreadLocal<ArticleMetadataExtractor>() {
+        @Override
+        protected ArticleMetadataExtractor initialValue() {
+          return mdManager.getMetadataExtractor(au);
+        }
+      };
+
   /**
    * Accumulator of article metadata.
    */
@@ -879,7 +1075,21 @@ public class ReindexingTask {
 
     @Override
     public void emitMetadata(ArticleFiles af, ArticleMetadata md) {
-      final String DEBUG_HEADER = "emitMetadata(): ";
+      prepareMetadata(af, md);
+      recordMetadata(md);
+    }
+
+    /**
+     * Adds to the metadata of an article the information derived from its
+     * files. Safe to call on any thread.
+     *
+     * @param af
+     *          An ArticleFiles with the article files.
+     * @param md
+     *          An ArticleMetadata with the article metadata.
+     */
+    void prepareMetadata(ArticleFiles af, ArticleMetadata md) {
+      final String DEBUG_HEADER = "prepareMetadata(): ";
 
       if (log.isDebug3()) {
         log.debug3(DEBUG_HEADER+"\n"+md.ppString(2));
@@ -914,7 +1124,16 @@ public class ReindexingTask {
       if (log.isDebug3()) log.debug3(DEBUG_HEADER + "fetchTime = " + fetchTime);
 
       md.put(MetadataField.FIELD_FETCH_TIME, String.valueOf(fetchTime));
+    }
 
+    /**
+     * Validates the metadata of an article and adds it to the buffer. Called
+     * only on the task thread.
+     *
+     * @param md
+     *          An ArticleMetadata with the prepared article metadata.
+     */
+    void recordMetadata(ArticleMetadata md) {
       try {
         validateDataAgainstTdb(new ArticleMetadataInfo(md), au);
         articleMetadataInfoBuffer.add(md);
@@ -145,7 +145,18 @@ public interface ArchivalUnit {
    * @return true if it should be cached
    */
   public boolean shouldBeCached(String url);
-  
+
+  /**
+   * Return URL prefixes such that {@link #shouldBeCached(String)} can be
+   * true only for URLs beginning with one of them (ignoring case), or null
+   * if the AU can't bound its URLs that way.  Used to narrow the search
+   * for the AUs that might contain a URL, so must not be non-null if
+   * {@link #siteNormalizeUrl(String)} might change a URL.
+   */
+  default Collection<String> getIncludedUrlPrefixes() {
+    return null;
+  }
+
   /**
    * Does the associated plugin want to store probe pages
    * @return true if probe page should be stored
@@ -57,6 +57,7 @@ public class AuSearchSet implements Iterable<ArchivalUnit> {
   Collection<ArchivalUnit> sorted;
   AuSearchCache cache;
   int size;
+  AuUrlPrefixIndex prefixIndex = new AuUrlPrefixIndex();
 
   // Cache of recent 404s.  Lazily created as content in most AUs is never
   // accessed.
@@ -84,6 +85,7 @@ public class AuSearchSet implements Iterable<ArchivalUnit> {
   public void addAu(ArchivalUnit au) {
     synchronized (this) {
       aus.add(au);
+      prefixIndex.add(au);
       sorted = null;
       size++;
       set404CacheSize(getConfigured404CacheSize());
@@ -95,6 +97,7 @@ public class AuSearchSet implements Iterable<ArchivalUnit> {
     synchronized (this) {
       boolean res;
       if (res = aus.remove(au)) {
+	prefixIndex.remove(au);
 	sorted = null;
 	size--;
       }
@@ -169,6 +172,45 @@ public class AuSearchSet implements Iterable<ArchivalUnit> {
     }
   }
 
+  /** Recompute the URL prefixes of an AU in the set, after its crawl
+   * rules may have changed */
+  public void updateUrlPrefixes(ArchivalUnit au) {
+    synchronized (this) {
+      prefixIndex.update(au);
+    }
+  }
+
+  /** Return the AUs in the set that might contain the URL, according to
+   * their {@link ArchivalUnit#getIncludedUrlPrefixes()}.  Those in the
+   * cache come first, in cache order, followed by the rest in the order
+   * they were added.  The list is a snapshot and isn't affected by later
+   * modifications to the set. */
+  public List<ArchivalUnit> getCandidateAus(String url) {
+    List<ArchivalUnit> cands = prefixIndex.getCandidates(url);
+    AuSearchCache iterCache;
+    synchronized (this) {
+      iterCache = cache;
+    }
+    if (cands.size() < 2 || iterCache == null || iterCache.isEmpty()) {
+      return cands;
+    }
+    Set<ArchivalUnit> candSet = new HashSet<ArchivalUnit>(cands);
+    List<ArchivalUnit> res = new ArrayList<ArchivalUnit>(cands.size());
+    for (Iterator<ArchivalUnit> iter = iterCache.iterator();
+	 iter.hasNext(); ) {
+      ArchivalUnit au = iter.next();
+      if (candSet.contains(au)) {
+	res.add(au);
+      }
+    }
+    for (ArchivalUnit au : cands) {
+      if (!iterCache.contains(au)) {
+	res.add(au);
+      }
+    }
+    return res;
+  }
+
   public  boolean isRecent404(String url) {
     LRUMap map = recent404s;
     if (map == null) {
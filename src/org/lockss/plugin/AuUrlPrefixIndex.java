@@ -0,0 +1,202 @@
+/*
+
+Copyright (c) 2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+
+package org.lockss.plugin;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.lockss.util.*;
+
+/**
+ * Index of the AUs in an {@link AuSearchSet} by the URL prefixes returned
+ * by {@link ArchivalUnit#getIncludedUrlPrefixes()}, so that the AUs that
+ * might contain a URL can be found without asking every AU in the set.
+ * AUs that don't supply prefixes are candidates for every URL.  Lookups
+ * may proceed concurrently with updates.
+ * @ThreadSafe
+ */
+class AuUrlPrefixIndex {
+
+  private static Logger log = Logger.getLogger("AuUrlPrefixIndex");
+
+  static class Entry {
+    final long seq;
+    int refs;
+    Collection<String> prefixes;
+
+    Entry(long seq) {
+      this.seq = seq;
+    }
+  }
+
+  // Lowercase prefix -> AUs with that prefix
+  private final Map<String,Set<ArchivalUnit>> prefixMap =
+    new ConcurrentHashMap<String,Set<ArchivalUnit>>();
+  // Distinct prefix lengths, with the number of prefixes of each length
+  private final ConcurrentSkipListMap<Integer,Integer> lengths =
+    new ConcurrentSkipListMap<Integer,Integer>();
+  private final Set<ArchivalUnit> unindexed =
+    ConcurrentHashMap.newKeySet();
+  private final Map<ArchivalUnit,Entry> entries =
+    new ConcurrentHashMap<ArchivalUnit,Entry>();
+  private long nextSeq = 0;
+
+  private final Comparator<ArchivalUnit> seqComparator =
+    new Comparator<ArchivalUnit>() {
+      public int compare(ArchivalUnit au1, ArchivalUnit au2) {
+	return Long.compare(seqOf(au1), seqOf(au2));
+      }
+    };
+
+  /** Add an AU, or recompute its prefixes if it's already present */
+  synchronized void add(ArchivalUnit au) {
+    Entry ent = entries.get(au);
+    if (ent == null) {
+      ent = new Entry(nextSeq++);
+      entries.put(au, ent);
+    } else {
+      unindex(au, ent);
+    }
+    ent.refs++;
+    ent.prefixes = getPrefixes(au);
+    index(au, ent);
+  }
+
+  /** Remove an AU.  An AU added more than once remains until it has been
+   * removed as many times. */
+  synchronized void remove(ArchivalUnit au) {
+    Entry ent = entries.get(au);
+    if (ent == null || --ent.refs > 0) {
+      return;
+    }
+    entries.remove(au);
+    unindex(au, ent);
+  }
+
+  /** Recompute the prefixes of an AU already in the index */
+  synchronized void update(ArchivalUnit au) {
+    Entry ent = entries.get(au);
+    if (ent != null) {
+      unindex(au, ent);
+      ent.prefixes = getPrefixes(au);
+      index(au, ent);
+    }
+  }
+
+  /** Return the AUs that might contain the URL, in the order in which
+   * they were added */
+  List<ArchivalUnit> getCandidates(String url) {
+    String lower = url.toLowerCase();
+    Set<ArchivalUnit> res = new HashSet<ArchivalUnit>(unindexed);
+    for (Integer len : lengths.headMap(lower.length(), true).keySet()) {
+      Set<ArchivalUnit> aus = prefixMap.get(lower.substring(0, len));
+      if (aus != null) {
+	res.addAll(aus);
+      }
+    }
+    List<ArchivalUnit> lst = new ArrayList<ArchivalUnit>(res);
+    if (lst.size() > 1) {
+      Collections.sort(lst, seqComparator);
+    }
+    return lst;
+  }
+
+  /** Return the number of AUs that don't supply prefixes */
+  int numUnindexed() {
+    return unindexed.size();
+  }
+
+  /** Return the number of distinct prefixes */
+  int numPrefixes() {
+    return prefixMap.size();
+  }
+
+  private long seqOf(ArchivalUnit au) {
+    Entry ent = entries.get(au);
+    return ent == null ? Long.MAX_VALUE : ent.seq;
+  }
+
+  private Collection<String> getPrefixes(ArchivalUnit au) {
+    Collection<String> prefixes;
+    try {
+      prefixes = au.getIncludedUrlPrefixes();
+    } catch (RuntimeException e) {
+      log.warning("getIncludedUrlPrefixes(" + au + ")", e);
+      return null;
+    }
+    if (prefixes == null) {
+      return null;
+    }
+    Set<String> res = new HashSet<String>();
+    for (String prefix : prefixes) {
+      if (StringUtil.isNullString(prefix)) {
+	// matches everything
+	return null;
+      }
+      res.add(prefix.toLowerCase());
+    }
+    return res;
+  }
+
+  private void index(ArchivalUnit au, Entry ent) {
+    if (ent.prefixes == null) {
+      unindexed.add(au);
+      return;
+    }
+    for (String prefix : ent.prefixes) {
+      Set<ArchivalUnit> aus = prefixMap.get(prefix);
+      if (aus == null) {
+	aus = ConcurrentHashMap.newKeySet();
+	prefixMap.put(prefix, aus);
+	lengths.merge(prefix.length(), 1, Integer::sum);
+      }
+      aus.add(au);
+    }
+  }
+
+  private void unindex(ArchivalUnit au, Entry ent) {
+    if (ent.prefixes == null) {
+      unindexed.remove(au);
+      return;
+    }
+    for (String prefix : ent.prefixes) {
+      Set<ArchivalUnit> aus = prefixMap.get(prefix);
+      if (aus != null) {
+	aus.remove(au);
+	if (aus.isEmpty()) {
+	  prefixMap.remove(prefix);
+	  if (lengths.merge(prefix.length(), -1, Integer::sum) <= 0) {
+	    lengths.remove(prefix.length());
+	  }
+	}
+      }
+    }
+  }
+}
@@ -365,4 +365,20 @@ public interface CachedUrl extends CachedUrlSetNode {
    */
   boolean isArchiveMember();
 
+  /**
+   * Return the value recorded under key in this version's hash cache, or
+   * null if there is none or the CachedUrl has no hash cache.  See {@link
+   * org.lockss.repository.RepositoryNodeVersion#getHashCacheEntry(String)}
+   * @param key the key
+   */
+  public String getHashCacheEntry(String key);
+
+  /**
+   * Record a value in this version's hash cache.  Does nothing if the
+   * CachedUrl has no hash cache.
+   * @param key the key
+   * @param value the value
+   */
+  public void putHashCacheEntry(String key, String value);
+
 }
@@ -34,9 +34,14 @@ import java.security.KeyStore;
 import java.util.*;
 import java.util.Iterator;
 import java.util.function.Consumer;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.jar.*;
 import java.util.regex.*;
 import java.util.stream.Collectors;
@@ -172,6 +177,18 @@ public class PluginManager
     PREFIX + "validateAllJarEntries";
   static final boolean DEFAULT_VALIDATE_ALL_JAR_ENTRIES = true;
 
+  /** Number of threads used to validate plugin registry jars, and to load
+   * the plugins of configured AUs at startup.  1 does them serially. */
+  static final String PARAM_PLUGIN_LOAD_THREADS = PREFIX + "loadThreads";
+  static final int DEFAULT_PLUGIN_LOAD_THREADS = 4;
+
+  /** Number of threads used to create and start the configured AUs at
+   * daemon startup.  1 starts them serially.  AUs created or
+   * reconfigured after startup are always handled serially. */
+  static final String PARAM_STARTUP_AU_THREADS =
+    PREFIX + "startupAuThreads";
+  static final int DEFAULT_STARTUP_AU_THREADS = 4;
+
   /** The amount of time to wait when processing loadable plugins.
       This process delays the start of AUs, so the timeout should not
       be too long. */
@@ -250,6 +267,14 @@ public class PluginManager
     AU_SEARCH_SET_PREFIX + "preventConcurrent";
   public static final boolean DEFAULT_PREVENT_CONCURRENT_SEARCHES = true;
 
+  /** If true, findCachedUrl() uses an index of the URL prefixes to which
+   * AUs' crawl rules limit them, and checks only those AUs whose prefixes
+   * match the URL (plus those whose rules can't be bounded).  If false,
+   * every AU with the URL's stem is checked. */
+  public static final String PARAM_AU_SEARCH_URL_PREFIX_INDEX =
+    AU_SEARCH_SET_PREFIX + "urlPrefixIndex";
+  public static final boolean DEFAULT_AU_SEARCH_URL_PREFIX_INDEX = true;
+
   /** Root of TitleSet definitions.  */
   public static final String PARAM_TITLE_SETS =
     Configuration.PREFIX + "titleSet";
@@ -346,6 +371,8 @@ public class PluginManager
     DEFAULT_DISABLE_URL_CONNECTION_CACHE;
   private boolean acceptExpiredCertificates = DEFAULT_ACCEPT_EXPIRED_CERTS;
   private boolean validateAllJarEntries = DEFAULT_VALIDATE_ALL_JAR_ENTRIES;
+  private int paramPluginLoadThreads = DEFAULT_PLUGIN_LOAD_THREADS;
+  private int paramStartupAuThreads = DEFAULT_STARTUP_AU_THREADS;
   private IntStepFunction auSearchCacheSizeFunc = 
     new IntStepFunction(DEFAULT_AU_SEARCH_CACHE_SIZE);
   private IntStepFunction auSearch404CacheSizeFunc =
@@ -354,6 +381,8 @@ public class PluginManager
     DEFAULT_AU_SEARCH_MIN_DISK_SEARCHES_FOR_404_CACHE;
   private boolean paramPreventConcurrentSearches =
     DEFAULT_PREVENT_CONCURRENT_SEARCHES;
+  private boolean paramAuSearchUrlPrefixIndex =
+    DEFAULT_AU_SEARCH_URL_PREFIX_INDEX;
 
   private Map titleMap = null;
   private List allTitles = null;
@@ -388,6 +417,17 @@ public class PluginManager
         return t;
       });
 
+  // Phase, plugin load and AU start times during startLoadablePlugins()
+  private final StartupTimeline startupTimeline = new StartupTimeline();
+
+  // Non-null while the AUs configured at startup are being started in
+  // parallel
+  private ParallelAuStarter parallelAuStarter = null;
+
+  // Registry jars being validated in parallel, by URL and version.
+  // Non-null only within processRegistryAusAsync()
+  private Map<String,Future<File>> prevalidatedJars = null;
+
   private static Map<String,String> configurablePluginNameMap = new HashMap();
   static {
     configurablePluginNameMap.put(".*ExplodedPlugin$",
@@ -470,6 +510,8 @@ public class PluginManager
       return;
     }
 
+    startupTimeline.start();
+    startupTimeline.startPhase("Process AU config journal");
     try {
       if (processAuTxtJournal()) {
         configMgr.reloadAndWait();
@@ -481,17 +523,104 @@ public class PluginManager
 
     Configuration config = CurrentConfig.getCurrentConfig();
     log.debug("Initializing loadable plugin registries before starting AUs");
+    startupTimeline.startPhase("Load plugin registries");
     initLoadablePluginRegistries(getPluginRegistryUrls(config));
+    startupTimeline.startPhase("Load static plugins");
     synchStaticPluginList(config);
 
     // Batch up PluginMissing alerts during startup.
-    deferredMissingPluginAlerts = new ArrayList<>();
+    deferredMissingPluginAlerts =
+      Collections.synchronizedList(new ArrayList<String>());
     // Start all configured AUs.
-    configureAllPlugins(config);
+    startAllAus(config);
     raiseMissingPluginAlerts();
+    startupTimeline.finish();
     loadablePluginsReady = true;
   }
 
+  /** Return the timeline of the most recent startLoadablePlugins() */
+  public StartupTimeline getStartupTimeline() {
+    return startupTimeline;
+  }
+
+  /** Load the plugins of all the configured AUs, then start the AUs.  Each
+   * step is done in parallel if so configured. */
+  private void startAllAus(Configuration config) {
+    Configuration allPlugs = config.getConfigTree(PARAM_AU_TREE);
+    startupTimeline.startPhase("Load AU plugins");
+    preloadPlugins(ListUtil.fromIterator(allPlugs.nodeIterator()));
+    startupTimeline.startPhase("Start AUs");
+    if (paramStartupAuThreads <= 1) {
+      configureAllPlugins(config);
+      return;
+    }
+    // Hold auAddDelLock until all the AUs have been started.  The worker
+    // threads don't need it; it keeps AUs from being added or deleted
+    // by other threads in the meantime.
+    synchronized (auAddDelLock) {
+      parallelAuStarter = new ParallelAuStarter(paramStartupAuThreads);
+      try {
+	configureAllPlugins(config);
+      } finally {
+	parallelAuStarter.finish();
+	parallelAuStarter = null;
+      }
+    }
+  }
+
+  /** Load the named plugins in parallel, if paramPluginLoadThreads > 1,
+   * so that configurePlugin() finds them already loaded */
+  void preloadPlugins(Collection<String> pluginKeys) {
+    List<String> toLoad = new ArrayList<String>();
+    for (String key : pluginKeys) {
+      if (!pluginMap.containsKey(key)) {
+	toLoad.add(key);
+      }
+    }
+    if (paramPluginLoadThreads <= 1 || toLoad.size() <= 1) {
+      // configurePlugin() will load them as needed
+      return;
+    }
+    ExecutorService executor =
+      newWorkerPool("PluginLoader", paramPluginLoadThreads, toLoad.size());
+    try {
+      Map<String,Future<Boolean>> futures =
+	new LinkedHashMap<String,Future<Boolean>>();
+      for (final String key : toLoad) {
+	futures.put(key, executor.submit(() -> ensurePluginLoaded(key)));
+      }
+      for (Map.Entry<String,Future<Boolean>> ent : futures.entrySet()) {
+	try {
+	  ent.getValue().get();
+	} catch (ExecutionException e) {
+	  // configurePlugin() will try again and report the failure
+	  log.error("Error loading plugin " + pluginNameFromKey(ent.getKey()),
+		    e.getCause());
+	} catch (InterruptedException e) {
+	  log.warning("Interrupted loading plugins");
+	  Thread.currentThread().interrupt();
+	  break;
+	}
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /** Create a pool of at most nThreads daemon threads, fewer if there are
+   * fewer tasks */
+  static ExecutorService newWorkerPool(final String name, int nThreads,
+				       int nTasks) {
+    int size = Math.max(1, Math.min(nThreads, nTasks));
+    return Executors.newFixedThreadPool(size, new ThreadFactory() {
+	private int cnt = 0;
+	public synchronized Thread newThread(Runnable r) {
+	  Thread th = new Thread(r, name + "-" + ++cnt);
+	  th.setDaemon(true);
+	  return th;
+	}});
+  }
+
   // Accumulate PluginMissing alerts during startup so that they'll
   // all be grouped into one alert mail
   private List<String> deferredMissingPluginAlerts = null;
@@ -568,6 +697,10 @@ public class PluginManager
       validateAllJarEntries =
 	config.getBoolean(PARAM_VALIDATE_ALL_JAR_ENTRIES,
 			  DEFAULT_VALIDATE_ALL_JAR_ENTRIES);
+      paramPluginLoadThreads =
+	config.getInt(PARAM_PLUGIN_LOAD_THREADS, DEFAULT_PLUGIN_LOAD_THREADS);
+      paramStartupAuThreads =
+	config.getInt(PARAM_STARTUP_AU_THREADS, DEFAULT_STARTUP_AU_THREADS);
 
       // must set retract before loadablePluginsReady is true as
       // retrievePlugin() may be called before that
@@ -600,6 +733,9 @@ public class PluginManager
 	paramPreventConcurrentSearches =
 	  config.getBoolean(PARAM_PREVENT_CONCURRENT_SEARCHES,
 			    DEFAULT_PREVENT_CONCURRENT_SEARCHES);
+	paramAuSearchUrlPrefixIndex =
+	  config.getBoolean(PARAM_AU_SEARCH_URL_PREFIX_INDEX,
+			    DEFAULT_AU_SEARCH_URL_PREFIX_INDEX);
       }
 
       useDefaultPluginRegistries =
@@ -977,7 +1113,18 @@ public class PluginManager
 		      "Can't generate AUID from config: " + auConf);
 	  continue nextAU;
 	}
-	configureAu(plugin, auConf, auId);
+	if (parallelAuStarter != null) {
+	  parallelAuStarter.submit(pluginKey, plugin, auConf, auId);
+	  continue nextAU;
+	}
+	long start = TimeBase.nowMs();
+	boolean ok = false;
+	try {
+	  configureAu(plugin, auConf, auId);
+	  ok = true;
+	} finally {
+	  startupTimeline.auStarted(pluginKey, TimeBase.msSince(start), ok);
+	}
 	inactiveAuIds.remove(generateAuId(pluginKey, auKey));
       } catch (ArchivalUnit.ConfigurationException e) {
 	log.error("Failed to configure AU " + auId, e);
@@ -996,6 +1143,34 @@ public class PluginManager
 
   void configureAu(Plugin plugin, Configuration auConf, String auId)
       throws ArchivalUnit.ConfigurationException {
+    PendingAu pend = instantiateAu(plugin, auConf, auId);
+    if (pend != null) {
+      installAu(pend);
+    }
+  }
+
+  /** An AU that has been created or reconfigured, and whose managers have
+   * been started or reconfigured, but which hasn't yet been put in the AU
+   * map or announced */
+  static class PendingAu {
+    final ArchivalUnit au;
+    final ArchivalUnit oldAu;
+    final Configuration oldConfig;
+
+    PendingAu(ArchivalUnit au, ArchivalUnit oldAu, Configuration oldConfig) {
+      this.au = au;
+      this.oldAu = oldAu;
+      this.oldConfig = oldConfig;
+    }
+  }
+
+  /** The part of configureAu() that may be run on several AUs in
+   * parallel: create or reconfigure the AU and start or reconfigure its
+   * managers.
+   * @return the AU to pass to installAu(), or null if its config hasn't
+   * changed */
+  PendingAu instantiateAu(Plugin plugin, Configuration auConf, String auId)
+      throws ArchivalUnit.ConfigurationException {
     Configuration oldConfig = null;
     try {
       ArchivalUnit oldAu = auMap.get(auId);
@@ -1004,7 +1179,7 @@ public class PluginManager
 	if (auConf.equals(oldConfig)) {
 	  // Don't bother if the config is the same.  (This happens the
 	  // first time config is loaded after AU created via UI.)
-	  return;
+	  return null;
 	}
       }
       ArchivalUnit au = plugin.configureAu(auConf, oldAu);
@@ -1025,16 +1200,33 @@ public class PluginManager
 	  ArchivalUnit.ConfigurationException("Couldn't configure AU managers",
 					      e);
       }
-      if (oldAu != null) {
+      return new PendingAu(au, oldAu, oldConfig);
+    } catch (ArchivalUnit.ConfigurationException e) {
+      throw e;
+    } catch (Exception e) {
+      log.error("Error configuring AU", e);
+      throw new
+	ArchivalUnit.ConfigurationException("Unexpected error creating AU", e);
+    }
+  }
+
+  /** The rest of configureAu(): make the AU visible and announce it.
+   * Always called on the thread that's configuring plugins, so AU event
+   * handlers aren't run concurrently. */
+  void installAu(PendingAu pend)
+      throws ArchivalUnit.ConfigurationException {
+    ArchivalUnit au = pend.au;
+    try {
+      if (pend.oldAu != null) {
 	log.debug("Reconfigured AU " + au);
-	signalAuEvent(au, new AuEvent(AuEvent.Type.Reconfig, false), oldConfig);
+	updateAuUrlPrefixes(au);
+	signalAuEvent(au, new AuEvent(AuEvent.Type.Reconfig, false),
+		      pend.oldConfig);
       } else {
 	log.debug("Configured AU " + au);
 	putAuInMap(au);
 	signalAuEvent(au, new AuEvent(AuEvent.Type.StartupCreate, false), null);
       }
-    } catch (ArchivalUnit.ConfigurationException e) {
-      throw e;
     } catch (Exception e) {
       log.error("Error configuring AU", e);
       throw new
@@ -1042,6 +1234,99 @@ public class PluginManager
     }
   }
 
+  /** Runs the instantiateAu() half of configureAu() for the AUs
+   * configured at startup on a bounded pool, and the installAu() half on
+   * the calling thread as each one completes. */
+  class ParallelAuStarter {
+    private final ExecutorService executor;
+    private final CompletionService<StartedAu> completions;
+    private int outstanding = 0;
+
+    ParallelAuStarter(int nThreads) {
+      executor = newWorkerPool("AuStarter", nThreads, nThreads);
+      completions = new ExecutorCompletionService<StartedAu>(executor);
+    }
+
+    /** Queue the AU to be instantiated, and install any that have
+     * finished */
+    void submit(final String pluginKey, final Plugin plugin,
+		final Configuration auConf, final String auId) {
+      completions.submit(() -> {
+	  StartedAu res = new StartedAu(pluginKey, auId);
+	  long start = TimeBase.nowMs();
+	  try {
+	    res.pending = instantiateAu(plugin, auConf, auId);
+	  } catch (Exception e) {
+	    res.error = e;
+	  }
+	  res.elapsed = TimeBase.msSince(start);
+	  return res;
+	});
+      outstanding++;
+      Future<StartedAu> done;
+      while ((done = completions.poll()) != null) {
+	install(done);
+      }
+    }
+
+    /** Wait for and install all remaining AUs, then shut down the pool */
+    void finish() {
+      try {
+	while (outstanding > 0) {
+	  install(completions.take());
+	}
+      } catch (InterruptedException e) {
+	log.warning("Interrupted starting AUs, " + outstanding +
+		    " not started");
+	Thread.currentThread().interrupt();
+      } finally {
+	executor.shutdownNow();
+      }
+    }
+
+    private void install(Future<StartedAu> fut) {
+      outstanding--;
+      StartedAu res;
+      try {
+	res = fut.get();
+      } catch (InterruptedException | ExecutionException e) {
+	// The task catches all exceptions, so this shouldn't happen
+	log.error("Unexpected error starting AU", e);
+	return;
+      }
+      try {
+	if (res.error != null) {
+	  throw res.error;
+	}
+	if (res.pending != null) {
+	  installAu(res.pending);
+	}
+	inactiveAuIds.remove(res.auId);
+	startupTimeline.auStarted(res.pluginKey, res.elapsed, true);
+	return;
+      } catch (ArchivalUnit.ConfigurationException e) {
+	log.error("Failed to configure AU " + res.auId, e);
+      } catch (Exception e) {
+	log.error("Unexpected exception configuring AU " + res.auId, e);
+      }
+      startupTimeline.auStarted(res.pluginKey, res.elapsed, false);
+    }
+  }
+
+  /** Result of a ParallelAuStarter task */
+  static class StartedAu {
+    final String pluginKey;
+    final String auId;
+    PendingAu pending;
+    Exception error;
+    long elapsed;
+
+    StartedAu(String pluginKey, String auId) {
+      this.pluginKey = pluginKey;
+      this.auId = auId;
+    }
+  }
+
   ArchivalUnit createAu(Plugin plugin, Configuration auConf, AuEvent event)
       throws ArchivalUnit.ConfigurationException {
     String auid = null;
@@ -1323,6 +1608,24 @@ public class PluginManager
     }
   }
 
+  /** Recompute the AU's entries in the URL prefix index of each search
+   * set it belongs to, as its crawl rules may have changed */
+  void updateAuUrlPrefixes(ArchivalUnit au) {
+    try {
+      Collection<String> stems = normalizeStems(au.getUrlStems());
+      synchronized (hostAus) {
+	for (String stem : stems) {
+	  AuSearchSet searchSet = hostAus.get(stem);
+	  if (searchSet != null) {
+	    searchSet.updateUrlPrefixes(au);
+	  }
+	}
+      }
+    } catch (Exception e) {
+      log.error("updateAuUrlPrefixes()", e);
+    }
+  }
+
   void flush404Cache(ArchivalUnit au) {
     try {
       Collection<String> stems = normalizeStems(au.getUrlStems());
@@ -1402,6 +1705,7 @@ public class PluginManager
     synchronized (auAddDelLock) {
       log.debug("Reconfiguring AU " + au);
       au.setConfiguration(auConf);
+      updateAuUrlPrefixes(au);
       updateAuConfigFile(au, auConf);
     }
   }
@@ -1931,9 +2235,7 @@ public class PluginManager
     try {
       pluginName = pluginNameFromKey(pluginKey);
       log.debug3("Trying to retrieve "+pluginKey);
-      info = retrievePlugin(pluginKey, loader,
-                            (msg) ->
-                            {enqueueMissingPluginAlert(msg);});
+      info = retrieveTimedPlugin(pluginKey, loader);
       if (info != null) {
 	setPlugin(pluginKey, info.getPlugin());
 	pluginfoMap.put(pluginKey, info);
@@ -1948,6 +2250,21 @@ public class PluginManager
     }
   }
 
+  /** retrievePlugin(), recording the time taken in the startup
+   * timeline */
+  private PluginInfo retrieveTimedPlugin(String pluginKey,
+					 ClassLoader loader)
+      throws Exception {
+    long start = TimeBase.nowMs();
+    try {
+      return retrievePlugin(pluginKey, loader,
+			    (msg) ->
+			    {enqueueMissingPluginAlert(msg);});
+    } finally {
+      startupTimeline.pluginLoaded(pluginKey, TimeBase.msSince(start));
+    }
+  }
+
   public Plugin loadBuiltinPlugin(Class pluginClass) {
     return loadBuiltinPlugin(pluginClass.getName());
   }
@@ -2436,6 +2753,8 @@ public class PluginManager
     // for AUs on the basis of their base_url,  which for
     // ExplodedArchiveUnits is their sole definitional parameter,  so
     // is known unique.
+    // The URL prefix index (AuUrlPrefixIndex) does this for AUs whose
+    // crawl rules are anchored to literal prefixes.
     String normUrl;
     String normStem;
     boolean isTrace = log.isDebug3();
@@ -2469,7 +2788,10 @@ public class PluginManager
     int bestScore = 8;
     int numContentChecks = 0;
 
-    for (ArchivalUnit au : searchSet) {
+    Iterable<ArchivalUnit> candidates =
+      paramAuSearchUrlPrefixIndex ? searchSet.getCandidateAus(normUrl)
+      : searchSet;
+    for (ArchivalUnit au : candidates) {
       if (!isActiveAu(au)) {
 	// This loop can run concurrently with other threads manipulating
 	// set of active AUs, so this AU might still disappear at any point.
@@ -3199,13 +3521,18 @@ public class PluginManager
     // Create temporary plugin and classloader maps
     HashMap<String,PluginInfo> tmpMap = new LinkedHashMap<String,PluginInfo>();
 
-    for (Iterator iter = registryAus.iterator(); iter.hasNext(); ) {
-      ArchivalUnit au = (ArchivalUnit)iter.next();
-      try {
-	processOneRegistryAu(au, tmpMap);
-      } catch (RuntimeException e) {
-	log.error("Error processing plugin registry AU: " + au, e);
+    prevalidatedJars = prevalidateRegistryJars(registryAus);
+    try {
+      for (Iterator iter = registryAus.iterator(); iter.hasNext(); ) {
+	ArchivalUnit au = (ArchivalUnit)iter.next();
+	try {
+	  processOneRegistryAu(au, tmpMap);
+	} catch (RuntimeException e) {
+	  log.error("Error processing plugin registry AU: " + au, e);
+	}
       }
+    } finally {
+      discardPrevalidatedJars();
     }
 
     // After the temporary plugin map has been built, build a list of
@@ -3530,7 +3857,7 @@ public class PluginManager
     } else {
       try {
 	// Validate and bless the JAR file from the CU.
-	blessedJar = jarValidator.getBlessedJar(cu);
+	blessedJar = getBlessedJar(cu, url);
 	log.debug2("Plugin jar: " + url + " -> " + blessedJar);
       } catch (IOException ex) {
 	log.error("Error processing jar file: " + url, ex);
@@ -3555,6 +3882,107 @@ public class PluginManager
     }
   }
 
+  /** Start validating in parallel the registry jars that
+   * processOneRegistryJar() will need to validate.
+   * @return map of jar URL and version to the blessed jar, or null if
+   * jars are to be validated serially */
+  private Map<String,Future<File>> prevalidateRegistryJars(List registryAus) {
+    if (paramPluginLoadThreads <= 1) {
+      return null;
+    }
+    List<CachedUrl> jars = new ArrayList<CachedUrl>();
+    for (Iterator iter = registryAus.iterator(); iter.hasNext(); ) {
+      ArchivalUnit au = (ArchivalUnit)iter.next();
+      try {
+	for (CachedUrl cu : au.getAuCachedUrlSet().getCuIterable()) {
+	  String url = cu.getUrl();
+	  if (StringUtil.endsWithIgnoreCase(url, ".jar")
+	      && !Integer.valueOf(cu.getVersion())
+	      .equals(cuNodeVersionMap.get(url))
+	      && cu.getContentSize() != 0) {
+	    jars.add(cu);
+	  }
+	}
+      } catch (RuntimeException e) {
+	// processOneRegistryAu() will encounter and log the same error
+	log.debug2("Error finding jars to prevalidate in " + au, e);
+      }
+    }
+    if (jars.size() <= 1) {
+      return null;
+    }
+    log.debug2("Validating " + jars.size() + " plugin jars in parallel");
+    ExecutorService executor =
+      newWorkerPool("JarValidator", paramPluginLoadThreads, jars.size());
+    Map<String,Future<File>> res = new HashMap<String,Future<File>>();
+    for (final CachedUrl cu : jars) {
+      String key = prevalidatedJarKey(cu);
+      if (!res.containsKey(key)) {
+	res.put(key, executor.submit(() -> jarValidator.getBlessedJar(cu)));
+      }
+    }
+    // Queued validations still run; the threads exit when they're done
+    executor.shutdown();
+    return res;
+  }
+
+  private static String prevalidatedJarKey(CachedUrl cu) {
+    return cu.getUrl() + " " + cu.getVersion();
+  }
+
+  /** Return the blessed jar for the CU, from the parallel validation if
+   * one was started for it, else by validating it now */
+  private File getBlessedJar(CachedUrl cu, String url)
+      throws IOException, JarValidator.JarValidationException {
+    Future<File> fut = null;
+    if (prevalidatedJars != null) {
+      fut = prevalidatedJars.remove(prevalidatedJarKey(cu));
+    }
+    if (fut == null) {
+      return jarValidator.getBlessedJar(cu);
+    }
+    try {
+      return fut.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted validating " + url);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+	throw (IOException)cause;
+      } else if (cause instanceof JarValidator.JarValidationException) {
+	throw (JarValidator.JarValidationException)cause;
+      } else if (cause instanceof RuntimeException) {
+	throw (RuntimeException)cause;
+      } else if (cause instanceof Error) {
+	throw (Error)cause;
+      }
+      throw new IOException("Error validating " + url, cause);
+    }
+  }
+
+  /** Delete any prevalidated jars that weren't used */
+  private void discardPrevalidatedJars() {
+    Map<String,Future<File>> unused = prevalidatedJars;
+    prevalidatedJars = null;
+    if (unused == null) {
+      return;
+    }
+    for (Future<File> fut : unused.values()) {
+      try {
+	File f = fut.get();
+	if (f != null) {
+	  f.delete();
+	}
+      } catch (InterruptedException e) {
+	Thread.currentThread().interrupt();
+	return;
+      } catch (ExecutionException e) {
+	// validation failed, nothing to delete
+      }
+    }
+  }
+
   protected void loadPluginsFromJar(File jarFile, String url,
 				    ArchivalUnit au, CachedUrl cu,
 				    Map tmpMap) {
@@ -3603,11 +4031,13 @@ public class PluginManager
       Plugin plugin;
       PluginInfo info;
       try {
+	long start = TimeBase.nowMs();
 	info =
           retrievePlugin(pluginName, pluginLoader,
                          (msg) ->
                          {raiseAlert(Alert.cacheAlert(Alert.PLUGIN_NOT_LOADED),
                                      msg);});
+	startupTimeline.pluginLoaded(key, TimeBase.msSince(start));
 	if (info == null) {
 	  log.warning("Probable plugin packaging error: plugin " +
                       pluginName + " could not be loaded from " +
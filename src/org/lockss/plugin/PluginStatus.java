@@ -51,6 +51,7 @@ public class PluginStatus {
   final static String PLUGIN_DETAIL = "PluginDetail";
   final static String ALL_AUIDS = "AllAuids";
   final static String HTTP_RESULT_MAP = "HttpResultMap";
+  final static String STARTUP_TIMELINE = "StartupTimeline";
 
   /** If true the definition of definable plugins will be displayed along
    * with its details. */
@@ -71,6 +72,8 @@ public class PluginStatus {
 				      new AllAuids(daemon, mgr));
     statusServ.registerStatusAccessor(HTTP_RESULT_MAP,
 				      new HTTPResultMapping(daemon, mgr));
+    statusServ.registerStatusAccessor(STARTUP_TIMELINE,
+				      new StartupTimelineStatus(daemon, mgr));
   }
 
   static void unregister(LockssDaemon daemon) {
@@ -79,6 +82,7 @@ public class PluginStatus {
     statusServ.unregisterStatusAccessor(PLUGIN_DETAIL);
     statusServ.unregisterStatusAccessor(ALL_AUIDS);
     statusServ.unregisterStatusAccessor(HTTP_RESULT_MAP);
+    statusServ.unregisterStatusAccessor(STARTUP_TIMELINE);
   }
 
   PluginStatus(LockssDaemon daemon, PluginManager mgr) {
@@ -465,6 +469,106 @@ class HTTPResultMapping extends PluginStatus implements StatusAccessor {
 
 }
 
+/**
+ * Startup timeline: duration of each startup phase, and time spent
+ * loading each plugin and starting its AUs.
+ */
+class StartupTimelineStatus extends PluginStatus implements StatusAccessor {
+
+  private final List colDescs =
+    ListUtil.list(
+		  new ColumnDescriptor("plugin", "Plugin",
+				       ColumnDescriptor.TYPE_STRING),
+		  new ColumnDescriptor("load", "Load Time",
+				       ColumnDescriptor.TYPE_TIME_INTERVAL),
+		  new ColumnDescriptor("aus", "AUs Started",
+				       ColumnDescriptor.TYPE_INT),
+		  new ColumnDescriptor("failed", "AUs Failed",
+				       ColumnDescriptor.TYPE_INT),
+		  new ColumnDescriptor("total", "Total AU Time",
+				       ColumnDescriptor.TYPE_TIME_INTERVAL,
+				       "Sum of the time taken to start each AU." +
+				       "  May exceed the elapsed time if AUs" +
+				       " were started in parallel."),
+		  new ColumnDescriptor("mean", "Mean AU Time",
+				       ColumnDescriptor.TYPE_TIME_INTERVAL),
+		  new ColumnDescriptor("max", "Max AU Time",
+				       ColumnDescriptor.TYPE_TIME_INTERVAL)
+		  );
+
+  private final List sortRules =
+    ListUtil.list(new StatusTable.SortRule("total", false));
+
+  StartupTimelineStatus(LockssDaemon daemon, PluginManager mgr) {
+    super(daemon, mgr);
+  }
+
+  public String getDisplayName() {
+    return "Startup Timeline";
+  }
+
+  public boolean requiresKey() {
+    return false;
+  }
+
+  public void populateTable(StatusTable table) {
+    StartupTimeline timeline = mgr.getStartupTimeline();
+    table.setColumnDescriptors(colDescs);
+    table.setDefaultSortRules(sortRules);
+    table.setSummaryInfo(getSummaryInfo(timeline));
+    table.setRows(getRows(timeline));
+  }
+
+  List getSummaryInfo(StartupTimeline timeline) {
+    List res = new ArrayList();
+    if (timeline.getStartTime() < 0) {
+      res.add(new StatusTable.SummaryInfo("Status",
+					  ColumnDescriptor.TYPE_STRING,
+					  "Not started"));
+      return res;
+    }
+    res.add(new StatusTable.SummaryInfo("Started",
+					ColumnDescriptor.TYPE_DATE,
+					timeline.getStartTime()));
+    for (StartupTimeline.Phase phase : timeline.getPhases()) {
+      String val = StringUtil.timeIntervalToString(phase.getDuration());
+      if (!phase.isDone()) {
+	val += " (running)";
+      }
+      res.add(new StatusTable.SummaryInfo(phase.getName(),
+					  ColumnDescriptor.TYPE_STRING,
+					  val));
+    }
+    res.add(new StatusTable.SummaryInfo(timeline.isDone()
+					? "Total" : "Elapsed",
+					ColumnDescriptor.TYPE_TIME_INTERVAL,
+					timeline.getElapsed()));
+    return res;
+  }
+
+  List getRows(StartupTimeline timeline) {
+    List rows = new ArrayList();
+    for (StartupTimeline.PluginTimes pt : timeline.getPluginTimes()) {
+      Map row = new HashMap();
+      Plugin plugin = mgr.getPlugin(pt.getPluginKey());
+      if (plugin != null) {
+	row.put("plugin", makePlugRef(plugin.getPluginName(), plugin));
+      } else {
+	row.put("plugin",
+		PluginManager.pluginNameFromKey(pt.getPluginKey()));
+      }
+      row.put("load", pt.getLoadTime());
+      row.put("aus", pt.getNumAus());
+      row.put("failed", pt.getNumFailedAus());
+      row.put("total", pt.getTotalAuTime());
+      row.put("mean", pt.getMeanAuTime());
+      row.put("max", pt.getMaxAuTime());
+      rows.add(row);
+    }
+    return rows;
+  }
+}
+
 /**
  * List of AUID of all currently defined titles.
  */
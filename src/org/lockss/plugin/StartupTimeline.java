@@ -0,0 +1,233 @@
+/*
+
+Copyright (c) 2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+
+package org.lockss.plugin;
+
+import java.util.*;
+
+import org.lockss.util.*;
+
+/**
+ * Records how long each phase of plugin and AU bring-up takes at daemon
+ * startup, and the time spent loading each plugin and starting its AUs.
+ * Recording calls are ignored except between {@link #start()} and {@link
+ * #finish()}, so plugin reloads and AU creation after startup aren't
+ * counted.  Displayed by the StartupTimeline status table.
+ */
+public class StartupTimeline {
+  static Logger log = Logger.getLogger("StartupTimeline");
+
+  /** One named phase of startup */
+  public static class Phase {
+    private final String name;
+    private final long startTime;
+    private volatile long endTime = -1;
+
+    Phase(String name, long startTime) {
+      this.name = name;
+      this.startTime = startTime;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public long getStartTime() {
+      return startTime;
+    }
+
+    public boolean isDone() {
+      return endTime >= 0;
+    }
+
+    /** Return the duration of the phase, or the time so far if it's still
+     * running */
+    public long getDuration() {
+      return (isDone() ? endTime : TimeBase.nowMs()) - startTime;
+    }
+  }
+
+  /** Load and AU start times for one plugin */
+  public static class PluginTimes {
+    private final String pluginKey;
+    private long loadTime = 0;
+    private int numAus = 0;
+    private int numFailedAus = 0;
+    private long totalAuTime = 0;
+    private long maxAuTime = 0;
+
+    PluginTimes(String pluginKey) {
+      this.pluginKey = pluginKey;
+    }
+
+    public String getPluginKey() {
+      return pluginKey;
+    }
+
+    public long getLoadTime() {
+      return loadTime;
+    }
+
+    public int getNumAus() {
+      return numAus;
+    }
+
+    public int getNumFailedAus() {
+      return numFailedAus;
+    }
+
+    public long getTotalAuTime() {
+      return totalAuTime;
+    }
+
+    public long getMaxAuTime() {
+      return maxAuTime;
+    }
+
+    public long getMeanAuTime() {
+      int n = numAus + numFailedAus;
+      return n == 0 ? 0 : totalAuTime / n;
+    }
+  }
+
+  private long startTime = -1;
+  private long endTime = -1;
+  private Phase curPhase = null;
+  private final List<Phase> phases = new ArrayList<Phase>();
+  private final Map<String,PluginTimes> plugins =
+    new LinkedHashMap<String,PluginTimes>();
+
+  /** Begin recording */
+  public synchronized void start() {
+    startTime = TimeBase.nowMs();
+    endTime = -1;
+    curPhase = null;
+    phases.clear();
+    plugins.clear();
+  }
+
+  /** End the current phase, if any, and stop recording */
+  public synchronized void finish() {
+    if (!isRunning()) {
+      return;
+    }
+    endPhase();
+    endTime = TimeBase.nowMs();
+    log.info("Startup took " + StringUtil.timeIntervalToString(getElapsed()));
+  }
+
+  /** Return true between start() and finish() */
+  public synchronized boolean isRunning() {
+    return startTime >= 0 && endTime < 0;
+  }
+
+  /** Return true if recording has finished */
+  public synchronized boolean isDone() {
+    return endTime >= 0;
+  }
+
+  /** End the current phase, if any, and start a new one */
+  public synchronized void startPhase(String name) {
+    if (!isRunning()) {
+      return;
+    }
+    endPhase();
+    curPhase = new Phase(name, TimeBase.nowMs());
+    phases.add(curPhase);
+  }
+
+  /** End the current phase, if any */
+  public synchronized void endPhase() {
+    if (curPhase != null) {
+      curPhase.endTime = TimeBase.nowMs();
+      if (log.isDebug()) {
+	log.debug("Startup phase " + curPhase.getName() + " took " +
+		  StringUtil.timeIntervalToString(curPhase.getDuration()));
+      }
+      curPhase = null;
+    }
+  }
+
+  /** Record the time taken to load (and validate, if loadable) a
+   * plugin */
+  public synchronized void pluginLoaded(String pluginKey, long elapsed) {
+    if (isRunning()) {
+      getPluginTimes(pluginKey).loadTime += elapsed;
+    }
+  }
+
+  /** Record the time taken to create and start one AU of a plugin */
+  public synchronized void auStarted(String pluginKey, long elapsed,
+				     boolean success) {
+    if (isRunning()) {
+      PluginTimes pt = getPluginTimes(pluginKey);
+      if (success) {
+	pt.numAus++;
+      } else {
+	pt.numFailedAus++;
+      }
+      pt.totalAuTime += elapsed;
+      pt.maxAuTime = Math.max(pt.maxAuTime, elapsed);
+    }
+  }
+
+  private PluginTimes getPluginTimes(String pluginKey) {
+    PluginTimes pt = plugins.get(pluginKey);
+    if (pt == null) {
+      pt = new PluginTimes(pluginKey);
+      plugins.put(pluginKey, pt);
+    }
+    return pt;
+  }
+
+  /** Return the time recording started, or -1 if it hasn't */
+  public synchronized long getStartTime() {
+    return startTime;
+  }
+
+  /** Return the total startup time, or the time so far if still
+   * running */
+  public synchronized long getElapsed() {
+    if (startTime < 0) {
+      return 0;
+    }
+    return (isDone() ? endTime : TimeBase.nowMs()) - startTime;
+  }
+
+  /** Return the phases in the order they were started */
+  public synchronized List<Phase> getPhases() {
+    return new ArrayList<Phase>(phases);
+  }
+
+  /** Return the per-plugin times in the order the plugins were first
+   * seen */
+  public synchronized List<PluginTimes> getPluginTimes() {
+    return new ArrayList<PluginTimes>(plugins.values());
+  }
+}
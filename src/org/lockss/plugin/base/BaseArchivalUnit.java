@@ -501,7 +501,45 @@ public abstract class BaseArchivalUnit implements ArchivalUnit {
   public boolean shouldBeCached(String url) {
     return (rule == null) ? true : (rule.match(url) == CrawlRule.INCLUDE);
   }
-  
+
+  /**
+   * Return the URL prefixes implied by {@link #makeIncludedUrlPrefixes()},
+   * or null if the plugin has a URL normalizer or a subclass overrides
+   * {@link #shouldBeCached(String)} without also overriding
+   * makeIncludedUrlPrefixes().
+   */
+  public Collection<String> getIncludedUrlPrefixes() {
+    if (plugin.getUrlNormalizer() != BasePlugin.NullUrlNormalizer.INSTANCE) {
+      return null;
+    }
+    Class<?> cls = getClass();
+    if (declaringClass(cls, "shouldBeCached", String.class)
+	!= declaringClass(cls, "makeIncludedUrlPrefixes")) {
+      return null;
+    }
+    return makeIncludedUrlPrefixes();
+  }
+
+  /** Return the URL prefixes to which the crawl rules limit the AU, or
+   * null if not bounded.  Subclasses that override {@link
+   * #shouldBeCached(String)} should override this to match. */
+  protected Collection<String> makeIncludedUrlPrefixes() {
+    return (rule == null) ? null : CrawlRules.getIncludedUrlPrefixes(rule);
+  }
+
+  private static Class<?> declaringClass(Class<?> cls, String name,
+					 Class<?>... argTypes) {
+    for (Class<?> c = cls; c != null; c = c.getSuperclass()) {
+      try {
+	c.getDeclaredMethod(name, argTypes);
+	return c;
+      } catch (NoSuchMethodException e) {
+	// try superclass
+      }
+    }
+    return null;
+  }
+
   public boolean storeProbePermission() {
     return plugin.storeProbePermission();
   }
@@ -541,6 +541,14 @@ public class BaseCachedUrl implements CachedUrl {
     return false;
   }
 
+  public String getHashCacheEntry(String key) {
+    return getNodeVersion().getHashCacheEntry(key);
+  }
+
+  public void putHashCacheEntry(String key, String value) {
+    getNodeVersion().putHashCacheEntry(key, value);
+  }
+
   /** A CachedUrl that's bound to a specific version. */
   static class Version extends BaseCachedUrl {
     private RepositoryNodeVersion nodeVer;
@@ -785,6 +793,16 @@ public class BaseCachedUrl implements CachedUrl {
       return true;
     }
 
+    // The repository node's hash cache belongs to the archive, not members
+    @Override
+    public String getHashCacheEntry(String key) {
+      return null;
+    }
+
+    @Override
+    public void putHashCacheEntry(String key, String value) {
+    }
+
     String getArchiveUrl() {
       return super.getUrl();
     }
@@ -77,6 +77,20 @@ public class DefinableArchivalUnit extends BaseArchivalUnit
     Configuration.PREFIX + "plugin.internCrawlRules";
   static final boolean DEFAULT_INTERN_CRAWL_RULES = false;
 
+  /** If true, the regexps in a plugin's crawl rules are compiled into a
+   * single automaton that evaluates them in one pass over the URL.  Rules
+   * it can't handle are evaluated individually as before. */
+  static final String PARAM_COMPILE_CRAWL_RULES =
+    Configuration.PREFIX + "plugin.compileCrawlRules";
+  static final boolean DEFAULT_COMPILE_CRAWL_RULES = true;
+
+  /** Max number of states the automaton for an AU's crawl rules may
+   * create.  URLs that would exceed it are evaluated rule by rule. */
+  static final String PARAM_CRAWL_RULES_MAX_STATES =
+    Configuration.PREFIX + "plugin.crawlRulesMaxStates";
+  static final int DEFAULT_CRAWL_RULES_MAX_STATES =
+    CrawlRules.DEFAULT_MAX_STATES;
+
   static final int CRAWL_RULE_CONTAINS_SET_THRESHOLD = 12;
 
   public static final String PREFIX_NUMERIC = "numeric_";
@@ -747,6 +761,13 @@ public class DefinableArchivalUnit extends BaseArchivalUnit
       rules.trimToSize();
 
       if (rules.size() > 0) {
+	if (CurrentConfig.getBooleanParam(PARAM_COMPILE_CRAWL_RULES,
+					  DEFAULT_COMPILE_CRAWL_RULES)) {
+	  int maxStates =
+	    CurrentConfig.getIntParam(PARAM_CRAWL_RULES_MAX_STATES,
+				      DEFAULT_CRAWL_RULES_MAX_STATES);
+	  return CrawlRules.compileFirstMatch(rules, maxStates);
+	}
 	return new CrawlRules.FirstMatch(rules);
       } else {
 	log.error("No crawl rules found for plugin: " + makeName());
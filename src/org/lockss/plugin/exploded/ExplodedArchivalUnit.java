@@ -114,6 +114,11 @@ public class ExplodedArchivalUnit extends DefinableArchivalUnit {
     return false;
   }
 
+  @Override
+  protected Collection<String> makeIncludedUrlPrefixes() {
+    return new ArrayList<String>(explodedUrlStems);
+  }
+
   @Override
   public Collection<String> getUrlStems() {
     return new ArrayList<String>(explodedUrlStems);
@@ -172,6 +172,26 @@ public class PollManager
     PREFIX + "queueRecalcInterval";
   static final long DEFAULT_REBUILD_POLL_QUEUE_INTERVAL = HOUR;
 
+  /** If true, the poll queue is filled from an incrementally maintained
+   * index of AU poll weights, updated as AUs are created, crawled and
+   * polled.  If false, every AU's weight is recomputed each time the
+   * queue is rebuilt. */
+  public static final String PARAM_USE_POLL_WEIGHT_INDEX =
+    PREFIX + "useWeightIndex";
+  static final boolean DEFAULT_USE_POLL_WEIGHT_INDEX = true;
+
+  /** Interval at which every AU's entry in the poll weight index is
+   * recomputed, to pick up changes not signalled by an event. */
+  public static final String PARAM_WEIGHT_INDEX_REFRESH_INTERVAL =
+    PREFIX + "weightIndexRefreshInterval";
+  static final long DEFAULT_WEIGHT_INDEX_REFRESH_INTERVAL = DAY;
+
+  /** Interval after which AUs that were ineligible for a poll are checked
+   * again. */
+  public static final String PARAM_WEIGHT_INDEX_RECHECK_INTERVAL =
+    PREFIX + "weightIndexRecheckInterval";
+  static final long DEFAULT_WEIGHT_INDEX_RECHECK_INTERVAL = HOUR;
+
   /** Interval to sleep when queue empty, before recalc. */
   public static final String PARAM_QUEUE_EMPTY_SLEEP =
     PREFIX + "queueEmptySleep";
@@ -718,6 +738,11 @@ public class PollManager
     DEFAULT_ENABLE_POLL_STARTER_THROTTLE;
   private long paramRebuildPollQueueInterval =
     DEFAULT_REBUILD_POLL_QUEUE_INTERVAL;
+  private boolean paramUsePollWeightIndex = DEFAULT_USE_POLL_WEIGHT_INDEX;
+  private long paramWeightIndexRefreshInterval =
+    DEFAULT_WEIGHT_INDEX_REFRESH_INTERVAL;
+  private long paramWeightIndexRecheckInterval =
+    DEFAULT_WEIGHT_INDEX_RECHECK_INTERVAL;
   private long paramQueueEmptySleep = DEFAULT_QUEUE_EMPTY_SLEEP;
   private long paramMaxPollersSleep = DEFAULT_MAX_POLLERS_SLEEP;
   private int paramPollQueueMax = DEFAULT_POLL_QUEUE_MAX;
@@ -844,6 +869,17 @@ public class PollManager
      */
     private Map<ArchivalUnit,PollReq> highPriorityPollRequests =
       Collections.synchronizedMap(new ListOrderedMap());
+    /**
+     * Weights of all AUs, maintained incrementally.
+     */
+    PollWeightIndex<ArchivalUnit> weightIndex;
+    /**
+     * AUs whose weights must be recomputed.  Not protected by queueLock
+     * so that notifiers needn't wait for a rebuild in progress.
+     */
+    private Set<ArchivalUnit> changedAus =
+      Collections.synchronizedSet(new HashSet<ArchivalUnit>());
+    Deadline timeToRefreshWeightIndex = Deadline.in(0);
 
     /**
      * Make a PollQueue.
@@ -893,6 +929,20 @@ public class PollManager
       timeToRebuildPollQueue.expire();
     }
 
+    /**
+     * Cause the AU's weight to be recomputed at the next rebuild.
+     */
+    public void invalidateAu(ArchivalUnit au) {
+      changedAus.add(au);
+    }
+
+    /**
+     * Cause all AU weights to be recomputed at the next rebuild.
+     */
+    public void needRefreshWeightIndex() {
+      timeToRefreshWeightIndex.expire();
+    }
+
     /**
      * @return a List of ArchivalUnits in the queue to poll.
      */
@@ -985,48 +1035,206 @@ public class PollManager
 	}
 	int availablePollCount = paramPollQueueMax - pollQueue.size();
 	if (availablePollCount > 0) {
-	  Map<ArchivalUnit, PollWeight> weightMap =
-	    new HashMap<ArchivalUnit, PollWeight>();
-	  for (ArchivalUnit au : pluginMgr.getAllAus()) {
+	  if (paramUsePollWeightIndex) {
+	    selectFromWeightIndex(highPriorityAus, availablePollCount);
+	  } else {
+	    weightIndex = null;
+	    selectByScan(highPriorityAus, availablePollCount);
+	  }
+	}
+	if (theLog.isDebug()) {
+	  theLog.debug("Poll queue: " + pollQueue);
+	}
+      }
+    }
+
+    /**
+     * Compute the weight of every AU and add a weighted random selection
+     * of them to the queue.
+     */
+    private void selectByScan(Set<ArchivalUnit> highPriorityAus,
+			      int availablePollCount) {
+      Map<ArchivalUnit, PollWeight> weightMap =
+	new HashMap<ArchivalUnit, PollWeight>();
+      for (ArchivalUnit au : pluginMgr.getAllAus()) {
+	try {
+	  if (highPriorityAus.contains(au)) {
+	    // already tried above; might or might not have been added.
+	    continue;
+	  }
+	  try {
+	    PollWeight weight = pollWeight(au);
+	    if (weight.value > 0.0) {
+	      weightMap.put(au, weight);
+	    }
+	  } catch (NotEligibleException e) {
+	    if (theLog.isDebug3()) {
+	      theLog.debug3("Not eligible for poll: " + au + " reason " + e);
+	    }
+	  }
+	} catch (RuntimeException e) {
+	  theLog.warning("Checking for pollworthiness: " + au.getName(), e);
+	  // ignore AU if it caused an error
+	}
+      }
+      // weightedRandomSelection throws if the count is larger
+      // than the size.
+      int count = Math.min(weightMap.size(), availablePollCount);
+      if (!weightMap.isEmpty()) {
+	List<ArchivalUnit> selected =
+	  weightedRandomSelection(weightMap, count);
+	for (ArchivalUnit au : selected) {
+	  addToQueue(au, weightMap.get(au).pollVariant());
+	}
+      }
+    }
+
+    /**
+     * Bring the weight index up to date, then add a weighted random
+     * selection of AUs to the queue.  Only the selected AUs (and those
+     * rejected along the way) have their full weight computed.
+     */
+    private void selectFromWeightIndex(final Set<ArchivalUnit> highPriorityAus,
+				       int availablePollCount) {
+      final long now = TimeBase.nowMs();
+      updateWeightIndex(now);
+      final Map<ArchivalUnit,PollVariant> variants =
+	new HashMap<ArchivalUnit,PollVariant>();
+      PollWeightIndex.Selector<ArchivalUnit> selector =
+	new PollWeightIndex.Selector<ArchivalUnit>() {
+	  public PollWeightIndex.Check check(ArchivalUnit au,
+					     double indexWeight) {
+	    if (highPriorityAus.contains(au)) {
+	      // already tried above; might or might not have been added.
+	      return PollWeightIndex.Check.Reject;
+	    }
+	    PollWeight weight;
 	    try {
-	      if (highPriorityAus.contains(au)) {
-		// already tried above; might or might not have been added.
-		continue;
-	      }
-	      try {
-		PollWeight weight = pollWeight(au);
-		if (weight.value > 0.0) {
-		  weightMap.put(au, weight);
-		}
-	      } catch (NotEligibleException e) {
-		if (theLog.isDebug3()) {
-		  theLog.debug3("Not eligible for poll: " + au + " reason " + e);
-		}
+	      weight = pollWeight(au);
+	    } catch (NotEligibleException e) {
+	      if (theLog.isDebug3()) {
+		theLog.debug3("Not eligible for poll: " + au + " reason " + e);
 	      }
+	      indexAu(au, now);
+	      return PollWeightIndex.Check.Reject;
 	    } catch (RuntimeException e) {
 	      theLog.warning("Checking for pollworthiness: " + au.getName(), e);
-	      // ignore AU if it caused an error
+	      weightIndex.putDormant(au, now + paramWeightIndexRecheckInterval);
+	      return PollWeightIndex.Check.Reject;
 	    }
-	  }
-	  // weightedRandomSelection throws if the count is larger
-	  // than the size.
-	  int count = Math.min(weightMap.size(), availablePollCount);
-	  if (!weightMap.isEmpty()) {
-	    List<ArchivalUnit> selected =
-	      weightedRandomSelection(weightMap, count);
-	    for (ArchivalUnit au : selected) {
-	      PollSpec spec =
-		new PollSpec(au.getAuCachedUrlSet(), Poll.V3_POLL);
-	      spec.setPollVariant(weightMap.get(au).pollVariant());
-	      PollReq req = new PollReq(au).setPollSpec(spec);
-	      pollQueue.add(req);
+	    if (weight.pollVariant() == PollVariant.NoPoll) {
+	      return PollWeightIndex.Check.Reject;
 	    }
-	  }
-	}
-	if (theLog.isDebug()) {
-	  theLog.debug("Poll queue: " + pollQueue);
+	    if (!isSameWeight(weight.value, indexWeight)) {
+	      // Index entry is stale.  Update it and choose again.
+	      if (theLog.isDebug2()) {
+		theLog.debug2("Stale weight index entry for " + au + ": " +
+			      indexWeight + " != " + weight.value);
+	      }
+	      indexAu(au, now);
+	      return PollWeightIndex.Check.Retry;
+	    }
+	    if (weight.value <= 0.0) {
+	      return PollWeightIndex.Check.Reject;
+	    }
+	    variants.put(au, weight.pollVariant());
+	    return PollWeightIndex.Check.Accept;
+	  }};
+      for (ArchivalUnit au : weightIndex.select(availablePollCount, now,
+						selector)) {
+	addToQueue(au, variants.get(au));
+      }
+    }
+
+    // Allow for the clock advancing while the queue is built
+    private boolean isSameWeight(double w1, double w2) {
+      return Math.abs(w1 - w2) <= 1e-6 * Math.max(Math.abs(w1), Math.abs(w2));
+    }
+
+    private void addToQueue(ArchivalUnit au, PollVariant variant) {
+      PollSpec spec = new PollSpec(au.getAuCachedUrlSet(), Poll.V3_POLL);
+      spec.setPollVariant(variant);
+      PollReq req = new PollReq(au).setPollSpec(spec);
+      pollQueue.add(req);
+    }
+
+    /**
+     * Recompute the entries of AUs that have changed or whose recheck
+     * time has passed, or of all AUs if a full refresh is due.
+     */
+    private void updateWeightIndex(long now) {
+      if (weightIndex == null || timeToRefreshWeightIndex.expired()) {
+	timeToRefreshWeightIndex.expireIn(paramWeightIndexRefreshInterval);
+	changedAus.clear();
+	long startTime = TimeBase.nowMs();
+	weightIndex = new PollWeightIndex<ArchivalUnit>(now);
+	for (ArchivalUnit au : pluginMgr.getAllAus()) {
+	  indexAu(au, now);
 	}
+	theLog.debug("Rebuilt poll weight index: " + weightIndex.size() +
+		     " AUs, " + (TimeBase.nowMs() - startTime) + "ms");
+	return;
+      }
+      List<ArchivalUnit> changed;
+      synchronized (changedAus) {
+	changed = new ArrayList<ArchivalUnit>(changedAus);
+	changedAus.clear();
+      }
+      for (ArchivalUnit au : changed) {
+	weightIndex.invalidate(au);
+      }
+      List<ArchivalUnit> stale = weightIndex.takeStale(now);
+      for (ArchivalUnit au : stale) {
+	indexAu(au, now);
+      }
+      if (theLog.isDebug2()) {
+	theLog.debug2("Updated " + stale.size() + " of " +
+		      weightIndex.size() + " poll weight index entries");
+      }
+    }
+
+    /**
+     * Recompute the AU's weight index entry.  Eligible AUs get an entry
+     * that becomes selectable when their poll interval has elapsed;
+     * ineligible ones are checked again later.
+     */
+    private void indexAu(ArchivalUnit au, long now) {
+      if (!pluginMgr.isActiveAu(au)) {
+	weightIndex.remove(au);
+	return;
+      }
+      try {
+	checkEligibleForPoll(au);
+	AuState auState = AuUtil.getAuState(au);
+	long lastEnd = auState.getLastTopLevelPollTime();
+	int numrisk = numPeersWithAuAtRisk(au);
+	long pollInterval = pollInterval(auState, numrisk);
+	long denom = Math.max(1, pollInterval + auState.getPollDuration());
+	weightIndex.put(au, lastEnd, lastEnd + pollInterval,
+			applyWeightFactors(au, numrisk, 1.0 / (double)denom));
+      } catch (NotEligibleException e) {
+	weightIndex.putDormant(au, recheckTime(au, now));
+      } catch (RuntimeException e) {
+	theLog.warning("Checking for pollworthiness: " + au.getName(), e);
+	weightIndex.putDormant(au, now + paramWeightIndexRecheckInterval);
+      }
+    }
+
+    /**
+     * Return the time at which an ineligible AU should be checked again:
+     * when its min poll attempt interval expires, if that's what's
+     * keeping it from being polled, else after the recheck interval.
+     * Changes signalled by events cause it to be checked sooner.
+     */
+    private long recheckTime(ArchivalUnit au, long now) {
+      long res = now + paramWeightIndexRecheckInterval;
+      AuState auState = AuUtil.getAuState(au);
+      long attemptOk =
+	auState.getLastPollAttempt() + paramMinPollAttemptInterval;
+      if (attemptOk > now) {
+	res = Math.min(res, attemptOk);
       }
+      return res;
     }
   }
 
@@ -1121,9 +1329,19 @@ public class PollManager
     auEventHandler = new AuEventHandler.Base() {
 	@Override public void auCreated(AuEvent event, ArchivalUnit au) {
  	  restoreAuPolls(au);
+	  auPollStateChanged(au);
 	}
 	@Override public void auDeleted(AuEvent event, ArchivalUnit au) {
 	  cancelAuPolls(au);
+	  auPollStateChanged(au);
+	}
+	@Override public void auReconfigured(AuEvent event, ArchivalUnit au,
+					     Configuration oldAuConf) {
+	  auPollStateChanged(au);
+	}
+	@Override public void auContentChanged(AuEvent event, ArchivalUnit au,
+					       AuEventHandler.ChangeInfo info) {
+	  auPollStateChanged(au);
 	}};
     pluginMgr.registerAuEventHandler(auEventHandler);
 
@@ -1252,6 +1470,7 @@ public class PollManager
   public Poll callPoll(ArchivalUnit au, PollSpec pollspec) {
     AuState auState = AuUtil.getAuState(au);
     auState.pollAttempted();
+    auPollStateChanged(au);
     return callPoll0(pollspec);
   }
 
@@ -1818,6 +2037,15 @@ public class PollManager
       paramRebuildPollQueueInterval =
 	newConfig.getTimeInterval(PARAM_REBUILD_POLL_QUEUE_INTERVAL,
 			       DEFAULT_REBUILD_POLL_QUEUE_INTERVAL);
+      paramUsePollWeightIndex =
+	newConfig.getBoolean(PARAM_USE_POLL_WEIGHT_INDEX,
+			     DEFAULT_USE_POLL_WEIGHT_INDEX);
+      paramWeightIndexRefreshInterval =
+	newConfig.getTimeInterval(PARAM_WEIGHT_INDEX_REFRESH_INTERVAL,
+				  DEFAULT_WEIGHT_INDEX_REFRESH_INTERVAL);
+      paramWeightIndexRecheckInterval =
+	newConfig.getTimeInterval(PARAM_WEIGHT_INDEX_RECHECK_INTERVAL,
+				  DEFAULT_WEIGHT_INDEX_RECHECK_INTERVAL);
       paramMinPollAttemptInterval =
 	newConfig.getTimeInterval(PARAM_MIN_POLL_ATTEMPT_INTERVAL,
 				  DEFAULT_MIN_POLL_ATTEMPT_INTERVAL);
@@ -1979,6 +2207,8 @@ public class PollManager
 			   DEFAULT_REPAIRER_THRESHOLD);
       }
 
+      // Any poll param may affect AU weights
+      pollQueue.needRefreshWeightIndex();
       needRebuildPollQueue();
     }
     if (theRepairPolicy != null) {
@@ -2887,6 +3117,16 @@ public class PollManager
     pollQueue.enqueueHighPriorityPoll(req);
   }
 
+  /**
+   * Notify the poll queue that state affecting the AU's eligibility for a
+   * poll, or its poll weight, has changed.  Its weight will be recomputed
+   * the next time the queue is rebuilt.
+   * @param au the AU
+   */
+  public void auPollStateChanged(ArchivalUnit au) {
+    pollQueue.invalidateAu(au);
+  }
+
   void needRebuildPollQueue() {
     // Expiration of these timers causes nextReq() to rebuild the poll
     // queue the next time it's called.  As it doesn't trigger an immediate
@@ -3011,6 +3251,24 @@ public class PollManager
     checkEligibleForPoll(au);
     AuState auState = AuUtil.getAuState(au);
     long lastEnd = auState.getLastTopLevelPollTime();
+    int numrisk = numPeersWithAuAtRisk(au);
+    long pollInterval = pollInterval(auState, numrisk);
+    if (lastEnd + pollInterval > TimeBase.nowMs()) {
+      theLog.debug3("Not ready for poll on AU " + au + " interval: "
+		    + pollInterval );
+      return new PollWeight(PollVariant.PoR, 0.0);
+    }
+    long num = TimeBase.msSince(lastEnd);
+    long denom = pollInterval + auState.getPollDuration();
+    double weight = applyWeightFactors(au, numrisk,
+				       (double)num / (double)denom);
+    long maxDelayBetweenPoR = pollInterval * maxDelayBetweenPoRMultiplier;
+    return new PollWeight(choosePollVariant(au, maxDelayBetweenPoR), weight);
+  }
+
+  /** Return the interval the AU should wait after its last poll before
+   * it's ready for another. */
+  long pollInterval(AuState auState, int numrisk) {
     long pollInterval;
     if (pollIntervalAgreementCurve != null &&
 	pollIntervalAgreementLastResult.contains(auState.getLastPollResult())) {
@@ -3021,7 +3279,6 @@ public class PollManager
       pollInterval = paramToplevelPollInterval;
       theLog.debug3("Poll interval from prop: " + pollInterval);
     }
-    int numrisk = numPeersWithAuAtRisk(au);
     if (pollIntervalAtRiskPeersCurve != null) {
       int atRiskInterval = (int)pollIntervalAtRiskPeersCurve.getY(numrisk);
       if (atRiskInterval >= 0) {
@@ -3029,14 +3286,12 @@ public class PollManager
       theLog.debug3("Poll interval from risk: " + pollInterval);
       }
     }
-    if (lastEnd + pollInterval > TimeBase.nowMs()) {
-      theLog.debug3("Not ready for poll on AU " + au + " interval: "
-		    + pollInterval );
-      return new PollWeight(PollVariant.PoR, 0.0);
-    }
-    long num = TimeBase.msSince(lastEnd);
-    long denom = pollInterval + auState.getPollDuration();
-    double weight = (double)num / (double)denom;
+    return pollInterval;
+  }
+
+  /** Scale the AU's time-based weight by the at-risk and priority
+   * factors. */
+  double applyWeightFactors(ArchivalUnit au, int numrisk, double weight) {
     if (pollWeightAtRiskPeersCurve != null) {
       weight *= pollWeightAtRiskPeersCurve.getY(numrisk);
     }
@@ -3046,8 +3301,7 @@ public class PollManager
     if (pollPriorityAuMap != null) {
       weight *= pollPriorityAuMap.getMatch(au, 1.0f);
     }
-    long maxDelayBetweenPoR = pollInterval * maxDelayBetweenPoRMultiplier;
-    return new PollWeight(choosePollVariant(au, maxDelayBetweenPoR), weight);
+    return weight;
   }
 
   int numPeersWithAuAtRisk(ArchivalUnit au) {
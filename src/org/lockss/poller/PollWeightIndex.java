@@ -0,0 +1,435 @@
+/*
+
+Copyright (c) 2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+
+package org.lockss.poller;
+
+import java.util.*;
+
+import org.lockss.util.*;
+
+/**
+ * Incrementally maintained index of poll weights, supporting weighted
+ * random selection without replacement in O(log n) per item selected.
+ *
+ * <p>An item's weight is zero until its <i>readyTime</i>, after which it
+ * grows linearly: <code>(t - lastEnd) * slope</code>.  Because every
+ * weight is linear in time, the sum of any set of weights at time t is
+ * <code>t * sum(slope) - sum(slope * lastEnd)</code>, so a Fenwick tree
+ * of the two sums answers prefix-weight queries for any t without
+ * recomputing individual weights.  Items not yet ready, and items whose
+ * weight must be recomputed at some later time (<i>dormant</i> items),
+ * wait in a priority queue ordered by wake time.
+ *
+ * <p>Not thread-safe; PollManager accesses it under the poll queue lock.
+ */
+class PollWeightIndex<K> {
+  static Logger log = Logger.getLogger("PollWeightIndex");
+
+  /** Result of {@link Selector#check(Object, double)} */
+  enum Check {
+    /** Select the item */
+    Accept,
+    /** Don't select the item, exclude it for the rest of this selection */
+    Reject,
+    /** The selector updated the item's entry; choose again */
+    Retry
+  };
+
+  /** Validates items chosen by {@link #select(int, long, Selector)} */
+  interface Selector<K> {
+    /** Decide whether the chosen item should be selected.  May update the
+     * item's entry in the index (with {@link #put(Object, long, long,
+     * double)}, {@link #putDormant(Object, long)} or {@link
+     * #remove(Object)}).
+     * @param key the chosen item
+     * @param weight the item's weight according to the index */
+    Check check(K key, double weight);
+  }
+
+  static final int INITIAL_CAPACITY = 64;
+
+  private final long origin;
+  private LockssRandom random = new LockssRandom();
+  private Map<K,Entry<K>> entries = new HashMap<K,Entry<K>>();
+  private java.util.PriorityQueue<Wake<K>> wakeQueue =
+    new java.util.PriorityQueue<Wake<K>>();
+  private Set<K> stale = new LinkedHashSet<K>();
+
+  // Fenwick tree (1-based) of slope and slope * (lastEnd - origin) for
+  // active entries, indexed by slot
+  private double[] treeSlope;
+  private double[] treeOffset;
+  private Entry<K>[] slots;
+  private int nextSlot = 0;
+  private int[] freeSlots;
+  private int nFree = 0;
+  private int nActive = 0;
+
+  PollWeightIndex() {
+    this(TimeBase.nowMs());
+  }
+
+  /**
+   * @param origin time from which offsets are measured, to avoid loss of
+   * precision in the sums of large timestamps.
+   */
+  PollWeightIndex(long origin) {
+    this.origin = origin;
+    allocate(INITIAL_CAPACITY);
+  }
+
+  /** Set the entry for an item.
+   * @param key the item
+   * @param lastEnd the time at which the item's weight would be zero
+   * @param readyTime the time at which the item becomes selectable
+   * @param slope the rate at which the weight grows, per ms
+   */
+  void put(K key, long lastEnd, long readyTime, double slope) {
+    remove(key);
+    Entry<K> e = new Entry<K>(key);
+    e.lastEnd = lastEnd;
+    e.slope = slope;
+    entries.put(key, e);
+    if (slope > 0.0) {
+      enqueue(e, Math.max(readyTime, lastEnd));
+    }
+  }
+
+  /** Record that the item isn't currently selectable, and that its entry
+   * should be recomputed at or after recheckTime.
+   */
+  void putDormant(K key, long recheckTime) {
+    remove(key);
+    Entry<K> e = new Entry<K>(key);
+    e.dormant = true;
+    entries.put(key, e);
+    enqueue(e, recheckTime);
+  }
+
+  /** Remove the item from the index */
+  void remove(K key) {
+    stale.remove(key);
+    Entry<K> e = entries.remove(key);
+    if (e != null) {
+      // any Wake in the queue is now orphaned and will be ignored
+      e.wake = null;
+      if (e.slot >= 0) {
+	deactivate(e);
+      }
+    }
+  }
+
+  /** Mark the item as needing its entry recomputed.  It remains
+   * selectable with its current weight until then. */
+  void invalidate(K key) {
+    stale.add(key);
+  }
+
+  /** Remove all items */
+  void clear() {
+    entries.clear();
+    wakeQueue.clear();
+    stale.clear();
+    allocate(INITIAL_CAPACITY);
+  }
+
+  boolean contains(K key) {
+    return entries.containsKey(key);
+  }
+
+  /** Return true if the item has an entry that's neither dormant nor
+   * awaiting recomputation */
+  boolean isCurrent(K key) {
+    Entry<K> e = entries.get(key);
+    return e != null && !e.dormant && !stale.contains(key);
+  }
+
+  /** Return the number of items in the index */
+  int size() {
+    return entries.size();
+  }
+
+  /** Return the number of items currently selectable */
+  int activeCount() {
+    return nActive;
+  }
+
+  /** Process wakeups due by now, then return and forget the items whose
+   * entries need to be recomputed. */
+  List<K> takeStale(long now) {
+    advance(now);
+    List<K> res = new ArrayList<K>(stale);
+    stale.clear();
+    return res;
+  }
+
+  /** Return the item's weight at time now */
+  double weight(K key, long now) {
+    Entry<K> e = entries.get(key);
+    if (e == null || (e.slot < 0 && !e.excluded)) {
+      return 0.0;
+    }
+    return Math.max(0.0, (now - e.lastEnd) * e.slope);
+  }
+
+  /** Return the sum of the weights of the selectable items at time now */
+  double totalWeight(long now) {
+    advance(now);
+    return treeWeight(nextSlot, now - origin);
+  }
+
+  /**
+   * Select up to n distinct items, each chosen with probability
+   * proportional to its weight among those not yet chosen or rejected.
+   * This is the same distribution as {@link
+   * CollectionUtil#weightedRandomSelection(Map, int)}.
+   * @param n max number of items to select
+   * @param now the time at which to evaluate weights
+   * @param selector validates each chosen item
+   * @return the selected items, in the order chosen
+   */
+  List<K> select(int n, long now, Selector<K> selector) {
+    advance(now);
+    List<K> res = new ArrayList<K>(n);
+    List<Entry<K>> excluded = new ArrayList<Entry<K>>();
+    Set<K> retried = new HashSet<K>();
+    long x = now - origin;
+    try {
+      while (res.size() < n && nActive > 0) {
+	double total = treeWeight(nextSlot, x);
+	if (!(total > 0.0)) {
+	  break;
+	}
+	Entry<K> e = find(random.nextDouble() * total, x);
+	if (e == null) {
+	  break;
+	}
+	K key = e.key;
+	Check chk = selector.check(key, Math.max(0.0, (now - e.lastEnd) * e.slope));
+	if (chk == Check.Retry && !retried.add(key)) {
+	  // Don't let an unstable weight loop forever
+	  chk = Check.Reject;
+	}
+	switch (chk) {
+	case Accept:
+	  res.add(key);
+	  exclude(key, excluded);
+	  break;
+	case Reject:
+	  exclude(key, excluded);
+	  break;
+	case Retry:
+	  // Entries may have been replaced or woken; process due wakeups
+	  advance(now);
+	  break;
+	}
+      }
+    } finally {
+      for (Entry<K> e : excluded) {
+	e.excluded = false;
+	if (entries.get(e.key) == e) {
+	  activate(e);
+	}
+      }
+    }
+    return res;
+  }
+
+  /** Exclude whichever entry is now current for the key, if it's
+   * selectable, for the rest of a select() */
+  private void exclude(K key, List<Entry<K>> excluded) {
+    Entry<K> cur = entries.get(key);
+    if (cur != null && cur.slot >= 0) {
+      deactivate(cur);
+      cur.excluded = true;
+      excluded.add(cur);
+    }
+  }
+
+  /** Move entries whose wake time has passed to the active tree (if
+   * ready) or the stale set (if dormant). */
+  void advance(long now) {
+    Wake<K> w;
+    while ((w = wakeQueue.peek()) != null && w.time <= now) {
+      wakeQueue.poll();
+      Entry<K> e = w.entry;
+      if (e.wake != w || entries.get(e.key) != e) {
+	// orphaned
+	continue;
+      }
+      e.wake = null;
+      if (e.dormant) {
+	stale.add(e.key);
+      } else {
+	activate(e);
+      }
+    }
+  }
+
+  void setRandom(LockssRandom random) {
+    this.random = random;
+  }
+
+  private void enqueue(Entry<K> e, long time) {
+    Wake<K> w = new Wake<K>(e, time);
+    e.wake = w;
+    wakeQueue.add(w);
+  }
+
+  private void activate(Entry<K> e) {
+    if (e.slot >= 0) {
+      return;
+    }
+    int slot;
+    if (nFree > 0) {
+      slot = freeSlots[--nFree];
+    } else {
+      if (nextSlot == slots.length) {
+	grow();
+      }
+      slot = nextSlot++;
+    }
+    e.slot = slot;
+    slots[slot] = e;
+    nActive++;
+    treeAdd(slot, e.slope, e.slope * (e.lastEnd - origin));
+  }
+
+  private void deactivate(Entry<K> e) {
+    int slot = e.slot;
+    treeAdd(slot, -e.slope, -e.slope * (e.lastEnd - origin));
+    slots[slot] = null;
+    freeSlots[nFree++] = slot;
+    e.slot = -1;
+    nActive--;
+  }
+
+  private void allocate(int cap) {
+    treeSlope = new double[cap + 1];
+    treeOffset = new double[cap + 1];
+    @SuppressWarnings("unchecked")
+    Entry<K>[] newSlots = (Entry<K>[])new Entry<?>[cap];
+    slots = newSlots;
+    freeSlots = new int[cap];
+    nextSlot = 0;
+    nFree = 0;
+    nActive = 0;
+  }
+
+  /** Double the capacity, rebuilding the tree from the active entries.
+   * Also discards accumulated rounding error. */
+  private void grow() {
+    Entry<K>[] old = slots;
+    int oldNext = nextSlot;
+    allocate(old.length * 2);
+    for (int ix = 0; ix < oldNext; ix++) {
+      Entry<K> e = old[ix];
+      if (e != null) {
+	e.slot = -1;
+	activate(e);
+      }
+    }
+  }
+
+  private void treeAdd(int slot, double slope, double offset) {
+    for (int i = slot + 1; i < treeSlope.length; i += i & -i) {
+      treeSlope[i] += slope;
+      treeOffset[i] += offset;
+    }
+  }
+
+  /** Sum of the weights in slots [0, n) at x ms past the origin */
+  private double treeWeight(int n, long x) {
+    double slope = 0.0;
+    double offset = 0.0;
+    for (int i = n; i > 0; i -= i & -i) {
+      slope += treeSlope[i];
+      offset += treeOffset[i];
+    }
+    return x * slope - offset;
+  }
+
+  /** Find the entry whose weight range contains target */
+  private Entry<K> find(double target, long x) {
+    int cap = slots.length;
+    int pos = 0;
+    for (int step = Integer.highestOneBit(cap); step > 0; step >>= 1) {
+      int next = pos + step;
+      if (next <= cap) {
+	double w = x * treeSlope[next] - treeOffset[next];
+	if (w <= target) {
+	  pos = next;
+	  target -= w;
+	}
+      }
+    }
+    // pos is the number of slots whose cumulative weight is <= target,
+    // so the chosen slot is pos.  Rounding may land on an empty slot or
+    // off the end; use the nearest active one.
+    for (int ix = Math.min(pos, nextSlot - 1); ix >= 0; ix--) {
+      if (slots[ix] != null) {
+	return slots[ix];
+      }
+    }
+    for (int ix = pos + 1; ix < nextSlot; ix++) {
+      if (slots[ix] != null) {
+	return slots[ix];
+      }
+    }
+    return null;
+  }
+
+  static class Entry<K> {
+    final K key;
+    long lastEnd;
+    double slope;
+    boolean dormant;
+    boolean excluded;
+    int slot = -1;
+    Wake<K> wake;
+
+    Entry(K key) {
+      this.key = key;
+    }
+  }
+
+  static class Wake<K> implements Comparable<Wake<K>> {
+    final Entry<K> entry;
+    final long time;
+
+    Wake(Entry<K> entry, long time) {
+      this.entry = entry;
+      this.time = time;
+    }
+
+    public int compareTo(Wake<K> other) {
+      return Long.compare(time, other.time);
+    }
+  }
+}
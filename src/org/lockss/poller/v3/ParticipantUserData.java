@@ -518,6 +518,7 @@ public class ParticipantUserData implements LockssSerializable {
   private long bytesRead;
   /** The poll NAK code, if any */
   private PollNak pollNak;
+  private int peerVoteBlockEncoding = VoteBlock.ENCODING_PROPS;
 
   /** Transient non-serialized fields */
   private transient V3Poller poller;
@@ -729,6 +730,15 @@ public class ParticipantUserData implements LockssSerializable {
     return voteBlocks;
   }
 
+  /** Set the highest vote block encoding the voter accepts */
+  public void setPeerVoteBlockEncoding(int encoding) {
+    peerVoteBlockEncoding = encoding;
+  }
+
+  public int getPeerVoteBlockEncoding() {
+    return peerVoteBlockEncoding;
+  }
+
   public void setSymmetricVoteBlocks(VoteBlocks blocks) {
     symmetricVoteBlocks = blocks;
   }
@@ -914,12 +924,15 @@ public class ParticipantUserData implements LockssSerializable {
    * Implementation of V3LcapMessage.Factory
    */
   public V3LcapMessage makeMessage(int opcode) {
-    return new V3LcapMessage(getAuId(), getKey(), getPluginVersion(),
-                             getPollerNonce(), getVoterNonce(), getVoterNonce2(),
-			     opcode,
-			     poller.getSampleModulus(), poller.getSampleNonce(),
-                             getDeadline(), getPollerId(), messageDir,
-                             poller.getLockssDaemon());
+    V3LcapMessage msg =
+      new V3LcapMessage(getAuId(), getKey(), getPluginVersion(),
+			getPollerNonce(), getVoterNonce(), getVoterNonce2(),
+			opcode,
+			poller.getSampleModulus(), poller.getSampleNonce(),
+			getDeadline(), getPollerId(), messageDir,
+			poller.getLockssDaemon());
+    msg.setPeerVoteBlockEncoding(peerVoteBlockEncoding);
+    return msg;
   }
   
   /**
@@ -115,6 +115,7 @@ public class PollerActions {
     V3LcapMessage msg = (V3LcapMessage) evt.getMessage();
     log.debug2("Received poll ACK from voter " + ud.getVoterId() + " in poll "
                + ud.getKey());
+    ud.setPeerVoteBlockEncoding(msg.getPeerVoteBlockEncoding());
     // XXX: If either of these is null, the voter is declining to
     // participate in the poll.  But effort is not implemented yet,
     // so for now we're just checking the voter nonce.
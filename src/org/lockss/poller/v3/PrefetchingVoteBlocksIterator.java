@@ -0,0 +1,222 @@
+/*
+
+Copyright (c) 2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+
+package org.lockss.poller.v3;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.lockss.protocol.VoteBlock;
+import org.lockss.protocol.VoteBlocksIterator;
+import org.lockss.util.*;
+
+/**
+ * A {@link VoteBlocksIterator} which reads and decodes the blocks of
+ * another iterator ahead of the consumer, in tasks run by an {@link
+ * Executor}, into a bounded buffer.  The fill task never waits for
+ * the consumer: it exits when the buffer is full, and is resubmitted
+ * when the consumer has drained the buffer to half full.  Blocks, the
+ * end of the iteration, and any exception thrown by the wrapped
+ * iterator are delivered to the consumer in the order they occurred.
+ */
+final class PrefetchingVoteBlocksIterator implements VoteBlocksIterator {
+  private static Logger log =
+    Logger.getLogger(PrefetchingVoteBlocksIterator.class);
+
+  // Marks the end of the wrapped iteration in the buffer
+  private static final Object END = new Object();
+
+  private final VoteBlocksIterator iter;
+  private final Executor executor;
+  private final int capacity;
+  // VoteBlock, END or Throwable, in the order read
+  private final ArrayDeque<Object> buffer;
+  // True while a fill task is queued or running
+  private boolean filling = false;
+  // True once END or a Throwable has been added to the buffer
+  private boolean done = false;
+  private boolean released = false;
+
+  private final Runnable filler = new Runnable() {
+      public void run() {
+	fill();
+      }
+    };
+
+  /**
+   * @param iter The iterator to read ahead of.
+   * @param executor Runs the fill tasks.
+   * @param capacity The maximum number of blocks to buffer.
+   */
+  PrefetchingVoteBlocksIterator(VoteBlocksIterator iter, Executor executor,
+				int capacity) {
+    if (iter == null) {
+      throw new IllegalArgumentException("wrapped iterator must be non-null");
+    }
+    this.iter = iter;
+    this.executor = executor;
+    this.capacity = Math.max(1, capacity);
+    this.buffer = new ArrayDeque<Object>(this.capacity + 1);
+  }
+
+  /** Start reading ahead, without waiting for the first request. */
+  synchronized void start() {
+    maybeFill();
+  }
+
+  // Submit a fill task if none is pending and the buffer is at most
+  // half full.
+  private void maybeFill() {
+    if (filling || done || released || buffer.size() > capacity / 2) {
+      return;
+    }
+    filling = true;
+    try {
+      executor.execute(filler);
+    } catch (RejectedExecutionException e) {
+      log.warning("Prefetch rejected, reading inline", e);
+      fill();
+    }
+  }
+
+  // Read from the wrapped iterator until the buffer is full, the
+  // iteration ends or throws, or this iterator is released.
+  private void fill() {
+    try {
+      while (true) {
+	synchronized (this) {
+	  if (released || buffer.size() >= capacity) {
+	    return;
+	  }
+	}
+	Object item;
+	try {
+	  item = iter.hasNext() ? iter.next() : END;
+	} catch (Throwable t) {
+	  item = t;
+	}
+	synchronized (this) {
+	  if (released) {
+	    return;
+	  }
+	  buffer.addLast(item);
+	  notifyAll();
+	  if (!(item instanceof VoteBlock)) {
+	    done = true;
+	    return;
+	  }
+	}
+      }
+    } finally {
+      synchronized (this) {
+	filling = false;
+	notifyAll();
+      }
+    }
+  }
+
+  // Wait for, and return without consuming, the first item in the
+  // buffer.
+  private synchronized Object peekItem() throws IOException {
+    while (buffer.isEmpty()) {
+      if (released) {
+	return END;
+      }
+      maybeFill();
+      if (buffer.isEmpty()) {
+	try {
+	  wait();
+	} catch (InterruptedException e) {
+	  throw new RuntimeInterruptedException(e);
+	}
+      }
+    }
+    Object item = buffer.peekFirst();
+    if (item instanceof Throwable) {
+      throwItem((Throwable)item);
+    }
+    return item;
+  }
+
+  private static void throwItem(Throwable t) throws IOException {
+    if (t instanceof IOException) {
+      throw (IOException)t;
+    }
+    if (t instanceof RuntimeException) {
+      throw (RuntimeException)t;
+    }
+    if (t instanceof Error) {
+      throw (Error)t;
+    }
+    throw new RuntimeException(t);
+  }
+
+  @Override public boolean hasNext() throws IOException {
+    return peekItem() != END;
+  }
+
+  @Override public VoteBlock peek() throws IOException {
+    Object item = peekItem();
+    return item == END ? null : (VoteBlock)item;
+  }
+
+  @Override public synchronized VoteBlock next() throws IOException {
+    Object item = peekItem();
+    if (item == END) {
+      throw new NoSuchElementException();
+    }
+    buffer.removeFirst();
+    maybeFill();
+    return (VoteBlock)item;
+  }
+
+  /** Stop reading ahead, wait for any running fill task to notice,
+   * and release the wrapped iterator. */
+  @Override public void release() {
+    synchronized (this) {
+      released = true;
+      buffer.clear();
+      while (filling) {
+	try {
+	  wait();
+	} catch (InterruptedException e) {
+	  Thread.currentThread().interrupt();
+	  break;
+	}
+      }
+    }
+    iter.release();
+  }
+
+  /** For testing */
+  synchronized int getBufferedCount() {
+    return buffer.size();
+  }
+}
@@ -165,6 +165,8 @@ public class RecalcHashTime {
 				long estDuration) {
       super(cus, digests, initByteArrays, new RecalcHashEventHandler());
       this.estDuration = estDuration;
+      // measuring the actual hash time
+      setUseHashCache(false);
     }
 
     private String ts = null;
@@ -35,7 +35,9 @@ package org.lockss.poller.v3;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.*;
 
+import org.lockss.config.*;
 import org.lockss.daemon.ShouldNotHappenException;
 import org.lockss.protocol.PeerIdentity;
 import org.lockss.protocol.VoteBlock;
@@ -53,6 +55,44 @@ import org.lockss.util.*;
 final class UrlTallier {
   private static Logger log = Logger.getLogger(UrlTallier.class);
 
+  static final String PREFIX = Configuration.PREFIX + "poll.v3.";
+
+  /** If greater than one, each participant's vote blocks are read and
+   * decoded ahead of the tally by a pool of this many threads, and the
+   * comparisons of participants' vote blocks with the poller's hashes
+   * are spread across the pool.  Zero or one means all tallying is
+   * done sequentially on the hash thread. */
+  public static final String PARAM_TALLY_THREADS =
+    PREFIX + "tallyThreads";
+  public static final int DEFAULT_TALLY_THREADS = 0;
+
+  /** Maximum number of vote blocks read ahead for each participant */
+  public static final String PARAM_TALLY_PREFETCH_BLOCKS =
+    PREFIX + "tallyPrefetchBlocks";
+  public static final int DEFAULT_TALLY_PREFETCH_BLOCKS = 64;
+
+  /** Comparisons are done in parallel only if the poll has at least
+   * this many participants */
+  public static final String PARAM_TALLY_PARALLEL_MIN_PARTICIPANTS =
+    PREFIX + "tallyParallelMinParticipants";
+  public static final int DEFAULT_TALLY_PARALLEL_MIN_PARTICIPANTS = 8;
+
+  /** The comparisons for a URL are done in parallel only if the
+   * participants' vote blocks for it have at least this many versions in
+   * all.  Below that, handing the work to the pool costs more than it
+   * saves. */
+  public static final String PARAM_TALLY_PARALLEL_MIN_VERSIONS =
+    PREFIX + "tallyParallelMinVersions";
+  public static final int DEFAULT_TALLY_PARALLEL_MIN_VERSIONS = 1024;
+
+  /** Duration after which idle tally threads will be terminated */
+  public static final String PARAM_TALLY_KEEPALIVE =
+    PREFIX + "tallyKeepAlive";
+  public static final long DEFAULT_TALLY_KEEPALIVE = Constants.MINUTE;
+
+  // Shared by all UrlTalliers
+  private static ThreadPoolExecutor TALLY_EXECUTOR;
+
   // Note: Use of the ParticipantUserData here ties this class to
   // V3Poller pretty tightly.
 
@@ -94,6 +134,16 @@ final class UrlTallier {
    * participants.
    */
   private final VoteBlocksCoordinator coordinator;
+  /** Runs the prefetch and compare tasks; null if tallying is
+   * sequential. */
+  private final ThreadPoolExecutor executor;
+  private final int prefetchBlocks;
+  /** The number of slices participants' comparisons are divided
+   * into; 1 means compare on the calling thread. */
+  private final int compareSlices;
+  /** Min total versions for a URL's comparisons to be done in
+   * parallel */
+  private final int parallelMinVersions;
 
   // package level for unit testing of this function.
   static final VoteBlocksIterator 
@@ -125,12 +175,21 @@ final class UrlTallier {
    * @param participants An ordered List of voters.
    * @return An ordered List of {@link VoteBlocksIterator}s.
    */
-  private static final List<VoteBlocksIterator>
+  private final List<VoteBlocksIterator>
     getIterators(List<ParticipantUserData> participants) {
     List<VoteBlocksIterator> iterators = new ArrayList<VoteBlocksIterator>();
 
     for (ParticipantUserData participant : participants) {
-      iterators.add(getIterator(participant));
+      VoteBlocksIterator iter = getIterator(participant);
+      if (iter != null && executor != null) {
+	PrefetchingVoteBlocksIterator prefetcher =
+	  new PrefetchingVoteBlocksIterator(iter, executor, prefetchBlocks);
+	// Start all participants reading before the coordinator waits
+	// for the first one.
+	prefetcher.start();
+	iter = prefetcher;
+      }
+      iterators.add(iter);
     }
     return iterators;
   }
@@ -147,6 +206,28 @@ final class UrlTallier {
     // the indexes in participants.
     this.participants = 
       Collections.unmodifiableList(new ArrayList(participants));
+    Configuration config = ConfigManager.getCurrentConfig();
+    int tallyThreads = config.getInt(PARAM_TALLY_THREADS,
+				     DEFAULT_TALLY_THREADS);
+    if (tallyThreads > 1) {
+      this.executor = getTallyExecutor(tallyThreads);
+      this.prefetchBlocks = config.getInt(PARAM_TALLY_PREFETCH_BLOCKS,
+					  DEFAULT_TALLY_PREFETCH_BLOCKS);
+      int minParticipants =
+	config.getInt(PARAM_TALLY_PARALLEL_MIN_PARTICIPANTS,
+		      DEFAULT_TALLY_PARALLEL_MIN_PARTICIPANTS);
+      this.compareSlices =
+	this.participants.size() >= minParticipants
+	? Math.min(tallyThreads, this.participants.size()) : 1;
+      this.parallelMinVersions =
+	config.getInt(PARAM_TALLY_PARALLEL_MIN_VERSIONS,
+		      DEFAULT_TALLY_PARALLEL_MIN_VERSIONS);
+    } else {
+      this.executor = null;
+      this.prefetchBlocks = 0;
+      this.compareSlices = 1;
+      this.parallelMinVersions = 0;
+    }
     this.coordinator = 
       new VoteBlocksCoordinator(getIterators(this.participants));
   }
@@ -194,6 +275,13 @@ final class UrlTallier {
 				  VoteCallback voteCallback) {
     // Check with the coordinator before voting anyone.
     coordinator.checkUrl(url);
+    if (compareSlices > 1 && voteCallback instanceof VoteBlockTallier) {
+      VoteBlockTallier tallier = (VoteBlockTallier)voteCallback;
+      if (tallier.isPrecomparable()) {
+	voteAllParticipantsParallel(url, tallier);
+	return;
+      }
+    }
     int i = 0;
     for (ParticipantUserData participant: participants) {
       if (coordinator.isSpoiled(i)) {
@@ -210,6 +298,82 @@ final class UrlTallier {
     }
   }
 
+  /** Collect the participants' vote blocks from the coordinator and, if
+   * they have enough versions to be worth it, have the tallier compare
+   * them with the poller's hashes in parallel.  Then cast the votes in
+   * participant order on this thread, so the tallies are the same as if
+   * everything had been done sequentially. */
+  private void voteAllParticipantsParallel(String url,
+					   VoteBlockTallier tallier) {
+    int n = participants.size();
+    boolean[] spoiled = new boolean[n];
+    VoteBlock[] voteBlocks = new VoteBlock[n];
+    int versions = 0;
+    for (int i = 0; i < n; i++) {
+      spoiled[i] = coordinator.isSpoiled(i);
+      if (!spoiled[i]) {
+	voteBlocks[i] = coordinator.getVoteBlock(url, i);
+	if (voteBlocks[i] != null) {
+	  versions += voteBlocks[i].size();
+	}
+      }
+    }
+    if (versions >= parallelMinVersions) {
+      precompare(executor, compareSlices, tallier, voteBlocks);
+    }
+    int i = 0;
+    for (ParticipantUserData participant: participants) {
+      if (spoiled[i]) {
+	tallier.voteSpoiled(participant, url);
+      } else if (voteBlocks[i] == null) {
+	tallier.voteMissing(participant, url);
+      } else {
+	tallier.vote(voteBlocks[i], participant, i);
+      }
+      i++;
+    }
+  }
+
+  /** Have the tallier compare the vote blocks with the poller's hashes
+   * in interleaved slices, all but the first of which are run in the
+   * pool, and wait for them all to finish. */
+  static void precompare(ExecutorService executor, int slices,
+			 final VoteBlockTallier tallier,
+			 final VoteBlock[] voteBlocks) {
+    tallier.startPrecompare(voteBlocks.length);
+    List<Future<?>> futures = new ArrayList<Future<?>>(slices - 1);
+    try {
+      for (int slice = 1; slice < slices; slice++) {
+	final int first = slice;
+	final int stride = slices;
+	futures.add(executor.submit(new Runnable() {
+	    public void run() {
+	      tallier.precompare(voteBlocks, first, stride);
+	    }}));
+      }
+      tallier.precompare(voteBlocks, 0, slices);
+      for (Future<?> fut : futures) {
+	fut.get();
+      }
+    } catch (InterruptedException e) {
+      throw new RuntimeInterruptedException(e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+	throw (RuntimeException)cause;
+      }
+      if (cause instanceof Error) {
+	throw (Error)cause;
+      }
+      throw new RuntimeException(cause);
+    } finally {
+      // Don't leave workers comparing after an error
+      for (Future<?> fut : futures) {
+	fut.cancel(true);
+      }
+    }
+  }
+
   /**
    * Skip over the given URL.
    * @param url the URL in question
@@ -220,4 +384,36 @@ final class UrlTallier {
   public void voteNoParticipants(String url) {
     voteAllParticipants(url, NULL_CALLBACK);
   }
+
+  /** Return the pool which reads ahead and compares vote blocks,
+   * creating it or adjusting its size if necessary. */
+  static synchronized ThreadPoolExecutor getTallyExecutor(int poolsize) {
+    if (TALLY_EXECUTOR == null) {
+      Configuration config = ConfigManager.getCurrentConfig();
+      long keepalive = config.getTimeInterval(PARAM_TALLY_KEEPALIVE,
+					      DEFAULT_TALLY_KEEPALIVE);
+      TALLY_EXECUTOR =
+	new ThreadPoolExecutor(poolsize, poolsize,
+			       keepalive, TimeUnit.MILLISECONDS,
+			       new LinkedBlockingQueue<Runnable>(),
+			       new ThreadFactory() {
+				 private int cnt = 0;
+				 public synchronized Thread newThread(Runnable r) {
+				   Thread th = new Thread(r, "TallyWorker-" +
+							  ++cnt);
+				   th.setDaemon(true);
+				   return th;
+				 }});
+      TALLY_EXECUTOR.allowCoreThreadTimeOut(true);
+    } else if (TALLY_EXECUTOR.getMaximumPoolSize() != poolsize) {
+      if (poolsize > TALLY_EXECUTOR.getMaximumPoolSize()) {
+	TALLY_EXECUTOR.setMaximumPoolSize(poolsize);
+	TALLY_EXECUTOR.setCorePoolSize(poolsize);
+      } else {
+	TALLY_EXECUTOR.setCorePoolSize(poolsize);
+	TALLY_EXECUTOR.setMaximumPoolSize(poolsize);
+      }
+    }
+    return TALLY_EXECUTOR;
+  }
 }
@@ -1143,6 +1143,7 @@ public class V3Poller extends BasePoll {
     int agreePeers = 0;
 
     auState.pollFinished(status, getPollVariant());
+    pollManager.auPollStateChanged(getAu());
 
     raisePollEndAlert();
 
@@ -83,6 +83,13 @@ public class VoteBlockTallier implements UrlTallier.VoteCallback {
   // bi-modal, and a Builder/Tallier split would be an improvement for
   // other reasons as well.
   private boolean votingStarted = false;
+  // Results of comparisons done ahead of vote(), indexed by
+  // participant: PRECOMPARE_NONE if not yet compared.
+  private byte[] precompared;
+
+  private static final byte PRECOMPARE_NONE = 0;
+  private static final byte PRECOMPARE_AGREED = 1;
+  private static final byte PRECOMPARE_DISAGREED = 2;
 
   private static final Logger log = Logger.getLogger("VoteBlockTallier");
 
@@ -179,6 +186,52 @@ public class VoteBlockTallier implements UrlTallier.VoteCallback {
     return comparerFactory != null;
   }
 
+  /**
+   * @return true if {@link #vote} compares vote blocks with the
+   * poller's hashes, so there's work {@link #precompare} can do.
+   */
+  boolean isPrecomparable() {
+    return pollerHas();
+  }
+
+  /**
+   * Prepare to record the results of {@link #precompare} for the
+   * given number of participants.
+   */
+  void startPrecompare(int nParticipants) {
+    precompared = new byte[nParticipants];
+  }
+
+  /**
+   * Compare the participants' vote blocks at indices {@code first},
+   * {@code first + stride}, ... with the poller's hashes, recording
+   * the results for use by a later call to {@link #vote}.  Calls with
+   * disjoint slices may run concurrently, as the comparisons only
+   * read the poller's hashes; no tally is informed until {@link
+   * #vote} is called.
+   * @param voteBlocks Vote blocks indexed by participant; null
+   * elements are skipped.
+   */
+  void precompare(VoteBlock[] voteBlocks, int first, int stride) {
+    for (int ix = first; ix < voteBlocks.length; ix += stride) {
+      if (voteBlocks[ix] != null) {
+	precompared[ix] = compare(voteBlocks[ix], ix)
+	  ? PRECOMPARE_AGREED : PRECOMPARE_DISAGREED;
+      }
+    }
+  }
+
+  private boolean compare(VoteBlock voteBlock, int participantIndex) {
+    if (precompared != null && participantIndex < precompared.length) {
+      switch (precompared[participantIndex]) {
+      case PRECOMPARE_AGREED: return true;
+      case PRECOMPARE_DISAGREED: return false;
+      }
+    }
+    VoteBlockComparer comparer = comparerFactory.forIndex(participantIndex);
+    return comparer.sharesVersion(voteBlock);
+  }
+
   /**
    * Vote using all the versions of the voter's VoteBlock.
    */
@@ -186,8 +239,7 @@ public class VoteBlockTallier implements UrlTallier.VoteCallback {
 		   int participantIndex) {
     votingStarted = true;
     if (pollerHas()) {
-      VoteBlockComparer comparer = comparerFactory.forIndex(participantIndex);
-      if (comparer.sharesVersion(voteBlock)) {
+      if (compare(voteBlock, participantIndex)) {
 	voteAgreed(id, voteBlock.getUrl());
       } else {
 	voteDisagreed(id, voteBlock.getUrl());
@@ -57,6 +57,7 @@ public class VoterActions {
     VoterUserData ud = getUserData(interp);
     ud.setDeadline(TimeBase.nowMs() + msg.getDuration());
     ud.setVoteDeadline(TimeBase.nowMs() + msg.getVoteDuration());
+    ud.setPeerVoteBlockEncoding(msg.getPeerVoteBlockEncoding());
     return V3Events.evtOk;
   }
 
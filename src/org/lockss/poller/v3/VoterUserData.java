@@ -93,6 +93,7 @@ public class VoterUserData
   private boolean hasReceivedSymmetricAgreement = false;
   private boolean hasReceivedSymmetricWeightedAgreement = false;
   private SubstanceChecker.State subCheckerState;
+  private int peerVoteBlockEncoding = VoteBlock.ENCODING_PROPS;
   /** @deprecated 
    * Left here only for deserialization compatibility */
   private String statusString;
@@ -329,6 +330,15 @@ public class VoterUserData
     this.voteBlocks = voteBlocks;
   }
 
+  /** Set the highest vote block encoding the poller accepts */
+  public void setPeerVoteBlockEncoding(int encoding) {
+    this.peerVoteBlockEncoding = encoding;
+  }
+
+  public int getPeerVoteBlockEncoding() {
+    return peerVoteBlockEncoding;
+  }
+
   public VoteBlocks getSymmetricVoteBlocks() {
     return symmetricVoteBlocks;
   }
@@ -577,11 +587,14 @@ public class VoterUserData
    * Implementation of V3LcapMessage.Factory
    */
   public V3LcapMessage makeMessage(int opcode) {
-    return new V3LcapMessage(getAuId(), getPollKey(), getPluginVersion(),
-                             getPollerNonce(), getVoterNonce(), getVoterNonce2(),
-			     opcode, getModulus(), getSampleNonce(),
-                             getDeadline(), getMyId(), messageDir,
-                             voter.getLockssDaemon());
+    V3LcapMessage msg =
+      new V3LcapMessage(getAuId(), getPollKey(), getPluginVersion(),
+			getPollerNonce(), getVoterNonce(), getVoterNonce2(),
+			opcode, getModulus(), getSampleNonce(),
+			getDeadline(), getMyId(), messageDir,
+			voter.getLockssDaemon());
+    msg.setPeerVoteBlockEncoding(peerVoteBlockEncoding);
+    return msg;
   }
 
   public V3LcapMessage makeMessage(int opcode, long sizeEst) {
@@ -67,9 +67,13 @@ public class AuAgreements implements LockssSerializable {
 
   // A quick lookup to avoid traversing list.
   private transient Map<PeerIdentity, PeerAgreements> map;
+  // Ids of the peers whose agreements have changed since they were
+  // last stored, so the agreement journal need only append those.
+  private transient Set<String> changedIds;
 
   private AuAgreements() {
     this.map = new HashMap();
+    this.changedIds = new HashSet<String>();
   }
 
   /**
@@ -125,6 +129,7 @@ public class AuAgreements implements LockssSerializable {
     try {
       updateListFromMap();
       hRep.storeIdentityAgreements(this);
+      changedIds.clear();
     } catch (LockssRepositoryException e) {
       ArchivalUnit au = hRep.loadAuState().getArchivalUnit();
       log.error("AuAgreements.store("+au+")", e);
@@ -150,6 +155,7 @@ public class AuAgreements implements LockssSerializable {
 					 rawAgreements.getClass().getName());
     }
     updateMapFromList(idMgr);
+    changedIds.clear();
   }
 
   // Create when the history has nothing
@@ -200,6 +206,40 @@ public class AuAgreements implements LockssSerializable {
   }
 
 
+  /**
+   * Encode the agreements with each peer as a record for the binary
+   * agreement journal, keyed by the peer's id.
+   * @param changedOnly If true, include only the peers whose
+   * agreements have changed since they were last stored.
+   */
+  public synchronized Map<String, byte[]> encodeRecords(boolean changedOnly)
+      throws IOException {
+    Map<String, byte[]> res = new LinkedHashMap<String, byte[]>();
+    for (PeerAgreements peerAgreements : map.values()) {
+      String id = peerAgreements.getId();
+      if (!changedOnly || changedIds.contains(id)) {
+	res.put(id, peerAgreements.encode());
+      }
+    }
+    return res;
+  }
+
+  /**
+   * Make an instance from the records of the binary agreement
+   * journal.  The result is suitable for returning from {@link
+   * HistoryRepository#loadIdentityAgreements}.
+   */
+  public static AuAgreements decodeRecords(Map<String, byte[]> records)
+      throws IOException {
+    AuAgreements auAgreements = new AuAgreements();
+    auAgreements.list = new ArrayList<PeerAgreements>(records.size());
+    for (Map.Entry<String, byte[]> ent : records.entrySet()) {
+      auAgreements.list.add(PeerAgreements.decode(ent.getKey(),
+						  ent.getValue()));
+    }
+    return auAgreements;
+  }
+
   private void updateListFromMap() {
     list = makeList(map);
   }
@@ -343,6 +383,7 @@ public class AuAgreements implements LockssSerializable {
     if (peerAgreements == null) {
       peerAgreements = new PeerAgreements(pid);
       map.put(pid, peerAgreements);
+      changedIds.add(peerAgreements.getId());
     }
     return peerAgreements;
   }
@@ -390,6 +431,7 @@ public class AuAgreements implements LockssSerializable {
 						  float percent, long time) {
     PeerAgreements peerAgreements = findPeerAgreements(pid);
     peerAgreements.signalAgreement(type, percent, time);
+    changedIds.add(peerAgreements.getId());
   }
 
   /**
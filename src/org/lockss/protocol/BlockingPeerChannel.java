@@ -66,28 +66,29 @@ class BlockingPeerChannel implements PeerChannel {
   }
 
   private ChannelState state = ChannelState.INIT;
-  private Object stateLock = new Object();
+  // The fields below that aren't private are also used by NioPeerChannel
+  Object stateLock = new Object();
   private long lastStateChange = -1;
   private ChannelState prevState = ChannelState.NONE;
-  private boolean isOriginate = false;
+  boolean isOriginate = false;
 
-  volatile private PeerIdentity peer = null;
-  volatile private PeerAddress pad;
-  private PeerIdentity localPeer;
+  volatile PeerIdentity peer = null;
+  volatile PeerAddress pad;
+  PeerIdentity localPeer;
   private BlockingStreamComm scomm;
-  private Socket sock;
+  Socket sock;
   private Queue rcvQueue;
-  private Queue sendQueue;
+  Queue sendQueue;
   private InputStream ins;
   private OutputStream outs;
   private OutputStream socket_outs;
   private int sendCnt = 0;
-  private boolean didOpen = false;
-  private Throwable connectException;
+  boolean didOpen = false;
+  Throwable connectException;
 
-  volatile private long lastSendTime = 0;
-  volatile private long lastRcvTime = 0;
-  volatile private long lastActiveTime = 0;
+  volatile long lastSendTime = 0;
+  volatile long lastRcvTime = 0;
+  volatile long lastActiveTime = 0;
 
   volatile private ChannelReader reader;
   volatile private ChannelRunner writer;
@@ -98,9 +99,9 @@ class BlockingPeerChannel implements PeerChannel {
   private ChannelRunner wtWriter;
   private ChannelRunner wtConnecter;
 
-  private byte[] rcvHeader = new byte[HEADER_LEN];
+  byte[] rcvHeader = new byte[HEADER_LEN];
   private byte[] sndHeader = new byte[HEADER_LEN];
-  private byte[] peerbuf = new byte[MAX_PEERID_LEN];
+  byte[] peerbuf = new byte[MAX_PEERID_LEN];
 
   private ChannelStats stats = new ChannelStats();
 
@@ -694,7 +695,13 @@ class BlockingPeerChannel implements PeerChannel {
       log.warning(msg);
       throw new ProtocolException(msg);
     }
-    String peerkey = new String(peerbuf, 0, plen);
+    processPeerId(new String(peerbuf, 0, plen));
+  }
+
+  /** Verify a received peer id, tell comm to associate us with it if not
+   * already.
+   */
+  void processPeerId(String peerkey) throws IOException {
     PeerIdentity pid = scomm.findPeerIdentity(peerkey);
     if (peer == null) {
       peer = pid;
@@ -745,26 +752,32 @@ class BlockingPeerChannel implements PeerChannel {
       copyBytes(ins, msgOut, len, stats.getInCount());
       logRate("Rcv", len, startTime);
       msgOut.close();
-      // update lastActiveTime *before* queuing message; produces more
-      // predictable behavior when running in simulated time in unit tests
-      lastRcvTime = lastActiveTime = TimeBase.nowMs();
-      RateLimiter limiter = scomm.getReceiveRateLimiter(peer);
-      if (limiter == null || limiter.isEventOk()) {
-	if (limiter != null) {
-	  limiter.event();
-	}
-	rcvQueue.put(msg);
-	countRcvdMsg();
-      } else {
-	scomm.rcvRateLimited(peer);
-	log.debug3("rcv rate limited");
-      }
+      deliverMsg(msg);
     } catch (IOException e) {
       msg.delete();
       throw e;
     }
   }
 
+  /** Queue a completely received message for processing, unless the
+   * peer's receive rate limit has been reached */
+  void deliverMsg(PeerMessage msg) {
+    // update lastActiveTime *before* queuing message; produces more
+    // predictable behavior when running in simulated time in unit tests
+    lastRcvTime = lastActiveTime = TimeBase.nowMs();
+    RateLimiter limiter = scomm.getReceiveRateLimiter(peer);
+    if (limiter == null || limiter.isEventOk()) {
+      if (limiter != null) {
+	limiter.event();
+      }
+      rcvQueue.put(msg);
+      countRcvdMsg();
+    } else {
+      scomm.rcvRateLimited(peer);
+      log.debug3("rcv rate limited");
+    }
+  }
+
   void countRcvdMsg() {
     stats.rcvdMsg();
     BlockingStreamComm.PeerData pd = scomm.getPeerData(peer);
@@ -841,7 +854,7 @@ class BlockingPeerChannel implements PeerChannel {
     return ByteArray.decodeByte(rcvHeader, HEADER_OFF_OP);
   }
 
-  private void logRate(String direction, long len, long startTime) {
+  void logRate(String direction, long len, long startTime) {
     if (startTime <= 0 || !log.isDebug()) {
       return;
     }
@@ -993,14 +1006,19 @@ class BlockingPeerChannel implements PeerChannel {
   /** send msg header
    */
   void writeHeader(int op, long len, int proto) throws IOException {
-    sndHeader[HEADER_OFF_CHECK] = HEADER_CHECK;
-    sndHeader[HEADER_OFF_OP] = (byte)op;
-    ByteArray.encodeLong(len, sndHeader, HEADER_OFF_LEN);
-    ByteArray.encodeInt(proto, sndHeader, HEADER_OFF_PROTO);
+    encodeHeader(sndHeader, op, len, proto);
     outs.write(sndHeader);
     stats.sentBytes(HEADER_LEN);
   }
 
+  /** Store a msg header in buf */
+  static void encodeHeader(byte[] buf, int op, long len, int proto) {
+    buf[HEADER_OFF_CHECK] = HEADER_CHECK;
+    buf[HEADER_OFF_OP] = (byte)op;
+    ByteArray.encodeLong(len, buf, HEADER_OFF_LEN);
+    ByteArray.encodeInt(proto, buf, HEADER_OFF_PROTO);
+  }
+
   /** Copy len bytes from input to output stream.
    * @return true if len bytes successfully copied
    * @throws ProtocolException if eof reached before len bytes
@@ -337,6 +337,7 @@ public class BlockingStreamComm
   private PooledExecutor pool;
   protected SSLSocketFactory sslSocketFactory = null;
   protected SSLServerSocketFactory sslServerSocketFactory = null;
+  protected SSLContext sslContext = null;
   private boolean paramDissociateOnNoSend = DEFAULT_DISSOCIATE_ON_NO_SEND;
   private boolean paramDissociateOnEveryStop =
     DEFAULT_DISSOCIATE_ON_EVERY_STOP;
@@ -663,7 +664,8 @@ public class BlockingStreamComm
       if (nPrimary < paramMaxChannels) {
 	try {
 	  BlockingPeerChannel chan =
-	    getSocketFactory().newPeerChannel(BlockingStreamComm.this, pid);
+	    getPeerChannelFactory().newPeerChannel(BlockingStreamComm.this,
+						       pid);
 	  if (log.isDebug2()) log.debug2("Created " + chan);
 	  try {
 	    handOffQueuedMsgs(chan);
@@ -1145,7 +1147,6 @@ public class BlockingStreamComm
     TrustManager[] tma = tmf.getTrustManagers();
 
     // Now create an SSLContext from the KeyManager
-    SSLContext sslContext = null;
     try {
       RandomManager rmgr = getDaemon().getRandomManager();
       SecureRandom rng = rmgr.getSecureRandom();
@@ -1236,10 +1237,38 @@ public class BlockingStreamComm
     return sockFact;
   }
 
+  /** Return the factory for peer channels; by default the socket
+   * factory */
+  PeerChannelFactory getPeerChannelFactory() {
+    return getSocketFactory();
+  }
+
   long getConnectTimeout() {
     return paramConnectTimeout;
   }
 
+  long getSslHandshakeTimeout() {
+    return paramSslHandshakeTimeout;
+  }
+
+  boolean isSsl() {
+    return paramUseV3OverSsl;
+  }
+
+  boolean isSslClientAuth() {
+    return paramSslClientAuth;
+  }
+
+  /** Return the address outgoing connections should be made from, or
+   * null */
+  String getSendFromAddr() {
+    return (sendFromBindAddr && bindAddr != null) ? bindAddr : null;
+  }
+
+  long getWaitExit() {
+    return paramWaitExit;
+  }
+
   long getSoTimeout() {
     return paramSoTimeout;
   }
@@ -1390,13 +1419,7 @@ public class BlockingStreamComm
   }
 
   void start() {
-    pool = new PooledExecutor(paramMaxPoolSize);
-    pool.setMinimumPoolSize(paramMinPoolSize);
-    pool.setKeepAliveTime(paramPoolKeepaliveTime);
-    log.debug2("Channel thread pool min, max: " +
-	      pool.getMinimumPoolSize() + ", " + pool.getMaximumPoolSize());
-    pool.abortWhenBlocked();
-
+    startChannelExecutor();
     rcvQueue = new FifoQueue();
     try {
       int port = myPeerAddr.getPort();
@@ -1409,8 +1432,7 @@ public class BlockingStreamComm
       } else {
 	log.debug("Listening on port " + port);
       }
-      listenSock =
-	getSocketFactory().newServerSocket(bindAddr, port, paramBacklog);
+      openListenSocket(bindAddr, port, paramBacklog);
     } catch (IOException e) {
       log.critical("Can't create listen socket", e);
       return;
@@ -1421,6 +1443,31 @@ public class BlockingStreamComm
     running = true;
   }
 
+  /** Start whatever runs the channels; here, the channel thread pool */
+  void startChannelExecutor() {
+    pool = new PooledExecutor(paramMaxPoolSize);
+    pool.setMinimumPoolSize(paramMinPoolSize);
+    pool.setKeepAliveTime(paramPoolKeepaliveTime);
+    log.debug2("Channel thread pool min, max: " +
+	      pool.getMinimumPoolSize() + ", " + pool.getMaximumPoolSize());
+    pool.abortWhenBlocked();
+  }
+
+  /** Stop whatever runs the channels */
+  void stopChannelExecutor() {
+    log.debug2("Shutting down pool");
+    if (pool != null) {
+      pool.shutdownNow();
+    }
+    log.debug2("pool shut down ");
+  }
+
+  /** Create the listen socket */
+  void openListenSocket(String bindAddr, int port, int backlog)
+      throws IOException {
+    listenSock = getSocketFactory().newServerSocket(bindAddr, port, backlog);
+  }
+
   protected boolean isRunning() {
     return running;
   }
@@ -1440,11 +1487,7 @@ public class BlockingStreamComm
       stopThread(rcvThread, timeout);
       rcvThread = null;
     }
-    log.debug2("Shutting down pool");
-    if (pool != null) {
-      pool.shutdownNow();
-    }
-    log.debug2("pool shut down ");
+    stopChannelExecutor();
   }
 
   List<PeerData> getAllPeerData() {
@@ -1518,7 +1561,8 @@ public class BlockingStreamComm
     log.debug2("Accepted connection from " +
 	       new IPAddr(sock.getInetAddress()));
     // SSL handshake now performed by channel
-    BlockingPeerChannel chan = getSocketFactory().newPeerChannel(this, sock);
+    BlockingPeerChannel chan =
+      getPeerChannelFactory().newPeerChannel(this, sock);
     chan.startIncoming();
   }
 
@@ -1803,6 +1847,20 @@ public class BlockingStreamComm
     sock.setEnabledProtocols(enaprotos.toArray(new String[0]));
   }
 
+  void disableSelectedProtocols(SSLEngine engine) {
+    List<String> disable = engine.getUseClientMode()
+      ? paramDisableSslClientProtocols : paramDisableSslServerProtocols;
+    if (disable == null) return;
+    Set<String> enaprotos = new HashSet<String>();
+    for (String s : engine.getEnabledProtocols()) {
+      if (disable.contains(s)) {
+	continue;
+      }
+      enaprotos.add(s);
+    }
+    engine.setEnabledProtocols(enaprotos.toArray(new String[0]));
+  }
+
   // Listen thread
   private class ListenThread extends CommThread {
     private volatile boolean goOn = true;
@@ -1943,10 +2001,24 @@ public class BlockingStreamComm
     }
   }
 
+  /** PeerChannelFactory creates the peer channels, for incoming and
+      outgoing connections */
+  interface PeerChannelFactory {
+    /** Overridable for testing */
+    BlockingPeerChannel newPeerChannel(BlockingStreamComm comm,
+				       Socket sock)
+	throws IOException;
+
+    /** Overridable for testing */
+    BlockingPeerChannel newPeerChannel(BlockingStreamComm comm,
+				       PeerIdentity peer)
+	throws IOException;
+  }
+
   /** SocketFactory interface allows encapsulation of socket type details
       (normal, SSL, etc.) and allows test code to use instrumented or mock
       sockets and peer channels */
-  interface SocketFactory {
+  interface SocketFactory extends PeerChannelFactory {
     /** Return a listen socket of the appropriate type */
     ServerSocket newServerSocket(String bindAddr, int port, int backlog)
 	throws IOException;
@@ -1954,16 +2026,6 @@ public class BlockingStreamComm
     /** Return a socket of the appropriate type connected to the remote
      * address, with its options set */
     Socket newSocket(IPAddr addr, int port) throws IOException;
-
-    /** Overridable for testing */
-    BlockingPeerChannel newPeerChannel(BlockingStreamComm comm,
-				       Socket sock)
-	throws IOException;
-
-    /** Overridable for testing */
-    BlockingPeerChannel newPeerChannel(BlockingStreamComm comm,
-				       PeerIdentity peer)
-	throws IOException;
   }
 
   /** Normal socket factory creates real TCP Sockets */
@@ -35,14 +35,24 @@ package org.lockss.protocol;
 import java.util.*;
 import java.io.*;
 import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+
+import org.apache.commons.io.input.BoundedInputStream;
 
 import org.lockss.app.LockssApp;
 import org.lockss.util.*;
 import org.lockss.config.*;
 
 /**
- * A VoteBlocks data structure backed by a disk file.  This implementation
- * is not thread-safe.
+ * A VoteBlocks data structure backed by a disk file.  Blocks are appended
+ * through a buffered writer that stays open until the blocks are next
+ * read.  Reads go through a memory-mapped view of the file, and an index
+ * of block URLs and offsets, built as blocks are appended (or by one scan
+ * of a file received from a peer), makes {@link #getVoteBlock(String)}
+ * a binary search.  Blocks received from a peer may be left in the
+ * message file in which they arrived, starting at an offset, rather
+ * than copied.  This implementation is not thread-safe.
  * 
  * @author sethm
  */
@@ -57,6 +67,27 @@ public class DiskVoteBlocks implements VoteBlocks {
   private String m_filePath;
   private transient File m_file;
   private int m_size = 0;
+  /** Encoding of the blocks in the file, one of VoteBlock.ENCODING_XXX */
+  private int m_encoding = VoteBlock.ENCODING_PROPS;
+  /** Position of the first block in the file, non-zero if the file is a
+   * link to a received message */
+  private long m_dataOffset = 0;
+
+  /** Open writer, if blocks are being appended */
+  private transient DataOutputStream m_out;
+  /** Length of the file including buffered output, valid while m_out is
+   * open */
+  private transient long m_length;
+  /** URL of the last block in the file, or null if there are no blocks
+   * or it isn't yet known */
+  private transient String m_lastUrl;
+  /** Read-only view of the file, mapped when it's first read after being
+   * written */
+  private transient MappedByteBuffer m_map;
+  /** Number of open streams reading from m_map */
+  private transient int m_mapUsers;
+  /** Restart points for URL lookup, or null if not yet built */
+  private transient UrlIndex m_index;
 
   /**
    * <p>
@@ -75,7 +106,23 @@ public class DiskVoteBlocks implements VoteBlocks {
    */
   public DiskVoteBlocks(int blocksToRead, InputStream from, File toDir)
       throws IOException {
-    this(toDir);
+    this(blocksToRead, from, toDir, VoteBlock.ENCODING_PROPS);
+  }
+
+  /**
+   * Decode a DiskVoteBlocks object from the supplied inputstream, in
+   * which the blocks are in the specified encoding.
+   *
+   * @param blocksToRead Number of blocks to read from the InputStream.
+   * @param from Input stream from which to read.
+   * @param toDir Directory to use as temporary storage.
+   * @param encoding One of VoteBlock.ENCODING_XXX
+   * @throws IOException
+   */
+  public DiskVoteBlocks(int blocksToRead, InputStream from, File toDir,
+			int encoding)
+      throws IOException {
+    this(toDir, encoding);
     
     OutputStream os = new BufferedOutputStream(new FileOutputStream(m_file));
     try {
@@ -87,6 +134,43 @@ public class DiskVoteBlocks implements VoteBlocks {
     } finally {
       IOUtil.safeClose(os);
     }
+    // Built by scanning the file the first time it's needed
+    m_index = null;
+  }
+
+  /**
+   * Return a DiskVoteBlocks backed by the blocks already in a received
+   * message file, from dataOffset to the end of the file.  A hard link to
+   * the message file is made in toDir, so the blocks aren't copied and
+   * remain when the message is deleted.
+   *
+   * @param blockCount Number of blocks in the file.
+   * @param msgFile The message file.
+   * @param dataOffset Position of the first block in msgFile.
+   * @param toDir Directory in which to create the link.
+   * @param encoding One of VoteBlock.ENCODING_XXX
+   * @return the DiskVoteBlocks, or null if the link can't be made
+   * (e.g., toDir is on a different filesystem)
+   */
+  public static DiskVoteBlocks fromMessageFile(int blockCount, File msgFile,
+					       long dataOffset, File toDir,
+					       int encoding)
+      throws IOException {
+    DiskVoteBlocks res = new DiskVoteBlocks(toDir, encoding);
+    // Reuse the unique name just created for the link
+    File link = res.m_file;
+    link.delete();
+    try {
+      Files.createLink(link.toPath(), msgFile.toPath());
+    } catch (IOException | UnsupportedOperationException e) {
+      log.debug2("Can't link " + link + " to " + msgFile + ": " + e);
+      return null;
+    }
+    res.m_dataOffset = dataOffset;
+    res.m_size = blockCount;
+    // Built by scanning the file the first time it's needed
+    res.m_index = null;
+    return res;
   }
 
   /**
@@ -97,8 +181,28 @@ public class DiskVoteBlocks implements VoteBlocks {
    * @throws IOException
    */
   public DiskVoteBlocks(File toDir) throws IOException {
+    this(toDir, V3LcapMessage.getSupportedVoteBlockEncoding());
+  }
+
+  /**
+   * Create a new VoteBlocks collection to be backed by a file in the
+   * supplied directory, in which blocks are stored in the specified
+   * encoding.
+   *
+   * @param toDir  Directory to use as temporary storage.
+   * @param encoding One of VoteBlock.ENCODING_XXX
+   * @throws IOException
+   */
+  public DiskVoteBlocks(File toDir, int encoding) throws IOException {
+    if (encoding < VoteBlock.ENCODING_PROPS
+	|| encoding > VoteBlock.MAX_ENCODING) {
+      throw new IllegalArgumentException("Unknown vote block encoding: " +
+					 encoding);
+    }
+    m_encoding = encoding;
     m_file = FileUtil.createTempFile("voteblocks-", ".bin", toDir);
     m_filePath = m_file.getAbsolutePath();
+    m_index = new UrlIndex();
   }
 
   /**
@@ -110,16 +214,182 @@ public class DiskVoteBlocks implements VoteBlocks {
 
   /* Inherit documentation */
   public synchronized void addVoteBlock(VoteBlock b) throws IOException {
-    // Append to the end of the file.
-    FileOutputStream fos = new FileOutputStream(m_file, true);
-    DataOutputStream dos = new DataOutputStream(fos);
+    // The block is delta-encoded against the last one in the file
+    String prevUrl = getLastUrl();
+    DataOutputStream out = openWriter();
+    int before = out.size();
+    writeVoteBlock(out, b, m_encoding, prevUrl);
+    if (m_index != null) {
+      m_index.add(b.getUrl(), m_length);
+    }
+    m_lastUrl = b.getUrl();
+    m_length += out.size() - before;
+    this.m_size++;
+  }
+
+  /** Return the URL of the last block, scanning the file to find it if
+   * the blocks weren't written by this instance. */
+  private String getLastUrl() throws IOException {
+    if (m_lastUrl == null && m_size > 0) {
+      m_lastUrl = ensureIndex().getLastUrl();
+    }
+    return m_lastUrl;
+  }
+
+  /** Return the encoding of the blocks in the backing file, one of
+   * VoteBlock.ENCODING_XXX */
+  public int getEncoding() {
+    return m_encoding;
+  }
+
+  /** Return the length of the blocks in the file */
+  private long dataLength() {
+    return m_file.length() - m_dataOffset;
+  }
+
+  private DataOutputStream openWriter() throws IOException {
+    if (m_out == null) {
+      if (m_dataOffset > 0) {
+	unlink();
+      }
+      // The file is about to grow; it's mapped again when next read
+      releaseMap();
+      m_length = dataLength();
+      FileOutputStream fos = new FileOutputStream(m_file, true);
+      m_out = new DataOutputStream(new BufferedOutputStream(fos));
+    }
+    return m_out;
+  }
+
+  /** Replace the link to a received message with a copy of just the
+   * blocks, so that appending doesn't modify the message */
+  private void unlink() throws IOException {
+    File copy = FileUtil.createTempFile("voteblocks-", ".bin",
+					m_file.getParentFile());
+    InputStream in = openInput(0);
+    OutputStream out = new BufferedOutputStream(new FileOutputStream(copy));
     try {
-      byte[] encodedBlock = b.getEncoded();
-      dos.writeShort(encodedBlock.length);
-      dos.write(encodedBlock);
-      this.m_size++;
+      StreamUtil.copy(in, out);
+      out.close();
+    } catch (IOException e) {
+      copy.delete();
+      throw e;
     } finally {
-      dos.close();
+      IOUtil.safeClose(in);
+      IOUtil.safeClose(out);
+    }
+    m_file.delete();
+    m_file = copy;
+    m_filePath = copy.getAbsolutePath();
+    m_dataOffset = 0;
+    releaseMap();
+  }
+
+  private void closeWriter() throws IOException {
+    if (m_out != null) {
+      DataOutputStream out = m_out;
+      m_out = null;
+      out.close();
+    }
+  }
+
+  /** Return an input stream on the blocks, starting at offset.  Reads
+   * from a memory-mapped view unless the file is too large to map.  The
+   * file is mapped once, after the writer is closed. */
+  synchronized InputStream openInput(long offset) throws IOException {
+    closeWriter();
+    long len = dataLength();
+    if (len > Integer.MAX_VALUE) {
+      FileInputStream fis = new FileInputStream(m_file);
+      fis.getChannel().position(m_dataOffset + offset);
+      return new BufferedInputStream(fis);
+    }
+    if (m_map == null) {
+      RandomAccessFile raf = new RandomAccessFile(m_file, "r");
+      try {
+	// The mapping remains valid after the channel is closed
+	m_map = raf.getChannel().map(FileChannel.MapMode.READ_ONLY,
+				     m_dataOffset, len);
+      } finally {
+	IOUtil.safeClose(raf);
+      }
+    }
+    ByteBuffer buf = m_map.duplicate();
+    buf.position((int)offset);
+    m_mapUsers++;
+    return new MappedInputStream(m_map, buf);
+  }
+
+  /** Called when a stream reading from map is closed */
+  private synchronized void mapStreamClosed(MappedByteBuffer map) {
+    if (map == m_map) {
+      m_mapUsers--;
+    }
+  }
+
+  /** Drop the current mapping, unmapping it now if no stream is reading
+   * from it.  Otherwise it's freed when those streams are collected. */
+  private void releaseMap() {
+    if (m_map != null) {
+      if (m_mapUsers == 0) {
+	CountingRandomAccessFile.unmap(m_map);
+      }
+      m_map = null;
+      m_mapUsers = 0;
+    }
+  }
+
+  /** Return the URL index, scanning the file to build it if necessary. */
+  private UrlIndex ensureIndex() throws IOException {
+    if (m_index == null) {
+      UrlIndex index = new UrlIndex();
+      BoundedInputStream cis =
+        BoundedInputStream.builder().setInputStream(openInput(0)).get();
+      DataInputStream in = new DataInputStream(cis);
+      try {
+	while (true) {
+	  long offset = cis.getCount();
+	  VoteBlock vb;
+	  try {
+	    vb = readVoteBlock(in, m_encoding, index.getLastUrl());
+	  } catch (EOFException e) {
+	    break;
+	  }
+	  index.add(vb.getUrl(), offset);
+	}
+      } finally {
+	IOUtil.safeClose(in);
+      }
+      m_index = index;
+      m_lastUrl = index.getLastUrl();
+    }
+    return m_index;
+  }
+
+  static void writeVoteBlock(DataOutput out, VoteBlock b, int encoding,
+			     String prevUrl)
+      throws IOException {
+    switch (encoding) {
+    case VoteBlock.ENCODING_BINARY:
+      b.writeBinary(out, prevUrl);
+      break;
+    default:
+      byte[] encodedBlock = b.getEncoded();
+      out.writeShort(encodedBlock.length);
+      out.write(encodedBlock);
+    }
+  }
+
+  static VoteBlock readVoteBlock(DataInput in, int encoding, String prevUrl)
+      throws IOException {
+    switch (encoding) {
+    case VoteBlock.ENCODING_BINARY:
+      return VoteBlock.readBinary(in, prevUrl);
+    default:
+      short nextLen = in.readShort();
+      byte[] encodedBlock = new byte[nextLen];
+      in.readFully(encodedBlock);
+      return new VoteBlock(encodedBlock);
     }
   }
   
@@ -127,32 +397,71 @@ public class DiskVoteBlocks implements VoteBlocks {
     return new DiskVoteBlocks.Iterator();
   }
 
-  /** Search the collection for the requested VoteBlock.
-   * 
-   * XXX: This is implemented as a simple linear search, so it is O(n).
-   * The disk structure is not terribly easy to seek into because each
-   * record is variable length, so I'm not sure it will be easy to implement
-   * binary search and improve performance.  Therefore, this method should
-   * be used with care, and sparingly.
+  /** Search the collection for the requested VoteBlock.  If the blocks
+   * are in URL order the restart points are binary searched, comparing
+   * against URLs read from the file, then the blocks following the chosen
+   * one are scanned; otherwise the whole file is scanned.  If more than
+   * one block has the URL, the first one added is returned.
    */
-  public VoteBlock getVoteBlock(String url) {
-    VoteBlocksIterator iter = null;
+  public synchronized VoteBlock getVoteBlock(String url) {
     try {
-      iter = iterator();
-      while (iter.hasNext()) {
-        VoteBlock vb = iter.next();
-        if (url.equals(vb.getUrl())) {
-          return vb;
-        }
+      UrlIndex index = ensureIndex();
+      if (index.size() == 0) {
+	return null;
+      }
+      int start = 0;
+      if (index.isInOrder()) {
+	// Find the last restart point whose URL is less than url
+	int lo = 0;
+	int hi = index.numRestarts() - 1;
+	while (lo < hi) {
+	  int mid = (lo + hi + 1) >>> 1;
+	  if (VoteBlock.compareUrls(readRestartBlock(index, mid).getUrl(),
+				    url) < 0) {
+	    lo = mid;
+	  } else {
+	    hi = mid - 1;
+	  }
+	}
+	start = lo;
+      }
+      DataInputStream in =
+	new DataInputStream(openInput(index.getRestartOffset(start)));
+      try {
+	String prevUrl = index.getRestartPrevUrl(start);
+	while (true) {
+	  VoteBlock vb;
+	  try {
+	    vb = readVoteBlock(in, m_encoding, prevUrl);
+	  } catch (EOFException e) {
+	    return null;
+	  }
+	  int cmp = VoteBlock.compareUrls(vb.getUrl(), url);
+	  if (cmp == 0 && url.equals(vb.getUrl())) {
+	    return vb;
+	  }
+	  if (cmp > 0 && index.isInOrder()) {
+	    return null;
+	  }
+	  prevUrl = vb.getUrl();
+	}
+      } finally {
+	IOUtil.safeClose(in);
       }
-      return null;
     } catch (IOException ex) {
       log.error("IOException while searching for VoteBlock " + url, ex);
       return null;
+    }
+  }
+
+  private VoteBlock readRestartBlock(UrlIndex index, int restart)
+      throws IOException {
+    DataInputStream in =
+      new DataInputStream(openInput(index.getRestartOffset(restart)));
+    try {
+      return readVoteBlock(in, m_encoding, index.getRestartPrevUrl(restart));
     } finally {
-      if (iter != null) {
-	iter.release();
-      }
+      IOUtil.safeClose(in);
     }
   }
 
@@ -161,10 +470,18 @@ public class DiskVoteBlocks implements VoteBlocks {
   }
 
   public long getEstimatedEncodedLength() {
-    return m_file.length();
+    return m_out != null ? m_length : dataLength();
   }
 
   public synchronized void release() {
+    try {
+      closeWriter();
+    } catch (IOException e) {
+      log.debug2("Error closing " + m_file, e);
+    }
+    releaseMap();
+    m_index = null;
+    m_lastUrl = null;
     // The poller should have already cleaned up our directory by now,
     // but just in case, we'll run some cleanup code.
     if (m_file != null && !m_file.delete() && log.isDebug2()) {
@@ -174,13 +491,67 @@ public class DiskVoteBlocks implements VoteBlocks {
   }
 
   public synchronized InputStream getInputStream() throws IOException {
-    InputStream is = new BufferedInputStream(new FileInputStream(m_file));
+    return getInputStream(VoteBlock.ENCODING_PROPS);
+  }
+
+  /**
+   * Return a stream of the blocks in the specified encoding.  If that
+   * isn't the encoding of the backing file the blocks are first
+   * transcoded into a temporary file, which is deleted when the stream
+   * is closed.
+   *
+   * @param encoding One of VoteBlock.ENCODING_XXX
+   */
+  public synchronized InputStream getInputStream(int encoding)
+      throws IOException {
+    closeWriter();
+    InputStream is;
+    if (encoding == m_encoding) {
+      FileInputStream fis = new FileInputStream(m_file);
+      if (m_dataOffset > 0) {
+	fis.getChannel().position(m_dataOffset);
+      }
+      is = new BufferedInputStream(fis);
+    } else {
+      File tmp = transcode(encoding);
+      is = new BufferedInputStream(new CloseCallbackInputStream
+				   .DeleteFileOnCloseInputStream(tmp));
+    }
     if (CurrentConfig.getBooleanParam(PARAM_MONITOR_INPUT_STREAMS,
 				      DEFAULT_MONITOR_INPUT_STREAMS)) {
       is = new MonitoringInputStream(is, "dvb getInputStream()");
     }
     return is;
   }
+
+  private File transcode(int encoding) throws IOException {
+    File tmp = FileUtil.createTempFile("voteblocks-", ".tmp",
+				       m_file.getParentFile());
+    DataOutputStream dos =
+      new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+    VoteBlocksIterator iter = null;
+    boolean ok = false;
+    try {
+      iter = iterator();
+      String prevUrl = null;
+      while (iter.hasNext()) {
+	VoteBlock vb = iter.next();
+	writeVoteBlock(dos, vb, encoding, prevUrl);
+	prevUrl = vb.getUrl();
+      }
+      dos.close();
+      ok = true;
+    } finally {
+      if (iter != null) {
+	iter.release();
+      }
+      IOUtil.safeClose(dos);
+      if (!ok) {
+	tmp.delete();
+      }
+    }
+    return tmp;
+  }
   
   public String toString() {
     StringBuffer sb = new StringBuffer("[DiskVoteBlocks:");
@@ -205,23 +576,37 @@ public class DiskVoteBlocks implements VoteBlocks {
     return sb.toString();
 }
 
+  /** Iterates over the blocks in the file when the first block is read.
+   * Reads from the memory-mapped view of the file. */
   class Iterator implements VoteBlocksIterator {
-    private RandomAccessFile m_raf;
+    private DataInputStream m_in;
+    private boolean m_open;
     private VoteBlock m_nextVB;  // Next block to be returned by next(), peek()
+    private String m_prevUrl;	 // URL of the last block read
     
     public Iterator() throws FileNotFoundException {
       if (log.isDebug2()) {
-	log.debug2("Open raf: " + m_file);
+	log.debug2("Open: " + m_file);
+      }
+      if (!m_file.exists()) {
+	throw new FileNotFoundException(m_file.toString());
       }
-      m_raf = new RandomAccessFile(m_file, "r"); 
+      m_open = true;
     }
     
     /* Inherit documentation */
     public void release() {
       if (log.isDebug2()) {
-	log.debug2("Release raf: " + m_file);
+	log.debug2("Release: " + m_file);
       }
-      IOUtil.safeClose(m_raf);
+      close();
+    }
+
+    private void close() {
+      if (m_in != null) {
+	IOUtil.safeClose(m_in);
+      }
+      m_open = false;
     }
 
     /* Inherit documentation */
@@ -255,16 +640,130 @@ public class DiskVoteBlocks implements VoteBlocks {
     /* This method automatically closes the file when it reaches the end. */
     protected void readVB() throws IOException {
       m_nextVB = null;
-      if (m_raf.getFD().valid()) {
+      if (m_open) {
+	if (m_in == null) {
+	  m_in = new DataInputStream(openInput(0));
+	}
 	try {
-	  short nextLen = m_raf.readShort();
-	  byte[] encodedBlock = new byte[nextLen];
-	  m_raf.readFully(encodedBlock);
-	  m_nextVB = new VoteBlock(encodedBlock);
+	  m_nextVB = readVoteBlock(m_in, m_encoding, m_prevUrl);
+	  m_prevUrl = m_nextVB.getUrl();
 	} catch (java.io.EOFException e) {
-	  IOUtil.safeClose(m_raf);
+	  close();
+	}
+      }
+    }
+  }
+
+  /** Restart points into the file: the offset of every
+   * RESTART_INTERVALth block and the URL of the block preceding it, which
+   * is needed to decode a delta-encoded block.  Other URLs aren't kept in
+   * memory; lookups read them from the file.  Also records whether the
+   * blocks were added in URL order, which allows binary search. */
+  static class UrlIndex {
+    static final int RESTART_INTERVAL = 16;
+
+    private long[] m_offsets = new long[4];
+    private String[] m_prevUrls = new String[4];
+    private int m_numRestarts = 0;
+    private int m_count = 0;
+    private boolean m_inOrder = true;
+    private String m_lastUrl;
+
+    void add(String url, long offset) {
+      if (m_count % RESTART_INTERVAL == 0) {
+	if (m_numRestarts == m_offsets.length) {
+	  m_offsets = Arrays.copyOf(m_offsets, m_numRestarts * 2);
+	  m_prevUrls = Arrays.copyOf(m_prevUrls, m_numRestarts * 2);
 	}
+	m_offsets[m_numRestarts] = offset;
+	m_prevUrls[m_numRestarts] = m_lastUrl;
+	m_numRestarts++;
       }
+      if (m_inOrder && m_lastUrl != null
+	  && VoteBlock.compareUrls(m_lastUrl, url) > 0) {
+	m_inOrder = false;
+      }
+      m_lastUrl = url;
+      m_count++;
+    }
+
+    int size() {
+      return m_count;
+    }
+
+    String getLastUrl() {
+      return m_lastUrl;
+    }
+
+    boolean isInOrder() {
+      return m_inOrder;
+    }
+
+    int numRestarts() {
+      return m_numRestarts;
+    }
+
+    long getRestartOffset(int restart) {
+      return m_offsets[restart];
+    }
+
+    /** The URL of the block preceding the restart block */
+    String getRestartPrevUrl(int restart) {
+      return m_prevUrls[restart];
+    }
+  }
+
+  /** Stream on the mapped file, which tells the DiskVoteBlocks when it's
+   * closed so the mapping can be released */
+  private class MappedInputStream extends ByteBufferInputStream {
+    private final MappedByteBuffer m_streamMap;
+    private boolean m_closed = false;
+
+    MappedInputStream(MappedByteBuffer map, ByteBuffer buf) {
+      super(buf);
+      m_streamMap = map;
+    }
+
+    public void close() {
+      if (!m_closed) {
+	m_closed = true;
+	mapStreamClosed(m_streamMap);
+      }
+    }
+  }
+
+  /** InputStream reading from a ByteBuffer, without copying it. */
+  static class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer m_buf;
+
+    ByteBufferInputStream(ByteBuffer buf) {
+      m_buf = buf;
+    }
+
+    public int read() {
+      return m_buf.hasRemaining() ? (m_buf.get() & 0xFF) : -1;
+    }
+
+    public int read(byte[] b, int off, int len) {
+      if (len == 0) {
+	return 0;
+      }
+      if (!m_buf.hasRemaining()) {
+	return -1;
+      }
+      int n = Math.min(len, m_buf.remaining());
+      m_buf.get(b, off, n);
+      return n;
+    }
+
+    public long skip(long n) {
+      int k = (int)Math.max(0, Math.min(n, m_buf.remaining()));
+      m_buf.position(m_buf.position() + k);
+      return k;
+    }
+
+    public int available() {
+      return m_buf.remaining();
     }
   }
 }
@@ -181,6 +181,21 @@ public class IdentityManagerImpl extends BaseLockssDaemonManager
     PREFIX + "updatesBeforeStoring";
   public static final long DEFAULT_UPDATES_BEFORE_STORING = 100;
 
+  /**
+   * <p>If true, the IDDB is kept in an append-only binary journal, to
+   * which only the peers whose status has changed are added, and
+   * which is compacted as it grows, rather than being rewritten as XML
+   * each time it's stored.  An existing XML IDDB is read at startup if
+   * there's no journal.</p>
+   */
+  public static final String PARAM_IDDB_JOURNAL = PREFIX + "iddbJournal";
+  public static final boolean DEFAULT_IDDB_JOURNAL = true;
+
+  /**
+   * <p>The IDDB journal file name.</p>
+   */
+  static final String IDDB_JOURNAL_FILENAME = "iddb_v3.jnl";
+
   /**
    * <p>The initial list of V3 peers for this cache.</p>
    */
@@ -270,6 +285,15 @@ public class IdentityManagerImpl extends BaseLockssDaemonManager
    */
   File iddbFile = null;
 
+  /**
+   * <p>The IDDB journal, and the records last read from or written to
+   * it.</p>
+   */
+  RecordJournal iddbJournal = null;
+  private Map<String,byte[]> journaledIdentities =
+    new HashMap<String,byte[]>();
+  private boolean useIddbJournal = DEFAULT_IDDB_JOURNAL;
+
   int[] reputationDeltas = new int[10];
 
   /**
@@ -842,6 +866,8 @@ public class IdentityManagerImpl extends BaseLockssDaemonManager
       String iddbDir = CurrentConfig.getParam(PARAM_IDDB_DIR);
       if (iddbDir != null) {
 	iddbFile = new File(iddbDir, IDDB_FILENAME);
+	iddbJournal = new RecordJournal(new File(iddbDir,
+						 IDDB_JOURNAL_FILENAME));
       }
     }
     return iddbFile;
@@ -872,6 +898,14 @@ public class IdentityManagerImpl extends BaseLockssDaemonManager
     }
 
     synchronized (iddbFile) {
+      if (iddbJournal.isNewerThan(iddbFile)) {
+        try {
+          reloadIdentityJournal();
+          return;
+        } catch (IOException e) {
+          log.warning("Could not load identity database journal", e);
+        }
+      }
       try {
         // CASTOR: Remove unwrap() call; add cast to HashMap
         HashMap map = 
@@ -880,6 +914,13 @@ public class IdentityManagerImpl extends BaseLockssDaemonManager
         synchronized (theLcapIdentities) {
           theLcapIdentities.putAll(map);
         }
+        if (iddbJournal.exists()) {
+          // Superseded by the XML file.  Start a new one at the next
+          // store.
+          log.info("Discarding old identity database journal");
+          iddbJournal.delete();
+          journaledIdentities.clear();
+        }
       }
       catch (SerializationException.FileNotFound e) {
         log.warning("No identity database");
@@ -890,6 +931,28 @@ public class IdentityManagerImpl extends BaseLockssDaemonManager
     }
   }
 
+  /**
+   * <p>Loads the peer data from the IDDB journal.</p>
+   */
+  private void reloadIdentityJournal() throws IOException {
+    Map<String,byte[]> records = iddbJournal.read();
+    Map<PeerIdentity,PeerIdentityStatus> map =
+      new HashMap<PeerIdentity,PeerIdentityStatus>();
+    for (Map.Entry<String,byte[]> ent : records.entrySet()) {
+      try {
+        PeerIdentity pid = findPeerIdentity(ent.getKey());
+        map.put(pid, PeerIdentityStatus.decode(ent.getValue(), pid, this));
+      } catch (MalformedIdentityKeyException e) {
+        log.warning("Ignoring malformed id in identity database journal: " +
+                    ent.getKey());
+      }
+    }
+    synchronized (theLcapIdentities) {
+      theLcapIdentities.putAll(map);
+    }
+    journaledIdentities = records;
+  }
+
   /**
    * <p>Used by the PollManager to record the result of tallying a
    * poll.</p>
@@ -897,7 +960,52 @@ public class IdentityManagerImpl extends BaseLockssDaemonManager
    */
   public void storeIdentities()
       throws ProtocolException {
-    storeIdentities(makeIdentityListSerializer());
+    if (useIddbJournal) {
+      storeIdentityJournal();
+    } else {
+      storeIdentities(makeIdentityListSerializer());
+    }
+  }
+
+  /**
+   * <p>Appends the peers whose status has changed since the last
+   * store to the IDDB journal, or rewrites it with all of them if it's
+   * new or has grown enough to compact.</p>
+   */
+  void storeIdentityJournal() throws ProtocolException {
+    if (setupIddbFile() == null) {
+      log.warning("Cannot store identities; no value for '"
+          + PARAM_IDDB_DIR + "'.");
+      return;
+    }
+
+    synchronized (iddbFile) {
+      try {
+        File dir = iddbFile.getParentFile();
+        if (dir != null) {
+	  FileUtil.ensureDirExists(dir);
+	}
+        Map<String,byte[]> current = encodeIdentities();
+        iddbJournal.store(RecordJournal.diff(journaledIdentities, current),
+                          current);
+        journaledIdentities = current;
+      }
+      catch (Exception e) {
+        log.error("Could not store identity database journal", e);
+        throw new ProtocolException("Unable to store identity database.");
+      }
+    }
+  }
+
+  private Map<String,byte[]> encodeIdentities() throws IOException {
+    Map<String,byte[]> res = new LinkedHashMap<String,byte[]>();
+    synchronized (theLcapIdentities) {
+      for (Map.Entry<PeerIdentity,PeerIdentityStatus> ent :
+             theLcapIdentities.entrySet()) {
+        res.put(ent.getKey().getIdString(), ent.getValue().encode());
+      }
+    }
+    return res;
   }
 
   /**
@@ -920,6 +1028,9 @@ public class IdentityManagerImpl extends BaseLockssDaemonManager
 	}
         // CASTOR: Remove call to wrap()
         serializer.serialize(iddbFile, wrap(theLcapIdentities));
+        // The XML file is now the current version
+        iddbJournal.delete();
+        journaledIdentities.clear();
       }
       catch (Exception e) {
         log.error("Could not store identity database", e);
@@ -948,6 +1059,19 @@ public class IdentityManagerImpl extends BaseLockssDaemonManager
     if (setupIddbFile() == null) {
       return;
     }
+    synchronized (iddbFile) {
+      if (iddbJournal.isNewerThan(iddbFile)) {
+        // Backups are in XML
+        try {
+          makeIdentityListSerializer().serialize(iddbFile,
+                                                 wrap(theLcapIdentities));
+        } catch (SerializationException e) {
+          throw new IOException("Could not export identity database", e);
+        }
+        // Same age as the journal, so the journal is still preferred
+        iddbFile.setLastModified(iddbJournal.getFile().lastModified());
+      }
+    }
     if (iddbFile.exists()) {
       synchronized (iddbFile) {
         InputStream in =
@@ -1406,6 +1530,8 @@ public class IdentityManagerImpl extends BaseLockssDaemonManager
         config.getInt(PARAM_VOTE_VERIFIED, DEFAULT_VOTE_VERIFIED);
       reputationDeltas[VOTE_DISOWNED] =
         config.getInt(PARAM_VOTE_DISOWNED, DEFAULT_VOTE_DISOWNED);
+      useIddbJournal = config.getBoolean(PARAM_IDDB_JOURNAL,
+                                         DEFAULT_IDDB_JOURNAL);
       updatesBeforeStoring =
         config.getLong(PARAM_UPDATES_BEFORE_STORING,
                        DEFAULT_UPDATES_BEFORE_STORING);
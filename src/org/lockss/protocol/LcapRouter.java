@@ -216,20 +216,27 @@ public class LcapRouter
     }
   }
 
-  /** Decode a PeerMessage into a V3LcapMessage  */
+  /** Decode a PeerMessage into a V3LcapMessage.  If the message was
+   * received into a file, its vote blocks are left there. */
   V3LcapMessage makeV3LcapMessage(PeerMessage pmsg) throws IOException {
-    InputStream in = null;
-    try {
-      in = pmsg.getInputStream();
-      V3LcapMessage lmsg = new V3LcapMessage(in, dataDir, getDaemon());
-      if (lmsg.getOriginatorId() == null) {
-        log.warning("Incoming LcapMessage has no originator, setting it to PeerMessge sender");
-        lmsg.setOriginatorId(pmsg.getSender());
+    V3LcapMessage lmsg;
+    if (pmsg instanceof FilePeerMessage && pmsg.hasData()) {
+      lmsg = new V3LcapMessage(((FilePeerMessage)pmsg).getDataFile(),
+			       dataDir, getDaemon());
+    } else {
+      InputStream in = null;
+      try {
+	in = pmsg.getInputStream();
+	lmsg = new V3LcapMessage(in, dataDir, getDaemon());
+      } finally {
+	IOUtil.safeClose(in);
       }
-      return lmsg;
-    } finally {
-      IOUtil.safeClose(in);
     }
+    if (lmsg.getOriginatorId() == null) {
+      log.warning("Incoming LcapMessage has no originator, setting it to PeerMessge sender");
+      lmsg.setOriginatorId(pmsg.getSender());
+    }
+    return lmsg;
   }
 
   PeerMessage newPeerMessage(long estSize) {
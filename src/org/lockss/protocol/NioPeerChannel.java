@@ -0,0 +1,916 @@
+/*
+
+Copyright (c) 2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+
+package org.lockss.protocol;
+
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import javax.net.ssl.*;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+
+import org.lockss.util.*;
+import org.lockss.util.Queue;
+
+/**
+ * Peer channel whose I/O is performed by one of NioStreamComm's selector
+ * threads, using non-blocking socket channels and, for SSL, an SSLEngine.
+ * Connection life cycle, channel states and wire protocol are those of
+ * BlockingPeerChannel.  All socket and engine operations happen on the
+ * selector thread; send(), enqueueMsgs() and stopChannel() may be called
+ * from any thread.
+ */
+class NioPeerChannel extends BlockingPeerChannel {
+  static Logger log = Logger.getLogger("NioChannel");
+
+  static final int NIO_BUFFER_SIZE = 16 * 1024;
+
+  private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+  enum RcvState {HEADER, PEERID, DATA}
+
+  private NioStreamComm scomm;
+  private NioStreamComm.SelectorThread selThread;
+  private SocketChannel ch;
+  private SelectionKey key;
+  private SSLEngine engine;
+  private boolean handshakeDone = false;
+  private long startTime = 0;		// connect or handshake start
+  private boolean inputClosed = false;	// EOF or close_notify seen
+  private boolean inputDone = false;	// EOF processed
+  private boolean cleanedUp = false;
+  private volatile boolean wakePending = false;
+
+  // Buffers between the socket and the message (de)framing.  appIn and
+  // netIn are kept ready for put(), appOut and netOut ready for get().
+  // netIn and netOut are used only with SSL.
+  private ByteBuffer appIn;
+  private ByteBuffer appOut;
+  private ByteBuffer netIn;
+  private ByteBuffer netOut;
+
+  // Receive state
+  private RcvState rcvState = RcvState.HEADER;
+  private int rcvPeerIdLen;
+  private PeerMessage rcvMsg;
+  private OutputStream rcvOut;
+  private long rcvLen;
+  private long rcvRemaining;
+  private long rcvStartTime;
+
+  // Send state.  The message being sent stays at the head of sendQueue
+  // until all of it has been written to the socket.
+  private boolean sentPeerId = false;
+  private PeerMessage sndMsg;
+  private InputStream sndIn;
+  private long sndLen;
+  private long sndRemaining;
+  private long sndStartTime;
+  private byte[] sndHdr = new byte[HEADER_LEN];
+
+  /** Create a channel to be connected to the peer */
+  NioPeerChannel(NioStreamComm scomm, PeerIdentity peer) {
+    super(scomm, peer);
+    this.scomm = scomm;
+  }
+
+  /** Create a channel from an accepted connection */
+  NioPeerChannel(NioStreamComm scomm, SocketChannel ch) {
+    super(scomm, ch.socket());
+    this.scomm = scomm;
+    this.ch = ch;
+  }
+
+  // Entry points from BlockingStreamComm
+
+  /** Hand the connection off to a selector thread */
+  @Override
+  public void startOriginate() throws IOException {
+    isOriginate = true;
+    pad = peer.getPeerAddress();
+    if (!(pad instanceof PeerAddress.Tcp)) {
+      throw new IllegalArgumentException("Wrong type of PeerAddress: " + pad);
+    }
+    if (stateTrans(ChannelState.INIT, ChannelState.CONNECTING,
+		   "startOriginate")) {
+      selThread = scomm.nextSelectorThread();
+      if (selThread == null) {
+	stateTrans(ChannelState.CONNECTING, ChannelState.CLOSED);
+	throw new IOException("Comm not running");
+      }
+      selThread.execute(new Runnable() {
+	  public void run() {
+	    connect();
+	  }});
+    }
+  }
+
+  /** Hand the accepted connection off to a selector thread */
+  @Override
+  public void startIncoming() {
+    if (stateTrans(ChannelState.ACCEPTED, ChannelState.STARTING,
+		   "startIncoming")) {
+      selThread = scomm.nextSelectorThread();
+      if (selThread == null) {
+	abortChannel();
+	return;
+      }
+      selThread.execute(new Runnable() {
+	  public void run() {
+	    try {
+	      key = selThread.register(ch, 0, NioPeerChannel.this);
+	      startConnectedChannel();
+	    } catch (IOException e) {
+	      abortChannel(e);
+	    }
+	  }});
+    }
+  }
+
+  @Override
+  public boolean send(PeerMessage msg) {
+    if (super.send(msg)) {
+      wakeSender();
+      return true;
+    }
+    return false;
+  }
+
+  /** Enqueue all messages on queue to be sent.  The queue is never
+   * adopted, as the selector thread may already be using sendQueue. */
+  @Override
+  public void enqueueMsgs(Queue queue) {
+    PeerMessage msg;
+    try {
+      while ((msg = (PeerMessage)queue.get(Deadline.EXPIRED)) != null) {
+	if (log.isDebug3()) log.debug3("Enqueued " + msg);
+	sendQueue.put(msg);
+      }
+    } catch (InterruptedException e) {
+      log.critical("Impossible");
+    }
+    wakeSender();
+  }
+
+  @Override
+  void stopChannel(boolean abort, String msg, Throwable t) {
+    if (!abort && !isClosed() && isSelectorThread()) {
+      sendCloseNotify();
+    }
+    super.stopChannel(abort, msg, t);
+    NioStreamComm.SelectorThread sel = selThread;
+    if (sel == null || isSelectorThread()) {
+      cleanup();
+    } else {
+      sel.execute(new Runnable() {
+	  public void run() {
+	    cleanup();
+	  }});
+    }
+  }
+
+  /** Nothing to wait for; the channel has no threads of its own */
+  @Override
+  void waitThreadsExited(Deadline timeout) {
+  }
+
+  boolean isSelectorThread() {
+    NioStreamComm.SelectorThread sel = selThread;
+    return sel != null && sel.isCurrentThread();
+  }
+
+  /** Ask the selector thread to send anything newly queued */
+  void wakeSender() {
+    NioStreamComm.SelectorThread sel = selThread;
+    if (sel == null || wakePending) {
+      return;
+    }
+    wakePending = true;
+    sel.execute(new Runnable() {
+	public void run() {
+	  wakePending = false;
+	  // appIn is set once the channel is connected
+	  if (appIn != null && !isClosed()) {
+	    try {
+	      pump();
+	    } catch (IOException e) {
+	      ioError(e);
+	    }
+	  }
+	}});
+  }
+
+  // Everything below runs on the selector thread
+
+  /** Start a non-blocking connect to the peer */
+  void connect() {
+    if (!isState(ChannelState.CONNECTING)) {
+      return;
+    }
+    PeerAddress.Tcp tpad = (PeerAddress.Tcp)pad;
+    startTime = TimeBase.nowMs();
+    try {
+      ch = SocketChannel.open();
+      sock = ch.socket();
+      setSocket(sock);
+      ch.configureBlocking(false);
+      String from = scomm.getSendFromAddr();
+      if (from != null) {
+	sock.bind(new InetSocketAddress(InetAddress.getByName(from), 0));
+      }
+      scomm.setupOpenSocket(sock);
+      key = selThread.register(ch, 0, this);
+      if (ch.connect(new InetSocketAddress(tpad.getIPAddr().getInetAddr(),
+					   tpad.getPort()))) {
+	connected();
+      } else {
+	key.interestOps(SelectionKey.OP_CONNECT);
+      }
+    } catch (IOException e) {
+      connectFailed(e);
+    }
+  }
+
+  void connected() {
+    log.debug2("Connected to " + peer);
+    if (engine == null && !scomm.isSsl()) {
+      // SSL channels count as open only once the handshake succeeds, so
+      // that key mismatches aren't retried
+      didOpen = true;
+    }
+    try {
+      if (stateTrans(ChannelState.CONNECTING, ChannelState.STARTING)) {
+	startConnectedChannel();
+      }
+    } catch (IOException e) {
+      abortChannel(e);
+    }
+  }
+
+  void connectFailed(IOException e) {
+    NioStreamComm.closeChannel(ch);
+    if (e instanceof SocketException) {
+      connectException = e;
+    }
+    stateTrans(ChannelState.CONNECTING, ChannelState.DISSOCIATING);
+    abortChannel("Connect failed to " + peer + ": " + e.toString());
+    stateTrans(ChannelState.DISSOCIATING, ChannelState.CONNECT_FAIL);
+  }
+
+  /** Set up buffers and SSL engine, start exchanging data */
+  void startConnectedChannel() throws IOException {
+    assertState(ChannelState.STARTING, "startConnectedChannel");
+    appOut = ByteBuffer.allocate(NIO_BUFFER_SIZE);
+    appOut.flip();
+    if (scomm.isSsl()) {
+      engine = scomm.newSSLEngine(isOriginate());
+      SSLSession session = engine.getSession();
+      netIn = ByteBuffer.allocate(session.getPacketBufferSize());
+      netOut = ByteBuffer.allocate(session.getPacketBufferSize());
+      netOut.flip();
+      appIn = ByteBuffer.allocate(session.getApplicationBufferSize() +
+				  NIO_BUFFER_SIZE);
+      engine.beginHandshake();
+    } else {
+      appIn = ByteBuffer.allocate(NIO_BUFFER_SIZE);
+      handshakeDone = true;
+    }
+    startTime = lastActiveTime = TimeBase.nowMs();
+    stateTrans(ChannelState.STARTING, ChannelState.OPEN);
+    pump();
+  }
+
+  /** Called by the selector thread when the channel is ready for I/O */
+  void handleReady(SelectionKey k) {
+    try {
+      if (!k.isValid() || isClosed()) {
+	return;
+      }
+      if (k.isConnectable()) {
+	try {
+	  if (ch.finishConnect()) {
+	    connected();
+	  }
+	} catch (IOException e) {
+	  connectFailed(e);
+	}
+	return;
+      }
+      if (k.isReadable()) {
+	readInput();
+      }
+      if (!isClosed()) {
+	pump();
+      }
+    } catch (IOException e) {
+      ioError(e);
+    } catch (RuntimeException e) {
+      log.error(p()+"handleReady", e);
+      abortChannel(e);
+    }
+  }
+
+  void ioError(IOException e) {
+    if (e instanceof SSLPeerUnverifiedException) {
+      // already logged
+      abortChannel();
+    } else if (isClosed()) {
+      abortChannel();
+    } else if (log.isDebug3()) {
+      abortChannel("NIO channel", e);
+    } else {
+      abortChannel("NIO channel: " + e.toString());
+    }
+  }
+
+  /** Read whatever is available from the socket */
+  void readInput() throws IOException {
+    int n = ch.read(engine != null ? netIn : appIn);
+    if (n < 0) {
+      inputClosed = true;
+    } else if (n > 0) {
+      lastRcvTime = lastActiveTime = TimeBase.nowMs();
+    }
+  }
+
+  /** Move data between socket, SSL engine and messages until no more
+   * progress can be made, then set the selector interest accordingly */
+  void pump() throws IOException {
+    boolean progress;
+    do {
+      progress = false;
+      if (engine != null && unwrap()) {
+	progress = true;
+      }
+      if (processInput()) {
+	progress = true;
+      }
+      if (isClosed()) {
+	return;
+      }
+      if (writeOutput()) {
+	progress = true;
+      }
+      if (isClosed()) {
+	return;
+      }
+    } while (progress);
+    if (inputClosed && !inputDone) {
+      inputDone = true;
+      handleInputClosed();
+      if (isClosed()) {
+	return;
+      }
+    }
+    if (key != null && key.isValid()) {
+      int ops = 0;
+      if (!inputDone) {
+	ops |= SelectionKey.OP_READ;
+      }
+      if ((engine != null ? netOut : appOut).hasRemaining()) {
+	ops |= SelectionKey.OP_WRITE;
+      }
+      key.interestOps(ops);
+    }
+  }
+
+  /** Peer closed its side, drain output if necessary, else close */
+  void handleInputClosed() throws IOException {
+    if (!handshakeDone) {
+      log.debug2(p()+"Closed during SSL handshake");
+      abortChannel();
+      return;
+    }
+    if (rcvState != RcvState.HEADER || appIn.position() != 0) {
+      throw new ProtocolException("Connection closed in middle of message");
+    }
+    if (log.isDebug2()) log.debug2(p()+"Input closed");
+    if (engine != null) {
+      try {
+	engine.closeInbound();
+      } catch (SSLException e) {
+	// peer didn't send close_notify
+      }
+    }
+    synchronized (stateLock) {
+      if (!isSendIdle() && isOpen()) {
+	stateTrans(ChannelState.OPEN, ChannelState.DRAIN_OUTPUT);
+      } else {
+	notStateTrans(stopIgnStates, ChannelState.NEED_CLOSE);
+      }
+    }
+    if (isState(ChannelState.NEED_CLOSE)) {
+      stopChannel();
+    }
+  }
+
+  // SSL
+
+  /** Unwrap as much buffered network input as possible into appIn
+   * @return true if any bytes were consumed or produced */
+  boolean unwrap() throws IOException {
+    if (netIn.position() == 0) {
+      return false;
+    }
+    boolean progress = false;
+    netIn.flip();
+    try {
+      while (netIn.hasRemaining()) {
+	SSLEngineResult res = engine.unwrap(netIn, appIn);
+	boolean moved = res.bytesConsumed() > 0 || res.bytesProduced() > 0;
+	if (moved) {
+	  progress = true;
+	}
+	if (res.getHandshakeStatus() == HandshakeStatus.NEED_TASK) {
+	  runDelegatedTasks();
+	  progress = true;
+	  continue;
+	}
+	if (res.getStatus() == SSLEngineResult.Status.CLOSED) {
+	  inputClosed = true;
+	  break;
+	}
+	// Stop on underflow (need more input), overflow (appIn must be
+	// processed first), or when the engine needs to wrap
+	if (res.getStatus() != SSLEngineResult.Status.OK || !moved ||
+	    res.getHandshakeStatus() == HandshakeStatus.NEED_WRAP) {
+	  break;
+	}
+      }
+    } finally {
+      netIn.compact();
+    }
+    return progress;
+  }
+
+  /** Wrap src into netOut
+   * @return true if any bytes were consumed or produced */
+  boolean wrap(ByteBuffer src) throws IOException {
+    netOut.compact();
+    SSLEngineResult res;
+    try {
+      res = engine.wrap(src, netOut);
+    } finally {
+      netOut.flip();
+    }
+    if (res.getHandshakeStatus() == HandshakeStatus.NEED_TASK) {
+      runDelegatedTasks();
+    }
+    return res.bytesConsumed() > 0 || res.bytesProduced() > 0;
+  }
+
+  void runDelegatedTasks() {
+    Runnable task;
+    while ((task = engine.getDelegatedTask()) != null) {
+      task.run();
+    }
+  }
+
+  void handshakeFinished() throws SSLPeerUnverifiedException {
+    handshakeDone = true;
+    SSLSession session = engine.getSession();
+    if (scomm.isSslClientAuth()) {
+      try {
+	session.getPeerCertificates();
+      } catch (SSLPeerUnverifiedException e) {
+	log.error(sock.getInetAddress() + ":" + sock.getPort() +
+		  " not verified");
+	throw e;
+      }
+    }
+    log.debug(sock.getInetAddress() + " via " + session.getProtocol() +
+	      " verified");
+    if (isOriginate()) {
+      didOpen = true;
+    }
+  }
+
+  /** Best effort attempt to send close_notify before closing */
+  void sendCloseNotify() {
+    if (engine == null || !handshakeDone || ch == null || !ch.isOpen()) {
+      return;
+    }
+    try {
+      engine.closeOutbound();
+      while (wrap(EMPTY)) {
+      }
+      ch.write(netOut);
+    } catch (IOException e) {
+      log.debug2(p()+"close_notify", e);
+    }
+  }
+
+  // Receiving
+
+  /** Process received bytes in appIn: headers, peerid, message data
+   * @return true if any bytes were consumed */
+  boolean processInput() throws IOException {
+    if (appIn.position() == 0) {
+      return false;
+    }
+    appIn.flip();
+    int start = appIn.remaining();
+    try {
+      while (appIn.hasRemaining() && !isClosed()) {
+	switch (rcvState) {
+	case HEADER:
+	  if (appIn.remaining() < HEADER_LEN) {
+	    return start != appIn.remaining();
+	  }
+	  appIn.get(rcvHeader);
+	  getStats().rcvdBytes(HEADER_LEN);
+	  if (rcvHeader[HEADER_OFF_CHECK] != HEADER_CHECK) {
+	    throw new ProtocolException("Message doesn't start with " +
+					HEADER_CHECK);
+	  }
+	  startMessage();
+	  break;
+	case PEERID:
+	  if (appIn.remaining() < rcvPeerIdLen) {
+	    return start != appIn.remaining();
+	  }
+	  appIn.get(peerbuf, 0, rcvPeerIdLen);
+	  getStats().rcvdBytes(rcvPeerIdLen);
+	  rcvState = RcvState.HEADER;
+	  processPeerId(new String(peerbuf, 0, rcvPeerIdLen));
+	  break;
+	case DATA:
+	  int n = (int)Math.min(appIn.remaining(), rcvRemaining);
+	  rcvOut.write(appIn.array(), appIn.arrayOffset() + appIn.position(),
+		       n);
+	  appIn.position(appIn.position() + n);
+	  rcvRemaining -= n;
+	  getStats().getInCount().addBytes(n);
+	  if (rcvRemaining <= 0) {
+	    finishDataMsg();
+	  }
+	  break;
+	}
+      }
+      return start != appIn.remaining();
+    } finally {
+      appIn.compact();
+    }
+  }
+
+  /** Act on a just-received header */
+  void startMessage() throws IOException {
+    int op = getRcvdMessageOp();
+    if (peer == null && op != OP_PEERID) {
+      throw new ProtocolException("Didn't receive peerid first: " + op);
+    }
+    switch (op) {
+    case OP_PEERID:
+      long len = getRcvdMessageLength();
+      if (len > MAX_PEERID_LEN) {
+	String msg = "Peerid too long: " + len;
+	log.warning(msg);
+	throw new ProtocolException(msg);
+      }
+      rcvPeerIdLen = (int)len;
+      rcvState = RcvState.PEERID;
+      break;
+    case OP_DATA:
+      startDataMsg();
+      break;
+    case OP_CLOSE:
+      // Not implemented yet
+      break;
+    default:
+      String msg = "Received unknown opcode: " + op;
+      if (scomm.getAbortOnUnknownOp()) {
+	throw new ProtocolException(msg);
+      } else {
+	log.debug(msg);
+      }
+    }
+  }
+
+  /** Create the PeerMessage into which the data will be received */
+  void startDataMsg() throws IOException {
+    long len = getRcvdMessageLength();
+    int proto = ByteArray.decodeInt(rcvHeader, HEADER_OFF_PROTO);
+    if (log.isDebug3()) log.debug3("Got data hdr: " + proto + ", len: " + len);
+    if (len > scomm.getMaxMessageSize()) {
+      throw new ProtocolException("Too-large incoming message: " + len);
+    }
+    rcvStartTime = 0;
+    if (len >= scomm.getMinMeasuredMessageSize()) {
+      rcvStartTime = TimeBase.nowMs();
+    }
+    rcvMsg = scomm.newPeerMessage(len);
+    rcvMsg.setProtocol(proto);
+    rcvMsg.setSender(peer);
+    rcvOut = rcvMsg.getOutputStream();
+    rcvLen = rcvRemaining = len;
+    rcvState = RcvState.DATA;
+    if (rcvRemaining <= 0) {
+      finishDataMsg();
+    }
+  }
+
+  void finishDataMsg() throws IOException {
+    PeerMessage msg = rcvMsg;
+    OutputStream out = rcvOut;
+    rcvMsg = null;
+    rcvOut = null;
+    rcvState = RcvState.HEADER;
+    try {
+      out.close();
+    } catch (IOException e) {
+      msg.delete();
+      throw e;
+    }
+    logRate("Rcv", rcvLen, rcvStartTime);
+    deliverMsg(msg);
+  }
+
+  // Sending
+
+  /** Write as much pending output as the socket will take, refilling
+   * from the send queue
+   * @return true if any progress was made */
+  boolean writeOutput() throws IOException {
+    boolean progress = false;
+    while (true) {
+      ByteBuffer out = (engine != null) ? netOut : appOut;
+      if (out.hasRemaining()) {
+	if (ch.write(out) > 0) {
+	  progress = true;
+	  lastActiveTime = TimeBase.nowMs();
+	}
+	if (out.hasRemaining()) {
+	  // socket buffer full, wait for OP_WRITE
+	  return progress;
+	}
+      }
+      if (engine != null) {
+	HandshakeStatus hs = engine.getHandshakeStatus();
+	if (hs == HandshakeStatus.NEED_TASK) {
+	  runDelegatedTasks();
+	  progress = true;
+	  continue;
+	}
+	if (hs == HandshakeStatus.NEED_WRAP) {
+	  if (!wrap(EMPTY)) {
+	    return progress;
+	  }
+	  progress = true;
+	  continue;
+	}
+	if (hs != HandshakeStatus.NOT_HANDSHAKING &&
+	    hs != HandshakeStatus.FINISHED) {
+	  // waiting for peer
+	  return progress;
+	}
+	if (!handshakeDone) {
+	  handshakeFinished();
+	  progress = true;
+	}
+      }
+      if (sndMsg != null && sndRemaining <= 0 && !appOut.hasRemaining()) {
+	finishSend();
+	progress = true;
+	if (isClosed()) {
+	  return progress;
+	}
+	continue;
+      }
+      boolean added = fillAppOut();
+      if (engine == null) {
+	if (!added) {
+	  return progress;
+	}
+	progress = true;
+	continue;
+      }
+      if (!added && !appOut.hasRemaining()) {
+	return progress;
+      }
+      if (engine.isOutboundDone()) {
+	throw new SSLException("SSL output closed with data pending");
+      }
+      if (!wrap(appOut)) {
+	return progress;
+      }
+      progress = true;
+    }
+  }
+
+  /** Copy the peerid and as much message data as fits into appOut
+   * @return true if anything was added */
+  boolean fillAppOut() throws IOException {
+    if (!handshakeDone) {
+      return false;
+    }
+    boolean added = false;
+    appOut.compact();
+    try {
+      while (appOut.hasRemaining()) {
+	if (!sentPeerId) {
+	  String idkey = localPeer.getIdString();
+	  byte[] idbytes = idkey.getBytes();
+	  if (appOut.remaining() < HEADER_LEN + idbytes.length) {
+	    break;
+	  }
+	  if (log.isDebug3()) log.debug3("Sending peerid: " + idkey);
+	  encodeHeader(sndHdr, OP_PEERID, idbytes.length, 0);
+	  appOut.put(sndHdr);
+	  getStats().sentBytes(HEADER_LEN);
+	  appOut.put(idbytes);
+	  getStats().sentBytes(idbytes.length);
+	  sentPeerId = true;
+	  added = true;
+	  continue;
+	}
+	if (sndMsg == null) {
+	  if (isState(ChannelState.DRAIN_INPUT) ||
+	      appOut.remaining() < HEADER_LEN) {
+	    break;
+	  }
+	  PeerMessage msg = (PeerMessage)sendQueue.peek();
+	  if (msg == null) {
+	    break;
+	  }
+	  startSend(msg);
+	  added = true;
+	}
+	if (sndRemaining <= 0) {
+	  // wait until it's all been written
+	  break;
+	}
+	int n = sndIn.read(appOut.array(),
+			   appOut.arrayOffset() + appOut.position(),
+			   (int)Math.min(appOut.remaining(), sndRemaining));
+	if (n < 0) {
+	  throw new IOException("Message data shorter than its size: " +
+				sndMsg);
+	}
+	appOut.position(appOut.position() + n);
+	sndRemaining -= n;
+	getStats().getOutCount().addBytes(n);
+	lastActiveTime = TimeBase.nowMs();
+	added = true;
+      }
+    } finally {
+      appOut.flip();
+    }
+    return added;
+  }
+
+  /** Start sending the message at the head of the send queue */
+  void startSend(PeerMessage msg) throws IOException {
+    lastSendTime = lastActiveTime = TimeBase.nowMs();
+    msg.setLastRetry(lastSendTime);
+    sndLen = msg.getDataSize();
+    if (log.isDebug3()) log.debug3("Sending data: " + msg.getProtocol() +
+				   ", len: " + sndLen);
+    sndStartTime = 0;
+    if (sndLen >= scomm.getMinMeasuredMessageSize()) {
+      sndStartTime = lastSendTime;
+    }
+    encodeHeader(sndHdr, OP_DATA, sndLen, msg.getProtocol());
+    appOut.put(sndHdr);
+    getStats().sentBytes(HEADER_LEN);
+    sndMsg = msg;
+    sndIn = msg.getInputStream();
+    sndRemaining = sndLen;
+  }
+
+  /** The message has been completely written; remove it from the queue
+   * and close the channel if draining output */
+  void finishSend() throws IOException {
+    PeerMessage msg = sndMsg;
+    IOUtil.safeClose(sndIn);
+    sndIn = null;
+    sndMsg = null;
+    try {
+      if (msg != sendQueue.get(Deadline.EXPIRED)) {
+	throw new IllegalStateException("Send queue not behaving as FIFO");
+      }
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException(e.toString());
+    }
+    countSentMsg();
+    logRate("Send", sndLen, sndStartTime);
+    scomm.countMessageRetries(msg);
+    msg.delete();
+    lastSendTime = lastActiveTime = TimeBase.nowMs();
+    synchronized (stateLock) {
+      if (isSendIdle()) {
+	stateTrans(ChannelState.DRAIN_OUTPUT, ChannelState.NEED_CLOSE);
+      }
+    }
+    if (isState(ChannelState.NEED_CLOSE)) {
+      stopChannel();
+    }
+  }
+
+  // Housekeeping
+
+  /** Called periodically by the selector thread to enforce the connect,
+   * SSL handshake, idle and drain timeouts that the blocking channel's
+   * threads enforce with socket timeouts and timers */
+  void checkTimeouts() {
+    switch (getState()) {
+    case CONNECTING:
+      if (TimeBase.msSince(startTime) > scomm.getConnectTimeout()) {
+	connectFailed(new ConnectException("Connect timed out"));
+      }
+      break;
+    case OPEN:
+    case DRAIN_OUTPUT:
+      if (!handshakeDone) {
+	long hsTimeout = scomm.getSslHandshakeTimeout();
+	if (hsTimeout > 0 && TimeBase.msSince(startTime) > hsTimeout) {
+	  abortChannel(p()+"SSL handshake timed out");
+	}
+      } else if (isOpen() && isSendIdle() && sndMsg == null &&
+		 TimeBase.msSince(lastActiveTime) > scomm.getChannelIdleTime()) {
+	closeIdle();
+      }
+      break;
+    case DRAIN_INPUT:
+      if (TimeBase.msSince(lastActiveTime) > scomm.getDrainInputTime()) {
+	abortChannel(p()+"Aborting DRAIN_INPUT");
+      }
+      break;
+    default:
+    }
+  }
+
+  /** Idle too long.  Stop sending, wait for peer to close its side. */
+  void closeIdle() {
+    if (notStateTrans(stopIgnStates, ChannelState.DRAIN_INPUT)) {
+      // No longer can send messages so must dissociate now
+      scomm.dissociateChannelFromPeer(this, peer, null);
+      try {
+	if (engine != null) {
+	  // No half-close in SSL; send close_notify, to which the peer
+	  // responds by closing
+	  log.debug2("Close outbound");
+	  engine.closeOutbound();
+	} else {
+	  log.debug2("Shutdown output");
+	  ch.shutdownOutput();
+	}
+	pump();
+      } catch (IOException e) {
+	abortChannel("shutdownOutput", e);
+      }
+    }
+  }
+
+  /** Release the socket and any partially sent or received message */
+  void cleanup() {
+    if (cleanedUp) {
+      return;
+    }
+    cleanedUp = true;
+    if (key != null) {
+      key.cancel();
+    }
+    NioStreamComm.closeChannel(ch);
+    if (rcvMsg != null) {
+      IOUtil.safeClose(rcvOut);
+      rcvMsg.delete();
+      rcvMsg = null;
+    }
+    IOUtil.safeClose(sndIn);
+    sndIn = null;
+    sndMsg = null;
+  }
+
+  public String toString() {
+    return "[NChan(" + getState() + "): " +
+      (peer != null ? peer.toString() : "(none)")
+      + "]";
+  }
+}
@@ -0,0 +1,376 @@
+/*
+
+Copyright (c) 2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+
+package org.lockss.protocol;
+
+import java.io.*;
+import java.net.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import javax.net.ssl.*;
+
+import org.lockss.util.*;
+import org.lockss.config.*;
+
+/**
+ * BlockingStreamComm variant that multiplexes all peer channels over a
+ * small, fixed number of selector threads, instead of using a reader and
+ * writer thread per channel.  The wire protocol, peer/retry bookkeeping,
+ * rate limits, statistics and status tables are those of
+ * BlockingStreamComm.  Selected by setting
+ * <code>org.lockss.manager.StreamCommManager</code> to
+ * <code>org.lockss.protocol.NioStreamComm</code>.
+ */
+public class NioStreamComm extends BlockingStreamComm {
+  static Logger log = Logger.getLogger("NioSComm");
+
+  static final String NIO_PREFIX = PREFIX + "nio.";
+
+  /** Number of selector threads that channel I/O is spread across */
+  public static final String PARAM_SELECTOR_THREADS =
+    NIO_PREFIX + "selectorThreads";
+  public static final int DEFAULT_SELECTOR_THREADS = 2;
+
+  /** Interval at which each selector thread checks its channels for
+   * connect, handshake, idle and drain timeouts */
+  public static final String PARAM_CHECK_INTERVAL =
+    NIO_PREFIX + "checkInterval";
+  public static final long DEFAULT_CHECK_INTERVAL = Constants.SECOND;
+
+  private int paramSelectorThreads = DEFAULT_SELECTOR_THREADS;
+  private long paramCheckInterval = DEFAULT_CHECK_INTERVAL;
+
+  private SelectorThread[] selectors;
+  private int nextSelector = 0;
+  private ServerSocketChannel listenChan;
+  private PeerChannelFactory nioChanFact;
+
+  public NioStreamComm() {
+    super();
+  }
+
+  public void setConfig(Configuration config,
+			Configuration prevConfig,
+			Configuration.Differences changedKeys) {
+    if (changedKeys.contains(NIO_PREFIX)) {
+      // Number of selector threads takes effect at next start
+      paramSelectorThreads =
+	Math.max(1, config.getInt(PARAM_SELECTOR_THREADS,
+				  DEFAULT_SELECTOR_THREADS));
+      paramCheckInterval = config.getTimeInterval(PARAM_CHECK_INTERVAL,
+						  DEFAULT_CHECK_INTERVAL);
+    }
+    super.setConfig(config, prevConfig, changedKeys);
+  }
+
+  /** Start the selector threads */
+  @Override
+  void startChannelExecutor() {
+    selectors = new SelectorThread[paramSelectorThreads];
+    for (int ix = 0; ix < selectors.length; ix++) {
+      try {
+	selectors[ix] =
+	  new SelectorThread("SCommSel" + ix + ": " +
+			     getMyPeerId().getIdString());
+      } catch (IOException e) {
+	throw new RuntimeException("Can't open selector", e);
+      }
+      selectors[ix].start();
+      selectors[ix].waitRunning();
+    }
+    log.debug2("Started " + selectors.length + " selector threads");
+  }
+
+  /** Stop the selector threads, which closes all their channels */
+  @Override
+  void stopChannelExecutor() {
+    SelectorThread[] sels = selectors;
+    if (sels != null) {
+      for (SelectorThread sel : sels) {
+	sel.stopCommThread();
+      }
+      for (SelectorThread sel : sels) {
+	sel.waitExited(Deadline.in(getWaitExit()));
+      }
+    }
+    closeChannel(listenChan);
+    listenChan = null;
+  }
+
+  /** Open a non-blocking listen channel, handled by the first selector
+   * thread */
+  @Override
+  void openListenSocket(String bindAddr, int port, int backlog)
+      throws IOException {
+    ServerSocketChannel ssc = ServerSocketChannel.open();
+    try {
+      ssc.socket().setReuseAddress(true);
+      if (bindAddr != null) {
+	ssc.socket().bind(new InetSocketAddress(InetAddress.getByName(bindAddr),
+						port),
+			  backlog);
+      } else {
+	ssc.socket().bind(new InetSocketAddress(port), backlog);
+      }
+      ssc.configureBlocking(false);
+      selectors[0].registerListener(ssc);
+    } catch (IOException e) {
+      closeChannel(ssc);
+      throw e;
+    }
+    listenChan = ssc;
+    log.debug("NIO listener on port " + port + " backlog " + backlog +
+	      (isSsl() ? ", SSL clientAuth " + isSslClientAuth() : ""));
+  }
+
+  /** Connections are accepted by a selector thread */
+  @Override
+  void ensureListener() {
+  }
+
+  @Override
+  PeerChannelFactory getPeerChannelFactory() {
+    if (nioChanFact == null) {
+      nioChanFact = new NioPeerChannelFactory();
+    }
+    return nioChanFact;
+  }
+
+  /** Return the selector thread that should run the next channel */
+  synchronized SelectorThread nextSelectorThread() {
+    SelectorThread[] sels = selectors;
+    if (sels == null) {
+      return null;
+    }
+    nextSelector = (nextSelector + 1) % sels.length;
+    return sels[nextSelector];
+  }
+
+  /** Return the number of selector threads */
+  int getSelectorThreadCount() {
+    SelectorThread[] sels = selectors;
+    return sels == null ? 0 : sels.length;
+  }
+
+  /** Create an SSLEngine for a new channel */
+  SSLEngine newSSLEngine(boolean isClient) throws IOException {
+    if (sslContext == null) {
+      throw new IOException("no SSL context");
+    }
+    SSLEngine engine = sslContext.createSSLEngine();
+    engine.setUseClientMode(isClient);
+    if (!isClient) {
+      engine.setNeedClientAuth(isSslClientAuth());
+    }
+    disableSelectedProtocols(engine);
+    return engine;
+  }
+
+  // process a channel returned by accept()
+  void processIncomingChannel(SocketChannel sc) throws IOException {
+    sc.configureBlocking(false);
+    setupOpenSocket(sc.socket());
+    log.debug2("Accepted connection from " +
+	       new IPAddr(sc.socket().getInetAddress()));
+    BlockingPeerChannel chan =
+      getPeerChannelFactory().newPeerChannel(this, sc.socket());
+    chan.startIncoming();
+  }
+
+  static void closeChannel(Channel ch) {
+    if (ch != null) {
+      try {
+	ch.close();
+      } catch (IOException e) {
+      }
+    }
+  }
+
+  /** Creates NioPeerChannels.  Sockets are created by the channels
+   * themselves. */
+  class NioPeerChannelFactory implements PeerChannelFactory {
+    public BlockingPeerChannel newPeerChannel(BlockingStreamComm comm,
+					      Socket sock)
+	throws IOException {
+      return new NioPeerChannel((NioStreamComm)comm, sock.getChannel());
+    }
+
+    public BlockingPeerChannel newPeerChannel(BlockingStreamComm comm,
+					      PeerIdentity peer)
+	throws IOException {
+      return new NioPeerChannel((NioStreamComm)comm, peer);
+    }
+  }
+
+  /** Runs the I/O of some number of channels, and tasks handed to it by
+   * other threads */
+  class SelectorThread extends CommThread {
+    private volatile boolean goOn = true;
+    private final Selector selector;
+    private final ConcurrentLinkedQueue<Runnable> tasks =
+      new ConcurrentLinkedQueue<Runnable>();
+    private long lastCheck = 0;
+
+    SelectorThread(String name) throws IOException {
+      super(name);
+      selector = Selector.open();
+    }
+
+    /** Run the task on this thread */
+    void execute(Runnable task) {
+      tasks.add(task);
+      selector.wakeup();
+    }
+
+    boolean isCurrentThread() {
+      return Thread.currentThread() == this;
+    }
+
+    /** Register a channel with this thread's selector.  Must be called
+     * on this thread. */
+    SelectionKey register(SelectableChannel ch, int ops, NioPeerChannel chan)
+	throws ClosedChannelException {
+      return ch.register(selector, ops, chan);
+    }
+
+    void registerListener(final ServerSocketChannel ssc) throws IOException {
+      // register() blocks while the thread is in select(), so have the
+      // thread do it
+      FutureTask<SelectionKey> task =
+	new FutureTask<SelectionKey>(new Callable<SelectionKey>() {
+	    public SelectionKey call() throws IOException {
+	      return ssc.register(selector, SelectionKey.OP_ACCEPT);
+	    }});
+      execute(task);
+      try {
+	task.get();
+      } catch (InterruptedException e) {
+	throw new InterruptedIOException(e.toString());
+      } catch (ExecutionException e) {
+	if (e.getCause() instanceof IOException) {
+	  throw (IOException)e.getCause();
+	}
+	throw new RuntimeException(e.getCause());
+      }
+    }
+
+    public void lockssRun() {
+      setPriority(PRIORITY_PARAM_CHANNEL, PRIORITY_DEFAULT_CHANNEL);
+      triggerWDogOnExit(true);
+      nowRunning();
+      while (goOn) {
+	try {
+	  runTasks();
+	  selector.select(paramCheckInterval);
+	  if (!goOn) {
+	    break;
+	  }
+	  Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+	  while (iter.hasNext()) {
+	    SelectionKey key = iter.next();
+	    iter.remove();
+	    Object att = key.attachment();
+	    if (att instanceof NioPeerChannel) {
+	      ((NioPeerChannel)att).handleReady(key);
+	    } else if (key.isValid() && key.isAcceptable()) {
+	      acceptConnections((ServerSocketChannel)key.channel());
+	    }
+	  }
+	  long now = System.currentTimeMillis();
+	  if (now - lastCheck >= paramCheckInterval) {
+	    lastCheck = now;
+	    checkChannels();
+	  }
+	} catch (IOException e) {
+	  log.warning("Selector", e);
+	} catch (RuntimeException e) {
+	  log.error("Selector", e);
+	}
+      }
+      for (SelectionKey key : selector.keys()) {
+	Object att = key.attachment();
+	if (att instanceof NioPeerChannel) {
+	  ((NioPeerChannel)att).abortChannel();
+	}
+      }
+      runTasks();
+      try {
+	selector.close();
+      } catch (IOException e) {
+	log.warning("Closing selector", e);
+      }
+      triggerWDogOnExit(false);
+    }
+
+    private void runTasks() {
+      Runnable task;
+      while ((task = tasks.poll()) != null) {
+	try {
+	  task.run();
+	} catch (RuntimeException e) {
+	  log.error("Selector task", e);
+	}
+      }
+    }
+
+    private void acceptConnections(ServerSocketChannel ssc) {
+      SocketChannel sc;
+      try {
+	while ((sc = ssc.accept()) != null) {
+	  try {
+	    processIncomingChannel(sc);
+	  } catch (IOException e) {
+	    log.warning("Listener", e);
+	    closeChannel(sc);
+	  }
+	}
+      } catch (IOException e) {
+	if (goOn) {
+	  log.warning("Listener", e);
+	}
+      }
+    }
+
+    // check for timeouts and idle channels
+    private void checkChannels() {
+      for (SelectionKey key : new ArrayList<SelectionKey>(selector.keys())) {
+	Object att = key.attachment();
+	if (att instanceof NioPeerChannel) {
+	  ((NioPeerChannel)att).checkTimeouts();
+	}
+      }
+    }
+
+    void stopCommThread() {
+      goOn = false;
+      selector.wakeup();
+    }
+  }
+}
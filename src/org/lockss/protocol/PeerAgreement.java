@@ -32,6 +32,8 @@ in this Software without prior written authorization from Stanford University.
 
 package org.lockss.protocol;
 
+import java.io.*;
+
 import org.lockss.util.LockssSerializable;
 
 
@@ -200,4 +202,18 @@ final public class PeerAgreement implements LockssSerializable {
 
     return new PeerAgreement(agr, agrTime, high, highTime);
   }
+
+  /** Write the fields, for the binary agreement journal */
+  void writeTo(DataOutput out) throws IOException {
+    out.writeFloat(percentAgreement);
+    out.writeLong(percentAgreementTime);
+    out.writeFloat(highestPercentAgreement);
+    out.writeLong(highestPercentAgreementTime);
+  }
+
+  /** Read an instance written by {@link #writeTo} */
+  static PeerAgreement readFrom(DataInput in) throws IOException {
+    return new PeerAgreement(in.readFloat(), in.readLong(),
+			     in.readFloat(), in.readLong());
+  }
 }
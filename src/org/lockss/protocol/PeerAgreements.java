@@ -32,8 +32,10 @@ in this Software without prior written authorization from Stanford University.
 
 package org.lockss.protocol;
 
+import java.io.*;
 import java.util.*;
 import org.lockss.util.LockssSerializable;
+import org.lockss.util.Logger;
 
 /* NOTE: Instances of this class are not public. {@link
  * IdentityManagerImpl} uses this class internally.
@@ -44,6 +46,8 @@ import org.lockss.util.LockssSerializable;
  * poll agreements between this cache and another peer.
  */
 class PeerAgreements implements LockssSerializable {
+  private static final Logger log = Logger.getLogger(PeerAgreements.class);
+
   // The String representing the other peer.
   private String id;
   // A Map detailing the agreements with the other peer.
@@ -167,4 +171,41 @@ class PeerAgreements implements LockssSerializable {
     map.put(type, peerAgreement);
   }
 
+  /**
+   * Encode the agreements as a record for the binary agreement
+   * journal.  The id is the record's key, so isn't included.
+   */
+  byte[] encode() throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream(64);
+    DataOutputStream out = new DataOutputStream(bos);
+    out.writeByte(map.size());
+    for (Map.Entry<AgreementType, PeerAgreement> ent : map.entrySet()) {
+      out.writeUTF(ent.getKey().name());
+      ent.getValue().writeTo(out);
+    }
+    out.flush();
+    return bos.toByteArray();
+  }
+
+  /**
+   * Decode a record written by {@link #encode}.
+   * @param id The string representing the peer.
+   */
+  static PeerAgreements decode(String id, byte[] rec) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(rec));
+    EnumMap<AgreementType, PeerAgreement> map =
+      new EnumMap<AgreementType, PeerAgreement>(AgreementType.class);
+    int n = in.readUnsignedByte();
+    for (int ix = 0; ix < n; ix++) {
+      String typeName = in.readUTF();
+      PeerAgreement peerAgreement = PeerAgreement.readFrom(in);
+      try {
+	map.put(AgreementType.valueOf(typeName), peerAgreement);
+      } catch (IllegalArgumentException e) {
+	// Written by a later daemon; keep the ones we know.
+	log.debug("Ignoring unknown agreement type: " + typeName);
+      }
+    }
+    return new PeerAgreements(id, map);
+  }
 }
@@ -32,6 +32,7 @@ in this Software without prior written authorization from Stanford University.
 
 package org.lockss.protocol;
 
+import java.io.*;
 import java.util.*;
 import org.lockss.protocol.V3LcapMessage.PollNak;
 import org.lockss.util.*;
@@ -376,4 +377,86 @@ public class PeerIdentityStatus implements LockssSerializable {
     setLastRejectionTime(TimeBase.nowMs());
   }
 
+  // Version of the binary encoding written by encode()
+  static final int ENCODING_VERSION = 1;
+
+  /**
+   * Encode this status as a record for the binary IDDB journal.  As
+   * with the XML IDDB, only the key of the LcapIdentity is saved.
+   */
+  byte[] encode() throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream(128);
+    DataOutputStream out = new DataOutputStream(bos);
+    out.writeByte(ENCODING_VERSION);
+    writeNullableUTF(out,
+		     lcapIdentity == null ? null : lcapIdentity.getIdKey());
+    out.writeLong(lastMessageTime);
+    out.writeInt(lastMessageOpCode);
+    out.writeInt(totalVoterPolls);
+    out.writeInt(totalPollerPolls);
+    out.writeInt(totalRejectedPolls);
+    out.writeLong(totalPollInvitations);
+    out.writeLong(totalMessages);
+    out.writeLong(lastPollerTime);
+    out.writeLong(lastVoterTime);
+    out.writeLong(lastRejectionTime);
+    out.writeLong(lastPollInvitationTime);
+    writeNullableUTF(out, lastPollNak == null ? null : lastPollNak.name());
+    writeNullableUTF(out, groups);
+    out.writeLong(lastGroupTime);
+    out.flush();
+    return bos.toByteArray();
+  }
+
+  /**
+   * Decode a record written by {@link #encode}.
+   * @param pid The peer the record is for.
+   * @param idMgr Supplies the unique LcapIdentity for the peer.
+   */
+  static PeerIdentityStatus decode(byte[] rec, PeerIdentity pid,
+				   IdentityManager idMgr)
+      throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(rec));
+    int ver = in.readUnsignedByte();
+    if (ver != ENCODING_VERSION) {
+      throw new IOException("Unknown PeerIdentityStatus encoding: " + ver);
+    }
+    String idKey = readNullableUTF(in);
+    PeerIdentityStatus status =
+      new PeerIdentityStatus(idMgr.findLcapIdentity(pid, idKey));
+    status.lastMessageTime = in.readLong();
+    status.lastMessageOpCode = in.readInt();
+    status.totalVoterPolls = in.readInt();
+    status.totalPollerPolls = in.readInt();
+    status.totalRejectedPolls = in.readInt();
+    status.totalPollInvitations = in.readLong();
+    status.totalMessages = in.readLong();
+    status.lastPollerTime = in.readLong();
+    status.lastVoterTime = in.readLong();
+    status.lastRejectionTime = in.readLong();
+    status.lastPollInvitationTime = in.readLong();
+    String nak = readNullableUTF(in);
+    if (nak != null) {
+      try {
+	status.lastPollNak = PollNak.valueOf(nak);
+      } catch (IllegalArgumentException e) {
+	// From a later version; not worth losing the rest over
+      }
+    }
+    status.groups = readNullableUTF(in);
+    status.lastGroupTime = in.readLong();
+    return status;
+  }
+
+  private static void writeNullableUTF(DataOutput out, String s)
+      throws IOException {
+    out.writeBoolean(s != null);
+    if (s != null) {
+      out.writeUTF(s);
+    }
+  }
+
+  private static String readNullableUTF(DataInput in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
 }
@@ -26,6 +26,7 @@ import java.io.*;
 import java.util.*;
 
 import org.mortbay.util.*;
+import org.apache.commons.io.input.BoundedInputStream;
 
 import org.lockss.app.*;
 import org.lockss.config.*;
@@ -49,6 +50,21 @@ public class V3LcapMessage extends LcapMessage implements LockssSerializable {
     Configuration.PREFIX + "poll.v3.repairDataThreshold";
   public static final int DEFAULT_REPAIR_DATA_THRESHOLD = 1024*32; // 32K
 
+  /** If true, advertise support for the compact binary vote block
+   * encoding, and use it to send vote blocks to peers that advertise
+   * it.  Vote blocks are always sent in the original encoding to peers
+   * that don't. */
+  public static final String PARAM_BINARY_VOTE_BLOCKS =
+    Configuration.PREFIX + "poll.v3.binaryVoteBlocks";
+  public static final boolean DEFAULT_BINARY_VOTE_BLOCKS = true;
+
+  /** If true, the vote blocks in a message received into a file are left
+   * in that file, via a hard link from the poll's state dir, rather than
+   * copied out of it.  They're copied if the link can't be made. */
+  public static final String PARAM_LINK_RECEIVED_VOTE_BLOCKS =
+    Configuration.PREFIX + "poll.v3.linkReceivedVoteBlocks";
+  public static final boolean DEFAULT_LINK_RECEIVED_VOTE_BLOCKS = true;
+
   static final int EST_ENCODED_HEADER_LENGTH = 100;
 
   public static final int MSG_POLL = 10;
@@ -134,6 +150,13 @@ public class V3LcapMessage extends LcapMessage implements LockssSerializable {
   //      encoded directly into the stream, like repair data.  Shipped with
   //      daemon 1.16.
   //  1 - Initial Release.  Shipped with daemon 1.12.
+  //
+  // Vote block encodings are negotiated separately from the protocol
+  // revision, as voters refuse polls whose revision differs from their
+  // own.  Each message advertises the highest encoding its sender
+  // accepts in "vbAccept"; vote blocks are sent in the highest encoding
+  // both peers accept, recorded in "vbEnc".  Both properties are absent
+  // (i.e., VoteBlock.ENCODING_PROPS) in messages from older peers.
   public static final int V3_PROTOCOL_R1 = 1;
   public static final int V3_PROTOCOL_R2 = 2;
   public static final int V3_PROTOCOL_R3 = 3;
@@ -170,6 +193,11 @@ public class V3LcapMessage extends LcapMessage implements LockssSerializable {
 
   /** In Vote messages: A list of vote blocks for this vote. */
   VoteBlocks m_voteBlocks;
+
+  /** Highest vote block encoding understood by the peer at the other end:
+   * advertised by the sender of a received message, or supplied by the
+   * creator of a message to be sent. */
+  private int m_peerVoteBlockEncoding = VoteBlock.ENCODING_PROPS;
   
   /*
    * Note:  voteDeadline has been deprecated in favor of voteDuration.  
@@ -239,6 +267,9 @@ public class V3LcapMessage extends LcapMessage implements LockssSerializable {
   /** File used to store vote blocks, repair data, etc. */
   private transient File m_messageDir;
 
+  /** Received message file being decoded, if any */
+  private transient File m_msgFile;
+
   private String m_repairDataFilePath; // If not null, repair data is on disk
   private byte[] m_repairDataByteArray; // If not null, repair data is in memory
 
@@ -388,6 +419,27 @@ public class V3LcapMessage extends LcapMessage implements LockssSerializable {
                        LockssApp daemon)
       throws IOException {
     this(messageDir, daemon);
+    decodeReceivedMsg(inputStream);
+  }
+
+  /**
+   * Construct a V3LcapMessage from a file containing a received message.
+   * Any vote blocks are left in the file rather than copied, if possible.
+   */
+  public V3LcapMessage(File msgFile, File messageDir, LockssApp daemon)
+      throws IOException {
+    this(messageDir, daemon);
+    m_msgFile = msgFile;
+    InputStream in = new FileInputStream(msgFile);
+    try {
+      decodeReceivedMsg(in);
+    } finally {
+      IOUtil.safeClose(in);
+      m_msgFile = null;
+    }
+  }
+
+  private void decodeReceivedMsg(InputStream inputStream) throws IOException {
     try {
       decodeMsg(inputStream);
     } catch (ProtocolException ex) {
@@ -411,6 +463,14 @@ public class V3LcapMessage extends LcapMessage implements LockssSerializable {
     return isV2Compat ? V3_PROTOCOL_REV_V2 : V3_PROTOCOL_REV_V1;
   }
 
+  /** Return the highest vote block encoding this daemon is configured
+   * to accept and send, one of VoteBlock.ENCODING_XXX */
+  public static int getSupportedVoteBlockEncoding() {
+    return CurrentConfig.getBooleanParam(PARAM_BINARY_VOTE_BLOCKS,
+					 DEFAULT_BINARY_VOTE_BLOCKS)
+      ? VoteBlock.ENCODING_BINARY : VoteBlock.ENCODING_PROPS;
+  }
+
   /**
    * Build out this message from an InputStream.
    *
@@ -421,7 +481,9 @@ public class V3LcapMessage extends LcapMessage implements LockssSerializable {
     long elapsed;
 
     // the mutable stuff
-    DataInputStream dis = new DataInputStream(is);
+    BoundedInputStream cis =
+      BoundedInputStream.builder().setInputStream(is).get();
+    DataInputStream dis = new DataInputStream(cis);
     // read in the three header bytes
     for (int i = 0; i < signature.length; i++) {
       if (signature[i] != dis.readByte()) {
@@ -499,6 +561,14 @@ public class V3LcapMessage extends LcapMessage implements LockssSerializable {
       }
     }
     
+    // The vote block encoding the sender accepts, and the one in which
+    // the vote blocks in this message (if any) are encoded.  Both are
+    // absent in messages from peers that predate the binary encoding.
+    m_peerVoteBlockEncoding =
+      Math.min(m_props.getInt("vbAccept", VoteBlock.ENCODING_PROPS),
+	       VoteBlock.MAX_ENCODING);
+    int voteBlockEncoding = m_props.getInt("vbEnc", VoteBlock.ENCODING_PROPS);
+
     // If we have vote blocks, pass them to a VoteBlock object.
     int voteBlockCount = dis.readInt();
     m_repairDataLen = dis.readLong();
@@ -510,7 +580,24 @@ public class V3LcapMessage extends LcapMessage implements LockssSerializable {
       // (They would get stored in the system tempdir, where they would
       // accumulate because nothing knows to delete them.)
       if (stateDir != null) {
-	m_voteBlocks = new DiskVoteBlocks(voteBlockCount, dis, stateDir);
+	if (voteBlockEncoding < VoteBlock.ENCODING_PROPS
+	    || voteBlockEncoding > VoteBlock.MAX_ENCODING) {
+	  throw new ProtocolException("Unsupported vote block encoding: " +
+				      voteBlockEncoding);
+	}
+	if (m_msgFile != null && m_repairDataLen == 0
+	    && CurrentConfig.getBooleanParam(PARAM_LINK_RECEIVED_VOTE_BLOCKS,
+					     DEFAULT_LINK_RECEIVED_VOTE_BLOCKS)) {
+	  // The blocks run from here to the end of the file
+	  m_voteBlocks =
+	    DiskVoteBlocks.fromMessageFile(voteBlockCount, m_msgFile,
+					   cis.getCount(), stateDir,
+					   voteBlockEncoding);
+	}
+	if (m_voteBlocks == null) {
+	  m_voteBlocks = new DiskVoteBlocks(voteBlockCount, dis, stateDir,
+					    voteBlockEncoding);
+	}
       }
     }
 
@@ -592,7 +679,12 @@ public class V3LcapMessage extends LcapMessage implements LockssSerializable {
     inputStreams.add(headerInputStream);
 
     if (m_voteBlocks != null && m_voteBlocks.size() > 0) {
-      inputStreams.add(m_voteBlocks.getInputStream());
+      if (m_voteBlocks instanceof DiskVoteBlocks) {
+	inputStreams.add(((DiskVoteBlocks)m_voteBlocks)
+			 .getInputStream(getVoteBlockWireEncoding()));
+      } else {
+	inputStreams.add(m_voteBlocks.getInputStream());
+      }
     }
 
     if (m_repairDataLen > 0) {
@@ -694,6 +786,42 @@ public class V3LcapMessage extends LcapMessage implements LockssSerializable {
     if (m_weightedAgreementHint >= 0.0) {
       m_props.putDouble("weightedAgreementHint", m_weightedAgreementHint);
     }
+    int supportedEncoding = getSupportedVoteBlockEncoding();
+    if (supportedEncoding != VoteBlock.ENCODING_PROPS) {
+      m_props.putInt("vbAccept", supportedEncoding);
+    }
+    if (m_voteBlocks != null && m_voteBlocks.size() > 0) {
+      int wireEncoding = getVoteBlockWireEncoding();
+      if (wireEncoding != VoteBlock.ENCODING_PROPS) {
+	m_props.putInt("vbEnc", wireEncoding);
+      }
+    }
+  }
+
+  /** The encoding in which this message's vote blocks are sent: the
+   * highest one understood by both ends. */
+  int getVoteBlockWireEncoding() {
+    if (!(m_voteBlocks instanceof DiskVoteBlocks)) {
+      return VoteBlock.ENCODING_PROPS;
+    }
+    return Math.min(getSupportedVoteBlockEncoding(), m_peerVoteBlockEncoding);
+  }
+
+  /**
+   * In received messages, the highest vote block encoding understood by
+   * the sender.  In messages to be sent, the highest one understood by
+   * the recipient.
+   */
+  public int getPeerVoteBlockEncoding() {
+    return m_peerVoteBlockEncoding;
+  }
+
+  /**
+   * Set the highest vote block encoding understood by the recipient of
+   * this message, as advertised in a message received from it.
+   */
+  public void setPeerVoteBlockEncoding(int encoding) {
+    m_peerVoteBlockEncoding = encoding;
   }
 
   /**
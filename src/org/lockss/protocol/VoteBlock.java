@@ -58,6 +58,19 @@ public class VoteBlock implements LockssSerializable {
   private static final String[] voteTypeStrings = 
       { "Content", "Header", "Metadata" };
 
+  /* Encodings of a sequence of vote blocks. */
+  /** Each block is a short length followed by an {@link EncodedProperty}
+   * (see {@link #getEncoded()}).  Understood by all V3 peers. */
+  public static final int ENCODING_PROPS = 0;
+  /** Each block is written by {@link #writeBinary(DataOutput, String)}:
+   * varint lengths, the URL delta-encoded against the preceding block's
+   * URL, and raw hash bytes. */
+  public static final int ENCODING_BINARY = 1;
+  /** The highest encoding this daemon knows how to read. */
+  public static final int MAX_ENCODING = ENCODING_BINARY;
+
+  private static final int VERSION_FLAG_HASH_ERROR = 0x01;
+
   // private VoteBlock.Version[] versionArray;
   private List versions;
   
@@ -130,6 +143,143 @@ public class VoteBlock implements LockssSerializable {
     props.putEncodedPropertyList(VB_VERSIONS, vers);
     return props.encode();
   }
+
+  /**
+   * Write this block in the binary encoding ({@link #ENCODING_BINARY}).
+   * The URL is written as the number of leading characters it shares
+   * with <code>prevUrl</code> followed by the UTF-8 bytes of the rest, so
+   * a sequence of blocks in URL order costs little more than the distinct
+   * URL suffixes.
+   *
+   * @param out the output
+   * @param prevUrl the URL of the block written immediately before this
+   * one, or null if this is the first block in the sequence
+   */
+  public void writeBinary(DataOutput out, String prevUrl) throws IOException {
+    int shared = sharedPrefixLength(prevUrl, url);
+    byte[] suffix = url.substring(shared).getBytes(Constants.ENCODING_UTF_8);
+    writeVarLong(out, shared);
+    writeVarLong(out, suffix.length);
+    out.write(suffix);
+    writeVarLong(out, voteType & 0xFFFFFFFFL);
+    writeVarLong(out, versions.size());
+    for (Iterator iter = versions.iterator(); iter.hasNext(); ) {
+      VoteBlock.Version ver = (VoteBlock.Version)iter.next();
+      out.writeByte(ver.getHashError() ? VERSION_FLAG_HASH_ERROR : 0);
+      writeVarLong(out, ver.getUnfilteredOffset());
+      writeVarLong(out, ver.getUnfilteredLength());
+      writeVarLong(out, ver.getFilteredOffset());
+      writeVarLong(out, ver.getFilteredLength());
+      writeBytes(out, ver.getPlainHash());
+      writeBytes(out, ver.getHash());
+    }
+  }
+
+  /**
+   * Read a block written by {@link #writeBinary(DataOutput, String)}.
+   *
+   * @param in the input
+   * @param prevUrl the URL of the block read immediately before this one,
+   * or null if this is the first block in the sequence
+   * @throws EOFException if the input is positioned at its end
+   */
+  public static VoteBlock readBinary(DataInput in, String prevUrl)
+      throws IOException {
+    int shared = readVarInt(in);
+    byte[] suffix = readBytes(in);
+    if (shared > (prevUrl == null ? 0 : prevUrl.length())) {
+      throw new ProtocolException("Shared URL prefix (" + shared +
+				  ") longer than previous URL: " + prevUrl);
+    }
+    String suffixStr = new String(suffix, Constants.ENCODING_UTF_8);
+    String url =
+      shared == 0 ? suffixStr : prevUrl.substring(0, shared) + suffixStr;
+    VoteBlock vb = new VoteBlock(url, (int)readVarLong(in));
+    int nVersions = readVarInt(in);
+    vb.versions = new ArrayList(nVersions);
+    for (int ix = 0; ix < nVersions; ix++) {
+      int flags = in.readUnsignedByte();
+      long unfilteredOffset = readVarLong(in);
+      long unfilteredLength = readVarLong(in);
+      long filteredOffset = readVarLong(in);
+      long filteredLength = readVarLong(in);
+      byte[] plainHash = readBytes(in);
+      byte[] noncedHash = readBytes(in);
+      vb.versions.add(new VoteBlock.Version(filteredOffset, filteredLength,
+					    unfilteredOffset,
+					    unfilteredLength,
+					    plainHash, noncedHash,
+					    (flags & VERSION_FLAG_HASH_ERROR)
+					    != 0));
+    }
+    return vb;
+  }
+
+  /** Number of leading chars url shares with prevUrl, never splitting a
+   * surrogate pair. */
+  static int sharedPrefixLength(String prevUrl, String url) {
+    if (prevUrl == null) {
+      return 0;
+    }
+    int max = Math.min(prevUrl.length(), url.length());
+    int res = 0;
+    while (res < max && prevUrl.charAt(res) == url.charAt(res)) {
+      res++;
+    }
+    if (res > 0 && Character.isHighSurrogate(url.charAt(res - 1))) {
+      res--;
+    }
+    return res;
+  }
+
+  static void writeBytes(DataOutput out, byte[] b) throws IOException {
+    if (b == null) {
+      writeVarLong(out, 0);
+    } else {
+      writeVarLong(out, b.length);
+      out.write(b);
+    }
+  }
+
+  static byte[] readBytes(DataInput in) throws IOException {
+    int len = readVarInt(in);
+    if (len == 0) {
+      return ByteArray.EMPTY_BYTE_ARRAY;
+    }
+    byte[] res = new byte[len];
+    in.readFully(res);
+    return res;
+  }
+
+  /** Write an unsigned LEB128 varint: seven bits per byte, low-order
+   * group first, high bit set on all but the last byte. */
+  static void writeVarLong(DataOutput out, long val) throws IOException {
+    while ((val & ~0x7FL) != 0) {
+      out.writeByte((int)((val & 0x7F) | 0x80));
+      val >>>= 7;
+    }
+    out.writeByte((int)val);
+  }
+
+  static long readVarLong(DataInput in) throws IOException {
+    long res = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      int b = in.readUnsignedByte();
+      res |= (long)(b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+	return res;
+      }
+    }
+    throw new ProtocolException("Malformed varint");
+  }
+
+  static int readVarInt(DataInput in) throws IOException {
+    long res = readVarLong(in);
+    if (res < 0 || res > Integer.MAX_VALUE) {
+      throw new ProtocolException("Varint out of range: " + res);
+    }
+    return (int)res;
+  }
   
   /**
    * Return an iterator over the versions of this vote block.
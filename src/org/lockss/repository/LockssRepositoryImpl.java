@@ -33,6 +33,7 @@ import java.net.*;
 import java.util.*;
 import java.util.stream.*;
 
+import org.apache.commons.collections.map.LRUMap;
 import org.apache.commons.lang3.SystemUtils;
 import org.lockss.app.*;
 import org.lockss.config.*;
@@ -97,9 +98,14 @@ public class LockssRepositoryImpl
 
   private RepositoryManager repoMgr;
   private String rootLocation;
-  UniqueRefLruCache nodeCache;
+  UniqueRefCache nodeCache;
   private boolean isGlobalNodeCache =
     RepositoryManager.DEFAULT_GLOBAL_CACHE_ENABLED;
+  // Node dir path -> RepositoryNodeImpl.ChildIndex, null if disabled
+  private LRUMap childIndexCache;
+  // Incremented whenever a child index is invalidated
+  private long childIndexGeneration = 0;
+  private PackedPropsIndex propsIndex;
 
   LockssRepositoryImpl(String rootPath) {
     rootLocation = FileUtil.addSeparator(rootPath);
@@ -119,9 +125,33 @@ public class LockssRepositoryImpl
 // 	new UniqueRefLruCache(repoMgr.paramNodeCacheSize);
       setNodeCacheSize(repoMgr.paramNodeCacheSize);
     }
+    setChildIndexCacheSize(repoMgr.paramChildIndexCacheSize);
+    File auDir = new File(rootLocation);
+    // The index holds the only copy of the props, so failure to open or
+    // unpack it must not go unnoticed
+    if (repoMgr.paramPackedPropsIndex) {
+      try {
+	propsIndex = PackedPropsIndex.open(auDir);
+      } catch (IOException e) {
+	logger.error("Couldn't open packed props index in " + auDir, e);
+	throw new LockssRepository.RepositoryStateException("Couldn't open packed props index", e);
+      }
+    } else if (PackedPropsIndex.hasIndex(auDir)) {
+      try {
+	int n = PackedPropsIndex.unpack(auDir);
+	logger.info("Unpacked " + n + " props files in " + auDir);
+      } catch (IOException e) {
+	logger.error("Couldn't unpack packed props index in " + auDir, e);
+	throw new LockssRepository.RepositoryStateException("Couldn't unpack packed props index", e);
+      }
+    }
   }
 
   public void stopService() {
+    if (propsIndex != null) {
+      propsIndex.close();
+      propsIndex = null;
+    }
     // mainly important in testing to blank this
     lastPluginDir = INITIAL_PLUGIN_DIR;
     if (CurrentConfig.getBooleanParam(PARAM_CLEAR_DIR_MAP,
@@ -139,6 +169,69 @@ public class LockssRepositoryImpl
     }
   }
 
+  /** Set the maximum number of node child indexes to cache; 0 disables
+   * caching */
+  public synchronized void setChildIndexCacheSize(int size) {
+    if (size <= 0) {
+      childIndexCache = null;
+    } else if (childIndexCache == null) {
+      childIndexCache = new LRUMap(size);
+    } else if (childIndexCache.maxSize() != size) {
+      LRUMap newMap = new LRUMap(size);
+      newMap.putAll(childIndexCache);
+      childIndexCache = newMap;
+    }
+    childIndexGeneration++;
+  }
+
+  synchronized boolean isChildIndexCacheEnabled() {
+    return childIndexCache != null;
+  }
+
+  /** Return the packed props index, or null if not in use */
+  PackedPropsIndex getPackedPropsIndex() {
+    return propsIndex;
+  }
+
+  /** Return the generation number to pass to {@link #putChildIndex} */
+  synchronized long getChildIndexGeneration() {
+    return childIndexGeneration;
+  }
+
+  /** Return the cached child index of the node in nodeDir, or null */
+  synchronized RepositoryNodeImpl.ChildIndex getChildIndex(File nodeDir) {
+    if (childIndexCache == null) {
+      return null;
+    }
+    return (RepositoryNodeImpl.ChildIndex)childIndexCache.get(nodeDir.getPath());
+  }
+
+  /** Cache the child index of the node in nodeDir, unless any index has
+   * been invalidated since generation was obtained, as this one might be
+   * stale. */
+  synchronized void putChildIndex(File nodeDir,
+				  RepositoryNodeImpl.ChildIndex index,
+				  long generation) {
+    if (childIndexCache != null && generation == childIndexGeneration) {
+      childIndexCache.put(nodeDir.getPath(), index);
+    }
+  }
+
+  /** Invalidate the cached child indexes of all the ancestors of the node
+   * in nodeDir, whose listings might include it or its ancestors. */
+  synchronized void invalidateChildIndexes(File nodeDir) {
+    childIndexGeneration++;
+    if (childIndexCache == null || childIndexCache.isEmpty()) {
+      return;
+    }
+    String rootPath = new File(rootLocation).getPath();
+    for (File dir = nodeDir.getParentFile();
+	 dir != null && dir.getPath().startsWith(rootPath);
+	 dir = dir.getParentFile()) {
+      childIndexCache.remove(dir.getPath());
+    }
+  }
+
   /** Called between initService() and startService(), then whenever the
    * AU's config changes.
    * @param auConfig the new configuration
@@ -238,10 +331,10 @@ public class LockssRepositoryImpl
   }
 
   // functions for testing
-  int getCacheHits() { return nodeCache.getCacheHits(); }
-  int getCacheMisses() { return nodeCache.getCacheMisses(); }
-  int getRefHits() { return nodeCache.getRefHits(); }
-  int getRefMisses() { return nodeCache.getRefMisses(); }
+  long getCacheHits() { return nodeCache.getCacheHits(); }
+  long getCacheMisses() { return nodeCache.getCacheMisses(); }
+  long getRefHits() { return nodeCache.getRefHits(); }
+  long getRefMisses() { return nodeCache.getRefMisses(); }
 
   public void nodeConsistencyCheck() {
     // traverse the node tree from the top
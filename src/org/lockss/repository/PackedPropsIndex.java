@@ -0,0 +1,1058 @@
+/*
+
+Copyright (c) 2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+
+package org.lockss.repository;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.CRC32;
+
+import org.apache.commons.io.IOUtils;
+
+import org.lockss.util.*;
+
+/**
+ * Optional per-AU packed store of the repository's properties files (node
+ * props, current, versioned, inactive and temp props, hash caches), which
+ * replaces the individual files while in use.  Each file is a record in an
+ * append-only log in the AU directory, keyed by its path relative to the
+ * AU directory.  A version's record also carries the size of its content
+ * file.  An open-addressing hash table in a second file maps each key to
+ * the offset of its latest record.  Both files are memory-mapped, and
+ * grown in chunks.<br>
+ * The log is authoritative.  If the index wasn't closed cleanly the end
+ * of the log is recovered by checking record checksums, and the table is
+ * rebuilt from it.<br>
+ * An AU whose props files predate the index is read through to the files
+ * until {@link #convert()} (or {@link #main(String[])}) has moved them
+ * into the index.  {@link #unpack(File)} writes the records back out as
+ * files, for when the index is disabled.
+ */
+public class PackedPropsIndex {
+  private static final Logger log = Logger.getLogger("PackedPropsIndex");
+
+  static final String LOG_FILENAME = "#props_index";
+  static final String TABLE_FILENAME = "#props_index.table";
+  static final String OPEN_MARKER_FILENAME = "#props_index.open";
+  static final String TEMP_LOG_FILENAME = "#props_index.temp";
+
+  static final int LOG_MAGIC = 0x4c50504b;
+  static final int TABLE_MAGIC = 0x4c505054;
+  static final int FORMAT_VERSION = 2;
+
+  // Log header: magic, format version, generation, flags, end of records
+  static final int LOG_HEADER_LEN = 32;
+  private static final int LOG_GEN_POS = 8;
+  private static final int LOG_FLAGS_POS = 16;
+  static final int LOG_END_POS = 24;
+
+  // Set when the AU's props files have all been moved into the index
+  static final int FLAG_COMPLETE = 1;
+
+  // Table header: magic, format version, generation, capacity, count,
+  // used slots, bytes in live records, end of log it reflects
+  static final int TABLE_HEADER_LEN = 48;
+  private static final int TABLE_GEN_POS = 8;
+  private static final int TABLE_CAP_POS = 16;
+  private static final int TABLE_COUNT_POS = 20;
+  private static final int TABLE_USED_POS = 24;
+  private static final int TABLE_LIVE_POS = 32;
+  private static final int TABLE_LOGEND_POS = 40;
+
+  // Table slot values other than record offsets
+  private static final long EMPTY = 0;
+  private static final long TOMBSTONE = -1;
+
+  // Record: op(1) keyLen(2) key removeLen(2) removeKey mtime(8) size(8)
+  // dataLen(4) data crc(4).  A put may also remove another key, which
+  // makes a rename a single record.
+  static final byte OP_PUT = 1;
+  static final byte OP_REMOVE = 2;
+  private static final int RECORD_OVERHEAD = 29;
+
+  static final int MIN_LOG_CHUNK = 64 * 1024;
+  static final int MAX_LOG_CHUNK = 64 * 1024 * 1024;
+  static final int MIN_TABLE_CAPACITY = 1024;
+
+  // Compact when opening if the log is more than this many times the size
+  // of the live records
+  static final int COMPACT_RATIO = 3;
+  static final long COMPACT_MIN_SIZE = 1024 * 1024;
+
+  private final File auDir;
+  private final String rootPath;
+  private final File logFile;
+  private final File tableFile;
+  private final File markerFile;
+
+  private RandomAccessFile logRaf;
+  private FileChannel logChan;
+  private MappedByteBuffer logMap;
+  private long logEnd;
+  private long generation;
+  private int flags;
+
+  private RandomAccessFile tableRaf;
+  private FileChannel tableChan;
+  private MappedByteBuffer tableMap;
+  private int capacity;
+  private int count;
+  private int used;
+  private long liveBytes;
+
+  private PackedPropsIndex(File auDir) {
+    this.auDir = auDir;
+    rootPath = auDir.getAbsolutePath() + File.separator;
+    logFile = new File(auDir, LOG_FILENAME);
+    tableFile = new File(auDir, TABLE_FILENAME);
+    markerFile = new File(auDir, OPEN_MARKER_FILENAME);
+  }
+
+  /**
+   * Open the index in an AU directory, creating it if necessary.
+   * @param auDir the AU's repository directory
+   */
+  public static PackedPropsIndex open(File auDir) throws IOException {
+    PackedPropsIndex index = new PackedPropsIndex(auDir);
+    try {
+      index.open0();
+    } catch (IOException e) {
+      index.closeFiles();
+      throw e;
+    }
+    return index;
+  }
+
+  /** Return true if the AU directory has an index */
+  public static boolean hasIndex(File auDir) {
+    return new File(auDir, LOG_FILENAME).exists();
+  }
+
+  /**
+   * Write every file in the AU's index back out as a file, then delete
+   * the index.  Must be called before the AU's repository is used with
+   * the index disabled.
+   * @param auDir the AU's repository directory
+   * @return the number of files written
+   */
+  public static int unpack(File auDir) throws IOException {
+    if (!hasIndex(auDir)) {
+      return 0;
+    }
+    PackedPropsIndex index = open(auDir);
+    int res = 0;
+    try {
+      for (long off : index.liveOffsets(null)) {
+	File file = new File(auDir, index.readKey(off));
+	FileUtil.ensureDirExists(file.getParentFile());
+	OutputStream os = FileUtil.newFileOutputStream(file);
+	try {
+	  os.write(index.readData(off));
+	} finally {
+	  IOUtil.safeClose(os);
+	}
+	file.setLastModified(index.mtime(off));
+	res++;
+      }
+    } finally {
+      index.close();
+    }
+    index.logFile.delete();
+    index.tableFile.delete();
+    log.debug("Unpacked " + res + " files from " + index.logFile);
+    return res;
+  }
+
+  private void open0() throws IOException {
+    boolean recover = markerFile.exists();
+    boolean isNew = !logFile.exists();
+    FileUtil.ensureDirExists(auDir);
+    if (!markerFile.exists() && !markerFile.createNewFile()) {
+      throw new IOException("Couldn't create " + markerFile);
+    }
+    if (!openLog()) {
+      if (!isNew) {
+	log.error("Discarding index with bad header: " + logFile);
+      }
+      initLog(1, isNew && !hasPropsFiles(auDir) ? FLAG_COMPLETE : 0);
+      recover = false;
+    } else if (recover || logEnd < 0) {
+      log.warning("Index not closed cleanly, recovering: " + logFile);
+      recover = true;
+      recoverLogEnd();
+    }
+    if (recover || !openTable()) {
+      rebuildTable();
+    }
+    if (logEnd > COMPACT_MIN_SIZE && logEnd > COMPACT_RATIO * liveBytes) {
+      compact();
+    }
+  }
+
+  /** True if any props files exist in the directory or any directory
+   * below it */
+  private static boolean hasPropsFiles(File dir) {
+    File[] files = dir.listFiles();
+    if (files == null) {
+      return false;
+    }
+    for (File file : files) {
+      if (file.isDirectory() ? hasPropsFiles(file)
+	  : isPropsFile(file.getName())) {
+	return true;
+      }
+    }
+    return false;
+  }
+
+  /** Open and map the log, return false if its header isn't valid */
+  private boolean openLog() throws IOException {
+    logRaf = new RandomAccessFile(logFile, "rw");
+    logChan = logRaf.getChannel();
+    long len = logRaf.length();
+    if (len < LOG_HEADER_LEN || len > Integer.MAX_VALUE) {
+      return false;
+    }
+    mapLog((int)len);
+    if (logMap.getInt(0) != LOG_MAGIC
+	|| logMap.getInt(4) != FORMAT_VERSION) {
+      return false;
+    }
+    generation = logMap.getLong(LOG_GEN_POS);
+    flags = logMap.getInt(LOG_FLAGS_POS);
+    logEnd = logMap.getLong(LOG_END_POS);
+    if (logEnd < LOG_HEADER_LEN || logEnd > len) {
+      // Must be recovered by scanning
+      logEnd = -1;
+    }
+    return true;
+  }
+
+  private void initLog(long gen, int flags) throws IOException {
+    unmap(logMap);
+    logMap = null;
+    logRaf.setLength(0);
+    ensureLogCapacity(LOG_HEADER_LEN);
+    logMap.putInt(0, LOG_MAGIC);
+    logMap.putInt(4, FORMAT_VERSION);
+    generation = gen;
+    logMap.putLong(LOG_GEN_POS, gen);
+    this.flags = flags;
+    logMap.putInt(LOG_FLAGS_POS, flags);
+    setLogEnd(LOG_HEADER_LEN);
+  }
+
+  private void mapLog(int len) throws IOException {
+    unmap(logMap);
+    logMap = logChan.map(FileChannel.MapMode.READ_WRITE, 0, len);
+  }
+
+  /** Grow the log file and its mapping, by at least a chunk, if it's
+   * smaller than need */
+  private void ensureLogCapacity(long need) throws IOException {
+    long cap = logMap == null ? 0 : logMap.capacity();
+    if (need <= cap) {
+      return;
+    }
+    while (cap < need) {
+      cap += Math.max(MIN_LOG_CHUNK, Math.min(cap, MAX_LOG_CHUNK));
+    }
+    if (cap > Integer.MAX_VALUE) {
+      throw new IOException("Index too large: " + logFile);
+    }
+    unmap(logMap);
+    logMap = null;
+    logRaf.setLength(cap);
+    mapLog((int)cap);
+  }
+
+  private void setLogEnd(long end) {
+    logEnd = end;
+    logMap.putLong(LOG_END_POS, end);
+    if (tableMap != null) {
+      tableMap.putLong(TABLE_LOGEND_POS, end);
+    }
+  }
+
+  /** Find the end of the valid records following the recorded end,
+   * and clear anything after it */
+  private void recoverLogEnd() {
+    if (logEnd < 0) {
+      logEnd = LOG_HEADER_LEN;
+    }
+    long pos = logEnd;
+    int len;
+    while ((len = validRecordLength(pos)) > 0) {
+      pos += len;
+    }
+    if (pos != logEnd) {
+      log.debug("Recovered " + (pos - logEnd) + " bytes in " + logFile);
+    }
+    for (int ix = (int)pos; ix < logMap.capacity(); ix++) {
+      logMap.put(ix, (byte)0);
+    }
+    setLogEnd(pos);
+  }
+
+  /** Return the length of the record at pos, or -1 if there isn't a
+   * complete one with a good checksum */
+  private int validRecordLength(long start) {
+    int cap = logMap.capacity();
+    int pos = (int)start;
+    if (pos + 3 > cap) return -1;
+    byte op = logMap.get(pos);
+    if (op != OP_PUT && op != OP_REMOVE) return -1;
+    pos += 3 + (logMap.getShort(pos + 1) & 0xffff);
+    if (pos + 2 > cap) return -1;
+    pos += 2 + (logMap.getShort(pos) & 0xffff);
+    if (pos + 20 > cap) return -1;
+    int dataLen = logMap.getInt(pos + 16);
+    if (dataLen < 0 || dataLen > cap - pos - 24) return -1;
+    pos += 20 + dataLen;
+    CRC32 crc = new CRC32();
+    ByteBuffer buf = logMap.duplicate();
+    buf.position((int)start).limit(pos);
+    crc.update(buf);
+    if ((int)crc.getValue() != logMap.getInt(pos)) return -1;
+    return pos + 4 - (int)start;
+  }
+
+  /** Open and map the table, return false if it doesn't reflect the
+   * log */
+  private boolean openTable() throws IOException {
+    tableRaf = new RandomAccessFile(tableFile, "rw");
+    tableChan = tableRaf.getChannel();
+    long len = tableRaf.length();
+    if (len < TABLE_HEADER_LEN) {
+      return false;
+    }
+    ByteBuffer hdr = ByteBuffer.allocate(TABLE_HEADER_LEN);
+    tableChan.read(hdr, 0);
+    int cap = hdr.getInt(TABLE_CAP_POS);
+    if (hdr.getInt(0) != TABLE_MAGIC
+	|| hdr.getInt(4) != FORMAT_VERSION
+	|| hdr.getLong(TABLE_GEN_POS) != generation
+	|| hdr.getLong(TABLE_LOGEND_POS) != logEnd
+	|| cap < MIN_TABLE_CAPACITY || Integer.bitCount(cap) != 1
+	|| len != tableLength(cap)) {
+      log.debug("Table doesn't match log: " + tableFile);
+      return false;
+    }
+    mapTable(cap, false);
+    count = tableMap.getInt(TABLE_COUNT_POS);
+    used = tableMap.getInt(TABLE_USED_POS);
+    liveBytes = tableMap.getLong(TABLE_LIVE_POS);
+    return true;
+  }
+
+  private static long tableLength(int cap) {
+    return TABLE_HEADER_LEN + 8L * cap;
+  }
+
+  /** Size and map the table file, optionally writing an empty table */
+  private void mapTable(int cap, boolean init) throws IOException {
+    if (tableLength(cap) > Integer.MAX_VALUE) {
+      throw new IOException("Index table too large: " + tableFile);
+    }
+    unmap(tableMap);
+    tableMap = null;
+    if (init) {
+      tableRaf.setLength(0);
+    }
+    tableRaf.setLength(tableLength(cap));
+    tableMap = tableChan.map(FileChannel.MapMode.READ_WRITE, 0,
+			     tableLength(cap));
+    capacity = cap;
+    if (init) {
+      tableMap.putInt(0, TABLE_MAGIC);
+      tableMap.putInt(4, FORMAT_VERSION);
+      tableMap.putLong(TABLE_GEN_POS, generation);
+      tableMap.putInt(TABLE_CAP_POS, cap);
+      tableMap.putLong(TABLE_LOGEND_POS, logEnd);
+      count = 0;
+      used = 0;
+      liveBytes = 0;
+      writeTableCounts();
+    }
+  }
+
+  private void writeTableCounts() {
+    tableMap.putInt(TABLE_COUNT_POS, count);
+    tableMap.putInt(TABLE_USED_POS, used);
+    tableMap.putLong(TABLE_LIVE_POS, liveBytes);
+  }
+
+  /** Rebuild the table by replaying the log */
+  private void rebuildTable() throws IOException {
+    if (tableRaf == null) {
+      tableRaf = new RandomAccessFile(tableFile, "rw");
+      tableChan = tableRaf.getChannel();
+    }
+    mapTable(MIN_TABLE_CAPACITY, true);
+    long pos = LOG_HEADER_LEN;
+    while (pos < logEnd) {
+      byte[] removeKey = readRemoveKeyBytes(pos);
+      if (removeKey.length > 0) {
+	tableRemove(removeKey);
+      }
+      if (logMap.get((int)pos) == OP_PUT) {
+	tablePut(readKeyBytes(pos), pos);
+      } else {
+	tableRemove(readKeyBytes(pos));
+      }
+      pos += recordLength(pos);
+    }
+    tableMap.putLong(TABLE_LOGEND_POS, logEnd);
+  }
+
+  /** Rewrite the log with only the live records */
+  private void compact() throws IOException {
+    File tmp = new File(auDir, TEMP_LOG_FILENAME);
+    long oldSize = logEnd;
+    RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+    try {
+      raf.setLength(0);
+      DataOutputStream dos =
+	new DataOutputStream(new BufferedOutputStream(new FileOutputStream(raf.getFD())));
+      dos.writeInt(LOG_MAGIC);
+      dos.writeInt(FORMAT_VERSION);
+      dos.writeLong(generation + 1);
+      dos.writeInt(flags);
+      dos.writeInt(0);
+      dos.writeLong(0);
+      long end = LOG_HEADER_LEN;
+      for (long off : liveOffsets(null)) {
+	byte[] rec = encodeRecord(OP_PUT, readKeyBytes(off), null,
+				  mtime(off), contentSize(off),
+				  readData(off));
+	dos.write(rec);
+	end += rec.length;
+      }
+      dos.flush();
+      raf.seek(LOG_END_POS);
+      raf.writeLong(end);
+    } finally {
+      IOUtil.safeClose(raf);
+    }
+    closeFiles();
+    if (!PlatformUtil.updateAtomically(tmp, logFile)) {
+      throw new IOException("Couldn't rename " + tmp + " to " + logFile);
+    }
+    if (!openLog()) {
+      throw new IOException("Compacted index unreadable: " + logFile);
+    }
+    rebuildTable();
+    log.debug("Compacted " + logFile + " from " + oldSize + " to " + logEnd);
+  }
+
+  /**
+   * Return the contents of the file, or null if it doesn't exist.
+   */
+  public synchronized byte[] get(File file) throws IOException {
+    byte[] key = keyBytes(file);
+    long off = lookup(key);
+    if (off > 0) {
+      return readData(off);
+    }
+    if (isComplete()) {
+      return null;
+    }
+    try {
+      return readFile(file);
+    } catch (FileNotFoundException e) {
+      return null;
+    }
+  }
+
+  /** Return true if the file exists */
+  public synchronized boolean exists(File file) {
+    long off = lookup(keyBytes(file));
+    if (off > 0) {
+      return true;
+    }
+    return !isComplete() && file.exists();
+  }
+
+  /** Return the time the file was last written, or 0 if it doesn't
+   * exist */
+  public synchronized long lastModified(File file) {
+    long off = lookup(keyBytes(file));
+    if (off > 0) {
+      return mtime(off);
+    }
+    return isComplete() ? 0 : file.lastModified();
+  }
+
+  /** Return the size of the content file belonging to the version whose
+   * properties are in the file, or -1 if not known */
+  public synchronized long getContentSize(File file) {
+    long off = lookup(keyBytes(file));
+    return off > 0 ? contentSize(off) : -1;
+  }
+
+  /** Write the file.  A content size already recorded for it is
+   * kept. */
+  public synchronized void put(File file, byte[] data) throws IOException {
+    byte[] key = keyBytes(file);
+    long off = lookup(key);
+    put0(key, null, TimeBase.nowMs(), off > 0 ? contentSize(off) : -1,
+	 data);
+    deleteLegacy(file);
+  }
+
+  /** Write the file, recording the size of the version's content */
+  public synchronized void put(File file, byte[] data, long contentSize)
+      throws IOException {
+    put0(keyBytes(file), null, TimeBase.nowMs(), contentSize, data);
+    deleteLegacy(file);
+  }
+
+  /** Delete the file.
+   * @return true iff it existed */
+  public synchronized boolean remove(File file) throws IOException {
+    byte[] key = keyBytes(file);
+    boolean res = false;
+    if (lookup(key) > 0) {
+      append(encodeRecord(OP_REMOVE, key, null, 0, -1, null));
+      tableRemove(key);
+      res = true;
+    }
+    return deleteLegacy(file) || res;
+  }
+
+  /** Rename a file, replacing any existing target.  The content size
+   * recorded for the source, or if none, for the target, is kept.
+   * @return false if the source doesn't exist */
+  public synchronized boolean rename(File from, File to)
+      throws IOException {
+    return rename(from, to, -1);
+  }
+
+  /** Rename a file, replacing any existing target, and record the size
+   * of the version's content if contentSize isn't negative.
+   * @return false if the source doesn't exist */
+  public synchronized boolean rename(File from, File to, long contentSize)
+      throws IOException {
+    byte[] fromKey = keyBytes(from);
+    byte[] toKey = keyBytes(to);
+    if (Arrays.equals(fromKey, toKey)) {
+      return exists(from);
+    }
+    byte[] data;
+    long mtime;
+    long size;
+    long off = lookup(fromKey);
+    if (off > 0) {
+      data = readData(off);
+      mtime = mtime(off);
+      size = contentSize(off);
+    } else if (!isComplete() && from.exists()) {
+      data = readFile(from);
+      mtime = from.lastModified();
+      size = -1;
+    } else {
+      return false;
+    }
+    if (contentSize >= 0) {
+      size = contentSize;
+    } else if (size < 0) {
+      long toOff = lookup(toKey);
+      if (toOff > 0) {
+	size = contentSize(toOff);
+      }
+    }
+    put0(toKey, fromKey, mtime, size, data);
+    deleteLegacy(from);
+    deleteLegacy(to);
+    return true;
+  }
+
+  /** Move the files in or below one directory to another, after the
+   * directory has been moved */
+  public synchronized void renameTree(File fromDir, File toDir)
+      throws IOException {
+    String fromPrefix = keyOf(fromDir) + File.separator;
+    String toPrefix = keyOf(toDir) + File.separator;
+    for (long off : liveOffsets(fromPrefix)) {
+      String key = readKey(off);
+      put0(utf8(toPrefix + key.substring(fromPrefix.length())), utf8(key),
+	   mtime(off), contentSize(off), readData(off));
+    }
+  }
+
+  /** Delete the files in or below the directory, after the directory has
+   * been deleted */
+  public synchronized void removeTree(File dir) throws IOException {
+    String prefix = keyOf(dir) + File.separator;
+    for (long off : liveOffsets(prefix)) {
+      byte[] key = readKeyBytes(off);
+      append(encodeRecord(OP_REMOVE, key, null, 0, -1, null));
+      tableRemove(key);
+    }
+  }
+
+  /** Return the names of the files the index holds directly in the
+   * directory */
+  public synchronized List<String> list(File dir) {
+    String prefix = keyOf(dir) + File.separator;
+    List<String> res = new ArrayList<String>();
+    for (long off : liveOffsets(prefix)) {
+      String name = readKey(off).substring(prefix.length());
+      if (name.indexOf(File.separatorChar) < 0) {
+	res.add(name);
+      }
+    }
+    return res;
+  }
+
+  /** Return the number of files the index holds */
+  public synchronized int size() {
+    return count;
+  }
+
+  /** Return the length of the log */
+  public synchronized long getLogSize() {
+    return logEnd;
+  }
+
+  /** Return true if the AU's props files are all in the index */
+  public synchronized boolean isComplete() {
+    return (flags & FLAG_COMPLETE) != 0;
+  }
+
+  /** Close the index, marking it clean */
+  public synchronized void close() {
+    if (logChan == null) {
+      return;
+    }
+    try {
+      logMap.force();
+      tableMap.force();
+      closeFiles();
+      markerFile.delete();
+    } catch (RuntimeException e) {
+      log.error("Couldn't close " + logFile, e);
+      closeFiles();
+    }
+  }
+
+  private void closeFiles() {
+    unmap(logMap);
+    logMap = null;
+    unmap(tableMap);
+    tableMap = null;
+    // closes the channels too
+    IOUtil.safeClose(logRaf);
+    IOUtil.safeClose(tableRaf);
+    logRaf = null;
+    logChan = null;
+    tableRaf = null;
+    tableChan = null;
+  }
+
+  /**
+   * Move all the AU's properties files into the index, deleting the
+   * files, and mark the index complete, so missing files are no longer
+   * looked for on disk.
+   * @return the number of files moved
+   */
+  public synchronized int convert() throws IOException {
+    int res = addTree(auDir);
+    flags |= FLAG_COMPLETE;
+    logMap.putInt(LOG_FLAGS_POS, flags);
+    logMap.force();
+    return res;
+  }
+
+  /** Add the props files in dir and below to the log.  Each directory's
+   * files are deleted only after the log records holding them have been
+   * forced to disk, so a crash can't lose them. */
+  private int addTree(File dir) throws IOException {
+    File[] files = dir.listFiles();
+    if (files == null) {
+      return 0;
+    }
+    List<File> added = new ArrayList<File>();
+    List<File> subdirs = new ArrayList<File>();
+    for (File file : files) {
+      if (file.isDirectory()) {
+	subdirs.add(file);
+      } else if (isPropsFile(file.getName())) {
+	byte[] key = keyBytes(file);
+	if (lookup(key) <= 0) {
+	  File content = contentFileFor(file);
+	  put0(key, null, file.lastModified(),
+	       content != null && content.exists() ? content.length() : -1,
+	       readFile(file));
+	}
+	added.add(file);
+      }
+    }
+    if (!added.isEmpty()) {
+      logMap.force();
+      for (File file : added) {
+	if (!file.delete()) {
+	  throw new IOException("Couldn't delete " + file);
+	}
+      }
+    }
+    int res = added.size();
+    for (File subdir : subdirs) {
+      res += addTree(subdir);
+    }
+    return res;
+  }
+
+  static boolean isPropsFile(String name) {
+    return name.equals(RepositoryNodeImpl.NODE_PROPS_FILENAME)
+      || name.endsWith(RepositoryNodeImpl.PROPS_EXTENSION)
+      || name.endsWith(RepositoryNodeImpl.HASH_CACHE_EXTENSION)
+      || name.matches("\\d+\\" + RepositoryNodeImpl.PROPS_EXTENSION + "-\\d+");
+  }
+
+  /** Return the content file described by a current, inactive or
+   * numbered props file, or null */
+  static File contentFileFor(File propsFile) {
+    String name = propsFile.getName();
+    if (name.equals(RepositoryNodeImpl.CURRENT_PROPS_FILENAME)
+	|| name.equals(RepositoryNodeImpl.INACTIVE_PROPS_FILENAME)
+	|| name.matches("\\d+\\" + RepositoryNodeImpl.PROPS_EXTENSION)) {
+      return new File(propsFile.getParentFile(),
+		      StringUtil.removeTrailing(name,
+						RepositoryNodeImpl.PROPS_EXTENSION));
+    }
+    return null;
+  }
+
+  static byte[] readFile(File file) throws IOException {
+    InputStream is = FileUtil.newFileInputStream(file);
+    try {
+      return IOUtils.toByteArray(is);
+    } finally {
+      IOUtil.safeClose(is);
+    }
+  }
+
+  /** Delete a file written before the index was in use.  The log is
+   * forced first, as the record just appended may hold its contents. */
+  private boolean deleteLegacy(File file) {
+    if (isComplete() || !file.exists()) {
+      return false;
+    }
+    logMap.force();
+    return file.delete();
+  }
+
+  private void put0(byte[] key, byte[] removeKey, long mtime, long size,
+		    byte[] data) throws IOException {
+    long off = append(encodeRecord(OP_PUT, key, removeKey, mtime, size,
+				   data));
+    if (removeKey != null) {
+      tableRemove(removeKey);
+    }
+    tablePut(key, off);
+  }
+
+  /** Append a record, return its offset */
+  private long append(byte[] rec) throws IOException {
+    long off = logEnd;
+    ensureLogCapacity(off + rec.length);
+    ByteBuffer buf = logMap.duplicate();
+    buf.position((int)off);
+    buf.put(rec);
+    setLogEnd(off + rec.length);
+    return off;
+  }
+
+  private static byte[] encodeRecord(byte op, byte[] key, byte[] removeKey,
+				     long mtime, long size, byte[] data) {
+    if (removeKey == null) {
+      removeKey = new byte[0];
+    }
+    if (data == null) {
+      data = new byte[0];
+    }
+    ByteBuffer buf = ByteBuffer.allocate(RECORD_OVERHEAD + key.length
+					 + removeKey.length + data.length);
+    buf.put(op);
+    buf.putShort((short)key.length).put(key);
+    buf.putShort((short)removeKey.length).put(removeKey);
+    buf.putLong(mtime).putLong(size);
+    buf.putInt(data.length).put(data);
+    CRC32 crc = new CRC32();
+    crc.update(buf.array(), 0, buf.position());
+    buf.putInt((int)crc.getValue());
+    return buf.array();
+  }
+
+  // Record field accessors, given the record's offset
+
+  private int keyLength(long off) {
+    return logMap.getShort((int)off + 1) & 0xffff;
+  }
+
+  private int removeKeyPos(long off) {
+    return (int)off + 3 + keyLength(off);
+  }
+
+  private int metaPos(long off) {
+    int pos = removeKeyPos(off);
+    return pos + 2 + (logMap.getShort(pos) & 0xffff);
+  }
+
+  private long mtime(long off) {
+    return logMap.getLong(metaPos(off));
+  }
+
+  private long contentSize(long off) {
+    return logMap.getLong(metaPos(off) + 8);
+  }
+
+  private int recordLength(long off) {
+    int pos = metaPos(off);
+    return pos + 24 + logMap.getInt(pos + 16) - (int)off;
+  }
+
+  private byte[] readData(long off) {
+    int pos = metaPos(off);
+    byte[] res = new byte[logMap.getInt(pos + 16)];
+    ByteBuffer buf = logMap.duplicate();
+    buf.position(pos + 20);
+    buf.get(res);
+    return res;
+  }
+
+  private byte[] readKeyBytes(long off) {
+    byte[] res = new byte[keyLength(off)];
+    ByteBuffer buf = logMap.duplicate();
+    buf.position((int)off + 3);
+    buf.get(res);
+    return res;
+  }
+
+  private byte[] readRemoveKeyBytes(long off) {
+    int pos = removeKeyPos(off);
+    byte[] res = new byte[logMap.getShort(pos) & 0xffff];
+    ByteBuffer buf = logMap.duplicate();
+    buf.position(pos + 2);
+    buf.get(res);
+    return res;
+  }
+
+  private String readKey(long off) {
+    return new String(readKeyBytes(off), StandardCharsets.UTF_8);
+  }
+
+  private boolean keyEquals(long off, byte[] key) {
+    if (keyLength(off) != key.length) {
+      return false;
+    }
+    int pos = (int)off + 3;
+    for (int ix = 0; ix < key.length; ix++) {
+      if (logMap.get(pos + ix) != key[ix]) {
+	return false;
+      }
+    }
+    return true;
+  }
+
+  // Hash table
+
+  private static int hash(byte[] key) {
+    // FNV-1a
+    int h = 0x811c9dc5;
+    for (byte b : key) {
+      h = (h ^ (b & 0xff)) * 0x01000193;
+    }
+    return h ^ (h >>> 16);
+  }
+
+  private long slot(int ix) {
+    return tableMap.getLong(TABLE_HEADER_LEN + 8 * ix);
+  }
+
+  private void setSlot(int ix, long val) {
+    tableMap.putLong(TABLE_HEADER_LEN + 8 * ix, val);
+  }
+
+  /** Return the slot holding the key, or -(slot to insert it at) - 1 */
+  private int findSlot(byte[] key) {
+    int mask = capacity - 1;
+    int ix = hash(key) & mask;
+    int free = -1;
+    while (true) {
+      long val = slot(ix);
+      if (val == EMPTY) {
+	return -1 - (free >= 0 ? free : ix);
+      }
+      if (val == TOMBSTONE) {
+	if (free < 0) {
+	  free = ix;
+	}
+      } else if (keyEquals(val, key)) {
+	return ix;
+      }
+      ix = (ix + 1) & mask;
+    }
+  }
+
+  /** Return the offset of the key's record, or -1 */
+  private long lookup(byte[] key) {
+    int ix = findSlot(key);
+    return ix >= 0 ? slot(ix) : -1;
+  }
+
+  private void tablePut(byte[] key, long off) throws IOException {
+    ensureTableRoom();
+    int ix = findSlot(key);
+    if (ix >= 0) {
+      liveBytes -= recordLength(slot(ix));
+    } else {
+      ix = -1 - ix;
+      if (slot(ix) == EMPTY) {
+	used++;
+      }
+      count++;
+    }
+    setSlot(ix, off);
+    liveBytes += recordLength(off);
+    writeTableCounts();
+  }
+
+  private void tableRemove(byte[] key) {
+    int ix = findSlot(key);
+    if (ix >= 0) {
+      liveBytes -= recordLength(slot(ix));
+      setSlot(ix, TOMBSTONE);
+      count--;
+      writeTableCounts();
+    }
+  }
+
+  /** Keep at least half the slots empty, growing the table or clearing
+   * tombstones as needed */
+  private void ensureTableRoom() throws IOException {
+    if ((used + 1) * 2L <= capacity) {
+      return;
+    }
+    int newCap = (count + 1) * 4L > capacity ? capacity * 2 : capacity;
+    long[] live = new long[count];
+    int n = 0;
+    for (int ix = 0; ix < capacity; ix++) {
+      long val = slot(ix);
+      if (val > 0) {
+	live[n++] = val;
+      }
+    }
+    long saveLive = liveBytes;
+    mapTable(newCap, true);
+    for (int jx = 0; jx < n; jx++) {
+      int ix = -1 - findSlot(readKeyBytes(live[jx]));
+      setSlot(ix, live[jx]);
+    }
+    count = n;
+    used = n;
+    liveBytes = saveLive;
+    writeTableCounts();
+  }
+
+  /** Return the offsets of the live records, those whose keys start with
+   * the prefix if it's not null */
+  private List<Long> liveOffsets(String prefix) {
+    byte[] pre = prefix == null ? null : utf8(prefix);
+    List<Long> res = new ArrayList<Long>();
+    for (int ix = 0; ix < capacity; ix++) {
+      long val = slot(ix);
+      if (val > 0 && (pre == null || keyStartsWith(val, pre))) {
+	res.add(val);
+      }
+    }
+    return res;
+  }
+
+  private boolean keyStartsWith(long off, byte[] pre) {
+    if (keyLength(off) < pre.length) {
+      return false;
+    }
+    int pos = (int)off + 3;
+    for (int ix = 0; ix < pre.length; ix++) {
+      if (logMap.get(pos + ix) != pre[ix]) {
+	return false;
+      }
+    }
+    return true;
+  }
+
+  private String keyOf(File file) {
+    String path = file.getAbsolutePath();
+    if (!path.startsWith(rootPath)) {
+      throw new IllegalArgumentException("Not in " + auDir + ": " + file);
+    }
+    return path.substring(rootPath.length());
+  }
+
+  private byte[] keyBytes(File file) {
+    byte[] res = utf8(keyOf(file));
+    if (res.length > 0xffff) {
+      throw new IllegalArgumentException("Path too long: " + file);
+    }
+    return res;
+  }
+
+  private static byte[] utf8(String s) {
+    return s.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static void unmap(MappedByteBuffer map) {
+    if (map != null) {
+      CountingRandomAccessFile.unmap(map);
+    }
+  }
+
+  /**
+   * Converts existing AUs, moving their properties files into their
+   * packed indexes.  Run while the daemon is stopped.
+   * @param args the AU repository directories
+   */
+  public static void main(String[] args) throws IOException {
+    for (String dir : args) {
+      File auDir = new File(dir);
+      PackedPropsIndex index = PackedPropsIndex.open(auDir);
+      try {
+	int n = index.convert();
+	log.info(dir + ": " + n + " files, " + index.getLogSize() + " bytes");
+      } finally {
+	index.close();
+      }
+    }
+  }
+}
@@ -69,6 +69,20 @@ public class RepositoryManager
     PREFIX + "suspectVersionsCache.size";
   public static final int DEFAULT_MAX_SUSPECT_VERSIONS_CACHE_SIZE = 10;
 
+  /** Maximum number of per-AU node child listings to cache, so that
+   * repeated tree walks needn't list directories.  0 disables. */
+  public static final String PARAM_CHILD_INDEX_CACHE_SIZE =
+    PREFIX + "childIndexCache.size";
+  public static final int DEFAULT_CHILD_INDEX_CACHE_SIZE = 20;
+
+  /** If true, each AU's properties files are kept in a packed,
+   * memory-mapped index instead of individual files.  Takes effect when
+   * the AU's repository is started; an AU started with this false has
+   * its index unpacked back into files.  See {@link PackedPropsIndex}. */
+  public static final String PARAM_PACKED_PROPS_INDEX =
+    PREFIX + "packedPropsIndex.enabled";
+  public static final boolean DEFAULT_PACKED_PROPS_INDEX = false;
+
   static final String GLOBAL_CACHE_PREFIX = PREFIX + "globalNodeCache.";
   public static final String PARAM_MAX_GLOBAL_CACHE_SIZE =
     GLOBAL_CACHE_PREFIX + "size";
@@ -163,8 +177,11 @@ public class RepositoryManager
   boolean paramIsGlobalNodeCache = DEFAULT_GLOBAL_CACHE_ENABLED;
   int paramGlobalNodeCacheSize = DEFAULT_MAX_GLOBAL_CACHE_SIZE;
   int paramSuspectVersionsCacheSize = DEFAULT_MAX_SUSPECT_VERSIONS_CACHE_SIZE;
-  UniqueRefLruCache globalNodeCache =
-      new UniqueRefLruCache(DEFAULT_MAX_GLOBAL_CACHE_SIZE);
+  int paramChildIndexCacheSize = DEFAULT_CHILD_INDEX_CACHE_SIZE;
+  boolean paramPackedPropsIndex = DEFAULT_PACKED_PROPS_INDEX;
+  // Shared by all AUs, so striped to avoid contention on a single monitor
+  UniqueRefCache globalNodeCache =
+      new StripedUniqueRefLruCache(DEFAULT_MAX_GLOBAL_CACHE_SIZE);
   UniqueRefLruCache suspectVersionsCache =
     new UniqueRefLruCache(DEFAULT_MAX_SUSPECT_VERSIONS_CACHE_SIZE);
   Map localRepos = new HashMap();
@@ -381,6 +398,20 @@ public class RepositoryManager
 	}
       }
     }
+    paramPackedPropsIndex = config.getBoolean(PARAM_PACKED_PROPS_INDEX,
+					      DEFAULT_PACKED_PROPS_INDEX);
+    if (changedKeys.contains(PARAM_CHILD_INDEX_CACHE_SIZE)) {
+      paramChildIndexCacheSize = config.getInt(PARAM_CHILD_INDEX_CACHE_SIZE,
+					       DEFAULT_CHILD_INDEX_CACHE_SIZE);
+      for (Iterator iter = getDaemon().getAllLockssRepositories().iterator();
+	   iter.hasNext(); ) {
+	LockssRepository repo = (LockssRepository)iter.next();
+	if (repo instanceof LockssRepositoryImpl) {
+	  LockssRepositoryImpl repoImpl = (LockssRepositoryImpl)repo;
+	  repoImpl.setChildIndexCacheSize(paramChildIndexCacheSize);
+	}
+      }
+    }
     if (changedKeys.contains(PARAM_MAX_SUSPECT_VERSIONS_CACHE_SIZE)) {
       paramSuspectVersionsCacheSize =
 	config.getInt(PARAM_MAX_SUSPECT_VERSIONS_CACHE_SIZE,
@@ -625,7 +656,7 @@ public class RepositoryManager
     return paramIsGlobalNodeCache;
   }
 
-  public UniqueRefLruCache getGlobalNodeCache() {
+  public UniqueRefCache getGlobalNodeCache() {
     return globalNodeCache;
   }
 
@@ -141,6 +141,7 @@ public class RepositoryNodeImpl implements RepositoryNode {
   static final String CONTENT_DIR = "#content";
   static final String CURRENT_FILENAME = "current";
   static final String PROPS_EXTENSION = ".props";
+  static final String HASH_CACHE_EXTENSION = ".hashes";
   static final String CURRENT_PROPS_FILENAME = "current.props";
   static final String TEMP_FILENAME = "temp";
   static final String TEMP_PROPS_FILENAME = "temp.props";
@@ -229,7 +230,7 @@ public class RepositoryNodeImpl implements RepositoryNode {
       logger.error("Cannot get size if no content: "+url);
       throw new UnsupportedOperationException("No content to get size from.");
     }
-    return currentCacheFile.length();
+    return getContentSize(currentPropsFile, currentCacheFile);
   }
 
   Object treeSizeLock = new Object();
@@ -268,7 +269,7 @@ public class RepositoryNodeImpl implements RepositoryNode {
       }
       long totalSize = 0;
       if (hasContent()) {
-	totalSize = currentCacheFile.length();
+	totalSize = getContentSize(currentPropsFile, currentCacheFile);
       }
 
       // since RepositoryNodes update and cache tree size, efficient to use them
@@ -327,6 +328,105 @@ public class RepositoryNodeImpl implements RepositoryNode {
    * @return List the child list of RepositoryNodes
    */
   protected List getNodeList(CachedUrlSetSpec filter, boolean includeInactive) {
+    // Fixing unnormalized names alters the directory, so must list it
+    if (repository == null || !repository.isChildIndexCacheEnabled() ||
+	RepositoryManager.getCheckUnnormalizedMode() ==
+	CheckUnnormalizedMode.Fix) {
+      return scanNodeList(filter, includeInactive);
+    }
+    if (nodeRootFile == null)
+      initNodeRoot();
+    ChildIndex index = repository.getChildIndex(nodeRootFile);
+    if (index == null) {
+      long gen = repository.getChildIndexGeneration();
+      index = new ChildIndex(scanNodeList(null, true));
+      repository.putChildIndex(nodeRootFile, index, gen);
+    }
+    ArrayList childL = new ArrayList();
+    for (int ix = 0; ix < index.urls.length; ix++) {
+      String childUrl = index.urls[ix];
+      if ((index.inactiveLeaf[ix] && !includeInactive) ||
+	  (filter != null && !filter.matches(childUrl))) {
+	continue;
+      }
+      try {
+	RepositoryNode node = repository.getNode(childUrl);
+	if (node != null) {
+	  childL.add(node);
+	} else {
+	  logger.warning("Child node not found; disappeared: " + childUrl);
+	}
+      } catch (MalformedURLException e) {
+	logger.error("Malformed child url: "+childUrl);
+      }
+    }
+    return childL;
+  }
+
+  /**
+   * The sorted urls of a node's undeleted immediate children, and whether
+   * each is an inactive leaf.  Cached by LockssRepositoryImpl so that
+   * repeated tree walks needn't list the node's directory or load each
+   * child's properties.  Invalidated by any change that could add a child
+   * or alter a child's state.
+   */
+  static class ChildIndex {
+    final String[] urls;
+    final boolean[] inactiveLeaf;
+
+    ChildIndex(List<RepositoryNode> nodes) {
+      TreeMap<String,Boolean> sorted = new TreeMap<String,Boolean>();
+      for (RepositoryNode node : nodes) {
+	sorted.put(node.getNodeUrl(),
+		   node.isContentInactive() && node.isLeaf());
+      }
+      urls = new String[sorted.size()];
+      inactiveLeaf = new boolean[sorted.size()];
+      int ix = 0;
+      for (Map.Entry<String,Boolean> ent : sorted.entrySet()) {
+	urls[ix] = ent.getKey();
+	inactiveLeaf[ix] = ent.getValue();
+	ix++;
+      }
+    }
+  }
+
+  /** Move the packed props of a node directory that has been moved */
+  void renamePackedProps(File fromDir, File toDir) {
+    PackedPropsIndex index = getPropsIndex();
+    if (index != null) {
+      try {
+	index.renameTree(fromDir, toDir);
+      } catch (IOException e) {
+	logger.error("Couldn't update packed props index: " + fromDir, e);
+      }
+    }
+  }
+
+  /** Remove the packed props of a node directory that has been deleted */
+  void removePackedProps(File dir) {
+    PackedPropsIndex index = getPropsIndex();
+    if (index != null) {
+      try {
+	index.removeTree(dir);
+      } catch (IOException e) {
+	logger.error("Couldn't update packed props index: " + dir, e);
+      }
+    }
+  }
+
+  /** Invalidate the cached child indexes of this node's ancestors */
+  void invalidateChildIndexes() {
+    if (nodeRootFile == null)
+      initNodeRoot();
+    repository.invalidateChildIndexes(nodeRootFile);
+  }
+
+  /**
+   * Lists the node's directory and assembles a list of immediate
+   * children, possibly filtered.
+   */
+  private List scanNodeList(CachedUrlSetSpec filter, boolean includeInactive) {
     if (nodeRootFile == null)
       initNodeRoot();
     if (contentDir == null)
@@ -487,8 +587,10 @@ public class RepositoryNodeImpl implements RepositoryNode {
 	      String newRepoLocation = LockssRepositoryImpl.mapUrlToFileLocation(repository.getRootLocation(), url + location);
 	      logger.debug("Fixing unnormalized " + oldLocation + " => "
 			   + location);
+	      repository.invalidateChildIndexes(child);
 	      FileUtils.copyDirectory(child, new File(newRepoLocation));
 	      FileUtils.deleteDirectory(child);
+	      renamePackedProps(child, new File(newRepoLocation));
 	      break;
 	    case Log:
 	      logger.debug("Detected unnormalized " + oldLocation +
@@ -589,9 +691,11 @@ public class RepositoryNodeImpl implements RepositoryNode {
     case Fix:
       synchronized (this) {
 	if (file.exists()) {
+	  repository.invalidateChildIndexes(file);
 	  if (norm.exists()) {
 	    if (FileUtil.delTree(file)) {
 	      logger.debug("Deleted redundant unnormalized: " + file);
+	      removePackedProps(file);
 	    } else {
 	      logger.error("Couldn't delete unnormalized: " + file);
 	    }
@@ -599,6 +703,7 @@ public class RepositoryNodeImpl implements RepositoryNode {
 	  } else {
 	    if (file.renameTo(norm)) {
 	      logger.debug("Renamed unnormalized: " + file + " to " + norm);
+	      renamePackedProps(file, norm);
 	      all[ix] = norm;
 	    } else {
 	      logger.error("Couldn't rename unnormalized: " + file +
@@ -760,6 +865,7 @@ public class RepositoryNodeImpl implements RepositoryNode {
 							    ") failed for "
 							    + nodeRootFile);
       }
+      invalidateChildIndexes();
     }
   }
 
@@ -778,12 +884,16 @@ public class RepositoryNodeImpl implements RepositoryNode {
 
     // Needs to be done unconditionally in case node or content dir has
     // disappeared.  (Was:   if ( currentVersion == 0) {  )
+    boolean isNewDir = !nodeRootFile.exists();
     if (!FileUtil.ensureDirExists(contentDir)) {
       logger.error("Couldn't create cache directory: " +contentDir);
       throw new LockssRepository.RepositoryStateException("mkdirs(" +
 							  contentDir +
 							  ") failed.");
     }
+    if (isNewDir) {
+      invalidateChildIndexes();
+    }
 
     // if restoring from deletion or inactivation
     if (isContentInactive() || isDeleted()) {
@@ -831,9 +941,8 @@ public class RepositoryNodeImpl implements RepositoryNode {
              !PlatformUtil.updateAtomically(inactiveCacheFile,
                                             currentCacheFile))
             ||
-            (inactivePropsFile.exists() &&
-             !PlatformUtil.updateAtomically(inactivePropsFile,
-                                            currentPropsFile))) {
+            (propsExists(inactivePropsFile) &&
+             !renamePropsFile(inactivePropsFile, currentPropsFile))) {
           logger.error("Couldn't rename inactive versions: " + url);
           throw new LockssRepository.RepositoryStateException(
               "Couldn't rename inactive versions.");
@@ -889,9 +998,9 @@ public class RepositoryNodeImpl implements RepositoryNode {
       // name 'identical version' props differently
       if (isIdenticalVersion) {
         // rename to dated property version, using 'File.lastModified()'
-        long date = currentPropsFile.lastModified();
+        long date = propsLastModified(currentPropsFile);
         verPropsFile = getDatedVersionedPropsFile(currentVersion, date);
-        while (verPropsFile.exists()) {
+        while (propsExists(verPropsFile)) {
           date++;
           verPropsFile = getDatedVersionedPropsFile(currentVersion, date);
         }
@@ -904,9 +1013,8 @@ public class RepositoryNodeImpl implements RepositoryNode {
                                         DEFAULT_KEEP_ALL_PROPS_FOR_DUP_FILE)
                                         || !isIdenticalVersion) {
 	// rename current properties to chosen file name
-	if (currentPropsFile.exists() &&
-	    !PlatformUtil.updateAtomically(currentPropsFile,
-	                                   verPropsFile)) {
+	if (propsExists(currentPropsFile) &&
+	    !renamePropsFile(currentPropsFile, verPropsFile)) {
 	  String err = "Couldn't rename current property file: " + url;
 	  logger.error(err);
 	  throw new LockssRepository.RepositoryStateException(err);
@@ -924,6 +1032,9 @@ public class RepositoryNodeImpl implements RepositoryNode {
         }
         // update version number
         currentVersion++;
+        // a hash cache left by an earlier, removed, version with this
+        // number doesn't describe the new content
+        deleteHashCache(currentVersion);
       } else {
         // remove temp content file, since identical
         tempCacheFile.delete();
@@ -952,8 +1063,8 @@ public class RepositoryNodeImpl implements RepositoryNode {
       }
 
       // rename new properties
-      if (!PlatformUtil.updateAtomically(tempPropsFile,
-                                         currentPropsFile)) {
+      if (!renamePropsFile(tempPropsFile, currentPropsFile,
+			   currentCacheFile.length())) {
         String err = "Couldn't rename temp property version: " + url;
         logger.error(err);
         throw new LockssRepository.RepositoryStateException(err);
@@ -966,6 +1077,7 @@ public class RepositoryNodeImpl implements RepositoryNode {
       newPropsSet = false;
       newVersionOpen = false;
       versionTimeout.expire();
+      invalidateChildIndexes();
       // blank the stored sizes for this and its parents
       if (!isIdenticalVersion ||
 	  CurrentConfig.getBooleanParam(PARAM_INVALIDATE_CACHED_SIZE_ON_DUP_STORE,
@@ -977,15 +1089,93 @@ public class RepositoryNodeImpl implements RepositoryNode {
 
   private void writeProps(File toFile, Properties props, String url)
       throws IOException {
+    storeProps(toFile, props, "HTTP headers for " + url);
+  }
+
+  /** Write a properties file, to the packed index if in use */
+  private void storeProps(File toFile, Properties props, String comment)
+      throws IOException {
+    PackedPropsIndex index = getPropsIndex();
+    if (index != null) {
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      props.store(baos, comment);
+      index.put(toFile, baos.toByteArray());
+      return;
+    }
     OutputStream os = null;
     try {
       os = new BufferedOutputStream(FileUtil.newFileOutputStream(toFile));
-      props.store(os, "HTTP headers for " + url);
+      props.store(os, comment);
     } finally {
       IOUtil.safeClose(os);
     }
   }
 
+  /** Return the AU's packed props index, or null if not in use */
+  PackedPropsIndex getPropsIndex() {
+    return repository == null ? null : repository.getPackedPropsIndex();
+  }
+
+  /** Return true if the properties file exists */
+  boolean propsExists(File file) {
+    PackedPropsIndex index = getPropsIndex();
+    return index != null ? index.exists(file) : file.exists();
+  }
+
+  /** Return the last-modified time of the properties file */
+  long propsLastModified(File file) {
+    PackedPropsIndex index = getPropsIndex();
+    return index != null ? index.lastModified(file) : file.lastModified();
+  }
+
+  /** Rename a properties file */
+  boolean renamePropsFile(File from, File to) {
+    return renamePropsFile(from, to, -1);
+  }
+
+  /** Rename a properties file.  If the packed index is in use and
+   * contentSize isn't negative, record it as the size of the version's
+   * content. */
+  boolean renamePropsFile(File from, File to, long contentSize) {
+    PackedPropsIndex index = getPropsIndex();
+    if (index == null) {
+      return PlatformUtil.updateAtomically(from, to);
+    }
+    try {
+      return index.rename(from, to, contentSize);
+    } catch (IOException e) {
+      logger.error("Couldn't rename in packed props index: " + from, e);
+      return false;
+    }
+  }
+
+  /** Delete a properties file */
+  boolean deletePropsFile(File file) {
+    PackedPropsIndex index = getPropsIndex();
+    if (index == null) {
+      return file.delete();
+    }
+    try {
+      return index.remove(file);
+    } catch (IOException e) {
+      logger.error("Couldn't delete from packed props index: " + file, e);
+      return false;
+    }
+  }
+
+  /** Return the size of the content described by the properties file,
+   * from the packed index if it has it, else from the content file */
+  long getContentSize(File propsFile, File contentFile) {
+    PackedPropsIndex index = getPropsIndex();
+    if (index != null) {
+      long res = index.getContentSize(propsFile);
+      if (res >= 0) {
+	return res;
+      }
+    }
+    return contentFile.length();
+  }
+
   public synchronized void abandonNewVersion() {
     logger.debug2("abandonNewVersion: " + url);
     try {
@@ -995,7 +1185,7 @@ public class RepositoryNodeImpl implements RepositoryNode {
       // clear temp files
       // unimportant if this isn't done, as they're overwritten
       tempCacheFile.delete();
-      tempPropsFile.delete();
+      deletePropsFile(tempPropsFile);
 
       if (wasInactive) {
         // set to reinitialize to force proper state restore
@@ -1034,9 +1224,8 @@ public class RepositoryNodeImpl implements RepositoryNode {
           !PlatformUtil.updateAtomically(currentCacheFile,
                                          getInactiveCacheFile()))
           ||
-          (currentPropsFile.exists() &&
-          !PlatformUtil.updateAtomically(currentPropsFile,
-                                         getInactivePropsFile()))) {
+          (propsExists(currentPropsFile) &&
+          !renamePropsFile(currentPropsFile, getInactivePropsFile()))) {
         logger.error("Couldn't deactivate: " + url);
         throw new LockssRepository.RepositoryStateException(
             "Couldn't deactivate.");
@@ -1053,6 +1242,7 @@ public class RepositoryNodeImpl implements RepositoryNode {
     nodeProps.setProperty(INACTIVE_CONTENT_PROPERTY, "true");
     // remove caching
     invalidateCachedValues(true);
+    invalidateChildIndexes();
 
     currentVersion = INACTIVE_VERSION;
     curProps = null;
@@ -1068,6 +1258,7 @@ public class RepositoryNodeImpl implements RepositoryNode {
     nodeProps.setProperty(DELETION_PROPERTY, "true");
     // blank caches
     invalidateCachedValues(true);
+    invalidateChildIndexes();
 
     currentVersion = DELETED_VERSION;
   }
@@ -1078,6 +1269,7 @@ public class RepositoryNodeImpl implements RepositoryNode {
     // store the deletion value
     nodeProps.remove(DELETION_PROPERTY);
     invalidateCachedValues(true);
+    invalidateChildIndexes();
 
     currentVersion = INACTIVE_VERSION;
 
@@ -1101,8 +1293,7 @@ public class RepositoryNodeImpl implements RepositoryNode {
 
         if (!PlatformUtil.updateAtomically(inactiveCacheFile,
                                            currentCacheFile) ||
-            !PlatformUtil.updateAtomically(inactivePropsFile,
-                                           currentPropsFile)) {
+            !renamePropsFile(inactivePropsFile, currentPropsFile)) {
           logger.error("Couldn't rename inactive versions: "+url);
           throw new LockssRepository.RepositoryStateException("Couldn't rename inactive versions.");
         }
@@ -1111,6 +1302,7 @@ public class RepositoryNodeImpl implements RepositoryNode {
         // remove the inactivation value
         nodeProps.remove(INACTIVE_CONTENT_PROPERTY);
         writeNodeProperties();
+        invalidateChildIndexes();
       }
       return;
     }
@@ -1127,13 +1319,13 @@ public class RepositoryNodeImpl implements RepositoryNode {
     // delete current version
     // XXX probably should rename these instead
     currentCacheFile.delete();
-    currentPropsFile.delete();
+    deletePropsFile(currentPropsFile);
+    deleteHashCache(currentVersion);
 
     // rename old version to current
     if (!PlatformUtil.updateAtomically(lastContentFile,
                                        currentCacheFile) ||
-        !PlatformUtil.updateAtomically(lastPropsFile,
-                                       currentPropsFile)) {
+        !renamePropsFile(lastPropsFile, currentPropsFile)) {
       logger.error("Couldn't rename old versions: "+url);
       throw new LockssRepository.RepositoryStateException("Couldn't rename old versions.");
     }
@@ -1190,8 +1382,17 @@ public class RepositoryNodeImpl implements RepositoryNode {
 
   void loadPropsInto(File propsFile, Properties props)
       throws FileNotFoundException, IOException {
-    InputStream is =
-      new BufferedInputStream(FileUtil.newFileInputStream(propsFile));
+    InputStream is;
+    PackedPropsIndex index = getPropsIndex();
+    if (index != null) {
+      byte[] bytes = index.get(propsFile);
+      if (bytes == null) {
+	throw new FileNotFoundException(propsFile.getPath());
+      }
+      is = new ByteArrayInputStream(bytes);
+    } else {
+      is = new BufferedInputStream(FileUtil.newFileInputStream(propsFile));
+    }
     try {
       props.load(is);
     } catch (IllegalArgumentException e) {
@@ -1284,9 +1485,9 @@ public class RepositoryNodeImpl implements RepositoryNode {
 	} catch (LockssRepositoryImpl.RepositoryStateException rse) {
 	  currentVersion = DELETED_VERSION;
 	  logger.warning("Renaming faulty 'nodeProps' to 'nodeProps.ERROR'");
-	  if (!PlatformUtil.updateAtomically(nodePropsFile,
-					     new File(nodePropsFile.getAbsolutePath()
-						      + FAULTY_FILE_EXTENSION))) {
+	  if (!renamePropsFile(nodePropsFile,
+			       new File(nodePropsFile.getAbsolutePath()
+					+ FAULTY_FILE_EXTENSION))) {
 	    logger.error("Error renaming nodeProps file");
 	  }
 	}
@@ -1493,7 +1694,7 @@ public class RepositoryNodeImpl implements RepositoryNode {
    */
   private int determineLastActiveVersion() {
     File inactivePropFile = getInactivePropsFile();
-    if (inactivePropFile.exists()) {
+    if (propsExists(inactivePropFile)) {
       Properties oldProps = new Properties();
       try {
 	loadPropsInto(inactivePropFile, oldProps);
@@ -1569,15 +1770,15 @@ public class RepositoryNodeImpl implements RepositoryNode {
     }
 
     // -if node properties exists, check that it's readable
-    if (nodePropsFile.exists()) {
+    if (propsExists(nodePropsFile)) {
       try {
         loadNodeProps(false);
       } catch (LockssRepositoryImpl.RepositoryStateException rse) {
         logger.warning("Renaming faulty 'nodeProps' to 'nodeProps.ERROR'");
         // as long as the rename goes correctly, we can proceed
-        if (!PlatformUtil.updateAtomically(nodePropsFile,
-                                           new File(nodePropsFile.getAbsolutePath()
-                                                    + FAULTY_FILE_EXTENSION))) {
+        if (!renamePropsFile(nodePropsFile,
+                             new File(nodePropsFile.getAbsolutePath()
+                                      + FAULTY_FILE_EXTENSION))) {
           logger.error("Error renaming nodeProps file");
           return false;
         }
@@ -1603,14 +1804,14 @@ public class RepositoryNodeImpl implements RepositoryNode {
     // -if content, content files exist
     if (currentVersion>0) {
       if (!checkFileExists(currentCacheFile, "Current cache file") ||
-          !checkFileExists(currentPropsFile, "Current props file")) {
+          !checkPropsExists(currentPropsFile, "Current props file")) {
         return false;
       }
     }
     // -if inactive, inactive files exist
     if (currentVersion==INACTIVE_VERSION) {
       if (!checkFileExists(getInactiveCacheFile(), "Inactive cache file") ||
-          !checkFileExists(getInactivePropsFile(), "Inactive props file")) {
+          !checkPropsExists(getInactivePropsFile(), "Inactive props file")) {
         return false;
       }
     }
@@ -1624,9 +1825,9 @@ public class RepositoryNodeImpl implements RepositoryNode {
       logger.debug("Deleting temp cache file...");
       tempCacheFile.delete();
     }
-    if (tempPropsFile.exists()) {
+    if (propsExists(tempPropsFile)) {
       logger.debug("Deleting temp props file...");
-      tempPropsFile.delete();
+      deletePropsFile(tempPropsFile);
     }
     return true;
   }
@@ -1684,6 +1885,19 @@ public class RepositoryNodeImpl implements RepositoryNode {
     return true;
   }
 
+  /** Like {@link #checkFileExists(File, String)}, for a properties file,
+   * which may be in the packed index */
+  boolean checkPropsExists(File testFile, String desc) {
+    if (getPropsIndex() == null) {
+      return checkFileExists(testFile, desc);
+    }
+    if (!propsExists(testFile)) {
+      logger.warning(desc+" not found.");
+      return false;
+    }
+    return true;
+  }
+
   /**
    * Checks the accuracy of the cached child count, and invalidates it
    * if wrong.
@@ -1719,10 +1933,7 @@ public class RepositoryNodeImpl implements RepositoryNode {
    */
   protected void writeNodeProperties() {
     try {
-      OutputStream os =
-	new BufferedOutputStream(FileUtil.newFileOutputStream(nodePropsFile));
-      nodeProps.store(os, "Node properties");
-      os.close();
+      storeProps(nodePropsFile, nodeProps, "Node properties");
     } catch (IOException ioe) {
       logger.error("Couldn't write node properties for " +
                    nodePropsFile.getPath()+".", ioe);
@@ -1836,6 +2047,59 @@ public class RepositoryNodeImpl implements RepositoryNode {
     return new File(getContentDir(), buffer.toString());
   }
 
+  File getHashCacheFile(int version) {
+    return new File(getContentDir(), version + HASH_CACHE_EXTENSION);
+  }
+
+  String getHashCacheEntry(int version, String key) {
+    File file = getHashCacheFile(version);
+    if (!propsExists(file)) {
+      return null;
+    }
+    try {
+      return loadProps(file).getProperty(key);
+    } catch (IOException e) {
+      logger.warning("Couldn't load hash cache: " + file, e);
+    } catch (LockssRepository.RepositoryStateException e) {
+      logger.warning("Couldn't load hash cache: " + file, e);
+    }
+    return null;
+  }
+
+  synchronized void putHashCacheEntry(int version, String key, String value) {
+    File file = getHashCacheFile(version);
+    File tmpFile = new File(getContentDir(),
+			    TEMP_FILENAME + HASH_CACHE_EXTENSION);
+    try {
+      Properties props =
+	propsExists(file) ? loadProps(file) : new Properties();
+      props.setProperty(key, value);
+      writeProps(tmpFile, props, url);
+      if (!renamePropsFile(tmpFile, file)) {
+	logger.warning("Couldn't rename hash cache: " + file);
+      }
+    } catch (IOException e) {
+      logger.warning("Couldn't store hash cache: " + file, e);
+    } catch (LockssRepository.RepositoryStateException e) {
+      logger.warning("Couldn't store hash cache: " + file, e);
+    }
+  }
+
+  void deleteHashCache(int version) {
+    File file = getHashCacheFile(version);
+    if (propsExists(file) && !deletePropsFile(file)) {
+      logger.warning("Couldn't delete hash cache: " + file);
+    }
+  }
+
+  public String getHashCacheEntry(String key) {
+    return getHashCacheEntry(getVersion(), key);
+  }
+
+  public void putHashCacheEntry(String key, String value) {
+    putHashCacheEntry(getVersion(), key, value);
+  }
+
   File getDatedVersionedPropsFile(int version, long date) {
     StringBuffer buffer = new StringBuffer();
     buffer.append(version);
@@ -1923,6 +2187,11 @@ public class RepositoryNodeImpl implements RepositoryNode {
     }
 
     public boolean hasContent() {
+      PackedPropsIndex index = getPropsIndex();
+      if (index != null &&
+	  index.getContentSize(getVersionedPropsFile(version)) >= 0) {
+	return true;
+      }
       return getContentFile().exists();
     }
 
@@ -1937,13 +2206,22 @@ public class RepositoryNodeImpl implements RepositoryNode {
       if (!hasContent()) {
 	throw new UnsupportedOperationException("Version has no content");
       }
-      return getContentFile().length();
+      return RepositoryNodeImpl.this.getContentSize(getVersionedPropsFile(version),
+						   getContentFile());
     }
 
     public int getVersion() {
       return version;
     }
 
+    public String getHashCacheEntry(String key) {
+      return RepositoryNodeImpl.this.getHashCacheEntry(version, key);
+    }
+
+    public void putHashCacheEntry(String key, String value) {
+      RepositoryNodeImpl.this.putHashCacheEntry(version, key, value);
+    }
+
     public RepositoryNode.RepositoryNodeContents getNodeContents() {
       if (!hasContent()) {
 	throw new UnsupportedOperationException("No content for version " +
@@ -2064,7 +2342,7 @@ public class RepositoryNodeImpl implements RepositoryNode {
       // rename new properties
       File propsFile = getPropsFile();
 
-      if (!PlatformUtil.updateAtomically(tempVerPropsFile, propsFile)) {
+      if (!renamePropsFile(tempVerPropsFile, propsFile)) {
 	String err = "Couldn't rename temp property version: " + url;
 	logger.error(err);
 	throw new LockssRepository.RepositoryStateException(err);
@@ -68,4 +68,21 @@ public interface RepositoryNodeVersion {
    */
   public RepositoryNode.RepositoryNodeContents getNodeContents();
 
+  /**
+   * Return the value stored under key in this version's hash cache, which
+   * records information (such as filtered content hashes) derived from
+   * the version's content.
+   * @param key the key
+   * @return the stored value, or null if none
+   */
+  public String getHashCacheEntry(String key);
+
+  /**
+   * Store a value in this version's hash cache.  The cache is discarded
+   * if the version number is later reused for different content.
+   * @param key the key
+   * @param value the value
+   */
+  public void putHashCacheEntry(String key, String value);
+
 }
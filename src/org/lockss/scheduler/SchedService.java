@@ -41,8 +41,8 @@ import org.lockss.util.*;
 
 /**
  * SchedService schedules and executes requests for computations.
- * Currently a single TaskRunner is used; this could be changed to take
- * advantage of multiprocessors.
+ * A single TaskRunner is used, which may run step tasks on several
+ * threads (see {@link #PARAM_STEPPER_THREADS}).
  */
 public class SchedService extends BaseLockssDaemonManager {
   protected static Logger log = Logger.getLogger("SchedService");
@@ -58,6 +58,12 @@ public class SchedService extends BaseLockssDaemonManager {
   private static final long DEFAULT_INITIAL_OFFSET =
     1 * Constants.MINUTE;
 
+  /** Number of threads that execute step tasks concurrently.  1 runs all
+   * step tasks on a single thread. */
+  public static final String PARAM_STEPPER_THREADS =
+    PREFIX + "stepperThreads";
+  public static final int DEFAULT_STEPPER_THREADS = 1;
+
   private TaskRunner runner = null;
   private long initialOffset = DEFAULT_INITIAL_OFFSET;
 
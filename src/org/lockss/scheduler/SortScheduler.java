@@ -58,6 +58,7 @@ public class SortScheduler implements Scheduler {
   // Vars that should not be reset between invocations
   final double maxBackgroundLoad;
   final double overheadLoad;
+  final int stepperThreads;
 
   // Vars that should be reset between invocations
   Collection<SchedulableTask> rawTasks;
@@ -87,6 +88,9 @@ public class SortScheduler implements Scheduler {
 					     DEFAULT_MAX_BACKGROUND_LOAD);
     overheadLoad = config.getPercentage(PARAM_OVERHEAD_LOAD,
 					DEFAULT_OVERHEAD_LOAD);
+    stepperThreads = Math.max(1,
+			      config.getInt(SchedService.PARAM_STEPPER_THREADS,
+					    SchedService.DEFAULT_STEPPER_THREADS));
   }
 
   /** Create a scheduler to schedule the collection of tasks */
@@ -160,6 +164,14 @@ public class SortScheduler implements Scheduler {
     }
   }
 
+  /** Orders chunks by start time.  (Sort is stable, so chunks starting at
+   * the same time remain in lane order.) */
+  static final Comparator<Schedule.Chunk> chunkStartComparator =
+    new Comparator<Schedule.Chunk>() {
+      public int compare(Schedule.Chunk c1, Schedule.Chunk c2) {
+	return c1.getStart().compareTo(c2.getStart());
+      }};
+
   public Schedule getSchedule() {
     if (!scheduleCreated) {
       throw new IllegalStateException("Attempt to get nonexistent schedule");
@@ -565,6 +577,10 @@ public class SortScheduler implements Scheduler {
     void addEvents(List events) {
       addStartingBackgroundEvents(events);
       if (chunks != null) {
+	if (stepperThreads > 1) {
+	  // chunks in different lanes overlap; present them in start order
+	  Collections.sort(chunks, chunkStartComparator);
+	}
 	for (Schedule.Chunk chunk : chunks) {
 	  addChunk(events, chunk);
 	}
@@ -600,12 +616,19 @@ public class SortScheduler implements Scheduler {
     }
 
 
-    /** Add intersecting tasks to interval until interval is full.
+    /** Add intersecting tasks to interval until interval is full.  With
+     * more than one stepper thread the interval is divided into one lane
+     * per thread, which are filled in turn.  A task that doesn't fit in
+     * the remainder of a lane wraps around to the beginning of the next
+     * lane; because a task is never given more than one lane's worth of
+     * time, its two pieces never overlap.
 	@return true iff no ending tasks have remaining unscheduled time.
     */
     boolean scheduleInterval(TaskData tasks[]) {
       double foreLoad = Math.min(loadFactor, 1.0 - overheadLoad);
-      unscheduledTime = (long)(duration * foreLoad);
+      long laneTime = (long)(duration * foreLoad);
+      long laneUnsched = laneTime;
+      unscheduledTime = laneTime * stepperThreads;
       chunks = new ArrayList();
       long chunkOffset = 0;
       long chunkStart = getBegin().getExpirationTime();
@@ -620,7 +643,36 @@ public class SortScheduler implements Scheduler {
 	  log.debug3("examining task " + tix + "(" + stask.cookie +
 		     "), unsched = " + td.unschedTaskTime);
 	if (td.unschedTaskTime > 0 && !isDisjoint(td.getWindow())) {
-	  long taskTime = Math.min(unscheduledTime, td.unschedTaskTime);
+	  long taskTime = Math.min(Math.min(unscheduledTime, laneTime),
+				   td.unschedTaskTime);
+	  td.unschedTaskTime -= taskTime;
+	  unscheduledTime -= taskTime;
+	  unscheduledTasks.remove(stask);
+	  if (taskTime > laneUnsched) {
+	    // wrap: the first part of the task's time goes at the
+	    // beginning of the next lane, the rest at the end of this one
+	    long headTime = taskTime - laneUnsched;
+	    long headDur = (long)(headTime / foreLoad);
+	    chunks.add(new Schedule.Chunk(stask, getBegin(),
+					  Deadline.restoreDeadlineAt(chunkStart +
+								     headDur),
+					  headTime));
+	    Schedule.Chunk tail =
+	      new Schedule.Chunk(stask,
+				 Deadline.restoreDeadlineAt(chunkStart +
+							    chunkOffset),
+				 getEnd(), laneUnsched);
+	    if (td.unschedTaskTime <= 0) {
+	      tail.setTaskEnd();
+	    }
+	    chunks.add(tail);
+	    if (log.isDebug3())
+	      log.debug3("add task " + tix + "(" + stask.cookie +
+			 "), time = " + taskTime + ", wrapped");
+	    chunkOffset = headDur;
+	    laneUnsched = laneTime - headTime;
+	    continue;
+	  }
 	  long taskDur = (long)(taskTime / foreLoad);
 	  if (log.isDebug3())
 	    log.debug3("add task " + tix + "(" + stask.cookie +
@@ -636,20 +688,23 @@ public class SortScheduler implements Scheduler {
 	  // remaining time in the intern, ensure it ends exactly at the
 	  // end of the interval
 	  Deadline stop =
-	    (taskTime == unscheduledTime
+	    (taskTime == laneUnsched
 	     ? getEnd()
 	     : Deadline.restoreDeadlineAt(chunkStart + chunkOffset + taskDur));
 
 	  Schedule.Chunk chunk =
 	     new Schedule.Chunk(stask, start, stop, taskTime);
-	  td.unschedTaskTime -= taskTime;
-	  unscheduledTime -= taskTime;
 	  if (td.unschedTaskTime <= 0) {
 	    chunk.setTaskEnd();
 	  }
 	  chunks.add(chunk);
+	  laneUnsched -= taskTime;
 	  chunkOffset += taskDur;
-	  unscheduledTasks.remove(stask);
+	  if (laneUnsched <= 0) {
+	    // lane full, start the next one
+	    laneUnsched = laneTime;
+	    chunkOffset = 0;
+	  }
 	}
       }
       // if any tasks ending at this interval have unschedTaskTime, fail
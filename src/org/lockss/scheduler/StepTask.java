@@ -44,7 +44,8 @@ import org.lockss.util.*;
  * @see StepperTask
  */
 public abstract class StepTask extends SchedulableTask {
-  private boolean isStepping = false;
+  private volatile boolean isStepping = false;
+  private Object exclusiveResource = null;
 
   public StepTask(Deadline earliestStart,
 		  Deadline latestFinish,
@@ -80,6 +81,24 @@ public abstract class StepTask extends SchedulableTask {
     return isStepping;
   }
 
+  /** Set the resource (<i>eg</i>, the AU) this task must have to itself
+   * while it runs.  Tasks with equal resources are never stepped
+   * concurrently. */
+  public void setExclusiveResource(Object resource) {
+    exclusiveResource = resource;
+  }
+
+  public Object getExclusiveResource() {
+    return exclusiveResource;
+  }
+
+  /** Return true if this task and the other one are different tasks with
+   * the same exclusive resource */
+  public boolean conflictsWith(StepTask other) {
+    return other != null && other != this && exclusiveResource != null
+      && exclusiveResource.equals(other.getExclusiveResource());
+  }
+
   public String toString() {
     StringBuffer sb = new StringBuffer();
     sb.append("[STask:");
@@ -103,6 +103,7 @@ class TaskRunner {
   private long statsUpdateInterval = DEFAULT_STATS_UPDATE_INTERVAL;
   private int sortScheme = DEFAULT_SORT_SCHEME;
   private int stepperHighPriority = DEFAULT_STEPPER_PRIORITY_LOCKED;
+  private int stepperThreads = SchedService.DEFAULT_STEPPER_THREADS;
 
   private FifoQueue notifyQueue = new FifoQueue();
 
@@ -116,6 +117,11 @@ class TaskRunner {
   // last n completed requests
   private HistoryList history = new HistoryList(DEFAULT_HISTORY_MAX);
   private StepThread stepThread;
+  // additional stepper threads, when stepperThreads > 1
+  private List<HelperStepThread> helperThreads =
+    new ArrayList<HelperStepThread>();
+  // tasks claimed by helper threads, all accesses synchronized on this
+  private Set<StepTask> helperTasks = new HashSet<StepTask>();
   private NotifyThread notifyThread;
 
   private int taskCtr = 0;
@@ -188,6 +194,15 @@ class TaskRunner {
 	history.setMax(cMax);
       }
     }
+    if (changedKeys.contains(SchedService.PREFIX)) {
+      stepperThreads =
+	Math.max(1, config.getInt(SchedService.PARAM_STEPPER_THREADS,
+				  SchedService.DEFAULT_STEPPER_THREADS));
+      if (stepThread != null) {
+	// start or stop helpers to match the new count
+	pokeStepThread();
+      }
+    }
   }
 
   /** Attempt to add a task to the schedule.
@@ -481,6 +496,10 @@ class TaskRunner {
       stepThread.stopStepper();
       stepThread = null;
     }
+    for (HelperStepThread hth : helperThreads) {
+      hth.stopStepper();
+    }
+    helperThreads.clear();
   }
 
   synchronized void pokeStepThread() {
@@ -494,6 +513,29 @@ class TaskRunner {
     } else {
       th.pokeStepper();
     }
+    // Stop excess helpers, poke the rest, start any missing ones
+    while (helperThreads.size() > stepperThreads - 1) {
+      helperThreads.remove(helperThreads.size() - 1).stopStepper();
+    }
+    for (HelperStepThread hth : helperThreads) {
+      hth.pokeStepper();
+    }
+    while (helperThreads.size() < stepperThreads - 1) {
+      HelperStepThread hth =
+	new HelperStepThread("TaskRunner-" + (helperThreads.size() + 1));
+      helperThreads.add(hth);
+      hth.start();
+      hth.waitRunning();
+    }
+  }
+
+  /** Wake the stepper thread if it's waiting, without interrupting it if
+   * it's stepping a task */
+  void wakeStepThread() {
+    StepThread th = stepThread;
+    if (th != null) {
+      th.sem.give();
+    }
   }
 
   void pokeStepThread(boolean startIfNotRunning) {
@@ -605,7 +647,15 @@ class TaskRunner {
       return false;
     }
     if (findTaskToRun0()) {
-      return true;
+      if (!runningTask.isStepping() && !conflictsWithHelpers(runningTask)) {
+	return true;
+      }
+      // A helper thread is already stepping the scheduled task, or one
+      // with the same exclusive resource; look for another one to run
+      // until the scheduled chunk ends.
+      if (log.isDebug3()) log.debug3("Already stepping: " + runningTask);
+      runningChunk = null;
+      runningTask = null;
     }
     Schedule.Chunk chunk = findRunnableChunk();
     if (chunk != null) {
@@ -619,7 +669,8 @@ class TaskRunner {
   }
 
   /** Find a chunk with a runnable task (one whose earliest start has been
-   * reached). */
+   * reached, and which doesn't conflict with one being run by another
+   * stepper thread). */
   Schedule.Chunk findRunnableChunk() {
     for (Iterator iter = currentSchedule.getEvents().iterator();
 	 iter.hasNext(); ) {
@@ -627,7 +678,8 @@ class TaskRunner {
       if (!event.isBackgroundEvent()) {
 	Schedule.Chunk chunk = (Schedule.Chunk)event;
 	StepTask task = chunk.getTask();
-	if (task.getEarliestStart().expired()) {
+	if (task.getEarliestStart().expired() && !task.isStepping()
+	    && !conflictsWithHelpers(task)) {
 	  return chunk;
 	}
       }
@@ -675,7 +727,7 @@ class TaskRunner {
     runningChunk = null;
     // run overrun task
     notifyExpiredOverrunners();
-    StepTask otask = getFirstOverrunTask();
+    StepTask otask = getFirstIdleOverrunTask();
     if (otask != null) {
       runningTask = otask;
       runningDeadline = (event == null ? runningTask.getLatestFinish()
@@ -701,6 +753,98 @@ class TaskRunner {
     return null;
   }
 
+  /** Return the first overrun task that isn't being run by another
+   * stepper thread, and doesn't conflict with one that is */
+  synchronized StepTask getFirstIdleOverrunTask() {
+    synchronized (overrunTasks) {
+      for (Iterator iter = overrunTasks.iterator(); iter.hasNext(); ) {
+	StepTask task = (StepTask)iter.next();
+	if (!task.isStepping() && !conflictsWithHelpers(task)) {
+	  return task;
+	}
+      }
+    }
+    return null;
+  }
+
+  /** Find a task for a helper stepper thread to run: the first chunk in
+   * the schedule whose task may start, or else the first overrun task,
+   * that isn't already being run by another stepper thread and doesn't
+   * share an exclusive resource with one that is.  The task is marked as
+   * stepping and recorded as claimed before returning, so no other thread
+   * will choose it or a task that conflicts with it.  If none is found, claim.deadline is set to the time at which the
+   * helper should look again.
+   * @return true iff a task was found */
+  synchronized boolean findHelperTask(HelperClaim claim) {
+    claim.chunk = null;
+    claim.task = null;
+    claim.deadline = Deadline.MAX;
+    if (currentSchedule == null) {
+      return false;
+    }
+    Deadline nextStart = null;
+    for (Iterator iter = currentSchedule.getEvents().iterator();
+	 iter.hasNext(); ) {
+      Schedule.Event event = (Schedule.Event)iter.next();
+      if (nextStart == null && !event.getStart().expired()) {
+	nextStart = event.getStart();
+      }
+      if (event.isBackgroundEvent()) {
+	continue;
+      }
+      Schedule.Chunk chunk = (Schedule.Chunk)event;
+      StepTask task = chunk.getTask();
+      if (task.getEarliestStart().expired() && !chunk.getFinish().expired()
+	  && isIdleTask(task)) {
+	claim.chunk = chunk;
+	claim.task = task;
+	claim.deadline = chunk.getFinish();
+	task.setStepping(true);
+	helperTasks.add(task);
+	return true;
+      }
+    }
+    synchronized (overrunTasks) {
+      for (Iterator iter = overrunTasks.iterator(); iter.hasNext(); ) {
+	StepTask task = (StepTask)iter.next();
+	if (!task.isExpired() && isIdleTask(task)) {
+	  claim.task = task;
+	  claim.deadline = (nextStart == null ? task.getLatestFinish()
+			    : Deadline.earliest(task.getLatestFinish(),
+						nextStart));
+	  task.setStepping(true);
+	  helperTasks.add(task);
+	  return true;
+	}
+      }
+    }
+    if (nextStart != null) {
+      claim.deadline = nextStart;
+    }
+    return false;
+  }
+
+  private boolean isIdleTask(StepTask task) {
+    return task != runningTask && !task.isStepping() && !task.isFinished()
+      && !task.conflictsWith(runningTask) && !conflictsWithHelpers(task);
+  }
+
+  /** Return true if the task has the same exclusive resource as a
+   * different task claimed by a helper thread.  Must be called
+   * synchronized on this. */
+  boolean conflictsWithHelpers(StepTask task) {
+    if (task.getExclusiveResource() == null) {
+      return false;
+    }
+    for (StepTask htask : helperTasks) {
+      if (task.conflictsWith(htask)) {
+	if (log.isDebug3()) log.debug3(task + " conflicts with " + htask);
+	return true;
+      }
+    }
+    return false;
+  }
+
   void addToHistory(Schedule.Event event) {
     synchronized (history) {
       history.add(event);
@@ -896,7 +1040,55 @@ class TaskRunner {
 
   void runSteps(MutableBoolean continueStepping, LockssWatchdog wdog) {
     StepTask task = runningTask;
-    Deadline until = runningDeadline;
+    stepTask(task, runningDeadline, continueStepping, wdog);
+
+    // Synchronized against other stepper threads
+    synchronized (this) {
+      if (runningChunk != null) {
+	if (runningChunk.getFinish().expired() || task.isFinished()) {
+	  removeChunk(runningChunk);
+	}
+      } else if (task.isFinished()) {
+	removeTask(task);
+      }
+    }
+  }
+
+  /** Run the steps of a task claimed by a helper thread, then remove its
+   * chunk or the task if appropriate */
+  void runHelperSteps(HelperClaim claim, MutableBoolean continueStepping,
+		      LockssWatchdog wdog) {
+    StepTask task = claim.task;
+    try {
+      stepTask(task, claim.deadline, continueStepping, wdog);
+    } finally {
+      synchronized (this) {
+	helperTasks.remove(task);
+      }
+    }
+
+    boolean finished;
+    synchronized (this) {
+      finished = task.isFinished();
+      if (claim.chunk != null) {
+	if (claim.chunk.getFinish().expired() || finished) {
+	  removeChunk(claim.chunk);
+	}
+      } else if (finished) {
+	removeTask(task);
+      }
+    }
+    if (finished || task.getExclusiveResource() != null) {
+      // main stepper thread may be waiting for this task's chunk to end,
+      // or for its resource to be released
+      wakeStepThread();
+    }
+  }
+
+  /** Step the task until it finishes, the deadline is reached or
+   * continueStepping becomes false, and account for the time used. */
+  void stepTask(StepTask task, Deadline until,
+		MutableBoolean continueStepping, LockssWatchdog wdog) {
     boolean overOk = task.isOverrunAllowed();
     long timeDelta = 0;
     long statsStartTime = TimeBase.nowMs();
@@ -933,7 +1125,7 @@ class TaskRunner {
 	 }
 	 // 	Thread.yield();
 	 if (TimeBase.nowMs() > statsUpdateTime) {
-	   totalTime += timeDelta;
+	   addTotalTime(timeDelta);
 	   task.updateStats();
 	   statsStartTime = TimeBase.nowMs();
 	   statsUpdateTime = statsStartTime + statsUpdateInterval;
@@ -949,17 +1141,20 @@ class TaskRunner {
       task.e = e;
       task.setFinished();
     }
-    totalTime += timeDelta;
+    addTotalTime(timeDelta);
     task.updateStats();
     task.setStepping(false);
+  }
 
-    if (runningChunk != null) {
-      if (runningChunk.getFinish().expired() || task.isFinished()) {
-	removeChunk(runningChunk);
-      }
-    } else if (task.isFinished()) {
-      removeTask(task);
-    }
+  private synchronized void addTotalTime(long time) {
+    totalTime += time;
+  }
+
+  /** The task (and chunk, if any) a helper thread is running */
+  static class HelperClaim {
+    Schedule.Chunk chunk;
+    StepTask task;
+    Deadline deadline;
   }
 
   // Step thread
@@ -1020,6 +1215,65 @@ class TaskRunner {
     }
   }
 
+  // Additional step thread.  Runs tasks that the main step thread isn't
+  // running, chosen by findHelperTask()
+  private class HelperStepThread extends LockssThread {
+    private MutableBoolean continueStepping = new MutableBoolean(false);
+    private BinarySemaphore sem = new BinarySemaphore();
+    private HelperClaim claim = new HelperClaim();
+    private volatile boolean exit = false;
+
+    private HelperStepThread(String name) {
+      super(name);
+    }
+
+    public void lockssRun() {
+      triggerWDogOnExit(true);
+      setPriority(PRIORITY_PARAM_STEPPER, PRIORITY_DEFAULT_STEPPER);
+      startWDog(WDOG_PARAM_STEPPER, WDOG_DEFAULT_STEPPER);
+      nowRunning();
+
+      try {
+	while (!exit) {
+	  continueStepping.setValue(true);
+
+	  // See StepThread
+	  int oldPri = getPriority();
+	  setPriority(stepperHighPriority);
+	  boolean foundTask = findHelperTask(claim);
+	  setPriority(oldPri);
+
+	  if (foundTask) {
+	    runHelperSteps(claim, continueStepping, this);
+	  } else {
+	    stopWDog();
+	    sem.take(claim.deadline);
+	    startWDog(WDOG_PARAM_STEPPER, WDOG_DEFAULT_STEPPER);
+	  }
+	}
+      } catch (InterruptedException e) {
+ 	// no action - expected when stopping
+      } catch (Exception e) {
+	log.error("Unexpected exception caught in task stepper thread", e);
+      } finally {
+	synchronized (TaskRunner.this) {
+	  helperThreads.remove(this);
+	}
+      }
+    }
+
+    private void pokeStepper() {
+      continueStepping.setValue(false);
+      sem.give();
+    }
+
+    private void stopStepper() {
+      triggerWDogOnExit(false);
+      exit = true;
+      pokeStepper();
+    }
+  }
+
   // Notify thread
   private class NotifyThread extends LockssThread {
     private boolean exit = false;
@@ -0,0 +1,459 @@
+/*
+
+Copyright (c) 2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+
+package org.lockss.servlet;
+
+import java.io.*;
+import java.util.*;
+
+import org.lockss.config.Configuration;
+import org.lockss.plugin.*;
+import org.lockss.util.*;
+
+/**
+ * Size-bounded, LRU cache of link-rewritten content bodies, so that
+ * popular pages needn't be reparsed and rewritten on every request.
+ * Bodies are held in memory, except those captured with a {@link
+ * Capture} that outgrew its in-memory limit, which are kept in temp files
+ * that are deleted when the entry is removed.
+ * Entries are keyed by everything that determines the rewritten output:
+ * the AU, URL and version of the CachedUrl, the plugin version, the
+ * rewriter, the charset and base URL, and the prefix the link transform
+ * adds to rewritten links.  Because the version is part of the key a new
+ * version is never served stale content; entries for an AU are also
+ * dropped when the AU's content changes, or it is deleted or reconfigured.
+ */
+public class RewrittenContentCache {
+  private static final Logger log =
+    Logger.getLogger(RewrittenContentCache.class);
+
+  private long maxSize;
+  private long maxEntrySize;
+  private long curSize = 0;
+
+  // Access-ordered so iteration starts with the least recently used entry
+  private final LinkedHashMap<Key,Entry> map =
+    new LinkedHashMap<Key,Entry>(16, 0.75f, true);
+
+  private long hits = 0;
+  private long misses = 0;
+  private long stores = 0;
+  private long evictions = 0;
+
+  /**
+   * @param maxSize the maximum total size, in bytes, of the cached bodies.
+   * If zero, nothing is cached.
+   * @param maxEntrySize the size of the largest body that will be cached
+   */
+  public RewrittenContentCache(long maxSize, long maxEntrySize) {
+    this.maxSize = maxSize;
+    this.maxEntrySize = maxEntrySize;
+  }
+
+  /** Change the size limits, evicting entries if necessary */
+  public synchronized void setSizes(long maxSize, long maxEntrySize) {
+    this.maxSize = maxSize;
+    this.maxEntrySize = maxEntrySize;
+    trim();
+  }
+
+  /** Return true if a body of the given (pre-rewriting) length might be
+   * cached.  Unknown (negative) lengths aren't cached, as the whole body
+   * would have to be buffered before knowing whether it fits. */
+  public synchronized boolean isCacheable(long length) {
+    return maxSize > 0 && length >= 0 && length <= maxEntrySize;
+  }
+
+  /** Return the cached entry for the key, or null */
+  public synchronized Entry get(Key key) {
+    Entry ent = map.get(key);
+    if (ent == null) {
+      misses++;
+    } else {
+      hits++;
+    }
+    return ent;
+  }
+
+  /** Store the rewritten body for the key.  Bodies larger than the
+   * maximum entry size are not stored.
+   * @param key the key
+   * @param content the rewritten bytes; must not be modified afterward
+   * @param charset the charset of the rewritten content, if the rewriter
+   * reported one, else null
+   */
+  public void put(Key key, byte[] content, String charset) {
+    put(key, new Entry(content, charset));
+  }
+
+  /** Store the entry for the key, unless it's too large.
+   * @return true iff the entry was stored */
+  synchronized boolean put(Key key, Entry ent) {
+    long len = ent.getLength();
+    if (maxSize <= 0 || len > maxEntrySize || len > maxSize) {
+      return false;
+    }
+    Entry old = map.put(key, ent);
+    if (old != null) {
+      curSize -= old.getLength();
+      old.dispose();
+    }
+    curSize += len;
+    stores++;
+    trim();
+    return true;
+  }
+
+  /** Return a stream that captures a rewritten body as it's sent, for
+   * {@link Capture#store(String)} to add to the cache.  Up to maxInMemory
+   * bytes are buffered in memory; a longer body is spilled to a temp
+   * file, which becomes the entry's storage.  Capturing stops, and nothing
+   * is stored, once the body exceeds the maximum entry size.
+   * @param key the key under which to store the body
+   * @param maxInMemory the largest body to buffer in memory
+   */
+  public synchronized Capture newCapture(Key key, int maxInMemory) {
+    return new Capture(key, maxInMemory, maxEntrySize);
+  }
+
+  /** Remove all entries for the AU */
+  public synchronized void invalidateAu(String auid) {
+    for (Iterator<Map.Entry<Key,Entry>> iter = map.entrySet().iterator();
+	 iter.hasNext(); ) {
+      Map.Entry<Key,Entry> me = iter.next();
+      if (me.getKey().auid.equals(auid)) {
+	curSize -= me.getValue().getLength();
+	me.getValue().dispose();
+	iter.remove();
+      }
+    }
+  }
+
+  /** Remove all entries for the URLs in the AU */
+  public synchronized void invalidateUrls(String auid,
+					  Collection<String> urls) {
+    Set<String> urlSet = urls instanceof Set
+      ? (Set<String>)urls : new HashSet<String>(urls);
+    for (Iterator<Map.Entry<Key,Entry>> iter = map.entrySet().iterator();
+	 iter.hasNext(); ) {
+      Map.Entry<Key,Entry> me = iter.next();
+      Key key = me.getKey();
+      if (key.auid.equals(auid) && urlSet.contains(key.url)) {
+	curSize -= me.getValue().getLength();
+	me.getValue().dispose();
+	iter.remove();
+      }
+    }
+  }
+
+  /** Remove all entries */
+  public synchronized void clear() {
+    for (Entry ent : map.values()) {
+      ent.dispose();
+    }
+    map.clear();
+    curSize = 0;
+  }
+
+  public synchronized int getEntryCount() {
+    return map.size();
+  }
+
+  /** Return the total size of the cached bodies */
+  public synchronized long getSize() {
+    return curSize;
+  }
+
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  public synchronized long getStores() {
+    return stores;
+  }
+
+  public synchronized long getEvictions() {
+    return evictions;
+  }
+
+  private void trim() {
+    Iterator<Entry> iter = map.values().iterator();
+    while (curSize > maxSize && iter.hasNext()) {
+      Entry ent = iter.next();
+      curSize -= ent.getLength();
+      ent.dispose();
+      iter.remove();
+      evictions++;
+    }
+  }
+
+  /** Return an AuEventHandler that invalidates the entries for AUs whose
+   * content changes, or which are deleted or reconfigured */
+  public AuEventHandler getAuEventHandler() {
+    return new AuEventHandler.Base() {
+      @Override
+      public void auDeleted(AuEvent event, ArchivalUnit au) {
+	invalidateAu(au.getAuId());
+      }
+      @Override
+      public void auReconfigured(AuEvent event, ArchivalUnit au,
+				 Configuration oldAuConf) {
+	invalidateAu(au.getAuId());
+      }
+      @Override
+      public void auContentChanged(AuEvent event, ArchivalUnit au,
+				   AuEventHandler.ChangeInfo info) {
+	if (info != null && info.hasUrls()) {
+	  invalidateUrls(au.getAuId(), info.getUrls());
+	} else {
+	  invalidateAu(au.getAuId());
+	}
+      }
+    };
+  }
+
+  /** Identifies a rewritten body */
+  public static class Key {
+    private final String auid;
+    private final String url;
+    private final int version;
+    private final String variant;
+
+    /**
+     * @param auid the AU's id
+     * @param url the CachedUrl's URL
+     * @param version the CachedUrl's version
+     * @param variant a string that captures everything else that affects
+     * the rewritten output (plugin version, rewriter, charset, base URL,
+     * link transform, etc.)
+     */
+    public Key(String auid, String url, int version, String variant) {
+      this.auid = auid;
+      this.url = url;
+      this.version = version;
+      this.variant = variant;
+    }
+
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+	return false;
+      }
+      Key k = (Key)o;
+      return version == k.version
+	&& auid.equals(k.auid)
+	&& url.equals(k.url)
+	&& variant.equals(k.variant);
+    }
+
+    public int hashCode() {
+      return ((auid.hashCode() * 31 + url.hashCode()) * 31 + version) * 31
+	+ variant.hashCode();
+    }
+
+    public String toString() {
+      return "[RCKey: " + url + ", v" + version + "]";
+    }
+  }
+
+  /** A cached rewritten body, in memory or in a temp file */
+  public static class Entry {
+    private final byte[] content;
+    private final File file;
+    private final long length;
+    private final String charset;
+
+    Entry(byte[] content, String charset) {
+      this.content = content;
+      this.file = null;
+      this.length = content.length;
+      this.charset = charset;
+    }
+
+    Entry(File file, long length, String charset) {
+      this.content = null;
+      this.file = file;
+      this.length = length;
+      this.charset = charset;
+    }
+
+    /** Return the length of the rewritten body */
+    public long getLength() {
+      return length;
+    }
+
+    /** Return the charset reported by the rewriter, or null */
+    public String getCharset() {
+      return charset;
+    }
+
+    /** Return true if the body is kept in a temp file */
+    public boolean isOnDisk() {
+      return file != null;
+    }
+
+    File getFile() {
+      return file;
+    }
+
+    /** Return a stream of the rewritten body, or null if the entry's file
+     * has been deleted since it was returned by {@link #get(Key)} */
+    public InputStream openInputStream() {
+      if (content != null) {
+	return new ByteArrayInputStream(content);
+      }
+      try {
+	return new BufferedInputStream(new FileInputStream(file));
+      } catch (FileNotFoundException e) {
+	return null;
+      }
+    }
+
+    /** Write the rewritten body to the stream */
+    public void writeTo(OutputStream out) throws IOException {
+      if (content != null) {
+	out.write(content);
+	return;
+      }
+      InputStream in = openInputStream();
+      if (in == null) {
+	throw new FileNotFoundException(file.toString());
+      }
+      try {
+	StreamUtil.copy(in, out);
+      } finally {
+	IOUtil.safeClose(in);
+      }
+    }
+
+    void dispose() {
+      if (file != null) {
+	FileUtil.safeDeleteFile(file);
+      }
+    }
+  }
+
+  /** Captures a rewritten body as it's written, in memory up to a limit
+   * and then in a temp file.  Errors writing the temp file abandon the
+   * capture; they are never thrown to the writer. */
+  public class Capture extends OutputStream {
+    private final Key key;
+    private final int maxInMemory;
+    private final long maxLength;
+    private ByteArrayOutputStream mem = new ByteArrayOutputStream();
+    private File file;
+    private OutputStream fileOut;
+    private long count = 0;
+    private boolean done = false;
+
+    Capture(Key key, int maxInMemory, long maxLength) {
+      this.key = key;
+      this.maxInMemory = maxInMemory;
+      this.maxLength = maxLength;
+    }
+
+    public void write(int b) {
+      write(new byte[] {(byte)b}, 0, 1);
+    }
+
+    public void write(byte[] b, int off, int len) {
+      if (done) {
+	return;
+      }
+      count += len;
+      if (count > maxLength) {
+	abort();
+	return;
+      }
+      try {
+	if (fileOut == null && count > maxInMemory) {
+	  file = FileUtil.createTempFile("rewritten", ".tmp");
+	  fileOut = new BufferedOutputStream(new FileOutputStream(file));
+	  mem.writeTo(fileOut);
+	  mem = null;
+	}
+	if (fileOut != null) {
+	  fileOut.write(b, off, len);
+	} else {
+	  mem.write(b, off, len);
+	}
+      } catch (IOException e) {
+	log.warning("Couldn't capture rewritten content: " + key, e);
+	abort();
+      }
+    }
+
+    /** Return true if the body is being captured in a temp file */
+    public boolean isOnDisk() {
+      return fileOut != null;
+    }
+
+    /** Add the captured body to the cache, unless capturing has been
+     * abandoned */
+    public void store(String charset) {
+      if (done) {
+	return;
+      }
+      done = true;
+      Entry ent;
+      if (fileOut != null) {
+	try {
+	  fileOut.close();
+	} catch (IOException e) {
+	  log.warning("Couldn't capture rewritten content: " + key, e);
+	  FileUtil.safeDeleteFile(file);
+	  return;
+	}
+	ent = new Entry(file, count, charset);
+      } else {
+	ent = new Entry(mem.toByteArray(), charset);
+      }
+      mem = null;
+      if (!put(key, ent)) {
+	ent.dispose();
+      }
+    }
+
+    /** Discard the captured body, if it hasn't been stored */
+    public void abort() {
+      if (done) {
+	return;
+      }
+      done = true;
+      mem = null;
+      IOUtil.safeClose(fileOut);
+      if (file != null) {
+	FileUtil.safeDeleteFile(file);
+      }
+    }
+  }
+}
@@ -37,6 +37,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.commons.collections4.Predicate;
 import org.apache.commons.httpclient.util.DateParseException;
 import org.apache.commons.io.output.ByteArrayOutputStream;
+import org.apache.commons.io.output.TeeOutputStream;
 import org.apache.commons.lang3.ObjectUtils;
 import org.apache.commons.lang3.StringEscapeUtils;
 import org.lockss.alert.Alert;
@@ -66,6 +67,8 @@ import org.mortbay.html.*;
 import org.mortbay.http.HttpFields;
 import org.mortbay.http.HttpRequest;
 import org.mortbay.http.HttpResponse;
+import org.mortbay.http.InclusiveByteRange;
+import org.mortbay.http.MultiPartResponse;
 
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
@@ -300,6 +303,19 @@ public class ServeContent extends LockssServlet {
       PREFIX + "maxBufferedRewrite";
   public static final int DEFAULT_MAX_BUFFERED_REWRITE = 64 * 1024;
 
+  /** Maximum total size of the link-rewritten bodies kept so that
+   * frequently requested pages needn't be rewritten each time.  Bodies no
+   * larger than maxBufferedRewrite are kept in memory, larger ones in temp
+   * files.  Zero disables the cache. */
+  public static final String PARAM_REWRITE_CACHE_SIZE =
+      PREFIX + "rewriteCacheSize";
+  public static final long DEFAULT_REWRITE_CACHE_SIZE = 32 * 1024 * 1024;
+
+  /** Files larger than this are not kept in the rewritten content cache */
+  public static final String PARAM_REWRITE_CACHE_MAX_ENTRY_SIZE =
+      PREFIX + "rewriteCacheMaxEntrySize";
+  public static final long DEFAULT_REWRITE_CACHE_MAX_ENTRY_SIZE = 1024 * 1024;
+
   /** If true, never forward request nor redirect to publisher */
   public static final String PARAM_NEVER_PROXY = PREFIX + "neverProxy";
   public static final boolean DEFAULT_NEVER_PROXY = false;
@@ -333,6 +349,10 @@ public class ServeContent extends LockssServlet {
   private static List<String> includePlugins = DEFAULT_INCLUDE_PLUGINS;
   private static boolean includeInternalAus = DEFAULT_INCLUDE_INTERNAL_AUS;
   private static int maxBufferedRewrite = DEFAULT_MAX_BUFFERED_REWRITE;
+  private static long rewriteCacheSize = DEFAULT_REWRITE_CACHE_SIZE;
+  private static long rewriteCacheMaxEntrySize =
+    DEFAULT_REWRITE_CACHE_MAX_ENTRY_SIZE;
+  private static RewrittenContentCache rewrittenContentCache = null;
   private static boolean neverProxy = DEFAULT_NEVER_PROXY;
   private static int paramAccessLogLevel = -1;
   private static boolean paramAccessAlertsEnabled =
@@ -387,6 +407,20 @@ public class ServeContent extends LockssServlet {
     pluginMgr = daemon.getPluginManager();
     proxyMgr = daemon.getProxyManager();
     openUrlResolver = new OpenUrlResolver(daemon);
+    getRewrittenContentCache(pluginMgr);
+  }
+
+  /** Return the rewritten content cache, creating it and registering it
+   * for AU events the first time. */
+  static synchronized RewrittenContentCache
+    getRewrittenContentCache(PluginManager pluginMgr) {
+    if (rewrittenContentCache == null) {
+      rewrittenContentCache =
+	new RewrittenContentCache(rewriteCacheSize, rewriteCacheMaxEntrySize);
+      pluginMgr.registerAuEventHandler(rewrittenContentCache
+				       .getAuEventHandler());
+    }
+    return rewrittenContentCache;
   }
 
   /** Called by ServletUtil.setConfig() */
@@ -460,6 +494,19 @@ public class ServeContent extends LockssServlet {
               DEFAULT_REWRITE_MEMENTO_RESPONSES);
       processForms = config.getBoolean(PARAM_PROCESS_FORMS,
           DEFAULT_PROCESS_FORMS);
+      rewriteCacheSize = config.getSize(PARAM_REWRITE_CACHE_SIZE,
+          DEFAULT_REWRITE_CACHE_SIZE);
+      rewriteCacheMaxEntrySize =
+          config.getSize(PARAM_REWRITE_CACHE_MAX_ENTRY_SIZE,
+              DEFAULT_REWRITE_CACHE_MAX_ENTRY_SIZE);
+      synchronized (ServeContent.class) {
+        if (rewrittenContentCache != null) {
+          // Any of our params may affect the rewritten output
+          rewrittenContentCache.clear();
+          rewrittenContentCache.setSizes(rewriteCacheSize,
+              rewriteCacheMaxEntrySize);
+        }
+      }
     }
     if (diffs.contains(PARAM_REWRITE_FOR_STEM_MAP)) {
       installRewriteForStemMap(config.getList(PARAM_REWRITE_FOR_STEM_MAP, null));
@@ -1335,19 +1382,32 @@ public class ServeContent extends LockssServlet {
     CIProperties props = cu.getProperties();
     String cuLastModified = props.getProperty(CachedUrl.PROPERTY_LAST_MODIFIED);
     String ifModifiedSince = req.getHeader(HttpFields.__IfModifiedSince);
-    String ctype;
+    String ifNoneMatch = req.getHeader(HttpFields.__IfNoneMatch);
+    String ctype = cu.getContentType();
+    String mimeType = HeaderUtil.getMimeTypeFromContentType(ctype);
+    LinkRewriterFactory lrf = getLinkRewriterFactory(mimeType);
+    String etag = makeETag(props, lrf);
 
-    if (ifModifiedSince != null && cuLastModified != null) {
+    if (ifNoneMatch != null) {
+      // If-None-Match takes precedence over If-Modified-Since
+      if (etagMatches(ifNoneMatch, etag)) {
+        if (log.isDebug3()) {
+          log.debug3("Cached content matches ETag " + etag + ": " + url);
+        }
+        resp.setHeader(HttpFields.__ETag, etag);
+        resp.setStatus(HttpResponse.__304_Not_Modified);
+        return;
+      }
+    } else if (ifModifiedSince != null && cuLastModified != null) {
       try {
         if (!HeaderUtil.isEarlier(ifModifiedSince, cuLastModified)) {
-          ctype = cu.getContentType();
-          String mimeType = HeaderUtil.getMimeTypeFromContentType(ctype);
           if (log.isDebug3()) {
             log.debug3( "Cached content not modified for: " + url
                         + " mime type=" + mimeType
                         + " size=" + cu.getContentSize()
                         + " cu=" + cu);
           }
+          resp.setHeader(HttpFields.__ETag, etag);
           resp.setStatus(HttpResponse.__304_Not_Modified);
           return;
         }
@@ -1358,9 +1418,6 @@ public class ServeContent extends LockssServlet {
       }
     }
 
-    ctype = cu.getContentType();
-    String mimeType = HeaderUtil.getMimeTypeFromContentType(ctype);
-
     if (log.isDebug3()) {
       log.debug3( "Serving cached content for: " + url
                   + " mime type=" + mimeType
@@ -1400,6 +1457,7 @@ public class ServeContent extends LockssServlet {
     if (cuLastModified != null) {
       resp.setHeader(HttpFields.__LastModified, cuLastModified);
     }
+    resp.setHeader(HttpFields.__ETag, etag);
 
     AuState aus = AuUtil.getAuState(au);
     if (!aus.isOpenAccess()) {
@@ -1412,11 +1470,166 @@ public class ServeContent extends LockssServlet {
     // Indicate the AU the content came from
     resp.setHeader(Constants.X_LOCKSS_FROM_AUID, au.getAuId());
 
+    isCuEncoded = AuUtil.hasContentEncoding(cu);
+
+    // Byte ranges are served only for content sent as stored
+    if (!isRewritten(lrf) && !isCuEncoded) {
+      resp.setHeader(HttpFields.__AcceptRanges, "bytes");
+      List<InclusiveByteRange> ranges =
+	getRequestedRanges(etag, cuLastModified, cu.getContentSize());
+      if (ranges != null) {
+	serveRanges(ranges, ctype, cu.getContentSize());
+	return;
+      }
+    }
+
     // rewrite content from cache
     CharsetUtil.InputStreamAndCharset isc = CharsetUtil.getCharsetStream(cu);
-    isCuEncoded = AuUtil.hasContentEncoding(cu);
-    handleRewriteInputStream(isc.getInStream(), mimeType,
-			     isc.getCharset(), cu.getContentSize());
+    handleRewriteInputStream(lrf, isc.getInStream(), mimeType,
+			     isc.getCharset(), cu.getContentSize(), cu);
+  }
+
+  /** Return true if content would be rewritten by the factory */
+  private boolean isRewritten(LinkRewriterFactory lrf) {
+    return lrf != null && !(isMementoRequest() && !rewriteMementoResponses);
+  }
+
+  /** Return a strong ETag for the representation of the CU that will be
+   * sent.  It changes whenever a new version is stored and, for rewritten
+   * content, whenever anything that affects the rewriting changes. */
+  String makeETag(CIProperties props, LinkRewriterFactory lrf) {
+    StringBuilder sb = new StringBuilder();
+    sb.append(au.getAuId());
+    sb.append("|");
+    sb.append(cu.getUrl());
+    sb.append("|");
+    sb.append(props.getProperty(CachedUrl.PROPERTY_FETCH_TIME));
+    sb.append("|");
+    sb.append(cu.getContentSize());
+    if (isRewritten(lrf)) {
+      sb.append("|");
+      sb.append(getRewriteVariant(lrf));
+    }
+    return "\"" + cu.getVersion() + "-"
+      + Integer.toHexString(sb.toString().hashCode()) + "\"";
+  }
+
+  /** Return true if the If-None-Match header value matches the ETag.  Uses
+   * the weak comparison RFC 7232 specifies for If-None-Match. */
+  static boolean etagMatches(String ifNoneMatch, String etag) {
+    if (ifNoneMatch.trim().equals("*")) {
+      return true;
+    }
+    String opaque = stripWeak(etag);
+    for (String tag : StringUtil.breakAt(ifNoneMatch, ",", true)) {
+      if (stripWeak(tag).equals(opaque)) {
+	return true;
+      }
+    }
+    return false;
+  }
+
+  private static String stripWeak(String etag) {
+    return etag.startsWith("W/") ? etag.substring(2) : etag;
+  }
+
+  /** Return the satisfiable byte ranges requested by the Range header, an
+   * empty list if none are satisfiable, or null if the whole content
+   * should be sent (no Range header, or an If-Range that doesn't match
+   * the current representation). */
+  List<InclusiveByteRange> getRequestedRanges(String etag,
+					      String lastModified,
+					      long length) {
+    Enumeration reqRanges = req.getHeaders(HttpFields.__Range);
+    if (reqRanges == null || !reqRanges.hasMoreElements()) {
+      return null;
+    }
+    String ifRange = req.getHeader(HttpFields.__IfRange);
+    if (ifRange != null
+	&& !ifRange.equals(etag) && !ifRange.equals(lastModified)) {
+      return null;
+    }
+    return getSatisfiableRanges(reqRanges, length);
+  }
+
+  static List<InclusiveByteRange> getSatisfiableRanges(Enumeration reqRanges,
+							long length) {
+    // Jetty's List is raw; its elements are InclusiveByteRanges
+    @SuppressWarnings("unchecked")
+    List<InclusiveByteRange> res =
+      InclusiveByteRange.satisfiableRanges(reqRanges, length);
+    return res == null ? Collections.<InclusiveByteRange>emptyList() : res;
+  }
+
+  /** Send the requested byte ranges of the CU: a single range as a 206
+   * response, several as a multipart/byteranges response, none as a 416.
+   * Ranges are read by skipping (seeking) in the content file rather than
+   * reading the preceding bytes. */
+  void serveRanges(List<InclusiveByteRange> ranges, String ctype,
+		   long length)
+      throws IOException {
+    if (ranges.isEmpty()) {
+      resp.setStatus(HttpResponse.__416_Requested_Range_Not_Satisfiable);
+      resp.setHeader(HttpFields.__ContentRange,
+		     InclusiveByteRange.to416HeaderRangeString(length));
+      setContentLength(0);
+      return;
+    }
+    InputStream in = cu.getUnfilteredInputStream();
+    OutputStream outStr = null;
+    try {
+      resp.setStatus(HttpResponse.__206_Partial_Content);
+      if (ranges.size() == 1) {
+	InclusiveByteRange ibr = ranges.get(0);
+	long size = ibr.getSize(length);
+	resp.setHeader(HttpFields.__ContentRange,
+		       ibr.toHeaderRangeString(length));
+	setContentLength(size);
+	outStr = resp.getOutputStream();
+	skipFully(in, ibr.getFirst(length));
+	StreamUtil.copy(in, outStr, size);
+	return;
+      }
+      outStr = resp.getOutputStream();
+      MultiPartResponse multi = new MultiPartResponse(outStr);
+      resp.setContentType("multipart/byteranges; boundary="
+			  + multi.getBoundary());
+      long pos = 0;
+      for (InclusiveByteRange ibr : ranges) {
+	long start = ibr.getFirst(length);
+	long size = ibr.getSize(length);
+	multi.startPart(ctype,
+			new String[] {HttpFields.__ContentRange + ": "
+				      + ibr.toHeaderRangeString(length)});
+	if (start < pos) {
+	  // Ranges needn't be in order; reopen to go backwards
+	  IOUtil.safeClose(in);
+	  in = cu.getUnfilteredInputStream();
+	  pos = 0;
+	}
+	skipFully(in, start - pos);
+	pos = start + StreamUtil.copy(in, outStr, size);
+      }
+      multi.close();
+    } finally {
+      IOUtil.safeClose(outStr);
+      IOUtil.safeClose(in);
+    }
+  }
+
+  /** Skip n bytes of the stream.  InputStream.skip() on a file stream
+   * seeks rather than reading. */
+  static void skipFully(InputStream in, long n) throws IOException {
+    while (n > 0) {
+      long skipped = in.skip(n);
+      if (skipped <= 0) {
+	if (in.read() < 0) {
+	  throw new EOFException("Content shorter than expected");
+	}
+	skipped = 1;
+      }
+      n -= skipped;
+    }
   }
 
   String makeContentDisposition(String disp) {
@@ -1910,8 +2123,22 @@ public class ServeContent extends LockssServlet {
                                           String mimeType,
                                           String charset,
                                           long length) throws IOException {
+    handleRewriteInputStream(lrf, original, mimeType, charset, length, null);
+  }
+
+  /** Rewrite and send the content.  If cacheCu is non-null the content is
+   * that CachedUrl's, and the rewritten body may be served from, or
+   * stored in, the rewritten content cache. */
+  protected void handleRewriteInputStream(LinkRewriterFactory lrf,
+                                          InputStream original,
+                                          String mimeType,
+                                          String charset,
+                                          long length,
+                                          CachedUrl cacheCu)
+      throws IOException {
     InputStream rewritten = original;
     OutputStream outStr = null;
+    RewrittenContentCache.Key cacheKey = null;
     try {
       if (lrf == null || (isMementoRequest() && !rewriteMementoResponses)) {
         // No rewriting, set length and copy
@@ -1928,13 +2155,38 @@ public class ServeContent extends LockssServlet {
         outStr = resp.getOutputStream();
         StreamUtil.copy(original, outStr);
       } else {
+	if (baseUrl == null) {
+	  baseUrl = url;
+	}
+        RewrittenContentCache rcc = rewrittenContentCache;
+        if (cacheCu != null && rcc != null && rcc.isCacheable(length)) {
+          cacheKey = makeRewriteCacheKey(lrf, cacheCu, mimeType, charset);
+          RewrittenContentCache.Entry ent = rcc.get(cacheKey);
+          // null if the entry's file was removed since get()
+          InputStream cached = ent == null ? null : ent.openInputStream();
+          if (cached != null) {
+            if (log.isDebug2()) {
+              log.debug2("Serving rewritten content from cache: " + url);
+            }
+            try {
+              if (!StringUtil.isNullString(ent.getCharset())) {
+                resp.setCharacterEncoding(ent.getCharset());
+              }
+              if (!isCuEncoded) {
+                setContentLength(ent.getLength());
+              }
+              outStr = resp.getOutputStream();
+              StreamUtil.copy(cached, outStr);
+            } finally {
+              IOUtil.safeClose(cached);
+            }
+            return;
+          }
+        }
 	if (log.isDebug2()) {
 	  log.debug2("Rewriting: " + url);
 	}
         try {
-	  if (baseUrl == null) {
-	    baseUrl = url;
-	  }
 	  if (!baseUrl.equals(url)) {
 	    log.debug("Rewriting " + url + " using base URL " + baseUrl);
 	  }
@@ -1947,15 +2199,17 @@ public class ServeContent extends LockssServlet {
 		  makeLinkTransform());
         } catch (PluginException e) {
           log.error("Can't create link rewriter, not rewriting", e);
+          cacheKey = null;
         }
         // If the rewritten stream knows the charset used to encode it,
         // send that in the response in place of the original file's
         // charset.
+        String rewrittenCharset = null;
         if (rewritten instanceof EncodedThing) {
 	  // Note; getCharset() looks at the output stream so will cause
 	  // the parser and transform to be invoked here, not where the
 	  // stream is read below
-          String rewrittenCharset = ((EncodedThing)rewritten).getCharset();
+          rewrittenCharset = ((EncodedThing)rewritten).getCharset();
           log.debug3("rewrittenCharset: " + rewrittenCharset);
           if (!StringUtil.isNullString(rewrittenCharset)) {
             resp.setCharacterEncoding(rewrittenCharset);
@@ -1972,6 +2226,23 @@ public class ServeContent extends LockssServlet {
           }
           outStr = resp.getOutputStream();
           baos.writeTo(outStr);
+          if (cacheKey != null) {
+            rcc.put(cacheKey, baos.toByteArray(), rewrittenCharset);
+          }
+        } else if (cacheKey != null) {
+          // Larger cacheable file is sent as it's rewritten.  A copy is
+          // captured for the cache, in memory up to maxBufferedRewrite,
+          // then in a temp file.
+          RewrittenContentCache.Capture capture =
+              rcc.newCapture(cacheKey, maxBufferedRewrite);
+          try {
+            outStr = resp.getOutputStream();
+            StreamUtil.copy(rewritten, new TeeOutputStream(outStr, capture));
+            capture.store(rewrittenCharset);
+          } finally {
+            // no-op if stored
+            capture.abort();
+          }
         } else {
           outStr = resp.getOutputStream();
           StreamUtil.copy(rewritten, outStr);
@@ -1984,6 +2255,40 @@ public class ServeContent extends LockssServlet {
     }
   }
 
+  /** Return the rewritten content cache key for the CachedUrl, rewritten
+   * with the given factory and the current request's link transform. */
+  RewrittenContentCache.Key makeRewriteCacheKey(LinkRewriterFactory lrf,
+                                                CachedUrl cacheCu,
+                                                String mimeType,
+                                                String charset) {
+    StringBuilder sb = new StringBuilder();
+    sb.append(getRewriteVariant(lrf));
+    sb.append("|");
+    sb.append(mimeType);
+    sb.append("|");
+    sb.append(charset);
+    return new RewrittenContentCache.Key(au.getAuId(), cacheCu.getUrl(),
+                                         cacheCu.getVersion(),
+                                         sb.toString());
+  }
+
+  /** Return a string that captures the request-independent and
+   * request-dependent inputs to link rewriting, other than the content */
+  String getRewriteVariant(LinkRewriterFactory lrf) {
+    StringBuilder sb = new StringBuilder();
+    sb.append(au.getPlugin().getVersion());
+    sb.append("|");
+    sb.append(lrf.getClass().getName());
+    sb.append("|");
+    sb.append(baseUrl == null ? url : baseUrl);
+    sb.append("|");
+    // The link transform depends on the rewrite style, absolute links,
+    // the request host and the rewrite-for stem; its output for the empty
+    // URL is the prefix it adds to every link.
+    sb.append(makeLinkTransform().rewrite(""));
+    return sb.toString();
+  }
+
   ServletUtil.LinkTransform makeLinkTransform() {
     switch (rewriteStyle) {
     case QueryArg:
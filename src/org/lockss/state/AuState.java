@@ -33,6 +33,7 @@ in this Software without prior written authorization from Stanford University.
 
 package org.lockss.state;
 
+import java.io.*;
 import java.util.*;
 import org.lockss.plugin.*;
 import org.lockss.app.*;
@@ -1032,6 +1033,99 @@ public class AuState implements LockssSerializable {
     }
   }
 
+  // Version of the binary encoding written by encode().  Fields added
+  // to the class should be appended to the encoding; decode() leaves
+  // them at their initial values when reading older records.
+  static final int ENCODING_VERSION = 1;
+
+  /** Encode the persistent fields for the binary state store */
+  byte[] encode() throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream(256);
+    DataOutputStream out = new DataOutputStream(bos);
+    out.writeByte(ENCODING_VERSION);
+    out.writeLong(lastCrawlTime);
+    out.writeLong(lastCrawlAttempt);
+    StateStore.writeString(out, lastCrawlResultMsg);
+    out.writeInt(lastCrawlResult);
+    out.writeLong(lastDeepCrawlTime);
+    out.writeLong(lastDeepCrawlAttempt);
+    StateStore.writeString(out, lastDeepCrawlResultMsg);
+    out.writeInt(lastDeepCrawlResult);
+    out.writeInt(lastDeepCrawlDepth);
+    out.writeLong(lastTopLevelPoll);
+    out.writeLong(lastPollStart);
+    out.writeInt(lastPollResult);
+    out.writeLong(pollDuration);
+    out.writeInt(clockssSubscriptionStatus);
+    out.writeDouble(v3Agreement);
+    out.writeDouble(highestV3Agreement);
+    StateStore.writeEnum(out, accessType);
+    StateStore.writeEnum(out, migrationState);
+    StateStore.writeEnum(out, hasSubstance);
+    StateStore.writeString(out, substanceVersion);
+    StateStore.writeString(out, metadataVersion);
+    out.writeLong(lastMetadataIndex);
+    out.writeLong(lastContentChange);
+    out.writeLong(lastPoPPoll);
+    out.writeInt(lastPoPPollResult);
+    out.writeLong(lastLocalHashScan);
+    out.writeInt(numAgreePeersLastPoR);
+    out.writeInt(numWillingRepairers);
+    out.writeInt(numCurrentSuspectVersions);
+    StateStore.writeStrings(out, cdnStems);
+    StateStore.writeStrings(out, crawlUrls);
+    out.flush();
+    return bos.toByteArray();
+  }
+
+  /** Decode an AuState written by {@link #encode()}.  As with one read
+   * from XML, the result must be passed to {@link
+   * #AuState(AuState, ArchivalUnit, HistoryRepository)} to attach it
+   * to its AU. */
+  static AuState decode(byte[] data) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+    int ver = in.readUnsignedByte();
+    if (ver > ENCODING_VERSION) {
+      throw new IOException("Unknown AuState encoding version: " + ver);
+    }
+    AuState aus = new AuState();
+    aus.lastCrawlTime = in.readLong();
+    aus.lastCrawlAttempt = in.readLong();
+    aus.lastCrawlResultMsg = StateStore.readString(in);
+    aus.lastCrawlResult = in.readInt();
+    aus.lastDeepCrawlTime = in.readLong();
+    aus.lastDeepCrawlAttempt = in.readLong();
+    aus.lastDeepCrawlResultMsg = StateStore.readString(in);
+    aus.lastDeepCrawlResult = in.readInt();
+    aus.lastDeepCrawlDepth = in.readInt();
+    aus.lastTopLevelPoll = in.readLong();
+    aus.lastPollStart = in.readLong();
+    aus.lastPollResult = in.readInt();
+    aus.pollDuration = in.readLong();
+    aus.clockssSubscriptionStatus = in.readInt();
+    aus.v3Agreement = in.readDouble();
+    aus.highestV3Agreement = in.readDouble();
+    aus.accessType = StateStore.readEnum(in, AccessType.class, null);
+    aus.migrationState = StateStore.readEnum(in, MigrationState.class,
+					     MigrationState.NotStarted);
+    aus.hasSubstance = StateStore.readEnum(in, SubstanceChecker.State.class,
+					   null);
+    aus.substanceVersion = StateStore.readString(in);
+    aus.metadataVersion = StateStore.readString(in);
+    aus.lastMetadataIndex = in.readLong();
+    aus.lastContentChange = in.readLong();
+    aus.lastPoPPoll = in.readLong();
+    aus.lastPoPPollResult = in.readInt();
+    aus.lastLocalHashScan = in.readLong();
+    aus.numAgreePeersLastPoR = in.readInt();
+    aus.numWillingRepairers = in.readInt();
+    aus.numCurrentSuspectVersions = in.readInt();
+    aus.cdnStems = StateStore.readStrings(in, new ArrayList<String>());
+    aus.crawlUrls = StateStore.readStrings(in, new HashSet<String>());
+    aus.postUnmarshal(null);
+    return aus;
+  }
+
   protected void flushAuCaches() {
     try {
       au.setConfiguration(au.getConfiguration());
@@ -32,6 +32,7 @@ in this Software without prior written authorization from Stanford University.
 
 package org.lockss.state;
 
+import java.io.*;
 import org.lockss.util.LockssSerializable;
 
 /**
@@ -151,4 +152,16 @@ public class CrawlState implements LockssSerializable {
     return startTime;
   }
 
+  /** Write the fields for the binary state store */
+  void writeTo(DataOutput out) throws IOException {
+    out.writeInt(type);
+    out.writeInt(status);
+    out.writeLong(startTime);
+  }
+
+  /** Read a CrawlState written by {@link #writeTo(DataOutput)} */
+  static CrawlState readFrom(DataInput in) throws IOException {
+    return new CrawlState(in.readInt(), in.readInt(), in.readLong());
+  }
+
 }
@@ -33,6 +33,7 @@ in this Software without prior written authorization from Stanford University.
 
 package org.lockss.state;
 
+import java.io.*;
 import java.util.*;
 import org.lockss.plugin.*;
 import org.lockss.util.ExtMapBean;
@@ -273,6 +274,42 @@ public class DamagedNodeSet implements LockssSerializable {
     cusToRepair = mapBean.getMap();
   }
 
+  /** Encode the sets for the binary state store */
+  synchronized byte[] encode() throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bos);
+    StateStore.writeStrings(out, nodesWithDamage);
+    out.writeInt(cusToRepair.size());
+    for (Map.Entry<?,?> ent : ((Map<?,?>)cusToRepair).entrySet()) {
+      StateStore.writeString(out, (String)ent.getKey());
+      StateStore.writeStrings(out, (Collection<?>)ent.getValue());
+    }
+    out.flush();
+    return bos.toByteArray();
+  }
+
+  /** Decode a DamagedNodeSet written by {@link #encode()} */
+  static DamagedNodeSet decode(byte[] data, ArchivalUnit au,
+			       HistoryRepository repository)
+      throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+    DamagedNodeSet res = new DamagedNodeSet(au, repository);
+    res.setDamagedNodes(StateStore.readStrings(in, new HashSet<String>()));
+    int n = in.readInt();
+    HashMap<String,ArrayList<String>> cusToRepair =
+      new HashMap<String,ArrayList<String>>();
+    for (int ix = 0; ix < n; ix++) {
+      String cusUrl = StateStore.readString(in);
+      ArrayList<String> urls = StateStore.readStrings(in,
+						       new ArrayList<String>());
+      if (urls != null) {
+	cusToRepair.put(cusUrl, urls);
+      }
+    }
+    res.cusToRepair = cusToRepair;
+    return res;
+  }
+
   public String toString() {
     StringBuffer sb = new StringBuffer();
     sb.append("[DamagedNodeSet: ");
@@ -101,6 +101,11 @@ public interface HistoryRepository extends LockssAuManager {
    */
   public File getAuStateFile();
 
+  /** Return the File in which an unfinished crawl of this AU saves its
+   * state, or null if crawl state isn't saved
+   */
+  public File getCrawlCheckpointFile();
+
   /**
    * Return the date/time the au was created.
    */
@@ -41,6 +41,7 @@ import org.lockss.app.BaseLockssDaemonManager;
 import org.lockss.app.LockssAuManager;
 import org.lockss.app.LockssDaemon;
 import org.lockss.config.Configuration;
+import org.lockss.config.CurrentConfig;
 import org.lockss.plugin.*;
 import org.lockss.protocol.DatedPeerIdSet;
 import org.lockss.protocol.DatedPeerIdSetImpl;
@@ -69,6 +70,29 @@ public class HistoryRepositoryImpl
    */
   public static final String PARAM_HISTORY_LOCATION = Configuration.PREFIX + "history.location";
 
+  /**
+   * <p>If true, each AU's identity agreements are kept in an
+   * append-only binary journal, to which only the agreements that
+   * changed in a poll are added, rather than being rewritten as XML
+   * after each poll.  An existing XML file is read if there's no
+   * journal.</p>
+   */
+  public static final String PARAM_AGREEMENT_JOURNAL =
+    Configuration.PREFIX + "history.agreementJournal";
+  public static final boolean DEFAULT_AGREEMENT_JOURNAL = true;
+
+  /**
+   * <p>If true, the AU state, damaged node set, node states and poll
+   * histories are kept in a single binary store in the AU's history
+   * directory rather than in separate XML files.  XML files are
+   * imported into the store the first time they're read.  If false,
+   * the XML files are written, and anything in the store is moved back
+   * to them as it's next stored.</p>
+   */
+  public static final String PARAM_STATE_STORE =
+    Configuration.PREFIX + "history.stateStore";
+  public static final boolean DEFAULT_STATE_STORE = true;
+
   /**
    * <p>The AU state file name.</p>
    */
@@ -95,6 +119,11 @@ public class HistoryRepositoryImpl
    */
   static final String IDENTITY_AGREEMENT_FILE_NAME = "#id_agreement.xml";
 
+  /**
+   * <p>The identity agreement journal file name.</p>
+   */
+  static final String IDENTITY_AGREEMENT_JOURNAL_NAME = "#id_agreement.jnl";
+
   /**
    * <p>Mapping file for polls.</p>
    */
@@ -114,6 +143,23 @@ public class HistoryRepositoryImpl
    */
   static final String NODE_FILE_NAME = "#nodestate.xml";
 
+  /**
+   * <p>The file in which an unfinished crawl saves its state.</p>
+   */
+  static final String CRAWL_CHECKPOINT_FILE_NAME = "#crawl_checkpoint";
+
+  /**
+   * <p>The binary state store file name.</p>
+   */
+  static final String STATE_STORE_FILE_NAME = "#state.jnl";
+
+  // Keys of the records in the state store.  Node states and poll
+  // histories are keyed by prefix + canonical node URL.
+  static final String AU_STATE_KEY = "au";
+  static final String DAMAGED_NODES_KEY = "damaged";
+  static final String NODE_STATE_KEY_PREFIX = "node:";
+  static final String POLL_HISTORY_KEY_PREFIX = "history:";
+
   
   /**
    * <p>A logger for use by this class.</p>
@@ -179,6 +225,8 @@ public class HistoryRepositoryImpl
 
   private ArchivalUnit storedAu;
 
+  private StateStore stateStore;
+
   HistoryRepositoryImpl(ArchivalUnit au, String rootPath) {
     storedAu = au;
     rootLocation = rootPath;
@@ -191,12 +239,166 @@ public class HistoryRepositoryImpl
     }
   }
 
+  /**
+   * <p>Returns the XML identity agreement file, first bringing it up
+   * to date with the agreement journal if the journal is newer, as
+   * callers copy the file (<i>eg</i>, for backup).</p>
+   */
   public File getIdentityAgreementFile() {
-    return new File(rootLocation, IDENTITY_AGREEMENT_FILE_NAME);
+    File file = new File(rootLocation, IDENTITY_AGREEMENT_FILE_NAME);
+    RecordJournal journal = getIdentityAgreementJournal();
+    if (journal.isNewerThan(file)) {
+      exportIdentityAgreementJournal(journal, file);
+    }
+    return file;
   }
 
+  RecordJournal getIdentityAgreementJournal() {
+    return new RecordJournal(new File(rootLocation,
+				      IDENTITY_AGREEMENT_JOURNAL_NAME));
+  }
+
+  private void exportIdentityAgreementJournal(RecordJournal journal,
+					      File file) {
+    try {
+      AuAgreements auAgreements = AuAgreements.decodeRecords(journal.read());
+      makeIdentityAgreementListSerializer().serialize(file, auAgreements);
+      // Same age as the journal, so the journal is still preferred
+      file.setLastModified(journal.getFile().lastModified());
+    }
+    catch (Exception exc) {
+      logger.error("Could not export identity agreement journal for AU '" +
+		   storedAu.getName() + "'", exc);
+    }
+  }
+
+  /**
+   * <p>Returns the XML AU state file, first exporting the AU state to
+   * it if it's in the state store, as callers copy the file
+   * (<i>eg</i>, for backup).</p>
+   */
   public File getAuStateFile() {
-    return new File(rootLocation, AU_FILE_NAME);
+    File file = new File(rootLocation, AU_FILE_NAME);
+    StateStore store = getStateStore();
+    if (store.exists()
+	&& (!file.exists()
+	    || file.lastModified() < store.getFile().lastModified())) {
+      byte[] rec = getStateRecord(AU_STATE_KEY);
+      if (rec != null) {
+	try {
+	  AuState auState = new AuState(AuState.decode(rec), storedAu, this);
+	  makeAuStateSerializer().serialize(file, wrap(auState));
+	  file.setLastModified(store.getFile().lastModified());
+	}
+	catch (Exception exc) {
+	  logger.error("Could not export AU state for AU '" +
+		       storedAu.getName() + "'", exc);
+	}
+      }
+    }
+    return file;
+  }
+
+  synchronized StateStore getStateStore() {
+    if (stateStore == null) {
+      stateStore = new StateStore(new File(rootLocation,
+					   STATE_STORE_FILE_NAME));
+    }
+    return stateStore;
+  }
+
+  boolean isStateStoreEnabled() {
+    return CurrentConfig.getBooleanParam(PARAM_STATE_STORE,
+					 DEFAULT_STATE_STORE);
+  }
+
+  /**
+   * <p>Returns a record from the state store, or null if the store
+   * doesn't exist, has no such record or can't be read.</p>
+   */
+  private byte[] getStateRecord(String key) {
+    StateStore store = getStateStore();
+    if (!store.exists()) {
+      return null;
+    }
+    try {
+      return store.get(key);
+    }
+    catch (IOException exc) {
+      logger.error("Could not read state store for AU '" +
+		   storedAu.getName() + "'", exc);
+      return null;
+    }
+  }
+
+  /**
+   * <p>Stores a record in the state store, or removes it if val is
+   * null.</p>
+   * @throws RepositoryStateException if the store can't be written.
+   */
+  private void putStateRecord(String key, byte[] val, String errorString) {
+    try {
+      if (val != null) {
+	getStateStore().put(key, val);
+      } else {
+	getStateStore().remove(key);
+      }
+    }
+    catch (IOException exc) {
+      logger.error(errorString, exc);
+      throw new RepositoryStateException(errorString, exc);
+    }
+  }
+
+  /**
+   * <p>Imports a record read from an XML file into the state store.
+   * Failure is logged, and the XML file will be read again next
+   * time.</p>
+   */
+  private void importStateRecord(String key, byte[] val) {
+    if (val == null || !isStateStoreEnabled()) {
+      return;
+    }
+    try {
+      getStateStore().put(key, val);
+    }
+    catch (IOException exc) {
+      logger.warning("Could not import " + key + " into state store for AU '" +
+		     storedAu.getName() + "'", exc);
+    }
+  }
+
+  /**
+   * <p>Removes a record from the state store, if it exists, after it
+   * has been written to an XML file, which is then the current
+   * version.</p>
+   */
+  private void removeStateRecord(String key) {
+    try {
+      getStateStore().remove(key);
+    }
+    catch (IOException exc) {
+      logger.warning("Could not remove " + key + " from state store for AU '" +
+		     storedAu.getName() + "'", exc);
+    }
+  }
+
+  String nodeStateKey(CachedUrlSet cus) throws MalformedURLException {
+    return NODE_STATE_KEY_PREFIX + canonicalNodeUrl(cus);
+  }
+
+  String pollHistoryKey(CachedUrlSet cus) throws MalformedURLException {
+    return POLL_HISTORY_KEY_PREFIX + canonicalNodeUrl(cus);
+  }
+
+  private String canonicalNodeUrl(CachedUrlSet cus)
+      throws MalformedURLException {
+    String urlStr = cus.getUrl();
+    return AuUrl.isAuUrl(urlStr) ? urlStr : canonicalizePath(urlStr);
+  }
+
+  public File getCrawlCheckpointFile() {
+    return new File(rootLocation, CRAWL_CHECKPOINT_FILE_NAME);
   }
 
   public long getAuCreationTime() {
@@ -251,13 +453,24 @@ public class HistoryRepositoryImpl
    */
   AuState loadAuState(ObjectSerializer deserializer) {
     logger.debug3("Loading state for AU '" + storedAu.getName() + "'");
-    File auFile = getAuStateFile();
+    File auFile = new File(rootLocation, AU_FILE_NAME);
     String errorString = "Could not load AU state for AU '" + storedAu.getName() + "'";
 
+    byte[] rec = getStateRecord(AU_STATE_KEY);
+    if (rec != null) {
+      try {
+	return new AuState(AuState.decode(rec), storedAu, this);
+      }
+      catch (IOException exc) {
+	logger.error(errorString, exc);
+	// drop down to try the XML file
+      }
+    }
     try {
       // CASTOR: remove unwrap() when Castor is phased out
       AuState auState = (AuState)unwrap(deserializer.deserialize(auFile));
       AuState res = new AuState(auState, storedAu, this);
+      importStateRecord(AU_STATE_KEY, res.encode());
       return res;
     }
     catch (SerializationException.FileNotFound fnf) {
@@ -272,6 +485,11 @@ public class HistoryRepositoryImpl
       logger.error(errorString, iioe);
       throw new RepositoryStateException(errorString, iioe);
     }
+    catch (IOException exc) {
+      // From encode(), shouldn't happen
+      logger.error(errorString, exc);
+      // drop down to return default
+    }
 
     // Default: return default
     return new AuState(storedAu, this);
@@ -302,12 +520,23 @@ public class HistoryRepositoryImpl
     File damFile = new File(rootLocation, DAMAGED_NODES_FILE_NAME);
     String errorString = "Could not load damaged nodes '" + storedAu.getName() + "'";
 
+    byte[] rec = getStateRecord(DAMAGED_NODES_KEY);
+    if (rec != null) {
+      try {
+	return DamagedNodeSet.decode(rec, storedAu, this);
+      }
+      catch (IOException exc) {
+	logger.error(errorString, exc);
+	// drop down to try the XML file
+      }
+    }
     try {
       // CASTOR: NO CHANGE after Castor is phased out
       DamagedNodeSet damNodes = (DamagedNodeSet)deserializer.deserialize(damFile);
       // set these fields manually // post-deserialization method?
       damNodes.theAu = storedAu;
       damNodes.repository = this;
+      importStateRecord(DAMAGED_NODES_KEY, damNodes.encode());
       return damNodes;
     }
     catch (SerializationException.FileNotFound fnf) {
@@ -322,6 +551,11 @@ public class HistoryRepositoryImpl
       logger.error(errorString, exc);
       throw new RepositoryStateException(errorString, exc);
     }
+    catch (IOException exc) {
+      // From encode(), shouldn't happen
+      logger.error(errorString, exc);
+      // drop down to return empty set
+    }
 
     // Default: return empty set
     return new DamagedNodeSet(storedAu, this);
@@ -349,12 +583,31 @@ public class HistoryRepositoryImpl
    */
   Object loadIdentityAgreements(ObjectSerializer deserializer) {
     logger.debug3("Loading identity agreements for AU '" + storedAu.getName() + "'");
-    File idFile = getIdentityAgreementFile();
+    File idFile = new File(rootLocation, IDENTITY_AGREEMENT_FILE_NAME);
     String errorString = "Could not load identity agreements for AU '" + storedAu.getName() + "'";
 
+    RecordJournal journal = getIdentityAgreementJournal();
+    if (journal.isNewerThan(idFile)) {
+      try {
+	return AuAgreements.decodeRecords(journal.read());
+      }
+      catch (IOException exc) {
+	logger.error(errorString, exc);
+	// drop down to try the XML file
+      }
+    }
     try {
       // CASTOR: remove unwrap() when Castor is phased out
-      return unwrap(deserializer.deserialize(idFile));
+      Object res = unwrap(deserializer.deserialize(idFile));
+      if (journal.exists()) {
+	// Superseded by the XML file (restored from backup, or written
+	// with the journal disabled).  Start a new one at the next
+	// store.
+	logger.debug("Discarding old identity agreement journal for AU '" +
+		     storedAu.getName() + "'");
+	journal.delete();
+      }
+      return res;
     }
     catch (SerializationException.FileNotFound fnf) {
       logger.debug2("No identities file for AU '" + storedAu.getName() + "'");
@@ -403,6 +656,17 @@ public class HistoryRepositoryImpl
     File file = null;
     try {
       // Can throw MalformedURLException
+      String key = nodeStateKey(cus);
+      byte[] rec = getStateRecord(key);
+      if (rec != null) {
+        try {
+          return NodeStateImpl.decode(rec, cus, this);
+        }
+        catch (IOException exc) {
+          logger.error(errorString, exc);
+          // drop down to try the XML file
+        }
+      }
       file = new File(getNodeLocation(cus), NODE_FILE_NAME);
 
       // CASTOR: remove unwrap() when Castor is phased out
@@ -413,6 +677,7 @@ public class HistoryRepositoryImpl
       nodeState.repository = this;
       // CASTOR: uncomment this or write post-deserialization method
       // nodeState.repository = this;
+      importStateRecord(key, nodeState.encode());
       return nodeState;
     }
     catch (SerializationException.FileNotFound fnf) {
@@ -479,10 +744,23 @@ public class HistoryRepositoryImpl
 
     try {
       // Can throw MalformedURLException
+      String key = pollHistoryKey(cus);
+      byte[] rec = getStateRecord(key);
+      if (rec != null) {
+        try {
+          impl.setPollHistoryList(PollHistory.decodeList(rec));
+          return;
+        }
+        catch (IOException exc) {
+          logger.error(errorString, exc);
+          // drop down to try the XML file
+        }
+      }
       nodeFile = new File(getNodeLocation(cus), HISTORY_FILE_NAME);
 
       // CASTOR: remove unwrap() when Castor is phased out
       List hist = (List)unwrap(deserializer.deserialize(nodeFile));
+      importStateRecord(key, PollHistory.encodeList(hist));
       if (hist.size() == 0) {
         logger.debug3("Empty history list loaded '" + cus.getUrl() + "'");
         // drop down to the default setter
@@ -532,6 +810,17 @@ public class HistoryRepositoryImpl
    * @see #storeAuState(ObjectSerializer, AuState)
    */
   public void storeAuState(AuState auState) {
+    if (isStateStoreEnabled()) {
+      String errorString = "Could not store AU state for AU '" + auState.getArchivalUnit().getName() + "'";
+      try {
+	putStateRecord(AU_STATE_KEY, auState.encode(), errorString);
+      }
+      catch (IOException exc) {
+	logger.error(errorString, exc);
+	throw new RepositoryStateException(errorString, exc);
+      }
+      return;
+    }
     // CASTOR: replace by makeObjectSerializer()
     storeAuState(makeAuStateSerializer(), auState);
   }
@@ -550,6 +839,8 @@ public class HistoryRepositoryImpl
     try {
       // CASTOR: remove wrap() when Castor is phased out
       serializer.serialize(file, wrap(auState));
+      // The XML file is now the current version
+      removeStateRecord(AU_STATE_KEY);
     }
     catch (Exception exc) {
       String errorString = "Could not store AU state for AU '" + auState.getArchivalUnit().getName() + "'";
@@ -564,6 +855,17 @@ public class HistoryRepositoryImpl
    * @see #storeDamagedNodeSet(ObjectSerializer, DamagedNodeSet)
    */
   public void storeDamagedNodeSet(DamagedNodeSet nodeSet) {
+    if (isStateStoreEnabled()) {
+      String errorString = "Could not store damaged nodes for AU '" + nodeSet.theAu.getName() + "'";
+      try {
+	putStateRecord(DAMAGED_NODES_KEY, nodeSet.encode(), errorString);
+      }
+      catch (IOException exc) {
+	logger.error(errorString, exc);
+	throw new RepositoryStateException(errorString, exc);
+      }
+      return;
+    }
     // CASTOR: change to makeObjectSerializer() when Castor is phased out
     storeDamagedNodeSet(makeDamagedNodeSetSerializer(), nodeSet);
   }
@@ -582,6 +884,8 @@ public class HistoryRepositoryImpl
     try {
       // CASTOR: NO CHANGE when Castor is phased out
       serializer.serialize(file, nodeSet);
+      // The XML file is now the current version
+      removeStateRecord(DAMAGED_NODES_KEY);
     }
     catch (Exception exc) {
       String errorString = "Could not store damaged nodes for AU '" + nodeSet.theAu.getName() + "'";
@@ -596,11 +900,38 @@ public class HistoryRepositoryImpl
    * @see #storeIdentityAgreements(ObjectSerializer, List)
    */
   public void storeIdentityAgreements(AuAgreements auAgreements) {
+    if (CurrentConfig.getBooleanParam(PARAM_AGREEMENT_JOURNAL,
+				      DEFAULT_AGREEMENT_JOURNAL)) {
+      storeIdentityAgreementJournal(auAgreements);
+      return;
+    }
     // CASTOR: change to makeObjectSerializer() when Castor is phased out
     storeIdentityAgreements(makeIdentityAgreementListSerializer(),
 			    auAgreements);
   }
 
+  /**
+   * <p>Appends the changed agreements to the agreement journal, or
+   * rewrites it with all of them if it's new or has grown enough to
+   * compact.</p>
+   * @param auAgreements A {@link AuAgreements} instance.
+   * @throws RepositoryStateException if an error condition arises.
+   */
+  void storeIdentityAgreementJournal(AuAgreements auAgreements) {
+    logger.debug3("Storing identity agreement journal for AU '" + storedAu.getName() + "'");
+    File file = prepareFile(rootLocation, IDENTITY_AGREEMENT_JOURNAL_NAME);
+
+    try {
+      new RecordJournal(file).store(auAgreements.encodeRecords(true),
+				    auAgreements.encodeRecords(false));
+    }
+    catch (Exception exc) {
+      String errorString = "Could not store identity agreement journal for AU '" + storedAu.getName() + "'";
+      logger.error(errorString, exc);
+      throw new RepositoryStateException(errorString, exc);
+    }
+  }
+
   /**
    * <p>Stores an identity agreement instance using the given serializer
    * instance.</p>
@@ -616,6 +947,8 @@ public class HistoryRepositoryImpl
     try {
       // CR: I assume I need not wrap()
       serializer.serialize(file, auAgreements);
+      // The XML file is now the current version
+      getIdentityAgreementJournal().delete();
     }
     catch (Exception exc) {
       String errorString = "Could not store identity agreements for AU '" + storedAu.getName() + "'";
@@ -630,6 +963,22 @@ public class HistoryRepositoryImpl
    * @see #storeNodeState(ObjectSerializer, NodeState)
    */
   public void storeNodeState(NodeState nodeState) {
+    if (isStateStoreEnabled()) {
+      CachedUrlSet cus = nodeState.getCachedUrlSet();
+      String errorString = "Could not store node state for CUS '" + cus.getUrl() + "'";
+      try {
+	byte[] rec = ((NodeStateImpl)nodeState).encode();
+	if (rec != null) {
+	  putStateRecord(nodeStateKey(cus), rec, errorString);
+	  return;
+	}
+	// Has V3 poll states, which only the XML file records
+      }
+      catch (IOException exc) {
+	logger.error(errorString, exc);
+	throw new RepositoryStateException(errorString, exc);
+      }
+    }
     // CASTOR: change to makeObjectSerializer() when Castor is phased out
     storeNodeState(makeNodeStateSerializer(), nodeState);
   }
@@ -651,6 +1000,8 @@ public class HistoryRepositoryImpl
 
       // CASTOR: remove wrap() when Castor is phased out
       serializer.serialize(file, wrap(nodeState));
+      // The XML file is now the current version
+      removeStateRecord(nodeStateKey(cus));
     }
     catch (Exception exc) {
       String errorString = "Could not store node state for CUS '" + cus.getUrl() + "'";
@@ -665,6 +1016,20 @@ public class HistoryRepositoryImpl
    * @see #storePollHistories(ObjectSerializer, NodeState)
    */
   public void storePollHistories(NodeState nodeState) {
+    if (isStateStoreEnabled()) {
+      CachedUrlSet cus = nodeState.getCachedUrlSet();
+      String errorString = "Could not store poll history for CUS '" + cus.getUrl() + "'";
+      try {
+	List histories = ((NodeStateImpl)nodeState).getPollHistoryList();
+	putStateRecord(pollHistoryKey(cus), PollHistory.encodeList(histories),
+		       errorString);
+      }
+      catch (IOException exc) {
+	logger.error(errorString, exc);
+	throw new RepositoryStateException(errorString, exc);
+      }
+      return;
+    }
     // CASTOR: change to makeObjectSerializer() when Castor is phased out
     storePollHistories(makePollHistoriesSerializer(), nodeState);
   }
@@ -698,6 +1063,8 @@ public class HistoryRepositoryImpl
             (Serializable)((NodeStateImpl)nodeState).getPollHistoryList()
         );
       }
+      // The XML file is now the current version
+      removeStateRecord(pollHistoryKey(cus));
     }
     catch (Exception exc) {
       String errorString = "Could not store poll history for CUS '" + cus.getUrl() + "'";
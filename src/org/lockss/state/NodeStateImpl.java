@@ -32,6 +32,7 @@ in this Software without prior written authorization from Stanford University.
 
 package org.lockss.state;
 
+import java.io.*;
 import java.util.*;
 
 import org.lockss.app.*;
@@ -142,6 +143,56 @@ public class NodeStateImpl
     }
   }
 
+  /**
+   * Encode the node state for the binary state store.
+   * @return the encoding, or null if the state includes V3 poll states,
+   * which the encoding doesn't represent.
+   */
+  synchronized byte[] encode() throws IOException {
+    if ((activeV3Polls != null && !activeV3Polls.isEmpty())
+	|| (completedV3Polls != null && !completedV3Polls.isEmpty())) {
+      return null;
+    }
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bos);
+    out.writeBoolean(crawlState != null);
+    if (crawlState != null) {
+      crawlState.writeTo(out);
+    }
+    if (polls == null) {
+      out.writeInt(-1);
+    } else {
+      out.writeInt(polls.size());
+      for (Object poll : polls) {
+	((PollState)poll).writeTo(out);
+      }
+    }
+    out.writeLong(hashDuration);
+    out.writeInt(curState);
+    out.flush();
+    return bos.toByteArray();
+  }
+
+  /** Decode a node state written by {@link #encode()} */
+  static NodeStateImpl decode(byte[] data, CachedUrlSet cus,
+			      HistoryRepository repository)
+      throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+    CrawlState crawlState = in.readBoolean() ? CrawlState.readFrom(in) : null;
+    List<PollState> polls = null;
+    int n = in.readInt();
+    if (n >= 0) {
+      polls = new ArrayList<PollState>(n);
+      for (int ix = 0; ix < n; ix++) {
+	polls.add(PollState.readFrom(in));
+      }
+    }
+    NodeStateImpl res =
+      new NodeStateImpl(cus, in.readLong(), crawlState, polls, repository);
+    res.curState = in.readInt();
+    return res;
+  }
+
   public CachedUrlSet getCachedUrlSet() {
     return cus;
   }
@@ -27,8 +27,11 @@
 
 package org.lockss.state;
 
+import java.io.*;
 import java.util.*;
 
+import org.lockss.poller.Vote;
+
 /**
  * PollHistory contains the information for a completed poll.  It extends
  * PollState but ignores 'getDeadline()' (returns null).
@@ -92,4 +95,74 @@ public class PollHistory extends PollState {
   public Iterator getVotes() {
     return (new ArrayList(votes)).iterator();
   }
+
+  /** Write the fields for the binary state store */
+  void writeHistoryTo(DataOutput out) throws IOException {
+    super.writeTo(out);
+    out.writeLong(duration);
+    if (votes == null) {
+      out.writeInt(-1);
+      return;
+    }
+    out.writeInt(votes.size());
+    for (Object vote : votes) {
+      // Converted to and from strings the way Castor marshalls votes
+      VoteBean bean = new VoteBean((Vote)vote);
+      StateStore.writeString(out, bean.getId());
+      out.writeBoolean(bean.getAgreeState());
+      StateStore.writeString(out, bean.getChallengeString());
+      StateStore.writeString(out, bean.getVerifierString());
+      StateStore.writeString(out, bean.getHashString());
+    }
+  }
+
+  /** Read a PollHistory written by {@link #writeHistoryTo(DataOutput)} */
+  static PollHistory readHistoryFrom(DataInput in) throws IOException {
+    PollHistory res = new PollHistory();
+    res.readFields(in);
+    res.duration = in.readLong();
+    int n = in.readInt();
+    if (n < 0) {
+      res.votes = null;
+      return res;
+    }
+    List<Vote> votes = new ArrayList<Vote>(n);
+    for (int ix = 0; ix < n; ix++) {
+      VoteBean bean = new VoteBean();
+      bean.setId(StateStore.readString(in));
+      bean.setAgreeState(in.readBoolean());
+      bean.setChallengeString(StateStore.readString(in));
+      bean.setVerifierString(StateStore.readString(in));
+      bean.setHashString(StateStore.readString(in));
+      Vote vote = bean.getVote();
+      if (vote != null) {
+	votes.add(vote);
+      }
+    }
+    res.votes = votes;
+    return res;
+  }
+
+  /** Encode a list of PollHistory for the binary state store */
+  static byte[] encodeList(List<?> histories) throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bos);
+    out.writeInt(histories.size());
+    for (Object history : histories) {
+      ((PollHistory)history).writeHistoryTo(out);
+    }
+    out.flush();
+    return bos.toByteArray();
+  }
+
+  /** Decode a list written by {@link #encodeList(List)} */
+  static List<PollHistory> decodeList(byte[] data) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+    int n = in.readInt();
+    List<PollHistory> res = new ArrayList<PollHistory>(n);
+    for (int ix = 0; ix < n; ix++) {
+      res.add(readHistoryFrom(in));
+    }
+    return res;
+  }
 }
@@ -32,6 +32,7 @@ in this Software without prior written authorization from Stanford University.
 
 package org.lockss.state;
 
+import java.io.*;
 import org.lockss.util.*;
 import org.lockss.poller.PollSpec;
 
@@ -284,6 +285,39 @@ public class PollState implements Comparable, LockssSerializable {
     }
   }
 
+  /** Write the fields for the binary state store */
+  void writeTo(DataOutput out) throws IOException {
+    out.writeInt(type);
+    StateStore.writeString(out, lwrBound);
+    StateStore.writeString(out, uprBound);
+    out.writeInt(status);
+    out.writeLong(startTime);
+    out.writeBoolean(deadline != null);
+    if (deadline != null) {
+      out.writeLong(deadline.getExpirationTime());
+    }
+    out.writeBoolean(ourPoll);
+  }
+
+  /** Read the fields written by {@link #writeTo(DataOutput)} */
+  void readFields(DataInput in) throws IOException {
+    type = in.readInt();
+    lwrBound = StateStore.readString(in);
+    uprBound = StateStore.readString(in);
+    status = in.readInt();
+    startTime = in.readLong();
+    deadline = in.readBoolean()
+      ? Deadline.restoreDeadlineAt(in.readLong()) : null;
+    ourPoll = in.readBoolean();
+  }
+
+  /** Read a PollState written by {@link #writeTo(DataOutput)} */
+  static PollState readFrom(DataInput in) throws IOException {
+    PollState res = new PollState();
+    res.readFields(in);
+    return res;
+  }
+
    public int hashCode() {
      int hash = 0;
      if (lwrBound != null) {
@@ -0,0 +1,209 @@
+/*
+
+Copyright (c) 2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+
+package org.lockss.state;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import org.lockss.config.CurrentConfig;
+import org.lockss.util.*;
+
+/**
+ * Binary store for the state of one AU: its {@link AuState}, {@link
+ * DamagedNodeSet} and each node's {@link NodeState} and poll histories,
+ * kept as records in a single {@link RecordJournal} in the AU's
+ * history directory.  The journal is read the first time any record is
+ * needed; after that loads are served from memory and stores append
+ * only the changed record.
+ */
+class StateStore {
+  private static final Logger logger = Logger.getLogger("StateStore");
+
+  private final RecordJournal journal;
+  private Map<String,byte[]> records;
+
+  StateStore(File file) {
+    journal = new RecordJournal(file);
+  }
+
+  File getFile() {
+    return journal.getFile();
+  }
+
+  /** @return true if the store file exists */
+  boolean exists() {
+    return journal.exists();
+  }
+
+  /** @return the record for key, or null if there is none */
+  synchronized byte[] get(String key) throws IOException {
+    return getRecords().get(key);
+  }
+
+  /** Store a record */
+  void put(String key, byte[] val) throws IOException {
+    update(Collections.singletonMap(key, val));
+  }
+
+  /** Remove a record, if the store exists */
+  void remove(String key) throws IOException {
+    if (records != null || exists()) {
+      update(Collections.singletonMap(key, (byte[])null));
+    }
+  }
+
+  /**
+   * Store several records in one write.
+   * @param changes Maps each key to its new record, or to null to
+   * remove it.
+   */
+  synchronized void update(Map<String,byte[]> changes) throws IOException {
+    Map<String,byte[]> recs = getRecords();
+    boolean changed = false;
+    for (Map.Entry<String,byte[]> ent : changes.entrySet()) {
+      byte[] val = ent.getValue();
+      if (val == null) {
+	changed |= recs.remove(ent.getKey()) != null;
+      } else if (!Arrays.equals(val, recs.put(ent.getKey(), val))) {
+	changed = true;
+      }
+    }
+    if (changed) {
+      File dir = journal.getFile().getParentFile();
+      if (dir != null && !dir.exists()) {
+	dir.mkdirs();
+      }
+      journal.store(changes, recs);
+    }
+  }
+
+  private Map<String,byte[]> getRecords() throws IOException {
+    if (records != null && !records.isEmpty() && !journal.exists()) {
+      // Deleted along with the rest of the AU's state
+      records = null;
+    }
+    if (records == null) {
+      if (!journal.exists()) {
+	records = new HashMap<String,byte[]>();
+      } else {
+	try {
+	  records = new HashMap<String,byte[]>(journal.read());
+	} catch (FileNotFoundException e) {
+	  records = new HashMap<String,byte[]>();
+	} catch (IOException e) {
+	  // Not a journal or unreadable.  Move it aside, as
+	  // CXSerializer does with undeserializable files, so the
+	  // XML files are used and imported again.
+	  File file = journal.getFile();
+	  File renamed =
+	    new File(file.getPath()
+		     + CurrentConfig.getParam(ObjectSerializer.PARAM_FAILED_DESERIALIZATION_EXTENSION,
+					      ObjectSerializer.DEFAULT_FAILED_DESERIALIZATION_EXTENSION));
+	  logger.error("Couldn't read state store, renaming to " + renamed, e);
+	  PlatformUtil.updateAtomically(file, renamed);
+	  records = new HashMap<String,byte[]>();
+	}
+      }
+    }
+    return records;
+  }
+
+  /** Write a string, which may be null, as its length and UTF-8 bytes.
+   * Unlike writeUTF() there's no 64KB limit. */
+  static void writeString(DataOutput out, String s) throws IOException {
+    if (s == null) {
+      out.writeInt(-1);
+      return;
+    }
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  static String readString(DataInput in) throws IOException {
+    int len = in.readInt();
+    if (len < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[len];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /** Write a collection of strings, which may be null.  The elements of
+   * the legacy (raw) collections passed here must be Strings. */
+  static void writeStrings(DataOutput out, Collection<?> coll)
+      throws IOException {
+    if (coll == null) {
+      out.writeInt(-1);
+      return;
+    }
+    out.writeInt(coll.size());
+    for (Object s : coll) {
+      writeString(out, (String)s);
+    }
+  }
+
+  /** Read a collection of strings into coll, or return null if it was
+   * written as null */
+  static <C extends Collection<String>> C readStrings(DataInput in, C coll)
+      throws IOException {
+    int n = in.readInt();
+    if (n < 0) {
+      return null;
+    }
+    for (int ix = 0; ix < n; ix++) {
+      coll.add(readString(in));
+    }
+    return coll;
+  }
+
+  static <E extends Enum<E>> void writeEnum(DataOutput out, E e)
+      throws IOException {
+    writeString(out, e == null ? null : e.name());
+  }
+
+  /** Read an enum value, returning dflt if it's null or not (or no
+   * longer) a member of the enum */
+  static <E extends Enum<E>> E readEnum(DataInput in, Class<E> cls, E dflt)
+      throws IOException {
+    String name = readString(in);
+    if (name == null) {
+      return dflt;
+    }
+    try {
+      return Enum.valueOf(cls, name);
+    } catch (IllegalArgumentException e) {
+      logger.warning("Unknown " + cls.getSimpleName() + ": " + name);
+      return dflt;
+    }
+  }
+}
@@ -186,7 +186,9 @@ public class JarValidator {
     }
   }
 
-  private Set<X509Certificate> checkedCerts = new HashSet<X509Certificate>();
+  // Jars may be validated concurrently
+  private Set<X509Certificate> checkedCerts =
+    Collections.synchronizedSet(new HashSet<X509Certificate>());
 
   /**
    * Check the validity of each of the supplied certificates.  If
@@ -43,6 +43,12 @@ import java.net.*;
 public class LoadablePluginClassLoader extends URLClassLoader {
   static Logger log = Logger.getLogger("LPClassLoader");
 
+  // Lock per class name rather than on the loader, so plugins in the
+  // same jar can be loaded concurrently.
+  static {
+    ClassLoader.registerAsParallelCapable();
+  }
+
   public LoadablePluginClassLoader(URL[] urls) {
     super(urls);
   }
@@ -55,22 +61,24 @@ public class LoadablePluginClassLoader extends URLClassLoader {
    * Attempt to load the requested class from this classloader first.
    * If it is not found, it will delegate to its parent classloader.
    */
-  public synchronized Class loadClass(String className)
+  public Class loadClass(String className)
       throws ClassNotFoundException {
-    // Look in the cache (defined by ClassLoader) to see if the class
-    // has already been loaded.
-    Class c = findLoadedClass(className);
+    synchronized (getClassLoadingLock(className)) {
+      // Look in the cache (defined by ClassLoader) to see if the class
+      // has already been loaded.
+      Class c = findLoadedClass(className);
 
-    if (c != null) {
-      return c;
-    }
+      if (c != null) {
+	return c;
+      }
 
-    // The class has not already been loaded, so we'll try to find it.
-    // We'll ignore ClassNotFoundException, and delegate to our parent
-    // classloader if needed.
-    try {
-      return findClass(className);
-    } catch (ClassNotFoundException ignore) {}
+      // The class has not already been loaded, so we'll try to find it.
+      // We'll ignore ClassNotFoundException, and delegate to our parent
+      // classloader if needed.
+      try {
+	return findClass(className);
+      } catch (ClassNotFoundException ignore) {}
+    }
 
     // If we're here, it means we haven't found the class yet.  Ask
     // our parent.  This may throw ClassNotFoundException, but that's
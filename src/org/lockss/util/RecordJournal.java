@@ -0,0 +1,361 @@
+/*
+
+Copyright (c) 2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+
+package org.lockss.util;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only file of keyed binary records, used to persist
+ * collections of small objects without rewriting all of them each
+ * time a few change.  Each record either sets the value for a key or
+ * removes the key; {@link #read} replays them in order.  Writers
+ * {@link #append} the records that changed, and {@link #store}
+ * rewrites the file with just the live records once it has grown to
+ * {@link #setCompaction some multiple} of its size when last
+ * rewritten.  Each record carries a CRC, so one torn by a crash is
+ * detected and discarded, along with anything after it.
+ */
+public class RecordJournal {
+  private static final Logger log = Logger.getLogger(RecordJournal.class);
+
+  // "LJNL"
+  static final int MAGIC = 0x4c4a4e4c;
+  static final int VERSION = 1;
+  // magic, version, length of file when last rewritten
+  static final int HEADER_LENGTH = 16;
+
+  static final byte OP_PUT = 1;
+  static final byte OP_REMOVE = 2;
+
+  public static final double DEFAULT_COMPACT_RATIO = 2.0;
+  public static final long DEFAULT_COMPACT_MIN_LENGTH = 16 * 1024;
+
+  private final File file;
+  private double compactRatio = DEFAULT_COMPACT_RATIO;
+  private long compactMinLength = DEFAULT_COMPACT_MIN_LENGTH;
+
+  public RecordJournal(File file) {
+    this.file = file;
+  }
+
+  /**
+   * Set the point at which {@link #store} rewrites the journal.
+   * @param ratio Rewrite when the journal is this many times longer
+   * than it was when last rewritten
+   * @param minLength but not before it's at least this long.
+   */
+  public RecordJournal setCompaction(double ratio, long minLength) {
+    this.compactRatio = ratio;
+    this.compactMinLength = minLength;
+    return this;
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  public boolean exists() {
+    return file.exists();
+  }
+
+  /** Delete the journal file, if any */
+  public synchronized void delete() {
+    if (file.exists() && !file.delete()) {
+      log.warning("Couldn't delete " + file);
+    }
+  }
+
+  /**
+   * @return true if the journal exists and was written no earlier than
+   * other (which may be a file in a format the journal replaces), or
+   * other doesn't exist.
+   */
+  public boolean isNewerThan(File other) {
+    return exists()
+      && (!other.exists() || other.lastModified() <= file.lastModified());
+  }
+
+  /**
+   * Read the journal.
+   * @return The live records, in the order their keys were first
+   * written.
+   * @throws FileNotFoundException if the journal doesn't exist.
+   * @throws IOException if the file isn't a journal, or can't be read.
+   */
+  public synchronized LinkedHashMap<String,byte[]> read() throws IOException {
+    LinkedHashMap<String,byte[]> res = new LinkedHashMap<String,byte[]>();
+    long length = file.length();
+    DataInputStream in =
+      new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    long goodPos = HEADER_LENGTH;
+    String err = null;
+    try {
+      readHeader(in);
+      CRC32 crc = new CRC32();
+      while (goodPos < length) {
+	if (length - goodPos < 8) {
+	  err = "truncated record";
+	  break;
+	}
+	int len = in.readInt();
+	if (len < 3 || len > length - goodPos - 8) {
+	  err = "bad record length " + len;
+	  break;
+	}
+	byte[] body = new byte[len];
+	in.readFully(body);
+	crc.reset();
+	crc.update(body, 0, len);
+	if ((int)crc.getValue() != in.readInt()) {
+	  err = "CRC mismatch";
+	  break;
+	}
+	DataInputStream bin =
+	  new DataInputStream(new ByteArrayInputStream(body));
+	byte op = bin.readByte();
+	String key = bin.readUTF();
+	switch (op) {
+	case OP_PUT:
+	  byte[] val = new byte[bin.available()];
+	  bin.readFully(val);
+	  res.put(key, val);
+	  break;
+	case OP_REMOVE:
+	  res.remove(key);
+	  break;
+	default:
+	  throw new IOException("Unknown op " + op + " in " + file);
+	}
+	goodPos += 8 + len;
+      }
+    } finally {
+      IOUtil.safeClose(in);
+    }
+    if (err != null) {
+      // Most likely a write interrupted by a crash.  Drop the partial
+      // record so later appends follow the last good one.
+      log.warning(file + ": " + err + " at " + goodPos +
+		  ", truncating from length " + length);
+      RandomAccessFile raf = new RandomAccessFile(file, "rw");
+      try {
+	raf.setLength(goodPos);
+      } finally {
+	IOUtil.safeClose(raf);
+      }
+    }
+    return res;
+  }
+
+  private long readHeader(DataInput in) throws IOException {
+    if (in.readInt() != MAGIC) {
+      throw new IOException("Not a journal: " + file);
+    }
+    int ver = in.readInt();
+    if (ver != VERSION) {
+      throw new IOException("Unsupported journal version " + ver +
+			    ": " + file);
+    }
+    return in.readLong();
+  }
+
+  /**
+   * Append records to the journal, creating it if it doesn't exist.
+   * @param updates Maps each changed key to its new value, or to null
+   * if the key has been removed.
+   */
+  public synchronized void append(Map<String,byte[]> updates)
+      throws IOException {
+    if (!exists()) {
+      writeAll(removeNulls(updates));
+      return;
+    }
+    if (updates.isEmpty()) {
+      return;
+    }
+    DataOutputStream out =
+      new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file,
+									 true)));
+    boolean ok = false;
+    try {
+      writeRecords(out, updates);
+      out.flush();
+      ok = true;
+    } finally {
+      if (ok) {
+	out.close();
+      } else {
+	IOUtil.safeClose(out);
+      }
+    }
+  }
+
+  /**
+   * Replace the journal with one containing exactly the given
+   * records.  The new journal is written to a temporary file which is
+   * then renamed, so a crash leaves either the old or new journal.
+   */
+  public synchronized void writeAll(Map<String,byte[]> records)
+      throws IOException {
+    File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+    RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+    boolean ok = false;
+    try {
+      raf.setLength(0);
+      DataOutputStream out =
+	new DataOutputStream(new BufferedOutputStream(new RafOutputStream(raf)));
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(0);
+      writeRecords(out, records);
+      out.flush();
+      raf.seek(8);
+      raf.writeLong(raf.length());
+      ok = true;
+    } finally {
+      IOUtil.safeClose(raf);
+      if (!ok) {
+	tmp.delete();
+      }
+    }
+    if (!PlatformUtil.updateAtomically(tmp, file)) {
+      tmp.delete();
+      throw new IOException("Couldn't rename " + tmp + " to " + file);
+    }
+  }
+
+  /**
+   * @return true if the journal has grown enough since it was last
+   * rewritten that {@link #store} would rewrite it.
+   */
+  public synchronized boolean needsCompaction() throws IOException {
+    long length = file.length();
+    if (length < compactMinLength) {
+      return false;
+    }
+    DataInputStream in = new DataInputStream(new FileInputStream(file));
+    try {
+      long compactedLength = readHeader(in);
+      return length > compactRatio * compactedLength;
+    } finally {
+      IOUtil.safeClose(in);
+    }
+  }
+
+  /**
+   * Append the changed records, or, if the journal doesn't exist or
+   * {@link #needsCompaction}, rewrite it with all the live records.
+   * @param changes Maps each changed key to its new value, or to null
+   * if the key has been removed.
+   * @param all All the live records.
+   */
+  public synchronized void store(Map<String,byte[]> changes,
+				 Map<String,byte[]> all)
+      throws IOException {
+    if (!exists() || needsCompaction()) {
+      writeAll(all);
+    } else {
+      append(changes);
+    }
+  }
+
+  /**
+   * @return The changes needed to turn a journal containing {@code
+   * stored} into one containing {@code current}: records whose value
+   * differs or is new, and null values for removed keys.
+   */
+  public static Map<String,byte[]> diff(Map<String,byte[]> stored,
+					Map<String,byte[]> current) {
+    Map<String,byte[]> res = new LinkedHashMap<String,byte[]>();
+    for (Map.Entry<String,byte[]> ent : current.entrySet()) {
+      if (!Arrays.equals(ent.getValue(), stored.get(ent.getKey()))) {
+	res.put(ent.getKey(), ent.getValue());
+      }
+    }
+    for (String key : stored.keySet()) {
+      if (!current.containsKey(key)) {
+	res.put(key, null);
+      }
+    }
+    return res;
+  }
+
+  private static Map<String,byte[]> removeNulls(Map<String,byte[]> map) {
+    Map<String,byte[]> res = new LinkedHashMap<String,byte[]>();
+    for (Map.Entry<String,byte[]> ent : map.entrySet()) {
+      if (ent.getValue() != null) {
+	res.put(ent.getKey(), ent.getValue());
+      }
+    }
+    return res;
+  }
+
+  private static void writeRecords(DataOutputStream out,
+				   Map<String,byte[]> records)
+      throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    DataOutputStream bout = new DataOutputStream(bos);
+    CRC32 crc = new CRC32();
+    for (Map.Entry<String,byte[]> ent : records.entrySet()) {
+      bos.reset();
+      byte[] val = ent.getValue();
+      bout.writeByte(val == null ? OP_REMOVE : OP_PUT);
+      bout.writeUTF(ent.getKey());
+      if (val != null) {
+	bout.write(val);
+      }
+      bout.flush();
+      byte[] body = bos.toByteArray();
+      crc.reset();
+      crc.update(body, 0, body.length);
+      out.writeInt(body.length);
+      out.write(body);
+      out.writeInt((int)crc.getValue());
+    }
+  }
+
+  // Writes through to the current position of a RandomAccessFile
+  private static class RafOutputStream extends OutputStream {
+    private final RandomAccessFile raf;
+
+    RafOutputStream(RandomAccessFile raf) {
+      this.raf = raf;
+    }
+
+    public void write(int b) throws IOException {
+      raf.write(b);
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+      raf.write(b, off, len);
+    }
+  }
+}
@@ -0,0 +1,176 @@
+/*
+
+Copyright (c) 2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+
+package org.lockss.util;
+
+import java.util.*;
+
+/**
+ * A {@link UniqueRefCache} made of {@link UniqueRefLruCache}s, split into independently locked stripes,
+ * chosen by key hash, so that lookups of different keys from different
+ * threads rarely contend for the same monitor.  Each stripe holds an
+ * equal share of the maximum size, so LRU order is maintained per stripe
+ * rather than globally.  The unique reference guarantee is unaffected, as
+ * a given key always maps to the same stripe.
+ */
+public class StripedUniqueRefLruCache implements UniqueRefCache {
+  public static final int DEFAULT_STRIPES = 16;
+
+  private final UniqueRefLruCache[] stripes;
+  private volatile int maxSize;
+
+  /**
+   * Create a cache with the default number of stripes.
+   * @param maxSize maximum total size of the LRU maps
+   */
+  public StripedUniqueRefLruCache(int maxSize) {
+    this(maxSize, DEFAULT_STRIPES);
+  }
+
+  /**
+   * Create a cache with the specified number of stripes.  Both arguments
+   * must be positive.
+   * @param maxSize maximum total size of the LRU maps
+   * @param nStripes number of independently locked stripes
+   */
+  public StripedUniqueRefLruCache(int maxSize, int nStripes) {
+    if (maxSize<=0) {
+      throw new IllegalArgumentException("Negative cache size");
+    }
+    if (nStripes<=0) {
+      throw new IllegalArgumentException("Stripes must be positive: "
+					 + nStripes);
+    }
+    this.maxSize = maxSize;
+    // Each stripe must hold at least one entry, so never have more
+    // stripes than entries
+    stripes = new UniqueRefLruCache[Math.min(nStripes, maxSize)];
+    for (int ix = 0; ix < stripes.length; ix++) {
+      stripes[ix] = new UniqueRefLruCache(stripeSize(maxSize, ix));
+    }
+  }
+
+  /** Size of the ix'th stripe; the remainder is spread over the first
+   * stripes.  total must be at least the number of stripes. */
+  private int stripeSize(int total, int ix) {
+    int n = stripes.length;
+    return total / n + (ix < total % n ? 1 : 0);
+  }
+
+  UniqueRefLruCache stripeFor(Object key) {
+    int h = key.hashCode();
+    h ^= (h >>> 16);
+    return stripes[(h & 0x7fffffff) % stripes.length];
+  }
+
+  /** Returns the number of stripes */
+  public int getStripes() {
+    return stripes.length;
+  }
+
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  /** Sets the total size.  The number of stripes is fixed when the cache
+   * is created and each holds at least one entry, so the size is raised
+   * to the number of stripes if smaller. */
+  public synchronized void setMaxSize(int newSize) {
+    if (newSize<=0) {
+      throw new IllegalArgumentException("Negative cache size");
+    }
+    newSize = Math.max(newSize, stripes.length);
+    if (maxSize != newSize) {
+      for (int ix = 0; ix < stripes.length; ix++) {
+	stripes[ix].setMaxSize(stripeSize(newSize, ix));
+      }
+      maxSize = newSize;
+    }
+  }
+
+  public Object get(Object key) {
+    return stripeFor(key).get(key);
+  }
+
+  public void put(Object key, Object obj) {
+    stripeFor(key).put(key, obj);
+  }
+
+  public Object putIfNew(Object key, Object obj) {
+    return stripeFor(key).putIfNew(key, obj);
+  }
+
+  public Set snapshot() {
+    Set res = new HashSet();
+    for (UniqueRefLruCache stripe : stripes) {
+      res.addAll(stripe.snapshot());
+    }
+    return res;
+  }
+
+  public void clear() {
+    for (UniqueRefLruCache stripe : stripes) {
+      stripe.clear();
+    }
+  }
+
+  // logging accessors
+
+  public long getCacheHits() {
+    long res = 0;
+    for (UniqueRefLruCache stripe : stripes) {
+      res += stripe.getCacheHits();
+    }
+    return res;
+  }
+
+  public long getCacheMisses() {
+    long res = 0;
+    for (UniqueRefLruCache stripe : stripes) {
+      res += stripe.getCacheMisses();
+    }
+    return res;
+  }
+
+  public long getRefHits() {
+    long res = 0;
+    for (UniqueRefLruCache stripe : stripes) {
+      res += stripe.getRefHits();
+    }
+    return res;
+  }
+
+  public long getRefMisses() {
+    long res = 0;
+    for (UniqueRefLruCache stripe : stripes) {
+      res += stripe.getRefMisses();
+    }
+    return res;
+  }
+}
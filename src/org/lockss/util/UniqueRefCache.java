@@ -0,0 +1,83 @@
+/*
+
+Copyright (c) 2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+
+package org.lockss.util;
+
+import java.util.*;
+
+/**
+ * A cache that guarantees to hold and return a reference to an object as
+ * long as anyone else does.  Intended to cache objects for which multiple
+ * instances per key must not exist.  Implementations are thread-safe.
+ */
+public interface UniqueRefCache {
+
+  /** Returns the max cache size. */
+  int getMaxSize();
+
+  /** Sets the max cache size, which must be positive. */
+  void setMaxSize(int newSize);
+
+  /**
+   * Get an object from the cache.
+   * @param key the key
+   * @return the corresponding object, or null if no such object exists in
+   * memory.
+   */
+  Object get(Object key);
+
+  /**
+   * Put an object in the cache.
+   * @param key the key
+   * @param obj the Object
+   */
+  void put(Object key, Object obj);
+
+  /**
+   * Put an object in the cache, only if the key wasn't already associated
+   * with a value.
+   * @param key the key
+   * @param obj the Object
+   * @return the value now in the map
+   */
+  Object putIfNew(Object key, Object obj);
+
+  /** Returns a snapshot of the values in the cache */
+  Set snapshot();
+
+  /** Clears the cache */
+  void clear();
+
+  // logging accessors
+
+  long getCacheHits();
+  long getCacheMisses();
+  long getRefHits();
+  long getRefMisses();
+}
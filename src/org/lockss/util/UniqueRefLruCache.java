@@ -41,15 +41,15 @@ import org.apache.commons.collections.map.ReferenceMap;
  * as long as anyone else does.  Intended to cache objects for which
  * multiple instances per key must not exist.  This cache is synchronized.
  */
-public class UniqueRefLruCache {
+public class UniqueRefLruCache implements UniqueRefCache {
   LRUMap lruMap;
   ReferenceMap refMap;
 
   // logging variables
-  private int cacheHits = 0;
-  private int cacheMisses = 0;
-  private int refHits = 0;
-  private int refMisses = 0;
+  private long cacheHits = 0;
+  private long cacheMisses = 0;
+  private long refHits = 0;
+  private long refMisses = 0;
 
   /**
    * Standard constructor.  Size must be positive.
@@ -159,8 +159,8 @@ public class UniqueRefLruCache {
 
   // logging accessors
 
-  public int getCacheHits() { return cacheHits; }
-  public int getCacheMisses() { return cacheMisses; }
-  public int getRefHits() { return refHits; }
-  public int getRefMisses() { return refMisses; }
+  public synchronized long getCacheHits() { return cacheHits; }
+  public synchronized long getCacheMisses() { return cacheMisses; }
+  public synchronized long getRefHits() { return refHits; }
+  public synchronized long getRefMisses() { return refMisses; }
 }
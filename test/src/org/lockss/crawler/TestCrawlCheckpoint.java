@@ -0,0 +1,184 @@
+/*
+
+Copyright (c) 2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+
+package org.lockss.crawler;
+
+import java.io.*;
+import java.util.*;
+
+import org.lockss.test.*;
+import org.lockss.util.*;
+
+public class TestCrawlCheckpoint extends LockssTestCase {
+
+  static final String U1 = "http://foo.bar/";
+  static final String U2 = "http://foo.bar/a.html";
+  static final String U3 = "http://foo.bar/b/c.html";
+  static final String U4 = "http://foo.bar/b/d.html";
+
+  File file;
+  CrawlUrlStore store;
+
+  public void setUp() throws Exception {
+    super.setUp();
+    TimeBase.setSimulated(100000);
+    file = new File(getTempDir(), "ckpt");
+    store = new CrawlUrlStore();
+  }
+
+  public void tearDown() throws Exception {
+    store.close();
+    TimeBase.setReal();
+    super.tearDown();
+  }
+
+  // Build a store with U1 processed, U2 processed, U3 queued, U4 new
+  List<CrawlUrlData> populate(CrawlUrlStore store) {
+    CrawlUrlData c1 = store.intern(new CrawlUrlData(U1, 1));
+    c1.setStartUrl(true);
+    CrawlUrlData c2 = new CrawlUrlData(U2, 2);
+    c2.setReferrer(U1);
+    c1.addChild(c2);
+    c2 = store.intern(c2);
+    CrawlUrlData c3 = new CrawlUrlData(U3, 3);
+    c2.addChild(c3);
+    c3 = store.intern(c3);
+    CrawlUrlData c4 = new CrawlUrlData(U4, 3);
+    c4.setReferrer(U2);
+    c2.addChild(c4);
+    store.setState(c1, CrawlUrlStore.PROCESSED);
+    store.setState(c2, CrawlUrlStore.PROCESSED);
+    store.setState(c3, CrawlUrlStore.QUEUED);
+    return ListUtil.list(c3, c4);
+  }
+
+  public void testRoundTrip() throws Exception {
+    CrawlCheckpoint ckpt = new CrawlCheckpoint(file, "key1");
+    assertFalse(ckpt.exists());
+    List<CrawlUrlData> pending = populate(store);
+    ckpt.save(store, pending, ListUtil.list("http://x.y/fail"), 3);
+    assertTrue(ckpt.exists());
+    assertFalse(new File(file.getPath() + ".tmp").exists());
+
+    TimeBase.step(1000);
+    CrawlUrlStore store2 = new CrawlUrlStore();
+    try {
+      CrawlCheckpoint.Resumed res =
+	new CrawlCheckpoint(file, "key1").load(store2, -1);
+      assertNotNull(res);
+      assertEquals(100000, res.getSaveTime());
+      assertEquals(3, res.getHiDepth());
+      assertEquals(ListUtil.list("http://x.y/fail"), res.getFailedUrls());
+      assertEquals(4, store2.size());
+      int[] ids = res.getPending();
+      assertEquals(2, ids.length);
+      assertEquals(U3, store2.getUrl(ids[0]));
+      assertEquals(U4, store2.getUrl(ids[1]));
+      // Pending URLs are no longer marked queued
+      assertEquals(0, store2.count(CrawlUrlStore.QUEUED));
+      assertEquals(SetUtil.set(U1, U2),
+		   SetUtil.theSet(store2.getUrls(CrawlUrlStore.PROCESSED)));
+      CrawlUrlData c1 = store2.get(U1);
+      assertTrue(c1.isStartUrl());
+      assertEquals(1, c1.getDepth());
+      CrawlUrlData c2 = store2.get(U2);
+      assertEquals(2, c2.getDepth());
+      assertEquals(U1, c2.getReferrer());
+      assertEquals(U2, store2.get(U4).getReferrer());
+      assertTrue(store2.isChild(store2.find(U2), store2.find(U3)));
+      assertTrue(store2.isChild(store2.find(U2), store2.find(U4)));
+    } finally {
+      store2.close();
+    }
+  }
+
+  public void testKeyMismatch() throws Exception {
+    new CrawlCheckpoint(file, "key1").save(store, populate(store),
+					   Collections.EMPTY_LIST, 3);
+    CrawlUrlStore store2 = new CrawlUrlStore();
+    assertNull(new CrawlCheckpoint(file, "key2").load(store2, -1));
+    assertEquals(0, store2.size());
+    assertFalse(file.exists());
+  }
+
+  public void testMaxAge() throws Exception {
+    CrawlCheckpoint ckpt = new CrawlCheckpoint(file, "key1");
+    ckpt.save(store, populate(store), Collections.EMPTY_LIST, 3);
+    TimeBase.step(5000);
+    CrawlUrlStore store2 = new CrawlUrlStore();
+    assertNotNull(ckpt.load(store2, 5000));
+    store2.clear();
+    TimeBase.step(1);
+    assertNull(ckpt.load(store2, 5000));
+    assertEquals(0, store2.size());
+    assertFalse(ckpt.exists());
+  }
+
+  public void testNoFile() throws Exception {
+    assertNull(new CrawlCheckpoint(file, "key1").load(store, -1));
+  }
+
+  public void testDelete() throws Exception {
+    CrawlCheckpoint ckpt = new CrawlCheckpoint(file, "key1");
+    ckpt.save(store, populate(store), Collections.EMPTY_LIST, 3);
+    assertTrue(ckpt.exists());
+    ckpt.delete();
+    assertFalse(ckpt.exists());
+  }
+
+  public void testTruncated() throws Exception {
+    CrawlCheckpoint ckpt = new CrawlCheckpoint(file, "key1");
+    ckpt.save(store, populate(store), Collections.EMPTY_LIST, 3);
+    byte[] bytes = java.nio.file.Files.readAllBytes(file.toPath());
+    OutputStream out = new FileOutputStream(file);
+    out.write(bytes, 0, bytes.length - 10);
+    out.close();
+    CrawlUrlStore store2 = new CrawlUrlStore();
+    try {
+      ckpt.load(store2, -1);
+      fail("Truncated checkpoint should throw");
+    } catch (IOException e) {
+    }
+    assertEquals(0, store2.size());
+  }
+
+  public void testCorruptChild() throws Exception {
+    CrawlUrlData c1 = store.intern(new CrawlUrlData(U1, 1));
+    store.addChild(store.idOf(c1), 7);
+    CrawlCheckpoint ckpt = new CrawlCheckpoint(file, "key1");
+    ckpt.save(store, Collections.EMPTY_LIST, Collections.EMPTY_LIST, 1);
+    CrawlUrlStore store2 = new CrawlUrlStore();
+    try {
+      ckpt.load(store2, -1);
+      fail("Invalid child id should throw");
+    } catch (IOException e) {
+    }
+    assertEquals(0, store2.size());
+  }
+}
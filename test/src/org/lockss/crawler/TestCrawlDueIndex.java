@@ -0,0 +1,134 @@
+/*
+
+Copyright (c) 2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+
+
+package org.lockss.crawler;
+
+import java.util.*;
+
+import org.lockss.test.*;
+import org.lockss.util.*;
+
+public class TestCrawlDueIndex extends LockssTestCase {
+
+  CrawlDueIndex<String> idx;
+
+  public void setUp() throws Exception {
+    super.setUp();
+    idx = new CrawlDueIndex<String>();
+  }
+
+  public void testEmpty() {
+    assertEquals(0, idx.size());
+    assertEquals(0, idx.dueCount());
+    assertEmpty(idx.getDue());
+    assertEmpty(idx.takePending(1000));
+  }
+
+  public void testDue() {
+    idx.setDue("a");
+    idx.setDueAt("b", 2000);
+    idx.setDueAt("c", 1000);
+    assertEquals(3, idx.size());
+    assertTrue(idx.isDue("a"));
+    assertFalse(idx.isDue("b"));
+    assertEquals(2000, idx.getDueTime("b"));
+    assertEquals(-1, idx.getDueTime("a"));
+    assertSameElements(ListUtil.list("a"), idx.getDue());
+
+    assertEmpty(idx.takePending(999));
+    assertSameElements(ListUtil.list("a"), idx.getDue());
+    assertEmpty(idx.takePending(1000));
+    assertSameElements(ListUtil.list("a", "c"), idx.getDue());
+    assertEmpty(idx.takePending(5000));
+    assertSameElements(ListUtil.list("a", "b", "c"), idx.getDue());
+    assertEquals(3, idx.dueCount());
+  }
+
+  public void testReschedule() {
+    idx.setDueAt("a", 1000);
+    // later due time supersedes earlier one
+    idx.setDueAt("a", 3000);
+    idx.takePending(2000);
+    assertEmpty(idx.getDue());
+    assertEquals(3000, idx.getDueTime("a"));
+    idx.takePending(3000);
+    assertEquals(ListUtil.list("a"), idx.getDue());
+
+    // due item rescheduled into the future is no longer due
+    idx.setDueAt("a", 5000);
+    assertEmpty(idx.getDue());
+    assertEquals(1, idx.size());
+
+    // and vice versa
+    idx.setDue("a");
+    assertEquals(-1, idx.getDueTime("a"));
+    idx.takePending(6000);
+    assertEquals(ListUtil.list("a"), idx.getDue());
+    assertEquals(1, idx.size());
+  }
+
+  public void testRecheck() {
+    idx.setDue("a");
+    idx.setDueAt("b", 5000);
+    idx.recheck("a");
+    idx.recheck("b");
+    idx.recheck("c");
+    assertTrue(idx.isPending("a"));
+    // keeps current state until re-examined
+    assertTrue(idx.isDue("a"));
+    assertEquals(ListUtil.list("a", "b", "c"), idx.takePending(1000));
+    assertFalse(idx.isPending("a"));
+    assertEmpty(idx.takePending(1000));
+
+    idx.recheck("a");
+    idx.setDueAt("a", 2000);
+    assertFalse(idx.isPending("a"));
+    assertEmpty(idx.takePending(1000));
+  }
+
+  public void testRemove() {
+    idx.setDue("a");
+    idx.setDueAt("b", 2000);
+    idx.recheck("c");
+    idx.remove("a");
+    idx.remove("b");
+    idx.remove("c");
+    assertEquals(0, idx.size());
+    assertEmpty(idx.takePending(5000));
+    assertEmpty(idx.getDue());
+
+    idx.setDue("a");
+    idx.setDueAt("b", 2000);
+    idx.clear();
+    assertEquals(0, idx.size());
+    assertEmpty(idx.takePending(5000));
+    assertEmpty(idx.getDue());
+  }
+}
@@ -1559,6 +1559,68 @@ public class TestCrawlManagerImpl extends LockssTestCase {
       assertEquals(null, crawlManager.nextReq());
     }
 
+    public void testHasDefaultCrawlSchedule() {
+      assertTrue(crawlManager.hasDefaultCrawlSchedule(RegistryArchivalUnit.class));
+      assertTrue(crawlManager.hasDefaultCrawlSchedule(org.lockss.plugin.definable.DefinableArchivalUnit.class));
+      assertFalse(crawlManager.hasDefaultCrawlSchedule(ExplodedArchivalUnit.class));
+      assertFalse(crawlManager.hasDefaultCrawlSchedule(MockArchivalUnit.class));
+    }
+
+    public void testCrawlDueIndex() throws Exception {
+      TimeBase.setSimulated(100000);
+      Properties p = new Properties();
+      p.put(CrawlManagerImpl.PARAM_START_CRAWLS_INTERVAL, "-1");
+      theDaemon.setAusStarted(true);
+      ConfigurationUtil.addFromProps(p);
+      crawlManager.startService();
+      crawlManager.disableCrawlStarter();
+
+      MockArchivalUnit[] aus = makeMockAus(2);
+      registerAus(aus);
+      RegistryArchivalUnit rau = makeRegistryAu();
+      MockAuState raus = new MockAuState(rau);
+      ((MockNodeManager)theDaemon.getNodeManager(rau)).setAuState(raus);
+      pluginMgr.addAu(rau);
+      long intv = rau.getProperties()
+	.getLong(ArchivalUnit.KEY_AU_NEW_CONTENT_CRAWL_INTERVAL);
+
+      // Never crawled, due now
+      assertEquals(100000, crawlManager.nextNewContentCrawlTime(rau, 100000));
+      assertSameElements(ListUtil.list(aus[0], aus[1], rau),
+			 crawlManager.getDueAus());
+
+      // Finished crawl, due after interval.  Mock AUs are always due.
+      raus.setLastCrawlTime(100000);
+      crawlManager.dueIndex.recheck(rau);
+      assertSameElements(ListUtil.list(aus[0], aus[1]),
+			 crawlManager.getDueAus());
+      assertEquals(100000 + intv + 1, crawlManager.dueIndex.getDueTime(rau));
+
+      // Due time agrees with shouldCrawlForNewContent()
+      TimeBase.step(intv);
+      assertFalse(rau.shouldCrawlForNewContent(raus));
+      assertFalse(crawlManager.getDueAus().contains(rau));
+      TimeBase.step(1);
+      assertTrue(rau.shouldCrawlForNewContent(raus));
+      assertTrue(crawlManager.getDueAus().contains(rau));
+
+      // High priority requests are considered even if not due
+      raus.setLastCrawlTime(TimeBase.nowMs());
+      crawlManager.dueIndex.recheck(rau);
+      assertFalse(crawlManager.getDueAus().contains(rau));
+      crawlManager.enqueueHighPriorityCrawl(new CrawlReq(rau));
+      assertTrue(crawlManager.getDueAus().contains(rau));
+
+      crawlManager.auEventDeleted(new AuEvent(AuEvent.Type.Delete, false),
+				  aus[0]);
+      assertFalse(crawlManager.dueIndex.isDue(aus[0]));
+      assertTrue(crawlManager.dueIndex.isDue(aus[1]));
+      crawlManager.auEventCreated(new AuEvent(AuEvent.Type.Create, false),
+				  aus[0]);
+      assertTrue(crawlManager.dueIndex.isPending(aus[0]));
+      assertTrue(crawlManager.getDueAus().contains(aus[0]));
+    }
+
     public void testOdcQueueWithConcurrentPool() throws Exception {
       Properties p = new Properties();
       p.put(CrawlManagerImpl.PARAM_START_CRAWLS_INTERVAL, "-1");
@@ -1920,6 +1982,9 @@ public class TestCrawlManagerImpl extends LockssTestCase {
       }
       registryAus.add(au);
     }
+    void addAu(ArchivalUnit au) {
+      putAuInMap(au);
+    }
 
     @Override
     protected void raiseAlert(Alert alert, String msg) {
@@ -0,0 +1,336 @@
+/*
+
+Copyright (c) 2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+
+package org.lockss.crawler;
+
+import java.io.*;
+import java.util.*;
+
+import org.lockss.test.*;
+import org.lockss.util.*;
+
+public class TestCrawlUrlStore extends LockssTestCase {
+
+  CrawlUrlStore store;
+
+  public void setUp() throws Exception {
+    super.setUp();
+    store = new CrawlUrlStore();
+  }
+
+  public void tearDown() throws Exception {
+    store.close();
+    super.tearDown();
+  }
+
+  public void testSplitPoint() {
+    assertEquals(0, CrawlUrlStore.splitPoint(""));
+    assertEquals(0, CrawlUrlStore.splitPoint("foo"));
+    assertEquals(7, CrawlUrlStore.splitPoint("http://"));
+    assertEquals(11, CrawlUrlStore.splitPoint("http://foo/"));
+    assertEquals(15, CrawlUrlStore.splitPoint("http://foo/bar/baz.html"));
+    assertEquals(11, CrawlUrlStore.splitPoint("http://foo/bar?a=b/c"));
+    assertEquals(0, CrawlUrlStore.splitPoint("?a/b"));
+  }
+
+  public void testIntern() {
+    List<String> urls =
+      ListUtil.list("http://foo.bar/", "http://foo.bar/a/b.html",
+		    "http://foo.bar/a/c.html", "http://foo.bar/a/",
+		    "http://foo.bar/a/c.html?x=y/z", "http://foo.bar/a",
+		    "http://foo.bar/été.html",
+		    "http://foo.bar/a/été/", "");
+    assertEquals(0, store.size());
+    for (String url : urls) {
+      assertEquals(-1, store.find(url));
+      assertNull(store.get(url));
+    }
+    int depth = 1;
+    for (String url : urls) {
+      CrawlUrlData curl = new CrawlUrlData(url, depth++);
+      CrawlUrlData scurl = store.intern(curl);
+      assertNotSame(curl, scurl);
+      assertSame(scurl, store.intern(scurl));
+      assertEquals(url, scurl.getUrl());
+    }
+    assertEquals(urls.size(), store.size());
+    depth = 1;
+    for (String url : urls) {
+      int id = store.find(url);
+      assertTrue(id >= 0);
+      assertEquals(url, store.getUrl(id));
+      CrawlUrlData scurl = store.get(id);
+      assertEquals(url, scurl.getUrl());
+      assertEquals(depth++, scurl.getDepth());
+      assertEquals(scurl, store.get(url));
+      assertEquals(scurl.hashCode(), store.get(url).hashCode());
+    }
+    assertEquals(-1, store.find("http://foo.bar/a/b.htm"));
+    assertEquals(-1, store.find("http://foo.bar/a/b.htmlx"));
+    assertEquals(-1, store.find("http://foo.bar/a/été.html"));
+    assertEquals(-1, store.find("http://foo.bar/étè.html"));
+  }
+
+  public void testMany() {
+    for (int ix = 0; ix < 5000; ix++) {
+      store.intern(new CrawlUrlData(url(ix), ix % 10));
+    }
+    assertEquals(5000, store.size());
+    for (int ix = 0; ix < 5000; ix++) {
+      CrawlUrlData curl = store.get(url(ix));
+      assertEquals(url(ix), curl.getUrl());
+      assertEquals(ix % 10, curl.getDepth());
+    }
+    assertTrue(store.getMemoryUsage() > 0);
+    assertEquals(0, store.getSpilledBytes());
+  }
+
+  String url(int ix) {
+    return "http://example.com/dir" + (ix % 17) + "/file" + ix + ".html";
+  }
+
+  public void testFlagsAndReferrer() {
+    CrawlUrlData curl = new CrawlUrlData("http://x.com/a", 1);
+    curl.setStartUrl(true);
+    curl.setReferrer("http://x.com/");
+    CrawlUrlData scurl = store.intern(curl);
+    assertTrue(scurl.isStartUrl());
+    assertFalse(scurl.isFetched());
+    assertEquals("http://x.com/", scurl.getReferrer());
+    // Referrer is added to the store
+    assertEquals(2, store.size());
+    scurl.setFetched(true);
+    scurl.setFailedParse(true);
+    scurl.setStartUrl(false);
+    CrawlUrlData scurl2 = store.get("http://x.com/a");
+    assertTrue(scurl2.isFetched());
+    assertTrue(scurl2.isFailedParse());
+    assertFalse(scurl2.isFailedFetch());
+    assertFalse(scurl2.isStartUrl());
+    scurl2.setReferrer(null);
+    assertNull(scurl.getReferrer());
+    // Flags don't disturb the state
+    store.setState(scurl, CrawlUrlStore.PROCESSED);
+    scurl.setFailedFetch(true);
+    assertEquals(CrawlUrlStore.PROCESSED, store.getState(scurl));
+    assertTrue(scurl2.isFailedFetch());
+  }
+
+  public void testState() {
+    CrawlUrlData c1 = store.intern(new CrawlUrlData("http://x.com/1", 1));
+    CrawlUrlData c2 = new CrawlUrlData("http://x.com/2", 1);
+    assertEquals(CrawlUrlStore.NONE, store.getState(c1));
+    assertEquals(CrawlUrlStore.NONE, store.getState(c2));
+    assertEquals(CrawlUrlStore.NONE, store.getState("http://x.com/3"));
+    assertEquals(1, store.count(CrawlUrlStore.NONE));
+
+    store.setState(c1, CrawlUrlStore.PROCESSED);
+    CrawlUrlData s2 = store.setState(c2, CrawlUrlStore.TOO_DEEP);
+    assertEquals("http://x.com/2", s2.getUrl());
+    assertEquals(CrawlUrlStore.TOO_DEEP, store.getState(c2));
+    assertEquals(CrawlUrlStore.TOO_DEEP, store.getState("http://x.com/2"));
+    assertEquals(0, store.count(CrawlUrlStore.NONE));
+    assertEquals(1, store.count(CrawlUrlStore.PROCESSED));
+    assertEquals(1, store.count(CrawlUrlStore.TOO_DEEP));
+    assertEquals(ListUtil.list("http://x.com/2"),
+		 store.getUrls(CrawlUrlStore.TOO_DEEP));
+
+    store.clearState(CrawlUrlStore.TOO_DEEP);
+    assertEquals(0, store.count(CrawlUrlStore.TOO_DEEP));
+    assertEquals(1, store.count(CrawlUrlStore.NONE));
+    assertEquals(CrawlUrlStore.PROCESSED, store.getState(c1));
+  }
+
+  public void testChildren() {
+    CrawlUrlData root = store.intern(new CrawlUrlData("r", 0));
+    CrawlUrlData a = store.intern(new CrawlUrlData("a", 5));
+    CrawlUrlData b = store.intern(new CrawlUrlData("b", 6));
+    CrawlUrlData c = store.intern(new CrawlUrlData("c", 7));
+    a.addChild(b);
+    b.addChild(c);
+    assertEquals(7, c.getDepth());
+    // c is also a child of a
+    a.addChild(c);
+    assertEquals(2, a.numChildren());
+    assertTrue(((CrawlUrlStore.StoredCrawlUrl)a).isChild(c));
+    assertFalse(((CrawlUrlStore.StoredCrawlUrl)b).isChild(a));
+    assertEquals(6, c.getDepth());
+
+    final List<String> reduced = new ArrayList<String>();
+    CrawlUrlData.ReducedDepthHandler rdh =
+      new CrawlUrlData.ReducedDepthHandler() {
+	public void depthReduced(CrawlUrlData curl, int from, int to) {
+	  reduced.add(curl.getUrl() + ":" + from + ":" + to);
+	}};
+    // Interleave an addChild to another node
+    root.addChild(a, rdh);
+    assertEquals(1, a.getDepth());
+    assertEquals(2, b.getDepth());
+    assertEquals(2, c.getDepth());
+    // c is reduced first through b, then through a
+    assertEquals(ListUtil.list("c:6:3", "b:6:2", "c:3:2", "a:5:1"), reduced);
+    // a's children were moved; ensure still intact
+    a.addChild(store.intern(new CrawlUrlData("d", 9)));
+    assertEquals(3, a.numChildren());
+    assertEquals(2, store.get("d").getDepth());
+
+    // Plain child is added to the store, and its depth updated
+    CrawlUrlData plain = new CrawlUrlData("e", 8);
+    c.addChild(plain);
+    assertEquals(3, plain.getDepth());
+    assertEquals(3, store.get("e").getDepth());
+
+    a.clearChildren();
+    assertEquals(0, a.numChildren());
+    reduced.clear();
+    root.encounteredAtDepth(0);
+    a.encounteredAtDepth(0);
+    assertEquals(0, a.getDepth());
+    assertEquals(2, b.getDepth());
+  }
+
+  public void testReinternClearsChildren() {
+    CrawlUrlData a = store.intern(new CrawlUrlData("a", 1));
+    a.addChild(store.intern(new CrawlUrlData("b", 2)));
+    assertEquals(1, a.numChildren());
+    CrawlUrlData a2 = store.intern(new CrawlUrlData("a", 3));
+    assertEquals(a, a2);
+    assertEquals(0, a.numChildren());
+    assertEquals(3, a.getDepth());
+  }
+
+  public void testSpill() throws Exception {
+    store.setSpillThreshold(0);
+    int n = 20000;
+    for (int ix = 0; ix < n; ix++) {
+      store.intern(new CrawlUrlData(url(ix), 1));
+    }
+    assertTrue(store.getSpilledBytes() > 0);
+    long mem = store.getMemoryUsage();
+    for (int ix = n - 1; ix >= 0; ix--) {
+      assertEquals(url(ix), store.getUrl(ix));
+      assertEquals(ix, store.find(url(ix)));
+    }
+    assertEquals(-1, store.find(url(n)));
+    // Chunks read back are cached in memory
+    assertTrue(store.getMemoryUsage() > mem);
+  }
+
+  public void testSpillThresholdLater() throws Exception {
+    int n = 20000;
+    for (int ix = 0; ix < n; ix++) {
+      store.intern(new CrawlUrlData(url(ix), 1));
+    }
+    assertEquals(0, store.getSpilledBytes());
+    store.setSpillThreshold(CrawlUrlStore.CHUNK_SIZE * 2);
+    assertTrue(store.getSpilledBytes() > 0);
+    for (int ix = 0; ix < n; ix++) {
+      assertEquals(ix, store.find(url(ix)));
+    }
+  }
+
+  public void testCloseDeletesSpillFile() throws Exception {
+    File dir = new File(PlatformUtil.getSystemTempDir());
+    int before = numSpillFiles(dir);
+    store.setSpillThreshold(0);
+    for (int ix = 0; ix < 20000; ix++) {
+      store.intern(new CrawlUrlData(url(ix), 1));
+    }
+    assertEquals(before + 1, numSpillFiles(dir));
+    store.close();
+    assertEquals(before, numSpillFiles(dir));
+  }
+
+  int numSpillFiles(File dir) {
+    return dir.list(new FilenameFilter() {
+	public boolean accept(File dir, String name) {
+	  return name.startsWith("crawlurls");
+	}}).length;
+  }
+
+  public void testQueueBreadthFirst() {
+    CrawlQueue cq = new CrawlQueue(null, store);
+    assertTrue(cq.isEmpty());
+    for (int ix = 0; ix < 100; ix++) {
+      cq.add(new CrawlUrlData("u" + ix, ix % 3));
+    }
+    assertEquals(100, cq.size());
+    assertEquals(100, store.count(CrawlUrlStore.QUEUED));
+    assertEquals("u0", cq.first().getUrl());
+    assertEquals("u5", cq.get("u5").getUrl());
+    assertNull(cq.get("u100"));
+    try {
+      cq.add(new CrawlUrlData("u7", 1));
+      fail("Should not be able to re-add element");
+    } catch (IllegalArgumentException e) {
+    }
+    for (int ix = 0; ix < 50; ix++) {
+      CrawlUrlData curl = cq.remove();
+      assertEquals("u" + ix, curl.getUrl());
+      assertEquals(ix % 3, curl.getDepth());
+      assertEquals(CrawlUrlStore.NONE, store.getState(curl));
+      assertNull(cq.get("u" + ix));
+    }
+    // Wrap around the circular buffer
+    for (int ix = 100; ix < 150; ix++) {
+      cq.add(new CrawlUrlData("u" + ix, 1));
+    }
+    // Requeue a removed one
+    cq.add(store.get("u0"));
+    List<String> res = new ArrayList<String>();
+    for (CrawlUrlData curl : cq.asList()) {
+      res.add(curl.getUrl());
+    }
+    assertEquals(101, res.size());
+    assertEquals("u50", res.get(0));
+    assertEquals("u149", res.get(99));
+    assertEquals("u0", res.get(100));
+    while (!cq.isEmpty()) {
+      cq.remove();
+    }
+    assertEquals(0, store.count(CrawlUrlStore.QUEUED));
+  }
+
+  public void testQueueSorted() {
+    CrawlQueue cq =
+      new CrawlQueue(new CrawlQueue.AlphabeticalBreadthFirstUrlComparator(),
+		     store);
+    cq.add(new CrawlUrlData("x1", 0));
+    cq.add(new CrawlUrlData("u3", 1));
+    cq.add(new CrawlUrlData("u2", 1));
+    cq.add(new CrawlUrlData("a5", 3));
+    assertEquals("x1", cq.first().getUrl());
+    assertEquals(1, cq.get("u3").getDepth());
+    List<String> res = new ArrayList<String>();
+    while (!cq.isEmpty()) {
+      res.add(cq.remove().getUrl());
+    }
+    assertEquals(ListUtil.list("x1", "u2", "u3", "a5"), res);
+  }
+}
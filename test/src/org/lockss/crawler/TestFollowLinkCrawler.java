@@ -65,6 +65,7 @@ public class TestFollowLinkCrawler extends LockssTestCase {
   private List startUrls;
   private TestableFollowLinkCrawler crawler = null;
   private MockLinkExtractor extractor = new MockLinkExtractor();
+  private boolean isWholeAU = false;
 
   private static final String PARAM_RETRY_TIMES =
     BaseCrawler.PARAM_DEFAULT_RETRY_COUNT;
@@ -855,6 +856,50 @@ public class TestFollowLinkCrawler extends LockssTestCase {
     assertEquals(Crawler.STATUS_WINDOW_CLOSED, crawlStatus.getCrawlStatus());
   }
 
+  public void testResumeFromCheckpoint() throws Exception {
+    isWholeAU = true;
+    MockHistoryRepository histRepo = new MockHistoryRepository();
+    File ckptFile = new File(getTempDir(), "crawl_checkpoint");
+    histRepo.setCrawlCheckpointFile(ckptFile);
+    theDaemon.setHistoryRepository(histRepo, mau);
+
+    setUpCrawlWindowTest(new MyMockCrawlWindow(3));
+    assertEquals(Crawler.STATUS_WINDOW_CLOSED,
+		 crawler.getCrawlerStatus().getCrawlStatus());
+    assertEquals(SetUtil.set(startUrl, CW_URL1), crawler.fetched);
+    assertTrue(ckptFile.exists());
+
+    // Next crawl fetches only the URLs that were still pending
+    mau.setCrawlWindow(null);
+    crawler = makeTestableCrawler();
+    crawler.setDaemonPermissionCheckers(ListUtil.list(new MyMockPermissionChecker(100)));
+    assertTrue(crawler.doCrawl());
+    assertEquals(SetUtil.set(CW_URL2, CW_URL3), crawler.fetched);
+    assertFalse(ckptFile.exists());
+  }
+
+  public void testCheckpointInvalidatedByDepthChange() throws Exception {
+    isWholeAU = true;
+    MockHistoryRepository histRepo = new MockHistoryRepository();
+    File ckptFile = new File(getTempDir(), "crawl_checkpoint");
+    histRepo.setCrawlCheckpointFile(ckptFile);
+    theDaemon.setHistoryRepository(histRepo, mau);
+
+    setUpCrawlWindowTest(new MyMockCrawlWindow(3));
+    assertTrue(ckptFile.exists());
+
+    ConfigurationUtil.addFromArgs(FollowLinkCrawler.PARAM_MAX_CRAWL_DEPTH,
+				  "42");
+    mau.setCrawlWindow(null);
+    crawler = makeTestableCrawler();
+    crawler.setUrlsToFollow(ListUtil.list(CW_URL1, CW_URL2, CW_URL3));
+    crawler.setDaemonPermissionCheckers(ListUtil.list(new MyMockPermissionChecker(100)));
+    crawler.doCrawl();
+    assertEquals(SetUtil.set(startUrl, CW_URL1, CW_URL2, CW_URL3),
+		 crawler.fetched);
+    assertFalse(ckptFile.exists());
+  }
+
   public void testOutsideOfWindowAfterGetUrlsToFollow() {
     MockCachedUrlSet cus = (MockCachedUrlSet)mau.getAuCachedUrlSet();
 
@@ -1126,9 +1171,10 @@ public class TestFollowLinkCrawler extends LockssTestCase {
 	}
       };
     CrawlUrlData curl = new CrawlUrlData("referring.url", 0);
-    CrawlQueue cq = new CrawlQueue(null);
+    CrawlUrlStore store = new CrawlUrlStore();
+    CrawlQueue cq = new CrawlQueue(null, store);
     TestableFollowLinkCrawler.MyLinkExtractorCallback mfuc =
-      crawler.newFoundUrlCallback(mau, curl, cq, new HashMap(), new HashMap());
+      crawler.newFoundUrlCallback(mau, curl, cq, store);
 
     mfuc.foundLink("http://www.example.com/foo.bar");
     mfuc.foundLink("http://www.example.com/SESSION/foo.bar");
@@ -1438,10 +1484,8 @@ public class TestFollowLinkCrawler extends LockssTestCase {
       newFoundUrlCallback(ArchivalUnit au,
 			  CrawlUrlData curl,
 			  CrawlQueue fetchQueue,
-			  Map<String,CrawlUrlData> processedUrls,
-			  Map<String,CrawlUrlData> maxDepthUrls) {
-      return new MyLinkExtractorCallback(au, curl, fetchQueue,
-					 processedUrls, maxDepthUrls);
+			  CrawlUrlStore urlStore) {
+      return new MyLinkExtractorCallback(au, curl, fetchQueue, urlStore);
     }
 
     private CrawlQueue getFetchQueue() {
@@ -1488,7 +1532,7 @@ public class TestFollowLinkCrawler extends LockssTestCase {
 
     @Override
     public boolean isWholeAU() {
-      return false;
+      return isWholeAU;
     }
 
     @Override
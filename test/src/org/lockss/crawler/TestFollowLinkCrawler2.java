@@ -119,6 +119,9 @@ public class TestFollowLinkCrawler2 extends LockssTestCase {
     NodeManager nodeManager = new MockNodeManager();
     MyMockArchivalUnit mau = new MyMockArchivalUnit();
     getMockLockssDaemon().setNodeManager(nodeManager, mau);
+    // No crawl checkpoint file, so aborted crawls don't leave state behind
+    getMockLockssDaemon().setHistoryRepository(new MockHistoryRepository(),
+					       mau);
     return mau;
   }
 
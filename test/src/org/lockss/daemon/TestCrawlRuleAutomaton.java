@@ -0,0 +1,224 @@
+/*
+
+Copyright (c) 2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+
+package org.lockss.daemon;
+
+import java.util.*;
+
+import org.apache.oro.text.regex.*;
+import org.lockss.util.*;
+import org.lockss.test.*;
+
+/**
+ * Test class for org.lockss.daemon.CrawlRuleAutomaton.  Results are
+ * checked against ORO's Perl5Matcher.
+ */
+public class TestCrawlRuleAutomaton extends LockssTestCase {
+
+  static String[] REGEXPS = {
+    "^http://www\\.example\\.com/",
+    "^https?://www\\.example\\.com/journals/[^/]+/vol\\d+/",
+    "\\.(css|js|gif|jpe?g|png)(\\?.*)?$",
+    "/issue/[0-9]{1,3}/?$",
+    "^http://cdn\\.example\\.com/.*\\.pdf$",
+    "(?:toc|abstract|full)\\.html",
+    "lockss\\.(txt|html)$",
+    "a{2,}b",
+    "x{,2}",
+    "[]a-c-]z",
+    "[^/?]+\\?id=\\w+$",
+    "foo|^bar",
+    "(a|)b*?c",
+    "\\s",
+    "\\W\\D\\S",
+    "$",
+    "^$",
+    "a.b",
+    "[\\w.-]+@",
+    "(ab)+c",
+    "(?:a*)*z",
+    "\\+",
+  };
+
+  static String[] URLS = {
+    "",
+    "http://www.example.com/",
+    "http://WWW.Example.com/index.html",
+    "https://www.example.com/journals/jx/vol12/toc.html",
+    "https://www.example.com/journals/jx/VOL12/abstract.html",
+    "http://www.example.com/style.CSS?v=3",
+    "http://www.example.com/img/x.jpeg",
+    "http://www.example.com/img/x.jpg/more",
+    "http://www.example.com/issue/12",
+    "http://www.example.com/issue/1234/",
+    "http://cdn.example.com/a/b/c.pdf",
+    "http://cdn.example.com/a/b/c.PDF",
+    "http://foo.com/lockss.txt",
+    "aab", "ab", "xyz", "x{,2}", "]z", "-z", "dz",
+    "http://x.com/page?id=abc_1", "http://x.com/page?id=a-b",
+    "bar/foo", "xbar", "BAR", "c", "ac", "bbbc", "a b", "a#1x",
+    "axb", "me@x.com", "ababc", "zz", "a+b",
+  };
+
+  CrawlRuleAutomaton makeAutomaton(boolean ignoreCase, String... res)
+      throws Exception {
+    List<Pattern> pats = new ArrayList<Pattern>();
+    for (String re : res) {
+      pats.add(compile(re, ignoreCase));
+    }
+    return new CrawlRuleAutomaton(pats,
+				  CrawlRules.DEFAULT_MAX_STATES);
+  }
+
+  Pattern compile(String re, boolean ignoreCase) throws Exception {
+    int flags = Perl5Compiler.READ_ONLY_MASK;
+    if (ignoreCase) flags |= Perl5Compiler.CASE_INSENSITIVE_MASK;
+    return RegexpUtil.getCompiler().compile(re, flags);
+  }
+
+  void assertSameAsOro(boolean ignoreCase, String[] res, String[] urls)
+      throws Exception {
+    CrawlRuleAutomaton a = makeAutomaton(ignoreCase, res);
+    Perl5Matcher matcher = RegexpUtil.getMatcher();
+    for (String url : urls) {
+      long bits = a.matchBits(url);
+      assertNotEquals(CrawlRuleAutomaton.UNKNOWN, bits);
+      for (int ix = 0; ix < res.length; ix++) {
+	assertTrue(res[ix], a.isCompiled(ix));
+	boolean exp = matcher.contains(url, compile(res[ix], ignoreCase));
+	assertEquals(res[ix] + " vs. " + url + ", ignoreCase: " + ignoreCase,
+		     exp, (bits & (1L << ix)) != 0);
+      }
+    }
+  }
+
+  public void testMatchesLikeOro() throws Exception {
+    assertSameAsOro(false, REGEXPS, URLS);
+    assertSameAsOro(true, REGEXPS, URLS);
+  }
+
+  public void testCaseFolding() throws Exception {
+    String[] res = {"[A-Z]x", "[^a-z]x", "[^A-Z]x", "ABC", "\\W", "[^\\W]"};
+    String[] urls = {"ax", "Ax", "AX", "5x", "abc", "aBc", "A", "_"};
+    assertSameAsOro(false, res, urls);
+    assertSameAsOro(true, res, urls);
+  }
+
+  public void testUnsupported() throws Exception {
+    CrawlRuleAutomaton a =
+      makeAutomaton(false, "^http://x/", "^http://x/(?!foo)", "(a)\\1",
+		    "\\bword", "café", "(?i)abc", "a{1000}",
+		    "\\.pdf$");
+    assertTrue(a.isCompiled(0));
+    assertFalse(a.isCompiled(1));
+    assertFalse(a.isCompiled(2));
+    assertFalse(a.isCompiled(3));
+    assertFalse(a.isCompiled(4));
+    assertFalse(a.isCompiled(5));
+    assertFalse(a.isCompiled(6));
+    assertTrue(a.isCompiled(7));
+    assertEquals(2, a.numCompiled());
+    assertEquals(1L | (1L << 7), a.matchBits("http://x/a.pdf"));
+    assertEquals(0, a.matchBits("http://y/a.pdf/"));
+  }
+
+  public void testUnhandledUrls() throws Exception {
+    CrawlRuleAutomaton a = makeAutomaton(false, "^http://x/", "a$");
+    assertEquals(CrawlRuleAutomaton.UNKNOWN,
+		 a.matchBits("http://x/café"));
+    assertEquals(CrawlRuleAutomaton.UNKNOWN, a.matchBits("http://x/a\n"));
+    assertEquals(CrawlRuleAutomaton.UNKNOWN,
+		 a.matchBits("http://x/a\u001Cb"));
+    assertEquals(CrawlRuleAutomaton.UNKNOWN,
+		 makeAutomaton(false, "(?=a)").matchBits("a"));
+  }
+
+  public void testSpaceClass() throws Exception {
+    CrawlRuleAutomaton a = makeAutomaton(false, "^a\\sb$");
+    for (char ch : " \t\013\f\r".toCharArray()) {
+      assertEquals(1, a.matchBits("a" + ch + "b"));
+    }
+    assertEquals(0, a.matchBits("a\u0000b"));
+    assertEquals(0, a.matchBits("a\u001Bb"));
+    assertEquals(0, a.matchBits("a\u007Fb"));
+  }
+
+  public void testMaxStates() throws Exception {
+    List<Pattern> pats =
+      ListUtil.list(compile("^http://x/[a-z]+/[0-9]+/", false));
+    CrawlRuleAutomaton a = new CrawlRuleAutomaton(pats, 5);
+    assertEquals(CrawlRuleAutomaton.UNKNOWN,
+		 a.matchBits("http://x/abc/123/"));
+    assertTrue(a.numStates() <= 5);
+    a = new CrawlRuleAutomaton(pats, 100);
+    assertEquals(1, a.matchBits("http://x/abc/123/"));
+    int n = a.numStates();
+    assertEquals(1, a.matchBits("http://x/def/456/"));
+    // no new states needed for the same structure
+    assertEquals(n, a.numStates());
+    assertEquals(0, a.matchBits("http://x/def/x/"));
+  }
+
+  public void testCompiledFirstMatch() throws Exception {
+    List<CrawlRule> rules = new ArrayList<CrawlRule>();
+    rules.add(new CrawlRules.Contains(ListUtil.list("http://perm/")));
+    rules.add(new CrawlRules.RE("\\.css$", true,
+				CrawlRules.RE.MATCH_EXCLUDE));
+    rules.add(new CrawlRules.REMatchRange("^http://x/vol(\\d+)/", true,
+					  CrawlRules.RE.MATCH_INCLUDE, 2, 4));
+    rules.add(new CrawlRules.RE("^http://x/(?!skip)", true,
+				CrawlRules.RE.MATCH_INCLUDE));
+    rules.add(new CrawlRules.RE("^http://y/", true,
+				CrawlRules.RE.NO_MATCH_EXCLUDE));
+    rules.add(new CrawlRules.RE("^http://y/a/", true,
+				CrawlRules.RE.MATCH_INCLUDE));
+    CrawlRules.FirstMatch plain = new CrawlRules.FirstMatch(rules);
+    CrawlRules.FirstMatch compiled = CrawlRules.compileFirstMatch(rules, 100);
+    assertClass(CrawlRules.CompiledFirstMatch.class, compiled);
+    assertEquals(3,
+		 ((CrawlRules.CompiledFirstMatch)compiled).getNumCompiled());
+    String[] urls = {
+      "http://perm/", "http://x/a.css", "http://x/vol3/", "http://x/vol5/",
+      "http://x/skip/", "http://x/foo", "http://z/", "http://y/a/b",
+      "http://y/b/", "http://Y/A/", "http://x/café",
+    };
+    for (String url : urls) {
+      assertEquals(url, plain.match(url), compiled.match(url));
+    }
+    assertEquals(CrawlRule.EXCLUDE, compiled.match("http://z/"));
+    assertEquals(CrawlRule.INCLUDE, compiled.match("http://x/vol3/"));
+    // falls through to NO_MATCH_EXCLUDE rule
+    assertEquals(CrawlRule.EXCLUDE, compiled.match("http://x/skip/"));
+    assertEquals(CrawlRule.IGNORE, compiled.match("http://y/b/"));
+
+    // No compilable rules
+    assertClass(CrawlRules.FirstMatch.class,
+		CrawlRules.compileFirstMatch(ListUtil.list(rules.get(0)), 100));
+  }
+}
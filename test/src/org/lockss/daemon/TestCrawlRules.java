@@ -522,4 +522,78 @@ public class TestCrawlRules extends LockssTestCase {
     assertEquals(CrawlRule.EXCLUDE, cr.match("/issue/frog/bar"));
   }
 
+
+  Set<String> prefixes(String re, int action) throws Exception {
+    return CrawlRules.getIncludedUrlPrefixes(new CrawlRules.RE(re, action));
+  }
+
+  public void testRegexpPrefixes() throws Exception {
+    int incl = CrawlRules.RE.MATCH_INCLUDE;
+    assertEquals(SetUtil.set("http://www.foo.com/"),
+		 prefixes("^http\\:\\/\\/www\\.foo\\.com\\/", incl));
+    assertEquals(SetUtil.set("http://www.foo.com/j"),
+		 prefixes("^http://www\\.Foo\\.com/J[0-9]+/", incl));
+    assertEquals(SetUtil.set("http://foo/a", "https://foo/a"),
+		 prefixes("^https?://foo/a\\d", incl));
+    assertEquals(SetUtil.set("http://foo/a/", "http://foo/bb/",
+			     "http://foo/"),
+		 prefixes("^http://foo/(?:a/|bb/)?", incl));
+    assertEquals(SetUtil.set("http://foo/x", "http://bar/"),
+		 prefixes("^http://foo/x|^http://bar/", incl));
+    // + means at least one
+    assertEquals(SetUtil.set("http://fooo"),
+		 prefixes("^http://fooo+bar", incl));
+    // * and {} may match zero times
+    assertEquals(SetUtil.set("http://fo"), prefixes("^http://foo*bar", incl));
+    assertEquals(SetUtil.set("http://fo"),
+		 prefixes("^http://foo{2}bar", incl));
+    // too many alternatives
+    assertEquals(SetUtil.set("http://foo/"),
+		 prefixes("^http://foo/(?:1|2|3|4|5|6|7|8|9|10|11|12|13|14|15|16|" +
+			  "17)", incl));
+
+    // Unanchored, empty prefix, or alternative that isn't anchored
+    assertNull(prefixes("http://foo/", incl));
+    assertNull(prefixes("^.*foo", incl));
+    assertNull(prefixes("^http://foo/|bar", incl));
+    assertNull(prefixes("^(?i)http://foo/", incl));
+    assertEquals(SetUtil.set("http://foo/"),
+		 prefixes("^http://foo/[a|b]", incl));
+
+    // Actions that can't include, or that include non-matching URLs
+    assertEmpty(prefixes("^http://foo/", CrawlRules.RE.MATCH_EXCLUDE));
+    assertEmpty(prefixes("^http://foo/", CrawlRules.RE.NO_MATCH_EXCLUDE));
+    assertNull(prefixes("^http://foo/", CrawlRules.RE.NO_MATCH_INCLUDE));
+    assertNull(prefixes("^http://foo/",
+			CrawlRules.RE.MATCH_EXCLUDE_ELSE_INCLUDE));
+    assertEquals(SetUtil.set("http://foo/"),
+		 prefixes("^http://foo/",
+			  CrawlRules.RE.MATCH_INCLUDE_ELSE_EXCLUDE));
+  }
+
+  public void testIncludedUrlPrefixes() throws Exception {
+    CrawlRule incl1 =
+      new CrawlRules.RE("^http://foo\\.com/", CrawlRules.RE.MATCH_INCLUDE);
+    CrawlRule excl =
+      new CrawlRules.RE("\\.css$", CrawlRules.RE.MATCH_EXCLUDE);
+    CrawlRule range =
+      new CrawlRules.REMatchRange("^http://bar\\.com/vol(\\d+)/",
+				  CrawlRules.RE.MATCH_INCLUDE, 1, 4);
+    CrawlRule contains =
+      new CrawlRules.Contains(ListUtil.list("http://Perm.com/lockss.html"));
+    CrawlRule fm =
+      new CrawlRules.FirstMatch(ListUtil.list(contains, excl, incl1, range));
+    assertEquals(SetUtil.set("http://perm.com/lockss.html", "http://foo.com/",
+			     "http://bar.com/vol"),
+		 CrawlRules.getIncludedUrlPrefixes(fm));
+
+    CrawlRule unanch =
+      new CrawlRules.RE("/issue/", CrawlRules.RE.MATCH_INCLUDE);
+    assertNull(CrawlRules.getIncludedUrlPrefixes(new CrawlRules.FirstMatch(
+						    ListUtil.list(incl1, unanch))));
+    assertNull(CrawlRules.getIncludedUrlPrefixes(new CrawlRule() {
+	public int match(String url) {
+	  return INCLUDE;
+	}}));
+  }
 }
@@ -0,0 +1,221 @@
+/*
+
+Copyright (c) 2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+
+package org.lockss.daemon;
+
+import java.io.*;
+import java.util.*;
+import javax.xml.parsers.*;
+
+import org.apache.oro.text.regex.Perl5Compiler;
+import org.w3c.dom.*;
+import org.lockss.util.*;
+import org.lockss.test.*;
+
+/**
+ * Compares the time to evaluate the crawl rules of the plugins in the
+ * plugins tree with FirstMatch and with CompiledFirstMatch, after
+ * checking that they agree.  Rule templates are instantiated with
+ * made-up parameter values.  Not run as part of the unit tests; set
+ * org.lockss.test.pluginsSrc to the plugins source dir if it isn't
+ * plugins/src.
+ */
+public class TimeCrawlRuleAutomaton extends LockssTiming {
+  static final String HOST = "www.example.com";
+  static final String BASE = "http://" + HOST + "/";
+
+  static final String[] PATHS = {
+    "", "lockss.html", "LOCKSS.html", "clockss.txt",
+    "journals/abc/vol12/toc.html", "abc/12/article.pdf",
+    "abc/2012/12/1/", "css/style.css", "images/x.gif", "js/x.js?v=2",
+    "index.php?option=com_content&id=12", "doi/abs/10.1234/abc.12",
+    "doi/pdf/10.1234/abc.12", "content/12/1/1.full.pdf",
+    "action/showCitFormats?doi=10.1234/abc.12",
+    "toc/abc/12/1", "issue/view/12", "article/view/123/456",
+    "abc/vol12/iss1/", "search?q=abc", "about/editorialPolicies",
+  };
+
+  List<CrawlRules.FirstMatch> plain = new ArrayList<CrawlRules.FirstMatch>();
+  List<CrawlRules.FirstMatch> compiled =
+    new ArrayList<CrawlRules.FirstMatch>();
+  List<String> urls = new ArrayList<String>();
+  int numRules = 0;
+
+  public void setUp() throws Exception {
+    super.setUp();
+    for (String path : PATHS) {
+      urls.add(BASE + path);
+      urls.add("https://" + HOST + "/" + path);
+    }
+    urls.add("http://cdn.example.net/abc/12/x.js");
+    urls.add("http://fonts.googleapis.com/css?family=Abc");
+    File dir = new File(System.getProperty("org.lockss.test.pluginsSrc",
+					   "plugins/src"));
+    loadPlugins(dir);
+  }
+
+  public void testRules() throws Exception {
+    int mismatches = 0;
+    int numCompiledRules = 0;
+    for (int ix = 0; ix < plain.size(); ix++) {
+      CrawlRules.FirstMatch p = plain.get(ix);
+      CrawlRules.FirstMatch c = compiled.get(ix);
+      if (c instanceof CrawlRules.CompiledFirstMatch) {
+	numCompiledRules +=
+	  ((CrawlRules.CompiledFirstMatch)c).getNumCompiled();
+      }
+      for (String url : urls) {
+	if (p.match(url) != c.match(url)) {
+	  mismatches++;
+	  log.error("Mismatch: " + url + ": " + p);
+	}
+      }
+    }
+    System.out.println(plain.size() + " plugins, " + numRules + " rules, " +
+		       numCompiledRules + " compiled, " + urls.size() +
+		       " URLs");
+    assertEquals(0, mismatches);
+
+    time(null, "FirstMatch", new Computation() {
+	public void execute() throws Exception {
+	  matchAll(plain);
+	}});
+    time(null, "CompiledFirstMatch", new Computation() {
+	public void execute() throws Exception {
+	  matchAll(compiled);
+	}});
+  }
+
+  void matchAll(List<CrawlRules.FirstMatch> rules) {
+    for (CrawlRules.FirstMatch rule : rules) {
+      for (String url : urls) {
+	rule.match(url);
+      }
+    }
+  }
+
+  void loadPlugins(File dir) throws Exception {
+    File[] files = dir.listFiles();
+    if (files == null) {
+      return;
+    }
+    for (File file : files) {
+      if (file.isDirectory()) {
+	loadPlugins(file);
+      } else if (file.getName().endsWith(".xml")) {
+	loadPlugin(file);
+      }
+    }
+  }
+
+  void loadPlugin(File file) throws Exception {
+    DocumentBuilderFactory fact = DocumentBuilderFactory.newInstance();
+    fact.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd",
+		    false);
+    Document doc;
+    try {
+      doc = fact.newDocumentBuilder().parse(file);
+    } catch (Exception e) {
+      return;
+    }
+    List<String> templates = null;
+    boolean ignoreCase = true;
+    NodeList entries = doc.getElementsByTagName("entry");
+    for (int ix = 0; ix < entries.getLength(); ix++) {
+      List<Element> children = childElements((Element)entries.item(ix));
+      if (children.size() != 2) {
+	continue;
+      }
+      String key = children.get(0).getTextContent();
+      Element val = children.get(1);
+      if ("au_crawlrules".equals(key) && "list".equals(val.getTagName())) {
+	templates = new ArrayList<String>();
+	for (Element ele : childElements(val)) {
+	  templates.add(ele.getTextContent());
+	}
+      } else if ("au_crawlrules_ignore_case".equals(key)) {
+	ignoreCase = Boolean.parseBoolean(val.getTextContent().trim());
+      }
+    }
+    if (templates == null) {
+      return;
+    }
+    List<CrawlRule> rules = new ArrayList<CrawlRule>();
+    for (String template : templates) {
+      try {
+	int pos = template.indexOf(",");
+	int action = Integer.parseInt(template.substring(0, pos).trim());
+	String re = instantiate(template.substring(pos + 1));
+	rules.add(new CrawlRules.RE(re, ignoreCase, action));
+      } catch (Exception e) {
+	log.debug("Skipping rule: " + template + ": " + e);
+      }
+    }
+    if (!rules.isEmpty()) {
+      numRules += rules.size();
+      plain.add(new CrawlRules.FirstMatch(rules));
+      compiled.add(CrawlRules.compileFirstMatch(rules, 500));
+    }
+  }
+
+  // Substitute made-up values for the printf args
+  String instantiate(String printf) {
+    PrintfUtil.PrintfData data = PrintfUtil.stringToPrintf(printf);
+    StringBuilder sb = new StringBuilder();
+    for (PrintfUtil.PrintfElement ele : PrintfUtil.printfToElements(data)) {
+      String format = ele.getFormat();
+      String arg = ele.getElement();
+      if (format.equals(PrintfUtil.PrintfElement.FORMAT_NONE)) {
+	sb.append(arg.equals("%%") ? "%" : arg);
+      } else if (format.endsWith("d")) {
+	sb.append(arg.contains("year") ? "2012" : "12");
+      } else if (arg.contains("host")) {
+	sb.append(Perl5Compiler.quotemeta(HOST));
+      } else if (arg.contains("url")) {
+	sb.append(Perl5Compiler.quotemeta(BASE));
+      } else {
+	sb.append("abc");
+      }
+    }
+    return sb.toString();
+  }
+
+  List<Element> childElements(Element ele) {
+    List<Element> res = new ArrayList<Element>();
+    for (org.w3c.dom.Node n = ele.getFirstChild(); n != null;
+	 n = n.getNextSibling()) {
+      if (n instanceof Element) {
+	res.add((Element)n);
+      }
+    }
+    return res;
+  }
+
+  static Logger log = Logger.getLogger(TimeCrawlRuleAutomaton.class);
+}
@@ -43,7 +43,9 @@ import org.lockss.db.DbManager;
 import org.lockss.metadata.MetadataManager;
 import org.lockss.test.ConfigurationUtil;
 import org.lockss.test.LockssTestCase;
+import org.lockss.test.MockArchivalUnit;
 import org.lockss.test.MockLockssDaemon;
+import org.lockss.util.ListUtil;
 
 /**
  * Test class for org.lockss.exporter.counter.CounterReportsRequestRecorder.
@@ -59,6 +61,9 @@ public class TestCounterReportsRequestRecorder extends LockssTestCase {
   // A URL that does not exist in the URL metadata table.
   private static final String IGNORABLE_URL = "http://example.com/index.html";
 
+  // A URL that is added to the URL metadata table by a test.
+  private static final String LATER_URL = "http://example.com/later.url";
+
   // Query to count all the rows of requests.
   private static final String SQL_QUERY_REQUEST_COUNT = "select count(*) from "
       + COUNTER_REQUEST_TABLE;
@@ -71,6 +76,9 @@ public class TestCounterReportsRequestRecorder extends LockssTestCase {
   private DbManager dbManager;
   private MetadataManager metadataManager;
   private CounterReportsManager counterReportsManager;
+  private Long auMdSeq;
+  private Long parentSeq;
+  private Long mdItemTypeSeq;
 
   @Override
   public void setUp() throws Exception {
@@ -111,6 +119,12 @@ public class TestCounterReportsRequestRecorder extends LockssTestCase {
     initializeMetadata();
   }
 
+  @Override
+  public void tearDown() throws Exception {
+    counterReportsManager.stopService();
+    super.tearDown();
+  }
+
   private void initializeMetadata() throws DbException {
     Connection conn = null;
 
@@ -141,15 +155,15 @@ public class TestCounterReportsRequestRecorder extends LockssTestCase {
 	  "fullProviderName");
 
       // Add the AU metadata.
-      Long auMdSeq =
+      auMdSeq =
 	  metadataManager.addAuMd(conn, auSeq, 1, 0L, 123L, providerSeq);
 
-      Long parentSeq =
+      parentSeq =
 	  metadataManager.findPublicationMetadataItem(conn, publicationSeq);
 
       metadataManager.addMdItemDoi(conn, parentSeq, "10.1000/182");
 
-      Long mdItemTypeSeq =
+      mdItemTypeSeq =
 	  metadataManager.findMetadataItemType(conn, MD_ITEM_TYPE_BOOK);
 
       Long mdItemSeq = metadataManager.addMdItem(conn, parentSeq, mdItemTypeSeq,
@@ -267,6 +281,160 @@ public class TestCounterReportsRequestRecorder extends LockssTestCase {
     checkRequestByPublisherInvolvementRowCount(true, 2);
   }
 
+  /**
+   * Tests that requests are dropped when the queue is full.
+   * 
+   * @throws Exception
+   */
+  public void testQueueFull() throws Exception {
+    // The writer is not started, so nothing is taken from the queue until it
+    // is flushed.
+    CounterReportsRequestQueue queue = new CounterReportsRequestQueue(
+	counterReportsManager, dbManager, 2, 10, 1000, 10, true);
+
+    assertTrue(queue.add(RECORDABLE_URL, false, null));
+    assertTrue(queue.add(RECORDABLE_URL, true, null));
+    assertFalse(queue.add(RECORDABLE_URL, true, null));
+    assertEquals(2, queue.getQueueDepth());
+    assertEquals(1, queue.getDroppedCount());
+    checkRequestRowCount(0);
+
+    queue.flush();
+    assertEquals(0, queue.getQueueDepth());
+    assertEquals(2, queue.getWrittenCount());
+    checkRequestRowCount(2);
+    checkRequestByPublisherInvolvementRowCount(false, 1);
+    checkRequestByPublisherInvolvementRowCount(true, 1);
+
+    assertTrue(queue.add(RECORDABLE_URL, true, null));
+    queue.flush();
+    checkRequestRowCount(3);
+  }
+
+  /**
+   * Tests the writing of requests in batches smaller than the queue.
+   * 
+   * @throws Exception
+   */
+  public void testBatches() throws Exception {
+    CounterReportsRequestQueue queue = new CounterReportsRequestQueue(
+	counterReportsManager, dbManager, 100, 3, 1000, 10, true);
+
+    for (int i = 0; i < 10; i++) {
+      queue.add(i % 2 == 0 ? RECORDABLE_URL : IGNORABLE_URL, false, null);
+    }
+    queue.flush();
+    assertEquals(5, queue.getWrittenCount());
+    assertEquals(5, queue.getIgnoredCount());
+    assertEquals(0, queue.getFailedCount());
+    checkRequestRowCount(5);
+  }
+
+  /**
+   * Tests the full-text URL lookup cache and its invalidation.
+   * 
+   * @throws Exception
+   */
+  public void testUrlCache() throws Exception {
+    CounterReportsRequestQueue queue = new CounterReportsRequestQueue(
+	counterReportsManager, dbManager, 100, 10, 1000, 10, true);
+
+    queue.add(RECORDABLE_URL, false, null);
+    queue.add(RECORDABLE_URL, false, null);
+    queue.add(LATER_URL, false, null);
+    queue.flush();
+    assertEquals(2, queue.getCacheMisses());
+    assertEquals(1, queue.getCacheHits());
+    assertEquals(2, queue.getWrittenCount());
+    assertEquals(1, queue.getIgnoredCount());
+
+    // The URL becomes a full-text URL, but the cached lookup still says it
+    // is not.
+    addFullTextUrl(LATER_URL);
+    queue.add(LATER_URL, false, null);
+    queue.flush();
+    assertEquals(2, queue.getWrittenCount());
+    assertEquals(2, queue.getIgnoredCount());
+
+    // Invalidating an unrelated AU leaves the entry in place.
+    MockArchivalUnit other = new MockArchivalUnit();
+    other.setUrlStems(ListUtil.list("http://other.example.com/"));
+    queue.invalidateUrls(other);
+    queue.add(LATER_URL, false, null);
+    queue.flush();
+    assertEquals(2, queue.getWrittenCount());
+
+    // Invalidating the AU that holds the URL forgets the entry.
+    MockArchivalUnit mau = new MockArchivalUnit();
+    mau.setUrlStems(ListUtil.list("http://example.com/"));
+    queue.invalidateUrls(mau);
+    queue.add(LATER_URL, false, null);
+    queue.flush();
+    assertEquals(3, queue.getWrittenCount());
+    checkRequestRowCount(3);
+  }
+
+  /**
+   * Tests the recording of requests on the calling thread.
+   * 
+   * @throws Exception
+   */
+  public void testSynchronous() throws Exception {
+    CounterReportsRequestQueue queue = new CounterReportsRequestQueue(
+	counterReportsManager, dbManager, 100, 10, 1000, 10, false);
+    queue.start();
+
+    assertTrue(queue.add(RECORDABLE_URL, true, null));
+    assertEquals(0, queue.getQueueDepth());
+    assertEquals(1, queue.getWrittenCount());
+    assertTrue(queue.add(IGNORABLE_URL, true, null));
+    assertEquals(1, queue.getIgnoredCount());
+    queue.stop();
+  }
+
+  /**
+   * Tests that stopping the background writer persists the queued requests.
+   * 
+   * @throws Exception
+   */
+  public void testStop() throws Exception {
+    CounterReportsRequestQueue queue = new CounterReportsRequestQueue(
+	counterReportsManager, dbManager, 100, 10, 1000, 10, true);
+    queue.start();
+    for (int i = 0; i < 5; i++) {
+      queue.add(RECORDABLE_URL, false, null);
+    }
+    queue.stop();
+    assertEquals(0, queue.getQueueDepth());
+    assertEquals(5, queue.getWrittenCount());
+  }
+
+  /**
+   * Adds a full-text metadata item for a URL.
+   * 
+   * @param url
+   *          A String with the URL.
+   * @throws DbException
+   */
+  private void addFullTextUrl(String url) throws DbException {
+    Connection conn = null;
+
+    try {
+      conn = dbManager.getConnection();
+
+      Long mdItemSeq = metadataManager.addMdItem(conn, parentSeq,
+	  mdItemTypeSeq, auMdSeq, "2009-01-01", null, 1234L);
+
+      metadataManager.addMdItemName(conn, mdItemSeq, "Later Chapter",
+	  			    PRIMARY_NAME_TYPE);
+
+      metadataManager.addMdItemUrl(conn, mdItemSeq, ROLE_FULL_TEXT_PDF, url);
+    } finally {
+      DbManager.commitOrRollback(conn, log);
+      DbManager.safeCloseConnection(conn);
+    }
+  }
+
   /**
    * Checks the expected count of rows in the request table.
    * 
@@ -282,6 +450,9 @@ public class TestCounterReportsRequestRecorder extends LockssTestCase {
     int count = -1;
     String sql = SQL_QUERY_REQUEST_COUNT;
 
+    // Write any requests still queued.
+    counterReportsManager.getRequestQueue().flush();
+
     try {
       conn = dbManager.getConnection();
 
@@ -320,6 +491,9 @@ public class TestCounterReportsRequestRecorder extends LockssTestCase {
     int count = -1;
     String sql = SQL_QUERY_REQUEST_BY_INVOLVEMENT_COUNT;
 
+    // Write any requests still queued.
+    counterReportsManager.getRequestQueue().flush();
+
     try {
       conn = dbManager.getConnection();
 
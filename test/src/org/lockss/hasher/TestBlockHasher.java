@@ -43,6 +43,7 @@ import org.lockss.filter.*;
 import org.lockss.crawler.*;
 import org.lockss.plugin.*;
 import org.lockss.plugin.base.*;
+import org.lockss.plugin.wrapper.FilterFactoryWrapper;
 import org.lockss.repository.*;
 
 public class TestBlockHasher extends LockssTestCase {
@@ -1078,6 +1079,154 @@ public class TestBlockHasher extends LockssTestCase {
     testUnfiltered("icked itch of the est", true);
   }
 
+  BlockHasher hashCacheHasher(MockCachedUrlSet cus, byte[] init,
+			      RecordingEventHandler handRec) {
+    MessageDigest[] digs = { new MockMessageDigest() };
+    byte[][] inits = { init };
+    return new MyBlockHasher(cus, digs, inits, handRec);
+  }
+
+  public void testHashCache() throws Exception {
+    ConfigurationUtil.addFromArgs(BlockHasher.PARAM_USE_HASH_CACHE, "true");
+    String str = "Wicked witch of the west";
+    String exp = "icked itch of the est";
+    MockArchivalUnit mau = setupContentTree();
+    mau.setHashFilterFactory(new SimpleFilterFactory());
+    MockCachedUrlSet cus = (MockCachedUrlSet)mau.getAuCachedUrlSet();
+    addContent(mau, urls[4], str);
+    MockCachedUrl cu = (MockCachedUrl)mau.makeCachedUrl(urls[4]);
+
+    RecordingEventHandler handRec = new RecordingEventHandler();
+    BlockHasher hasher = hashCacheHasher(cus, null, handRec);
+    assertTrue(hasher.isHashCacheUsable());
+    assertEquals(exp.length(), hashToEnd(hasher, 100));
+    assertEvent(urls[4], str.length(), exp.length(),
+		new byte[][] {bytes(exp)}, handRec.getEvents().get(0));
+    assertEquals(1, cu.getHashCache().size());
+
+    // Change the content but not its size.  The plain hash comes from the
+    // cache, so the content isn't read.
+    cu.setContent("Wicked witch of the east");
+    handRec = new RecordingEventHandler();
+    hasher = hashCacheHasher(cus, null, handRec);
+    assertEquals(0, hashToEnd(hasher, 100));
+    assertEvent(urls[4], str.length(), exp.length(),
+		new byte[][] {bytes(exp)}, handRec.getEvents().get(0));
+
+    // A nonced hash must read the content
+    handRec = new RecordingEventHandler();
+    hasher = hashCacheHasher(cus, bytes("nonce"), handRec);
+    assertFalse(hasher.isHashCacheUsable());
+    String exp2 = "icked itch of the east";
+    hashToEnd(hasher, 100);
+    assertEvent(urls[4], str.length(), exp2.length(),
+		new byte[][] {bytes("nonce" + exp2)},
+		handRec.getEvents().get(0));
+
+    // As must one with the cache disabled
+    handRec = new RecordingEventHandler();
+    hasher = hashCacheHasher(cus, null, handRec);
+    hasher.setUseHashCache(false);
+    assertEquals(exp2.length(), hashToEnd(hasher, 100));
+    assertEvent(urls[4], str.length(), exp2.length(),
+		new byte[][] {bytes(exp2)},
+		handRec.getEvents().get(0));
+  }
+
+  public void testHashCacheKeyIncludesFilter() throws Exception {
+    ConfigurationUtil.addFromArgs(BlockHasher.PARAM_USE_HASH_CACHE, "true");
+    String str = "Wicked witch of the west";
+    MockArchivalUnit mau = setupContentTree();
+    MockCachedUrlSet cus = (MockCachedUrlSet)mau.getAuCachedUrlSet();
+    addContent(mau, urls[4], str);
+    MockCachedUrl cu = (MockCachedUrl)mau.makeCachedUrl(urls[4]);
+
+    RecordingEventHandler handRec = new RecordingEventHandler();
+    hashToEnd(hashCacheHasher(cus, null, handRec), 100);
+    assertEquals(1, cu.getHashCache().size());
+
+    // Adding a filter makes the cached unfiltered hash inapplicable
+    mau.setHashFilterFactory(new SimpleFilterFactory());
+    handRec = new RecordingEventHandler();
+    String exp = "icked itch of the est";
+    assertEquals(exp.length(),
+		 hashToEnd(hashCacheHasher(cus, null, handRec), 100));
+    assertEvent(urls[4], str.length(), exp.length(),
+		new byte[][] {bytes(exp)}, handRec.getEvents().get(0));
+    assertEquals(2, cu.getHashCache().size());
+
+    // Hashing the URL is cached separately, and isn't satisfied by the
+    // content-only entry
+    handRec = new RecordingEventHandler();
+    BlockHasher hasher = hashCacheHasher(cus, null, handRec);
+    hasher.setIncludeUrl(true);
+    assertTrue(hasher.isHashCacheUsable());
+    assertEquals(urls[4].length() + exp.length(), hashToEnd(hasher, 100));
+    assertEvent(urls[4], str.length(), exp.length(),
+		new byte[][] {bytes(urls[4] + exp)},
+		handRec.getEvents().get(0));
+    assertEquals(3, cu.getHashCache().size());
+    handRec = new RecordingEventHandler();
+    hasher = hashCacheHasher(cus, null, handRec);
+    hasher.setIncludeUrl(true);
+    assertEquals(0, hashToEnd(hasher, 100));
+    assertEvent(urls[4], str.length(), exp.length(),
+		new byte[][] {bytes(urls[4] + exp)},
+		handRec.getEvents().get(0));
+
+    // A new plugin version invalidates the cached hashes
+    ((MockPlugin)mau.getPlugin()).setVersion("2");
+    handRec = new RecordingEventHandler();
+    assertEquals(exp.length(),
+		 hashToEnd(hashCacheHasher(cus, null, handRec), 100));
+    assertEquals(4, cu.getHashCache().size());
+  }
+
+  public void testHashCacheKeyIncludesFilterConfig() throws Exception {
+    ConfigurationUtil.addFromArgs(BlockHasher.PARAM_USE_HASH_CACHE, "true");
+    String str = "Wicked witch of the west";
+    String exp = "icked itch of the est";
+    MockArchivalUnit mau = setupContentTree();
+    mau.setHashFilterFactory(new SimpleFilterFactory());
+    mau.setConfiguration(ConfigurationUtil.fromArgs("base_url",
+						    "http://www.test.com/"));
+    MockCachedUrlSet cus = (MockCachedUrlSet)mau.getAuCachedUrlSet();
+    addContent(mau, urls[4], str);
+    MockCachedUrl cu = (MockCachedUrl)mau.makeCachedUrl(urls[4]);
+
+    BlockHasher hasher =
+      hashCacheHasher(cus, null, new RecordingEventHandler());
+    String fp = hasher.hashFilterFingerprint("text/html");
+    assertEquals(fp, hasher.hashFilterFingerprint("text/html"));
+    assertNotEquals(fp,
+		    hasher.hashFilterFingerprint("text/html; charset=UTF-8"));
+    assertEquals(exp.length(), hashToEnd(hasher, 100));
+    assertEquals(1, cu.getHashCache().size());
+
+    // The fingerprint is of the wrapped factory, not the wrapper
+    mau.setHashFilterFactory(new FilterFactoryWrapper(new SimpleFilterFactory()));
+    hasher = hashCacheHasher(cus, null, new RecordingEventHandler());
+    assertEquals(fp, hasher.hashFilterFingerprint("text/html"));
+    assertEquals(0, hashToEnd(hasher, 100));
+    assertEquals(1, cu.getHashCache().size());
+
+    // Changing an AU param the filter may consult invalidates the entry
+    mau.setConfiguration(ConfigurationUtil.fromArgs("base_url",
+						    "http://www.other.com/"));
+    hasher = hashCacheHasher(cus, null, new RecordingEventHandler());
+    assertNotEquals(fp, hasher.hashFilterFingerprint("text/html"));
+    assertEquals(exp.length(), hashToEnd(hasher, 100));
+    assertEquals(2, cu.getHashCache().size());
+
+    // As does switching from a filter factory to a filter rule
+    mau.setHashFilterFactory(null);
+    mau.setFilterRule(new SimpleFilterRule());
+    hasher = hashCacheHasher(cus, null, new RecordingEventHandler());
+    assertNotEquals(fp, hasher.hashFilterFingerprint("text/html"));
+    hashToEnd(hasher, 100);
+    assertEquals(3, cu.getHashCache().size());
+  }
+
   public void testInputStreamIsClosed() throws IOException {
     RecordingEventHandler handRec = new RecordingEventHandler();
     MockArchivalUnit mau = setupContentTree();
@@ -1509,6 +1658,94 @@ public class TestBlockHasher extends LockssTestCase {
     testMultipleDigestsWithInit(1000);
   }
 
+  public void testMultipleDigestsParallel() throws Exception {
+    ConfigurationUtil.addFromArgs(BlockHasher.PARAM_PARALLEL_DIGEST_THREADS,
+				  "4",
+				  BlockHasher.PARAM_PARALLEL_DIGEST_MIN_DIGESTS,
+				  "2",
+				  BlockHasher.PARAM_PARALLEL_DIGEST_MIN_BYTES,
+				  "1");
+    testMultipleDigests(10000);
+    testMultipleDigestsWithInit(1);
+    testMultipleDigestsWithInit(1000);
+  }
+
+  public void testIsParallelDigests() throws Exception {
+    MockCachedUrlSet cus = new MockCachedUrlSet(mau);
+    cus.setHashIterator(CollectionUtil.EMPTY_ITERATOR);
+    cus.setFlatIterator(null);
+    MessageDigest[] digs = { dig, dig, dig };
+    byte[][] inits = {null, null, null};
+    BlockHasher hasher = new MyBlockHasher(cus, digs, inits, hand0);
+    assertFalse(hasher.isParallelDigests(10000));
+
+    ConfigurationUtil.addFromArgs(BlockHasher.PARAM_PARALLEL_DIGEST_THREADS,
+				  "4",
+				  BlockHasher.PARAM_PARALLEL_DIGEST_MIN_DIGESTS,
+				  "3",
+				  BlockHasher.PARAM_PARALLEL_DIGEST_MIN_BYTES,
+				  "100");
+    hasher = new MyBlockHasher(cus, digs, inits, hand0);
+    assertTrue(hasher.isParallelDigests(10000));
+    assertTrue(hasher.isParallelDigests(100));
+    assertFalse(hasher.isParallelDigests(99));
+
+    MessageDigest[] digs2 = { dig, dig };
+    byte[][] inits2 = {null, null};
+    hasher = new MyBlockHasher(cus, digs2, inits2, hand0);
+    assertFalse(hasher.isParallelDigests(10000));
+  }
+
+  // Real digests, many peers, content larger than the step size: the
+  // parallel path must produce exactly the sequential results
+  public void testParallelDigestsMatchSequential() throws Exception {
+    StringBuilder sb = new StringBuilder();
+    for (int ix = 0; ix < 5000; ix++) {
+      sb.append("Line ").append(ix).append(" of some content\n");
+    }
+    String content = sb.toString();
+    MockArchivalUnit mau = setupContentTree();
+    addContent(mau, urls[4], content);
+    addContent(mau, urls[6], s2);
+    addContent(mau, urls[7], content + s3);
+
+    List<Event> seq = hashWithSha1Digests(mau, 12);
+    ConfigurationUtil.addFromArgs(BlockHasher.PARAM_PARALLEL_DIGEST_THREADS,
+				  "3",
+				  BlockHasher.PARAM_PARALLEL_DIGEST_MIN_DIGESTS,
+				  "2",
+				  BlockHasher.PARAM_PARALLEL_DIGEST_MIN_BYTES,
+				  "1");
+    List<Event> par = hashWithSha1Digests(mau, 12);
+    assertEquals(3, seq.size());
+    assertEquals(seq.size(), par.size());
+    for (int ix = 0; ix < seq.size(); ix++) {
+      Event se = seq.get(ix);
+      Event pe = par.get(ix);
+      assertEquals(se.hblock.getUrl(), pe.hblock.getUrl());
+      assertEquals(se.byteArrays.length, pe.byteArrays.length);
+      for (int jx = 0; jx < se.byteArrays.length; jx++) {
+	assertEquals(se.byteArrays[jx], pe.byteArrays[jx]);
+      }
+    }
+  }
+
+  List<Event> hashWithSha1Digests(MockArchivalUnit mau, int npeers)
+      throws Exception {
+    MockCachedUrlSet cus = (MockCachedUrlSet)mau.getAuCachedUrlSet();
+    MessageDigest[] digs = new MessageDigest[npeers];
+    byte[][] inits = new byte[npeers][];
+    for (int ix = 0; ix < npeers; ix++) {
+      digs[ix] = MessageDigest.getInstance("SHA-1");
+      inits[ix] = bytes("nonce" + ix);
+    }
+    RecordingEventHandler handRec = new RecordingEventHandler();
+    BlockHasher hasher = new MyBlockHasher(cus, digs, inits, handRec);
+    hashToEnd(hasher, 10000);
+    assertTrue(hasher.finished());
+    return handRec.getEvents();
+  }
+
   private static final String DIR_BASE = "http://site/dir";
   private ArchivalUnit dirAu;
 
@@ -1786,6 +2023,14 @@ public class TestBlockHasher extends LockssTestCase {
     }
   }
 
+  public class SimpleFilterRule implements FilterRule {
+    public Reader createFilteredReader(Reader reader) {
+      StringFilter filt = new StringFilter(reader, "w");
+      filt.setIgnoreCase(true);
+      return filt;
+    }
+  }
+
   public class IncompleteReadFilterFactory implements FilterFactory {
     int len;
 
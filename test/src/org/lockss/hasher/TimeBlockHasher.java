@@ -0,0 +1,120 @@
+/*
+
+Copyright (c) 2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+
+package org.lockss.hasher;
+
+import java.security.*;
+import java.util.*;
+
+import org.apache.commons.lang3.StringUtils;
+import org.lockss.test.*;
+import org.lockss.util.*;
+import org.lockss.plugin.*;
+import org.lockss.repository.*;
+
+/**
+ * Measures BlockHasher throughput as a function of the number of peer
+ * digests, with sequential and parallel digest updates.  Not run as part
+ * of the unit tests.
+ */
+public class TimeBlockHasher extends LockssTiming {
+  private static final String BASE_URL = "http://www.test.com/blah/";
+  static final int NUM_FILES = 4;
+  static final int FILE_SIZE = 1024 * 1024;
+  static final int STEP_SIZE = 10000;
+  static final int[] PEER_COUNTS = { 1, 5, 10, 20 };
+  static final int[] THREAD_COUNTS = { 0, 2, 4, 8 };
+
+  private MockLockssDaemon daemon;
+  private MockArchivalUnit mau;
+  private long contentBytes;
+
+  public void setUp() throws Exception {
+    super.setUp();
+    daemon = getMockLockssDaemon();
+    setUpDiskSpace();
+    mau = new MockArchivalUnit(new MockPlugin(daemon));
+    RepositoryManager repoMgr = daemon.getRepositoryManager();
+    repoMgr.startService();
+    LockssRepositoryImpl repo =
+      (LockssRepositoryImpl)LockssRepositoryImpl.createNewLockssRepository(mau);
+    daemon.setLockssRepository(repo, mau);
+    repo.initService(daemon);
+    repo.startService();
+    MockNodeManager nodeMgr = new MockNodeManager();
+    daemon.setNodeManager(nodeMgr, mau);
+    nodeMgr.setAuState(new MockAuState(mau));
+
+    MockCachedUrlSet cus = (MockCachedUrlSet)mau.getAuCachedUrlSet();
+    List files = new ArrayList();
+    String content = StringUtils.repeat("abcdefghij", FILE_SIZE / 10);
+    for (int ix = 0; ix < NUM_FILES; ix++) {
+      String url = BASE_URL + "file" + ix;
+      files.add(mau.addUrl(url, false, true));
+      ((MockCachedUrl)mau.makeCachedUrl(url)).setContent(content);
+      contentBytes += content.length();
+    }
+    cus.setHashItSource(files);
+  }
+
+  public void testPeerCounts() throws Exception {
+    for (int threads : THREAD_COUNTS) {
+      ConfigurationUtil.addFromArgs(BlockHasher.PARAM_PARALLEL_DIGEST_THREADS,
+				    Integer.toString(threads),
+				    BlockHasher.PARAM_PARALLEL_DIGEST_MIN_DIGESTS,
+				    "2");
+      for (final int peers : PEER_COUNTS) {
+	time(null, threads + " threads, " + peers + " peers",
+	     new Computation() {
+	       public void execute() throws Exception {
+		 hashAll(peers);
+		 incrBytesProcessed(contentBytes);
+	       }});
+      }
+    }
+  }
+
+  void hashAll(int peers) throws Exception {
+    MessageDigest[] digs = new MessageDigest[peers];
+    byte[][] inits = new byte[peers][];
+    for (int ix = 0; ix < peers; ix++) {
+      digs[ix] = MessageDigest.getInstance("SHA-1");
+      inits[ix] = ("nonce" + ix).getBytes();
+    }
+    BlockHasher hasher =
+      new BlockHasher(mau.getAuCachedUrlSet(), digs, inits,
+		      new BlockHasher.EventHandler() {
+			public void blockDone(HashBlock hblock) {
+			}
+		      });
+    while (!hasher.finished()) {
+      hasher.hashStep(STEP_SIZE);
+    }
+  }
+}
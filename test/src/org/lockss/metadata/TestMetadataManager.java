@@ -209,6 +209,7 @@ public class TestMetadataManager extends LockssTestCase {
     runTestPrioritizedPendingAu();
     runTestPendingAusBatch();
     runModifyMetadataTest();
+    runParallelExtractionTest();
     runDeleteAuMetadataTest();
     runTestPriorityPatterns();
     runTestDisabledIndexingAu();
@@ -659,6 +660,155 @@ public class TestMetadataManager extends LockssTestCase {
     metadataManager.setIndexingEnabled(true);
   }
 
+  private void runParallelExtractionTest() throws Exception {
+    // The plugin's own extractor numbers articles in the order it sees
+    // them, so use one whose metadata depends only on the article
+    MySimulatedPlugin plugin = (MySimulatedPlugin)sau0.getPlugin();
+    ArticleMetadataExtractor savedExtractor =
+	plugin.simulatedArticleMetadataExtractor;
+    plugin.simulatedArticleMetadataExtractor =
+	new ArticleUrlMetadataExtractor();
+    try {
+      // fully reindex an AU with one extractor thread, then with three
+      List<String> expected = reindexWithExtractionThreads(sau0, 1);
+      assertEquals(42, expected.size());
+      List<String> actual = reindexWithExtractionThreads(sau0, 3);
+
+      ReindexingTask task = metadataManager.getReindexingTasks().get(0);
+      assertEquals(sau0, task.getAu());
+      assertEquals(MetadataManager.ReindexingStatus.Success,
+		   task.getReindexingStatus());
+      assertEquals(21, task.getIndexedArticleCount());
+      assertEquals(0, task.getErrorArticleCount());
+      assertTrue(task.getCpuTime() >= 0);
+
+      // the same rows are stored in the same order
+      assertEquals(expected, actual);
+
+      // nothing lost or duplicated
+      Connection conn = dbManager.getConnection();
+      assertEquals(105, metadataManagerSql.getArticleCount(conn));
+      DbManager.safeRollbackAndClose(conn);
+    } finally {
+      plugin.simulatedArticleMetadataExtractor = savedExtractor;
+      ConfigurationUtil.addFromArgs(MetadataManager.PARAM_EXTRACTION_THREADS,
+	  "1");
+    }
+  }
+
+  /**
+   * Fully reindexes an AU using the specified number of extractor threads.
+   * 
+   * @param au the AU
+   * @param threads the number of extractor threads
+   * @return the AU's metadata rows, as returned by getAuMetadataRows()
+   */
+  private List<String> reindexWithExtractionThreads(ArchivalUnit au,
+      int threads) throws Exception {
+    ConfigurationUtil.addFromArgs(MetadataManager.PARAM_EXTRACTION_THREADS,
+	Integer.toString(threads));
+    assertEquals(threads, metadataManager.getExtractionThreads());
+
+    // reset set of reindexed aus
+    ausReindexed.clear();
+
+    Connection conn = dbManager.getConnection();
+    PreparedStatement insertPendingAuBatchStatement =
+	metadataManager.getInsertPendingAuBatchStatement(conn);
+    metadataManager.enableAndAddAuToReindex(au, conn,
+	insertPendingAuBatchStatement, false, true);
+    conn.commit();
+    DbManager.safeRollbackAndClose(conn);
+
+    assertEquals(1, waitForReindexing(1, 10000));
+    return getAuMetadataRows(au);
+  }
+
+  /**
+   * Provides the URLs and DOIs of an AU's metadata items, in the order in
+   * which the items were stored.
+   * 
+   * @param au the AU
+   * @return a List<String> with a "feature url" entry per URL followed by
+   *         a "doi" entry per DOI
+   */
+  private List<String> getAuMetadataRows(ArchivalUnit au) throws Exception {
+    String auItems = " from " + MD_ITEM_TABLE + " m,"
+        + AU_MD_TABLE + " am,"
+        + AU_TABLE + " au,"
+        + PLUGIN_TABLE + " pl"
+        + " where pl." + PLUGIN_ID_COLUMN + " = ?"
+        + " and pl." + PLUGIN_SEQ_COLUMN 
+        + " = au." + PLUGIN_SEQ_COLUMN
+        + " and au." + AU_KEY_COLUMN + " = ?"
+        + " and au." + AU_SEQ_COLUMN 
+        + " = am." + AU_SEQ_COLUMN
+        + " and am." + AU_MD_SEQ_COLUMN 
+        + " = m." + AU_MD_SEQ_COLUMN;
+    String urlQuery = "select u." + FEATURE_COLUMN + ", u." + URL_COLUMN
+        + auItems.replace(" where ", ", " + URL_TABLE + " u where ")
+        + " and m." + MD_ITEM_SEQ_COLUMN 
+        + " = u." + MD_ITEM_SEQ_COLUMN
+        + " order by m." + MD_ITEM_SEQ_COLUMN + ", u." + FEATURE_COLUMN;
+    String doiQuery = "select d." + DOI_COLUMN
+        + auItems.replace(" where ", ", " + DOI_TABLE + " d where ")
+        + " and m." + MD_ITEM_SEQ_COLUMN 
+        + " = d." + MD_ITEM_SEQ_COLUMN
+        + " order by m." + MD_ITEM_SEQ_COLUMN;
+
+    List<String> results = new ArrayList<String>();
+    Connection con = dbManager.getConnection();
+    try {
+      PreparedStatement stmt = dbManager.prepareStatement(con, urlQuery);
+      stmt.setString(1, PluginManager.pluginIdFromAuId(au.getAuId()));
+      stmt.setString(2, PluginManager.auKeyFromAuId(au.getAuId()));
+      ResultSet resultSet = dbManager.executeQuery(stmt);
+      while (resultSet.next()) {
+        results.add(resultSet.getString(1) + " " + resultSet.getString(2));
+      }
+
+      stmt = dbManager.prepareStatement(con, doiQuery);
+      stmt.setString(1, PluginManager.pluginIdFromAuId(au.getAuId()));
+      stmt.setString(2, PluginManager.auKeyFromAuId(au.getAuId()));
+      resultSet = dbManager.executeQuery(stmt);
+      while (resultSet.next()) {
+        results.add(resultSet.getString(1));
+      }
+    } finally {
+      DbManager.safeRollbackAndClose(con);
+    }
+    return results;
+  }
+
+  /**
+   * Extracts metadata derived only from the article's full text URL.
+   */
+  static class ArticleUrlMetadataExtractor
+      implements ArticleMetadataExtractor {
+    public void extract(MetadataTarget target, ArticleFiles af,
+	Emitter emitter) throws IOException, PluginException {
+      String url = af.getFullTextUrl();
+      String path = url.substring(url.indexOf("/", "http://".length()) + 1);
+      ArticleMetadata md = new ArticleMetadata();
+      md.put(MetadataField.FIELD_PROVIDER, "Provider 0");
+      md.put(MetadataField.FIELD_PUBLISHER, "Publisher 0");
+      md.put(MetadataField.FIELD_ISSN, "0740-2783");
+      md.put(MetadataField.FIELD_VOLUME, "XI");
+      md.put(MetadataField.FIELD_ISSUE, "1st Quarter");
+      md.put(MetadataField.FIELD_DATE, "2010-Q1");
+      String doiPrefix = "10.1234/12345678";
+      String doi = doiPrefix + "." + path;
+      md.put(MetadataField.FIELD_DOI, doi);
+      md.put(MetadataField.FIELD_PUBLICATION_TITLE,
+	     "Journal[" + doiPrefix + "]");
+      md.put(MetadataField.FIELD_ARTICLE_TITLE, "Title[" + doi + "]");
+      md.put(MetadataField.FIELD_AUTHOR, "Author[" + doi + "]");
+      md.put(MetadataField.FIELD_ACCESS_URL,
+	     "http://www.title0.org/plugin0/XI/" + path);
+      emitter.emitMetadata(af, md);
+    }
+  }
+
   private void runModifyMetadataTest() throws Exception {
     Connection con = dbManager.getConnection();
     
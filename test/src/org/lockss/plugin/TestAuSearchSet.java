@@ -278,6 +278,57 @@ public class TestAuSearchSet extends LockssTestCase {
 
   }
 
+  public void testCandidateAus() {
+    setUpAus(6);
+    maus[0].setIncludedUrlPrefixes(ListUtil.list("http://foo.com/a/"));
+    maus[1].setIncludedUrlPrefixes(ListUtil.list("http://foo.com/b/",
+						 "HTTP://foo.com/ab/"));
+    maus[2].setIncludedUrlPrefixes(ListUtil.list("http://foo.com/a/x/"));
+    // no prefixes, is a candidate for everything
+    maus[3].setIncludedUrlPrefixes(null);
+    // includes nothing
+    maus[4].setIncludedUrlPrefixes(Collections.EMPTY_LIST);
+    maus[5].setIncludedUrlPrefixes(ListUtil.list("http://foo.com/a/"));
+    MyAuSearchSet ss = new MyAuSearchSet().setCacheSize(2);
+    for (MockArchivalUnit mau : maus) {
+      ss.addAu(mau);
+    }
+    assertEquals(byIndices(3), ss.getCandidateAus("http://foo.com/"));
+    assertEquals(byIndices(0,3,5), ss.getCandidateAus("http://foo.com/a/1"));
+    assertEquals(byIndices(0,2,3,5),
+		 ss.getCandidateAus("http://Foo.com/a/x/1"));
+    assertEquals(byIndices(1,3), ss.getCandidateAus("http://foo.com/ab/"));
+    assertEquals(byIndices(1,3), ss.getCandidateAus("http://foo.com/b/"));
+
+    // cached AUs come first
+    ss.addToCache(maus[5]);
+    ss.addToCache(maus[1]);
+    assertEquals(byIndices(5,0,2,3),
+		 ss.getCandidateAus("http://foo.com/a/x/1"));
+
+    ss.delAu(maus[5]);
+    ss.delAu(maus[3]);
+    assertEquals(byIndices(0,2), ss.getCandidateAus("http://foo.com/a/x/1"));
+    assertEquals(byIndices(1), ss.getCandidateAus("http://foo.com/b/"));
+    assertEmpty(ss.getCandidateAus("http://foo.com/"));
+
+    // changed prefixes take effect only when updated
+    maus[1].setIncludedUrlPrefixes(ListUtil.list("http://foo.com/"));
+    assertEmpty(ss.getCandidateAus("http://foo.com/"));
+    ss.updateUrlPrefixes(maus[1]);
+    assertEquals(byIndices(1), ss.getCandidateAus("http://foo.com/"));
+    // maus[1] is still in the cache
+    assertEquals(byIndices(1,0,2),
+		 ss.getCandidateAus("http://foo.com/a/x/1"));
+
+    // an AU added twice must be deleted twice
+    ss.addAu(maus[0]);
+    ss.delAu(maus[0]);
+    assertEquals(byIndices(1,0), ss.getCandidateAus("http://foo.com/a/1"));
+    ss.delAu(maus[0]);
+    assertEquals(byIndices(1), ss.getCandidateAus("http://foo.com/a/1"));
+  }
+
   class MyAuSearchSet extends AuSearchSet {
     int mockSize = -1;
     int cacheSize404 = -1;
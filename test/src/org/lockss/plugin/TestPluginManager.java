@@ -987,17 +987,26 @@ public class TestPluginManager extends LockssTestCase {
   }
 
   static class MyMockLockssDaemon extends MockLockssDaemon {
-    List auMgrsStarted = new ArrayList();
+    // AUs may be started in parallel
+    List auMgrsStarted = Collections.synchronizedList(new ArrayList());
 
     boolean isStartAuManagers = false;
+    String startAuManagersThrowIf = null;
 
     public void setStartAuManagers(boolean val) {
       isStartAuManagers = true;
     }
 
+    public void setStartAuManagersThrowIf(String auid) {
+      startAuManagersThrowIf = auid;
+    }
+
     public void startOrReconfigureAuManagers(ArchivalUnit au,
 					     Configuration auConfig)
 	throws Exception {
+      if (au.getAuId().equals(startAuManagersThrowIf)) {
+	throw new IllegalStateException("Deliberate failure: " + au);
+      }
       if (isStartAuManagers) {
 	reallyStartOrReconfigureAuManagers(au, auConfig);
       }
@@ -1593,6 +1602,46 @@ public class TestPluginManager extends LockssTestCase {
     assertNull(mgr.findCachedUrl(url2));
   }
 
+  public void testFindCachedUrlPrefixIndex() throws Exception {
+    mgr.startService();
+    String urlA = "http://foo.bar/a/1";
+    String urlB = "http://foo.bar/b/1";
+    MockPlugin mpi = new MockPlugin();
+    MockArchivalUnit mau1 = new MyMockArchivalUnit();
+    mau1.setPlugin(mpi);
+    mau1.setAuId("mauA");
+    mau1.setIncludedUrlPrefixes(ListUtil.list("http://foo.bar/a/"));
+    MockArchivalUnit mau2 = new MyMockArchivalUnit();
+    mau2.setPlugin(mpi);
+    mau2.setAuId("mauB");
+    mau2.setIncludedUrlPrefixes(ListUtil.list("http://foo.bar/b/"));
+    mgr.putAuInMap(mau1);
+    mgr.putAuInMap(mau2);
+    mau1.addUrl(urlA, true, true, null);
+    mau2.addUrl(urlB, true, true, null);
+    assertSame(mau1, mgr.findCachedUrl(urlA).getArchivalUnit());
+    assertSame(mau2, mgr.findCachedUrl(urlB).getArchivalUnit());
+
+    // A URL outside an AU's prefixes isn't looked for in that AU, even if
+    // (inconsistently) shouldBeCached() would be true
+    String urlA2 = "http://foo.bar/b/2";
+    mau1.addUrl(urlA2, true, true, null);
+    assertNull(mgr.findCachedUrl(urlA2));
+    // unless the index is disabled
+    ConfigurationUtil.addFromArgs(PluginManager.PARAM_AU_SEARCH_URL_PREFIX_INDEX,
+				  "false");
+    assertSame(mau1, mgr.findCachedUrl(urlA2).getArchivalUnit());
+    ConfigurationUtil.addFromArgs(PluginManager.PARAM_AU_SEARCH_URL_PREFIX_INDEX,
+				  "true");
+    // or the AU's prefixes change
+    String urlA3 = "http://foo.bar/b/3";
+    mau1.addUrl(urlA3, true, true, null);
+    mau1.setIncludedUrlPrefixes(ListUtil.list("http://foo.bar/"));
+    assertNull(mgr.findCachedUrl(urlA3));
+    mgr.updateAuUrlPrefixes(mau1);
+    assertSame(mau1, mgr.findCachedUrl(urlA3).getArchivalUnit());
+  }
+
   public void testGenerateAuId() {
     mgr.startService();
     Properties props = new Properties();
@@ -2104,6 +2153,101 @@ public class TestPluginManager extends LockssTestCase {
     assertNull(LockssRepositoryImpl.getAuDir(au.getAuId(), tempDirPath, false));
   }
 
+  // Configure n MockPlugin AUs, return their AUIDs
+  private List<String> configManyAus(int n, Properties p) throws Exception {
+    List<String> res = new ArrayList<String>();
+    for (int ix = 0; ix < n; ix++) {
+      Properties auProps = PropUtil.fromArgs(MockPlugin.CONFIG_PROP_1, "v" + ix,
+					     MockPlugin.CONFIG_PROP_2, "w");
+      String auKey = PropUtil.propsToCanonicalEncodedString(auProps);
+      p.setProperty(p1param + auKey + "." + MockPlugin.CONFIG_PROP_1, "v" + ix);
+      p.setProperty(p1param + auKey + "." + MockPlugin.CONFIG_PROP_2, "w");
+      res.add(mockPlugKey + "&" + auKey);
+    }
+    p.setProperty(PluginManager.PARAM_ALLOW_GLOBAL_AU_CONFIG, "true");
+    ConfigurationUtil.addFromProps(p);
+    return res;
+  }
+
+  void testStartAus(int nThreads) throws Exception {
+    mgr.setLoadablePluginsReady(false);
+    mgr.startService();
+    Properties p = new Properties();
+    p.setProperty(PluginManager.PARAM_STARTUP_AU_THREADS,
+		  Integer.toString(nThreads));
+    theDaemon.setStartAuManagers(true);
+    List<String> auids = configManyAus(10, p);
+    // AUs aren't started until startLoadablePlugins()
+    assertEmpty(mgr.getAllAus());
+    mgr.startLoadablePlugins();
+    assertEquals(10, mgr.getAllAus().size());
+    for (String auid : auids) {
+      ArchivalUnit au = mgr.getAuFromId(auid);
+      assertNotNull(auid, au);
+      assertSame(au, mgr.getAuFromId(auid));
+      assertNotNull(theDaemon.getNodeManager(au));
+    }
+    assertEquals(10, mgr.getPlugin(mockPlugKey).getAllAus().size());
+
+    StartupTimeline timeline = mgr.getStartupTimeline();
+    assertTrue(timeline.isDone());
+    List<String> phaseNames = new ArrayList<String>();
+    for (StartupTimeline.Phase phase : timeline.getPhases()) {
+      assertTrue(phase.isDone());
+      phaseNames.add(phase.getName());
+    }
+    assertEquals(ListUtil.list("Process AU config journal",
+			       "Load plugin registries",
+			       "Load static plugins",
+			       "Load AU plugins",
+			       "Start AUs"),
+		 phaseNames);
+    StartupTimeline.PluginTimes mockTimes = null;
+    for (StartupTimeline.PluginTimes pt : timeline.getPluginTimes()) {
+      if (pt.getPluginKey().equals(mockPlugKey)) {
+	mockTimes = pt;
+      }
+    }
+    assertNotNull(mockTimes);
+    assertEquals(10, mockTimes.getNumAus());
+    assertEquals(0, mockTimes.getNumFailedAus());
+
+    // AUs added after startup aren't recorded
+    configManyAus(12, new Properties());
+    assertEquals(12, mgr.getAllAus().size());
+    assertEquals(10, mockTimes.getNumAus());
+  }
+
+  public void testStartAusSerial() throws Exception {
+    testStartAus(1);
+  }
+
+  public void testStartAusParallel() throws Exception {
+    testStartAus(4);
+  }
+
+  public void testStartAusParallelFailure() throws Exception {
+    mgr.setLoadablePluginsReady(false);
+    mgr.startService();
+    Properties p = new Properties();
+    p.setProperty(PluginManager.PARAM_STARTUP_AU_THREADS, "3");
+    List<String> auids = configManyAus(5, p);
+    String badAuid = auids.get(2);
+    theDaemon.setStartAuManagersThrowIf(badAuid);
+    mgr.startLoadablePlugins();
+    assertEquals(4, mgr.getAllAus().size());
+    assertNull(mgr.getAuFromId(badAuid));
+    StartupTimeline.PluginTimes mockTimes = null;
+    for (StartupTimeline.PluginTimes pt :
+	   mgr.getStartupTimeline().getPluginTimes()) {
+      if (pt.getPluginKey().equals(mockPlugKey)) {
+	mockTimes = pt;
+      }
+    }
+    assertEquals(4, mockTimes.getNumAus());
+    assertEquals(1, mockTimes.getNumFailedAus());
+  }
+
   public void testRegistryAuEventHandler() throws Exception {
     mgr.setLoadablePluginsReady(false);
     mgr.startService();
@@ -0,0 +1,139 @@
+/*
+
+Copyright (c) 2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+
+
+package org.lockss.plugin;
+
+import java.util.*;
+
+import org.lockss.test.*;
+import org.lockss.util.*;
+
+public class TestStartupTimeline extends LockssTestCase {
+
+  StartupTimeline timeline;
+
+  public void setUp() throws Exception {
+    super.setUp();
+    TimeBase.setSimulated(1000);
+    timeline = new StartupTimeline();
+  }
+
+  public void tearDown() throws Exception {
+    TimeBase.setReal();
+    super.tearDown();
+  }
+
+  public void testNotStarted() {
+    assertFalse(timeline.isRunning());
+    assertFalse(timeline.isDone());
+    assertEquals(-1, timeline.getStartTime());
+    assertEquals(0, timeline.getElapsed());
+    timeline.startPhase("ignored");
+    timeline.pluginLoaded("plug1", 10);
+    timeline.auStarted("plug1", 10, true);
+    assertEmpty(timeline.getPhases());
+    assertEmpty(timeline.getPluginTimes());
+  }
+
+  public void testPhases() {
+    timeline.start();
+    assertTrue(timeline.isRunning());
+    assertEquals(1000, timeline.getStartTime());
+    timeline.startPhase("one");
+    TimeBase.step(100);
+    timeline.startPhase("two");
+    TimeBase.step(250);
+    List<StartupTimeline.Phase> phases = timeline.getPhases();
+    assertEquals(2, phases.size());
+    assertEquals("one", phases.get(0).getName());
+    assertTrue(phases.get(0).isDone());
+    assertEquals(100, phases.get(0).getDuration());
+    assertEquals("two", phases.get(1).getName());
+    assertFalse(phases.get(1).isDone());
+    assertEquals(250, phases.get(1).getDuration());
+    TimeBase.step(50);
+    timeline.finish();
+    assertFalse(timeline.isRunning());
+    assertTrue(timeline.isDone());
+    assertTrue(phases.get(1).isDone());
+    assertEquals(300, phases.get(1).getDuration());
+    assertEquals(400, timeline.getElapsed());
+    TimeBase.step(1000);
+    assertEquals(400, timeline.getElapsed());
+    // no recording after finish
+    timeline.startPhase("three");
+    assertEquals(2, timeline.getPhases().size());
+  }
+
+  public void testPluginTimes() {
+    timeline.start();
+    timeline.pluginLoaded("plug1", 20);
+    timeline.pluginLoaded("plug2", 5);
+    timeline.auStarted("plug1", 10, true);
+    timeline.auStarted("plug1", 30, true);
+    timeline.auStarted("plug1", 20, false);
+    timeline.auStarted("plug3", 7, true);
+    timeline.finish();
+    timeline.auStarted("plug1", 1000, true);
+
+    List<StartupTimeline.PluginTimes> times = timeline.getPluginTimes();
+    assertEquals(3, times.size());
+    StartupTimeline.PluginTimes pt1 = times.get(0);
+    assertEquals("plug1", pt1.getPluginKey());
+    assertEquals(20, pt1.getLoadTime());
+    assertEquals(2, pt1.getNumAus());
+    assertEquals(1, pt1.getNumFailedAus());
+    assertEquals(60, pt1.getTotalAuTime());
+    assertEquals(20, pt1.getMeanAuTime());
+    assertEquals(30, pt1.getMaxAuTime());
+    StartupTimeline.PluginTimes pt2 = times.get(1);
+    assertEquals("plug2", pt2.getPluginKey());
+    assertEquals(5, pt2.getLoadTime());
+    assertEquals(0, pt2.getNumAus());
+    assertEquals(0, pt2.getMeanAuTime());
+    StartupTimeline.PluginTimes pt3 = times.get(2);
+    assertEquals("plug3", pt3.getPluginKey());
+    assertEquals(0, pt3.getLoadTime());
+    assertEquals(1, pt3.getNumAus());
+  }
+
+  public void testRestart() {
+    timeline.start();
+    timeline.startPhase("one");
+    timeline.pluginLoaded("plug1", 20);
+    timeline.finish();
+    TimeBase.step(100);
+    timeline.start();
+    assertTrue(timeline.isRunning());
+    assertEquals(1100, timeline.getStartTime());
+    assertEmpty(timeline.getPhases());
+    assertEmpty(timeline.getPluginTimes());
+  }
+}
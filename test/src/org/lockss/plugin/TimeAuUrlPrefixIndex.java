@@ -0,0 +1,135 @@
+/*
+
+Copyright (c) 2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+
+package org.lockss.plugin;
+
+import java.util.*;
+
+import org.apache.oro.text.regex.Perl5Compiler;
+import org.lockss.daemon.*;
+import org.lockss.util.*;
+import org.lockss.test.*;
+
+/**
+ * Compares the cost of finding the AU containing a URL by asking every AU
+ * in a large AuSearchSet with the cost of asking only the candidates
+ * returned by the URL prefix index, and times building the index.  Not
+ * run as part of the unit tests.
+ */
+public class TimeAuUrlPrefixIndex extends LockssTiming {
+  static final int[] AU_COUNTS = { 10000, 20000 };
+  static final int NUM_LOOKUPS = 200;
+  static final String BASE = "http://www.example.com/";
+
+  public void testFindAu() throws Exception {
+    for (int numAus : AU_COUNTS) {
+      final RuleAu[] aus = makeAus(numAus);
+      final AuSearchSet[] holder = new AuSearchSet[1];
+      time(null, "add " + numAus + " AUs",
+	   new Computation() {
+	     public void execute() throws Exception {
+	       AuSearchSet set = new MyAuSearchSet();
+	       for (RuleAu au : aus) {
+		 set.addAu(au);
+	       }
+	       holder[0] = set;
+	     }});
+      final AuSearchSet ss = holder[0];
+      final String[] urls = new String[NUM_LOOKUPS];
+      Random rnd = new Random(numAus);
+      for (int ix = 0; ix < NUM_LOOKUPS; ix++) {
+	urls[ix] = BASE + "j" + rnd.nextInt(numAus) + "/vol1/art.pdf";
+      }
+      time(null, "scan " + numAus + " AUs",
+	   new Computation() {
+	     public void execute() throws Exception {
+	       for (String url : urls) {
+		 assertNotNull(find(ss, url));
+	       }
+	     }});
+      time(null, "index " + numAus + " AUs",
+	   new Computation() {
+	     public void execute() throws Exception {
+	       for (String url : urls) {
+		 assertNotNull(find(ss.getCandidateAus(url), url));
+	       }
+	     }});
+    }
+  }
+
+  ArchivalUnit find(Iterable<ArchivalUnit> aus, String url) {
+    for (ArchivalUnit au : aus) {
+      if (au.shouldBeCached(url)) {
+	return au;
+      }
+    }
+    return null;
+  }
+
+  RuleAu[] makeAus(int n) throws Exception {
+    RuleAu[] res = new RuleAu[n];
+    for (int ix = 0; ix < n; ix++) {
+      String re = "^" + Perl5Compiler.quotemeta(BASE) + "j" + ix + "/";
+      CrawlRule rule =
+	new CrawlRules.FirstMatch(ListUtil.list(
+	    new CrawlRules.RE("\\.css$", CrawlRules.RE.MATCH_EXCLUDE),
+	    new CrawlRules.RE(re, CrawlRules.RE.MATCH_INCLUDE)));
+      res[ix] = new RuleAu("au" + ix, rule);
+    }
+    return res;
+  }
+
+  static class MyAuSearchSet extends AuSearchSet {
+    @Override
+    protected int getConfiguredCacheSize() {
+      return 20;
+    }
+
+    @Override
+    protected int getConfigured404CacheSize() {
+      return 200;
+    }
+  }
+
+  /** AU whose shouldBeCached() and prefixes come from a crawl rule, as
+   * with DefinableArchivalUnit */
+  static class RuleAu extends MockArchivalUnit {
+    CrawlRule rule;
+
+    RuleAu(String auid, CrawlRule rule) {
+      super(auid);
+      this.rule = rule;
+      setIncludedUrlPrefixes(CrawlRules.getIncludedUrlPrefixes(rule));
+    }
+
+    public boolean shouldBeCached(String url) {
+      return rule.match(url) == CrawlRule.INCLUDE;
+    }
+  }
+}
@@ -665,6 +665,41 @@ public class TestDefinableArchivalUnit extends LockssTestCase {
                  rules.match("http://www.example.com/path/"));
   }
 
+  public void testIncludedUrlPrefixes() throws Exception {
+    ConfigurationUtil.addFromArgs(DefinableArchivalUnit.PARAM_CRAWL_RULES_INCLUDE_START,
+				  "true");
+    defMap.putCollection(DefinableArchivalUnit.KEY_AU_CRAWL_RULES,
+			 ListUtil.list("2,\"\\.css$\"",
+				       "1,\"^%spath/\", base_url"));
+    defMap.putString(ArchivalUnit.KEY_AU_START_URL,
+		     "\"%svolume/%d.html\", base_url, volume");
+    setupAu();
+    Configuration auConf = ConfigManager.newConfiguration();
+    auConf.put("base_url", "http://www.Example.com/");
+    auConf.put("volume", "43");
+    cau.setConfiguration(auConf);
+    assertSameElements(ListUtil.list("http://www.example.com/path/",
+				     "http://www.example.com/volume/43.html"),
+		       cau.getIncludedUrlPrefixes());
+  }
+
+  public void testIncludedUrlPrefixesUnbounded() throws Exception {
+    additionalAuConfig.putString("base_url", "http://www.example.com/");
+    defMap.putCollection(DefinableArchivalUnit.KEY_AU_CRAWL_RULES, crawlRules);
+    setupAu(additionalAuConfig);
+    assertNull(cau.getIncludedUrlPrefixes());
+  }
+
+  public void testIncludedUrlPrefixesWithNormalizer() throws Exception {
+    additionalAuConfig.putString("base_url", "http://www.example.com/");
+    defMap.putCollection(DefinableArchivalUnit.KEY_AU_CRAWL_RULES,
+			 ListUtil.list("1,\"^%spath/\", base_url"));
+    defMap.putString(ArchivalUnit.KEY_AU_URL_NORMALIZER,
+		     "org.lockss.plugin.definable.TestDefinablePlugin$MyNormalizer");
+    setupAu(additionalAuConfig);
+    assertNull(cau.getIncludedUrlPrefixes());
+  }
+
   public void testMakeStartUrl() throws Exception {
     additionalAuConfig.putInt("volume", 43);
     additionalAuConfig.putString("base_url", "http://www.example.com/");
@@ -420,6 +420,8 @@ public class TestPollManager extends LockssTestCase {
     testau.setShouldCallTopLevelPoll(false);
 
     Properties p = new Properties();
+    // weightOrder() relies on the full weight map built by the scan
+    p.put(PollManager.PARAM_USE_POLL_WEIGHT_INDEX, "false");
     p.put(PollManager.PARAM_REBUILD_POLL_QUEUE_INTERVAL, "");
     p.put(PollManager.PARAM_POLL_QUEUE_MAX, "8");
     p.put(PollManager.PARAM_POLL_INTERVAL_AGREEMENT_CURVE,
@@ -539,6 +541,105 @@ public class TestPollManager extends LockssTestCase {
     assertEquals(exp6, weightOrder());
 }
 
+  public void testPollQueueWeightIndex() throws Exception {
+    testau.setShouldCallTopLevelPoll(false);
+
+    Properties p = new Properties();
+    p.put(PollManager.PARAM_REBUILD_POLL_QUEUE_INTERVAL, "");
+    p.put(PollManager.PARAM_POLL_QUEUE_MAX, "8");
+    p.put(PollManager.PARAM_POLL_INTERVAL_AGREEMENT_CURVE,
+	  "[50,75],[50,500]");
+    p.put(PollManager.PARAM_POLL_INTERVAL_AGREEMENT_LAST_RESULT, "1;6");
+    p.put(PollManager.PARAM_TOPLEVEL_POLL_INTERVAL, "300");
+    p.put(PollManager.PARAM_MIN_POLL_ATTEMPT_INTERVAL, "1");
+    p.put(PollManager.PARAM_MIN_TIME_BETWEEN_ANY_POLL, "1");
+
+    ConfigurationUtil.addFromProps(p);
+    theDaemon.setAusStarted(true);
+    TimeBase.setSimulated(1000);
+
+    MockArchivalUnit[] aus = makeMockAus(16);
+    registerAus(aus);
+
+    setAu(aus[0], "2000", 900, 950,  C, 5, .9);
+    setAu(aus[1], "2001", 900, 500, NC, 5, .9);
+    setAu(aus[2], "2002", 900, 950,  C, 5, .2);
+    setAu(aus[3], "2003", 900, 500, NC, 5, .2);
+
+    setAu(aus[4], "2004", 850, 950,  C, 10, .9);
+    setAu(aus[5], "2005", 850, 500, NC, 10, .9);
+    setAu(aus[6], "2006", 850, 950,  C, 10, .2);
+    setAu(aus[7], "2007", 850, 500, NC, 10, .2);
+
+    setAu(aus[ 8], "2008", 650, 750,  C, 10, .9);
+    setAu(aus[ 9], "2009", 650, 400, NC, 10, .9);
+    setAu(aus[10], "2010", 650, 750,  C, 10, .2);
+    setAu(aus[11], "2011", 650, 400, NC, 10, .2);
+
+    setAu(aus[12], "2012", 350, 450,  C, 10, .9);
+    setAu(aus[13], "2013", 350, 100, NC, 10, .9);
+    setAu(aus[14], "2014", 350, 450,  C, 10, .2);
+    setAu(aus[15], "2015", 350, 100, NC, 10, .2);
+
+    pollmanager.pollQueue.rebuildPollQueue();
+    assertNull(pollmanager.getWeightMap());
+    assertIndexWeights(aus);
+    List exp = ListUtil.list(aus[14], aus[10], aus[13], aus[15],
+			     aus[11], aus[9], aus[1], aus[3],
+			     aus[5], aus[7], aus[12]);
+    List<ArchivalUnit> queue = pollmanager.pollQueue.getPendingQueueAus();
+    assertEquals(8, queue.size());
+    assertTrue(queue+"", exp.containsAll(queue));
+
+    // Change aus[14] so it's no longer ready to poll.  Index doesn't see
+    // it until notified.
+    MockAuState aus14 = (MockAuState)AuUtil.getAuState(aus[14]);
+    aus14.setLastToplevalPoll(990);
+    assertTrue(pollmanager.pollQueue.weightIndex.weight(aus[14], 1000) > 0);
+    pollmanager.auPollStateChanged(aus[14]);
+    pollmanager.pollQueue.rebuildPollQueue();
+    assertEquals(0.0, pollmanager.pollQueue.weightIndex.weight(aus[14], 1000));
+    assertIndexWeights(aus);
+    queue = pollmanager.pollQueue.getPendingQueueAus();
+    assertEquals(8, queue.size());
+    assertFalse(queue.contains(aus[14]));
+
+    // Config changes cause all weights to be recomputed
+    ConfigurationUtil.addFromArgs(PollManager.PARAM_POLL_PRIORITY_AUID_MAP,
+				  "mau5,50.0;mau11,100");
+    pollmanager.pollQueue.rebuildPollQueue();
+    assertIndexWeights(aus);
+
+    // enqueue a high priority poll, ensure it's now first
+    PollSpec spec = new PollSpec(aus[2].getAuCachedUrlSet(), Poll.V3_POLL);
+    pollmanager.enqueueHighPriorityPoll(aus[2], spec);
+    pollmanager.pollQueue.rebuildPollQueue();
+    queue = pollmanager.pollQueue.getPendingQueueAus();
+    assertEquals(aus[2], queue.get(0));
+    assertEquals(8, queue.size());
+    assertNoDuplicates(queue);
+  }
+
+  // The index must hold the same weights the full scan would compute
+  void assertIndexWeights(MockArchivalUnit[] aus) throws Exception {
+    long now = TimeBase.nowMs();
+    for (MockArchivalUnit au : aus) {
+      double exp;
+      try {
+	exp = pollmanager.pollWeight(au).value();
+      } catch (PollManager.NotEligibleException e) {
+	exp = 0.0;
+      }
+      assertEquals(au.toString(), exp,
+		   pollmanager.pollQueue.weightIndex.weight(au, now),
+		   exp * 1e-9);
+    }
+  }
+
+  void assertNoDuplicates(List lst) {
+    assertEquals(lst.toString(), lst.size(), new HashSet(lst).size());
+  }
+
   List<ArchivalUnit> weightOrder() {
     final Map<ArchivalUnit,PollManager.PollWeight> weightMap =
       pollmanager.getWeightMap();
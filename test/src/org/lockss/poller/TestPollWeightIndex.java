@@ -0,0 +1,248 @@
+/*
+
+Copyright (c) 2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+
+
+package org.lockss.poller;
+
+import java.util.*;
+
+import org.apache.commons.lang3.mutable.MutableInt;
+import org.lockss.test.*;
+import org.lockss.util.*;
+
+public class TestPollWeightIndex extends LockssTestCase {
+
+  PollWeightIndex<String> idx;
+
+  public void setUp() throws Exception {
+    super.setUp();
+    idx = new PollWeightIndex<String>(1000);
+  }
+
+  static PollWeightIndex.Selector<String> ACCEPT_ALL =
+    new PollWeightIndex.Selector<String>() {
+      public PollWeightIndex.Check check(String key, double weight) {
+	return PollWeightIndex.Check.Accept;
+      }};
+
+  public void testEmpty() {
+    assertEquals(0, idx.size());
+    assertEquals(0.0, idx.totalWeight(2000));
+    assertEmpty(idx.select(3, 2000, ACCEPT_ALL));
+    assertEmpty(idx.takeStale(2000));
+  }
+
+  public void testWeight() {
+    idx.put("a", 1100, 1200, 0.5);
+    assertTrue(idx.contains("a"));
+    assertTrue(idx.isCurrent("a"));
+    assertEquals(0.0, idx.weight("a", 1150));
+    assertEquals(0.0, idx.totalWeight(1150));
+    assertEquals(0, idx.activeCount());
+    assertEquals(0.0, idx.weight("a", 1199));
+    idx.advance(1200);
+    assertEquals(1, idx.activeCount());
+    assertEquals(50.0, idx.weight("a", 1200), .0001);
+    assertEquals(100.0, idx.weight("a", 1300), .0001);
+
+    idx.put("b", 1000, 1000, 2.0);
+    assertEquals(100.0 + 600.0, idx.totalWeight(1300), .0001);
+    assertEquals(2, idx.activeCount());
+
+    // replacing an entry replaces its weight
+    idx.put("a", 1200, 1200, 1.0);
+    assertEquals(100.0 + 600.0, idx.totalWeight(1300), .0001);
+    idx.remove("b");
+    assertFalse(idx.contains("b"));
+    assertEquals(100.0, idx.totalWeight(1300), .0001);
+    assertEquals(1, idx.size());
+  }
+
+  public void testZeroSlopeNeverActive() {
+    idx.put("a", 1000, 1000, 0.0);
+    assertTrue(idx.contains("a"));
+    assertEquals(0.0, idx.totalWeight(5000));
+    assertEquals(0, idx.activeCount());
+    assertEmpty(idx.select(1, 5000, ACCEPT_ALL));
+  }
+
+  public void testDormantAndStale() {
+    idx.put("a", 1000, 1000, 1.0);
+    idx.putDormant("b", 1500);
+    assertFalse(idx.isCurrent("b"));
+    assertEquals(0.0, idx.weight("b", 2000));
+    assertEmpty(idx.takeStale(1499));
+    assertEquals(ListUtil.list("b"), idx.takeStale(1500));
+    assertEmpty(idx.takeStale(1600));
+
+    idx.invalidate("a");
+    assertFalse(idx.isCurrent("a"));
+    // still selectable until recomputed
+    assertEquals(600.0, idx.totalWeight(1600), .0001);
+    assertEquals(ListUtil.list("a"), idx.takeStale(1600));
+    assertTrue(idx.isCurrent("a"));
+
+    // removed entries don't wake
+    idx.putDormant("c", 1700);
+    idx.remove("c");
+    assertEmpty(idx.takeStale(1800));
+  }
+
+  public void testGrow() {
+    int n = PollWeightIndex.INITIAL_CAPACITY * 5 + 3;
+    double exp = 0.0;
+    for (int ix = 0; ix < n; ix++) {
+      idx.put("k" + ix, 1000, 1000, ix);
+      exp += 1000.0 * ix;
+    }
+    assertEquals(n, idx.size());
+    assertEquals(exp, idx.totalWeight(2000), exp * 1e-12);
+    for (int ix = 0; ix < n; ix += 2) {
+      idx.remove("k" + ix);
+      exp -= 1000.0 * ix;
+    }
+    assertEquals(exp, idx.totalWeight(2000), exp * 1e-12);
+    List<String> sel = idx.select(n, 2000, ACCEPT_ALL);
+    // k1 has the smallest nonzero weight; all odd keys are selectable
+    assertEquals(n / 2, sel.size());
+    assertNoDuplicates(sel);
+  }
+
+  public void testSelectAll() {
+    idx.put("a", 1000, 1000, 1.0);
+    idx.put("b", 1000, 1000, 2.0);
+    idx.put("c", 1000, 1000, 3.0);
+    idx.put("d", 1000, 3000, 3.0);
+    List<String> sel = idx.select(5, 2000, ACCEPT_ALL);
+    assertSameElements(ListUtil.list("a", "b", "c"), sel);
+    // selection doesn't remove items
+    assertEquals(6000.0, idx.totalWeight(2000), .0001);
+    assertEquals(3, idx.activeCount());
+  }
+
+  public void testSelectReject() {
+    idx.put("a", 1000, 1000, 1.0);
+    idx.put("b", 1000, 1000, 100.0);
+    idx.put("c", 1000, 1000, 1.0);
+    final List<String> checked = new ArrayList<String>();
+    List<String> sel =
+      idx.select(3, 2000, new PollWeightIndex.Selector<String>() {
+	  public PollWeightIndex.Check check(String key, double weight) {
+	    checked.add(key);
+	    return key.equals("b")
+	      ? PollWeightIndex.Check.Reject : PollWeightIndex.Check.Accept;
+	  }});
+    assertSameElements(ListUtil.list("a", "c"), sel);
+    assertNoDuplicates(checked);
+    // rejected item is selectable again next time
+    assertEquals(1000.0 * 102, idx.totalWeight(2000), .0001);
+  }
+
+  public void testSelectRetry() {
+    idx.put("a", 1000, 1000, 1.0);
+    idx.put("b", 1000, 1000, 1.0);
+    List<String> sel =
+      idx.select(2, 2000, new PollWeightIndex.Selector<String>() {
+	  public PollWeightIndex.Check check(String key, double weight) {
+	    if (key.equals("b")) {
+	      // b's weight is really zero
+	      idx.put("b", 1000, 1000, 0.0);
+	      return PollWeightIndex.Check.Retry;
+	    }
+	    assertEquals(1000.0, weight, .0001);
+	    return PollWeightIndex.Check.Accept;
+	  }});
+    assertEquals(ListUtil.list("a"), sel);
+    assertEquals(0.0, idx.weight("b", 2000));
+  }
+
+  public void testSelectRetryLimit() {
+    idx.put("a", 1000, 1000, 1.0);
+    final MutableInt count = new MutableInt();
+    List<String> sel =
+      idx.select(1, 2000, new PollWeightIndex.Selector<String>() {
+	  public PollWeightIndex.Check check(String key, double weight) {
+	    count.add(1);
+	    return PollWeightIndex.Check.Retry;
+	  }});
+    assertEmpty(sel);
+    assertEquals(2, count.intValue());
+  }
+
+  void assertNoDuplicates(List<String> lst) {
+    assertEquals(lst.toString(), lst.size(), new HashSet<String>(lst).size());
+  }
+
+  public void assertInRange(long min, long max, long val) {
+    assertTrue(min + " <= " + val + " <= " + max, val >= min && val <= max);
+  }
+
+  // Same bounds as TestCollectionUtil.testWeightedRandomSelection()
+  public void testSelectDistribution() throws Exception {
+    assertSuccessRate(.8, 100);
+    // weights 1, 2, 3 at t=2000
+    idx.put("a", 1000, 1000, .001);
+    idx.put("b", 1000, 1000, .002);
+    idx.put("c", 1000, 1000, .003);
+    Map<String,Integer> counts = new HashMap<String,Integer>();
+    for (String k : new String[] {"a", "b", "c"}) {
+      counts.put(k, 0);
+    }
+    for (int ix = 0; ix < 1000; ix++) {
+      String k = idx.select(1, 2000, ACCEPT_ALL).get(0);
+      counts.put(k, counts.get(k) + 1);
+    }
+    assertInRange(116, 216, counts.get("a"));
+    assertInRange(232, 432, counts.get("b"));
+    assertInRange(450, 550, counts.get("c"));
+  }
+
+  // The second item chosen is weighted among those remaining
+  public void testSelectDistributionWithoutReplacement() throws Exception {
+    assertSuccessRate(.8, 100);
+    idx.put("a", 1000, 1000, 1.0);
+    idx.put("b", 1000, 1000, 2.0);
+    idx.put("c", 1000, 1000, 97.0);
+    int bSecond = 0;
+    int cFirst = 0;
+    for (int ix = 0; ix < 1000; ix++) {
+      List<String> sel = idx.select(2, 2000, ACCEPT_ALL);
+      assertEquals(2, sel.size());
+      if (sel.get(0).equals("c")) {
+	cFirst++;
+	if (sel.get(1).equals("b")) {
+	  bSecond++;
+	}
+      }
+    }
+    assertInRange(950, 990, cFirst);
+    // P(b | c first) = 2/3
+    assertInRange((long)(cFirst * .6), (long)(cFirst * .73), bSecond);
+  }
+}
@@ -0,0 +1,199 @@
+/*
+
+Copyright (c) 2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+
+
+package org.lockss.poller.v3;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.lockss.protocol.*;
+import org.lockss.test.*;
+import org.lockss.util.*;
+
+public class TestPrefetchingVoteBlocksIterator extends LockssTestCase {
+
+  private ExecutorService executor;
+
+  public void setUp() throws Exception {
+    super.setUp();
+    executor = Executors.newFixedThreadPool(2);
+  }
+
+  public void tearDown() throws Exception {
+    executor.shutdownNow();
+    super.tearDown();
+  }
+
+  // Iterates over a list of blocks, then throws if failAfter is
+  // non-negative.  Records whether it was released.
+  static class ListIterator implements VoteBlocksIterator {
+    final List<VoteBlock> blocks;
+    final int failAfter;
+    int pos = 0;
+    volatile int read = 0;
+    volatile boolean released = false;
+
+    ListIterator(List<VoteBlock> blocks, int failAfter) {
+      this.blocks = blocks;
+      this.failAfter = failAfter;
+    }
+
+    void check() throws IOException {
+      if (failAfter >= 0 && pos >= failAfter) {
+	throw new IOException("Failed at " + pos);
+      }
+    }
+    public boolean hasNext() throws IOException {
+      check();
+      return pos < blocks.size();
+    }
+    public VoteBlock next() throws IOException {
+      check();
+      if (pos >= blocks.size()) {
+	throw new NoSuchElementException();
+      }
+      read++;
+      return blocks.get(pos++);
+    }
+    public VoteBlock peek() throws IOException {
+      check();
+      return pos < blocks.size() ? blocks.get(pos) : null;
+    }
+    public void release() {
+      released = true;
+    }
+  }
+
+  List<VoteBlock> makeBlocks(int n) {
+    List<VoteBlock> res = new ArrayList<VoteBlock>();
+    for (int ix = 0; ix < n; ix++) {
+      res.add(new VoteBlock(String.format("http://test.com/foo%03d", ix)));
+    }
+    return res;
+  }
+
+  public void testOrder() throws Exception {
+    List<VoteBlock> blocks = makeBlocks(50);
+    ListIterator li = new ListIterator(blocks, -1);
+    PrefetchingVoteBlocksIterator iter =
+      new PrefetchingVoteBlocksIterator(li, executor, 4);
+    iter.start();
+    for (VoteBlock vb : blocks) {
+      assertTrue(iter.hasNext());
+      assertSame(vb, iter.peek());
+      assertSame(vb, iter.next());
+      assertTrue(iter.getBufferedCount() <= 4);
+    }
+    assertFalse(iter.hasNext());
+    assertNull(iter.peek());
+    try {
+      iter.next();
+      fail("Should have thrown NoSuchElementException");
+    } catch (NoSuchElementException e) {
+      // expected
+    }
+    iter.release();
+    assertTrue(li.released);
+  }
+
+  public void testEmpty() throws Exception {
+    ListIterator li = new ListIterator(makeBlocks(0), -1);
+    PrefetchingVoteBlocksIterator iter =
+      new PrefetchingVoteBlocksIterator(li, executor, 4);
+    assertFalse(iter.hasNext());
+    assertNull(iter.peek());
+  }
+
+  public void testBounded() throws Exception {
+    ListIterator li = new ListIterator(makeBlocks(50), -1);
+    PrefetchingVoteBlocksIterator iter =
+      new PrefetchingVoteBlocksIterator(li, executor, 8);
+    iter.start();
+    // Wait for the look-ahead to fill
+    Deadline dl = Deadline.in(TIMEOUT_SHOULDNT);
+    while (iter.getBufferedCount() < 8 && !dl.expired()) {
+      TimerUtil.guaranteedSleep(10);
+    }
+    assertEquals(8, iter.getBufferedCount());
+    TimerUtil.guaranteedSleep(100);
+    assertEquals(8, li.read);
+    iter.release();
+  }
+
+  public void testException() throws Exception {
+    List<VoteBlock> blocks = makeBlocks(10);
+    ListIterator li = new ListIterator(blocks, 6);
+    PrefetchingVoteBlocksIterator iter =
+      new PrefetchingVoteBlocksIterator(li, executor, 3);
+    iter.start();
+    // Blocks read before the error are delivered first
+    for (int ix = 0; ix < 6; ix++) {
+      assertSame(blocks.get(ix), iter.next());
+    }
+    try {
+      iter.hasNext();
+      fail("Should have thrown IOException");
+    } catch (IOException e) {
+      assertEquals("Failed at 6", e.getMessage());
+    }
+    try {
+      iter.next();
+      fail("Should have thrown IOException");
+    } catch (IOException e) {
+      // expected
+    }
+    iter.release();
+    assertTrue(li.released);
+  }
+
+  public void testRejected() throws Exception {
+    List<VoteBlock> blocks = makeBlocks(10);
+    executor.shutdown();
+    PrefetchingVoteBlocksIterator iter =
+      new PrefetchingVoteBlocksIterator(new ListIterator(blocks, -1),
+					executor, 3);
+    // Falls back to reading on the caller's thread
+    for (VoteBlock vb : blocks) {
+      assertSame(vb, iter.next());
+    }
+    assertFalse(iter.hasNext());
+  }
+
+  public void testRelease() throws Exception {
+    ListIterator li = new ListIterator(makeBlocks(10), -1);
+    PrefetchingVoteBlocksIterator iter =
+      new PrefetchingVoteBlocksIterator(li, executor, 3);
+    assertNotNull(iter.next());
+    iter.release();
+    assertTrue(li.released);
+    assertFalse(iter.hasNext());
+  }
+}
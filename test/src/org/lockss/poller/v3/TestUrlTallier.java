@@ -402,6 +402,159 @@ public class TestUrlTallier extends LockssTestCase {
     assertEquals(null, urlTallier.peekUrl());
   }
 
+  private void enableConcurrentTally() {
+    // A one-block look-ahead makes the prefetchers refill constantly.
+    ConfigurationUtil.addFromArgs(UrlTallier.PARAM_TALLY_THREADS, "3",
+				  UrlTallier.PARAM_TALLY_PREFETCH_BLOCKS, "1",
+				  UrlTallier.PARAM_TALLY_PARALLEL_MIN_PARTICIPANTS,
+				  "2",
+				  UrlTallier.PARAM_TALLY_PARALLEL_MIN_VERSIONS,
+				  "1");
+  }
+
+  public void testVoteAllParticipantsConcurrent() throws Exception {
+    enableConcurrentTally();
+    testVoteAllParticipants();
+  }
+
+  public void testVoteNoParticipantsConcurrent() throws Exception {
+    enableConcurrentTally();
+    testVoteNoParticipants();
+  }
+
+  public void testIOExceptionConcurrent() throws Exception {
+    enableConcurrentTally();
+    testIOException();
+  }
+
+  public void testSeekConcurrent() throws Exception {
+    enableConcurrentTally();
+    testSeek();
+  }
+
+  public void testConcurrentTallyDeterministic() throws Exception {
+    List<String> sequential = runTally(10, 40, null);
+    enableConcurrentTally();
+    Set<String> threads = Collections.synchronizedSet(new HashSet<String>());
+    List<String> concurrent = runTally(10, 40, threads);
+    assertEquals(sequential, concurrent);
+    // Some of the comparisons were done in the pool
+    boolean pooled = false;
+    for (String name : threads) {
+      if (name.startsWith("TallyWorker-")) {
+	pooled = true;
+      }
+    }
+    assertTrue("No comparisons in pool: " + threads, pooled);
+  }
+
+  // URLs whose vote blocks have too few versions are compared on the
+  // calling thread
+  public void testConcurrentTallyBelowMinVersions() throws Exception {
+    List<String> sequential = runTally(10, 40, null);
+    enableConcurrentTally();
+    ConfigurationUtil.addFromArgs(UrlTallier.PARAM_TALLY_PARALLEL_MIN_VERSIONS,
+				  "11");
+    Set<String> threads = Collections.synchronizedSet(new HashSet<String>());
+    List<String> concurrent = runTally(10, 40, threads);
+    assertEquals(sequential, concurrent);
+    for (String name : threads) {
+      assertFalse(name, name.startsWith("TallyWorker-"));
+    }
+  }
+
+  // Tally a poll in which participants and the poller are missing or
+  // differ on various URLs, returning the tally of each URL and each
+  // participant's vote counts.
+  private List<String> runTally(int nParticipants, int nUrls,
+				final Set<String> compareThreads)
+      throws Exception {
+    String[] urls = new String[nUrls];
+    for (int j = 0; j < nUrls; j++) {
+      urls[j] = String.format("http://test.com/foo%03d", j);
+    }
+    VoteBlock[][] voteBlocks = new VoteBlock[nParticipants][];
+    for (int i = 0; i < nParticipants; i++) {
+      List<VoteBlock> blocks = new ArrayList<VoteBlock>();
+      for (int j = 0; j < nUrls; j++) {
+	if ((i + j) % 5 != 0) {
+	  String content = (i * j) % 3 != 0 ? "content " + j : "other " + i;
+	  blocks.add(makeVoteBlock(urls[j], content));
+	}
+      }
+      voteBlocks[i] = blocks.toArray(new VoteBlock[0]);
+    }
+    UrlTallier urlTallier = makeUrlTallier(voteBlocks);
+    V3Poller.HashIndexer hashIndexer = new V3Poller.HashIndexer() {
+	public HashResult getParticipantHash(HashBlock.Version version,
+					     int participantIndex) {
+	  if (compareThreads != null) {
+	    compareThreads.add(Thread.currentThread().getName());
+	  }
+	  return HashResult.make(version.getHashes()[participantIndex]);
+	}
+	public HashResult getSymmetricHash(HashBlock.Version version,
+					   int symmetricParticipantIndex) {
+	  fail();
+	  return null;
+	}
+	public HashResult getPlainHash(HashBlock.Version version) {
+	  byte[][] hashes = version.getHashes();
+	  return HashResult.make(hashes[hashes.length-1]);
+	}
+      };
+
+    List<String> res = new ArrayList<String>();
+    for (int j = 0; j < nUrls; j++) {
+      boolean pollerHas = j % 4 != 0;
+      if (!pollerHas && !urls[j].equals(urlTallier.peekUrl())) {
+	continue;
+      }
+      VoteBlockTallier voteBlockTallier;
+      if (pollerHas) {
+	HashBlock hashBlock = new HashBlock(new MockCachedUrl(urls[j]));
+	addVersion(hashBlock, "content " + j, nParticipants);
+	voteBlockTallier = VoteBlockTallier.make(hashBlock, hashIndexer);
+      } else {
+	voteBlockTallier = VoteBlockTallier.make();
+      }
+      BlockTally tally = new BlockTally(3, 75);
+      voteBlockTallier.addBlockTally(tally);
+      voteBlockTallier.addTally(ParticipantUserData.voteTally);
+      urlTallier.voteAllParticipants(urls[j], voteBlockTallier);
+      res.add(urls[j] + " " + tally.votes() + " " + tally.getTallyResult() +
+	      " " + indices(tally.getAgreeVoters()));
+    }
+    assertNull(urlTallier.peekUrl());
+    urlTallier.release();
+    for (ParticipantUserData participant : participants) {
+      res.add(participant.getVoteCounts().votes());
+    }
+    return res;
+  }
+
+  private List<Integer> indices(Collection<ParticipantUserData> voters) {
+    List<Integer> res = new ArrayList<Integer>();
+    for (ParticipantUserData voter : voters) {
+      res.add(participants.indexOf(voter));
+    }
+    return res;
+  }
+
+  private void addVersion(HashBlock block, String content, int nParticipants)
+      throws Exception {
+    // Un-nonced, so each participant's hash is the plain hash
+    MessageDigest[] digests = new MessageDigest[nParticipants + 1];
+    for (int i = 0; i < digests.length; i++) {
+      digests[i] = MessageDigest.getInstance("SHA1");
+      digests[i].update(content.getBytes());
+    }
+    block.addVersion(0, content.length(),
+		     0, content.length(),
+		     digests.length * content.length(),
+		     digests, block.getVersions().length, null);
+  }
+
   private VoteBlock makeVoteBlock(String url) {
     VoteBlock vb = new VoteBlock(url);
     return vb;
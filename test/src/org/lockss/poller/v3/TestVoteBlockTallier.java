@@ -379,6 +379,51 @@ public class TestVoteBlockTallier extends LockssTestCase {
     return new ParticipantUserData(null, poller, tempDir);
   }
 
+  public void testPrecompare() throws Exception {
+    HashBlock hashBlock = makeHashBlock();
+    final int[] lookups = {0};
+    HashBlockVoteBlockComparerFactory comparerFactory =
+      HashBlockVoteBlockComparerFactory.
+      makeFactory(hashBlock, new MyHashIndexer(hashBlock) {
+	  @Override public HashResult
+	    getParticipantHash(HashBlock.Version version,
+			       int participantIndex) {
+	    lookups[0]++;
+	    return super.getParticipantHash(version, participantIndex);
+	  }
+	});
+    VoteBlockTallier voteBlockTallier =
+      VoteBlockTallier.make(comparerFactory);
+    assertTrue(voteBlockTallier.isPrecomparable());
+    assertFalse(VoteBlockTallier.make().isPrecomparable());
+    BlockTally tally = new BlockTally(5, 75);
+    voteBlockTallier.addTally(tally);
+
+    VoteBlock[] voteBlocks = {
+      makeVoteBlock(nonces[0], "aaa", "bbb", "ccc"),
+      makeVoteBlockDisagree(),
+      null,
+      makeVoteBlock(nonces[3], "xxx", "bbb"),
+    };
+    voteBlockTallier.startPrecompare(voteBlocks.length);
+    voteBlockTallier.precompare(voteBlocks, 1, 2);
+    voteBlockTallier.precompare(voteBlocks, 0, 2);
+    assertEquals("0/0/0/0", tally.votes());
+    int precompareLookups = lookups[0];
+    assertTrue(precompareLookups > 0);
+
+    for (int ix = 0; ix < voteBlocks.length; ix++) {
+      if (voteBlocks[ix] == null) {
+	voteBlockTallier.voteMissing(testPeers[ix], "foo");
+      } else {
+	voteBlockTallier.vote(voteBlocks[ix], testPeers[ix], ix);
+      }
+    }
+    // vote() used the precompared results.
+    assertEquals(precompareLookups, lookups[0]);
+    assertEquals("2/2/1/0", tally.votes());
+  }
+
   public void testVoteCallback() throws Exception {
     ParticipantUserData voter;
     VoteBlock voteBlock = makeVoteBlock();
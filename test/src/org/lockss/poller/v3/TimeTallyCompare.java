@@ -0,0 +1,144 @@
+/*
+
+Copyright (c) 2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+package org.lockss.poller.v3;
+
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.lockss.hasher.*;
+import org.lockss.protocol.*;
+import org.lockss.test.*;
+import org.lockss.util.*;
+
+/**
+ * Compares the time to compare the participants' vote blocks for a URL
+ * with the poller's hashes sequentially and spread across the tally
+ * pool, for various numbers of participants and versions, to choose
+ * {@link UrlTallier#DEFAULT_TALLY_PARALLEL_MIN_VERSIONS}.  Not run as
+ * part of the unit tests.
+ */
+public class TimeTallyCompare extends LockssTiming {
+  static final int THREADS = 4;
+  // URLs compared per timed computation
+  static final int NUM_URLS = 200;
+
+  static final int[] PARTICIPANTS = {8, 32, 128};
+  static final int[] VERSIONS = {1, 4, 16, 64};
+
+  ThreadPoolExecutor executor;
+  V3Poller.HashIndexer hashIndexer;
+
+  public void setUp() throws Exception {
+    super.setUp();
+    setDuration(2 * Constants.SECOND);
+    executor = UrlTallier.getTallyExecutor(THREADS);
+    hashIndexer = new V3Poller.HashIndexer() {
+	public HashResult getParticipantHash(HashBlock.Version version,
+					     int participantIndex) {
+	  return HashResult.make(version.getHashes()[participantIndex]);
+	}
+	public HashResult getSymmetricHash(HashBlock.Version version,
+					   int symmetricParticipantIndex) {
+	  throw new UnsupportedOperationException();
+	}
+	public HashResult getPlainHash(HashBlock.Version version) {
+	  byte[][] hashes = version.getHashes();
+	  return HashResult.make(hashes[hashes.length-1]);
+	}
+      };
+  }
+
+  public void testCompare() throws Exception {
+    for (int nParticipants : PARTICIPANTS) {
+      for (int nVersions : VERSIONS) {
+	timeCompare(nParticipants, nVersions);
+      }
+    }
+  }
+
+  void timeCompare(int nParticipants, int nVersions) throws Exception {
+    String url = "http://www.example.com/content/article.html";
+    HashBlock hashBlock = new HashBlock(new MockCachedUrl(url));
+    addVersion(hashBlock, "current content", nParticipants);
+    // Each voter has the poller's version last, so all its versions are
+    // examined
+    final VoteBlock[] voteBlocks = new VoteBlock[nParticipants];
+    for (int i = 0; i < nParticipants; i++) {
+      VoteBlock vb = new VoteBlock(url);
+      for (int v = 1; v < nVersions; v++) {
+	addVersion(vb, "old content " + v);
+      }
+      addVersion(vb, "current content");
+      voteBlocks[i] = vb;
+    }
+    final VoteBlockTallier tallier =
+      VoteBlockTallier.make(hashBlock, hashIndexer);
+    String label = nParticipants + " participants x " + nVersions +
+      " versions, " + NUM_URLS + " URLs";
+    final int slices = Math.min(THREADS, nParticipants);
+    time(null, label + ", sequential",
+	 new Computation() {
+	   public void execute() throws Exception {
+	     for (int ix = 0; ix < NUM_URLS; ix++) {
+	       UrlTallier.precompare(executor, 1, tallier, voteBlocks);
+	     }
+	   }});
+    time(null, label + ", " + slices + " threads",
+	 new Computation() {
+	   public void execute() throws Exception {
+	     for (int ix = 0; ix < NUM_URLS; ix++) {
+	       UrlTallier.precompare(executor, slices, tallier, voteBlocks);
+	     }
+	   }});
+  }
+
+  private void addVersion(HashBlock block, String content, int nParticipants)
+      throws Exception {
+    // Un-nonced, so each participant's hash is the plain hash
+    MessageDigest[] digests = new MessageDigest[nParticipants + 1];
+    for (int i = 0; i < digests.length; i++) {
+      digests[i] = MessageDigest.getInstance("SHA1");
+      digests[i].update(content.getBytes());
+    }
+    block.addVersion(0, content.length(),
+		     0, content.length(),
+		     digests.length * content.length(),
+		     digests, block.getVersions().length, null);
+  }
+
+  private void addVersion(VoteBlock block, String content) throws Exception {
+    MessageDigest md = MessageDigest.getInstance("SHA1");
+    md.update(content.getBytes());
+    byte[] hash = md.digest();
+    block.addVersion(0, content.length(),
+		     0, content.length(),
+		     hash, hash, false);
+  }
+}
@@ -284,6 +284,33 @@ public class TestAuAgreements extends LockssTestCase {
     assertEquals(auAgreements, hRep.getStoredIdentityAgreement());
   }
 
+  public void testEncodeRecords() throws Exception {
+    AuAgreements auAgreements = AuAgreements.make(hRep, idMgr);
+    signalPartialAgreements(auAgreements, AgreementType.POR,
+			    50.0f, 100);
+    signalPartialAgreements(auAgreements, AgreementType.SYMMETRIC_POP,
+			    40.0f, 200);
+
+    Map<String, byte[]> records = auAgreements.encodeRecords(false);
+    assertEquals(SetUtil.set("id0", "id1", "id2"), records.keySet());
+    assertEquals(records.keySet(), auAgreements.encodeRecords(true).keySet());
+
+    hRep.setLoadedIdentityAgreement(AuAgreements.decodeRecords(records));
+    AuAgreements decoded = AuAgreements.make(hRep, idMgr);
+    checkPercentAgreements(decoded, AgreementType.POR, 50.0f, 100);
+    checkPercentAgreements(decoded, AgreementType.SYMMETRIC_POP, 40.0f, 200);
+    checkAgreementsMissing(decoded, AgreementType.POP);
+
+    // Only the peers changed since the last store are encoded
+    auAgreements.store(hRep);
+    assertEmpty(auAgreements.encodeRecords(true));
+    auAgreements.signalPartialAgreement(peerIdentityList.get(1),
+					AgreementType.POR, 0.9f, 300);
+    assertEquals(SetUtil.set("id1"),
+		 auAgreements.encodeRecords(true).keySet());
+    assertEquals(3, auAgreements.encodeRecords(false).size());
+  }
+
   public void testWriteTo() throws Exception {
     String content = "This is some content.";
     final File historyFile =
@@ -35,12 +35,18 @@ package org.lockss.protocol;
 import java.io.*;
 import java.util.*;
 
+import org.apache.commons.io.IOUtils;
+import org.lockss.test.ConfigurationUtil;
 import org.lockss.test.LockssTestCase;
 import org.lockss.util.*;
 
 
 public class TestDiskVoteBlocks extends LockssTestCase {
 
+  static final int[] ENCODINGS = {
+    VoteBlock.ENCODING_PROPS, VoteBlock.ENCODING_BINARY
+  };
+
   File tempDir;
   
   protected void setUp() throws Exception {
@@ -284,6 +290,279 @@ public class TestDiskVoteBlocks extends LockssTestCase {
     assertEquals(3, StringUtil.countOccurences(str, "\n"));
   }
 
+  public void testDefaultEncoding() throws Exception {
+    assertEquals(VoteBlock.ENCODING_BINARY,
+		 new DiskVoteBlocks(tempDir).getEncoding());
+    ConfigurationUtil.addFromArgs(V3LcapMessage.PARAM_BINARY_VOTE_BLOCKS,
+				  "false");
+    assertEquals(VoteBlock.ENCODING_PROPS,
+		 new DiskVoteBlocks(tempDir).getEncoding());
+    try {
+      new DiskVoteBlocks(tempDir, VoteBlock.MAX_ENCODING + 1);
+      fail("Should have thrown IllegalArgumentException");
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  public void testBinaryEncoding() throws Exception {
+    List<VoteBlock> voteBlockList = V3TestUtils.makeVoteBlockList(20);
+    DiskVoteBlocks dvb = makeDiskVoteBlocks(voteBlockList,
+					    VoteBlock.ENCODING_BINARY);
+    assertEquals(20, dvb.size());
+    assertEquals(voteBlockList, readAll(dvb));
+    assertEquals(voteBlockList.get(13), dvb.getVoteBlock("/test-13.html"));
+    assertNull(dvb.getVoteBlock("/test-99.html"));
+  }
+
+  public void testTranscode() throws Exception {
+    List<VoteBlock> voteBlockList = V3TestUtils.makeVoteBlockList(20);
+    for (int from : ENCODINGS) {
+      DiskVoteBlocks dvb = makeDiskVoteBlocks(voteBlockList, from);
+      for (int to : ENCODINGS) {
+	int nFiles = tempDir.list().length;
+	InputStream is = dvb.getInputStream(to);
+	DiskVoteBlocks copy = new DiskVoteBlocks(20, is, tempDir, to);
+	is.close();
+	assertEquals(to, copy.getEncoding());
+	assertEquals(voteBlockList, readAll(copy));
+	// Transcoding temp file, if any, has been deleted
+	assertEquals(nFiles + 1, tempDir.list().length);
+	copy.release();
+      }
+      dvb.release();
+    }
+  }
+
+  public void testBinaryIsSmaller() throws Exception {
+    List<VoteBlock> voteBlockList = V3TestUtils.makeVoteBlockList(50);
+    DiskVoteBlocks props = makeDiskVoteBlocks(voteBlockList,
+					      VoteBlock.ENCODING_PROPS);
+    DiskVoteBlocks binary = makeDiskVoteBlocks(voteBlockList,
+					       VoteBlock.ENCODING_BINARY);
+    assertTrue(binary.getEstimatedEncodedLength() <
+	       props.getEstimatedEncodedLength());
+  }
+
+  // Appending to blocks received from a stream must delta-encode against
+  // the last received block
+  public void testAppendAfterReceive() throws Exception {
+    List<VoteBlock> voteBlockList = V3TestUtils.makeVoteBlockList(5);
+    DiskVoteBlocks dvb = makeDiskVoteBlocks(voteBlockList.subList(0, 3),
+					    VoteBlock.ENCODING_BINARY);
+    InputStream is = dvb.getInputStream(VoteBlock.ENCODING_BINARY);
+    DiskVoteBlocks copy =
+      new DiskVoteBlocks(3, is, tempDir, VoteBlock.ENCODING_BINARY);
+    is.close();
+    copy.addVoteBlock(voteBlockList.get(3));
+    copy.addVoteBlock(voteBlockList.get(4));
+    assertEquals(5, copy.size());
+    assertEquals(voteBlockList, readAll(copy));
+  }
+
+  public void testGetVoteBlock() throws Exception {
+    List<VoteBlock> voteBlockList = V3TestUtils.makeVoteBlockList(200);
+    Collections.sort(voteBlockList, new Comparator<VoteBlock>() {
+	public int compare(VoteBlock vb1, VoteBlock vb2) {
+	  return VoteBlock.compare(vb1, vb2);
+	}});
+    for (int encoding : ENCODINGS) {
+      DiskVoteBlocks dvb = makeDiskVoteBlocks(voteBlockList, encoding);
+      assertGetVoteBlocks(voteBlockList, dvb);
+      assertNull(dvb.getVoteBlock("/test-200.html"));
+      assertNull(dvb.getVoteBlock("/a"));
+      assertNull(dvb.getVoteBlock("/z"));
+    }
+  }
+
+  // Blocks added out of URL order, with a duplicate URL
+  public void testGetVoteBlockUnordered() throws Exception {
+    List<VoteBlock> voteBlockList = V3TestUtils.makeVoteBlockList(50);
+    Collections.shuffle(voteBlockList, new Random(3));
+    VoteBlock dup = V3TestUtils.makeVoteBlock("/test-7.html", 2);
+    for (int encoding : ENCODINGS) {
+      DiskVoteBlocks dvb = makeDiskVoteBlocks(voteBlockList, encoding);
+      dvb.addVoteBlock(dup);
+      assertGetVoteBlocks(voteBlockList, dvb);
+      assertNotEquals(dup, dvb.getVoteBlock("/test-7.html"));
+      assertNull(dvb.getVoteBlock("/test-50.html"));
+    }
+  }
+
+  // The index of blocks received from a peer is built by scanning the file
+  public void testGetVoteBlockReceived() throws Exception {
+    List<VoteBlock> voteBlockList = V3TestUtils.makeVoteBlockList(30);
+    for (int encoding : ENCODINGS) {
+      DiskVoteBlocks dvb = makeDiskVoteBlocks(voteBlockList, encoding);
+      InputStream is = dvb.getInputStream(encoding);
+      DiskVoteBlocks copy = new DiskVoteBlocks(30, is, tempDir, encoding);
+      is.close();
+      assertGetVoteBlocks(voteBlockList, copy);
+      assertNull(copy.getVoteBlock("/test-30.html"));
+    }
+  }
+
+  // Blocks added after the file has been read are seen by later readers
+  public void testAddAfterRead() throws Exception {
+    List<VoteBlock> voteBlockList = V3TestUtils.makeVoteBlockList(10);
+    for (int encoding : ENCODINGS) {
+      DiskVoteBlocks dvb =
+	makeDiskVoteBlocks(voteBlockList.subList(0, 5), encoding);
+      assertEquals(voteBlockList.subList(0, 5), readAll(dvb));
+      long len = dvb.getEstimatedEncodedLength();
+      for (VoteBlock vb : voteBlockList.subList(5, 10)) {
+	dvb.addVoteBlock(vb);
+      }
+      assertTrue(dvb.getEstimatedEncodedLength() > len);
+      assertEquals(voteBlockList, readAll(dvb));
+      assertEquals(voteBlockList.get(8), dvb.getVoteBlock("/test-8.html"));
+    }
+  }
+
+  // Blocks left in a received message file, after a header
+  public void testFromMessageFile() throws Exception {
+    List<VoteBlock> voteBlockList = V3TestUtils.makeVoteBlockList(20);
+    for (int encoding : ENCODINGS) {
+      DiskVoteBlocks dvb = makeDiskVoteBlocks(voteBlockList, encoding);
+      File msgDir = new File(tempDir, "msg" + encoding);
+      File toDir = new File(tempDir, "state" + encoding);
+      msgDir.mkdirs();
+      toDir.mkdirs();
+      File msgFile = new File(msgDir, "msg.data");
+      byte[] header = "header bytes".getBytes();
+      OutputStream os = new FileOutputStream(msgFile);
+      os.write(header);
+      InputStream is = dvb.getInputStream(encoding);
+      StreamUtil.copy(is, os);
+      is.close();
+      os.close();
+      long msgLen = msgFile.length();
+
+      DiskVoteBlocks linked =
+	DiskVoteBlocks.fromMessageFile(20, msgFile, header.length,
+				       toDir, encoding);
+      assertNotNull(linked);
+      assertEquals(1, toDir.list().length);
+      assertEquals(20, linked.size());
+      assertEquals(msgLen - header.length,
+		   linked.getEstimatedEncodedLength());
+      // Still readable after the message is deleted
+      assertTrue(msgFile.delete());
+      assertEquals(voteBlockList, readAll(linked));
+      assertGetVoteBlocks(voteBlockList, linked);
+      assertEquals(readBytes(dvb.getInputStream(encoding)),
+		   readBytes(linked.getInputStream(encoding)));
+      linked.release();
+      assertEquals(0, toDir.list().length);
+    }
+  }
+
+  // Appending to linked blocks mustn't change the message file
+  public void testAppendToMessageFile() throws Exception {
+    List<VoteBlock> voteBlockList = V3TestUtils.makeVoteBlockList(6);
+    DiskVoteBlocks dvb = makeDiskVoteBlocks(voteBlockList.subList(0, 4),
+					    VoteBlock.ENCODING_BINARY);
+    File msgFile = new File(tempDir, "msg.data");
+    OutputStream os = new FileOutputStream(msgFile);
+    os.write(new byte[7]);
+    InputStream is = dvb.getInputStream(VoteBlock.ENCODING_BINARY);
+    StreamUtil.copy(is, os);
+    is.close();
+    os.close();
+    long msgLen = msgFile.length();
+    File toDir = new File(tempDir, "state");
+    toDir.mkdirs();
+    DiskVoteBlocks linked =
+      DiskVoteBlocks.fromMessageFile(4, msgFile, 7, toDir,
+				     VoteBlock.ENCODING_BINARY);
+    linked.addVoteBlock(voteBlockList.get(4));
+    linked.addVoteBlock(voteBlockList.get(5));
+    assertEquals(msgLen, msgFile.length());
+    assertEquals(voteBlockList, readAll(linked));
+    assertEquals(voteBlockList.get(2), linked.getVoteBlock("/test-2.html"));
+    assertEquals(1, toDir.list().length);
+  }
+
+  public void testUrlIndex() {
+    DiskVoteBlocks.UrlIndex index = new DiskVoteBlocks.UrlIndex();
+    assertEquals(0, index.numRestarts());
+    assertNull(index.getLastUrl());
+    int interval = DiskVoteBlocks.UrlIndex.RESTART_INTERVAL;
+    for (int ix = 0; ix < 40; ix++) {
+      index.add(String.format("/u%03d", ix), ix * 10);
+    }
+    assertEquals(40, index.size());
+    assertEquals("/u039", index.getLastUrl());
+    assertTrue(index.isInOrder());
+    assertEquals(3, index.numRestarts());
+    assertEquals(0, index.getRestartOffset(0));
+    assertNull(index.getRestartPrevUrl(0));
+    assertEquals(interval * 10, index.getRestartOffset(1));
+    assertEquals(String.format("/u%03d", interval - 1),
+		 index.getRestartPrevUrl(1));
+    index.add("/u000", 400);
+    assertFalse(index.isInOrder());
+    assertEquals("/u000", index.getLastUrl());
+  }
+
+  // Duplicate URLs spanning a restart point in ordered blocks; the first
+  // one added is found
+  public void testGetVoteBlockDupAcrossRestart() throws Exception {
+    int interval = DiskVoteBlocks.UrlIndex.RESTART_INTERVAL;
+    List<VoteBlock> voteBlockList = new ArrayList<VoteBlock>();
+    for (int ix = 0; ix < interval - 1; ix++) {
+      voteBlockList.add(V3TestUtils.makeVoteBlock(String.format("/a%03d", ix)));
+    }
+    VoteBlock first = V3TestUtils.makeVoteBlock("/dup", 1);
+    VoteBlock second = V3TestUtils.makeVoteBlock("/dup", 2);
+    voteBlockList.add(first);
+    voteBlockList.add(second);
+    voteBlockList.add(V3TestUtils.makeVoteBlock("/z"));
+    for (int encoding : ENCODINGS) {
+      DiskVoteBlocks dvb = makeDiskVoteBlocks(voteBlockList, encoding);
+      assertEquals(first, dvb.getVoteBlock("/dup"));
+      assertEquals(voteBlockList.get(3), dvb.getVoteBlock("/a003"));
+      assertNull(dvb.getVoteBlock("/e"));
+    }
+  }
+
+  private void assertGetVoteBlocks(List<VoteBlock> expected,
+				   DiskVoteBlocks dvb) {
+    for (VoteBlock vb : expected) {
+      assertEquals(vb, dvb.getVoteBlock(vb.getUrl()));
+    }
+  }
+
+  private byte[] readBytes(InputStream is) throws IOException {
+    try {
+      return IOUtils.toByteArray(is);
+    } finally {
+      IOUtil.safeClose(is);
+    }
+  }
+
+  private List<VoteBlock> readAll(DiskVoteBlocks dvb) throws IOException {
+    List<VoteBlock> res = new ArrayList<VoteBlock>();
+    VoteBlocksIterator iter = dvb.iterator();
+    try {
+      while (iter.hasNext()) {
+	res.add(iter.next());
+      }
+    } finally {
+      iter.release();
+    }
+    return res;
+  }
+
+  private DiskVoteBlocks makeDiskVoteBlocks(List<VoteBlock> voteBlockList,
+					    int encoding)
+      throws Exception {
+    DiskVoteBlocks dvb = new DiskVoteBlocks(tempDir, encoding);
+    for (VoteBlock vb : voteBlockList) {
+      dvb.addVoteBlock(vb);
+    }
+    return dvb;
+  }
+
   class MyDiskVoteBlocks extends DiskVoteBlocks {
     public MyDiskVoteBlocks(int blocksToRead, InputStream from, File toDir)
 	throws IOException {
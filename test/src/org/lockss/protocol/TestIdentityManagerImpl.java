@@ -464,6 +464,74 @@ public abstract class TestIdentityManagerImpl extends LockssTestCase {
     im.findPeerIdentity("127.0.0.2");
   }
 
+  IdentityManagerImpl newIdentityManager() throws Exception {
+    MockLockssDaemon otherDaemon = getMockLockssDaemon();
+    IdentityManagerImpl im = new IdentityManagerImpl();
+    im.initService(otherDaemon);
+    otherDaemon.setIdentityManager(im);
+    return im;
+  }
+
+  public void testLoadIdentitiesJournal() throws Exception {
+    setupPeer123();
+    idmgr.getPeerIdentityStatus(peer2).setTotalMessages(42);
+    idmgr.storeIdentities();
+    File jnlFile = new File(idmgr.iddbFile.getParentFile(),
+			    IdentityManagerImpl.IDDB_JOURNAL_FILENAME);
+    assertTrue(jnlFile.exists());
+    long len = jnlFile.length();
+
+    // Unchanged peers aren't rewritten
+    idmgr.storeIdentities();
+    assertEquals(len, jnlFile.length());
+    idmgr.getPeerIdentityStatus(peer3).setTotalMessages(17);
+    idmgr.storeIdentities();
+    assertTrue(jnlFile.length() > len);
+
+    IdentityManagerImpl im = newIdentityManager();
+    im.reloadIdentities();
+    PeerIdentity pid2 = im.findPeerIdentity("127.0.0.2");
+    assertEquals(42, im.getPeerIdentityStatus(pid2).getTotalMessages());
+    PeerIdentity pid3 = im.findPeerIdentity("127.0.0.3");
+    assertEquals(17, im.getPeerIdentityStatus(pid3).getTotalMessages());
+  }
+
+  public void testLoadIdentitiesXmlSupersedesJournal() throws Exception {
+    setupPeer123();
+    idmgr.getPeerIdentityStatus(peer2).setTotalMessages(42);
+    idmgr.storeIdentities();
+    File jnlFile = new File(idmgr.iddbFile.getParentFile(),
+			    IdentityManagerImpl.IDDB_JOURNAL_FILENAME);
+    assertTrue(jnlFile.exists());
+
+    // Writing the XML file discards the journal
+    idmgr.getPeerIdentityStatus(peer2).setTotalMessages(43);
+    idmgr.storeIdentities(new XStreamSerializer(theDaemon));
+    assertFalse(jnlFile.exists());
+
+    IdentityManagerImpl im = newIdentityManager();
+    im.reloadIdentities();
+    PeerIdentity pid2 = im.findPeerIdentity("127.0.0.2");
+    assertEquals(43, im.getPeerIdentityStatus(pid2).getTotalMessages());
+  }
+
+  public void testLoadIdentitiesNoJournal() throws Exception {
+    ConfigurationUtil.addFromArgs(IdentityManagerImpl.PARAM_IDDB_JOURNAL,
+				  "false");
+    setupPeer123();
+    idmgr.getPeerIdentityStatus(peer2).setTotalMessages(42);
+    idmgr.storeIdentities();
+    File dir = idmgr.iddbFile.getParentFile();
+    assertFalse(new File(dir,
+			 IdentityManagerImpl.IDDB_JOURNAL_FILENAME).exists());
+    assertTrue(new File(dir, IdentityManagerImpl.IDDB_FILENAME).exists());
+
+    IdentityManagerImpl im = newIdentityManager();
+    im.reloadIdentities();
+    PeerIdentity pid2 = im.findPeerIdentity("127.0.0.2");
+    assertEquals(42, im.getPeerIdentityStatus(pid2).getTotalMessages());
+  }
+
   public void testSignalAgreedThrowsOnNullAu() throws Exception {
     peer1 = idmgr.stringToPeerIdentity("127.0.0.1");
     try {
@@ -0,0 +1,481 @@
+/*
+
+Copyright (c) 2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+
+
+package org.lockss.protocol;
+
+import java.util.*;
+import java.io.*;
+import junit.framework.*;
+
+import org.lockss.protocol.BlockingStreamComm.PeerData;
+
+import org.lockss.config.*;
+import org.lockss.daemon.*;
+import org.lockss.util.*;
+import org.lockss.util.Queue;
+import org.lockss.test.*;
+
+/**
+ * This is the test class for org.lockss.protocol.NioStreamComm
+ */
+public class TestNioStreamComm extends LockssTestCase {
+  public static Class testedClasses[] = {
+    NioStreamComm.class,
+    NioPeerChannel.class,
+  };
+
+  static Logger log = Logger.getLogger("TestNioStreamComm");
+
+  static final int MAX_COMMS = 5;
+
+  PeerIdentity[] pids = new PeerIdentity[MAX_COMMS];
+  BlockingStreamComm[] comms = new BlockingStreamComm[MAX_COMMS];
+  SimpleQueue[] rcvdMsgss = new SimpleQueue[MAX_COMMS];
+  SimpleQueue assocQ;
+
+  String testStr1 = "This is test data 1";
+  String testStr2 = "This message contains a null \000 character";
+  String testStr3 =
+    "They that can give up essential liberty to obtain " +
+    "a little temporary safety deserve neither liberty nor safety.";
+
+  PeerMessage msg1, msg2, msg3;
+
+  MockLockssDaemon daemon;
+  Properties cprops;
+  File tempDir;
+
+  public TestNioStreamComm(String name) {
+    super(name);
+  }
+
+  void addSuiteProps(Properties p) throws Exception {
+  }
+
+  public void setUp() throws Exception {
+    super.setUp();
+    daemon = getMockLockssDaemon();
+    tempDir = getTempDir();
+    assocQ = new SimpleQueue.Fifo();
+    cprops = new Properties();
+    cprops.setProperty(IdentityManager.PARAM_IDDB_DIR,
+		       new File(tempDir, "iddb").toString());
+    cprops.setProperty(IdentityManager.PARAM_LOCAL_IP, "127.0.0.1");
+    addSuiteProps(cprops);
+    ConfigurationUtil.setCurrentConfigFromProps(cprops);
+    daemon.setDaemonInited(true);
+    msg1 = makePeerMessage(1, testStr1);
+    msg2 = makePeerMessage(2, testStr2);
+    msg3 = makePeerMessage(3, testStr3);
+  }
+
+  public void tearDown() throws Exception {
+    for (int ix = 0; ix < MAX_COMMS; ix++) {
+      if (comms[ix] != null) {
+	comms[ix].stopService();
+	comms[ix] = null;
+      }
+    }
+    TimeBase.setReal();
+    super.tearDown();
+  }
+
+  PeerIdentity setupPid(int ix) throws IOException {
+    if (pids[ix] == null) {
+      int port = TcpTestUtil.findUnboundTcpPort();
+      pids[ix] = V3TestUtils.findPeerIdentity(daemon,
+					     IDUtil.ipAddrToKey("127.0.0.1",
+								port));
+    }
+    return pids[ix];
+  }
+
+  /** Create and start an NioStreamComm as instance ix */
+  MyNioStreamComm setupNioComm(int ix) throws IOException {
+    MyNioStreamComm comm = new MyNioStreamComm(setupPid(ix));
+    setupComm(ix, comm);
+    return comm;
+  }
+
+  /** Create and start a BlockingStreamComm as instance ix */
+  MyBlockingStreamComm setupBlockingComm(int ix) throws IOException {
+    MyBlockingStreamComm comm = new MyBlockingStreamComm(setupPid(ix));
+    setupComm(ix, comm);
+    return comm;
+  }
+
+  void setupComm(int ix, BlockingStreamComm comm) throws IOException {
+    comms[ix] = comm;
+    comm.initService(daemon);
+    comm.startService();
+    rcvdMsgss[ix] = new SimpleQueue.Fifo();
+    for (int proto = 1; proto <= 3; proto++) {
+      comm.registerMessageHandler(proto, new MessageHandler(rcvdMsgss[ix]));
+    }
+  }
+
+  PeerMessage makePeerMessage(int proto, String data) throws IOException {
+    return makePeerMessage(proto, data, 1);
+  }
+
+  PeerMessage makePeerMessage(int proto, String data, int rpt)
+      throws IOException {
+    PeerMessage pm = new MyMemoryPeerMessage();
+    pm.setProtocol(proto);
+    byte[] bdata = data.getBytes();
+    OutputStream os = pm.getOutputStream();
+    for (int ix = rpt; ix > 0; ix--) {
+      os.write(bdata);
+    }
+    os.close();
+    return pm;
+  }
+
+  PeerMessage rcv(int ix) {
+    return (PeerMessage)rcvdMsgss[ix].get(TIMEOUT_SHOULDNT);
+  }
+
+  void assertRcvd(PeerMessage expected, int from, int to) {
+    PeerMessage msgIn = rcv(to);
+    assertNotNull("Comm" + to + " didn't receive message from " + from,
+		  msgIn);
+    assertEquals(pids[from], msgIn.getSender());
+    assertTrue("Expected: " + expected + ", but was: " + msgIn,
+	       expected.equalsButSender(msgIn));
+  }
+
+  int countThreads(String prefix) {
+    Thread[] threads = new Thread[Thread.activeCount() + 100];
+    int n = Thread.enumerate(threads);
+    int res = 0;
+    for (int ix = 0; ix < n; ix++) {
+      if (threads[ix].getName().startsWith(prefix)) {
+	res++;
+      }
+    }
+    return res;
+  }
+
+  public void testConfig() throws IOException {
+    ConfigurationUtil.addFromArgs(NioStreamComm.PARAM_SELECTOR_THREADS, "3");
+    MyNioStreamComm comm = setupNioComm(1);
+    assertEquals(3, comm.getSelectorThreadCount());
+    assertTrue(comm.getPeerChannelFactory() instanceof
+	       NioStreamComm.NioPeerChannelFactory);
+  }
+
+  public void testSendReceive() throws IOException {
+    setupNioComm(1);
+    setupNioComm(2);
+    comms[1].sendTo(msg1, pids[2]);
+    assertRcvd(msg1, 1, 2);
+    comms[2].sendTo(msg2, pids[1]);
+    assertRcvd(msg2, 2, 1);
+    comms[1].sendTo(msg3, pids[2]);
+    comms[1].sendTo(msg1, pids[2]);
+    assertRcvd(msg3, 1, 2);
+    assertRcvd(msg1, 1, 2);
+
+    // channel has no threads of its own
+    BlockingPeerChannel chan =
+      comms[1].getPeerData(pids[2]).getPrimaryChannel();
+    assertTrue(chan instanceof NioPeerChannel);
+    assertTrue(chan.isOriginate());
+    assertFalse(chan.hasReader());
+    assertFalse(chan.hasWriter());
+  }
+
+  public void testToBlocking() throws IOException {
+    setupNioComm(1);
+    setupBlockingComm(2);
+    comms[1].sendTo(msg1, pids[2]);
+    assertRcvd(msg1, 1, 2);
+    comms[2].sendTo(msg2, pids[1]);
+    assertRcvd(msg2, 2, 1);
+    comms[1].sendTo(msg3, pids[2]);
+    assertRcvd(msg3, 1, 2);
+  }
+
+  public void testFromBlocking() throws IOException {
+    setupBlockingComm(1);
+    setupNioComm(2);
+    comms[1].sendTo(msg1, pids[2]);
+    assertRcvd(msg1, 1, 2);
+    comms[2].sendTo(msg2, pids[1]);
+    assertRcvd(msg2, 2, 1);
+    comms[1].sendTo(msg3, pids[2]);
+    assertRcvd(msg3, 1, 2);
+  }
+
+  public void testLargeMessages() throws IOException {
+    cprops.setProperty(BlockingStreamComm.PARAM_MIN_FILE_MESSAGE_SIZE,
+		       "1000");
+    ConfigurationUtil.addFromProps(cprops);
+    setupNioComm(1);
+    setupNioComm(2);
+    // Larger than socket and channel buffers, so written and read in
+    // pieces
+    PeerMessage big1 = makePeerMessage(1, testStr3, 20000);
+    PeerMessage big2 = makePeerMessage(2, testStr2, 30000);
+    comms[1].sendTo(big1, pids[2]);
+    comms[1].sendTo(msg1, pids[2]);
+    comms[2].sendTo(big2, pids[1]);
+    PeerMessage msgIn = rcv(2);
+    assertTrue(big1.equalsButSender(msgIn));
+    assertTrue(msgIn.toString(), msgIn instanceof FilePeerMessage);
+    msgIn.delete();
+    assertRcvd(msg1, 1, 2);
+    msgIn = rcv(1);
+    assertTrue(big2.equalsButSender(msgIn));
+    msgIn.delete();
+  }
+
+  public void testTooLargeMsg() throws IOException {
+    cprops.setProperty(BlockingStreamComm.PARAM_MAX_MESSAGE_SIZE, "2000");
+    ConfigurationUtil.addFromProps(cprops);
+    MyNioStreamComm comm1 = setupNioComm(1);
+    setupNioComm(2);
+    comm1.setAssocQueue(assocQ);
+    comms[1].sendTo(makePeerMessage(1, testStr1, 1000), pids[2]);
+    // receiver aborts the channel, sender's channel sees the close
+    assertEquals(ListUtil.list("dissoc", comm1),
+		 assocQ.get(TIMEOUT_SHOULDNT));
+    assertTrue(rcvdMsgss[2].isEmpty());
+  }
+
+  public void testSendRateLimit() throws IOException {
+    TimeBase.setSimulated(1000);
+    ConfigurationUtil.addFromArgs(BlockingStreamComm.PARAM_PEER_SEND_MESSAGE_RATE_LIMIT,
+				  "2/1000");
+    setupNioComm(1);
+    setupNioComm(2);
+    comms[1].sendTo(msg1, pids[2]);
+    comms[1].sendTo(msg2, pids[2]);
+    comms[1].sendTo(msg3, pids[2]);
+    PeerData pd12 = comms[1].getPeerData(pids[2]);
+    assertEquals(1, pd12.getSendRateLimited());
+    assertRcvd(msg1, 1, 2);
+    assertRcvd(msg2, 1, 2);
+    assertNull(rcvdMsgss[2].get(TIMEOUT_SHOULD));
+    TimeBase.step(1000);
+    comms[1].sendTo(msg3, pids[2]);
+    assertRcvd(msg3, 1, 2);
+    assertEquals(1, pd12.getSendRateLimited());
+  }
+
+  public void testChannelCloseAfterIdle() throws IOException {
+    TimeBase.setSimulated(1000);
+    ConfigurationUtil.addFromArgs(BlockingStreamComm.PARAM_CHANNEL_IDLE_TIME,
+				  "5000",
+				  NioStreamComm.PARAM_CHECK_INTERVAL, "50");
+    MyNioStreamComm comm1 = setupNioComm(1);
+    setupNioComm(2);
+    comm1.setAssocQueue(assocQ);
+    comms[1].sendTo(msg1, pids[2]);
+    assertRcvd(msg1, 1, 2);
+    assertNotNull(comms[1].getPeerData(pids[2]).getPrimaryChannel());
+    TimeBase.step(2000);
+    assertNull(assocQ.get(TIMEOUT_SHOULD));
+    TimeBase.step(4000);
+    List event = (List)assocQ.get(TIMEOUT_SHOULDNT);
+    assertNotNull("Channel wasn't dissociated after timeout", event);
+    assertEquals("dissoc", event.get(0));
+    assertNull(comms[1].getPeerData(pids[2]).getPrimaryChannel());
+    // a new channel is opened for the next message
+    comms[1].sendTo(msg2, pids[2]);
+    assertRcvd(msg2, 1, 2);
+  }
+
+  public void testConnectRefused() throws IOException {
+    TimeBase.setSimulated(10000);
+    ConfigurationUtil.addFromArgs(BlockingStreamComm.PARAM_RETRY_BEFORE_EXPIRATION,
+				  "0");
+    MyNioStreamComm comm1 = setupNioComm(1);
+    setupPid(2);
+    comm1.setAssocQueue(assocQ);
+    msg1.setExpiration(11000);
+    comm1.sendTo(msg1, pids[2]);
+    List event = (List)assocQ.get(TIMEOUT_SHOULDNT);
+    assertNotNull("Connecting channel didn't dissociate", event);
+    assertEquals("dissoc", event.get(0));
+    PeerData pdata = comm1.getPeerData(pids[2]);
+    assertNull(pdata.getPrimaryChannel());
+    assertTrue(pdata.isRetryNeeded());
+    assertEquals(1, pdata.sendQueue.size());
+  }
+
+  // Each of MAX_COMMS comms sends a message to each other.  The NIO comms
+  // use only their selector threads, regardless of the number of channels
+  public void testMultipleChannels() throws IOException {
+    int nthreads = countThreads("SCommSel");
+    for (int comm = 0; comm < MAX_COMMS; comm++) {
+      setupNioComm(comm);
+    }
+    for (int comm = 0; comm < MAX_COMMS; comm++) {
+      for (int peer = 0; peer < MAX_COMMS; peer++) {
+	String data =
+	  pids[comm].getIdString() + ">" + pids[peer].getIdString();
+	comms[comm].sendTo(makePeerMessage(1, data), pids[peer]);
+      }
+    }
+    for (int comm = 0; comm < MAX_COMMS; comm++) {
+      Set peers = SetUtil.fromArray(pids);
+      while (!peers.isEmpty()) {
+	PeerMessage msgIn =
+	  (PeerMessage)rcvdMsgss[comm].get(TIMEOUT_SHOULDNT * 4);
+	assertNotNull("Comm" + comm + " didn't receive messages from " + peers,
+		      msgIn);
+	peers.remove(msgIn.getSender());
+      }
+    }
+    assertEquals(MAX_COMMS * NioStreamComm.DEFAULT_SELECTOR_THREADS,
+		 countThreads("SCommSel") - nthreads);
+    assertEquals(0, countThreads("ChanReader"));
+    assertEquals(0, countThreads("ChanWriter"));
+  }
+
+  static int createCounter = 1;
+
+  class MyNioStreamComm extends NioStreamComm {
+    PeerIdentity localId;
+    SimpleQueue assocEvents;
+    int uniqueId;
+
+    MyNioStreamComm(PeerIdentity localId) {
+      this.localId = localId;
+      uniqueId = createCounter++;
+    }
+
+    protected String getStatusAccessorName(String base) {
+      return base + uniqueId;
+    }
+
+    protected PeerIdentity getLocalPeerIdentity() {
+      return localId;
+    }
+
+    void setAssocQueue(SimpleQueue q) {
+      assocEvents = q;
+    }
+
+    @Override
+    void dissociateChannelFromPeer(BlockingPeerChannel chan,
+				   PeerIdentity peer,
+				   Queue sendQueue) {
+      super.dissociateChannelFromPeer(chan, peer, sendQueue);
+      if (assocEvents != null) {
+	assocEvents.put(ListUtil.list("dissoc", this));
+      }
+    }
+  }
+
+  class MyBlockingStreamComm extends BlockingStreamComm {
+    PeerIdentity localId;
+    int uniqueId;
+
+    MyBlockingStreamComm(PeerIdentity localId) {
+      this.localId = localId;
+      uniqueId = createCounter++;
+    }
+
+    protected String getStatusAccessorName(String base) {
+      return base + uniqueId;
+    }
+
+    protected PeerIdentity getLocalPeerIdentity() {
+      return localId;
+    }
+  }
+
+  class MessageHandler implements BlockingStreamComm.MessageHandler {
+    SimpleQueue queue;
+    public MessageHandler(SimpleQueue queue) {
+      this.queue = queue;
+    }
+    public void handleMessage(PeerMessage msg) {
+      queue.put(msg);
+    }
+  }
+
+  // Suppress delete() because it prevents comparison with messages that
+  // have been sent
+  static class MyMemoryPeerMessage extends MemoryPeerMessage {
+    public void delete() {
+    }
+  }
+
+  // Variants:
+
+  /** Plain TCP */
+  public static class Plain extends TestNioStreamComm {
+    public Plain(String name) {
+      super(name);
+    }
+  }
+
+  /** SSL with client authentication, using SSLEngine */
+  public static class Ssl extends TestNioStreamComm {
+    public Ssl(String name) {
+      super(name);
+    }
+
+    void addSuiteProps(Properties p) throws Exception {
+      String ksFile = new File(tempDir, "test.keystore").toString();
+      Properties kp = new Properties();
+      kp.put(KeyStoreUtil.PROP_KEYSTORE_FILE, ksFile);
+      kp.put(KeyStoreUtil.PROP_KEYSTORE_PASSWORD, "Bad Password");
+      kp.put(KeyStoreUtil.PROP_KEY_PASSWORD, "No Donut!");
+      KeyStoreUtil.createKeyStore(kp);
+      String pref = LockssKeyStoreManager.PARAM_KEYSTORE + ".id1.";
+      p.put(pref + LockssKeyStoreManager.KEYSTORE_PARAM_NAME, "ks1");
+      p.put(pref + LockssKeyStoreManager.KEYSTORE_PARAM_FILE, ksFile);
+      p.put(pref + LockssKeyStoreManager.KEYSTORE_PARAM_TYPE, "JCEKS");
+      p.put(pref + LockssKeyStoreManager.KEYSTORE_PARAM_PASSWORD,
+	    "Bad Password");
+      p.put(pref + LockssKeyStoreManager.KEYSTORE_PARAM_KEY_PASSWORD,
+	    "No Donut!");
+      p.setProperty(BlockingStreamComm.PARAM_USE_V3_OVER_SSL, "true");
+      p.setProperty(BlockingStreamComm.PARAM_SSL_KEYSTORE_NAME, "ks1");
+      p.setProperty(BlockingStreamComm.PARAM_USE_SSL_CLIENT_AUTH, "true");
+    }
+
+    public void setUp() throws Exception {
+      super.setUp();
+      daemon.getKeystoreManager().startService();
+    }
+  }
+
+  public static Test suite() {
+    return variantSuites(new Class[] {
+      Plain.class,
+      Ssl.class,
+    });
+  }
+}
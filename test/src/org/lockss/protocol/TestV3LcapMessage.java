@@ -45,6 +45,7 @@ import org.lockss.repository.LockssRepositoryImpl;
 import org.lockss.util.*;
 import org.lockss.app.LockssDaemon;
 import org.mortbay.util.B64Code;
+import org.apache.commons.io.IOUtils;
 
 /** JUnitTest case for class: org.lockss.protocol.Message */
 public class TestV3LcapMessage extends LockssTestCase {
@@ -399,6 +400,95 @@ public class TestV3LcapMessage extends LockssTestCase {
     
   }
   
+  // Vote blocks in a received message file are linked, not copied
+  public void testDecodeFromFile() throws Exception {
+    List testVoteBlocks = V3TestUtils.makeVoteBlockList(30);
+    V3LcapMessage testMsg = makeTestVoteMessage(testVoteBlocks);
+    testMsg.setPeerVoteBlockEncoding(VoteBlock.ENCODING_BINARY);
+    File msgDir = new File(tempDir, "msgs");
+    msgDir.mkdirs();
+    File msgFile = new File(msgDir, "msg.data");
+    writeMessageFile(testMsg, msgFile);
+    long msgLen = msgFile.length();
+
+    V3LcapMessage decodedMsg =
+      new V3LcapMessage(msgFile, tempDir, theDaemon);
+    DiskVoteBlocks dvb = (DiskVoteBlocks)decodedMsg.getVoteBlocks();
+    assertEquals(VoteBlock.ENCODING_BINARY, dvb.getEncoding());
+    assertTrue(dvb.getEstimatedEncodedLength() < msgLen);
+    assertTrue(msgFile.delete());
+    assertEqualMessages(testMsg, decodedMsg);
+    assertEquals(testVoteBlocks.get(3),
+		 dvb.getVoteBlock(((VoteBlock)testVoteBlocks.get(3)).getUrl()));
+  }
+
+  public void testDecodeFromFileNoLink() throws Exception {
+    ConfigurationUtil.addFromArgs(V3LcapMessage.PARAM_LINK_RECEIVED_VOTE_BLOCKS,
+				  "false");
+    List testVoteBlocks = V3TestUtils.makeVoteBlockList(10);
+    V3LcapMessage testMsg = makeTestVoteMessage(testVoteBlocks);
+    File msgDir = new File(tempDir, "msgs");
+    msgDir.mkdirs();
+    File msgFile = new File(msgDir, "msg.data");
+    writeMessageFile(testMsg, msgFile);
+    V3LcapMessage decodedMsg =
+      new V3LcapMessage(msgFile, tempDir, theDaemon);
+    assertTrue(msgFile.delete());
+    assertEqualMessages(testMsg, decodedMsg);
+  }
+
+  private void writeMessageFile(V3LcapMessage msg, File file)
+      throws IOException {
+    InputStream in = msg.getInputStream();
+    OutputStream out = new FileOutputStream(file);
+    try {
+      StreamUtil.copy(in, out);
+    } finally {
+      IOUtil.safeClose(in);
+      IOUtil.safeClose(out);
+    }
+  }
+
+  public void testVoteBlockEncodingNegotiation() throws Exception {
+    List testVoteBlocks = V3TestUtils.makeVoteBlockList(30);
+    V3LcapMessage testMsg = makeTestVoteMessage(testVoteBlocks);
+    // Recipient not known to accept the binary encoding
+    byte[] legacyBytes = IOUtils.toByteArray(testMsg.getInputStream());
+    V3LcapMessage decodedMsg =
+      new V3LcapMessage(legacyBytes, tempDir, theDaemon);
+    assertEquals(VoteBlock.ENCODING_BINARY,
+		 decodedMsg.getPeerVoteBlockEncoding());
+    assertEquals(VoteBlock.ENCODING_PROPS,
+		 ((DiskVoteBlocks)decodedMsg.getVoteBlocks()).getEncoding());
+    assertEqualMessages(testMsg, decodedMsg);
+
+    // Recipient has advertised the binary encoding
+    testMsg.setPeerVoteBlockEncoding(VoteBlock.ENCODING_BINARY);
+    byte[] binaryBytes = IOUtils.toByteArray(testMsg.getInputStream());
+    decodedMsg = new V3LcapMessage(binaryBytes, tempDir, theDaemon);
+    assertEquals(VoteBlock.ENCODING_BINARY,
+		 ((DiskVoteBlocks)decodedMsg.getVoteBlocks()).getEncoding());
+    assertEqualMessages(testMsg, decodedMsg);
+    assertTrue(binaryBytes.length < legacyBytes.length);
+  }
+
+  public void testVoteBlockEncodingDisabled() throws Exception {
+    ConfigurationUtil.addFromArgs(V3LcapMessage.PARAM_BINARY_VOTE_BLOCKS,
+				  "false");
+    assertEquals(VoteBlock.ENCODING_PROPS,
+		 V3LcapMessage.getSupportedVoteBlockEncoding());
+    List testVoteBlocks = V3TestUtils.makeVoteBlockList(5);
+    V3LcapMessage testMsg = makeTestVoteMessage(testVoteBlocks);
+    testMsg.setPeerVoteBlockEncoding(VoteBlock.ENCODING_BINARY);
+    V3LcapMessage decodedMsg =
+      new V3LcapMessage(testMsg.getInputStream(), tempDir, theDaemon);
+    assertEquals(VoteBlock.ENCODING_PROPS,
+		 decodedMsg.getPeerVoteBlockEncoding());
+    assertEquals(VoteBlock.ENCODING_PROPS,
+		 ((DiskVoteBlocks)decodedMsg.getVoteBlocks()).getEncoding());
+    assertEqualMessages(testMsg, decodedMsg);
+  }
+
   private void assertEqualMessages(V3LcapMessage a, V3LcapMessage b)
       throws Exception {
     assertTrue(a.getOriginatorId() == b.getOriginatorId());
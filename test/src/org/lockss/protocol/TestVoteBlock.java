@@ -32,6 +32,7 @@ in this Software without prior written authorization from Stanford University.
 
 package org.lockss.protocol;
 
+import java.io.*;
 import java.util.Iterator;
 
 import org.lockss.util.*;
@@ -199,4 +200,88 @@ public class TestVoteBlock extends LockssTestCase {
     assertEquals(vb1.getVersion(1), vb2.getVersion(1));
   }
   
+  public void testBinaryEncodeDecode() throws Exception {
+    VoteBlock vb1 = new VoteBlock("http://example.com/a/b.html",
+				  VoteBlock.CONTENT_VOTE);
+    vb1.addVersion(0, 1024, 17, 1L << 40,
+                   ByteArray.makeRandomBytes(20),
+                   ByteArray.makeRandomBytes(20), false);
+    vb1.addVersion(0, 2048, 0, 2048,
+                   ByteArray.EMPTY_BYTE_ARRAY,
+                   ByteArray.makeRandomBytes(32), true);
+    VoteBlock vb2 = new VoteBlock("http://example.com/a/c.html",
+				  VoteBlock.METADATA_VOTE);
+    vb2.addVersion(0, 1, 0, 1, null, ByteArray.makeRandomBytes(20), false);
+    VoteBlock vb3 = new VoteBlock("http://example.org/\u00e9t\u00e9", 99);
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    DataOutputStream dos = new DataOutputStream(bos);
+    vb1.writeBinary(dos, null);
+    vb2.writeBinary(dos, vb1.getUrl());
+    vb3.writeBinary(dos, vb2.getUrl());
+    dos.close();
+
+    DataInputStream dis =
+      new DataInputStream(new ByteArrayInputStream(bos.toByteArray()));
+    VoteBlock d1 = VoteBlock.readBinary(dis, null);
+    VoteBlock d2 = VoteBlock.readBinary(dis, d1.getUrl());
+    VoteBlock d3 = VoteBlock.readBinary(dis, d2.getUrl());
+    assertEquals(vb1, d1);
+    assertEquals(vb1.getUrl(), d1.getUrl());
+    assertTrue(d1.getVersion(1).getHashError());
+    assertEquals(1L << 40, d1.getVersion(0).getUnfilteredLength());
+    assertEquals(vb2.getUrl(), d2.getUrl());
+    assertEquals(VoteBlock.METADATA_VOTE, d2.getVoteType());
+    assertEquals(0, d2.getVersion(0).getPlainHash().length);
+    assertEquals(vb3.getUrl(), d3.getUrl());
+    assertEquals(99, d3.getVoteType());
+    assertEquals(0, d3.size());
+    try {
+      VoteBlock.readBinary(dis, d3.getUrl());
+      fail("Should have thrown EOFException");
+    } catch (EOFException expected) {
+    }
+  }
+
+  public void testBinaryEncodingIsSmaller() throws Exception {
+    VoteBlock prev = V3TestUtils.makeVoteBlock("http://example.com/a/1.html");
+    VoteBlock vb = V3TestUtils.makeVoteBlock("http://example.com/a/2.html");
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    vb.writeBinary(new DataOutputStream(bos), prev.getUrl());
+    assertTrue(bos.size() < vb.getEncoded().length);
+    // Only the last 6 chars of the URL are written
+    bos.reset();
+    new VoteBlock(vb.getUrl()).writeBinary(new DataOutputStream(bos),
+					   prev.getUrl());
+    assertEquals(1 + 1 + 6 + 1 + 1, bos.size());
+  }
+
+  public void testSharedPrefixLength() {
+    assertEquals(0, VoteBlock.sharedPrefixLength(null, "abc"));
+    assertEquals(0, VoteBlock.sharedPrefixLength("xbc", "abc"));
+    assertEquals(2, VoteBlock.sharedPrefixLength("abd", "abc"));
+    assertEquals(3, VoteBlock.sharedPrefixLength("abc", "abc"));
+    assertEquals(3, VoteBlock.sharedPrefixLength("abc", "abcd"));
+    assertEquals(3, VoteBlock.sharedPrefixLength("abcd", "abc"));
+    // Don't split a surrogate pair
+    assertEquals(1, VoteBlock.sharedPrefixLength("a\ud83d\ude00",
+						 "a\ud83d\ude01"));
+  }
+
+  public void testVarLong() throws Exception {
+    long[] vals = {0, 1, 127, 128, 300, Integer.MAX_VALUE, Long.MAX_VALUE, -1};
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    DataOutputStream dos = new DataOutputStream(bos);
+    for (long val : vals) {
+      VoteBlock.writeVarLong(dos, val);
+    }
+    // 1+1+1+2+2+5+9+10
+    assertEquals(31, bos.size());
+    DataInputStream dis =
+      new DataInputStream(new ByteArrayInputStream(bos.toByteArray()));
+    for (long val : vals) {
+      assertEquals(val, VoteBlock.readVarLong(dis));
+    }
+  }
+
 }
@@ -0,0 +1,234 @@
+/*
+
+Copyright (c) 2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+
+
+package org.lockss.protocol;
+
+import java.util.*;
+import java.io.*;
+
+import org.lockss.config.*;
+import org.lockss.util.*;
+import org.lockss.test.*;
+
+/**
+ * Loopback load test comparing BlockingStreamComm with NioStreamComm: a
+ * number of peers in this JVM each send messages to all the others.
+ * Reports the time to deliver all messages, the message latency, and the
+ * number of threads used by each transport.  Not run as part of the unit
+ * tests.
+ */
+public class TimeStreamComm extends LockssTiming {
+  static final int NUM_PEERS = 12;
+  static final int MSGS_PER_PEER = 20;
+  static final int MSG_SIZE = 2000;
+
+  MockLockssDaemon daemon;
+  PeerIdentity[] pids;
+  BlockingStreamComm[] comms;
+  SimpleQueue rcvdMsgs;
+
+  public void setUp() throws Exception {
+    super.setUp();
+    setDuration(10 * Constants.SECOND);
+    daemon = getMockLockssDaemon();
+    Properties p = new Properties();
+    p.setProperty(IdentityManager.PARAM_IDDB_DIR,
+		  new File(getTempDir(), "iddb").toString());
+    p.setProperty(IdentityManager.PARAM_LOCAL_IP, "127.0.0.1");
+    p.setProperty(BlockingStreamComm.PARAM_CHANNEL_IDLE_TIME, "1h");
+    ConfigurationUtil.setCurrentConfigFromProps(p);
+    daemon.setDaemonInited(true);
+    pids = new PeerIdentity[NUM_PEERS];
+    for (int ix = 0; ix < NUM_PEERS; ix++) {
+      int port = TcpTestUtil.findUnboundTcpPort();
+      pids[ix] =
+	V3TestUtils.findPeerIdentity(daemon,
+				     IDUtil.ipAddrToKey("127.0.0.1", port));
+    }
+  }
+
+  public void tearDown() throws Exception {
+    stopComms();
+    super.tearDown();
+  }
+
+  public void testBlocking() throws Exception {
+    runLoad("Blocking", false);
+  }
+
+  public void testNio() throws Exception {
+    runLoad("NIO", true);
+  }
+
+  void runLoad(String label, boolean nio) throws Exception {
+    int threadsBefore = Thread.activeCount();
+    startComms(nio);
+    final Stats stats = new Stats();
+    // warm up: open all channels
+    sendAll(stats);
+    time(null, label + " " + NUM_PEERS + " peers, " +
+	 (NUM_PEERS * (NUM_PEERS - 1) * MSGS_PER_PEER) + " msgs",
+	 new Computation() {
+	   public void execute() throws Exception {
+	     sendAll(stats);
+	   }});
+    System.out.println(label + " threads: " +
+		       (Thread.activeCount() - threadsBefore) +
+		       ", latency " + stats);
+    stopComms();
+  }
+
+  /** Each peer sends MSGS_PER_PEER messages to each other peer; wait for
+   * all to arrive */
+  void sendAll(Stats stats) throws Exception {
+    int total = 0;
+    for (int m = 0; m < MSGS_PER_PEER; m++) {
+      for (int from = 0; from < NUM_PEERS; from++) {
+	for (int to = 0; to < NUM_PEERS; to++) {
+	  if (from != to) {
+	    comms[from].sendTo(makeMessage(), pids[to]);
+	    total++;
+	  }
+	}
+      }
+    }
+    for (int ix = 0; ix < total; ix++) {
+      PeerMessage msg = (PeerMessage)rcvdMsgs.get(TIMEOUT_SHOULDNT);
+      assertNotNull("Received only " + ix + " of " + total, msg);
+      stats.add(System.nanoTime() - readTimestamp(msg));
+      msg.delete();
+    }
+  }
+
+  PeerMessage makeMessage() throws IOException {
+    PeerMessage msg = new MemoryPeerMessage();
+    msg.setProtocol(1);
+    DataOutputStream os = new DataOutputStream(msg.getOutputStream());
+    os.writeLong(System.nanoTime());
+    os.write(new byte[MSG_SIZE - 8]);
+    os.close();
+    return msg;
+  }
+
+  long readTimestamp(PeerMessage msg) throws IOException {
+    DataInputStream is = new DataInputStream(msg.getInputStream());
+    try {
+      return is.readLong();
+    } finally {
+      is.close();
+    }
+  }
+
+  void startComms(boolean nio) throws IOException {
+    comms = new BlockingStreamComm[NUM_PEERS];
+    rcvdMsgs = new SimpleQueue.Fifo();
+    BlockingStreamComm.MessageHandler handler =
+      new BlockingStreamComm.MessageHandler() {
+	public void handleMessage(PeerMessage msg) {
+	  rcvdMsgs.put(msg);
+	}
+      };
+    for (int ix = 0; ix < NUM_PEERS; ix++) {
+      comms[ix] = nio ? new MyNioStreamComm(pids[ix], ix)
+	: new MyBlockingStreamComm(pids[ix], ix);
+      comms[ix].initService(daemon);
+      comms[ix].startService();
+      comms[ix].registerMessageHandler(1, handler);
+    }
+  }
+
+  void stopComms() {
+    if (comms != null) {
+      for (BlockingStreamComm comm : comms) {
+	if (comm != null) {
+	  comm.stopService();
+	}
+      }
+      comms = null;
+    }
+  }
+
+  static class Stats {
+    List<Long> latencies = new ArrayList<Long>();
+
+    void add(long nanos) {
+      latencies.add(nanos);
+    }
+
+    public String toString() {
+      List<Long> l = new ArrayList<Long>(latencies);
+      Collections.sort(l);
+      long sum = 0;
+      for (long x : l) {
+	sum += x;
+      }
+      return String.format("mean %.2fms, median %.2fms, 99%% %.2fms",
+			   sum / (double)l.size() / 1e6,
+			   l.get(l.size() / 2) / 1e6,
+			   l.get((int)(l.size() * 0.99)) / 1e6);
+    }
+  }
+
+  static class MyBlockingStreamComm extends BlockingStreamComm {
+    PeerIdentity localId;
+    int id;
+
+    MyBlockingStreamComm(PeerIdentity localId, int id) {
+      this.localId = localId;
+      this.id = id;
+    }
+
+    protected String getStatusAccessorName(String base) {
+      return base + id;
+    }
+
+    protected PeerIdentity getLocalPeerIdentity() {
+      return localId;
+    }
+  }
+
+  static class MyNioStreamComm extends NioStreamComm {
+    PeerIdentity localId;
+    int id;
+
+    MyNioStreamComm(PeerIdentity localId, int id) {
+      this.localId = localId;
+      this.id = id;
+    }
+
+    protected String getStatusAccessorName(String base) {
+      return base + id;
+    }
+
+    protected PeerIdentity getLocalPeerIdentity() {
+      return localId;
+    }
+  }
+}
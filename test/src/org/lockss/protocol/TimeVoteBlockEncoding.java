@@ -0,0 +1,119 @@
+/*
+
+Copyright (c) 2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+
+package org.lockss.protocol;
+
+import java.util.*;
+import java.io.*;
+
+import org.lockss.util.*;
+import org.lockss.test.*;
+
+/**
+ * Compares the encoded size of a realistic vote, and the time to write it
+ * to a DiskVoteBlocks, read it back and look up random URLs, in the
+ * EncodedProperty and binary vote block encodings.  Not run as part of
+ * the unit tests.
+ */
+public class TimeVoteBlockEncoding extends LockssTiming {
+  static final int NUM_BLOCKS = 20000;
+  static final int NUM_LOOKUPS = 1000;
+  static final String BASE = "http://www.example.com/content/vol12/issue3/";
+
+  File tempDir;
+  List<VoteBlock> blocks;
+
+  public void setUp() throws Exception {
+    super.setUp();
+    tempDir = getTempDir();
+    blocks = new ArrayList<VoteBlock>(NUM_BLOCKS);
+    Random rnd = new Random(1);
+    for (int ix = 0; ix < NUM_BLOCKS; ix++) {
+      VoteBlock vb = new VoteBlock(BASE + "article" + (ix / 10) + "/page" +
+				   (ix % 10) + ".html");
+      byte[] ph = new byte[20];
+      byte[] nh = new byte[20];
+      rnd.nextBytes(ph);
+      rnd.nextBytes(nh);
+      long len = rnd.nextInt(200000);
+      vb.addVersion(0, len, 0, len, ph, nh, false);
+      blocks.add(vb);
+    }
+  }
+
+  public void testEncoding() throws Exception {
+    timeEncoding("props", VoteBlock.ENCODING_PROPS);
+    timeEncoding("binary", VoteBlock.ENCODING_BINARY);
+  }
+
+  void timeEncoding(String name, final int encoding) throws Exception {
+    final DiskVoteBlocks[] holder = new DiskVoteBlocks[1];
+    time(null, "write " + NUM_BLOCKS + " " + name,
+	 new Computation() {
+	   public void execute() throws Exception {
+	     if (holder[0] != null) {
+	       holder[0].release();
+	     }
+	     DiskVoteBlocks dvb = new DiskVoteBlocks(tempDir, encoding);
+	     for (VoteBlock vb : blocks) {
+	       dvb.addVoteBlock(vb);
+	     }
+	     holder[0] = dvb;
+	   }});
+    final DiskVoteBlocks dvb = holder[0];
+    long size = dvb.getEstimatedEncodedLength();
+    System.out.println(name + " encoded size: " + size + " bytes, " +
+		       (size / NUM_BLOCKS) + " per block");
+    time(null, "read " + NUM_BLOCKS + " " + name,
+	 new Computation() {
+	   public void execute() throws Exception {
+	     VoteBlocksIterator iter = dvb.iterator();
+	     int n = 0;
+	     while (iter.hasNext()) {
+	       iter.next();
+	       n++;
+	     }
+	     iter.release();
+	     assertEquals(NUM_BLOCKS, n);
+	   }});
+    final String[] urls = new String[NUM_LOOKUPS];
+    Random rnd = new Random(2);
+    for (int ix = 0; ix < NUM_LOOKUPS; ix++) {
+      urls[ix] = blocks.get(rnd.nextInt(NUM_BLOCKS)).getUrl();
+    }
+    time(null, "lookup " + NUM_LOOKUPS + " " + name,
+	 new Computation() {
+	   public void execute() throws Exception {
+	     for (String url : urls) {
+	       assertNotNull(dvb.getVoteBlock(url));
+	     }
+	   }});
+    dvb.release();
+  }
+}
@@ -191,6 +191,13 @@ public class PTestPlugin {
     public boolean isArchiveMember() {
       return false;
     }
+
+    public String getHashCacheEntry(String key) {
+      return null;
+    }
+
+    public void putHashCacheEntry(String key, String value) {
+    }
   }
 
   static class AU extends NullPlugin.ArchivalUnit {
@@ -443,8 +443,8 @@ public class TestLockssRepositoryImpl extends LockssTestCase {
 
     // initial values are strange because creating each child node
     // causes invalidateCachedValues() to be called nodes up to the root
-    int hits = repoImpl.getCacheHits();
-    int misses = repoImpl.getCacheMisses();
+    long hits = repoImpl.getCacheHits();
+    long misses = repoImpl.getCacheMisses();
     RepositoryNode leaf = repo.getNode("http://www.example.com/testDir/leaf1");
     assertEquals(hits + 1, repoImpl.getCacheHits());
     RepositoryNode leaf2 = repo.getNode("http://www.example.com/testDir/leaf1");
@@ -460,14 +460,14 @@ public class TestLockssRepositoryImpl extends LockssTestCase {
     RepositoryNode leaf = repo.getNode("http://www.example.com/testDir/leaf1");
     RepositoryNode leaf2 = null;
     int loopSize = 1;
-    int refHits = 0;
+    long refHits = 0;
     // create leafs in a loop until fetching an leaf1 creates a cache miss
     while (true) {
       loopSize *= 2;
       for (int ii=0; ii<loopSize; ii++) {
         createLeaf("http://www.example.com/testDir/testleaf"+ii, null, null);
       }
-      int misses = repoImpl.getCacheMisses();
+      long misses = repoImpl.getCacheMisses();
       refHits = repoImpl.getRefHits();
       leaf2 = repo.getNode("http://www.example.com/testDir/leaf1");
       if (repoImpl.getCacheMisses() == misses+1) {
@@ -0,0 +1,357 @@
+/*
+
+Copyright (c) 2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+
+package org.lockss.repository;
+
+import java.io.*;
+import java.util.*;
+
+import org.apache.commons.lang3.StringUtils;
+
+import org.lockss.test.*;
+import org.lockss.util.*;
+
+/**
+ * This is the test class for org.lockss.repository.PackedPropsIndex
+ */
+public class TestPackedPropsIndex extends LockssTestCase {
+  File auDir;
+  PackedPropsIndex index;
+
+  public void setUp() throws Exception {
+    super.setUp();
+    auDir = getTempDir();
+    index = PackedPropsIndex.open(auDir);
+  }
+
+  public void tearDown() throws Exception {
+    index.close();
+    super.tearDown();
+  }
+
+  File file(String name) {
+    return new File(auDir, name);
+  }
+
+  byte[] bytes(String s) {
+    return s.getBytes();
+  }
+
+  void assertGet(String exp, String name) throws IOException {
+    byte[] res = index.get(file(name));
+    assertNotNull(name, res);
+    assertEquals(exp, new String(res));
+    assertTrue(index.exists(file(name)));
+  }
+
+  void assertAbsent(String name) throws IOException {
+    assertNull(name, index.get(file(name)));
+    assertFalse(name, index.exists(file(name)));
+  }
+
+  public void testNewIndexComplete() throws Exception {
+    assertTrue(index.isComplete());
+  }
+
+  public void testPutGet() throws Exception {
+    TimeBase.setSimulated(1000);
+    assertAbsent("a/#node_props");
+    index.put(file("a/#node_props"), bytes("foo=bar"));
+    index.put(file("a/#content/current.props"), bytes("x=1"), 17);
+    assertGet("foo=bar", "a/#node_props");
+    assertGet("x=1", "a/#content/current.props");
+    assertEquals(17, index.getContentSize(file("a/#content/current.props")));
+    assertEquals(-1, index.getContentSize(file("a/#node_props")));
+    assertEquals(1000, index.lastModified(file("a/#node_props")));
+    TimeBase.step(10);
+    index.put(file("a/#node_props"), bytes("foo=baz"));
+    assertGet("foo=baz", "a/#node_props");
+    assertEquals(1010, index.lastModified(file("a/#node_props")));
+    // Rewriting keeps the content size
+    index.put(file("a/#content/current.props"), bytes("x=2"));
+    assertEquals(17, index.getContentSize(file("a/#content/current.props")));
+    assertEquals(2, index.size());
+    // The index replaces the files
+    assertFalse(file("a/#node_props").exists());
+    try {
+      index.put(new File(getTempDir(), "x.props"), bytes("z"));
+      fail("File outside AU dir should throw");
+    } catch (IllegalArgumentException e) {
+    }
+  }
+
+  public void testRemoveRename() throws Exception {
+    TimeBase.setSimulated(1000);
+    index.put(file("a/#content/temp.props"), bytes("v=2"));
+    index.put(file("a/#content/current.props"), bytes("v=1"), 5);
+    assertTrue(index.rename(file("a/#content/current.props"),
+			    file("a/#content/1.props")));
+    assertTrue(index.rename(file("a/#content/temp.props"),
+			    file("a/#content/current.props"), 7));
+    assertGet("v=1", "a/#content/1.props");
+    assertEquals(5, index.getContentSize(file("a/#content/1.props")));
+    assertEquals(1000, index.lastModified(file("a/#content/1.props")));
+    assertGet("v=2", "a/#content/current.props");
+    assertEquals(7, index.getContentSize(file("a/#content/current.props")));
+    assertAbsent("a/#content/temp.props");
+    assertEquals(2, index.size());
+
+    // Renaming a file without a size keeps the target's
+    index.put(file("a/#content/temp.props"), bytes("v=3"));
+    assertTrue(index.rename(file("a/#content/temp.props"),
+			    file("a/#content/current.props")));
+    assertGet("v=3", "a/#content/current.props");
+    assertEquals(7, index.getContentSize(file("a/#content/current.props")));
+
+    assertTrue(index.remove(file("a/#content/1.props")));
+    assertAbsent("a/#content/1.props");
+    assertFalse(index.remove(file("a/#content/1.props")));
+    assertFalse(index.rename(file("a/#content/nope.props"),
+			     file("a/#content/current.props")));
+    assertGet("v=3", "a/#content/current.props");
+    assertEquals(1, index.size());
+  }
+
+  public void testTrees() throws Exception {
+    index.put(file("b/#node_props"), bytes("b"));
+    index.put(file("b/c/#node_props"), bytes("c"));
+    index.put(file("bb/#node_props"), bytes("bb"));
+    index.renameTree(file("b"), file("d"));
+    assertAbsent("b/#node_props");
+    assertAbsent("b/c/#node_props");
+    assertGet("b", "d/#node_props");
+    assertGet("c", "d/c/#node_props");
+    assertGet("bb", "bb/#node_props");
+    index.removeTree(file("d"));
+    assertAbsent("d/#node_props");
+    assertAbsent("d/c/#node_props");
+    assertGet("bb", "bb/#node_props");
+    assertEquals(1, index.size());
+  }
+
+  public void testTableGrows() throws Exception {
+    int n = PackedPropsIndex.MIN_TABLE_CAPACITY * 3;
+    for (int ix = 0; ix < n; ix++) {
+      index.put(file("n" + ix + "/#node_props"), bytes("v" + ix));
+    }
+    // Leave tombstones, which must be skipped
+    for (int ix = 0; ix < n; ix += 2) {
+      index.remove(file("n" + ix + "/#node_props"));
+    }
+    for (int ix = n; ix < n + 100; ix++) {
+      index.put(file("n" + ix + "/#node_props"), bytes("v" + ix));
+    }
+    assertEquals(n / 2 + 100, index.size());
+    for (int ix = 0; ix < n + 100; ix++) {
+      if (ix < n && ix % 2 == 0) {
+	assertAbsent("n" + ix + "/#node_props");
+      } else {
+	assertGet("v" + ix, "n" + ix + "/#node_props");
+      }
+    }
+    index.close();
+    index = PackedPropsIndex.open(auDir);
+    assertEquals(n / 2 + 100, index.size());
+    assertGet("v1", "n1/#node_props");
+    assertAbsent("n0/#node_props");
+  }
+
+  public void testLogGrowsInChunks() throws Exception {
+    File logFile = file(PackedPropsIndex.LOG_FILENAME);
+    long len = logFile.length();
+    assertEquals(PackedPropsIndex.MIN_LOG_CHUNK, len);
+    index.put(file("a/#node_props"), bytes("x"));
+    // One record doesn't grow the file
+    assertEquals(len, logFile.length());
+    index.put(file("b/#node_props"),
+	      new byte[PackedPropsIndex.MIN_LOG_CHUNK]);
+    assertTrue(logFile.length() > len);
+    assertEquals(0, logFile.length() % PackedPropsIndex.MIN_LOG_CHUNK);
+    assertEquals(PackedPropsIndex.MIN_LOG_CHUNK,
+		 index.get(file("b/#node_props")).length);
+  }
+
+  public void testReopen() throws Exception {
+    index.put(file("a/#node_props"), bytes("foo=bar"));
+    index.put(file("a/#content/current.props"), bytes("x=1"), 3);
+    index.rename(file("a/#content/current.props"), file("a/#content/1.props"));
+    index.remove(file("a/#content/2.props"));
+    index.close();
+    index = PackedPropsIndex.open(auDir);
+    assertGet("foo=bar", "a/#node_props");
+    assertGet("x=1", "a/#content/1.props");
+    assertEquals(3, index.getContentSize(file("a/#content/1.props")));
+    assertAbsent("a/#content/current.props");
+    assertAbsent("a/#content/2.props");
+    assertTrue(index.isComplete());
+  }
+
+  /** Make the index look as if the daemon exited without closing it */
+  void simulateCrash(long logEnd) throws Exception {
+    index.close();
+    RandomAccessFile raf =
+      new RandomAccessFile(file(PackedPropsIndex.LOG_FILENAME), "rw");
+    raf.seek(PackedPropsIndex.LOG_END_POS);
+    raf.writeLong(logEnd);
+    raf.close();
+    assertTrue(file(PackedPropsIndex.OPEN_MARKER_FILENAME).createNewFile());
+  }
+
+  public void testUncleanCloseRecovers() throws Exception {
+    index.put(file("a/#node_props"), bytes("foo=bar"));
+    long endA = index.getLogSize();
+    index.put(file("b/#node_props"), bytes("b"));
+    index.rename(file("b/#node_props"), file("c/#node_props"));
+    // Records after the recorded end are recovered, and the table is
+    // rebuilt
+    simulateCrash(endA);
+    index = PackedPropsIndex.open(auDir);
+    assertGet("foo=bar", "a/#node_props");
+    assertGet("b", "c/#node_props");
+    assertAbsent("b/#node_props");
+    assertEquals(2, index.size());
+  }
+
+  public void testCorruptRecord() throws Exception {
+    index.put(file("a/#node_props"), bytes("foo=bar"));
+    long goodLen = index.getLogSize();
+    index.put(file("b/#node_props"), bytes("more stuff"));
+    long len = index.getLogSize();
+    // Simulate a crash while the second record was being written
+    simulateCrash(goodLen);
+    RandomAccessFile raf =
+      new RandomAccessFile(file(PackedPropsIndex.LOG_FILENAME), "rw");
+    raf.seek(len - 6);
+    raf.write('X');
+    raf.close();
+    index = PackedPropsIndex.open(auDir);
+    assertGet("foo=bar", "a/#node_props");
+    assertAbsent("b/#node_props");
+    assertEquals(goodLen, index.getLogSize());
+    // Appends after recovery are readable
+    index.put(file("c/#node_props"), bytes("c"));
+    assertGet("c", "c/#node_props");
+    index.close();
+    index = PackedPropsIndex.open(auDir);
+    assertGet("c", "c/#node_props");
+    assertGet("foo=bar", "a/#node_props");
+    assertAbsent("b/#node_props");
+  }
+
+  public void testCompactOnOpen() throws Exception {
+    String big = StringUtils.repeat("x", 100 * 1024);
+    for (int ix = 0; ix < 40; ix++) {
+      index.put(file("a/#node_props"), bytes(big + ix));
+    }
+    index.put(file("b/#node_props"), bytes("b"), 12);
+    index.put(file("c/#node_props"), bytes("c"));
+    index.remove(file("c/#node_props"));
+    long oldSize = index.getLogSize();
+    index.close();
+    index = PackedPropsIndex.open(auDir);
+    assertTrue(index.getLogSize() < oldSize / 10);
+    assertGet(big + 39, "a/#node_props");
+    assertGet("b", "b/#node_props");
+    assertEquals(12, index.getContentSize(file("b/#node_props")));
+    assertAbsent("c/#node_props");
+    assertEquals(2, index.size());
+    index.put(file("d/#node_props"), bytes("d"));
+    index.close();
+    index = PackedPropsIndex.open(auDir);
+    assertGet("d", "d/#node_props");
+  }
+
+  void writeLegacyTree() throws Exception {
+    assertTrue(file("x/#content").mkdirs());
+    FileTestUtil.writeFile(file("x/#node_props"), "n=1");
+    FileTestUtil.writeFile(file("x/#content/current.props"), "c=1");
+    FileTestUtil.writeFile(file("x/#content/1.props-12345"), "d=1");
+    FileTestUtil.writeFile(file("x/#content/current"), "content");
+  }
+
+  public void testReadThroughUntilConverted() throws Exception {
+    index.close();
+    FileUtil.delTree(auDir);
+    writeLegacyTree();
+    index = PackedPropsIndex.open(auDir);
+    assertFalse(index.isComplete());
+    assertEquals(0, index.size());
+    assertGet("c=1", "x/#content/current.props");
+    assertEquals(-1, index.getContentSize(file("x/#content/current.props")));
+    // Renaming a legacy file moves it into the index
+    assertTrue(index.rename(file("x/#content/current.props"),
+			    file("x/#content/1.props"), 7));
+    assertFalse(file("x/#content/current.props").exists());
+    assertAbsent("x/#content/current.props");
+    assertGet("c=1", "x/#content/1.props");
+    assertTrue(index.remove(file("x/#node_props")));
+    assertFalse(file("x/#node_props").exists());
+    assertAbsent("x/#node_props");
+  }
+
+  public void testConvertAndUnpack() throws Exception {
+    index.close();
+    FileUtil.delTree(auDir);
+    writeLegacyTree();
+    file("x/#content/current.props").setLastModified(123000);
+    PackedPropsIndex.main(new String[] {auDir.getPath()});
+    assertFalse(file("x/#node_props").exists());
+    assertFalse(file("x/#content/current.props").exists());
+    assertTrue(file("x/#content/current").exists());
+    index = PackedPropsIndex.open(auDir);
+    assertTrue(index.isComplete());
+    assertEquals(3, index.size());
+    assertGet("n=1", "x/#node_props");
+    assertGet("c=1", "x/#content/current.props");
+    assertEquals(7, index.getContentSize(file("x/#content/current.props")));
+    assertEquals(123000,
+		 index.lastModified(file("x/#content/current.props")));
+    assertGet("d=1", "x/#content/1.props-12345");
+    assertAbsent("x/#content/current");
+    index.close();
+
+    assertEquals(3, PackedPropsIndex.unpack(auDir));
+    assertFalse(PackedPropsIndex.hasIndex(auDir));
+    assertEquals("n=1", StringUtil.fromFile(file("x/#node_props")));
+    assertEquals("c=1", StringUtil.fromFile(file("x/#content/current.props")));
+    assertEquals(123000, file("x/#content/current.props").lastModified());
+    assertEquals("d=1", StringUtil.fromFile(file("x/#content/1.props-12345")));
+    index = PackedPropsIndex.open(auDir);
+  }
+
+  public void testIsPropsFile() {
+    assertTrue(PackedPropsIndex.isPropsFile("#node_props"));
+    assertTrue(PackedPropsIndex.isPropsFile("current.props"));
+    assertTrue(PackedPropsIndex.isPropsFile("12.props"));
+    assertTrue(PackedPropsIndex.isPropsFile("12.props-1234567"));
+    assertTrue(PackedPropsIndex.isPropsFile("3.hashes"));
+    assertFalse(PackedPropsIndex.isPropsFile("current"));
+    assertFalse(PackedPropsIndex.isPropsFile("#agreement"));
+  }
+}
@@ -69,6 +69,7 @@ public class TestRepositoryNodeImpl extends LockssTestCase {
     tempDirPath = getTempDir().getAbsolutePath() + File.separator;
     props = new Properties();
     props.setProperty(LockssRepositoryImpl.PARAM_CACHE_LOCATION, tempDirPath);
+    addConfig(props);
     ConfigurationUtil.setCurrentConfigFromProps(props);
 
     mau = new MockArchivalUnit();
@@ -86,6 +87,60 @@ public class TestRepositoryNodeImpl extends LockssTestCase {
     repo.startService();
   }
 
+  /** Variants override to add to the config used to start the repository */
+  protected void addConfig(Properties props) {
+  }
+
+  /** Return true if the props file exists; variants may not store props
+   * in individual files */
+  boolean propsFileExists(File file) {
+    return file.exists();
+  }
+
+  /** Delete a props file behind the node's back */
+  boolean deletePropsFile(File file) throws IOException {
+    return file.delete();
+  }
+
+  /** Rename a props file behind the node's back */
+  boolean renamePropsFile(File from, File to) throws IOException {
+    return PlatformUtil.updateAtomically(from, to);
+  }
+
+  /** Write a props file behind the node's back */
+  void writePropsFile(File file, String str) throws IOException {
+    FileOutputStream fos = new FileOutputStream(file);
+    StringInputStream sis = new StringInputStream(str);
+    StreamUtil.copy(sis, fos);
+    fos.close();
+    sis.close();
+  }
+
+  /** Open a props file for reading */
+  InputStream openPropsFile(File file) throws IOException {
+    return new BufferedInputStream(new FileInputStream(file));
+  }
+
+  /** Delete a directory tree, including any props files in it */
+  boolean deleteTree(File dir) throws IOException {
+    return FileUtil.delTree(dir);
+  }
+
+  /** Return the names of the files, including props files, in a
+   * directory */
+  Set<String> listDir(File dir) {
+    return new HashSet<String>(Arrays.asList(dir.list()));
+  }
+
+  /** Append to a node's props file behind the node's back */
+  void appendToPropsFile(RepositoryNodeImpl node, File file, String str)
+      throws IOException {
+    OutputStream os =
+      new BufferedOutputStream(new FileOutputStream(file, true));
+    os.write(str.getBytes());
+    os.close();
+  }
+
   public void tearDown() throws Exception {
     TimeBase.setReal();
     repo.stopService();
@@ -354,9 +409,9 @@ public class TestRepositoryNodeImpl extends LockssTestCase {
     testFile = new File(tempDirPath + "/#content/current");
     assertTrue(testFile.exists());
     testFile = new File(tempDirPath + "/#content/current.props");
-    assertTrue(testFile.exists());
+    assertTrue(propsFileExists(testFile));
     testFile = new File(tempDirPath + "/#node_props");
-    assertFalse(testFile.exists());
+    assertFalse(propsFileExists(testFile));
     testFile = new File(tempDirPath + "/#agreement");
     assertFalse(testFile.exists());
   }
@@ -427,7 +482,7 @@ public class TestRepositoryNodeImpl extends LockssTestCase {
     File testFile = new File(tempDirPath + "/#content/1");
     assertFalse(testFile.exists());
     testFile = new File(tempDirPath + "/#content/1.props");
-    assertFalse(testFile.exists());
+    assertFalse(propsFileExists(testFile));
 
     leaf.makeNewVersion();
     OutputStream os = leaf.getNewOutputStream();
@@ -441,7 +496,7 @@ public class TestRepositoryNodeImpl extends LockssTestCase {
     testFile = new File(tempDirPath + "/#content/1");
     assertTrue(testFile.exists());
     testFile = new File(tempDirPath + "/#content/1.props");
-    assertTrue(testFile.exists());
+    assertTrue(propsFileExists(testFile));
   }
 
   public void testInactiveFileLocation() throws Exception {
@@ -456,28 +511,28 @@ public class TestRepositoryNodeImpl extends LockssTestCase {
     File inactFile = new File(tempDirPath + "/#content/inactive");
     File inactPropsFile = new File(tempDirPath + "/#content/inactive.props");
     assertTrue(curFile.exists());
-    assertTrue(curPropsFile.exists());
+    assertTrue(propsFileExists(curPropsFile));
     assertFalse(inactFile.exists());
-    assertFalse(inactPropsFile.exists());
+    assertFalse(propsFileExists(inactPropsFile));
 
     leaf.deactivateContent();
     assertFalse(curFile.exists());
-    assertFalse(curPropsFile.exists());
+    assertFalse(propsFileExists(curPropsFile));
     assertTrue(inactFile.exists());
-    assertTrue(inactPropsFile.exists());
+    assertTrue(propsFileExists(inactPropsFile));
 
     //reactivate
     leaf.restoreLastVersion();
     assertTrue(curFile.exists());
-    assertTrue(curPropsFile.exists());
+    assertTrue(propsFileExists(curPropsFile));
     assertFalse(inactFile.exists());
-    assertFalse(inactPropsFile.exists());
+    assertFalse(propsFileExists(inactPropsFile));
 
     leaf.deactivateContent();
     assertFalse(curFile.exists());
-    assertFalse(curPropsFile.exists());
+    assertFalse(propsFileExists(curPropsFile));
     assertTrue(inactFile.exists());
-    assertTrue(inactPropsFile.exists());
+    assertTrue(propsFileExists(inactPropsFile));
 
     // make new version
     leaf.makeNewVersion();
@@ -489,9 +544,9 @@ public class TestRepositoryNodeImpl extends LockssTestCase {
     leaf.setNewProperties(new Properties());
     leaf.sealNewVersion();
     assertTrue(curFile.exists());
-    assertTrue(curPropsFile.exists());
+    assertTrue(propsFileExists(curPropsFile));
     assertFalse(inactFile.exists());
-    assertFalse(inactPropsFile.exists());
+    assertFalse(propsFileExists(inactPropsFile));
     assertFalse(leaf.isIdenticalVersion());
   }
 
@@ -507,28 +562,28 @@ public class TestRepositoryNodeImpl extends LockssTestCase {
     File inactFile = new File(tempDirPath + "/#content/inactive");
     File inactPropsFile = new File(tempDirPath + "/#content/inactive.props");
     assertTrue(curFile.exists());
-    assertTrue(curPropsFile.exists());
+    assertTrue(propsFileExists(curPropsFile));
     assertFalse(inactFile.exists());
-    assertFalse(inactPropsFile.exists());
+    assertFalse(propsFileExists(inactPropsFile));
 
     leaf.markAsDeleted();
     assertFalse(curFile.exists());
-    assertFalse(curPropsFile.exists());
+    assertFalse(propsFileExists(curPropsFile));
     assertTrue(inactFile.exists());
-    assertTrue(inactPropsFile.exists());
+    assertTrue(propsFileExists(inactPropsFile));
 
     //reactivate
     leaf.restoreLastVersion();
     assertTrue(curFile.exists());
-    assertTrue(curPropsFile.exists());
+    assertTrue(propsFileExists(curPropsFile));
     assertFalse(inactFile.exists());
-    assertFalse(inactPropsFile.exists());
+    assertFalse(propsFileExists(inactPropsFile));
 
     leaf.markAsDeleted();
     assertFalse(curFile.exists());
-    assertFalse(curPropsFile.exists());
+    assertFalse(propsFileExists(curPropsFile));
     assertTrue(inactFile.exists());
-    assertTrue(inactPropsFile.exists());
+    assertTrue(propsFileExists(inactPropsFile));
 
     // make new version
     leaf.makeNewVersion();
@@ -540,9 +595,9 @@ public class TestRepositoryNodeImpl extends LockssTestCase {
     leaf.setNewProperties(new Properties());
     leaf.sealNewVersion();
     assertTrue(curFile.exists());
-    assertTrue(curPropsFile.exists());
+    assertTrue(propsFileExists(curPropsFile));
     assertFalse(inactFile.exists());
-    assertFalse(inactPropsFile.exists());
+    assertFalse(propsFileExists(inactPropsFile));
     assertFalse(leaf.isIdenticalVersion());
   }
 
@@ -686,6 +741,69 @@ public class TestRepositoryNodeImpl extends LockssTestCase {
   }
 
 
+  List getChildNames(String nodeName, boolean includeInactive)
+      throws MalformedURLException {
+    RepositoryNode dirEntry = repo.getNode(nodeName);
+    ArrayList res = new ArrayList();
+    for (Iterator childIt = dirEntry.listChildren(null, includeInactive);
+	 childIt.hasNext(); ) {
+      res.add(((RepositoryNode)childIt.next()).getNodeUrl());
+    }
+    return res;
+  }
+
+  public void testChildIndexCache() throws Exception {
+    String dir = "http://www.example.com/testDir";
+    createLeaf(dir + "/leaf2", "test stream", null);
+    createLeaf(dir + "/leaf1", "test stream", null);
+    createLeaf(dir + "/branch/leaf3", "test stream", null);
+    RepositoryNodeImpl dirNode = (RepositoryNodeImpl)repo.getNode(dir);
+    File dirFile = new File(dirNode.nodeLocation);
+    assertNull(repo.getChildIndex(dirFile));
+
+    // Cached listing is sorted
+    assertEquals(ListUtil.list(dir + "/branch", dir + "/leaf1",
+			       dir + "/leaf2"),
+		 getChildNames(dir));
+    assertNotNull(repo.getChildIndex(dirFile));
+
+    // A directory created behind the repository's back isn't seen
+    assertTrue(new File(dirFile, "sneaky").mkdir());
+    assertEquals(3, getChildNames(dir).size());
+
+    // New child, including one created by mkdirs of a deeper node,
+    // invalidates the index
+    createLeaf(dir + "/leaf0", "test stream", null);
+    assertNull(repo.getChildIndex(dirFile));
+    assertEquals(ListUtil.list(dir + "/branch", dir + "/leaf0",
+			       dir + "/leaf1", dir + "/leaf2",
+			       dir + "/sneaky"),
+		 getChildNames(dir));
+    createLeaf(dir + "/new/deep/leaf", "test stream", null);
+    assertNull(repo.getChildIndex(dirFile));
+    assertEquals(6, getChildNames(dir).size());
+
+    // Deactivated leaf included only if includeInactive
+    repo.getNode(dir + "/leaf1").deactivateContent();
+    assertNull(repo.getChildIndex(dirFile));
+    assertFalse(getChildNames(dir).contains(dir + "/leaf1"));
+    assertTrue(getChildNames(dir, true).contains(dir + "/leaf1"));
+    repo.getNode(dir + "/leaf1").restoreLastVersion();
+    assertTrue(getChildNames(dir).contains(dir + "/leaf1"));
+
+    // Deleted never included
+    repo.getNode(dir + "/leaf2").markAsDeleted();
+    assertFalse(getChildNames(dir, true).contains(dir + "/leaf2"));
+    repo.getNode(dir + "/leaf2").markAsNotDeleted();
+    assertTrue(getChildNames(dir).contains(dir + "/leaf2"));
+
+    // Disabled
+    repo.setChildIndexCacheSize(0);
+    assertTrue(new File(dirFile, "sneaky2").mkdir());
+    assertEquals(7, getChildNames(dir).size());
+    assertNull(repo.getChildIndex(dirFile));
+  }
+
   public void testFixUnnormalized_Rename() throws Exception {
     if (!PlatformUtil.getInstance().isCaseSensitiveFileSystem()) {
       log.debug("Skipping testFixUnnormalized_Rename: file system is not case sensitive.");
@@ -1172,25 +1290,28 @@ public class TestRepositoryNodeImpl extends LockssTestCase {
     default:
       throw new UnsupportedOperationException();
     }
-    assertFalse(testFile.exists());
+    boolean isProps = whichFile == DEL_PROPS_FILE;
+    assertFalse(isProps ? propsFileExists(testFile) : testFile.exists());
 
     Properties props1 = PropUtil.fromArgs("key1", "value 1");
 
     createContentVersion(leaf, "test content 11111", props1);
     assertEquals(1, leaf.getCurrentVersion());
 
-    assertTrue(testFile.exists());
+    assertTrue(isProps ? propsFileExists(testFile) : testFile.exists());
     switch (whichFile) {
     case DEL_NODE_DIR:
     case DEL_CONTENT_DIR:
-      assertTrue(FileUtil.delTree(testFile));
+      assertTrue(deleteTree(testFile));
       break;
     case DEL_CONTENT_FILE:
-    case DEL_PROPS_FILE:
       assertTrue(testFile.delete());
       break;
+    case DEL_PROPS_FILE:
+      assertTrue(deletePropsFile(testFile));
+      break;
     }
-    assertFalse(testFile.exists());
+    assertFalse(isProps ? propsFileExists(testFile) : testFile.exists());
 
     Properties props2 = PropUtil.fromArgs("key2", "value 2");
     RepositoryNode leaf2 = repo.createNewNode(url);
@@ -1210,7 +1331,7 @@ public class TestRepositoryNodeImpl extends LockssTestCase {
     leaf.sealNewVersion();
     assertFalse(leaf.isIdenticalVersion());
 
-    assertTrue(testFile.exists());
+    assertTrue(isProps ? propsFileExists(testFile) : testFile.exists());
     int expver = 2;
     // if we tried to read while node or content dir was missing, version
     // number will have been reset.
@@ -1308,12 +1429,11 @@ public class TestRepositoryNodeImpl extends LockssTestCase {
         "http://www.example.com/testDir/test.cache");
 
     File testFileDir = new File(tempDirPath + "/#content");
-    File[] files = testFileDir.listFiles();
-    assertEquals(2, files.length);
+    assertEquals(2, listDir(testFileDir).size());
     File testFile = new File(testFileDir, "current");
     assertTrue(testFile.exists());
     testFile = new File(testFileDir, "current.props");
-    assertTrue(testFile.exists());
+    assertTrue(propsFileExists(testFile));
 //    testFile = new File(testFileDir, "1.props-123321");
 //    assertFalse(testFile.exists());
 
@@ -1360,14 +1480,13 @@ public class TestRepositoryNodeImpl extends LockssTestCase {
         "http://www.example.com/testDir/test.cache");
 
     File testFileDir = new File(tempDirPath + "/#content");
-    File[] files = testFileDir.listFiles();
-    assertEquals(3, files.length);
+    assertEquals(3, listDir(testFileDir).size());
     File testFile = new File(testFileDir, "current");
     assertTrue(testFile.exists());
     testFile = new File(testFileDir, "current.props");
-    assertTrue(testFile.exists());
+    assertTrue(propsFileExists(testFile));
     testFile = new File(testFileDir, "1.props-123321");
-    assertTrue(testFile.exists());
+    assertTrue(propsFileExists(testFile));
   }
 
   public void testMakeNewIdenticalVersionNewWay() throws Exception {
@@ -1404,12 +1523,11 @@ public class TestRepositoryNodeImpl extends LockssTestCase {
         "http://www.example.com/testDir/test.cache");
 
     File testFileDir = new File(tempDirPath + "/#content");
-    File[] files = testFileDir.listFiles();
-    assertEquals(2, files.length);
+    assertEquals(2, listDir(testFileDir).size());
     File testFile = new File(testFileDir, "current");
     assertTrue(testFile.exists());
     testFile = new File(testFileDir, "current.props");
-    assertTrue(testFile.exists());
+    assertTrue(propsFileExists(testFile));
 //    testFile = new File(testFileDir, "1.props-123321");
 //    assertFalse(testFile.exists());
   }
@@ -1595,10 +1713,7 @@ public class TestRepositoryNodeImpl extends LockssTestCase {
 			      RepositoryNodeImpl.CURRENT_PROPS_FILENAME);
     // Write a Malformed unicode escape that will cause Properties.load()
     // to throw
-    OutputStream os =
-      new BufferedOutputStream(new FileOutputStream(propsFile, true));
-    os.write("\\uxxxxfoo=bar".getBytes());
-    os.close();
+    appendToPropsFile(leafImpl, propsFile, "\\uxxxxfoo=bar");
     return leaf;
   }
 
@@ -2052,6 +2167,36 @@ public class TestRepositoryNodeImpl extends LockssTestCase {
     assertEquals("value 1", props.getProperty("test 1"));
   }
 
+  public void testHashCache() throws Exception {
+    RepositoryNode leaf =
+        createLeaf("http://www.example.com/test1", "test stream 1", null);
+    assertNull(leaf.getHashCacheEntry("k1"));
+    leaf.putHashCacheEntry("k1", "v1");
+    leaf.putHashCacheEntry("k2", "v2");
+    assertEquals("v1", leaf.getHashCacheEntry("k1"));
+    assertEquals("v2", leaf.getHashCacheEntry("k2"));
+
+    createContentVersion(leaf, "test stream 2", null);
+    assertNull(leaf.getHashCacheEntry("k1"));
+    leaf.putHashCacheEntry("k1", "v1b");
+    // previous version still has its entries
+    RepositoryNodeVersion ver1 = leaf.getNodeVersion(1);
+    assertEquals("v1", ver1.getHashCacheEntry("k1"));
+    assertEquals("v2", ver1.getHashCacheEntry("k2"));
+    ver1.putHashCacheEntry("k3", "v3");
+    assertEquals("v3", leaf.getNodeVersion(1).getHashCacheEntry("k3"));
+    assertEquals("v1b", leaf.getHashCacheEntry("k1"));
+
+    // a version number reused for new content must not see the old
+    // version's entries
+    leaf.restoreLastVersion();
+    assertEquals(1, leaf.getCurrentVersion());
+    assertEquals("v1", leaf.getHashCacheEntry("k1"));
+    createContentVersion(leaf, "test stream 3", null);
+    assertEquals(2, leaf.getCurrentVersion());
+    assertNull(leaf.getHashCacheEntry("k1"));
+  }
+
   public void testReactivateViaRestore() throws Exception {
     RepositoryNodeImpl leaf =
         (RepositoryNodeImpl)createLeaf("http://www.example.com/test1",
@@ -2089,9 +2234,8 @@ public class TestRepositoryNodeImpl extends LockssTestCase {
     assertEquals("test stream 2", resultStr);
 
     File lastProps = new File(leaf.contentDir, "1.props");
-    assertTrue(lastProps.exists());
-    InputStream is =
-        new BufferedInputStream(new FileInputStream(lastProps));
+    assertTrue(propsFileExists(lastProps));
+    InputStream is = openPropsFile(lastProps);
     props.load(is);
     is.close();
     // make sure the 'was inactive' property hasn't been lost
@@ -2287,14 +2431,14 @@ public class TestRepositoryNodeImpl extends LockssTestCase {
 
     // fail node props load
     leaf.getChildCount();
-    assertTrue(leaf.nodePropsFile.exists());
+    assertTrue(propsFileExists(leaf.nodePropsFile));
     File renameFile = new File(leaf.nodePropsFile.getAbsolutePath()+
                                RepositoryNodeImpl.FAULTY_FILE_EXTENSION);
-    assertFalse(renameFile.exists());
+    assertFalse(propsFileExists(renameFile));
     leaf.failPropsLoad = true;
     assertTrue(leaf.checkNodeRootConsistency());
-    assertFalse(leaf.nodePropsFile.exists());
-    assertTrue(renameFile.exists());
+    assertFalse(propsFileExists(leaf.nodePropsFile));
+    assertTrue(propsFileExists(renameFile));
   }
 
   public void testCheckContentConsistency() throws Exception {
@@ -2318,19 +2462,19 @@ public class TestRepositoryNodeImpl extends LockssTestCase {
     assertTrue(leaf.checkContentConsistency());
 
     // should return false if content props absent
-    PlatformUtil.updateAtomically(leaf.currentPropsFile, renameFile);
+    renamePropsFile(leaf.currentPropsFile, renameFile);
     assertFalse(leaf.checkContentConsistency());
-    PlatformUtil.updateAtomically(renameFile, leaf.currentPropsFile);
+    renamePropsFile(renameFile, leaf.currentPropsFile);
     assertTrue(leaf.checkContentConsistency());
 
     // should return false if inactive and files missing
     leaf.currentVersion = RepositoryNodeImpl.INACTIVE_VERSION;
     assertFalse(leaf.checkContentConsistency());
-    PlatformUtil.updateAtomically(leaf.currentPropsFile, leaf.getInactivePropsFile());
+    renamePropsFile(leaf.currentPropsFile, leaf.getInactivePropsFile());
     assertFalse(leaf.checkContentConsistency());
     PlatformUtil.updateAtomically(leaf.currentCacheFile, leaf.getInactiveCacheFile());
     assertTrue(leaf.checkContentConsistency());
-    PlatformUtil.updateAtomically(leaf.getInactivePropsFile(), leaf.currentPropsFile);
+    renamePropsFile(leaf.getInactivePropsFile(), leaf.currentPropsFile);
     assertFalse(leaf.checkContentConsistency());
     // finish restoring
     PlatformUtil.updateAtomically(leaf.getInactiveCacheFile(), leaf.currentCacheFile);
@@ -2345,18 +2489,14 @@ public class TestRepositoryNodeImpl extends LockssTestCase {
     fos.close();
     sis.close();
 
-    fos = new FileOutputStream(leaf.tempPropsFile);
-    sis = new StringInputStream("test stream");
-    StreamUtil.copy(sis, fos);
-    fos.close();
-    sis.close();
+    writePropsFile(leaf.tempPropsFile, "test stream");
 
     // should be removed
     assertTrue(leaf.tempCacheFile.exists());
-    assertTrue(leaf.tempPropsFile.exists());
+    assertTrue(propsFileExists(leaf.tempPropsFile));
     assertTrue(leaf.checkContentConsistency());
     assertFalse(leaf.tempCacheFile.exists());
-    assertFalse(leaf.tempPropsFile.exists());
+    assertFalse(propsFileExists(leaf.tempPropsFile));
 }
 
 
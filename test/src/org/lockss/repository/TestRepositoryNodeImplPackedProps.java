@@ -0,0 +1,138 @@
+/*
+
+Copyright (c) 2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+
+package org.lockss.repository;
+
+import java.io.*;
+import java.util.*;
+
+import org.lockss.test.*;
+import org.lockss.util.*;
+
+/**
+ * Runs the RepositoryNodeImpl tests with the packed props index enabled
+ */
+public class TestRepositoryNodeImplPackedProps extends TestRepositoryNodeImpl {
+
+  protected void addConfig(Properties props) {
+    props.setProperty(RepositoryManager.PARAM_PACKED_PROPS_INDEX, "true");
+  }
+
+  LockssRepositoryImpl getRepo() {
+    return (LockssRepositoryImpl)getMockLockssDaemon().getLockssRepository(mau);
+  }
+
+  boolean propsFileExists(File file) {
+    return getRepo().getPackedPropsIndex().exists(file);
+  }
+
+  boolean deletePropsFile(File file) throws IOException {
+    return getRepo().getPackedPropsIndex().remove(file);
+  }
+
+  boolean renamePropsFile(File from, File to) throws IOException {
+    return getRepo().getPackedPropsIndex().rename(from, to);
+  }
+
+  void writePropsFile(File file, String str) throws IOException {
+    getRepo().getPackedPropsIndex().put(file, str.getBytes());
+  }
+
+  InputStream openPropsFile(File file) throws IOException {
+    return new ByteArrayInputStream(getRepo().getPackedPropsIndex().get(file));
+  }
+
+  boolean deleteTree(File dir) throws IOException {
+    if (!FileUtil.delTree(dir)) {
+      return false;
+    }
+    getRepo().getPackedPropsIndex().removeTree(dir);
+    return true;
+  }
+
+  Set<String> listDir(File dir) {
+    Set<String> res = super.listDir(dir);
+    res.addAll(getRepo().getPackedPropsIndex().list(dir));
+    return res;
+  }
+
+  void appendToPropsFile(RepositoryNodeImpl node, File file, String str)
+      throws IOException {
+    PackedPropsIndex index = node.getPropsIndex();
+    index.put(file, (new String(index.get(file)) + str).getBytes());
+  }
+
+  public void testIndexInUse() throws Exception {
+    LockssRepositoryImpl repo = getRepo();
+    PackedPropsIndex index = repo.getPackedPropsIndex();
+    assertNotNull(index);
+    String url = "http://www.example.com/testDir/leaf1";
+    RepositoryNode leaf = createLeaf(repo, url, "test stream", null);
+    leaf.makeNewVersion();
+    Properties props = new Properties();
+    props.setProperty("test", "foo");
+    leaf.setNewProperties(props);
+    writeToLeaf(leaf, "new content");
+    leaf.sealNewVersion();
+    RepositoryNodeImpl node = (RepositoryNodeImpl)leaf;
+    assertNotNull(index.get(node.currentPropsFile));
+    assertNotNull(index.get(node.getVersionedPropsFile(1)));
+    assertNull(index.get(node.tempPropsFile));
+    // No props files are written
+    assertFalse(node.currentPropsFile.exists());
+    assertFalse(node.getVersionedPropsFile(1).exists());
+    assertFalse(node.nodePropsFile.exists());
+    assertTrue(node.currentCacheFile.exists());
+
+    // Content sizes come from the index
+    assertEquals(11, index.getContentSize(node.currentPropsFile));
+    assertEquals(11, leaf.getContentSize());
+    assertEquals(11,
+		 index.getContentSize(node.getVersionedPropsFile(1)));
+    assertEquals(11, leaf.getNodeVersion(1).getContentSize());
+  }
+
+  public void testUnpackWhenDisabled() throws Exception {
+    LockssRepositoryImpl repo = getRepo();
+    String url = "http://www.example.com/testDir/leaf1";
+    Properties props = new Properties();
+    props.setProperty("test", "foo");
+    RepositoryNodeImpl node =
+      (RepositoryNodeImpl)createLeaf(repo, url, "test stream", props);
+    File propsFile = node.currentPropsFile;
+    assertFalse(propsFile.exists());
+    repo.stopService();
+    ConfigurationUtil.addFromArgs(RepositoryManager.PARAM_PACKED_PROPS_INDEX,
+				  "false");
+    repo.startService();
+    assertNull(repo.getPackedPropsIndex());
+    assertTrue(propsFile.exists());
+    assertEquals("foo", node.loadProps(propsFile).getProperty("test"));
+  }
+}
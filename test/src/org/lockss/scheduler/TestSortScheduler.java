@@ -314,6 +314,37 @@ public class TestSortScheduler extends LockssTestCase {
     sched.getSchedule();
   }
 
+  public void testOneThreadTooFull() {
+    SortScheduler sched =
+      new SortScheduler(ListUtil.list(taskBetween(100, 200, 70),
+				      taskBetween(100, 200, 70),
+				      taskBetween(100, 200, 60)));
+    assertFalse(sched.createSchedule());
+  }
+
+  public void testTwoThreads() {
+    ConfigurationUtil.addFromArgs(SchedService.PARAM_STEPPER_THREADS, "2");
+    StepTask ta = taskBetween("a", 100, 200, 70);
+    StepTask tb = taskBetween("b", 100, 200, 70);
+    StepTask tc = taskBetween("c", 100, 200, 60);
+    SortScheduler sched = new SortScheduler(ListUtil.list(ta, tb, tc));
+    assertTrue(sched.createSchedule());
+    // tb wraps from the end of the first lane to the start of the second
+    List exp = ListUtil.list(chunk(ta, 100, 170, 70),
+			     chunk(tb, 100, 140, 40, false),
+			     chunk(tc, 140, 200, 60),
+			     chunk(tb, 170, 200, 30));
+    assertEquals(exp, sched.getSchedule().getEvents());
+  }
+
+  public void testTwoThreadsTaskLimitedToOneLane() {
+    ConfigurationUtil.addFromArgs(SchedService.PARAM_STEPPER_THREADS, "2");
+    // a task can't use more than one thread's worth of time
+    SortScheduler sched =
+      new SortScheduler(ListUtil.list(taskBetween(100, 200, 101)));
+    assertFalse(sched.createSchedule());
+  }
+
 
   /*
 	100		200		300		400		500
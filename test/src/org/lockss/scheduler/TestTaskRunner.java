@@ -335,6 +335,228 @@ public class TestTaskRunner extends LockssTestCase {
     assertEquals(s.getEvents().get(1), tr.runningChunk);
   }
 
+  public void testFindHelperTask() {
+    TaskRunner.HelperClaim claim = new TaskRunner.HelperClaim();
+    assertFalse(tr.findHelperTask(claim));
+    StepTask t1 = task(100, 200, 50);
+    StepTask t2 = task(100, 300, 50);
+    Schedule.Chunk c1 = new Schedule.Chunk(t1, Deadline.at(100),
+					   Deadline.at(150), 50);
+    Schedule.Chunk c2 = new Schedule.Chunk(t2, Deadline.at(100),
+					   Deadline.at(150), 50);
+    Schedule s = new Schedule(ListUtil.list(c1, c2));
+    fact.setResults(s, s);
+    assertTrue(tr.addToSchedule(t1));
+    assertTrue(tr.addToSchedule(t2));
+    assertFalse(tr.findHelperTask(claim));
+    assertEquals(Deadline.at(100), claim.deadline);
+
+    TimeBase.setSimulated(101);
+    // main thread takes the first chunk, helper gets the second
+    assertTrue(tr.findTaskToRun());
+    assertEquals(t1, tr.runningTask);
+    assertTrue(tr.findHelperTask(claim));
+    assertEquals(t2, claim.task);
+    assertEquals(c2, claim.chunk);
+    assertEquals(Deadline.at(150), claim.deadline);
+    assertTrue(t2.isStepping());
+    // nothing left for another helper
+    assertFalse(tr.findHelperTask(new TaskRunner.HelperClaim()));
+  }
+
+  public void testFindTaskToRunSkipsHelperTask() {
+    StepTask t1 = task(100, 200, 50);
+    StepTask t2 = task(100, 300, 50);
+    Schedule.Chunk c1 = new Schedule.Chunk(t1, Deadline.at(100),
+					   Deadline.at(150), 50);
+    Schedule.Chunk c2 = new Schedule.Chunk(t2, Deadline.at(150),
+					   Deadline.at(200), 50);
+    Schedule s = new Schedule(ListUtil.list(c1, c2));
+    fact.setResults(s, s);
+    assertTrue(tr.addToSchedule(t1));
+    assertTrue(tr.addToSchedule(t2));
+    TimeBase.setSimulated(101);
+    TaskRunner.HelperClaim claim = new TaskRunner.HelperClaim();
+    assertTrue(tr.findHelperTask(claim));
+    assertEquals(t1, claim.task);
+    // t1's chunk is current but a helper is running it
+    assertTrue(tr.findTaskToRun());
+    assertEquals(t2, tr.runningTask);
+    assertEquals(c2, tr.runningChunk);
+    assertEquals(Deadline.at(150), tr.runningDeadline);
+  }
+
+  public void testFindHelperTaskConflict() {
+    StepTask t1 = task(100, 200, 50);
+    StepTask t2 = task(100, 300, 50);
+    StepTask t3 = task(100, 300, 50);
+    Object au = new Object();
+    t1.setExclusiveResource(au);
+    t2.setExclusiveResource(au);
+    assertTrue(t1.conflictsWith(t2));
+    assertFalse(t1.conflictsWith(t1));
+    assertFalse(t1.conflictsWith(t3));
+    assertFalse(t3.conflictsWith(t2));
+    Schedule.Chunk c1 = new Schedule.Chunk(t1, Deadline.at(100),
+					   Deadline.at(150), 50);
+    Schedule.Chunk c2 = new Schedule.Chunk(t2, Deadline.at(100),
+					   Deadline.at(150), 50);
+    Schedule s = new Schedule(ListUtil.list(c1, c2));
+    fact.setResults(s, s);
+    assertTrue(tr.addToSchedule(t1));
+    assertTrue(tr.addToSchedule(t2));
+    TimeBase.setSimulated(101);
+    // main thread takes t1, helper may not take t2, which uses the same AU
+    assertTrue(tr.findTaskToRun());
+    assertEquals(t1, tr.runningTask);
+    assertFalse(tr.findHelperTask(new TaskRunner.HelperClaim()));
+    assertFalse(t2.isStepping());
+  }
+
+  public void testFindTaskToRunSkipsConflictingTask() {
+    StepTask t1 = task(100, 200, 50);
+    StepTask t2 = task(100, 300, 50);
+    Object au = new Object();
+    t1.setExclusiveResource(au);
+    t2.setExclusiveResource(au);
+    Schedule.Chunk c1 = new Schedule.Chunk(t1, Deadline.at(100),
+					   Deadline.at(150), 50);
+    Schedule.Chunk c2 = new Schedule.Chunk(t2, Deadline.at(150),
+					   Deadline.at(200), 50);
+    Schedule s = new Schedule(ListUtil.list(c1, c2));
+    fact.setResults(s, s);
+    assertTrue(tr.addToSchedule(t1));
+    assertTrue(tr.addToSchedule(t2));
+    TimeBase.setSimulated(101);
+    TaskRunner.HelperClaim claim = new TaskRunner.HelperClaim();
+    assertTrue(tr.findHelperTask(claim));
+    assertEquals(t1, claim.task);
+    // t2 is runnable but uses the same AU as the helper's task
+    assertFalse(tr.findTaskToRun());
+    assertNull(tr.runningTask);
+  }
+
+  public void testHelperOverrunTask() {
+    StepTask t1 = task(100, 200, 100);
+    Schedule s = sched(ListUtil.list(t1));
+    fact.setResult(s);
+    assertTrue(tr.addToSchedule(t1));
+    StepTask t2 = task(0, 300, 50);
+    StepTask t3 = task(0, 400, 50);
+    tr.addOverrunner(t2);
+    tr.addOverrunner(t3);
+    assertTrue(tr.findTaskToRun());
+    assertEquals(t2, tr.runningTask);
+    TaskRunner.HelperClaim claim = new TaskRunner.HelperClaim();
+    assertTrue(tr.findHelperTask(claim));
+    assertEquals(t3, claim.task);
+    assertNull(claim.chunk);
+    assertEquals(Deadline.at(100), claim.deadline);
+  }
+
+  public void testStepperThreadsRunConcurrently() throws Exception {
+    TimeBase.setReal();
+    ConfigurationUtil.addFromArgs(SchedService.PARAM_STEPPER_THREADS, "2");
+    newTr(new MyMockTaskRunner(new TaskRunner.SchedulerFactory () {
+	public Scheduler createScheduler() {
+	  return new SortScheduler();
+	}}));
+    final SimpleBinarySemaphore sem = new SimpleBinarySemaphore();
+    final List finished = Collections.synchronizedList(new ArrayList());
+    TaskCallback cb = new TaskCallback() {
+	public void taskEvent(SchedulableTask task, Schedule.EventType event) {
+	  if (event == Schedule.EventType.FINISH) {
+	    finished.add(task);
+	    sem.give();
+	  }
+	}};
+    ConcurrencyStepper st1 = new ConcurrencyStepper(20);
+    ConcurrencyStepper st2 = new ConcurrencyStepper(20);
+    StepTask t1 = new StepperTask(Deadline.in(0), Deadline.in(Constants.HOUR),
+				  10 * Constants.SECOND, cb, null, st1);
+    StepTask t2 = new StepperTask(Deadline.in(0), Deadline.in(Constants.HOUR),
+				  10 * Constants.SECOND, cb, null, st2);
+    assertTrue(tr.scheduleTask(t1));
+    assertTrue(tr.scheduleTask(t2));
+    while (finished.size() < 2) {
+      assertTrue("Tasks didn't finish", sem.take(TIMEOUT_SHOULDNT));
+    }
+    assertNull(t1.e);
+    assertNull(t2.e);
+    assertEquals(2, maxConcurrent);
+  }
+
+  public void testStepperThreadsDontRunConflictingTasks() throws Exception {
+    TimeBase.setReal();
+    ConfigurationUtil.addFromArgs(SchedService.PARAM_STEPPER_THREADS, "2");
+    newTr(new MyMockTaskRunner(new TaskRunner.SchedulerFactory () {
+	public Scheduler createScheduler() {
+	  return new SortScheduler();
+	}}));
+    final SimpleBinarySemaphore sem = new SimpleBinarySemaphore();
+    final List finished = Collections.synchronizedList(new ArrayList());
+    TaskCallback cb = new TaskCallback() {
+	public void taskEvent(SchedulableTask task, Schedule.EventType event) {
+	  if (event == Schedule.EventType.FINISH) {
+	    finished.add(task);
+	    sem.give();
+	  }
+	}};
+    ConcurrencyStepper st1 = new ConcurrencyStepper(20);
+    ConcurrencyStepper st2 = new ConcurrencyStepper(20);
+    StepTask t1 = new StepperTask(Deadline.in(0), Deadline.in(Constants.HOUR),
+				  10 * Constants.SECOND, cb, null, st1);
+    StepTask t2 = new StepperTask(Deadline.in(0), Deadline.in(Constants.HOUR),
+				  10 * Constants.SECOND, cb, null, st2);
+    Object au = new Object();
+    t1.setExclusiveResource(au);
+    t2.setExclusiveResource(au);
+    assertTrue(tr.scheduleTask(t1));
+    assertTrue(tr.scheduleTask(t2));
+    while (finished.size() < 2) {
+      assertTrue("Tasks didn't finish", sem.take(TIMEOUT_SHOULDNT));
+    }
+    assertNull(t1.e);
+    assertNull(t2.e);
+    assertEquals(1, maxConcurrent);
+  }
+
+  int nStepping = 0;
+  int maxConcurrent = 0;
+
+  synchronized void enterStep() {
+    nStepping++;
+    maxConcurrent = Math.max(maxConcurrent, nStepping);
+  }
+
+  synchronized void exitStep() {
+    nStepping--;
+  }
+
+  // Stepper that records the number of steppers running at once
+  class ConcurrencyStepper implements Stepper {
+    int nSteps;
+
+    ConcurrencyStepper(int nSteps) {
+      this.nSteps = nSteps;
+    }
+
+    public int computeStep(int metric) {
+      enterStep();
+      try {
+	TimerUtil.guaranteedSleep(10);
+      } finally {
+	exitStep();
+      }
+      nSteps--;
+      return 1;
+    }
+
+    public boolean isFinished() {
+      return nSteps <= 0;
+    }
+  }
+
   public void testFindOverrunTaskToRun() {
     assertFalse(tr.findTaskToRun());
     StepTask t1 = task(100, 200, 100);
@@ -0,0 +1,255 @@
+/*
+
+Copyright (c) 2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+
+
+package org.lockss.servlet;
+
+import java.io.*;
+import java.util.*;
+
+import org.lockss.plugin.*;
+import org.lockss.test.*;
+import org.lockss.util.*;
+
+public class TestRewrittenContentCache extends LockssTestCase {
+
+  static final String AUID1 = "auid1";
+  static final String AUID2 = "auid2";
+  static final String URL1 = "http://example.com/toc.html";
+  static final String URL2 = "http://example.com/style.css";
+
+  RewrittenContentCache.Key key(String auid, String url, int ver) {
+    return new RewrittenContentCache.Key(auid, url, ver, "variant");
+  }
+
+  byte[] bytes(int n) {
+    byte[] res = new byte[n];
+    Arrays.fill(res, (byte)'x');
+    return res;
+  }
+
+  String contentOf(RewrittenContentCache.Entry ent) throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    ent.writeTo(baos);
+    return baos.toString("UTF-8");
+  }
+
+  public void testKey() {
+    RewrittenContentCache.Key k1 = key(AUID1, URL1, 1);
+    assertEquals(k1, key(AUID1, URL1, 1));
+    assertEquals(k1.hashCode(), key(AUID1, URL1, 1).hashCode());
+    assertNotEquals(k1, key(AUID1, URL1, 2));
+    assertNotEquals(k1, key(AUID2, URL1, 1));
+    assertNotEquals(k1, key(AUID1, URL2, 1));
+    assertNotEquals(k1, new RewrittenContentCache.Key(AUID1, URL1, 1,
+						      "other"));
+  }
+
+  public void testGetPut() throws Exception {
+    RewrittenContentCache rcc = new RewrittenContentCache(1000, 100);
+    assertNull(rcc.get(key(AUID1, URL1, 1)));
+    rcc.put(key(AUID1, URL1, 1), "rewritten".getBytes("UTF-8"), "UTF-8");
+    RewrittenContentCache.Entry ent = rcc.get(key(AUID1, URL1, 1));
+    assertEquals("rewritten", contentOf(ent));
+    assertEquals(9, ent.getLength());
+    assertEquals("UTF-8", ent.getCharset());
+    // New version doesn't see old content
+    assertNull(rcc.get(key(AUID1, URL1, 2)));
+    assertEquals(1, rcc.getHits());
+    assertEquals(2, rcc.getMisses());
+    assertEquals(1, rcc.getEntryCount());
+    assertEquals(9, rcc.getSize());
+
+    // Replacing an entry adjusts the size
+    rcc.put(key(AUID1, URL1, 1), bytes(20), null);
+    assertEquals(1, rcc.getEntryCount());
+    assertEquals(20, rcc.getSize());
+    assertNull(rcc.get(key(AUID1, URL1, 1)).getCharset());
+  }
+
+  public void testIsCacheable() {
+    RewrittenContentCache rcc = new RewrittenContentCache(1000, 100);
+    assertTrue(rcc.isCacheable(0));
+    assertTrue(rcc.isCacheable(100));
+    assertFalse(rcc.isCacheable(101));
+    assertFalse(rcc.isCacheable(-1));
+    rcc.setSizes(0, 100);
+    assertFalse(rcc.isCacheable(10));
+  }
+
+  public void testTooLarge() {
+    RewrittenContentCache rcc = new RewrittenContentCache(1000, 100);
+    rcc.put(key(AUID1, URL1, 1), bytes(101), null);
+    assertNull(rcc.get(key(AUID1, URL1, 1)));
+    assertEquals(0, rcc.getSize());
+  }
+
+  public void testEvictLru() {
+    RewrittenContentCache rcc = new RewrittenContentCache(250, 100);
+    rcc.put(key(AUID1, URL1, 1), bytes(100), null);
+    rcc.put(key(AUID1, URL1, 2), bytes(100), null);
+    // Touch the first
+    assertNotNull(rcc.get(key(AUID1, URL1, 1)));
+    rcc.put(key(AUID1, URL1, 3), bytes(100), null);
+    assertEquals(200, rcc.getSize());
+    assertEquals(1, rcc.getEvictions());
+    assertNotNull(rcc.get(key(AUID1, URL1, 1)));
+    assertNull(rcc.get(key(AUID1, URL1, 2)));
+    assertNotNull(rcc.get(key(AUID1, URL1, 3)));
+
+    // Shrinking evicts
+    rcc.setSizes(150, 100);
+    assertEquals(100, rcc.getSize());
+    assertEquals(1, rcc.getEntryCount());
+    assertNotNull(rcc.get(key(AUID1, URL1, 3)));
+
+    rcc.clear();
+    assertEquals(0, rcc.getSize());
+    assertEquals(0, rcc.getEntryCount());
+  }
+
+  public void testInvalidate() {
+    RewrittenContentCache rcc = new RewrittenContentCache(1000, 100);
+    rcc.put(key(AUID1, URL1, 1), bytes(10), null);
+    rcc.put(key(AUID1, URL2, 1), bytes(10), null);
+    rcc.put(key(AUID2, URL1, 1), bytes(10), null);
+
+    rcc.invalidateUrls(AUID1, ListUtil.list(URL1));
+    assertNull(rcc.get(key(AUID1, URL1, 1)));
+    assertNotNull(rcc.get(key(AUID1, URL2, 1)));
+    assertNotNull(rcc.get(key(AUID2, URL1, 1)));
+    assertEquals(20, rcc.getSize());
+
+    rcc.invalidateAu(AUID1);
+    assertNull(rcc.get(key(AUID1, URL2, 1)));
+    assertNotNull(rcc.get(key(AUID2, URL1, 1)));
+    assertEquals(10, rcc.getSize());
+  }
+
+  public void testCaptureInMemory() throws Exception {
+    RewrittenContentCache rcc = new RewrittenContentCache(1000, 100);
+    RewrittenContentCache.Capture cap = rcc.newCapture(key(AUID1, URL1, 1),
+						       20);
+    cap.write("rewr".getBytes("UTF-8"));
+    cap.write("itten".getBytes("UTF-8"));
+    assertFalse(cap.isOnDisk());
+    cap.store("UTF-8");
+    // abort after store does nothing
+    cap.abort();
+    RewrittenContentCache.Entry ent = rcc.get(key(AUID1, URL1, 1));
+    assertFalse(ent.isOnDisk());
+    assertEquals("rewritten", contentOf(ent));
+    assertEquals("UTF-8", ent.getCharset());
+    assertEquals(9, rcc.getSize());
+  }
+
+  public void testCaptureSpillsToDisk() throws Exception {
+    RewrittenContentCache rcc = new RewrittenContentCache(1000, 100);
+    RewrittenContentCache.Capture cap = rcc.newCapture(key(AUID1, URL1, 1),
+						       20);
+    cap.write(bytes(15));
+    assertFalse(cap.isOnDisk());
+    cap.write(bytes(15));
+    assertTrue(cap.isOnDisk());
+    cap.store(null);
+    RewrittenContentCache.Entry ent = rcc.get(key(AUID1, URL1, 1));
+    assertTrue(ent.isOnDisk());
+    assertEquals(30, ent.getLength());
+    assertEquals(new String(bytes(30), "UTF-8"), contentOf(ent));
+    assertEquals(30, rcc.getSize());
+    File file = ent.getFile();
+    assertTrue(file.exists());
+
+    // Removing the entry deletes its file
+    rcc.invalidateUrls(AUID1, ListUtil.list(URL1));
+    assertFalse(file.exists());
+    assertNull(ent.openInputStream());
+    assertEquals(0, rcc.getSize());
+
+    // As does eviction
+    cap = rcc.newCapture(key(AUID1, URL1, 2), 20);
+    cap.write(bytes(30));
+    cap.store(null);
+    file = rcc.get(key(AUID1, URL1, 2)).getFile();
+    assertTrue(file.exists());
+    rcc.setSizes(10, 10);
+    assertEquals(0, rcc.getEntryCount());
+    assertFalse(file.exists());
+  }
+
+  public void testCaptureTooLarge() throws Exception {
+    RewrittenContentCache rcc = new RewrittenContentCache(1000, 100);
+    RewrittenContentCache.Capture cap = rcc.newCapture(key(AUID1, URL1, 1),
+						       20);
+    cap.write(bytes(60));
+    assertTrue(cap.isOnDisk());
+    // Exceeding the max entry size abandons the capture
+    cap.write(bytes(60));
+    cap.write(bytes(10));
+    cap.store(null);
+    assertNull(rcc.get(key(AUID1, URL1, 1)));
+    assertEquals(0, rcc.getSize());
+
+    // An aborted capture isn't stored
+    cap = rcc.newCapture(key(AUID1, URL1, 1), 20);
+    cap.write(bytes(10));
+    cap.abort();
+    cap.store(null);
+    assertNull(rcc.get(key(AUID1, URL1, 1)));
+  }
+
+  public void testAuEventHandler() {
+    RewrittenContentCache rcc = new RewrittenContentCache(1000, 100);
+    MockArchivalUnit mau = new MockArchivalUnit();
+    mau.setAuId(AUID1);
+    AuEventHandler handler = rcc.getAuEventHandler();
+    AuEvent event = new AuEvent(AuEvent.Type.ContentChanged, false);
+
+    rcc.put(key(AUID1, URL1, 1), bytes(10), null);
+    rcc.put(key(AUID1, URL2, 1), bytes(10), null);
+
+    // Change with known URLs invalidates just those
+    AuEventHandler.ChangeInfo info = new AuEventHandler.ChangeInfo();
+    info.setUrls(ListUtil.list(URL2));
+    info.setNumUrls(1);
+    handler.auContentChanged(event, mau, info);
+    assertNotNull(rcc.get(key(AUID1, URL1, 1)));
+    assertNull(rcc.get(key(AUID1, URL2, 1)));
+
+    // Change with unknown URLs invalidates the whole AU
+    info = new AuEventHandler.ChangeInfo();
+    info.setNumUrls(5000);
+    handler.auContentChanged(event, mau, info);
+    assertNull(rcc.get(key(AUID1, URL1, 1)));
+
+    rcc.put(key(AUID1, URL1, 1), bytes(10), null);
+    handler.auDeleted(new AuEvent(AuEvent.Type.Delete, false), mau);
+    assertNull(rcc.get(key(AUID1, URL1, 1)));
+  }
+}
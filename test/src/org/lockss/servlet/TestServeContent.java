@@ -32,10 +32,17 @@ POSSIBILITY OF SUCH DAMAGE.
 
 package org.lockss.servlet;
 
+import java.io.*;
+import java.util.*;
+
 import org.lockss.test.*;
 import org.lockss.util.*;
+import org.lockss.plugin.*;
+import org.lockss.state.*;
 import org.lockss.servlet.ServeContent.PubState;
 import org.lockss.servlet.ServeContent.MissingFileAction;
+import org.mortbay.http.InclusiveByteRange;
+import com.meterware.httpunit.*;
 
 public class TestServeContent extends LockssServletTestCase {
 
@@ -162,6 +169,163 @@ public class TestServeContent extends LockssServletTestCase {
 
   }
 
+  public void testEtagMatches() {
+    String etag = "\"3-1a2b3c\"";
+    assertTrue(ServeContent.etagMatches(etag, etag));
+    assertTrue(ServeContent.etagMatches("*", etag));
+    assertTrue(ServeContent.etagMatches("\"1-ffff\", " + etag, etag));
+    assertTrue(ServeContent.etagMatches("W/" + etag, etag));
+    assertFalse(ServeContent.etagMatches("\"2-1a2b3c\"", etag));
+    assertFalse(ServeContent.etagMatches("\"1-ffff\", \"2-eeee\"", etag));
+    assertFalse(ServeContent.etagMatches("3-1a2b3c", etag));
+  }
+
+  public void testGetSatisfiableRanges() {
+    List<InclusiveByteRange> ranges =
+      ServeContent.getSatisfiableRanges(ranges("bytes=0-99"), 1000);
+    assertEquals(1, ranges.size());
+    InclusiveByteRange ibr = ranges.get(0);
+    assertEquals(0, ibr.getFirst(1000));
+    assertEquals(100, ibr.getSize(1000));
+    assertEquals("bytes 0-99/1000", ibr.toHeaderRangeString(1000));
+
+    // Suffix range
+    ranges = ServeContent.getSatisfiableRanges(ranges("bytes=-10"), 1000);
+    ibr = ranges.get(0);
+    assertEquals(990, ibr.getFirst(1000));
+    assertEquals(10, ibr.getSize(1000));
+
+    ranges = ServeContent.getSatisfiableRanges(ranges("bytes=500-599,0-9"),
+					       1000);
+    assertEquals(2, ranges.size());
+
+    // Unsatisfiable
+    ranges = ServeContent.getSatisfiableRanges(ranges("bytes=2000-2100"),
+					       1000);
+    assertNotNull(ranges);
+    assertEmpty(ranges);
+  }
+
+  Enumeration ranges(String hdr) {
+    return Collections.enumeration(ListUtil.list(hdr));
+  }
+
+  static final String URL = "http://pub.host/path/file.txt";
+  static final String CONTENT = "0123456789abcdef";
+
+  private MockArchivalUnit mau;
+
+  // Serve a CU through the servlet, with proxying to the publisher
+  // disabled so that content always comes from the cache.
+  CountingCachedUrl setUpCachedContent() throws Exception {
+    setUpDiskSpace();
+    ConfigurationUtil.addFromArgs(ServeContent.PARAM_NEVER_PROXY, "true");
+    PluginManager pluginMgr = new PluginManager();
+    theDaemon.setPluginManager(pluginMgr);
+    theDaemon.setDaemonInited(true);
+    pluginMgr.initService(theDaemon);
+    pluginMgr.startService();
+    theDaemon.setAusStarted(true);
+
+    mau = new MockArchivalUnit();
+    mau.setPlugin(new MockPlugin(theDaemon));
+    PluginTestUtil.registerArchivalUnit(mau.getPlugin(), mau);
+    MockNodeManager nm = new MockNodeManager();
+    theDaemon.setNodeManager(nm, mau);
+    nm.setAuState(new MockAuState());
+    CountingCachedUrl cu = new CountingCachedUrl(URL, mau);
+    cu.setContent(CONTENT);
+    cu.setExists(true);
+    cu.setProperty(CachedUrl.PROPERTY_CONTENT_TYPE, "text/plain");
+    mau.addCu(cu);
+
+    initServletRunner();
+    sRunner.registerServlet("/ServeContent", ServeContent.class.getName());
+    sRunner.setServletContextAttribute(LockssServlet.ATTR_ALLOW_ROLES,
+				       ListUtil.list(LockssServlet.ROLE_CONTENT_ACCESS));
+    return cu;
+  }
+
+  WebRequest contentRequest() {
+    WebRequest req = new GetMethodWebRequest("http://null/ServeContent");
+    req.setParameter("url", URL);
+    req.setParameter("auid", mau.getAuId());
+    return req;
+  }
+
+  public void testIfNoneMatch() throws Exception {
+    CountingCachedUrl cu = setUpCachedContent();
+    WebResponse resp1 = sClient.getResponse(contentRequest());
+    assertResponseOk(resp1);
+    assertEquals(CONTENT, resp1.getText());
+    String etag = resp1.getHeaderField("ETag");
+    assertNotNull(etag);
+    assertEquals(1, cu.opens);
+
+    WebRequest req = contentRequest();
+    req.setHeaderField("If-None-Match", etag);
+    WebResponse resp2 = sClient.getResponse(req);
+    assertEquals(304, resp2.getResponseCode());
+    assertEquals(etag, resp2.getHeaderField("ETag"));
+    assertEquals("", resp2.getText());
+    // Content wasn't opened
+    assertEquals(1, cu.opens);
+
+    req = contentRequest();
+    req.setHeaderField("If-None-Match", "\"0-ffff\"");
+    WebResponse resp3 = sClient.getResponse(req);
+    assertResponseOk(resp3);
+    assertEquals(CONTENT, resp3.getText());
+  }
+
+  public void testSingleRange() throws Exception {
+    setUpCachedContent();
+    WebRequest req = contentRequest();
+    req.setHeaderField("Range", "bytes=4-9");
+    WebResponse resp = sClient.getResponse(req);
+    assertEquals(206, resp.getResponseCode());
+    assertEquals("bytes 4-9/16", resp.getHeaderField("Content-Range"));
+    assertEquals("6", resp.getHeaderField("Content-Length"));
+    assertEquals("bytes", resp.getHeaderField("Accept-Ranges"));
+    assertEquals("456789", resp.getText());
+  }
+
+  public void testUnsatisfiableRange() throws Exception {
+    setUpCachedContent();
+    WebRequest req = contentRequest();
+    req.setHeaderField("Range", "bytes=100-200");
+    sClient.setExceptionsThrownOnErrorStatus(false);
+    WebResponse resp = sClient.getResponse(req);
+    assertEquals(416, resp.getResponseCode());
+    assertEquals("bytes */16", resp.getHeaderField("Content-Range"));
+  }
+
+  public void testSkipFully() throws Exception {
+    InputStream in = new StringInputStream("0123456789");
+    ServeContent.skipFully(in, 4);
+    assertEquals('4', in.read());
+    ServeContent.skipFully(in, 0);
+    assertEquals('5', in.read());
+    try {
+      ServeContent.skipFully(in, 10);
+      fail("Should have thrown EOFException");
+    } catch (EOFException e) {
+    }
+  }
+
+  static class CountingCachedUrl extends MockCachedUrl {
+    int opens = 0;
+
+    CountingCachedUrl(String url, ArchivalUnit au) {
+      super(url, au);
+    }
+
+    public InputStream getUnfilteredInputStream() {
+      opens++;
+      return super.getUnfilteredInputStream();
+    }
+  }
+
   class MyServeContent extends ServeContent {
     boolean isNeverProxy = false;
     protected boolean isNeverProxy() {
@@ -38,6 +38,7 @@ import java.net.*;
 import java.util.*;
 
 import junit.framework.Test;
+import org.apache.commons.lang3.StringUtils;
 
 import org.lockss.config.CurrentConfig;
 import org.lockss.daemon.*;
@@ -105,6 +106,10 @@ public abstract class TestHistoryRepositoryImpl extends LockssTestCase {
     mau = new MockArchivalUnit(new MockPlugin(theDaemon));
     tempDirPath = getTempDir().getAbsolutePath() + File.separator;
     configHistoryParams(tempDirPath);
+    // Most tests here check the XML files; the state store is enabled
+    // by the tests that exercise it.
+    ConfigurationUtil.addFromArgs(HistoryRepositoryImpl.PARAM_STATE_STORE,
+                                  "false");
     repository = (HistoryRepositoryImpl)
         HistoryRepositoryImpl.createNewHistoryRepository(mau);
     repository.initService(theDaemon);
@@ -709,6 +714,308 @@ public abstract class TestHistoryRepositoryImpl extends LockssTestCase {
 //    assertEquals(0.8f, id2.getHighestPercentAgreementHint());
 //  }
 
+  void enableStateStore(boolean enable) {
+    ConfigurationUtil.addFromArgs(HistoryRepositoryImpl.PARAM_STATE_STORE,
+                                  Boolean.toString(enable));
+  }
+
+  File stateStoreFile() {
+    return new File(LockssRepositoryImpl.mapAuToFileLocation(tempDirPath, mau),
+                    HistoryRepositoryImpl.STATE_STORE_FILE_NAME);
+  }
+
+  File auStateXmlFile() {
+    return new File(LockssRepositoryImpl.mapAuToFileLocation(tempDirPath, mau),
+                    HistoryRepositoryImpl.AU_FILE_NAME);
+  }
+
+  HistoryRepositoryImpl newRepository() {
+    HistoryRepositoryImpl res = (HistoryRepositoryImpl)
+        HistoryRepositoryImpl.createNewHistoryRepository(mau);
+    res.initService(theDaemon);
+    return res;
+  }
+
+  public void testStateStoreAuState() throws Exception {
+    enableStateStore(true);
+    HashSet strCol = new HashSet();
+    strCol.add("test");
+    AuState origState = new AuState(mau,
+				    123000, 123123, 41, "woop woop",
+				    -1, -1, -1, "deep woop", -1,
+				    321000, 222000, 3, "pollres", 12345,
+				    456000, strCol,
+				    AuState.AccessType.OpenAccess,
+				    2, 0.75, 0.875,
+				    SubstanceChecker.State.Yes,
+				    "SubstVer3", "MetadatVer7", 111444,
+				    12345,
+				    111222, // lastPoPPoll
+				    7, // lastPoPPollResult
+				    222333, // lastLocalHashScan
+				    444777, // numAgreePeersLastPoR
+				    777444, // numWillingRepairers
+				    747474, // numCurrentSuspectVersions
+				    ListUtil.list("http://hos.t/pa/th"),
+				    repository);
+    repository.storeAuState(origState);
+    assertTrue(stateStoreFile().exists());
+    assertFalse(auStateXmlFile().exists());
+
+    // Load through a new instance so the state comes from the file
+    AuState loadedState = newRepository().loadAuState();
+    assertEquals(123000, loadedState.getLastCrawlTime());
+    assertEquals(123123, loadedState.getLastCrawlAttempt());
+    assertEquals(41, loadedState.getLastCrawlResult());
+    assertEquals("woop woop", loadedState.getLastCrawlResultMsg());
+    assertEquals("deep woop", loadedState.getLastDeepCrawlResultMsg());
+    assertEquals(321000, loadedState.getLastTopLevelPollTime());
+    assertEquals(222000, loadedState.getLastPollStart());
+    assertEquals(3, loadedState.getLastPollResult());
+    assertEquals(12345, loadedState.getPollDuration());
+    assertEquals(2, loadedState.getClockssSubscriptionStatus());
+    assertEquals(0.75, loadedState.getV3Agreement());
+    assertEquals(0.875, loadedState.getHighestV3Agreement());
+    assertEquals(AuState.AccessType.OpenAccess, loadedState.getAccessType());
+    assertEquals(SubstanceChecker.State.Yes, loadedState.getSubstanceState());
+    assertEquals("SubstVer3",
+		 loadedState.getFeatureVersion(Plugin.Feature.Substance));
+    assertEquals("MetadatVer7",
+		 loadedState.getFeatureVersion(Plugin.Feature.Metadata));
+    assertEquals(111444, loadedState.getLastMetadataIndex());
+    assertEquals(12345, loadedState.getLastContentChange());
+    assertEquals(111222, loadedState.getLastPoPPoll());
+    assertEquals(7, loadedState.getLastPoPPollResult());
+    assertEquals(222333, loadedState.getLastLocalHashScan());
+    assertEquals(444777, loadedState.getNumAgreePeersLastPoR());
+    assertEquals(777444, loadedState.getNumWillingRepairers());
+    assertEquals(747474, loadedState.getNumCurrentSuspectVersions());
+    assertEquals(ListUtil.list("http://hos.t/pa/th"),
+		 loadedState.getCdnStems());
+    assertEquals(SetUtil.set("test"), loadedState.getCrawlUrls());
+    assertEquals(mau.getAuId(), loadedState.getArchivalUnit().getAuId());
+
+    // Unchanged state isn't rewritten
+    long len = stateStoreFile().length();
+    repository.storeAuState(loadedState);
+    assertEquals(len, stateStoreFile().length());
+
+    // Default values survive
+    repository.storeAuState(new AuState(mau, repository));
+    loadedState = newRepository().loadAuState();
+    assertEquals(-1, loadedState.getLastCrawlTime());
+    assertNull(loadedState.getAccessType());
+    assertEquals(SubstanceChecker.State.Unknown,
+		 loadedState.getSubstanceState());
+    assertEquals(AuState.MigrationState.NotStarted,
+		 loadedState.getMigrationState());
+    assertEmpty(loadedState.getCdnStems());
+  }
+
+  public void testStateStoreLongStrings() throws Exception {
+    enableStateStore(true);
+    // Both longer than writeUTF() can write
+    String longMsg = StringUtils.repeat("r\u00e9sultat ", 10000);
+    String longStem = "http://hos.t/" + StringUtils.repeat("p", 70000);
+    AuState origState = new AuState(mau,
+				    123000, 123123, 41, longMsg,
+				    -1, -1, -1, "deep woop", -1,
+				    321000, 222000, 3, "pollres", 12345,
+				    456000, null,
+				    AuState.AccessType.OpenAccess,
+				    2, 0.75, 0.875,
+				    SubstanceChecker.State.Yes,
+				    "SubstVer3", "MetadatVer7", 111444,
+				    12345, 111222, 7, 222333, 444777, 777444, 747474,
+				    ListUtil.list(longStem),
+				    repository);
+    repository.storeAuState(origState);
+
+    AuState loadedState = newRepository().loadAuState();
+    assertEquals(longMsg, loadedState.getLastCrawlResultMsg());
+    assertEquals(ListUtil.list(longStem), loadedState.getCdnStems());
+  }
+
+  public void testStateStoreDamagedNodeSet() throws Exception {
+    enableStateStore(true);
+    DamagedNodeSet damNodes = new DamagedNodeSet(mau, repository);
+    damNodes.nodesWithDamage.add("test1");
+    damNodes.cusToRepair.put("cus1", ListUtil.list("cus1-1", "cus1-2"));
+    repository.storeDamagedNodeSet(damNodes);
+    assertTrue(stateStoreFile().exists());
+
+    damNodes = newRepository().loadDamagedNodeSet();
+    assertTrue(damNodes.containsWithDamage("test1"));
+    assertFalse(damNodes.containsWithDamage("test2"));
+    MockCachedUrlSet mcus1 = new MockCachedUrlSet("cus1");
+    assertTrue(damNodes.containsToRepair(mcus1, "cus1-1"));
+    assertTrue(damNodes.containsToRepair(mcus1, "cus1-2"));
+    assertEquals(mau.getAuId(), damNodes.getArchivalUnit().getAuId());
+  }
+
+  public void testStateStoreNodeState() throws Exception {
+    TimeBase.setSimulated(123321);
+    enableStateStore(true);
+    CachedUrlSet mcus = new MockCachedUrlSet(mau, new RangeCachedUrlSetSpec(
+        "http://www.example.com"));
+    List polls = ListUtil.list(new PollState(1, "sdf", null, 2, 123,
+                                             Deadline.at(456), true));
+    NodeStateImpl nodeState =
+      new NodeStateImpl(mcus, 123321, new CrawlState(1, 2, 123), polls,
+                        repository);
+    nodeState.setState(NodeState.DAMAGE_AT_OR_BELOW);
+    repository.storeNodeState(nodeState);
+    List histories = NodeHistoryBean.fromBeanListToList(
+        ListUtil.list(createPollHistoryBean(3), createPollHistoryBean(2)));
+    nodeState.setPollHistoryList(histories);
+    repository.storePollHistories(nodeState);
+    String nodePath =
+      LockssRepositoryImpl.mapUrlToFileLocation(
+          LockssRepositoryImpl.mapAuToFileLocation(tempDirPath, mau),
+          "http://www.example.com/");
+    assertFalse(new File(nodePath, HistoryRepositoryImpl.NODE_FILE_NAME)
+                .exists());
+    assertFalse(new File(nodePath, HistoryRepositoryImpl.HISTORY_FILE_NAME)
+                .exists());
+
+    HistoryRepositoryImpl repo2 = newRepository();
+    NodeStateImpl loaded = (NodeStateImpl)repo2.loadNodeState(mcus);
+    assertSame(mcus, loaded.getCachedUrlSet());
+    assertEquals(123321, loaded.getAverageHashDuration());
+    assertEquals(2, loaded.getCrawlState().getStatus());
+    assertEquals(NodeState.DAMAGE_AT_OR_BELOW, loaded.getState());
+    Iterator pollIt = loaded.getActivePolls();
+    PollState loadedPoll = (PollState)pollIt.next();
+    assertEquals("sdf", loadedPoll.getLwrBound());
+    assertNull(loadedPoll.getUprBound());
+    assertEquals(456, loadedPoll.getDeadline().getExpirationTime());
+    assertTrue(loadedPoll.isOurPoll());
+    assertFalse(pollIt.hasNext());
+
+    // A node with no state gets the default
+    CachedUrlSet other = new MockCachedUrlSet(mau, new RangeCachedUrlSetSpec(
+        "http://www.example.com/other"));
+    assertEquals(-1, repo2.loadNodeState(other).getAverageHashDuration());
+
+    repo2.loadPollHistories(loaded);
+    List loadedHist = loaded.getPollHistoryList();
+    assertEquals(2, loadedHist.size());
+    PollHistory expect = (PollHistory)nodeState.getPollHistoryList().get(0);
+    PollHistory hist = (PollHistory)loadedHist.get(0);
+    assertEquals(expect.getType(), hist.getType());
+    assertEquals(expect.getLwrBound(), hist.getLwrBound());
+    assertEquals(expect.getStartTime(), hist.getStartTime());
+    assertEquals(expect.getDuration(), hist.getDuration());
+    Iterator expectIter = expect.getVotes();
+    Iterator voteIter = hist.getVotes();
+    while (expectIter.hasNext()) {
+      Vote expectVote = (Vote)expectIter.next();
+      Vote vote = (Vote)voteIter.next();
+      assertEquals(expectVote.getVoterIdentity(), vote.getVoterIdentity());
+      assertEquals(expectVote.isAgreeVote(), vote.isAgreeVote());
+    }
+    assertFalse(voteIter.hasNext());
+    TimeBase.setReal();
+  }
+
+  public void testStateStoreImportsXml() throws Exception {
+    AuState auState = new AuState(mau, repository);
+    auState.newCrawlFinished(Crawler.STATUS_SUCCESSFUL, "yay");
+    long crawlTime = auState.getLastCrawlTime();
+    repository.storeAuState(auState);
+    assertTrue(auStateXmlFile().exists());
+    assertFalse(stateStoreFile().exists());
+
+    // First load with the store enabled imports the XML file
+    enableStateStore(true);
+    assertEquals(crawlTime, newRepository().loadAuState().getLastCrawlTime());
+    assertTrue(stateStoreFile().exists());
+    // After which the XML file isn't needed
+    assertTrue(auStateXmlFile().delete());
+    assertEquals(crawlTime, newRepository().loadAuState().getLastCrawlTime());
+  }
+
+  public void testStateStoreDisable() throws Exception {
+    enableStateStore(true);
+    AuState auState = new AuState(mau, repository);
+    auState.newCrawlFinished(Crawler.STATUS_SUCCESSFUL, "yay");
+    long crawlTime = auState.getLastCrawlTime();
+    repository.storeAuState(auState);
+    assertFalse(auStateXmlFile().exists());
+
+    // With the store disabled, state is still read from it until
+    // written to the XML file
+    enableStateStore(false);
+    HistoryRepositoryImpl repo2 = newRepository();
+    AuState loaded = repo2.loadAuState();
+    assertEquals(crawlTime, loaded.getLastCrawlTime());
+    repo2.storeAuState(loaded);
+    assertTrue(auStateXmlFile().exists());
+    assertNull(repo2.getStateStore().get(HistoryRepositoryImpl.AU_STATE_KEY));
+    assertEquals(crawlTime, newRepository().loadAuState().getLastCrawlTime());
+  }
+
+  public void testGetAuStateFileExports() throws Exception {
+    enableStateStore(true);
+    AuState auState = new AuState(mau, repository);
+    auState.newCrawlFinished(Crawler.STATUS_SUCCESSFUL, "yay");
+    long crawlTime = auState.getLastCrawlTime();
+    repository.storeAuState(auState);
+    assertFalse(auStateXmlFile().exists());
+
+    File file = repository.getAuStateFile();
+    assertEquals(auStateXmlFile(), file);
+    assertTrue(file.exists());
+    assertEquals(stateStoreFile().lastModified(), file.lastModified());
+    // The exported file is a normal AU state file
+    enableStateStore(false);
+    assertTrue(stateStoreFile().delete());
+    assertEquals(crawlTime, newRepository().loadAuState().getLastCrawlTime());
+  }
+
+  public void testStoreIdentityAgreementJournal() throws Exception {
+    AuAgreements auAgreements = AuAgreements.make(repository, idmgr);
+    auAgreements.signalPartialAgreement(testID1, AgreementType.POR,
+					0.8f, 100);
+    auAgreements.signalPartialAgreement(testID2, AgreementType.POR,
+					0.6f, 200);
+    auAgreements.store(repository);
+    File jnlFile = repository.getIdentityAgreementJournal().getFile();
+    assertTrue(jnlFile.exists());
+    long len = jnlFile.length();
+
+    // Only the changed peer is appended
+    auAgreements.signalPartialAgreement(testID2, AgreementType.POR,
+					0.7f, 300);
+    auAgreements.store(repository);
+    assertTrue(jnlFile.length() > len);
+
+    AuAgreements loaded = AuAgreements.make(repository, idmgr);
+    assertEquals(0.8f, loaded.findPeerAgreement(testID1, AgreementType.POR)
+		 .getPercentAgreement());
+    assertEquals(0.7f, loaded.findPeerAgreement(testID2, AgreementType.POR)
+		 .getPercentAgreement());
+
+    // The XML file is exported on demand, and the journal is still used
+    File xmlFile = repository.getIdentityAgreementFile();
+    assertTrue(xmlFile.exists());
+    assertEquals(jnlFile.lastModified(), xmlFile.lastModified());
+    assertTrue(jnlFile.exists());
+    assertEquals(0.7f, AuAgreements.make(repository, idmgr)
+		 .findPeerAgreement(testID2, AgreementType.POR)
+		 .getPercentAgreement());
+
+    // Storing XML with the journal disabled discards the journal
+    ConfigurationUtil.addFromArgs(HistoryRepositoryImpl.PARAM_AGREEMENT_JOURNAL,
+				  "false");
+    loaded.signalPartialAgreement(testID1, AgreementType.POR, 0.9f, 400);
+    loaded.store(repository);
+    assertFalse(jnlFile.exists());
+    assertEquals(0.9f, AuAgreements.make(repository, idmgr)
+		 .findPeerAgreement(testID1, AgreementType.POR)
+		 .getPercentAgreement());
+  }
+
   /**
    * <p>Verifies that the serializers in use by the history repository
    * are in the correct modes.</p>
@@ -54,6 +54,7 @@ public class LockssTiming extends LockssTestCase {
   String outLabel = "b";
 
   public void setUp() throws Exception {
+    super.setUp();
     buf = new byte[bufsize];
     cbuf = new char[bufsize];
   }
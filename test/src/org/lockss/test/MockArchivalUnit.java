@@ -538,6 +538,16 @@ public class MockArchivalUnit implements ArchivalUnit {
     return urlsToCache.contains(url);
   }
 
+  private Collection<String> includedUrlPrefixes;
+
+  public void setIncludedUrlPrefixes(Collection<String> prefixes) {
+    includedUrlPrefixes = prefixes;
+  }
+
+  public Collection<String> getIncludedUrlPrefixes() {
+    return includedUrlPrefixes;
+  }
+
   public boolean isLoginPageUrl(String url) {
     if (loginUrls == null) return false;
     return loginUrls.contains(url);
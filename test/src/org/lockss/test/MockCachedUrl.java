@@ -57,6 +57,7 @@ public class MockCachedUrl implements CachedUrl {
   private String url;
   private InputStream cachedIS;
   private CIProperties cachedProp = new CIProperties();
+  private Properties hashCache = new Properties();
 
   private boolean isLeaf = true;
 
@@ -413,6 +414,18 @@ public class MockCachedUrl implements CachedUrl {
     return false;
   }
 
+  public String getHashCacheEntry(String key) {
+    return hashCache.getProperty(key);
+  }
+
+  public void putHashCacheEntry(String key, String value) {
+    hashCache.setProperty(key, value);
+  }
+
+  public Properties getHashCache() {
+    return hashCache;
+  }
+
   public String toString() {
     StringBuffer sb = new StringBuffer(url.length()+17);
     sb.append("[MockCachedUrl: ");
@@ -51,6 +51,7 @@ public class MockHistoryRepository implements HistoryRepository {
   public DamagedNodeSet theDamagedNodeSet;
   public HashMap storedNodes = new HashMap();
   private File auStateFile = null;
+  private File crawlCheckpointFile = null;
 
   private Object storedIdentityAgreement = null;
   private Object loadedIdentityAgreement = null;
@@ -127,6 +128,14 @@ public class MockHistoryRepository implements HistoryRepository {
     return -1;
   }
 
+  public File getCrawlCheckpointFile() {
+    return crawlCheckpointFile;
+  }
+
+  public void setCrawlCheckpointFile(File file) {
+    crawlCheckpointFile = file;
+  }
+
   public void setAuStateFile(File file) {
     auStateFile = file;
   }
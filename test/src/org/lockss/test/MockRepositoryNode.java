@@ -54,6 +54,7 @@ public class MockRepositoryNode implements RepositoryNode {
   public Properties curProps;
   public int currentVersion = -1;
   public HashSet agreeingPeers = new HashSet();
+  public Properties hashCache = new Properties();
   boolean isIdenticalVersion = false;
 
   public String url;
@@ -208,6 +209,14 @@ public class MockRepositoryNode implements RepositoryNode {
     return agreeingPeers.contains(id);
   }
   
+  public String getHashCacheEntry(String key) {
+    return hashCache.getProperty(key);
+  }
+
+  public void putHashCacheEntry(String key, String value) {
+    hashCache.setProperty(key, value);
+  }
+
   public OutputStream getNewOutputStream() {
     throw new UnsupportedOperationException("Not supported.");
   }
@@ -304,6 +304,13 @@ public class NullPlugin {
     public boolean isArchiveMember() {
       return false;
     }
+
+    public String getHashCacheEntry(String key) {
+      return null;
+    }
+
+    public void putHashCacheEntry(String key, String value) {
+    }
   }
 
   /**
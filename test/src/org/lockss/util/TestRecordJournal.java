@@ -0,0 +1,194 @@
+/*
+
+Copyright (c) 2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+
+
+package org.lockss.util;
+
+import java.io.*;
+import java.util.*;
+import org.lockss.test.*;
+
+public class TestRecordJournal extends LockssTestCase {
+  File dir;
+  File file;
+  RecordJournal jnl;
+
+  public void setUp() throws Exception {
+    super.setUp();
+    dir = getTempDir();
+    file = new File(dir, "test.jnl");
+    jnl = new RecordJournal(file);
+  }
+
+  Map<String,byte[]> recs(String... keyVals) {
+    Map<String,byte[]> res = new LinkedHashMap<String,byte[]>();
+    for (int ix = 0; ix < keyVals.length; ix += 2) {
+      String val = keyVals[ix + 1];
+      res.put(keyVals[ix], val == null ? null : val.getBytes());
+    }
+    return res;
+  }
+
+  void assertRecs(Map<String,byte[]> exp, Map<String,byte[]> act) {
+    assertEquals(exp.keySet(), act.keySet());
+    for (String key : exp.keySet()) {
+      assertTrue(key, Arrays.equals(exp.get(key), act.get(key)));
+    }
+  }
+
+  public void testReadMissing() throws Exception {
+    assertFalse(jnl.exists());
+    try {
+      jnl.read();
+      fail("Should throw on missing journal");
+    } catch (FileNotFoundException e) {
+    }
+  }
+
+  public void testNotAJournal() throws Exception {
+    FileTestUtil.writeFile(file, "this is not a journal file");
+    try {
+      jnl.read();
+      fail("Should throw on a non-journal");
+    } catch (IOException e) {
+    }
+  }
+
+  public void testWriteAllRead() throws Exception {
+    jnl.writeAll(recs("k1", "v1", "k2", "", "k3", "value three"));
+    assertTrue(jnl.exists());
+    assertFalse(new File(dir, "test.jnl.tmp").exists());
+    assertRecs(recs("k1", "v1", "k2", "", "k3", "value three"), jnl.read());
+    jnl.writeAll(recs("k4", "v4"));
+    assertRecs(recs("k4", "v4"), jnl.read());
+  }
+
+  public void testAppend() throws Exception {
+    // Append to a missing journal creates it, ignoring removals
+    jnl.append(recs("k1", "v1", "k2", "v2", "k0", null));
+    assertRecs(recs("k1", "v1", "k2", "v2"), jnl.read());
+    long len = file.length();
+    jnl.append(recs());
+    assertEquals(len, file.length());
+    jnl.append(recs("k2", "v2a", "k1", null, "k3", "v3"));
+    assertTrue(file.length() > len);
+    assertRecs(recs("k2", "v2a", "k3", "v3"), jnl.read());
+    List<String> keys = new ArrayList<String>(jnl.read().keySet());
+    assertEquals(ListUtil.list("k2", "k3"), keys);
+  }
+
+  public void testTornTail() throws Exception {
+    jnl.writeAll(recs("k1", "v1"));
+    jnl.append(recs("k2", "v2"));
+    long goodLen = file.length();
+    jnl.append(recs("k3", "v3"));
+    // Chop off the last few bytes of the last record
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    raf.setLength(file.length() - 3);
+    raf.close();
+    assertRecs(recs("k1", "v1", "k2", "v2"), jnl.read());
+    // The partial record has been truncated, so further appends work
+    assertEquals(goodLen, file.length());
+    jnl.append(recs("k4", "v4"));
+    assertRecs(recs("k1", "v1", "k2", "v2", "k4", "v4"), jnl.read());
+  }
+
+  public void testCorruptRecord() throws Exception {
+    jnl.writeAll(recs("k1", "v1"));
+    long goodLen = file.length();
+    jnl.append(recs("k2", "v2"));
+    jnl.append(recs("k3", "v3"));
+    // Flip a byte in the body of the second record
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    raf.seek(goodLen + 6);
+    int b = raf.read();
+    raf.seek(goodLen + 6);
+    raf.write(b ^ 0xff);
+    raf.close();
+    assertRecs(recs("k1", "v1"), jnl.read());
+    assertEquals(goodLen, file.length());
+  }
+
+  public void testCompaction() throws Exception {
+    jnl.setCompaction(2.0, 0);
+    Map<String,byte[]> all = recs("k1", "v1", "k2", "v2");
+    jnl.store(all, all);
+    long compactLen = file.length();
+    assertFalse(jnl.needsCompaction());
+    Map<String,byte[]> chg = recs("k1", "v1a");
+    all.putAll(chg);
+    jnl.store(chg, all);
+    assertTrue(file.length() > compactLen);
+    assertFalse(jnl.needsCompaction());
+    for (int ix = 0; !jnl.needsCompaction(); ix++) {
+      chg = recs("k1", "v1-" + ix);
+      all.putAll(chg);
+      jnl.store(chg, all);
+    }
+    assertTrue(file.length() > 2 * compactLen);
+    chg = recs("k2", null);
+    all.remove("k2");
+    jnl.store(chg, all);
+    assertFalse(jnl.needsCompaction());
+    assertTrue(file.length() < compactLen);
+    assertRecs(all, jnl.read());
+  }
+
+  public void testCompactionMinLength() throws Exception {
+    jnl.setCompaction(1.0, 1000);
+    jnl.writeAll(recs("k1", "v1"));
+    jnl.append(recs("k1", "v2"));
+    assertFalse(jnl.needsCompaction());
+  }
+
+  public void testDiff() throws Exception {
+    Map<String,byte[]> stored = recs("k1", "v1", "k2", "v2", "k3", "v3");
+    Map<String,byte[]> current = recs("k1", "v1", "k2", "v2a", "k4", "v4");
+    Map<String,byte[]> diff = RecordJournal.diff(stored, current);
+    assertRecs(recs("k2", "v2a", "k4", "v4", "k3", null), diff);
+    assertEmpty(RecordJournal.diff(current, current));
+  }
+
+  public void testIsNewerThan() throws Exception {
+    File other = new File(dir, "other.xml");
+    assertFalse(jnl.isNewerThan(other));
+    jnl.writeAll(recs("k1", "v1"));
+    assertTrue(jnl.isNewerThan(other));
+    FileTestUtil.writeFile(other, "xml");
+    other.setLastModified(file.lastModified() + 10000);
+    assertFalse(jnl.isNewerThan(other));
+    other.setLastModified(file.lastModified());
+    assertTrue(jnl.isNewerThan(other));
+    other.setLastModified(file.lastModified() - 10000);
+    assertTrue(jnl.isNewerThan(other));
+    jnl.delete();
+    assertFalse(jnl.exists());
+    assertFalse(jnl.isNewerThan(other));
+  }
+}
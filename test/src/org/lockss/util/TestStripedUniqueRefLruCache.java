@@ -0,0 +1,163 @@
+/*
+
+Copyright (c) 2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+
+package org.lockss.util;
+
+import java.util.*;
+import org.lockss.test.*;
+
+/**
+ * This is the test class for org.lockss.util.StripedUniqueRefLruCache
+ */
+public class TestStripedUniqueRefLruCache extends LockssTestCase {
+  private StripedUniqueRefLruCache cache;
+
+  public void setUp() throws Exception {
+    super.setUp();
+    cache = new StripedUniqueRefLruCache(40, 4);
+  }
+
+  public void testConstructor() throws Exception {
+    assertEquals(StripedUniqueRefLruCache.DEFAULT_STRIPES,
+		 new StripedUniqueRefLruCache(100).getStripes());
+    assertEquals(4, cache.getStripes());
+    try {
+      new StripedUniqueRefLruCache(0, 4);
+      fail("Should have thrown IllegalArgumentException.");
+    } catch (IllegalArgumentException iae) { }
+    try {
+      new StripedUniqueRefLruCache(10, 0);
+      fail("Should have thrown IllegalArgumentException.");
+    } catch (IllegalArgumentException iae) { }
+  }
+
+  public void testMaxSize() throws Exception {
+    assertEquals(40, cache.getMaxSize());
+    for (int ii=0; ii<200; ii++) {
+      cache.put("test"+ii, new Object());
+    }
+    assertTrue(cache.snapshot().size() <= 40);
+
+    cache.setMaxSize(10);
+    assertEquals(10, cache.getMaxSize());
+    assertTrue(cache.snapshot().size() <= 10);
+
+    // Every stripe holds at least one entry, so the size can't be set
+    // below the number of stripes
+    cache.setMaxSize(2);
+    assertEquals(4, cache.getMaxSize());
+    for (int ii=0; ii<200; ii++) {
+      cache.put("test"+ii, new Object());
+    }
+    assertTrue(cache.snapshot().size() <= 4);
+
+    // Fewer entries than stripes limits the number of stripes
+    StripedUniqueRefLruCache small = new StripedUniqueRefLruCache(3, 16);
+    assertEquals(3, small.getStripes());
+    assertEquals(3, small.getMaxSize());
+    for (int ii=0; ii<200; ii++) {
+      small.put("test"+ii, new Object());
+    }
+    assertTrue(small.snapshot().size() <= 3);
+
+    try {
+      cache.setMaxSize(0);
+      fail("Should have thrown IllegalArgumentException.");
+    } catch (IllegalArgumentException iae) { }
+  }
+
+  public void testCaching() throws Exception {
+    assertNull(cache.get("foo"));
+    assertEquals(0, cache.getCacheHits());
+    assertEquals(1, cache.getCacheMisses());
+    assertEquals(1, cache.getRefMisses());
+
+    Object obj = new Object();
+    cache.put("foo", obj);
+    cache.put("bar", new Object());
+    assertSame(obj, cache.get("foo"));
+    assertNotNull(cache.get("bar"));
+    assertEquals(2, cache.getCacheHits());
+    assertEquals(1, cache.getCacheMisses());
+  }
+
+  public void testPutIfNew() throws Exception {
+    Object o2 = new Object();
+    assertSame(o2, cache.putIfNew("foo", o2));
+    assertSame(o2, cache.putIfNew("foo", new Object()));
+    assertSame(o2, cache.get("foo"));
+  }
+
+  public void testUniqueRefAfterLruEviction() throws Exception {
+    Object obj = new Object();
+    cache.put("bar", obj);
+    // Overflow every stripe's LRU map; obj is still strongly held here
+    for (int ii=0; ii<1000; ii++) {
+      cache.put("key_" + ii, new Object());
+    }
+    assertSame(obj, cache.putIfNew("bar", new Object()));
+    assertEquals(1, cache.getRefHits());
+  }
+
+  public void testSnapshotAndClear() throws Exception {
+    Object o1 = new Object();
+    Object o2 = new Object();
+    cache.put("frob", o1);
+    cache.put("frob/test1", o2);
+    assertEquals(SetUtil.set(o1, o2), cache.snapshot());
+    cache.clear();
+    assertEmpty(cache.snapshot());
+    assertNull(cache.get("frob"));
+  }
+
+  public void testConcurrentPutIfNew() throws Exception {
+    final int nThreads = 4;
+    final int nKeys = 200;
+    final Object[][] results = new Object[nThreads][nKeys];
+    Thread[] threads = new Thread[nThreads];
+    for (int t = 0; t < nThreads; t++) {
+      final int tn = t;
+      threads[t] = new Thread() {
+	  public void run() {
+	    for (int k = 0; k < nKeys; k++) {
+	      results[tn][k] = cache.putIfNew("k" + k, new Object());
+	    }
+	  }};
+      threads[t].start();
+    }
+    for (Thread th : threads) {
+      th.join(TIMEOUT_SHOULDNT);
+    }
+    for (int k = 0; k < nKeys; k++) {
+      for (int t = 1; t < nThreads; t++) {
+	assertSame(results[0][k], results[t][k]);
+      }
+    }
+  }
+}
@@ -105,14 +105,14 @@ public class TestUniqueRefLruCache extends LockssTestCase {
 
     Object obj2 = null;
     int loopSize = 1;
-    int refHits = 0;
+    long refHits = 0;
     // create objs in a loop until fetching the original creates a cache miss
     while (true) {
       loopSize *= 2;
       for (int ii=0; ii<loopSize; ii++) {
         cache.put("key_" + ii, new Object());
       }
-      int misses = cache.getCacheMisses();
+      long misses = cache.getCacheMisses();
       refHits = cache.getRefHits();
       obj2 = cache.get("bar");
       if (cache.getCacheMisses() == misses+1) {
@@ -0,0 +1,100 @@
+/*
+
+Copyright (c) 2026 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+
+package org.lockss.util;
+
+import java.util.*;
+import org.lockss.test.*;
+
+/**
+ * Compares contended get/putIfNew throughput of UniqueRefLruCache and
+ * StripedUniqueRefLruCache.  Not run as part of the unit tests.
+ */
+public class TimeUniqueRefLruCache extends LockssTiming {
+  static final int CACHE_SIZE = 500;
+  static final int NUM_KEYS = 2000;
+  static final int OPS_PER_THREAD = 100000;
+  static final int[] THREAD_COUNTS = { 1, 2, 4, 8 };
+
+  String[] keys;
+  // Keep half the values strongly referenced so refMap hits occur
+  Object[] held;
+
+  public void setUp() throws Exception {
+    super.setUp();
+    keys = new String[NUM_KEYS];
+    held = new Object[NUM_KEYS];
+    for (int ix = 0; ix < NUM_KEYS; ix++) {
+      keys[ix] = "http://www.example.com/path/" + ix + ".html";
+    }
+  }
+
+  public void testContention() throws Exception {
+    for (final int threads : THREAD_COUNTS) {
+      final UniqueRefLruCache plain = new UniqueRefLruCache(CACHE_SIZE);
+      time(null, "plain, " + threads + " threads",
+	   new Computation() {
+	     public void execute() throws Exception {
+	       runThreads(plain, threads);
+	     }});
+      final UniqueRefCache striped =
+	new StripedUniqueRefLruCache(CACHE_SIZE);
+      time(null, "striped, " + threads + " threads",
+	   new Computation() {
+	     public void execute() throws Exception {
+	       runThreads(striped, threads);
+	     }});
+    }
+  }
+
+  void runThreads(final UniqueRefCache cache, int nThreads)
+      throws Exception {
+    Thread[] threads = new Thread[nThreads];
+    for (int t = 0; t < nThreads; t++) {
+      final Random rnd = new Random(t);
+      threads[t] = new Thread() {
+	  public void run() {
+	    for (int ix = 0; ix < OPS_PER_THREAD; ix++) {
+	      int k = rnd.nextInt(NUM_KEYS);
+	      Object val = cache.get(keys[k]);
+	      if (val == null) {
+		val = cache.putIfNew(keys[k], new Object());
+	      }
+	      if ((k & 1) == 0) {
+		held[k] = val;
+	      }
+	    }
+	  }};
+      threads[t].start();
+    }
+    for (Thread th : threads) {
+      th.join();
+    }
+  }
+}
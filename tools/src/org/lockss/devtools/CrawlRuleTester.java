@@ -636,5 +636,12 @@ public class CrawlRuleTester extends Thread {
     public boolean isArchiveMember() {
       return false;
     }
+
+    public String getHashCacheEntry(String key) {
+      return null;
+    }
+
+    public void putHashCacheEntry(String key, String value) {
+    }
   }
 }